@@ -23,24 +23,25 @@ package org.jax.qtl.cross;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.jax.analyticgraph.data.NamedCategoricalData;
-import org.jax.analyticgraph.data.NamedData;
 import org.jax.analyticgraph.data.NamedDataMatrix;
-import org.jax.analyticgraph.data.NamedIntegerData;
-import org.jax.analyticgraph.data.NamedRealData;
-import org.jax.analyticgraph.data.SimpleSelectableNamedDataMatrix;
 import org.jax.qtl.fit.FitQtlResult;
 import org.jax.qtl.scan.ScanOneResult;
 import org.jax.qtl.scan.ScanTwoResult;
+import org.jax.qtl.util.RChangeJournal;
+import org.jax.qtl.util.RCommandBatch;
+import org.jax.qtl.util.RObjectMetadataCache;
+import org.jax.qtl.util.RSessionEpoch;
 import org.jax.r.RCommand;
 import org.jax.r.jriutilities.JRIUtilityFunctions;
 import org.jax.r.jriutilities.RInterface;
@@ -48,7 +49,6 @@ import org.jax.r.jriutilities.RObject;
 import org.jax.r.jriutilities.SilentRCommand;
 import org.jax.util.ObjectUtil;
 import org.rosuda.JRI.REXP;
-import org.rosuda.JRI.RFactor;
 
 /**
  * Represents an R cross object
@@ -213,6 +213,12 @@ public class Cross extends RObject
     /**
      * local copy of the phenotype data for this cross
      */
+    private PhenotypeMatrix phenotypeMatrix;
+    
+    /**
+     * boxed view of {@link #phenotypeMatrix} which is built lazily
+     * @see #getPhenotypeData()
+     */
     private NamedDataMatrix<Number> phenotypeData;
     
     /**
@@ -236,6 +242,12 @@ public class Cross extends RObject
     
     private final Set<FitQtlResult> fitQtlResults;
     
+    /**
+     * the {@link RChangeJournal} sequence number that our cached results
+     * are current with
+     */
+    private volatile long resultsSequenceNumber = -1L;
+    
     /**
      * for dealing with bean events
      */
@@ -244,7 +256,7 @@ public class Cross extends RObject
     /**
      * the phenotype sub-component of any cross
      */
-    private static final String PHENO_COMPONENT = "$pheno";
+    static final String PHENO_COMPONENT = "$pheno";
     
     /**
      * These are phenotypes that we just assume are categorical even
@@ -351,7 +363,8 @@ public class Cross extends RObject
     
     /**
      * the property string we use for phenotype data when we fire change
-     * events
+     * events. The old and new values of these events are
+     * {@link PhenotypeMatrix}s
      */
     public static final String PHENOTYPE_DATA_PROPERTY_NAME = "phenotypeData";
     
@@ -460,7 +473,7 @@ public class Cross extends RObject
         // update the cross sub-type
         for(CrossSubType currSubType: CrossSubType.values())
         {
-            if(JRIUtilityFunctions.inheritsRClass(
+            if(RObjectMetadataCache.inheritsRClass(
                     this,
                     currSubType.getTypeString()))
             {
@@ -548,11 +561,27 @@ public class Cross extends RObject
      * @return
      *          the phenotype data
      */
-    public NamedDataMatrix<Number> getPhenotypeData()
+    public synchronized NamedDataMatrix<Number> getPhenotypeData()
     {
+        if(this.phenotypeData == null && this.phenotypeMatrix != null)
+        {
+            this.phenotypeData = this.phenotypeMatrix.toNamedDataMatrix();
+        }
+        
         return this.phenotypeData;
     }
     
+    /**
+     * Getter for the primitive backed phenotype data. Unlike
+     * {@link #getPhenotypeData()} this never boxes any values
+     * @return
+     *          the phenotype matrix
+     */
+    public synchronized PhenotypeMatrix getPhenotypeMatrix()
+    {
+        return this.phenotypeMatrix;
+    }
+    
     /**
      * Get the QTL baskets
      * @return
@@ -579,22 +608,32 @@ public class Cross extends RObject
     }
 
     /**
-     * Update the phenotype data
+     * Update the phenotype data. The phenotypes are pulled from R in a single
+     * evaluation and the boxed {@link NamedDataMatrix} view is only rebuilt
+     * if somebody asks for it after a change
      */
     public void updatePhenotypeData()
     {
-        NamedDataMatrix<Number> newPhenoData = Cross.getPhenotypeDataForCross(
+        PhenotypeMatrix newPhenoMatrix = PhenotypeMatrix.fetchPhenotypeMatrix(
                 this.getRInterface(),
                 this.getAccessorExpressionString());
-        if(!ObjectUtil.areEqual(this.phenotypeData, newPhenoData))
+        PhenotypeMatrix oldPhenoMatrix;
+        synchronized(this)
         {
-            NamedDataMatrix<Number> oldPhenoData = this.phenotypeData;
-            this.phenotypeData = newPhenoData;
-            this.propertyChangeSupport.firePropertyChange(
-                    PHENOTYPE_DATA_PROPERTY_NAME,
-                    oldPhenoData,
-                    newPhenoData);
+            oldPhenoMatrix = this.phenotypeMatrix;
+            if(ObjectUtil.areEqual(oldPhenoMatrix, newPhenoMatrix))
+            {
+                return;
+            }
+            
+            this.phenotypeMatrix = newPhenoMatrix;
+            this.phenotypeData = null;
         }
+        
+        this.propertyChangeSupport.firePropertyChange(
+                PHENOTYPE_DATA_PROPERTY_NAME,
+                oldPhenoMatrix,
+                newPhenoMatrix);
     }
 
     /**
@@ -683,164 +722,15 @@ public class Cross extends RObject
      *          the identifier for the cross that we're interested in
      * @return
      *          the phenotype data matrix
+     * @see PhenotypeMatrix#fetchPhenotypeMatrix(RInterface, String)
      */
     public static NamedDataMatrix<Number> getPhenotypeDataForCross(
             RInterface rInterface,
             String crossIdentifier)
     {
-//        // get all information after read.cross() to create the cross
-//        // pheno data
-//        REXP x = rInterface.evaluateCommand("names(" + crossName + "$pheno)");
-//        String[] phenoNames = rInterface.evaluateCommand("names(" + crossName + "$pheno)").
-//            asStringArray();
-//        int nphe = phenoNames.length;
-//
-//        for (int i = 0; i < nphe; i++) {
-//            rcmd = crossName + "$pheno$" + phenoNames[i];
-//            
-//            // TODO make sure both conditions are unit tested
-//            if (rInterface.evaluateCommand(rcmd).getType() == REXP.XT_ARRAY_DOUBLE) {
-//                double[] phenoDouble = rInterface.evaluateCommand(rcmd).asDoubleArray();
-//                pheno = convertPheno(phenoDouble);
-//            }
-//            else if (rInterface.evaluateCommand(rcmd).getType() == REXP.XT_FACTOR) {
-//                RFactor phenoFactor = rInterface.evaluateCommand(rcmd).asFactor();
-//                pheno = Tools.convertPheno(phenoFactor);
-//            }
-//            boolean isFactor = rInterface.evaluateCommand("is.factor(" + rcmd + ")").asBool().
-//                isTRUE();
-//            if (pd.getPhenoName().equalsIgnoreCase("sex") || pd.getPhenoName().equalsIgnoreCase("pgm"))
-//                 isFactor = true;
-//            pd.setFactor(isFactor);
-//            cross.addPhenoData(pd);
-//        }
-        String phenotypeCommand = crossIdentifier + PHENO_COMPONENT;
-        REXP phenotypesNamesExpression =
-            rInterface.evaluateCommand(
-                    new SilentRCommand("names(" + phenotypeCommand + ")"));
-        String[] phenotypeNames = phenotypesNamesExpression.asStringArray();
-        List<NamedData<Number>> namedPhenotypeData =
-            new ArrayList<NamedData<Number>>(phenotypeNames.length);
-        for(int i = 0; i < phenotypeNames.length; i++)
-        {
-            String currPhenotypeCommand =
-                phenotypeCommand + "$" + phenotypeNames[i];
-            REXP currPhenotypeExpression =
-                rInterface.evaluateCommand(
-                        new SilentRCommand(currPhenotypeCommand));
-            
-            // TODO: need to deal with pgm and sex special cases
-            // TODO test all of these conditions
-            if(currPhenotypeExpression.getType() == REXP.XT_FACTOR)
-            {
-                // TODO this should probably be a separate function
-                // TODO are there any R N/A values that we need to deal
-                //      with here
-                RFactor phenoFactor = currPhenotypeExpression.asFactor();
-                int numFactors = phenoFactor.size();
-                
-                List<String> categoryNamesList = new ArrayList<String>();
-                Integer[] categoryData = new Integer[numFactors];
-                for(int j = 0; j < numFactors; j++)
-                {
-                    String currPhenoStrVal;
-                    
-                    // This try/catch is a workaround for a JRI problem
-                    // reading NA factors
-                    try
-                    {
-                        currPhenoStrVal = phenoFactor.at(j);
-                    }
-                    catch (IndexOutOfBoundsException ex)
-                    {
-                        LOG.log(Level.FINE,
-                                "Caught index out of bounds. Assuming N/A phenotype");
-                        currPhenoStrVal = null;
-                    }
-                    
-                    int currPhenoCatVal = categoryNamesList.indexOf(
-                            currPhenoStrVal);
-                    if(currPhenoCatVal == -1)
-                    {
-                        currPhenoCatVal = categoryNamesList.size();
-                        categoryNamesList.add(currPhenoStrVal);
-                    }
-                    
-                    categoryData[j] = Integer.valueOf(currPhenoCatVal);
-                }
-                
-                NamedCategoricalData currPhenotypeData =
-                    new NamedCategoricalData(
-                            phenotypeNames[i],
-                            categoryData,
-                            categoryNamesList.toArray(
-                                    new String[categoryNamesList.size()]));
-                namedPhenotypeData.add(currPhenotypeData);
-            }
-            else
-            {
-                AssumedCategoricalPhenotype matchingAssumedCategoricalPheno =
-                    AssumedCategoricalPhenotype.getCategoricalPhenotypeWithHeader(
-                            phenotypeNames[i]);
-                if(matchingAssumedCategoricalPheno != null)
-                {
-                    NamedCategoricalData currPhenotypeData =
-                        new NamedCategoricalData(
-                                phenotypeNames[i],
-                                JRIUtilityFunctions.extractIntegerValues(
-                                        currPhenotypeExpression),
-                                matchingAssumedCategoricalPheno.getCategoryNames());
-                    namedPhenotypeData.add(currPhenotypeData);
-                }
-                else if(currPhenotypeExpression.getType() == REXP.XT_ARRAY_DOUBLE)
-                {
-                    Double[] currPhenotypeValues;
-                    {
-                        double[] currPhenotypePrimitiveValues =
-                            currPhenotypeExpression.asDoubleArray();
-                        currPhenotypeValues =
-                            new Double[currPhenotypePrimitiveValues.length];
-                        for(int j = 0; j < currPhenotypePrimitiveValues.length; j++)
-                        {
-                            if(Double.isNaN(currPhenotypePrimitiveValues[j]))
-                            {
-                                currPhenotypeValues[j] = null;
-                            }
-                            else
-                            {
-                                currPhenotypeValues[j] =
-                                    Double.valueOf(currPhenotypePrimitiveValues[j]);
-                            }
-                        }
-                    }
-                    
-                    NamedRealData currPhenotypeData = new NamedRealData(
-                            phenotypeNames[i],
-                            currPhenotypeValues);
-                    namedPhenotypeData.add(currPhenotypeData);
-                }
-                else if(currPhenotypeExpression.getType() == REXP.XT_ARRAY_INT)
-                {
-                    int[] currPhenotypeValues =
-                        currPhenotypeExpression.asIntArray();
-                    NamedIntegerData currPhenotypeData = new NamedIntegerData(
-                            phenotypeNames[i],
-                            currPhenotypeValues);
-                    namedPhenotypeData.add(currPhenotypeData);
-                }
-                else
-                {
-                    // don't know what to do with this one
-                    // TODO should probably throw an exception if this happens
-                    LOG.severe(
-                            "don't know how to translate expression of type: " +
-                            currPhenotypeExpression.getType());
-                }
-            }
-        }
-        
-        return new SimpleSelectableNamedDataMatrix<Number>(
-                namedPhenotypeData);
+        return PhenotypeMatrix.fetchPhenotypeMatrix(
+                rInterface,
+                crossIdentifier).toNamedDataMatrix();
     }
 
     /**
@@ -853,6 +743,108 @@ public class Cross extends RObject
         return this.crossSubType;
     }
     
+    /**
+     * Immutable holder for the individual, chromosome, phenotype and
+     * marker counts of a cross
+     * @see Cross#getCrossDimensions()
+     */
+    public static class CrossDimensions
+    {
+        private final int numberOfIndividuals;
+        
+        private final int numberOfChromosomes;
+        
+        private final int numberOfPhenotypes;
+        
+        private final int[] numberOfMarkers;
+        
+        /**
+         * Constructor
+         * @param numberOfIndividuals
+         *          see {@link #getNumberOfIndividuals()}
+         * @param numberOfChromosomes
+         *          see {@link #getNumberOfChromosomes()}
+         * @param numberOfPhenotypes
+         *          see {@link #getNumberOfPhenotypes()}
+         * @param numberOfMarkers
+         *          see {@link #getNumberOfMarkers()}
+         */
+        public CrossDimensions(
+                int numberOfIndividuals,
+                int numberOfChromosomes,
+                int numberOfPhenotypes,
+                int[] numberOfMarkers)
+        {
+            this.numberOfIndividuals = numberOfIndividuals;
+            this.numberOfChromosomes = numberOfChromosomes;
+            this.numberOfPhenotypes = numberOfPhenotypes;
+            this.numberOfMarkers = numberOfMarkers;
+        }
+        
+        /**
+         * Getter for the number of individuals
+         * @return
+         *          the number of individuals
+         */
+        public int getNumberOfIndividuals()
+        {
+            return this.numberOfIndividuals;
+        }
+        
+        /**
+         * Getter for the number of chromosomes
+         * @return
+         *          the number of chromosomes
+         */
+        public int getNumberOfChromosomes()
+        {
+            return this.numberOfChromosomes;
+        }
+        
+        /**
+         * Getter for the number of phenotypes
+         * @return
+         *          the number of phenotypes
+         */
+        public int getNumberOfPhenotypes()
+        {
+            return this.numberOfPhenotypes;
+        }
+        
+        /**
+         * Getter for the per-chromosome marker counts
+         * @return
+         *          the marker counts
+         */
+        public int[] getNumberOfMarkers()
+        {
+            return this.numberOfMarkers.clone();
+        }
+    }
+    
+    /**
+     * Get all of the cross counts using a single R evaluation. Use this
+     * rather than the individual getters when you need more than one count.
+     * @return
+     *          the dimensions
+     */
+    public CrossDimensions getCrossDimensions()
+    {
+        String accessor = this.getAccessorExpressionString();
+        REXP[] results = RCommandBatch.evaluateExpressions(
+                this.getRInterface(),
+                "nind(" + accessor + ")",
+                "nchr(" + accessor + ")",
+                "nphe(" + accessor + ")",
+                "as.integer(nmar(" + accessor + "))");
+        int[] numberOfMarkers = results[3].asIntArray();
+        return new CrossDimensions(
+                results[0].asInt(),
+                results[1].asInt(),
+                results[2].asInt(),
+                numberOfMarkers == null ? new int[0] : numberOfMarkers);
+    }
+    
     /**
      * Gets the number of individuals in this cross
      * @return
@@ -920,7 +912,7 @@ public class Cross extends RObject
             this.getAccessorExpressionString() + ")";
         
         this.getRInterface().insertComment(errorLodComment);
-        this.getRInterface().evaluateCommandNoReturn(errorLodCommand);
+        RSessionEpoch.evaluateCommandNoReturn(this.getRInterface(), errorLodCommand);
     }
     
     /**
@@ -930,16 +922,176 @@ public class Cross extends RObject
      */
     public Set<ScanOneResult> getScanOneResults()
     {
-        // grab all scanone results
-        List<RObject> allScanoneResultRObjects = JRIUtilityFunctions.getTopLevelObjectsOfType(
-                this.getRInterface(),
-                ScanOneResult.SCANONE_RESULT_TYPE_STRING);
+        if(!this.isResultsCurrent())
+        {
+            // grab all scanone results
+            List<RObject> allScanoneResultRObjects = JRIUtilityFunctions.getTopLevelObjectsOfType(
+                    this.getRInterface(),
+                    ScanOneResult.SCANONE_RESULT_TYPE_STRING);
+            this.synchronizeScanOneResults(allScanoneResultRObjects, null);
+        }
+        
+        return this.getCachedScanOneResults();
+    }
+    
+    /**
+     * Get the scanone results that we found the last time that we looked
+     * at R. Unlike {@link #getScanOneResults()} this never talks to R
+     * @return
+     *          a copy of the cached scanone results
+     */
+    public Set<ScanOneResult> getCachedScanOneResults()
+    {
+        synchronized(this.scanOneResults)
+        {
+            return new HashSet<ScanOneResult>(this.scanOneResults);
+        }
+    }
+    
+    /**
+     * Get the scantwo results
+     * @return
+     *          the resutls
+     */
+    public Set<ScanTwoResult> getScanTwoResults()
+    {
+        if(!this.isResultsCurrent())
+        {
+            // grab all scantwo results
+            List<RObject> allScantwoResultRObjects = JRIUtilityFunctions.getTopLevelObjectsOfType(
+                    this.getRInterface(),
+                    ScanTwoResult.SCANTWO_RESULT_TYPE_STRING);
+            this.synchronizeScanTwoResults(allScantwoResultRObjects, null);
+        }
+        
+        return this.getCachedScanTwoResults();
+    }
+    
+    /**
+     * Get the scantwo results that we found the last time that we looked
+     * at R. Unlike {@link #getScanTwoResults()} this never talks to R
+     * @return
+     *          a copy of the cached scantwo results
+     */
+    public Set<ScanTwoResult> getCachedScanTwoResults()
+    {
+        synchronized(this.scanTwoResults)
+        {
+            return new HashSet<ScanTwoResult>(this.scanTwoResults);
+        }
+    }
+    
+    /**
+     * Getter for the fit results
+     * @return
+     *          the fit results
+     */
+    public Set<FitQtlResult> getFitQtlResults()
+    {
+        if(!this.isResultsCurrent())
+        {
+            // grab all of the fit results
+            List<RObject> fitQtlRObjects = JRIUtilityFunctions.getTopLevelObjectsOfType(
+                    this.getRInterface(),
+                    FitQtlResult.FIT_QTL_RESULT_TYPE_STRING);
+            this.synchronizeFitQtlResults(fitQtlRObjects, null);
+        }
         
+        return this.getCachedFitQtlResults();
+    }
+    
+    /**
+     * Get the fit results that we found the last time that we looked
+     * at R. Unlike {@link #getFitQtlResults()} this never talks to R
+     * @return
+     *          a copy of the cached fit results
+     */
+    public Set<FitQtlResult> getCachedFitQtlResults()
+    {
+        synchronized(this.fitQtlResults)
+        {
+            return new HashSet<FitQtlResult>(this.fitQtlResults);
+        }
+    }
+    
+    /**
+     * Bring the cached scan and fit results up to date. This is how the
+     * {@link org.jax.qtl.project.QtlDataModel} keeps us current without
+     * every cross having to list every object in R.
+     * @param scanOneCandidates
+     *          scanone objects that may or may not belong to this cross
+     * @param scanTwoCandidates
+     *          scantwo objects that may or may not belong to this cross
+     * @param fitQtlCandidates
+     *          fitqtl objects that may or may not belong to this cross
+     * @param replacedSymbols
+     *          the top-level symbols that were changed or removed. Any
+     *          cached result with one of these names is dropped before the
+     *          candidates are added back in. If this is null the candidates
+     *          are taken to be all of the results in R and everything else
+     *          is dropped
+     * @param sequenceNumber
+     *          the {@link RChangeJournal} sequence number that this brings
+     *          us up to
+     * @return
+     *          true if any of the results changed
+     */
+    public boolean synchronizeResults(
+            List<RObject> scanOneCandidates,
+            List<RObject> scanTwoCandidates,
+            List<RObject> fitQtlCandidates,
+            Collection<String> replacedSymbols,
+            long sequenceNumber)
+    {
+        boolean scanOneChanged = this.synchronizeScanOneResults(
+                scanOneCandidates,
+                replacedSymbols);
+        boolean scanTwoChanged = this.synchronizeScanTwoResults(
+                scanTwoCandidates,
+                replacedSymbols);
+        boolean fitQtlChanged = this.synchronizeFitQtlResults(
+                fitQtlCandidates,
+                replacedSymbols);
+        this.resultsSequenceNumber = sequenceNumber;
+        
+        return scanOneChanged || scanTwoChanged || fitQtlChanged;
+    }
+    
+    /**
+     * Determine if the cached results are known to be current. This is
+     * true as long as nothing has changed in R since the last
+     * {@link #synchronizeResults(List, List, List, Collection, long)}
+     * @return
+     *          true if the cached results can be trusted
+     */
+    private boolean isResultsCurrent()
+    {
+        return this.resultsSequenceNumber == RChangeJournal.getLastSequenceNumber();
+    }
+    
+    /**
+     * Synchronize the scanone results
+     * @param candidates
+     *          the candidate objects
+     * @param replacedSymbols
+     *          the replaced symbols or null for a full synchronization
+     * @return
+     *          true if the results changed
+     */
+    private boolean synchronizeScanOneResults(
+            List<RObject> candidates,
+            Collection<String> replacedSymbols)
+    {
         // filter out any scanone results that don't belong to this cross
-        this.removeObjectsNotOwnedByThis(allScanoneResultRObjects);
+        List<RObject> ownedRObjects = new ArrayList<RObject>(candidates);
+        if(!ownedRObjects.isEmpty())
+        {
+            this.removeObjectsNotOwnedByThis(ownedRObjects);
+        }
+        
         Set<ScanOneResult> matchingScanoneResults =
-            new HashSet<ScanOneResult>();
-        for(RObject currScanoneRObject: allScanoneResultRObjects)
+            new HashSet<ScanOneResult>(ownedRObjects.size());
+        for(RObject currScanoneRObject: ownedRObjects)
         {
             matchingScanoneResults.add(new ScanOneResult(
                     currScanoneRObject.getRInterface(),
@@ -947,31 +1099,35 @@ public class Cross extends RObject
                     this));
         }
         
-        this.scanOneResults.retainAll(matchingScanoneResults);
-        matchingScanoneResults.removeAll(this.scanOneResults);
-        this.scanOneResults.addAll(matchingScanoneResults);
-        
-        // return a copy of the matches
-        return new HashSet<ScanOneResult>(this.scanOneResults);
+        return Cross.synchronizeResultSet(
+                this.scanOneResults,
+                matchingScanoneResults,
+                replacedSymbols);
     }
     
     /**
-     * Get the scantwo results
+     * Synchronize the scantwo results
+     * @param candidates
+     *          the candidate objects
+     * @param replacedSymbols
+     *          the replaced symbols or null for a full synchronization
      * @return
-     *          the resutls
+     *          true if the results changed
      */
-    public Set<ScanTwoResult> getScanTwoResults()
+    private boolean synchronizeScanTwoResults(
+            List<RObject> candidates,
+            Collection<String> replacedSymbols)
     {
-        // grab all scantwo results
-        List<RObject> allScantwoResultRObjects = JRIUtilityFunctions.getTopLevelObjectsOfType(
-                this.getRInterface(),
-                ScanTwoResult.SCANTWO_RESULT_TYPE_STRING);
-        
         // filter out any scantwo results that don't belong to this cross
-        this.removeObjectsNotOwnedByThis(allScantwoResultRObjects);
+        List<RObject> ownedRObjects = new ArrayList<RObject>(candidates);
+        if(!ownedRObjects.isEmpty())
+        {
+            this.removeObjectsNotOwnedByThis(ownedRObjects);
+        }
+        
         Set<ScanTwoResult> matchingScantwoResults =
-            new HashSet<ScanTwoResult>();
-        for(RObject currScantwoRObject: allScantwoResultRObjects)
+            new HashSet<ScanTwoResult>(ownedRObjects.size());
+        for(RObject currScantwoRObject: ownedRObjects)
         {
             matchingScantwoResults.add(new ScanTwoResult(
                     currScantwoRObject.getRInterface(),
@@ -979,31 +1135,35 @@ public class Cross extends RObject
                     this));
         }
         
-        this.scanTwoResults.retainAll(matchingScantwoResults);
-        matchingScantwoResults.removeAll(this.scanTwoResults);
-        this.scanTwoResults.addAll(matchingScantwoResults);
-        
-        // return a copy of the matches
-        return new HashSet<ScanTwoResult>(this.scanTwoResults);
+        return Cross.synchronizeResultSet(
+                this.scanTwoResults,
+                matchingScantwoResults,
+                replacedSymbols);
     }
     
     /**
-     * Getter for the fit results
+     * Synchronize the fit results
+     * @param candidates
+     *          the candidate objects
+     * @param replacedSymbols
+     *          the replaced symbols or null for a full synchronization
      * @return
-     *          the fit results
+     *          true if the results changed
      */
-    public Set<FitQtlResult> getFitQtlResults()
+    private boolean synchronizeFitQtlResults(
+            List<RObject> candidates,
+            Collection<String> replacedSymbols)
     {
-        // grab all of the fit results
-        List<RObject> fitQtlRObjects = JRIUtilityFunctions.getTopLevelObjectsOfType(
-                this.getRInterface(),
-                FitQtlResult.FIT_QTL_RESULT_TYPE_STRING);
-        
         // filter out and fit's that don't belong to this cross
-        this.removeObjectsNotOwnedByThis(fitQtlRObjects);
+        List<RObject> ownedRObjects = new ArrayList<RObject>(candidates);
+        if(!ownedRObjects.isEmpty())
+        {
+            this.removeObjectsNotOwnedByThis(ownedRObjects);
+        }
+        
         Set<FitQtlResult> matchingFitQtlResults =
-            new HashSet<FitQtlResult>(fitQtlRObjects.size());
-        for(RObject currFitRObject: fitQtlRObjects)
+            new HashSet<FitQtlResult>(ownedRObjects.size());
+        for(RObject currFitRObject: ownedRObjects)
         {
             matchingFitQtlResults.add(new FitQtlResult(
                     currFitRObject.getRInterface(),
@@ -1011,12 +1171,59 @@ public class Cross extends RObject
                     this));
         }
         
-        this.fitQtlResults.retainAll(matchingFitQtlResults);
-        matchingFitQtlResults.removeAll(this.fitQtlResults);
-        this.fitQtlResults.addAll(matchingFitQtlResults);
-        
-        // return a copy of the matches
-        return new HashSet<FitQtlResult>(this.fitQtlResults);
+        return Cross.synchronizeResultSet(
+                this.fitQtlResults,
+                matchingFitQtlResults,
+                replacedSymbols);
+    }
+    
+    /**
+     * Merge the owned results into the given result set. We hold on to
+     * the instances that we already have so that anyone holding a
+     * reference (like a tree node) keeps working
+     * @param <T>
+     *          the result type
+     * @param resultSet
+     *          the synchronized result set to update
+     * @param ownedResults
+     *          the results that we found to belong to this cross
+     * @param replacedSymbols
+     *          the replaced symbols or null to replace everything
+     * @return
+     *          true if the contents of the result set changed
+     */
+    private static <T extends RObject> boolean synchronizeResultSet(
+            Set<T> resultSet,
+            Set<T> ownedResults,
+            Collection<String> replacedSymbols)
+    {
+        synchronized(resultSet)
+        {
+            int originalSize = resultSet.size();
+            boolean removedAny;
+            if(replacedSymbols == null)
+            {
+                removedAny = resultSet.retainAll(ownedResults);
+            }
+            else
+            {
+                removedAny = false;
+                Iterator<T> resultIter = resultSet.iterator();
+                while(resultIter.hasNext())
+                {
+                    T currResult = resultIter.next();
+                    if(replacedSymbols.contains(currResult.getAccessorExpressionString()) &&
+                       !ownedResults.contains(currResult))
+                    {
+                        resultIter.remove();
+                        removedAny = true;
+                    }
+                }
+            }
+            
+            resultSet.addAll(ownedResults);
+            return removedAny || resultSet.size() != originalSize;
+        }
     }
     
     /**
@@ -1049,27 +1256,27 @@ public class Cross extends RObject
     public NamedCategoricalData getAssumedCategoricalPhenotype(
             AssumedCategoricalPhenotype phenotype)
     {
-        String header = phenotype.getColumnHeader();
-        for(NamedData<Number> currData: this.phenotypeData.getNamedDataList())
+        PhenotypeMatrix phenoMatrix = this.getPhenotypeMatrix();
+        int phenotypeIndex = phenoMatrix.getIndexOfPhenotypeNamed(
+                phenotype.getColumnHeader());
+        if(phenotypeIndex == -1)
         {
-            if(currData.getNameOfData().equalsIgnoreCase(header))
-            {
-                if(currData instanceof NamedCategoricalData)
-                {
-                    return (NamedCategoricalData)currData;
-                }
-                else
-                {
-                    LOG.warning(
-                            currData.getNameOfData() + " was expected to " +
-                            "be categorical data but it is actually: " +
-                            currData.getClass().getName());
-                    return null;
-                }
-            }
+            return null;
+        }
+        else if(phenoMatrix.getPhenotypeKind(phenotypeIndex) ==
+                PhenotypeMatrix.PhenotypeKind.CATEGORICAL)
+        {
+            return (NamedCategoricalData)phenoMatrix.toNamedData(
+                    phenotypeIndex);
+        }
+        else
+        {
+            LOG.warning(
+                    phenoMatrix.getPhenotypeName(phenotypeIndex) +
+                    " was expected to be categorical data but it is " +
+                    "actually: " + phenoMatrix.getPhenotypeKind(phenotypeIndex));
+            return null;
         }
-        
-        return null;
     }
     
     /**
@@ -22,12 +22,11 @@ package org.jax.qtl.cross;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.logging.Logger;
 
 import org.jax.analyticgraph.data.NamedCategoricalData;
 import org.jax.analyticgraph.data.NamedRealData;
-import org.jax.qtl.cross.Cross.AssumedCategoricalPhenotype;
-import org.jax.qtl.cross.Cross.CrossSubType;
+import org.jax.qtl.util.RObjectMetadataCache;
+import org.jax.qtl.util.RSessionEpoch;
 import org.jax.r.jriutilities.JRIUtilityFunctions;
 import org.jax.r.jriutilities.RObject;
 import org.jax.r.jriutilities.SilentRCommand;
@@ -39,12 +38,6 @@ import org.rosuda.JRI.REXP;
  */
 public class CrossChromosome extends RObject
 {
-    /**
-     * our logger
-     */
-    private static final Logger LOG = Logger.getLogger(
-            CrossChromosome.class.getName());
-    
     private final String chromosomeName;
     
     private final RObject markerDataRObject;
@@ -55,6 +48,27 @@ public class CrossChromosome extends RObject
     
     private final SexAwareGeneticMap sexAwareGeneticMap;
     
+    /**
+     * the last genotype matrix that we fetched
+     */
+    private GenotypeMatrix genotypeMatrix = null;
+    
+    /**
+     * the {@link RSessionEpoch} that {@link #genotypeMatrix} was read in
+     */
+    private long genotypeMatrixEpoch = -1L;
+    
+    /**
+     * the last genotype probabilities that we fetched
+     */
+    private GenotypeProbabilities genotypeProbabilities = null;
+    
+    /**
+     * the {@link RSessionEpoch} that {@link #genotypeProbabilities} was
+     * read in
+     */
+    private long genotypeProbabilitiesEpoch = -1L;
+    
     /**
      * the genotype sub-component of any cross
      */
@@ -79,7 +93,8 @@ public class CrossChromosome extends RObject
         this.sexAwareGeneticMap = new SexAwareGeneticMap(
                 containerCross.getRInterface(),
                 this.getAccessorExpressionString() + "$map",
-                chromosomeName);
+                chromosomeName,
+                containerCross.getAccessorExpressionString());
         this.markerDataRObject = new RObject(
                 containerCross.getRInterface(),
                 this.getAccessorExpressionString() + "$data");
@@ -88,6 +103,16 @@ public class CrossChromosome extends RObject
                 this.getAccessorExpressionString() + "$errorlod");
     }
     
+    /**
+     * Getter for the cross that this chromosome belongs to
+     * @return
+     *          the cross
+     */
+    public Cross getContainerCross()
+    {
+        return this.containerCross;
+    }
+    
     /**
      * Get a handle on the R object backing the genotype data
      * @return
@@ -172,8 +197,8 @@ public class CrossChromosome extends RObject
      */
     public boolean isXChromosome()
     {
-        return JRIUtilityFunctions.inheritsRClass(this, "X") ||
-               JRIUtilityFunctions.inheritsRClass(this, "x");
+        return RObjectMetadataCache.inheritsRClass(this, "X") ||
+               RObjectMetadataCache.inheritsRClass(this, "x");
     }
     
     /**
@@ -183,7 +208,7 @@ public class CrossChromosome extends RObject
      */
     public String[] getMarkerNames()
     {
-        return JRIUtilityFunctions.getColumnNames(this.markerDataRObject);
+        return RObjectMetadataCache.getColumnNames(this.markerDataRObject);
     }
     
     /**
@@ -191,106 +216,79 @@ public class CrossChromosome extends RObject
      * @return
      *          a list of named categorical data where the names are marker
      *          names and 
+     * @see #getGenotypeMatrix()
      */
     public List<NamedCategoricalData> getMarkerGenotypes()
     {
-        CrossSubType crossSubType = this.containerCross.getCrossSubType();
-        
-        String[] markerNames = this.getMarkerNames();
+        GenotypeMatrix genotypeMatrix = this.getGenotypeMatrix();
+        int markerCount = genotypeMatrix.getMarkerCount();
         List<NamedCategoricalData> markerGenotypes =
-            new ArrayList<NamedCategoricalData>(markerNames.length);
+            new ArrayList<NamedCategoricalData>(markerCount);
+        for(int markerIndex = 0; markerIndex < markerCount; markerIndex++)
+        {
+            markerGenotypes.add(genotypeMatrix.toNamedCategoricalData(
+                    markerIndex));
+        }
         
-        Integer[] paternalGrandmotherData = null;
-        Integer[] sexData = null;
-        if(this.isXChromosome())
+        return markerGenotypes;
+    }
+    
+    /**
+     * Get the bit packed genotype matrix for this chromosome. The whole
+     * matrix is fetched from R in a single transfer and the X chromosome
+     * recoding rules have already been applied to it. The matrix is reused
+     * until the {@link RSessionEpoch} changes.
+     * @return
+     *          the genotype matrix
+     */
+    public synchronized GenotypeMatrix getGenotypeMatrix()
+    {
+        long currentEpoch = RSessionEpoch.getMutationEpoch();
+        if(this.genotypeMatrix == null ||
+           this.genotypeMatrixEpoch != currentEpoch)
         {
-            NamedCategoricalData pgm =
-                this.containerCross.getAssumedCategoricalPhenotype(
-                        AssumedCategoricalPhenotype.PATERNAL_GRANDMOTHER);
-            if(pgm != null)
-            {
-                paternalGrandmotherData = pgm.getCategoricalNumericalData();
-            }
-            
-            NamedCategoricalData sex =
-                this.containerCross.getAssumedCategoricalPhenotype(
-                        AssumedCategoricalPhenotype.SEX);
-            if(sex != null)
-            {
-                sexData = sex.getCategoricalNumericalData();
-            }
+            this.genotypeMatrix = GenotypeMatrix.fetchGenotypeMatrix(this);
+            this.genotypeMatrixEpoch = currentEpoch;
         }
         
-        for(int markerIndex = 0; markerIndex < markerNames.length; markerIndex++)
+        return this.genotypeMatrix;
+    }
+    
+    /**
+     * Get the <code>calc.genoprob</code> results for this chromosome. Like
+     * {@link #getGenotypeMatrix()} these are reused until the
+     * {@link RSessionEpoch} changes.
+     * @return
+     *          the genotype probabilities or null if they haven't been
+     *          calculated
+     */
+    public synchronized GenotypeProbabilities getGenotypeProbabilities()
+    {
+        long currentEpoch = RSessionEpoch.getMutationEpoch();
+        if(this.genotypeProbabilitiesEpoch != currentEpoch)
         {
-            String currMarkerDataCommand =
-                this.markerDataRObject.getAccessorExpressionString() +
-                "[, " + (markerIndex + 1) + "]";
-            REXP result = this.getRInterface().evaluateCommand(
-                    new SilentRCommand(currMarkerDataCommand));
-            double[] resultAsDoubles = result.asDoubleArray();
-            Integer[] resultAsIntegers = new Integer[resultAsDoubles.length];
-            for(int individualIndex = 0;
-                individualIndex < resultAsDoubles.length;
-                individualIndex++)
-            {
-                if(this.isInvalidRawGenotypeValue(resultAsDoubles[individualIndex]))
-                {
-                    resultAsIntegers[individualIndex] = null;
-                }
-                else
-                {
-                    // decrement by one since R uses 1 based indices
-                    resultAsIntegers[individualIndex] = Integer.valueOf(
-                            ((int)Math.round(resultAsDoubles[individualIndex]) - 1));
-                    
-                    // TODO move to doing enums instead of this "categorical"
-                    //      junk
-                    if(sexData != null)
-                    {
-                        if(sexData[individualIndex] == null)
-                        {
-                            LOG.warning(
-                                    "sex data is null for individual #: " +
-                                    individualIndex);
-                        }
-                        else if(sexData[individualIndex] == 1)
-                        {
-                            // see special rules for males on x
-                            // as described in
-                            // http://www.rqtl.org/manual/html/read.cross.html
-                            if(resultAsIntegers[individualIndex] ==  1)
-                            {
-                                resultAsIntegers[individualIndex] = 2;
-                            }
-                        }
-                        else if(sexData[individualIndex] == 0)
-                        {
-                            // give special treatment for female pgm==1 on x
-                            // chromosome as described in
-                            // http://www.rqtl.org/manual/html/read.cross.html
-                            if(paternalGrandmotherData != null &&
-                               paternalGrandmotherData[individualIndex] != null &&
-                               paternalGrandmotherData[individualIndex] == 1 &&
-                               resultAsIntegers[individualIndex] == 0)
-                            {
-                                resultAsIntegers[individualIndex] = 2;
-                            }
-                        }
-                    }
-                }
-                
-            }
-            
-            NamedCategoricalData currCategoricalData = new NamedCategoricalData(
-                    markerNames[markerIndex],
-                    resultAsIntegers,
-                    crossSubType.getMarkerDataCategoricalValues(),
-                    "Missing");
-            markerGenotypes.add(currCategoricalData);
+            this.genotypeProbabilities =
+                GenotypeProbabilities.fetchGenotypeProbabilities(this);
+            this.genotypeProbabilitiesEpoch = currentEpoch;
         }
         
-        return markerGenotypes;
+        return this.genotypeProbabilities;
+    }
+    
+    /**
+     * Use the given genotype probabilities until the {@link RSessionEpoch}
+     * moves again. This lets probabilities that were calculated in java
+     * be shared with the scans without fetching them back out of R.
+     * Callers must have already written the same probabilities to R and
+     * advanced the epoch
+     * @param genotypeProbabilities
+     *          the genotype probabilities
+     */
+    public synchronized void setGenotypeProbabilities(
+            GenotypeProbabilities genotypeProbabilities)
+    {
+        this.genotypeProbabilities = genotypeProbabilities;
+        this.genotypeProbabilitiesEpoch = RSessionEpoch.getMutationEpoch();
     }
     
     /**
@@ -327,23 +325,6 @@ public class CrossChromosome extends RObject
         return markerErrorLods;
     }
     
-    /**
-     * Determines if the given "raw" value from R is valid for this
-     * chromosomes genotype
-     * @param genotypeValue
-     *          the raw genotype value
-     * @return
-     *          true iff it represents a valid value
-     */
-    private boolean isInvalidRawGenotypeValue(double genotypeValue)
-    {
-        int maxValue =
-            this.containerCross.getCrossSubType().getMarkerDataCategoricalValues().length;
-        return  Double.isNaN(genotypeValue) ||
-                genotypeValue > maxValue ||
-                genotypeValue < 1;
-    }
-
     /**
      * Determine if error LOD values have been calculated for this chromosome
      * @return
@@ -351,7 +332,7 @@ public class CrossChromosome extends RObject
      */
     public boolean getErrorLodsExist()
     {
-        return JRIUtilityFunctions.inheritsRClass(
+        return RObjectMetadataCache.inheritsRClass(
                 this.errorLodRObject,
                 "matrix");
     }
@@ -83,10 +83,33 @@ public class CrossSummary
         }
         this.xChromosomeName = summaryRVector.at(9).asString();
         this.markersPerChromosome = summaryRVector.at(4).asIntArray();
-        this.missingGenotypeRatio = summaryRVector.at(5).asDouble();
+        this.missingGenotypeRatio = CrossSummary.calculateMissingGenotypeRatio(
+                this.cross);
         this.genotypeRatios = summaryRVector.at(6).asDoubleArray();
     }
     
+    /**
+     * Calculate the ratio of missing genotype calls over all of the
+     * chromosomes in the given cross using the packed genotype matrices
+     * @param cross
+     *          the cross
+     * @return
+     *          the missing genotype ratio
+     */
+    private static double calculateMissingGenotypeRatio(Cross cross)
+    {
+        long missingCount = 0;
+        long cellCount = 0;
+        for(CrossChromosome currChromosome: cross.getGenotypeData())
+        {
+            GenotypeMatrix currGenotypes = currChromosome.getGenotypeMatrix();
+            missingCount += currGenotypes.getMissingCount();
+            cellCount += currGenotypes.getCellCount();
+        }
+        
+        return cellCount == 0 ? 0.0 : missingCount / (double)cellCount;
+    }
+    
     /**
      * Getter for the cross
      * @return the cross
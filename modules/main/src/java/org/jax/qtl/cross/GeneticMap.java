@@ -20,17 +20,21 @@
 
 package org.jax.qtl.cross;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
-import org.jax.r.jriutilities.JRIUtilityFunctions;
+import org.jax.qtl.util.GeneticMapVersions;
+import org.jax.qtl.util.RObjectMetadataCache;
 import org.jax.r.jriutilities.RObject;
 import org.jax.r.jriutilities.SilentRCommand;
 import org.rosuda.JRI.REXP;
 
 /**
- * Holds genetic map information
+ * Holds genetic map information. The markers are read into an immutable
+ * snapshot which is reused until a map changing command runs against the
+ * map's owner (see {@link GeneticMapVersions})
  * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
  */
 public class GeneticMap
@@ -81,7 +85,34 @@ public class GeneticMap
     private final String chromosomeName;
     
     /**
-     * Construct a new map
+     * the accessor of the object that owns this map (normally the cross).
+     * map snapshots are versioned using {@link GeneticMapVersions}
+     */
+    private final String ownerAccessor;
+    
+    /**
+     * the marker names from the last snapshot or null if we haven't
+     * taken one yet
+     */
+    private String[] markerNames = null;
+    
+    /**
+     * the marker positions from the last snapshot
+     */
+    private double[] markerPositionsCentimorgans = null;
+    
+    /**
+     * an unmodifiable view of the markers from the last snapshot
+     */
+    private List<GeneticMarker> markerPositions = null;
+    
+    /**
+     * the {@link GeneticMapVersions} version that the snapshot was read in
+     */
+    private long snapshotVersion = -1L;
+    
+    /**
+     * Construct a new map which is owned by its own backing object
      * @param chromosomeName
      *          the name of the chromosome that this map is for
      * @param mapType
@@ -93,10 +124,36 @@ public class GeneticMap
             String chromosomeName,
             MapType mapType,
             RObject backingRMap)
+    {
+        this(chromosomeName,
+             mapType,
+             backingRMap,
+             backingRMap.getAccessorExpressionString());
+    }
+    
+    /**
+     * Construct a new map
+     * @param chromosomeName
+     *          the name of the chromosome that this map is for
+     * @param mapType
+     *          the type of map to construct
+     * @param backingRMap
+     *          the R "map" object backing this map
+     * @param ownerAccessor
+     *          the accessor expression of the object that owns the map
+     *          (normally the cross). commands that change the owner's maps
+     *          invalidate our snapshot
+     */
+    public GeneticMap(
+            String chromosomeName,
+            MapType mapType,
+            RObject backingRMap,
+            String ownerAccessor)
     {
         this.chromosomeName = chromosomeName;
         this.mapType = mapType;
         this.backinRMap = backingRMap;
+        this.ownerAccessor = ownerAccessor;
     }
     
     /**
@@ -110,50 +167,103 @@ public class GeneticMap
     }
     
     /**
-     * Get a list of all of the positions in this map
+     * Get a list of all of the positions in this map. The list is an
+     * unmodifiable snapshot that is shared until the owner's map changes
      * @return
      *          the list of marker positions
      */
-    public List<GeneticMarker> getMarkerPositions()
+    public synchronized List<GeneticMarker> getMarkerPositions()
+    {
+        this.updateSnapshotIfStale();
+        return this.markerPositions;
+    }
+    
+    /**
+     * Get the number of markers in this map
+     * @return
+     *          the marker count
+     */
+    public synchronized int getMarkerCount()
+    {
+        this.updateSnapshotIfStale();
+        return this.markerNames.length;
+    }
+    
+    /**
+     * Get the marker names in map order
+     * @return
+     *          a copy of the marker names
+     */
+    public synchronized String[] getMarkerNames()
+    {
+        this.updateSnapshotIfStale();
+        return this.markerNames.clone();
+    }
+    
+    /**
+     * Get the marker positions in map order
+     * @return
+     *          a copy of the marker positions in centimorgans
+     */
+    public synchronized double[] getMarkerPositionsCentimorgans()
     {
-        switch(this.mapType)
+        this.updateSnapshotIfStale();
+        return this.markerPositionsCentimorgans.clone();
+    }
+    
+    /**
+     * Re-read the map from R if the owner's map version has moved on since
+     * our last snapshot
+     */
+    private void updateSnapshotIfStale()
+    {
+        long currentVersion = GeneticMapVersions.getMapVersion(
+                this.ownerAccessor);
+        if(this.markerPositions == null || this.snapshotVersion != currentVersion)
         {
-            case SEX_AGNOSTIC:
+            switch(this.mapType)
             {
-                return this.getMarkerPositionsFrom(this.backinRMap);
-            }
+                case SEX_AGNOSTIC:
+                {
+                    this.readSnapshotFrom(this.backinRMap);
+                    break;
+                }
 
-            case MALE:
-            {
-                RObject backingMaleMap = new RObject(
-                        this.backinRMap.getRInterface(),
-                        this.backinRMap.getAccessorExpressionString() + "[2,]");
-                return this.getMarkerPositionsFrom(backingMaleMap);
-            }
+                case MALE:
+                {
+                    RObject backingMaleMap = new RObject(
+                            this.backinRMap.getRInterface(),
+                            this.backinRMap.getAccessorExpressionString() + "[2,]");
+                    this.readSnapshotFrom(backingMaleMap);
+                    break;
+                }
 
-            case FEMALE:
-            {
-                RObject backingMaleMap = new RObject(
-                        this.backinRMap.getRInterface(),
-                        this.backinRMap.getAccessorExpressionString() + "[1,]");
-                return this.getMarkerPositionsFrom(backingMaleMap);
-            }
+                case FEMALE:
+                {
+                    RObject backingFemaleMap = new RObject(
+                            this.backinRMap.getRInterface(),
+                            this.backinRMap.getAccessorExpressionString() + "[1,]");
+                    this.readSnapshotFrom(backingFemaleMap);
+                    break;
+                }
 
-            default:
-            {
-                throw new IllegalArgumentException("unknown map type");
+                default:
+                {
+                    throw new IllegalArgumentException("unknown map type");
+                }
             }
+            this.snapshotVersion = currentVersion;
         }
     }
 
     /**
-     * Get marker positions using the given r object as the genetic map
+     * Read a new snapshot using the given r object as the genetic map
      * @param backingRMap
      *          the r object for the genetic map
      */
-    private List<GeneticMarker> getMarkerPositionsFrom(RObject backingRMap)
+    private void readSnapshotFrom(RObject backingRMap)
     {
-        String[] names = JRIUtilityFunctions.getNames(backingRMap);
+        String[] names = RObjectMetadataCache.getNames(backingRMap);
         SilentRCommand silentCommand = new SilentRCommand(
                 backingRMap.getAccessorExpressionString());
         REXP markerPositionsExpression = backingRMap.getRInterface().evaluateCommand(
@@ -163,17 +273,19 @@ public class GeneticMap
         // the sizes should be the same
         if(names.length == markerPositionsArray.length)
         {
-            List<GeneticMarker> markerPositions =
-                new ArrayList<GeneticMarker>(names.length);
+            GeneticMarker[] markers = new GeneticMarker[names.length];
             for(int i = 0; i < markerPositionsArray.length; i++)
             {
-                markerPositions.add(new GeneticMarker(
+                markers[i] = new GeneticMarker(
                         names[i],
                         this.chromosomeName,
-                        markerPositionsArray[i]));
+                        markerPositionsArray[i]);
             }
             
-            return markerPositions;
+            this.markerNames = names.clone();
+            this.markerPositionsCentimorgans = markerPositionsArray;
+            this.markerPositions = Collections.unmodifiableList(
+                    Arrays.asList(markers));
         }
         else
         {
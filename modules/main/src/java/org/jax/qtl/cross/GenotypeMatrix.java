@@ -0,0 +1,423 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.cross;
+
+import java.nio.DoubleBuffer;
+import java.util.logging.Logger;
+
+import org.jax.analyticgraph.data.NamedCategoricalData;
+import org.jax.qtl.cross.Cross.AssumedCategoricalPhenotype;
+import org.jax.qtl.cross.Cross.CrossSubType;
+import org.jax.qtl.util.MappedRArrayTransfer;
+import org.jax.r.jriutilities.SilentRCommand;
+import org.rosuda.JRI.REXP;
+import org.rosuda.JRI.RVector;
+
+/**
+ * An immutable, bit packed copy of the genotype calls for a single
+ * chromosome. Calls are stored marker by marker using 2 bits per cell
+ * when the cross type allows it and 4 bits per cell otherwise. Any X
+ * chromosome recoding for sex and paternal grandmother (intercrosses
+ * only) is done when the matrix is built so the accessors never need to
+ * look at phenotypes.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class GenotypeMatrix
+{
+    /**
+     * our logger
+     */
+    private static final Logger LOG = Logger.getLogger(
+            GenotypeMatrix.class.getName());
+
+    /**
+     * the value that {@link #getGenotype(int, int)} returns for missing calls
+     */
+    public static final int MISSING_GENOTYPE = -1;
+
+    private final String[] markerNames;
+
+    private final String[] categoryNames;
+
+    private final int individualCount;
+
+    private final int bitsPerCell;
+
+    /**
+     * log2 of the number of cells that fit in a single word
+     */
+    private final int cellsPerWordShift;
+
+    private final long cellMask;
+
+    /**
+     * the packed cells. each cell holds the 0-based genotype + 1 so that
+     * zero can mean missing
+     */
+    private final long[] words;
+
+    private final int missingCount;
+
+    /**
+     * Constructor
+     * @param markerNames
+     *          the marker names
+     * @param categoryNames
+     *          the genotype category names
+     * @param individualCount
+     *          the number of individuals
+     * @param genotypes
+     *          the 0-based genotypes in marker major order (all of the
+     *          genotypes for the 1st marker followed by all of the genotypes
+     *          for the 2nd marker ...) using {@link #MISSING_GENOTYPE} for
+     *          missing calls
+     */
+    public GenotypeMatrix(
+            String[] markerNames,
+            String[] categoryNames,
+            int individualCount,
+            int[] genotypes)
+    {
+        if((long)markerNames.length * individualCount != genotypes.length)
+        {
+            throw new IllegalArgumentException(
+                    "expected " + markerNames.length + " x " +
+                    individualCount + " genotypes but got " +
+                    genotypes.length);
+        }
+
+        this.markerNames = markerNames;
+        this.categoryNames = categoryNames;
+        this.individualCount = individualCount;
+
+        // we need room for every category plus "missing"
+        this.bitsPerCell = categoryNames.length + 1 <= 4 ? 2 : 4;
+        this.cellsPerWordShift = this.bitsPerCell == 2 ? 5 : 4;
+        this.cellMask = (1L << this.bitsPerCell) - 1L;
+
+        int cellsPerWord = 1 << this.cellsPerWordShift;
+        this.words = new long[(genotypes.length + cellsPerWord - 1) / cellsPerWord];
+
+        int missing = 0;
+        for(int cell = 0; cell < genotypes.length; cell++)
+        {
+            int currGenotype = genotypes[cell];
+            if(currGenotype < 0 || currGenotype >= categoryNames.length)
+            {
+                missing++;
+            }
+            else
+            {
+                int shift =
+                    (cell & (cellsPerWord - 1)) * this.bitsPerCell;
+                this.words[cell >>> this.cellsPerWordShift] |=
+                    ((long)(currGenotype + 1)) << shift;
+            }
+        }
+        this.missingCount = missing;
+    }
+
+    /**
+     * Pull the whole genotype matrix for the given chromosome out of R in
+     * a single transfer (see {@link MappedRArrayTransfer})
+     * @param chromosome
+     *          the chromosome
+     * @return
+     *          the genotype matrix
+     */
+    public static GenotypeMatrix fetchGenotypeMatrix(CrossChromosome chromosome)
+    {
+        Cross cross = chromosome.getContainerCross();
+        CrossSubType crossSubType = cross.getCrossSubType();
+        String[] categoryNames = crossSubType.getMarkerDataCategoricalValues();
+
+        String dataAccessor =
+            chromosome.getMarkerDataRObject().getAccessorExpressionString();
+        REXP dimensionsExpression = chromosome.getRInterface().evaluateCommand(
+                new SilentRCommand(
+                        "local({data <- " + dataAccessor + "; " +
+                        "list(as.character(colnames(data)), " +
+                        "as.integer(nrow(data)))})"));
+        RVector dimensionsList = dimensionsExpression.asVector();
+        String[] markerNames = dimensionsList.at(0).asStringArray();
+        if(markerNames == null)
+        {
+            markerNames = new String[0];
+        }
+        int individualCount = dimensionsList.at(1).asInt();
+        DoubleBuffer rawGenotypes = MappedRArrayTransfer.fetchDoubles(
+                chromosome.getRInterface(),
+                dataAccessor,
+                (long)markerNames.length * individualCount);
+
+        // the sex and pgm codes are only needed for X chromosome recoding
+        // which only applies to intercrosses. backcross males are coded
+        // AY/BY with the same codes as the females so they're left alone
+        double[] sexCodes = null;
+        double[] paternalGrandmotherCodes = null;
+        if(chromosome.isXChromosome() && crossSubType == CrossSubType.F2)
+        {
+            PhenotypeMatrix phenotypes = cross.getPhenotypeMatrix();
+            sexCodes = GenotypeMatrix.getAssumedCategoricalCodes(
+                    phenotypes,
+                    AssumedCategoricalPhenotype.SEX);
+            paternalGrandmotherCodes = GenotypeMatrix.getAssumedCategoricalCodes(
+                    phenotypes,
+                    AssumedCategoricalPhenotype.PATERNAL_GRANDMOTHER);
+        }
+
+        boolean missingSexWarned = false;
+        int[] genotypes = new int[rawGenotypes.limit()];
+        for(int cell = 0; cell < genotypes.length; cell++)
+        {
+            double rawGenotype = rawGenotypes.get(cell);
+            if(Double.isNaN(rawGenotype) ||
+               rawGenotype < 1 ||
+               rawGenotype > categoryNames.length)
+            {
+                genotypes[cell] = MISSING_GENOTYPE;
+                continue;
+            }
+
+            // decrement by one since R uses 1 based indices
+            int genotype = (int)Math.round(rawGenotype) - 1;
+            if(sexCodes != null)
+            {
+                int individualIndex = cell % individualCount;
+                double sex = sexCodes[individualIndex];
+                if(Double.isNaN(sex))
+                {
+                    if(!missingSexWarned)
+                    {
+                        LOG.warning(
+                                "sex data is null for individual #: " +
+                                individualIndex);
+                        missingSexWarned = true;
+                    }
+                }
+                else if(sex == 1.0)
+                {
+                    // see special rules for males on x
+                    // as described in
+                    // http://www.rqtl.org/manual/html/read.cross.html
+                    if(genotype == 1)
+                    {
+                        genotype = 2;
+                    }
+                }
+                else if(sex == 0.0)
+                {
+                    // give special treatment for female pgm==1 on x
+                    // chromosome as described in
+                    // http://www.rqtl.org/manual/html/read.cross.html
+                    if(paternalGrandmotherCodes != null &&
+                       paternalGrandmotherCodes[individualIndex] == 1.0 &&
+                       genotype == 0)
+                    {
+                        genotype = 2;
+                    }
+                }
+            }
+
+            genotypes[cell] = genotype;
+        }
+
+        return new GenotypeMatrix(
+                markerNames,
+                categoryNames,
+                individualCount,
+                genotypes);
+    }
+
+    /**
+     * Get the category codes for one of the assumed categorical phenotypes
+     * @param phenotypes
+     *          the phenotypes to look in
+     * @param phenotype
+     *          the phenotype we want
+     * @return
+     *          the codes (NaN where missing) or null if the phenotype isn't
+     *          available
+     */
+    private static double[] getAssumedCategoricalCodes(
+            PhenotypeMatrix phenotypes,
+            AssumedCategoricalPhenotype phenotype)
+    {
+        int phenotypeIndex = phenotypes.getIndexOfPhenotypeNamed(
+                phenotype.getColumnHeader());
+        if(phenotypeIndex == -1 ||
+           phenotypes.getPhenotypeKind(phenotypeIndex) !=
+           PhenotypeMatrix.PhenotypeKind.CATEGORICAL)
+        {
+            return null;
+        }
+        else
+        {
+            double[] codes = new double[phenotypes.getIndividualCount()];
+            phenotypes.copyPhenotypeValues(phenotypeIndex, codes);
+            return codes;
+        }
+    }
+
+    /**
+     * Get a genotype call
+     * @param markerIndex
+     *          the 0-based marker index
+     * @param individualIndex
+     *          the 0-based individual index
+     * @return
+     *          the 0-based genotype index into {@link #getCategoryNames()}
+     *          or {@link #MISSING_GENOTYPE}
+     */
+    public int getGenotype(int markerIndex, int individualIndex)
+    {
+        int cell = markerIndex * this.individualCount + individualIndex;
+        long word = this.words[cell >>> this.cellsPerWordShift];
+        int shift = (cell & ((1 << this.cellsPerWordShift) - 1)) * this.bitsPerCell;
+        return ((int)((word >>> shift) & this.cellMask)) - 1;
+    }
+
+    /**
+     * Determine if the given call is missing
+     * @param markerIndex
+     *          the 0-based marker index
+     * @param individualIndex
+     *          the 0-based individual index
+     * @return
+     *          true iff the call is missing
+     */
+    public boolean isMissing(int markerIndex, int individualIndex)
+    {
+        return this.getGenotype(markerIndex, individualIndex) == MISSING_GENOTYPE;
+    }
+
+    /**
+     * Get the category name for a genotype call
+     * @param markerIndex
+     *          the 0-based marker index
+     * @param individualIndex
+     *          the 0-based individual index
+     * @return
+     *          the category name or null if the call is missing
+     */
+    public String getGenotypeName(int markerIndex, int individualIndex)
+    {
+        int genotype = this.getGenotype(markerIndex, individualIndex);
+        return genotype == MISSING_GENOTYPE ? null : this.categoryNames[genotype];
+    }
+
+    /**
+     * Getter for the number of markers
+     * @return
+     *          the marker count
+     */
+    public int getMarkerCount()
+    {
+        return this.markerNames.length;
+    }
+
+    /**
+     * Getter for the number of individuals
+     * @return
+     *          the individual count
+     */
+    public int getIndividualCount()
+    {
+        return this.individualCount;
+    }
+
+    /**
+     * Get the name of the given marker
+     * @param markerIndex
+     *          the 0-based marker index
+     * @return
+     *          the name
+     */
+    public String getMarkerName(int markerIndex)
+    {
+        return this.markerNames[markerIndex];
+    }
+
+    /**
+     * Get a copy of the marker names
+     * @return
+     *          the marker names
+     */
+    public String[] getMarkerNames()
+    {
+        return this.markerNames.clone();
+    }
+
+    /**
+     * Getter for the genotype category names
+     * @return
+     *          the category names
+     */
+    public String[] getCategoryNames()
+    {
+        return this.categoryNames.clone();
+    }
+
+    /**
+     * Get the number of missing calls in the whole matrix
+     * @return
+     *          the missing call count
+     */
+    public int getMissingCount()
+    {
+        return this.missingCount;
+    }
+
+    /**
+     * Get the total number of cells (markers x individuals) in the matrix
+     * @return
+     *          the cell count
+     */
+    public int getCellCount()
+    {
+        return this.markerNames.length * this.individualCount;
+    }
+
+    /**
+     * Build the boxed categorical data for a single marker
+     * @param markerIndex
+     *          the 0-based marker index
+     * @return
+     *          the categorical data
+     */
+    public NamedCategoricalData toNamedCategoricalData(int markerIndex)
+    {
+        Integer[] markerGenotypes = new Integer[this.individualCount];
+        for(int i = 0; i < this.individualCount; i++)
+        {
+            int genotype = this.getGenotype(markerIndex, i);
+            markerGenotypes[i] = genotype == MISSING_GENOTYPE ?
+                    null :
+                    Integer.valueOf(genotype);
+        }
+
+        return new NamedCategoricalData(
+                this.markerNames[markerIndex],
+                markerGenotypes,
+                this.categoryNames,
+                "Missing");
+    }
+}
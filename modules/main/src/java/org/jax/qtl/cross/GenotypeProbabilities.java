@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.cross;
+
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
+import org.jax.qtl.util.MappedRArrayTransfer;
+import org.jax.r.jriutilities.SilentRCommand;
+import org.rosuda.JRI.REXP;
+import org.rosuda.JRI.RVector;
+
+/**
+ * An immutable copy of the <code>calc.genoprob</code> results for a
+ * single chromosome. The probabilities are held in the same
+ * individual x position x genotype layout that R uses (individuals vary
+ * fastest) and large tensors stay memory mapped rather than being copied
+ * onto the java heap. Probabilities calculated in java (see
+ * {@link GenotypeProbabilityCalculator}) are held in single precision,
+ * which halves the size of the tensor.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class GenotypeProbabilities
+{
+    /**
+     * the <code>$geno[[chr]]</code> sub-component that
+     * <code>calc.genoprob</code> writes to
+     */
+    public static final String PROB_COMPONENT = "$prob";
+
+    private final String[] positionNames;
+
+    private final double[] positions;
+
+    private final String[] genotypeNames;
+
+    private final int individualCount;
+
+    /**
+     * the double precision probabilities or null if we're using
+     * {@link #floatProbabilities}
+     */
+    private final DoubleBuffer doubleProbabilities;
+
+    /**
+     * the single precision probabilities or null if we're using
+     * {@link #doubleProbabilities}
+     */
+    private final FloatBuffer floatProbabilities;
+
+    /**
+     * Constructor
+     * @param positionNames
+     *          the marker and pseudomarker names
+     * @param positions
+     *          the positions in cM
+     * @param genotypeNames
+     *          the genotype names
+     * @param individualCount
+     *          the number of individuals
+     * @param probabilities
+     *          the probabilities in R's array order
+     */
+    public GenotypeProbabilities(
+            String[] positionNames,
+            double[] positions,
+            String[] genotypeNames,
+            int individualCount,
+            DoubleBuffer probabilities)
+    {
+        GenotypeProbabilities.checkSize(
+                positionNames,
+                positions,
+                genotypeNames,
+                individualCount,
+                probabilities.limit());
+
+        this.positionNames = positionNames;
+        this.positions = positions;
+        this.genotypeNames = genotypeNames;
+        this.individualCount = individualCount;
+        this.doubleProbabilities = probabilities;
+        this.floatProbabilities = null;
+    }
+
+    /**
+     * Constructor for single precision probabilities
+     * @param positionNames
+     *          the marker and pseudomarker names
+     * @param positions
+     *          the positions in cM
+     * @param genotypeNames
+     *          the genotype names
+     * @param individualCount
+     *          the number of individuals
+     * @param probabilities
+     *          the probabilities in R's array order
+     */
+    public GenotypeProbabilities(
+            String[] positionNames,
+            double[] positions,
+            String[] genotypeNames,
+            int individualCount,
+            FloatBuffer probabilities)
+    {
+        GenotypeProbabilities.checkSize(
+                positionNames,
+                positions,
+                genotypeNames,
+                individualCount,
+                probabilities.limit());
+
+        this.positionNames = positionNames;
+        this.positions = positions;
+        this.genotypeNames = genotypeNames;
+        this.individualCount = individualCount;
+        this.doubleProbabilities = null;
+        this.floatProbabilities = probabilities;
+    }
+
+    /**
+     * Make sure that the tensor size agrees with the dimensions
+     * @param positionNames
+     *          the position names
+     * @param positions
+     *          the positions
+     * @param genotypeNames
+     *          the genotype names
+     * @param individualCount
+     *          the individual count
+     * @param probabilityCount
+     *          the number of probabilities in the tensor
+     * @throws IllegalArgumentException
+     *          if the sizes don't agree
+     */
+    private static void checkSize(
+            String[] positionNames,
+            double[] positions,
+            String[] genotypeNames,
+            int individualCount,
+            int probabilityCount)
+    throws IllegalArgumentException
+    {
+        if(positionNames.length != positions.length ||
+           (long)individualCount * positions.length * genotypeNames.length !=
+           probabilityCount)
+        {
+            throw new IllegalArgumentException(
+                    "expected " + individualCount + " x " + positions.length +
+                    " x " + genotypeNames.length + " probabilities but got " +
+                    probabilityCount);
+        }
+    }
+
+    /**
+     * Pull the genotype probabilities for the given chromosome out of R.
+     * The metadata comes across in one evaluation and the tensor itself in
+     * one transfer (see {@link MappedRArrayTransfer})
+     * @param chromosome
+     *          the chromosome
+     * @return
+     *          the probabilities or null if <code>calc.genoprob</code>
+     *          hasn't been run
+     */
+    public static GenotypeProbabilities fetchGenotypeProbabilities(
+            CrossChromosome chromosome)
+    {
+        String probAccessor =
+            chromosome.getAccessorExpressionString() + PROB_COMPONENT;
+
+        // sex specific maps are matrices. we use the 1st row like R/qtl does
+        REXP metadataExpression = chromosome.getRInterface().evaluateCommand(
+                new SilentRCommand(
+                        "local({prob <- " + probAccessor + "; " +
+                        "if(is.null(prob)) NULL else {" +
+                        "map <- attr(prob, \"map\"); " +
+                        "if(is.matrix(map)) map <- map[1, ]; " +
+                        "list(as.integer(dim(prob)), " +
+                        "as.character(names(map)), " +
+                        "as.double(map), " +
+                        "as.character(dimnames(prob)[[3]]))}})"));
+        RVector metadataList = metadataExpression == null ?
+                null :
+                metadataExpression.asVector();
+        if(metadataList == null || metadataList.size() != 4)
+        {
+            return null;
+        }
+
+        int[] dimensions = metadataList.at(0).asIntArray();
+        String[] positionNames = metadataList.at(1).asStringArray();
+        double[] positions = metadataList.at(2).asDoubleArray();
+        String[] genotypeNames = metadataList.at(3).asStringArray();
+        if(dimensions == null || dimensions.length != 3 || positions == null)
+        {
+            return null;
+        }
+
+        if(positionNames == null)
+        {
+            positionNames = new String[dimensions[1]];
+            for(int i = 0; i < positionNames.length; i++)
+            {
+                positionNames[i] = "loc" + (i + 1);
+            }
+        }
+        if(genotypeNames == null)
+        {
+            genotypeNames = new String[dimensions[2]];
+            for(int i = 0; i < genotypeNames.length; i++)
+            {
+                genotypeNames[i] = Integer.toString(i + 1);
+            }
+        }
+
+        DoubleBuffer probabilities = MappedRArrayTransfer.fetchDoubles(
+                chromosome.getRInterface(),
+                probAccessor,
+                (long)dimensions[0] * dimensions[1] * dimensions[2]);
+
+        return new GenotypeProbabilities(
+                positionNames,
+                positions,
+                genotypeNames,
+                dimensions[0],
+                probabilities);
+    }
+
+    /**
+     * Get a single probability
+     * @param individualIndex
+     *          the 0-based individual index
+     * @param positionIndex
+     *          the 0-based position index
+     * @param genotypeIndex
+     *          the 0-based genotype index
+     * @return
+     *          the probability
+     */
+    public double getProbability(
+            int individualIndex,
+            int positionIndex,
+            int genotypeIndex)
+    {
+        int index =
+            (genotypeIndex * this.positions.length + positionIndex) *
+            this.individualCount + individualIndex;
+        return this.floatProbabilities == null ?
+                this.doubleProbabilities.get(index) :
+                this.floatProbabilities.get(index);
+    }
+
+    /**
+     * Copy the probabilities of a single genotype at a single position
+     * for every individual
+     * @param positionIndex
+     *          the 0-based position index
+     * @param genotypeIndex
+     *          the 0-based genotype index
+     * @param destination
+     *          the array to copy into. must hold at least
+     *          {@link #getIndividualCount()} values
+     */
+    public void copyProbabilities(
+            int positionIndex,
+            int genotypeIndex,
+            double[] destination)
+    {
+        int offset =
+            (genotypeIndex * this.positions.length + positionIndex) *
+            this.individualCount;
+
+        // absolute gets so that many threads can share the buffer
+        if(this.floatProbabilities == null)
+        {
+            for(int i = 0; i < this.individualCount; i++)
+            {
+                destination[i] = this.doubleProbabilities.get(offset + i);
+            }
+        }
+        else
+        {
+            for(int i = 0; i < this.individualCount; i++)
+            {
+                destination[i] = this.floatProbabilities.get(offset + i);
+            }
+        }
+    }
+
+    /**
+     * Getter for the number of individuals
+     * @return
+     *          the individual count
+     */
+    public int getIndividualCount()
+    {
+        return this.individualCount;
+    }
+
+    /**
+     * Getter for the number of marker and pseudomarker positions
+     * @return
+     *          the position count
+     */
+    public int getPositionCount()
+    {
+        return this.positions.length;
+    }
+
+    /**
+     * Getter for the number of genotypes
+     * @return
+     *          the genotype count
+     */
+    public int getGenotypeCount()
+    {
+        return this.genotypeNames.length;
+    }
+
+    /**
+     * Get the position name as it appears in the <code>"map"</code>
+     * attribute
+     * @param positionIndex
+     *          the 0-based position index
+     * @return
+     *          the name
+     */
+    public String getPositionName(int positionIndex)
+    {
+        return this.positionNames[positionIndex];
+    }
+
+    /**
+     * Get a position in cM
+     * @param positionIndex
+     *          the 0-based position index
+     * @return
+     *          the position
+     */
+    public double getPosition(int positionIndex)
+    {
+        return this.positions[positionIndex];
+    }
+
+    /**
+     * Determine if the probabilities are held in single precision
+     * @return
+     *          true iff we're using floats
+     */
+    public boolean isSinglePrecision()
+    {
+        return this.floatProbabilities != null;
+    }
+
+    /**
+     * Getter for the genotype names
+     * @return
+     *          the genotype names
+     */
+    public String[] getGenotypeNames()
+    {
+        return this.genotypeNames.clone();
+    }
+}
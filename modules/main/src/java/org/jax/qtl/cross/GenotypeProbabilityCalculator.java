@@ -0,0 +1,1479 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.cross;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jax.qtl.cross.Cross.CrossSubType;
+import org.jax.qtl.util.GeneticMapVersions;
+import org.jax.qtl.util.MappedRArrayTransfer;
+import org.jax.qtl.util.ParallelComputation;
+import org.jax.qtl.util.RChangeJournal;
+import org.jax.qtl.util.RCommandBatch;
+import org.jax.qtl.util.RSessionEpoch;
+import org.jax.qtl.util.RSessionLock;
+import org.jax.r.RUtilities;
+import org.jax.r.jriutilities.RInterface;
+import org.jax.r.jriutilities.SilentRCommand;
+import org.rosuda.JRI.REXP;
+
+/**
+ * A java version of R/qtl's <code>calc.genoprob</code> for backcrosses,
+ * intercrosses and 4-way crosses. Pseudomarker grids are laid out the
+ * way <code>calc.genoprob</code> lays them out and the conditional
+ * genotype probabilities come from the forward-backward algorithm on the
+ * usual genotyping error HMM. Every chromosome/individual block is an
+ * independent task on the {@link ParallelComputation} pool.
+ * <p>
+ * The probabilities are kept as a single precision tensor which is
+ * written to <code>cross$geno[[chr]]$prob</code> (so that R sees exactly
+ * what <code>calc.genoprob</code> would have given it) and then handed
+ * to {@link CrossChromosome#setGenotypeProbabilities(GenotypeProbabilities)}
+ * so that the java scans can use it without a round trip. The X
+ * chromosome (with its sex and cross direction specific genotypes) is
+ * still passed to <code>calc.genoprob</code> in R.
+ * </p>
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class GenotypeProbabilityCalculator
+{
+    /**
+     * our logger
+     */
+    private static final Logger LOG = Logger.getLogger(
+            GenotypeProbabilityCalculator.class.getName());
+
+    /**
+     * the number of individuals that a single task runs the HMM for
+     */
+    private static final int INDIVIDUAL_BLOCK_SIZE = 64;
+
+    /**
+     * recombination fractions are floored at this value like they are in
+     * R/qtl
+     */
+    private static final double MIN_RECOMBINATION_FRACTION = 1e-14;
+
+    /**
+     * the scratch identifier that we read the probabilities into
+     */
+    private static final String PROB_IDENTIFIER = ".jqtl.genoprob";
+
+    /**
+     * the scratch identifier for the cross that R calculates X
+     * chromosome probabilities on
+     */
+    private static final String R_CROSS_IDENTIFIER = ".jqtl.genoprob.cross";
+
+    /**
+     * The map functions that <code>calc.genoprob</code> understands
+     */
+    public static enum MapFunction
+    {
+        /**
+         * Haldane's map function (no interference)
+         */
+        HALDANE
+        {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public String getRName()
+            {
+                return "haldane";
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public double toRecombinationFraction(double distanceCentimorgans)
+            {
+                return 0.5 * (1.0 - Math.exp(-2.0 * distanceCentimorgans / 100.0));
+            }
+        },
+
+        /**
+         * Kosambi's map function
+         */
+        KOSAMBI
+        {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public String getRName()
+            {
+                return "kosambi";
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public double toRecombinationFraction(double distanceCentimorgans)
+            {
+                double exponential = Math.exp(4.0 * distanceCentimorgans / 100.0);
+                return 0.5 * (exponential - 1.0) / (exponential + 1.0);
+            }
+        },
+
+        /**
+         * the Carter-Falconer map function
+         */
+        CARTER_FALCONER
+        {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public String getRName()
+            {
+                return "c-f";
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public double toRecombinationFraction(double distanceCentimorgans)
+            {
+                // like R/qtl's mf.cf we invert the Carter-Falconer distance
+                // d = (log(1 + 2r) - log(1 - 2r)) / 4 + atan(2r) / 2
+                // numerically. it's increasing in r so bisection is safe
+                double morgans = Math.min(distanceCentimorgans, 300.0) / 100.0;
+                if(morgans <= 0.0)
+                {
+                    return 0.0;
+                }
+
+                double low = 0.0;
+                double high = 0.5;
+                for(int i = 0; i < 60; i++)
+                {
+                    double middle = (low + high) / 2.0;
+                    double twiceMiddle = 2.0 * middle;
+                    double distance =
+                        0.25 * (Math.log(1.0 + twiceMiddle) - Math.log(1.0 - twiceMiddle)) +
+                        0.5 * Math.atan(twiceMiddle);
+                    if(distance < morgans)
+                    {
+                        low = middle;
+                    }
+                    else
+                    {
+                        high = middle;
+                    }
+                }
+                return (low + high) / 2.0;
+            }
+        },
+
+        /**
+         * Morgan's map function (complete interference)
+         */
+        MORGAN
+        {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public String getRName()
+            {
+                return "morgan";
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public double toRecombinationFraction(double distanceCentimorgans)
+            {
+                return Math.min(distanceCentimorgans / 100.0, 0.5);
+            }
+        };
+
+        /**
+         * Get the name that R/qtl uses for this map function
+         * @return
+         *          the name
+         */
+        public abstract String getRName();
+
+        /**
+         * Turn a map distance into a recombination fraction
+         * @param distanceCentimorgans
+         *          the distance in cM
+         * @return
+         *          the recombination fraction
+         */
+        public abstract double toRecombinationFraction(double distanceCentimorgans);
+    }
+
+    /**
+     * How the pseudomarker grid is laid out
+     */
+    public static enum StepWidth
+    {
+        /**
+         * pseudomarkers are put on a fixed grid starting at the 1st marker
+         */
+        FIXED
+        {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public String getRName()
+            {
+                return "fixed";
+            }
+        },
+
+        /**
+         * each marker interval gets the fewest evenly spaced
+         * pseudomarkers needed to keep the spacing under the step size
+         */
+        VARIABLE
+        {
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public String getRName()
+            {
+                return "variable";
+            }
+        };
+
+        /**
+         * Get the name that R/qtl uses for this step width
+         * @return
+         *          the name
+         */
+        public abstract String getRName();
+    }
+
+    private final double step;
+
+    private final double offEnd;
+
+    private final double errorProbability;
+
+    private final MapFunction mapFunction;
+
+    private final StepWidth stepWidth;
+
+    /**
+     * Constructor
+     * @param step
+     *          the maximum distance in cM between positions (0 for markers
+     *          only)
+     * @param offEnd
+     *          the distance in cM past the terminal markers to go
+     * @param errorProbability
+     *          the genotyping error rate
+     * @param mapFunction
+     *          the map function
+     * @param stepWidth
+     *          how pseudomarkers are laid out
+     */
+    public GenotypeProbabilityCalculator(
+            double step,
+            double offEnd,
+            double errorProbability,
+            MapFunction mapFunction,
+            StepWidth stepWidth)
+    {
+        this.step = step;
+        this.offEnd = offEnd;
+        this.errorProbability = errorProbability;
+        this.mapFunction = mapFunction;
+        this.stepWidth = stepWidth;
+    }
+
+    /**
+     * Determine if the given cross is a type that we can calculate
+     * probabilities for
+     * @param cross
+     *          the cross
+     * @return
+     *          true if we can handle it
+     */
+    public static boolean canCalculate(Cross cross)
+    {
+        return cross.getCrossSubType() != null;
+    }
+
+    /**
+     * Get the <code>calc.genoprob</code> command that this calculation
+     * stands in for
+     * @param cross
+     *          the cross
+     * @return
+     *          the command
+     */
+    public String getEquivalentCommand(Cross cross)
+    {
+        String crossAccessor = cross.getAccessorExpressionString();
+        return crossAccessor + " <- calc.genoprob(" + crossAccessor +
+               ", step=" + this.step +
+               ", off.end=" + this.offEnd +
+               ", error.prob=" + this.errorProbability +
+               ", map.function=" +
+               RUtilities.javaStringToRString(this.mapFunction.getRName()) +
+               ", stepwidth=" +
+               RUtilities.javaStringToRString(this.stepWidth.getRName()) + ")";
+    }
+
+    /**
+     * Calculate the genotype probabilities for every chromosome in the
+     * cross and assign them in R
+     * @param rInterface
+     *          the R interface
+     * @param cross
+     *          the cross
+     * @return
+     *          true if the probabilities were assigned. if false the
+     *          caller should run <code>calc.genoprob</code> in R
+     */
+    public boolean calculateGenotypeProbabilities(
+            RInterface rInterface,
+            Cross cross)
+    {
+        CrossSubType crossSubType = cross.getCrossSubType();
+        if(crossSubType == null)
+        {
+            return false;
+        }
+
+        try
+        {
+            List<CrossChromosome> rChromosomes = new ArrayList<CrossChromosome>();
+            List<CrossChromosome> javaChromosomes = new ArrayList<CrossChromosome>();
+            for(CrossChromosome chromosome: cross.getGenotypeData())
+            {
+                if(chromosome.isXChromosome())
+                {
+                    rChromosomes.add(chromosome);
+                }
+                else
+                {
+                    javaChromosomes.add(chromosome);
+                }
+            }
+
+            // the maps and alleles come across in one evaluation
+            RCommandBatch batch = new RCommandBatch(rInterface);
+            int allelesIndex = batch.addExpression(
+                    "as.character(attr(" + cross.getAccessorExpressionString() +
+                    ", \"alleles\"))");
+            int[] mapIndices = new int[javaChromosomes.size()];
+            int[] sexSpecificIndices = new int[javaChromosomes.size()];
+            for(int c = 0; c < mapIndices.length; c++)
+            {
+                String mapAccessor =
+                    javaChromosomes.get(c).getAccessorExpressionString() + "$map";
+                mapIndices[c] = batch.addExpression(
+                        "as.double(" + mapAccessor + ")");
+                sexSpecificIndices[c] = batch.addExpression(
+                        "as.integer(is.matrix(" + mapAccessor + "))");
+            }
+            REXP[] results = batch.evaluate();
+            String[] genotypeNames = GenotypeProbabilityCalculator.getGenotypeNames(
+                    crossSubType,
+                    results[allelesIndex].asStringArray());
+
+            List<ChromosomeModel> models = new ArrayList<ChromosomeModel>();
+            for(int c = 0; c < mapIndices.length; c++)
+            {
+                CrossChromosome chromosome = javaChromosomes.get(c);
+                GenotypeMatrix genotypes = chromosome.getGenotypeMatrix();
+                double[] mapValues = results[mapIndices[c]].asDoubleArray();
+                int markerCount = genotypes.getMarkerCount();
+                if(markerCount == 0 || mapValues == null)
+                {
+                    rChromosomes.add(chromosome);
+                    continue;
+                }
+
+                double[] femaleMarkerPositions;
+                double[] maleMarkerPositions;
+                if(results[sexSpecificIndices[c]].asInt() == 1)
+                {
+                    // sex specific maps are 2 x markers in column-major order
+                    femaleMarkerPositions = new double[markerCount];
+                    maleMarkerPositions = new double[markerCount];
+                    for(int m = 0; m < markerCount; m++)
+                    {
+                        femaleMarkerPositions[m] = mapValues[2 * m];
+                        maleMarkerPositions[m] = mapValues[2 * m + 1];
+                    }
+                }
+                else
+                {
+                    femaleMarkerPositions = mapValues;
+                    maleMarkerPositions = null;
+                }
+
+                models.add(this.createChromosomeModel(
+                        chromosome,
+                        crossSubType,
+                        genotypes,
+                        genotypeNames,
+                        femaleMarkerPositions,
+                        maleMarkerPositions));
+            }
+
+            this.calculateProbabilities(crossSubType, models);
+            this.assignProbabilities(rInterface, cross, models, rChromosomes);
+            return true;
+        }
+        catch(ExecutionException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "java genotype probability calculation failed",
+                    ex.getCause());
+            return false;
+        }
+        catch(InterruptedException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "interrupted during java genotype probability calculation",
+                    ex);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch(IOException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "failed to move java genotype probabilities into R",
+                    ex);
+            return false;
+        }
+    }
+
+    /**
+     * Get the genotype names that <code>calc.genoprob</code> uses for the
+     * given cross type
+     * @param crossSubType
+     *          the cross type
+     * @param alleles
+     *          the <code>"alleles"</code> attribute of the cross (null
+     *          for the default alleles)
+     * @return
+     *          the genotype names
+     */
+    private static String[] getGenotypeNames(
+            CrossSubType crossSubType,
+            String[] alleles)
+    {
+        switch(crossSubType)
+        {
+            case BACK_CROSS:
+            {
+                if(alleles == null || alleles.length < 2)
+                {
+                    alleles = new String[] {"A", "B"};
+                }
+                return new String[] {
+                        alleles[0] + alleles[0],
+                        alleles[0] + alleles[1]};
+            }
+
+            case F2:
+            {
+                if(alleles == null || alleles.length < 2)
+                {
+                    alleles = new String[] {"A", "B"};
+                }
+                return new String[] {
+                        alleles[0] + alleles[0],
+                        alleles[0] + alleles[1],
+                        alleles[1] + alleles[1]};
+            }
+
+            case FOUR_WAY:
+            {
+                if(alleles == null || alleles.length < 4)
+                {
+                    alleles = new String[] {"A", "B", "C", "D"};
+                }
+                return new String[] {
+                        alleles[0] + alleles[2],
+                        alleles[1] + alleles[2],
+                        alleles[0] + alleles[3],
+                        alleles[1] + alleles[3]};
+            }
+
+            default:
+            {
+                throw new IllegalStateException(
+                        "unknown cross type: " + crossSubType.name());
+            }
+        }
+    }
+
+    /**
+     * Lay out the marker and pseudomarker positions for a chromosome and
+     * work out the transition matrices between them
+     * @param chromosome
+     *          the chromosome
+     * @param crossSubType
+     *          the cross type
+     * @param genotypes
+     *          the marker genotypes
+     * @param genotypeNames
+     *          the genotype names
+     * @param femaleMarkerPositions
+     *          the (female or sex agnostic) marker positions
+     * @param maleMarkerPositions
+     *          the male marker positions or null if the map isn't sex
+     *          specific
+     * @return
+     *          the model
+     */
+    ChromosomeModel createChromosomeModel(
+            CrossChromosome chromosome,
+            CrossSubType crossSubType,
+            GenotypeMatrix genotypes,
+            String[] genotypeNames,
+            double[] femaleMarkerPositions,
+            double[] maleMarkerPositions)
+    {
+        int markerCount = femaleMarkerPositions.length;
+        double firstPosition = femaleMarkerPositions[0];
+
+        // pseudomarker positions relative to the 1st marker
+        double[] relativeMarkerPositions = new double[markerCount];
+        for(int m = 0; m < markerCount; m++)
+        {
+            relativeMarkerPositions[m] = femaleMarkerPositions[m] - firstPosition;
+        }
+        List<Double> pseudomarkers = new ArrayList<Double>();
+        List<String> pseudomarkerNames = new ArrayList<String>();
+        this.layOutPseudomarkers(
+                relativeMarkerPositions,
+                pseudomarkers,
+                pseudomarkerNames);
+
+        // merge markers and pseudomarkers in position order. both are
+        // already in order and markers win ties
+        int positionCount = markerCount + pseudomarkers.size();
+        String[] markerNames = genotypes.getMarkerNames();
+        ChromosomeModel model = new ChromosomeModel(
+                chromosome,
+                genotypes,
+                genotypeNames,
+                positionCount,
+                maleMarkerPositions != null);
+        int markerIndex = 0;
+        int pseudomarkerIndex = 0;
+        for(int p = 0; p < positionCount; p++)
+        {
+            boolean takeMarker =
+                pseudomarkerIndex >= pseudomarkers.size() ||
+                (markerIndex < markerCount &&
+                 relativeMarkerPositions[markerIndex] <=
+                 pseudomarkers.get(pseudomarkerIndex));
+            if(takeMarker)
+            {
+                model.markerIndices[p] = markerIndex;
+                model.positionNames[p] = markerNames[markerIndex];
+                model.positions[p] = femaleMarkerPositions[markerIndex];
+                if(model.malePositions != null)
+                {
+                    model.malePositions[p] = maleMarkerPositions[markerIndex];
+                }
+                markerIndex++;
+            }
+            else
+            {
+                model.markerIndices[p] = -1;
+                model.positionNames[p] = pseudomarkerNames.get(pseudomarkerIndex);
+                model.positions[p] = firstPosition + pseudomarkers.get(pseudomarkerIndex);
+                if(model.malePositions != null)
+                {
+                    model.malePositions[p] = GenotypeProbabilityCalculator.interpolate(
+                            model.positions[p],
+                            femaleMarkerPositions,
+                            maleMarkerPositions);
+                }
+                pseudomarkerIndex++;
+            }
+        }
+
+        // transition matrices for every interval
+        int genotypeCount = genotypeNames.length;
+        for(int p = 0; p < positionCount - 1; p++)
+        {
+            double femaleFraction = this.toRecombinationFraction(
+                    model.positions[p + 1] - model.positions[p]);
+            double maleFraction = model.malePositions == null ?
+                    femaleFraction :
+                    this.toRecombinationFraction(
+                            model.malePositions[p + 1] - model.malePositions[p]);
+            GenotypeProbabilityCalculator.fillTransitions(
+                    crossSubType,
+                    femaleFraction,
+                    maleFraction,
+                    model.transitions,
+                    p * genotypeCount * genotypeCount);
+        }
+
+        return model;
+    }
+
+    /**
+     * Lay out the pseudomarkers for a chromosome the way that R/qtl's
+     * <code>create.map</code> does for a sex-averaged map. With fixed
+     * step widths the grid starts at <code>floor(-off.end)</code> and the
+     * pseudomarkers are named by their position relative to the 1st
+     * marker. With variable step widths the off end points are added to
+     * the map before each interval is split up and the pseudomarkers are
+     * numbered
+     * @param markerPositions
+     *          the marker positions relative to the 1st marker
+     * @param pseudomarkers
+     *          the list that the relative pseudomarker positions are
+     *          added to (in position order)
+     * @param pseudomarkerNames
+     *          the list that the pseudomarker names are added to
+     */
+    void layOutPseudomarkers(
+            double[] markerPositions,
+            List<Double> pseudomarkers,
+            List<String> pseudomarkerNames)
+    {
+        int markerCount = markerPositions.length;
+        double lastPosition = markerPositions[markerCount - 1];
+        if(this.stepWidth == StepWidth.VARIABLE)
+        {
+            boolean addOffEndPoints = this.offEnd > 0.0;
+            double[] map = markerPositions;
+            if(addOffEndPoints)
+            {
+                map = new double[markerCount + 2];
+                map[0] = markerPositions[0] - this.offEnd;
+                System.arraycopy(markerPositions, 0, map, 1, markerCount);
+                map[markerCount + 1] = lastPosition + this.offEnd;
+            }
+
+            for(int i = 0; i < map.length; i++)
+            {
+                if(addOffEndPoints && (i == 0 || i == map.length - 1))
+                {
+                    pseudomarkers.add(map[i]);
+                }
+                if(this.step > 0.0 && i < map.length - 1)
+                {
+                    double intervalLength = map[i + 1] - map[i];
+                    int newPositionCount =
+                        (int)Math.ceil(intervalLength / this.step) - 1;
+                    double width = intervalLength / (newPositionCount + 1);
+                    double position = map[i];
+                    for(int k = 0; k < newPositionCount; k++)
+                    {
+                        position += width;
+                        pseudomarkers.add(position);
+                    }
+                }
+            }
+
+            for(int i = 1; i <= pseudomarkers.size(); i++)
+            {
+                pseudomarkerNames.add("loc" + i);
+            }
+        }
+        else
+        {
+            double[] grid;
+            if(markerCount == 1)
+            {
+                if(this.offEnd == 0.0)
+                {
+                    // a lone marker always gets a partner
+                    grid = new double[] {this.step == 0.0 ? 1.0 : this.step};
+                }
+                else if(this.step == 0.0)
+                {
+                    grid = new double[] {-this.offEnd, this.offEnd};
+                }
+                else
+                {
+                    grid = GenotypeProbabilityCalculator.createRSequence(
+                            -this.offEnd,
+                            this.offEnd,
+                            this.step);
+                }
+            }
+            else if(this.step == 0.0)
+            {
+                grid = this.offEnd == 0.0 ?
+                        new double[0] :
+                        new double[] {
+                                Math.floor(-this.offEnd),
+                                Math.ceil(lastPosition + this.offEnd)};
+            }
+            else
+            {
+                grid = GenotypeProbabilityCalculator.createRSequence(
+                        Math.floor(-this.offEnd),
+                        lastPosition + this.offEnd,
+                        this.step);
+            }
+
+            for(double position: grid)
+            {
+                if(!GenotypeProbabilityCalculator.isMarkerPosition(
+                        position,
+                        markerPositions))
+                {
+                    pseudomarkers.add(position);
+                    pseudomarkerNames.add(
+                            "loc" + GenotypeProbabilityCalculator.formatRNumber(position));
+                }
+            }
+        }
+    }
+
+    /**
+     * Create the same sequence as R's <code>seq(from, to, by=by)</code>
+     * for a positive step
+     * @param from
+     *          the start of the sequence
+     * @param to
+     *          the end of the sequence
+     * @param by
+     *          the step
+     * @return
+     *          the sequence
+     */
+    private static double[] createRSequence(double from, double to, double by)
+    {
+        int lastIndex = (int)((to - from) / by + 1e-10);
+        double[] sequence = new double[lastIndex + 1];
+        for(int i = 0; i <= lastIndex; i++)
+        {
+            sequence[i] = Math.min(to, from + i * by);
+        }
+        return sequence;
+    }
+
+    /**
+     * Turn a distance into a floored recombination fraction
+     * @param distanceCentimorgans
+     *          the distance
+     * @return
+     *          the recombination fraction
+     */
+    private double toRecombinationFraction(double distanceCentimorgans)
+    {
+        return Math.max(
+                MIN_RECOMBINATION_FRACTION,
+                this.mapFunction.toRecombinationFraction(distanceCentimorgans));
+    }
+
+    /**
+     * Determine if the given position is exactly on a marker
+     * @param position
+     *          the position
+     * @param markerPositions
+     *          the marker positions
+     * @return
+     *          true if there's a marker at the position
+     */
+    private static boolean isMarkerPosition(double position, double[] markerPositions)
+    {
+        for(double markerPosition: markerPositions)
+        {
+            if(markerPosition == position)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the male position for a female position by interpolating
+     * between the flanking markers. Positions off the ends are the same
+     * distance off the end in both maps
+     * @param femalePosition
+     *          the female position
+     * @param femaleMarkerPositions
+     *          the female marker positions
+     * @param maleMarkerPositions
+     *          the male marker positions
+     * @return
+     *          the male position
+     */
+    private static double interpolate(
+            double femalePosition,
+            double[] femaleMarkerPositions,
+            double[] maleMarkerPositions)
+    {
+        int last = femaleMarkerPositions.length - 1;
+        if(femalePosition <= femaleMarkerPositions[0])
+        {
+            return maleMarkerPositions[0] - (femaleMarkerPositions[0] - femalePosition);
+        }
+        else if(femalePosition >= femaleMarkerPositions[last])
+        {
+            return maleMarkerPositions[last] + (femalePosition - femaleMarkerPositions[last]);
+        }
+        else
+        {
+            int m = 0;
+            while(femaleMarkerPositions[m + 1] < femalePosition)
+            {
+                m++;
+            }
+            double femaleLength = femaleMarkerPositions[m + 1] - femaleMarkerPositions[m];
+            double fraction = femaleLength <= 0.0 ?
+                    0.0 :
+                    (femalePosition - femaleMarkerPositions[m]) / femaleLength;
+            return maleMarkerPositions[m] +
+                   fraction * (maleMarkerPositions[m + 1] - maleMarkerPositions[m]);
+        }
+    }
+
+    /**
+     * Format a number the way that R's <code>as.character</code> does (15
+     * significant digits with no trailing zeros)
+     * @param value
+     *          the value
+     * @return
+     *          the formatted value
+     */
+    private static String formatRNumber(double value)
+    {
+        BigDecimal rounded = new BigDecimal(value).round(new MathContext(15));
+        if(rounded.signum() == 0)
+        {
+            return "0";
+        }
+        else
+        {
+            return rounded.stripTrailingZeros().toPlainString();
+        }
+    }
+
+    /**
+     * Fill in the transition matrix for a single interval
+     * @param crossSubType
+     *          the cross type
+     * @param femaleFraction
+     *          the (female or sex agnostic) recombination fraction
+     * @param maleFraction
+     *          the male recombination fraction
+     * @param transitions
+     *          the array to fill
+     * @param offset
+     *          where the row-major G x G matrix starts in transitions
+     */
+    static void fillTransitions(
+            CrossSubType crossSubType,
+            double femaleFraction,
+            double maleFraction,
+            double[] transitions,
+            int offset)
+    {
+        double r = femaleFraction;
+        switch(crossSubType)
+        {
+            case BACK_CROSS:
+            {
+                transitions[offset + 0] = 1.0 - r;
+                transitions[offset + 1] = r;
+                transitions[offset + 2] = r;
+                transitions[offset + 3] = 1.0 - r;
+                break;
+            }
+
+            case F2:
+            {
+                double stay = (1.0 - r) * (1.0 - r);
+                double switchOne = r * (1.0 - r);
+                transitions[offset + 0] = stay;
+                transitions[offset + 1] = 2.0 * switchOne;
+                transitions[offset + 2] = r * r;
+                transitions[offset + 3] = switchOne;
+                transitions[offset + 4] = stay + r * r;
+                transitions[offset + 5] = switchOne;
+                transitions[offset + 6] = r * r;
+                transitions[offset + 7] = 2.0 * switchOne;
+                transitions[offset + 8] = stay;
+                break;
+            }
+
+            case FOUR_WAY:
+            {
+                // genotypes are AC, BC, AD, BD. the 1st allele comes in on
+                // the female map and the 2nd on the male map
+                for(int from = 0; from < 4; from++)
+                {
+                    for(int to = 0; to < 4; to++)
+                    {
+                        double female = (from & 1) == (to & 1) ?
+                                1.0 - femaleFraction :
+                                femaleFraction;
+                        double male = (from >>> 1) == (to >>> 1) ?
+                                1.0 - maleFraction :
+                                maleFraction;
+                        transitions[offset + from * 4 + to] = female * male;
+                    }
+                }
+                break;
+            }
+
+            default:
+            {
+                throw new IllegalStateException(
+                        "unknown cross type: " + crossSubType.name());
+            }
+        }
+    }
+
+    /**
+     * Get the starting genotype probabilities
+     * @param crossSubType
+     *          the cross type
+     * @return
+     *          the probabilities
+     */
+    static double[] getInitialProbabilities(CrossSubType crossSubType)
+    {
+        switch(crossSubType)
+        {
+            case BACK_CROSS:
+            {
+                return new double[] {0.5, 0.5};
+            }
+
+            case F2:
+            {
+                return new double[] {0.25, 0.5, 0.25};
+            }
+
+            case FOUR_WAY:
+            {
+                return new double[] {0.25, 0.25, 0.25, 0.25};
+            }
+
+            default:
+            {
+                throw new IllegalStateException(
+                        "unknown cross type: " + crossSubType.name());
+            }
+        }
+    }
+
+    /**
+     * Get the probability of observing a genotype call given the true
+     * genotype
+     * @param crossSubType
+     *          the cross type
+     * @param observed
+     *          the 0-based observed genotype code (or
+     *          {@link GenotypeMatrix#MISSING_GENOTYPE})
+     * @param trueGenotype
+     *          the 0-based true genotype
+     * @return
+     *          the emission probability
+     */
+    double getEmission(
+            CrossSubType crossSubType,
+            int observed,
+            int trueGenotype)
+    {
+        if(observed == GenotypeMatrix.MISSING_GENOTYPE)
+        {
+            return 1.0;
+        }
+
+        double error = this.errorProbability;
+        switch(crossSubType)
+        {
+            case BACK_CROSS:
+            {
+                return observed == trueGenotype ? 1.0 - error : error;
+            }
+
+            case F2:
+            {
+                switch(observed)
+                {
+                    case 0: case 1: case 2:
+                        return observed == trueGenotype ? 1.0 - error : error / 2.0;
+
+                    // not BB
+                    case 3:
+                        return trueGenotype != 2 ? 1.0 - error / 2.0 : error;
+
+                    // not AA
+                    case 4:
+                        return trueGenotype != 0 ? 1.0 - error / 2.0 : error;
+
+                    default:
+                        return 1.0;
+                }
+            }
+
+            case FOUR_WAY:
+            {
+                if(observed < 4)
+                {
+                    return observed == trueGenotype ? 1.0 - error : error / 3.0;
+                }
+                else
+                {
+                    // partially informative calls are compatible with
+                    // exactly two of AC, BC, AD and BD
+                    boolean compatible;
+                    switch(observed)
+                    {
+                        case 4: compatible = (trueGenotype & 1) == 0; break;
+                        case 5: compatible = (trueGenotype & 1) == 1; break;
+                        case 6: compatible = (trueGenotype >>> 1) == 0; break;
+                        case 7: compatible = (trueGenotype >>> 1) == 1; break;
+                        case 8: compatible = trueGenotype == 0 || trueGenotype == 3; break;
+                        case 9: compatible = trueGenotype == 1 || trueGenotype == 2; break;
+                        default: return 1.0;
+                    }
+                    return compatible ? 1.0 - error / 2.0 : error / 2.0;
+                }
+            }
+
+            default:
+            {
+                throw new IllegalStateException(
+                        "unknown cross type: " + crossSubType.name());
+            }
+        }
+    }
+
+    /**
+     * Run the HMM for every chromosome/individual block
+     * @param crossSubType
+     *          the cross type
+     * @param models
+     *          the chromosome models whose probabilities get filled in
+     * @throws ExecutionException
+     *          if the calculation fails
+     * @throws InterruptedException
+     *          if we're interrupted
+     */
+    private void calculateProbabilities(
+            final CrossSubType crossSubType,
+            List<ChromosomeModel> models)
+    throws ExecutionException, InterruptedException
+    {
+        final double[] initialProbabilities =
+            GenotypeProbabilityCalculator.getInitialProbabilities(crossSubType);
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for(final ChromosomeModel model: models)
+        {
+            int individualCount = model.genotypes.getIndividualCount();
+            for(int start = 0; start < individualCount; start += INDIVIDUAL_BLOCK_SIZE)
+            {
+                final int startIndividual = start;
+                final int endIndividual = Math.min(
+                        individualCount,
+                        start + INDIVIDUAL_BLOCK_SIZE);
+                tasks.add(new Callable<Object>()
+                {
+                    public Object call()
+                    {
+                        GenotypeProbabilityCalculator.this.runForwardBackward(
+                                crossSubType,
+                                initialProbabilities,
+                                model,
+                                startIndividual,
+                                endIndividual);
+                        return null;
+                    }
+                });
+            }
+        }
+
+        ParallelComputation.invokeAll(tasks);
+    }
+
+    /**
+     * Run the forward-backward algorithm for a block of individuals on a
+     * single chromosome
+     * @param crossSubType
+     *          the cross type
+     * @param initialProbabilities
+     *          the starting genotype probabilities
+     * @param model
+     *          the chromosome model
+     * @param startIndividual
+     *          the 1st individual (inclusive)
+     * @param endIndividual
+     *          the last individual (exclusive)
+     */
+    void runForwardBackward(
+            CrossSubType crossSubType,
+            double[] initialProbabilities,
+            ChromosomeModel model,
+            int startIndividual,
+            int endIndividual)
+    {
+        int positionCount = model.positions.length;
+        int genotypeCount = initialProbabilities.length;
+        int transitionSize = genotypeCount * genotypeCount;
+        int individualCount = model.genotypes.getIndividualCount();
+        double[] emissions = new double[positionCount * genotypeCount];
+        double[] forward = new double[positionCount * genotypeCount];
+        double[] backward = new double[positionCount * genotypeCount];
+
+        for(int individual = startIndividual; individual < endIndividual; individual++)
+        {
+            for(int p = 0; p < positionCount; p++)
+            {
+                int observed = model.markerIndices[p] < 0 ?
+                        GenotypeMatrix.MISSING_GENOTYPE :
+                        model.genotypes.getGenotype(model.markerIndices[p], individual);
+                for(int g = 0; g < genotypeCount; g++)
+                {
+                    emissions[p * genotypeCount + g] =
+                        this.getEmission(crossSubType, observed, g);
+                }
+            }
+
+            // forward (scaled at every position to avoid underflow)
+            for(int g = 0; g < genotypeCount; g++)
+            {
+                forward[g] = initialProbabilities[g] * emissions[g];
+            }
+            GenotypeProbabilityCalculator.normalize(forward, 0, genotypeCount);
+            for(int p = 1; p < positionCount; p++)
+            {
+                int previous = (p - 1) * genotypeCount;
+                int current = p * genotypeCount;
+                int transitionOffset = (p - 1) * transitionSize;
+                for(int to = 0; to < genotypeCount; to++)
+                {
+                    double sum = 0.0;
+                    for(int from = 0; from < genotypeCount; from++)
+                    {
+                        sum += forward[previous + from] *
+                               model.transitions[transitionOffset + from * genotypeCount + to];
+                    }
+                    forward[current + to] = sum * emissions[current + to];
+                }
+                GenotypeProbabilityCalculator.normalize(forward, current, genotypeCount);
+            }
+
+            // backward
+            int last = (positionCount - 1) * genotypeCount;
+            for(int g = 0; g < genotypeCount; g++)
+            {
+                backward[last + g] = 1.0;
+            }
+            for(int p = positionCount - 2; p >= 0; p--)
+            {
+                int current = p * genotypeCount;
+                int next = (p + 1) * genotypeCount;
+                int transitionOffset = p * transitionSize;
+                for(int from = 0; from < genotypeCount; from++)
+                {
+                    double sum = 0.0;
+                    for(int to = 0; to < genotypeCount; to++)
+                    {
+                        sum += model.transitions[transitionOffset + from * genotypeCount + to] *
+                               emissions[next + to] *
+                               backward[next + to];
+                    }
+                    backward[current + from] = sum;
+                }
+                GenotypeProbabilityCalculator.normalize(backward, current, genotypeCount);
+            }
+
+            // posteriors go straight into the tensor in R's layout
+            for(int p = 0; p < positionCount; p++)
+            {
+                int current = p * genotypeCount;
+                double total = 0.0;
+                for(int g = 0; g < genotypeCount; g++)
+                {
+                    total += forward[current + g] * backward[current + g];
+                }
+                for(int g = 0; g < genotypeCount; g++)
+                {
+                    double probability = total > 0.0 ?
+                            forward[current + g] * backward[current + g] / total :
+                            initialProbabilities[g];
+                    model.probabilities[(g * positionCount + p) * individualCount + individual] =
+                        (float)probability;
+                }
+            }
+        }
+    }
+
+    /**
+     * Scale a run of values so that they sum to one
+     * @param values
+     *          the values
+     * @param offset
+     *          the start of the run
+     * @param length
+     *          the length of the run
+     */
+    private static void normalize(double[] values, int offset, int length)
+    {
+        double total = 0.0;
+        for(int i = offset; i < offset + length; i++)
+        {
+            total += values[i];
+        }
+        if(total > 0.0)
+        {
+            for(int i = offset; i < offset + length; i++)
+            {
+                values[i] /= total;
+            }
+        }
+    }
+
+    /**
+     * Write the probabilities to R, let R take care of the chromosomes
+     * that we skipped and share the java tensors with the chromosomes
+     * @param rInterface
+     *          the R interface
+     * @param cross
+     *          the cross
+     * @param models
+     *          the chromosomes that we calculated
+     * @param rChromosomes
+     *          the chromosomes that R needs to calculate
+     * @throws IOException
+     *          if we fail to transfer the probabilities
+     */
+    private void assignProbabilities(
+            RInterface rInterface,
+            Cross cross,
+            List<ChromosomeModel> models,
+            List<CrossChromosome> rChromosomes)
+    throws IOException
+    {
+        String attributeCommands =
+            "attr(prob, \"error.prob\") <- " + this.errorProbability + "; " +
+            "attr(prob, \"step\") <- " + this.step + "; " +
+            "attr(prob, \"off.end\") <- " + this.offEnd + "; " +
+            "attr(prob, \"map.function\") <- " +
+            RUtilities.javaStringToRString(this.mapFunction.getRName()) + "; " +
+            "attr(prob, \"stepwidth\") <- " +
+            RUtilities.javaStringToRString(this.stepWidth.getRName()) + "; ";
+
+        RSessionLock.lockForWriting();
+        try
+        {
+            rInterface.insertComment(
+                    "evaluated in java: " + this.getEquivalentCommand(cross));
+            for(ChromosomeModel model: models)
+            {
+                int individualCount = model.genotypes.getIndividualCount();
+                MappedRArrayTransfer.DoubleArrayWriter probabilityWriter =
+                    new MappedRArrayTransfer.DoubleArrayWriter();
+                boolean assigned = false;
+                try
+                {
+                    double[] chunk = new double[individualCount];
+                    for(int start = 0; start < model.probabilities.length; start += individualCount)
+                    {
+                        for(int i = 0; i < individualCount; i++)
+                        {
+                            chunk[i] = model.probabilities[start + i];
+                        }
+                        probabilityWriter.write(chunk, 0, individualCount);
+                    }
+                    probabilityWriter.assign(rInterface, PROB_IDENTIFIER);
+                    assigned = true;
+                }
+                finally
+                {
+                    if(!assigned)
+                    {
+                        probabilityWriter.discard();
+                    }
+                }
+
+                String mapCommand;
+                String namesVector = RUtilities.stringArrayToRVector(model.positionNames);
+                if(model.malePositions == null)
+                {
+                    mapCommand =
+                        "map <- " + RUtilities.doubleArrayToRVector(model.positions) + "; " +
+                        "names(map) <- " + namesVector + "; ";
+                }
+                else
+                {
+                    mapCommand =
+                        "map <- rbind(" +
+                        RUtilities.doubleArrayToRVector(model.positions) + ", " +
+                        RUtilities.doubleArrayToRVector(model.malePositions) + "); " +
+                        "dimnames(map) <- list(NULL, " + namesVector + "); ";
+                }
+                rInterface.evaluateCommandNoReturn(new SilentRCommand(
+                        model.chromosome.getAccessorExpressionString() +
+                        GenotypeProbabilities.PROB_COMPONENT + " <- local({" +
+                        "prob <- array(" + PROB_IDENTIFIER + ", dim=c(" +
+                        individualCount + ", " + model.positions.length + ", " +
+                        model.genotypeNames.length + ")); " +
+                        mapCommand +
+                        "dimnames(prob) <- list(NULL, " + namesVector + ", " +
+                        RUtilities.stringArrayToRVector(model.genotypeNames) + "); " +
+                        "attr(prob, \"map\") <- map; " +
+                        attributeCommands +
+                        "prob}); " +
+                        "rm(" + PROB_IDENTIFIER + ")"));
+            }
+
+            if(!rChromosomes.isEmpty())
+            {
+                String crossAccessor = cross.getAccessorExpressionString();
+                String[] chromosomeNames = new String[rChromosomes.size()];
+                for(int i = 0; i < chromosomeNames.length; i++)
+                {
+                    chromosomeNames[i] = rChromosomes.get(i).getChromosomeName();
+                }
+                rInterface.evaluateCommandNoReturn(new SilentRCommand(
+                        R_CROSS_IDENTIFIER + " <- calc.genoprob(subset(" +
+                        crossAccessor + ", chr=" +
+                        RUtilities.stringArrayToRVector(chromosomeNames) + ")" +
+                        ", step=" + this.step +
+                        ", off.end=" + this.offEnd +
+                        ", error.prob=" + this.errorProbability +
+                        ", map.function=" +
+                        RUtilities.javaStringToRString(this.mapFunction.getRName()) +
+                        ", stepwidth=" +
+                        RUtilities.javaStringToRString(this.stepWidth.getRName()) + "); " +
+                        "for(chr in names(" + R_CROSS_IDENTIFIER + "$geno)) " +
+                        crossAccessor + "$geno[[chr]]$prob <- " +
+                        R_CROSS_IDENTIFIER + "$geno[[chr]]$prob; " +
+                        "rm(" + R_CROSS_IDENTIFIER + ", chr)"));
+            }
+        }
+        finally
+        {
+            RSessionLock.unlockForWriting();
+        }
+        RSessionEpoch.advanceMutationEpoch();
+        RChangeJournal.recordAssignment(cross.getAccessorExpressionString());
+        GeneticMapVersions.invalidate(cross.getAccessorExpressionString());
+
+        for(ChromosomeModel model: models)
+        {
+            model.chromosome.setGenotypeProbabilities(new GenotypeProbabilities(
+                    model.positionNames,
+                    model.positions,
+                    model.genotypeNames,
+                    model.genotypes.getIndividualCount(),
+                    FloatBuffer.wrap(model.probabilities)));
+        }
+    }
+
+    /**
+     * Everything we need to run the HMM on one chromosome
+     */
+    static class ChromosomeModel
+    {
+        final CrossChromosome chromosome;
+
+        final GenotypeMatrix genotypes;
+
+        final String[] genotypeNames;
+
+        final String[] positionNames;
+
+        /**
+         * the (female or sex agnostic) positions
+         */
+        final double[] positions;
+
+        /**
+         * the male positions or null if the map isn't sex specific
+         */
+        final double[] malePositions;
+
+        /**
+         * the marker index of each position or -1 for pseudomarkers
+         */
+        final int[] markerIndices;
+
+        /**
+         * the row-major G x G transition matrix of every interval
+         */
+        final double[] transitions;
+
+        /**
+         * the probabilities in R's individual x position x genotype order
+         */
+        final float[] probabilities;
+
+        /**
+         * Constructor
+         * @param chromosome
+         *          the chromosome
+         * @param genotypes
+         *          the marker genotypes
+         * @param genotypeNames
+         *          the genotype names
+         * @param positionCount
+         *          the number of markers and pseudomarkers
+         * @param sexSpecific
+         *          true if there's a separate male map
+         */
+        public ChromosomeModel(
+                CrossChromosome chromosome,
+                GenotypeMatrix genotypes,
+                String[] genotypeNames,
+                int positionCount,
+                boolean sexSpecific)
+        {
+            int genotypeCount = genotypeNames.length;
+            this.chromosome = chromosome;
+            this.genotypes = genotypes;
+            this.genotypeNames = genotypeNames;
+            this.positionNames = new String[positionCount];
+            this.positions = new double[positionCount];
+            this.malePositions = sexSpecific ? new double[positionCount] : null;
+            this.markerIndices = new int[positionCount];
+            this.transitions = new double[
+                    Math.max(0, positionCount - 1) * genotypeCount * genotypeCount];
+            this.probabilities = new float[
+                    genotypes.getIndividualCount() * positionCount * genotypeCount];
+        }
+    }
+}
@@ -0,0 +1,585 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.cross;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.jax.analyticgraph.data.NamedCategoricalData;
+import org.jax.analyticgraph.data.NamedData;
+import org.jax.analyticgraph.data.NamedDataMatrix;
+import org.jax.analyticgraph.data.NamedIntegerData;
+import org.jax.analyticgraph.data.NamedRealData;
+import org.jax.analyticgraph.data.SimpleSelectableNamedDataMatrix;
+import org.jax.qtl.cross.Cross.AssumedCategoricalPhenotype;
+import org.jax.r.jriutilities.RInterface;
+import org.jax.r.jriutilities.SilentRCommand;
+import org.rosuda.JRI.REXP;
+import org.rosuda.JRI.RVector;
+
+/**
+ * An immutable, primitive backed copy of a cross's phenotype data. All of
+ * the phenotype values live in a single column-major double array so that
+ * a cross with many thousands of phenotypes can be loaded from R in a
+ * single evaluation and held without boxing every value.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class PhenotypeMatrix
+{
+    /**
+     * our logger
+     */
+    private static final Logger LOG = Logger.getLogger(
+            PhenotypeMatrix.class.getName());
+
+    /**
+     * The kinds of phenotype column that we know how to hold
+     */
+    public static enum PhenotypeKind
+    {
+        /**
+         * a real valued phenotype where missing values are NaN
+         */
+        REAL,
+
+        /**
+         * an integer valued phenotype where missing values are NaN
+         */
+        INTEGER,
+
+        /**
+         * a categorical phenotype where values are 0-based category
+         * indices and missing values are NaN
+         */
+        CATEGORICAL
+    }
+
+    /**
+     * the value R uses for integer NAs
+     */
+    private static final int R_INTEGER_NA = Integer.MIN_VALUE;
+
+    // the column type codes used by the bulk load command
+    private static final int OTHER_COLUMN_CODE = 0;
+    private static final int REAL_COLUMN_CODE = 1;
+    private static final int INTEGER_COLUMN_CODE = 2;
+    private static final int FACTOR_COLUMN_CODE = 3;
+
+    // the list indices of the bulk load command's result
+    private static final int NAMES_ELEMENT = 0;
+    private static final int COLUMN_CODES_ELEMENT = 1;
+    private static final int NUMERIC_VALUES_ELEMENT = 2;
+    private static final int FACTOR_CODES_ELEMENT = 3;
+    private static final int FACTOR_LEVELS_ELEMENT = 4;
+    private static final int FACTOR_LEVEL_COUNTS_ELEMENT = 5;
+    private static final int INDIVIDUAL_COUNT_ELEMENT = 6;
+
+    private final String[] phenotypeNames;
+
+    private final PhenotypeKind[] phenotypeKinds;
+
+    /**
+     * the category names for each categorical column (null for the
+     * other columns)
+     */
+    private final String[][] categoryNames;
+
+    private final int individualCount;
+
+    /**
+     * column-major values. see {@link #getValue(int, int)}
+     */
+    private final double[] values;
+
+    /**
+     * Constructor
+     * @param phenotypeNames
+     *          the phenotype names
+     * @param phenotypeKinds
+     *          the kind of each phenotype
+     * @param categoryNames
+     *          the category names for the categorical phenotypes (the array
+     *          entries for non-categorical phenotypes should be null)
+     * @param individualCount
+     *          the number of individuals
+     * @param values
+     *          the column-major phenotype values
+     */
+    public PhenotypeMatrix(
+            String[] phenotypeNames,
+            PhenotypeKind[] phenotypeKinds,
+            String[][] categoryNames,
+            int individualCount,
+            double[] values)
+    {
+        if(phenotypeNames.length != phenotypeKinds.length ||
+           phenotypeNames.length != categoryNames.length ||
+           (long)phenotypeNames.length * individualCount != values.length)
+        {
+            throw new IllegalArgumentException(
+                    "the phenotype names, kinds, categories and values " +
+                    "must all agree in size");
+        }
+
+        this.phenotypeNames = phenotypeNames;
+        this.phenotypeKinds = phenotypeKinds;
+        this.categoryNames = categoryNames;
+        this.individualCount = individualCount;
+        this.values = values;
+    }
+
+    /**
+     * Load the phenotype data for the given cross using a single R
+     * evaluation. Numeric columns come back packed together in one double
+     * vector and factors come back as integer codes plus their levels.
+     * @param rInterface
+     *          the R interface to use
+     * @param crossIdentifier
+     *          the identifier for the cross that we're interested in
+     * @return
+     *          the phenotype matrix
+     */
+    public static PhenotypeMatrix fetchPhenotypeMatrix(
+            RInterface rInterface,
+            String crossIdentifier)
+    {
+        String phenotypeCommand = crossIdentifier + Cross.PHENO_COMPONENT;
+        String bulkLoadCommand =
+            "local({" +
+            "pheno <- " + phenotypeCommand + "; " +
+            "isFactor <- as.logical(sapply(pheno, is.factor)); " +
+            "isInteger <- as.logical(sapply(pheno, is.integer)); " +
+            "isNumeric <- as.logical(sapply(pheno, is.numeric)) & !isFactor; " +
+            "list(" +
+            "as.character(names(pheno)), " +
+            "as.integer(ifelse(isFactor, " + FACTOR_COLUMN_CODE +
+            ", ifelse(isInteger, " + INTEGER_COLUMN_CODE +
+            ", ifelse(isNumeric, " + REAL_COLUMN_CODE +
+            ", " + OTHER_COLUMN_CODE + ")))), " +
+            "as.double(unlist(pheno[isNumeric], use.names=FALSE)), " +
+            "as.integer(unlist(lapply(pheno[isFactor], as.integer), use.names=FALSE)), " +
+            "as.character(unlist(lapply(pheno[isFactor], levels), use.names=FALSE)), " +
+            "as.integer(unlist(lapply(pheno[isFactor], nlevels), use.names=FALSE)), " +
+            "as.integer(nrow(pheno)))})";
+        REXP bulkLoadExpression = rInterface.evaluateCommand(
+                new SilentRCommand(bulkLoadCommand));
+        RVector bulkLoadList = bulkLoadExpression.asVector();
+
+        String[] allNames = asStringArray(bulkLoadList.at(NAMES_ELEMENT));
+        int[] columnCodes = asIntArray(bulkLoadList.at(COLUMN_CODES_ELEMENT));
+        double[] numericValues = asDoubleArray(
+                bulkLoadList.at(NUMERIC_VALUES_ELEMENT));
+        int[] factorCodes = asIntArray(bulkLoadList.at(FACTOR_CODES_ELEMENT));
+        String[] factorLevels = asStringArray(
+                bulkLoadList.at(FACTOR_LEVELS_ELEMENT));
+        int[] factorLevelCounts = asIntArray(
+                bulkLoadList.at(FACTOR_LEVEL_COUNTS_ELEMENT));
+        int individualCount =
+            bulkLoadList.at(INDIVIDUAL_COUNT_ELEMENT).asInt();
+
+        // figure out which columns we know how to translate
+        int keptColumnCount = 0;
+        for(int i = 0; i < columnCodes.length; i++)
+        {
+            if(columnCodes[i] == OTHER_COLUMN_CODE)
+            {
+                // don't know what to do with this one
+                LOG.severe(
+                        "don't know how to translate phenotype column: " +
+                        allNames[i]);
+            }
+            else
+            {
+                keptColumnCount++;
+            }
+        }
+
+        String[] phenotypeNames = new String[keptColumnCount];
+        PhenotypeKind[] phenotypeKinds = new PhenotypeKind[keptColumnCount];
+        String[][] categoryNames = new String[keptColumnCount][];
+        double[] values = new double[keptColumnCount * individualCount];
+
+        int keptColumnIndex = 0;
+        int numericOffset = 0;
+        int factorOffset = 0;
+        int factorIndex = 0;
+        int levelOffset = 0;
+        for(int i = 0; i < columnCodes.length; i++)
+        {
+            int valuesOffset = keptColumnIndex * individualCount;
+            switch(columnCodes[i])
+            {
+                case FACTOR_COLUMN_CODE:
+                {
+                    // categories are numbered in order of first appearance
+                    // (with NA as a category of its own) which is the
+                    // numbering that the per-column translation always used
+                    int levelCount = factorLevelCounts[factorIndex];
+                    int[] levelToCategory = new int[levelCount + 1];
+                    Arrays.fill(levelToCategory, -1);
+                    List<String> categoryNamesList = new ArrayList<String>();
+                    for(int j = 0; j < individualCount; j++)
+                    {
+                        int levelCode = factorCodes[factorOffset + j];
+                        if(levelCode == R_INTEGER_NA || levelCode < 1)
+                        {
+                            levelCode = 0;
+                        }
+
+                        if(levelToCategory[levelCode] == -1)
+                        {
+                            levelToCategory[levelCode] =
+                                categoryNamesList.size();
+                            categoryNamesList.add(levelCode == 0 ?
+                                    null :
+                                    factorLevels[levelOffset + levelCode - 1]);
+                        }
+                        values[valuesOffset + j] = levelToCategory[levelCode];
+                    }
+
+                    phenotypeKinds[keptColumnIndex] = PhenotypeKind.CATEGORICAL;
+                    categoryNames[keptColumnIndex] = categoryNamesList.toArray(
+                            new String[categoryNamesList.size()]);
+
+                    factorOffset += individualCount;
+                    levelOffset += levelCount;
+                    factorIndex++;
+                }
+                break;
+
+                case REAL_COLUMN_CODE:
+                case INTEGER_COLUMN_CODE:
+                {
+                    System.arraycopy(
+                            numericValues,
+                            numericOffset,
+                            values,
+                            valuesOffset,
+                            individualCount);
+                    numericOffset += individualCount;
+
+                    AssumedCategoricalPhenotype matchingAssumedCategoricalPheno =
+                        AssumedCategoricalPhenotype.getCategoricalPhenotypeWithHeader(
+                                allNames[i]);
+                    if(matchingAssumedCategoricalPheno != null)
+                    {
+                        phenotypeKinds[keptColumnIndex] =
+                            PhenotypeKind.CATEGORICAL;
+                        categoryNames[keptColumnIndex] =
+                            matchingAssumedCategoricalPheno.getCategoryNames();
+                    }
+                    else if(columnCodes[i] == INTEGER_COLUMN_CODE)
+                    {
+                        phenotypeKinds[keptColumnIndex] = PhenotypeKind.INTEGER;
+                    }
+                    else
+                    {
+                        phenotypeKinds[keptColumnIndex] = PhenotypeKind.REAL;
+                    }
+                }
+                break;
+
+                default:
+                {
+                    // skipped (we already logged it above)
+                    continue;
+                }
+            }
+
+            phenotypeNames[keptColumnIndex] = allNames[i];
+            keptColumnIndex++;
+        }
+
+        return new PhenotypeMatrix(
+                phenotypeNames,
+                phenotypeKinds,
+                categoryNames,
+                individualCount,
+                values);
+    }
+
+    /**
+     * Null safe conversion to a string array
+     * @param expression
+     *          the expression to convert
+     * @return
+     *          the array (empty if R gave us nothing)
+     */
+    private static String[] asStringArray(REXP expression)
+    {
+        String[] array = expression == null ? null : expression.asStringArray();
+        return array == null ? new String[0] : array;
+    }
+
+    /**
+     * Null safe conversion to an int array
+     * @param expression
+     *          the expression to convert
+     * @return
+     *          the array (empty if R gave us nothing)
+     */
+    private static int[] asIntArray(REXP expression)
+    {
+        int[] array = expression == null ? null : expression.asIntArray();
+        return array == null ? new int[0] : array;
+    }
+
+    /**
+     * Null safe conversion to a double array
+     * @param expression
+     *          the expression to convert
+     * @return
+     *          the array (empty if R gave us nothing)
+     */
+    private static double[] asDoubleArray(REXP expression)
+    {
+        double[] array = expression == null ? null : expression.asDoubleArray();
+        return array == null ? new double[0] : array;
+    }
+
+    /**
+     * Getter for the number of individuals (rows)
+     * @return
+     *          the individual count
+     */
+    public int getIndividualCount()
+    {
+        return this.individualCount;
+    }
+
+    /**
+     * Getter for the number of phenotypes (columns)
+     * @return
+     *          the phenotype count
+     */
+    public int getPhenotypeCount()
+    {
+        return this.phenotypeNames.length;
+    }
+
+    /**
+     * Get the name of the given phenotype
+     * @param phenotypeIndex
+     *          the 0-based phenotype index
+     * @return
+     *          the name
+     */
+    public String getPhenotypeName(int phenotypeIndex)
+    {
+        return this.phenotypeNames[phenotypeIndex];
+    }
+
+    /**
+     * Get a copy of all phenotype names
+     * @return
+     *          the names
+     */
+    public String[] getPhenotypeNames()
+    {
+        return this.phenotypeNames.clone();
+    }
+
+    /**
+     * Find the index of the phenotype with the given name ignoring case
+     * @param phenotypeName
+     *          the name to look for
+     * @return
+     *          the index or -1 if there is no such phenotype
+     */
+    public int getIndexOfPhenotypeNamed(String phenotypeName)
+    {
+        for(int i = 0; i < this.phenotypeNames.length; i++)
+        {
+            if(this.phenotypeNames[i].equalsIgnoreCase(phenotypeName))
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Get the kind of the given phenotype
+     * @param phenotypeIndex
+     *          the 0-based phenotype index
+     * @return
+     *          the kind
+     */
+    public PhenotypeKind getPhenotypeKind(int phenotypeIndex)
+    {
+        return this.phenotypeKinds[phenotypeIndex];
+    }
+
+    /**
+     * Get the category names for a categorical phenotype
+     * @param phenotypeIndex
+     *          the 0-based phenotype index
+     * @return
+     *          the category names or null if the phenotype isn't categorical
+     */
+    public String[] getCategoryNames(int phenotypeIndex)
+    {
+        String[] names = this.categoryNames[phenotypeIndex];
+        return names == null ? null : names.clone();
+    }
+
+    /**
+     * Get a single phenotype value. For categorical phenotypes this is the
+     * 0-based category index.
+     * @param phenotypeIndex
+     *          the 0-based phenotype index
+     * @param individualIndex
+     *          the 0-based individual index
+     * @return
+     *          the value or NaN if it's missing
+     */
+    public double getValue(int phenotypeIndex, int individualIndex)
+    {
+        return this.values[phenotypeIndex * this.individualCount + individualIndex];
+    }
+
+    /**
+     * Copy the values for a phenotype into the given array
+     * @param phenotypeIndex
+     *          the 0-based phenotype index
+     * @param destination
+     *          the array to copy into. must hold at least
+     *          {@link #getIndividualCount()} values
+     */
+    public void copyPhenotypeValues(int phenotypeIndex, double[] destination)
+    {
+        System.arraycopy(
+                this.values,
+                phenotypeIndex * this.individualCount,
+                destination,
+                0,
+                this.individualCount);
+    }
+
+    /**
+     * Build the boxed {@link NamedDataMatrix} view of this phenotype matrix
+     * that the graphing code works with
+     * @return
+     *          the named data matrix
+     */
+    public NamedDataMatrix<Number> toNamedDataMatrix()
+    {
+        List<NamedData<Number>> namedPhenotypeData =
+            new ArrayList<NamedData<Number>>(this.phenotypeNames.length);
+        for(int i = 0; i < this.phenotypeNames.length; i++)
+        {
+            namedPhenotypeData.add(this.toNamedData(i));
+        }
+
+        return new SimpleSelectableNamedDataMatrix<Number>(
+                namedPhenotypeData);
+    }
+
+    /**
+     * Build the boxed {@link NamedData} for a single phenotype
+     * @param phenotypeIndex
+     *          the 0-based phenotype index
+     * @return
+     *          the named data
+     */
+    public NamedData<Number> toNamedData(int phenotypeIndex)
+    {
+        String name = this.phenotypeNames[phenotypeIndex];
+        int offset = phenotypeIndex * this.individualCount;
+        switch(this.phenotypeKinds[phenotypeIndex])
+        {
+            case CATEGORICAL:
+            {
+                Integer[] categoryData = new Integer[this.individualCount];
+                for(int j = 0; j < this.individualCount; j++)
+                {
+                    double currValue = this.values[offset + j];
+                    categoryData[j] = Double.isNaN(currValue) ?
+                            null :
+                            Integer.valueOf((int)Math.round(currValue));
+                }
+                return new NamedCategoricalData(
+                        name,
+                        categoryData,
+                        this.categoryNames[phenotypeIndex]);
+            }
+
+            case INTEGER:
+            {
+                int[] integerData = new int[this.individualCount];
+                for(int j = 0; j < this.individualCount; j++)
+                {
+                    double currValue = this.values[offset + j];
+                    integerData[j] = Double.isNaN(currValue) ?
+                            R_INTEGER_NA :
+                            (int)currValue;
+                }
+                return new NamedIntegerData(name, integerData);
+            }
+
+            default:
+            {
+                Double[] realData = new Double[this.individualCount];
+                for(int j = 0; j < this.individualCount; j++)
+                {
+                    double currValue = this.values[offset + j];
+                    realData[j] = Double.isNaN(currValue) ?
+                            null :
+                            Double.valueOf(currValue);
+                }
+                return new NamedRealData(name, realData);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj)
+    {
+        if(obj instanceof PhenotypeMatrix)
+        {
+            PhenotypeMatrix otherMatrix = (PhenotypeMatrix)obj;
+            return this.individualCount == otherMatrix.individualCount &&
+                   Arrays.equals(this.phenotypeNames, otherMatrix.phenotypeNames) &&
+                   Arrays.equals(this.phenotypeKinds, otherMatrix.phenotypeKinds) &&
+                   Arrays.deepEquals(this.categoryNames, otherMatrix.categoryNames) &&
+                   Arrays.equals(this.values, otherMatrix.values);
+        }
+        else
+        {
+            return false;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode()
+    {
+        return Arrays.hashCode(this.phenotypeNames) + this.individualCount;
+    }
+}
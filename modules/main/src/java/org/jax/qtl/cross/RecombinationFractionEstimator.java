@@ -0,0 +1,587 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.cross;
+
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.jax.qtl.cross.Cross.CrossSubType;
+import org.jax.qtl.util.ParallelComputation;
+
+/**
+ * A java version of R/qtl's <code>est.rf</code> for the markers on a
+ * selection of autosomes. Every marker's calls are packed into one bitset
+ * per genotype code so that the two locus contingency table of a marker
+ * pair comes from ANDs and popcounts over 64 individuals at a time. The
+ * recombination fraction is then fit by EM on the contingency table
+ * (which is tiny and doesn't depend on the number of individuals). Marker
+ * pairs are split into square tiles of the lower triangle and every tile
+ * is a separate task on the {@link ParallelComputation} pool.
+ * <p>
+ * The result uses the same layout as the <code>$rf</code> component that
+ * <code>est.rf</code> adds to the cross: recombination fractions where the
+ * row is greater than the column, LOD scores where the row is less than
+ * the column and the number of typed meioses on the diagonal. Only the
+ * markers on the requested chromosomes are included.
+ * </p>
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class RecombinationFractionEstimator
+{
+    /**
+     * the number of markers on each side of a square tile
+     */
+    private static final int TILE_SIZE = 64;
+
+    /**
+     * the recombination fraction that EM starts from
+     */
+    private static final double STARTING_RECOMBINATION_FRACTION = 0.01;
+
+    private final int maxIterations;
+
+    private final double tolerance;
+
+    /**
+     * Constructor
+     * @param maxIterations
+     *          the maximum number of EM iterations for a marker pair
+     * @param tolerance
+     *          the EM convergence tolerance
+     */
+    public RecombinationFractionEstimator(int maxIterations, double tolerance)
+    {
+        this.maxIterations = maxIterations;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Determine if we can estimate recombination fractions for the given
+     * chromosomes. X chromosomes are left to R since <code>est.rf</code>
+     * treats them with sex and cross direction specific models
+     * @param cross
+     *          the cross
+     * @param chromosomeIndices
+     *          the chromosomes
+     * @return
+     *          true if we can handle them
+     */
+    public static boolean canEstimate(Cross cross, int[] chromosomeIndices)
+    {
+        if(cross.getCrossSubType() == null)
+        {
+            return false;
+        }
+
+        List<CrossChromosome> chromosomes = cross.getGenotypeData();
+        for(int chromosomeIndex: chromosomeIndices)
+        {
+            if(chromosomes.get(chromosomeIndex).isXChromosome())
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Estimate the pairwise recombination fractions and LOD scores for all
+     * of the markers on the given chromosomes
+     * @param cross
+     *          the cross
+     * @param chromosomeIndices
+     *          the chromosomes whose markers we use (in the order given)
+     * @return
+     *          the column-major RF/LOD matrix for the selected markers
+     * @throws ExecutionException
+     *          if the estimation fails
+     * @throws InterruptedException
+     *          if we're interrupted
+     */
+    public DoubleBuffer estimateRecombinationFractions(
+            Cross cross,
+            int[] chromosomeIndices)
+    throws ExecutionException, InterruptedException
+    {
+        final CrossSubType crossSubType = cross.getCrossSubType();
+        List<CrossChromosome> chromosomes = cross.getGenotypeData();
+
+        // pack every selected marker's calls
+        final List<MarkerBits> markers = new ArrayList<MarkerBits>();
+        int codeCount = crossSubType.getMarkerDataCategoricalValues().length;
+        for(int chromosomeIndex: chromosomeIndices)
+        {
+            GenotypeMatrix genotypes =
+                chromosomes.get(chromosomeIndex).getGenotypeMatrix();
+            for(int m = 0; m < genotypes.getMarkerCount(); m++)
+            {
+                markers.add(new MarkerBits(genotypes, m, codeCount));
+            }
+        }
+
+        final int markerCount = markers.size();
+        final double[] rfLod = new double[markerCount * markerCount];
+        final PairModel pairModel = new PairModel(crossSubType, codeCount);
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for(int rowStart = 0; rowStart < markerCount; rowStart += TILE_SIZE)
+        {
+            for(int colStart = 0; colStart <= rowStart; colStart += TILE_SIZE)
+            {
+                final int tileRowStart = rowStart;
+                final int tileColStart = colStart;
+                tasks.add(new Callable<Object>()
+                {
+                    public Object call()
+                    {
+                        RecombinationFractionEstimator.this.estimateTile(
+                                pairModel,
+                                markers,
+                                tileRowStart,
+                                tileColStart,
+                                rfLod);
+                        return null;
+                    }
+                });
+            }
+        }
+        ParallelComputation.invokeAll(tasks);
+
+        return DoubleBuffer.wrap(rfLod);
+    }
+
+    /**
+     * Fill in a single tile of the RF/LOD matrix
+     * @param pairModel
+     *          the two locus model for the cross
+     * @param markers
+     *          the packed markers
+     * @param rowStart
+     *          the 1st row of the tile
+     * @param colStart
+     *          the 1st column of the tile (never more than rowStart)
+     * @param rfLod
+     *          the column-major matrix to fill
+     */
+    private void estimateTile(
+            PairModel pairModel,
+            List<MarkerBits> markers,
+            int rowStart,
+            int colStart,
+            double[] rfLod)
+    {
+        int markerCount = markers.size();
+        int codeCount = pairModel.codeCount;
+        int rowEnd = Math.min(markerCount, rowStart + TILE_SIZE);
+        int colEnd = Math.min(markerCount, colStart + TILE_SIZE);
+        int[] counts = new int[codeCount * codeCount];
+        double[] estimate = new double[2];
+        for(int row = rowStart; row < rowEnd; row++)
+        {
+            MarkerBits rowMarker = markers.get(row);
+            for(int col = colStart; col < colEnd && col <= row; col++)
+            {
+                if(col == row)
+                {
+                    rfLod[row + col * markerCount] =
+                        rowMarker.typedCount * pairModel.meiosisCount;
+                    continue;
+                }
+
+                MarkerBits colMarker = markers.get(col);
+                for(int i = 0; i < counts.length; i++)
+                {
+                    counts[i] = 0;
+                }
+                for(int rowCode: rowMarker.presentCodes)
+                {
+                    long[] rowBits = rowMarker.codeBits[rowCode];
+                    for(int colCode: colMarker.presentCodes)
+                    {
+                        long[] colBits = colMarker.codeBits[colCode];
+                        int count = 0;
+                        for(int w = 0; w < rowBits.length; w++)
+                        {
+                            count += Long.bitCount(rowBits[w] & colBits[w]);
+                        }
+                        counts[rowCode * codeCount + colCode] = count;
+                    }
+                }
+
+                pairModel.estimate(counts, this.maxIterations, this.tolerance, estimate);
+                rfLod[row + col * markerCount] = estimate[0];
+                rfLod[col + row * markerCount] = estimate[1];
+            }
+        }
+    }
+
+    /**
+     * The calls for a single marker packed into a bitset per genotype code
+     */
+    private static class MarkerBits
+    {
+        /**
+         * bit i of codeBits[c] is set if individual i was called as code c
+         */
+        private final long[][] codeBits;
+
+        /**
+         * the codes that at least one individual was called as
+         */
+        private final int[] presentCodes;
+
+        private final int typedCount;
+
+        /**
+         * Constructor
+         * @param genotypes
+         *          the genotype matrix
+         * @param markerIndex
+         *          the marker's index in the matrix
+         * @param codeCount
+         *          the number of genotype codes
+         */
+        public MarkerBits(GenotypeMatrix genotypes, int markerIndex, int codeCount)
+        {
+            int individualCount = genotypes.getIndividualCount();
+            int wordCount = (individualCount + 63) >>> 6;
+            this.codeBits = new long[codeCount][wordCount];
+
+            int[] codeCounts = new int[codeCount];
+            int typed = 0;
+            for(int i = 0; i < individualCount; i++)
+            {
+                int code = genotypes.getGenotype(markerIndex, i);
+                if(code != GenotypeMatrix.MISSING_GENOTYPE)
+                {
+                    this.codeBits[code][i >>> 6] |= 1L << (i & 63);
+                    codeCounts[code]++;
+                    typed++;
+                }
+            }
+            this.typedCount = typed;
+
+            int presentCount = 0;
+            for(int count: codeCounts)
+            {
+                if(count > 0)
+                {
+                    presentCount++;
+                }
+            }
+            this.presentCodes = new int[presentCount];
+            for(int code = 0, i = 0; code < codeCount; code++)
+            {
+                if(codeCounts[code] > 0)
+                {
+                    this.presentCodes[i++] = code;
+                }
+            }
+        }
+    }
+
+    /**
+     * The two locus model for a cross type. The complete data is the
+     * two locus haplotype passed on by each informative meiosis
+     * (one for a backcross, two for an intercross or 4-way cross) so the
+     * M step is just the fraction of recombinant meioses
+     */
+    static class PairModel
+    {
+        private final int codeCount;
+
+        private final int meiosisCount;
+
+        /**
+         * the number of recombinations in each complete data state
+         */
+        private final int[] stateRecombinations;
+
+        /**
+         * the states that are compatible with each pair of codes
+         * (row-major over the codes)
+         */
+        private final int[][] compatibleStates;
+
+        /**
+         * Constructor
+         * @param crossSubType
+         *          the cross type
+         * @param codeCount
+         *          the number of genotype codes
+         */
+        public PairModel(CrossSubType crossSubType, int codeCount)
+        {
+            this.codeCount = codeCount;
+            this.meiosisCount = crossSubType == CrossSubType.BACK_CROSS ? 1 : 2;
+
+            // a state holds 2 bits per meiosis: the allele at the 1st
+            // locus and the allele at the 2nd locus
+            int stateCount = 1 << (2 * this.meiosisCount);
+            this.stateRecombinations = new int[stateCount];
+            int[] firstGenotypes = new int[stateCount];
+            int[] secondGenotypes = new int[stateCount];
+            for(int state = 0; state < stateCount; state++)
+            {
+                int[] firstAlleles = new int[this.meiosisCount];
+                int[] secondAlleles = new int[this.meiosisCount];
+                for(int meiosis = 0; meiosis < this.meiosisCount; meiosis++)
+                {
+                    firstAlleles[meiosis] = (state >>> (2 * meiosis)) & 1;
+                    secondAlleles[meiosis] = (state >>> (2 * meiosis + 1)) & 1;
+                    if(firstAlleles[meiosis] != secondAlleles[meiosis])
+                    {
+                        this.stateRecombinations[state]++;
+                    }
+                }
+                firstGenotypes[state] = PairModel.toGenotype(crossSubType, firstAlleles);
+                secondGenotypes[state] = PairModel.toGenotype(crossSubType, secondAlleles);
+            }
+
+            this.compatibleStates = new int[codeCount * codeCount][];
+            for(int firstCode = 0; firstCode < codeCount; firstCode++)
+            {
+                for(int secondCode = 0; secondCode < codeCount; secondCode++)
+                {
+                    List<Integer> states = new ArrayList<Integer>();
+                    for(int state = 0; state < stateCount; state++)
+                    {
+                        if(PairModel.isCompatible(crossSubType, firstCode, firstGenotypes[state]) &&
+                           PairModel.isCompatible(crossSubType, secondCode, secondGenotypes[state]))
+                        {
+                            states.add(state);
+                        }
+                    }
+
+                    int[] stateArray = new int[states.size()];
+                    for(int i = 0; i < stateArray.length; i++)
+                    {
+                        stateArray[i] = states.get(i);
+                    }
+                    this.compatibleStates[firstCode * codeCount + secondCode] = stateArray;
+                }
+            }
+        }
+
+        /**
+         * Turn the alleles passed on by each meiosis into a 0-based
+         * genotype
+         * @param crossSubType
+         *          the cross type
+         * @param alleles
+         *          0 for the 1st grandparental allele and 1 for the 2nd
+         * @return
+         *          the genotype
+         */
+        private static int toGenotype(CrossSubType crossSubType, int[] alleles)
+        {
+            switch(crossSubType)
+            {
+                case BACK_CROSS: return alleles[0];
+                case F2: return alleles[0] + alleles[1];
+                case FOUR_WAY: return alleles[0] + 2 * alleles[1];
+                default:
+                    throw new IllegalStateException(
+                            "unknown cross type: " + crossSubType.name());
+            }
+        }
+
+        /**
+         * Determine if a genotype call is compatible with a true genotype
+         * @param crossSubType
+         *          the cross type
+         * @param code
+         *          the 0-based call
+         * @param genotype
+         *          the 0-based true genotype
+         * @return
+         *          true if they're compatible
+         */
+        private static boolean isCompatible(
+                CrossSubType crossSubType,
+                int code,
+                int genotype)
+        {
+            switch(crossSubType)
+            {
+                case BACK_CROSS:
+                {
+                    return code == genotype;
+                }
+
+                case F2:
+                {
+                    switch(code)
+                    {
+                        case 3: return genotype != 2;
+                        case 4: return genotype != 0;
+                        default: return code == genotype;
+                    }
+                }
+
+                case FOUR_WAY:
+                {
+                    switch(code)
+                    {
+                        case 4: return (genotype & 1) == 0;
+                        case 5: return (genotype & 1) == 1;
+                        case 6: return (genotype >>> 1) == 0;
+                        case 7: return (genotype >>> 1) == 1;
+                        case 8: return genotype == 0 || genotype == 3;
+                        case 9: return genotype == 1 || genotype == 2;
+                        default: return code == genotype;
+                    }
+                }
+
+                default:
+                {
+                    throw new IllegalStateException(
+                            "unknown cross type: " + crossSubType.name());
+                }
+            }
+        }
+
+        /**
+         * Fit the recombination fraction for a contingency table by EM
+         * @param counts
+         *          the row-major contingency table of calls
+         * @param maxIterations
+         *          the maximum number of EM iterations
+         * @param tolerance
+         *          the convergence tolerance
+         * @param estimate
+         *          gets the recombination fraction (NaN if there are no
+         *          informative individuals) and the LOD score for the
+         *          test of rf = 1/2
+         */
+        public void estimate(
+                int[] counts,
+                int maxIterations,
+                double tolerance,
+                double[] estimate)
+        {
+            // only cells that can distinguish between states are informative
+            double meioses = 0.0;
+            boolean anyInformative = false;
+            for(int cell = 0; cell < counts.length; cell++)
+            {
+                if(counts[cell] > 0 &&
+                   this.compatibleStates[cell].length > 0 &&
+                   this.compatibleStates[cell].length < this.stateRecombinations.length)
+                {
+                    anyInformative = true;
+                }
+                meioses += counts[cell] * (double)this.meiosisCount;
+            }
+            if(!anyInformative)
+            {
+                estimate[0] = Double.NaN;
+                estimate[1] = 0.0;
+                return;
+            }
+
+            double rf = STARTING_RECOMBINATION_FRACTION;
+            for(int iteration = 0; iteration < maxIterations; iteration++)
+            {
+                double expectedRecombinations = 0.0;
+                for(int cell = 0; cell < counts.length; cell++)
+                {
+                    if(counts[cell] > 0)
+                    {
+                        double total = 0.0;
+                        double recombinations = 0.0;
+                        for(int state: this.compatibleStates[cell])
+                        {
+                            double probability = this.getStateProbability(state, rf);
+                            total += probability;
+                            recombinations += probability * this.stateRecombinations[state];
+                        }
+                        if(total > 0.0)
+                        {
+                            expectedRecombinations += counts[cell] * recombinations / total;
+                        }
+                    }
+                }
+
+                double nextRf = expectedRecombinations / meioses;
+                boolean converged = Math.abs(nextRf - rf) < tolerance;
+                rf = nextRf;
+                if(converged)
+                {
+                    break;
+                }
+            }
+
+            estimate[0] = rf;
+            estimate[1] = Math.max(
+                    0.0,
+                    this.getLog10Likelihood(counts, rf) - this.getLog10Likelihood(counts, 0.5));
+        }
+
+        /**
+         * Get the probability of a complete data state
+         * @param state
+         *          the state
+         * @param rf
+         *          the recombination fraction
+         * @return
+         *          the probability
+         */
+        private double getStateProbability(int state, double rf)
+        {
+            int recombinations = this.stateRecombinations[state];
+            return Math.pow(rf / 2.0, recombinations) *
+                   Math.pow((1.0 - rf) / 2.0, this.meiosisCount - recombinations);
+        }
+
+        /**
+         * Get the log10 likelihood of a contingency table
+         * @param counts
+         *          the row-major contingency table
+         * @param rf
+         *          the recombination fraction
+         * @return
+         *          the log likelihood
+         */
+        private double getLog10Likelihood(int[] counts, double rf)
+        {
+            double logLikelihood = 0.0;
+            for(int cell = 0; cell < counts.length; cell++)
+            {
+                if(counts[cell] > 0)
+                {
+                    double total = 0.0;
+                    for(int state: this.compatibleStates[cell])
+                    {
+                        total += this.getStateProbability(state, rf);
+                    }
+                    if(total > 0.0)
+                    {
+                        logLikelihood += counts[cell] * Math.log10(total);
+                    }
+                }
+            }
+            return logLikelihood;
+        }
+    }
+}
@@ -24,7 +24,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.jax.qtl.cross.GeneticMap.MapType;
-import org.jax.r.jriutilities.JRIUtilityFunctions;
+import org.jax.qtl.util.RObjectMetadataCache;
 import org.jax.r.jriutilities.RInterface;
 import org.jax.r.jriutilities.RObject;
 
@@ -43,7 +43,7 @@ public class SexAwareGeneticMap extends RObject
     private final GeneticMap sexAgnosticGeneticMap;
     
     /**
-     * Constructor
+     * Constructor for a map that is its own owner
      * @param rInterface
      *          the R interface
      * @param accessorExpressionString
@@ -55,21 +55,47 @@ public class SexAwareGeneticMap extends RObject
             RInterface rInterface,
             String accessorExpressionString,
             String chromosomeName)
+    {
+        this(rInterface,
+             accessorExpressionString,
+             chromosomeName,
+             accessorExpressionString);
+    }
+    
+    /**
+     * Constructor
+     * @param rInterface
+     *          the R interface
+     * @param accessorExpressionString
+     *          the accessor expression string
+     * @param chromosomeName
+     *          the chromosome name
+     * @param ownerAccessor
+     *          the accessor of the object owning the map (normally the
+     *          cross). see {@link GeneticMap#GeneticMap(String, MapType, RObject, String)}
+     */
+    public SexAwareGeneticMap(
+            RInterface rInterface,
+            String accessorExpressionString,
+            String chromosomeName,
+            String ownerAccessor)
     {
         super(rInterface, accessorExpressionString);
         
         this.hasSexSpecificGenotypeMaps =
-            JRIUtilityFunctions.inheritsRClass(this, "matrix");
+            RObjectMetadataCache.inheritsRClass(this, "matrix");
         if(this.hasSexSpecificGenotypeMaps)
         {
             this.maleGeneticMap = new GeneticMap(
                     chromosomeName,
                     MapType.MALE,
-                    this);
+                    this,
+                    ownerAccessor);
             this.femaleGeneticMap = new GeneticMap(
                     chromosomeName,
                     MapType.FEMALE,
-                    this);
+                    this,
+                    ownerAccessor);
             this.sexAgnosticGeneticMap = null;
         }
         else
@@ -79,7 +105,8 @@ public class SexAwareGeneticMap extends RObject
             this.sexAgnosticGeneticMap = new GeneticMap(
                     chromosomeName,
                     MapType.SEX_AGNOSTIC,
-                    this);
+                    this,
+                    ownerAccessor);
         }
     }
     
@@ -93,7 +120,7 @@ public class SexAwareGeneticMap extends RObject
     public static List<SexAwareGeneticMap> extractMaps(
             RObject mapsRObject)
     {
-        String[] chromosomeNames = JRIUtilityFunctions.getNames(mapsRObject);
+        String[] chromosomeNames = RObjectMetadataCache.getNames(mapsRObject);
         List<SexAwareGeneticMap> maps =
             new ArrayList<SexAwareGeneticMap>(chromosomeNames.length);
         for(String currChromosomeName: chromosomeNames)
@@ -102,7 +129,8 @@ public class SexAwareGeneticMap extends RObject
                     mapsRObject.getRInterface(),
                     mapsRObject.getAccessorExpressionString() +
                     "$\"" + currChromosomeName + "\"",
-                    currChromosomeName);
+                    currChromosomeName,
+                    mapsRObject.getAccessorExpressionString());
             maps.add(sexAwareGeneticMap);
         }
         
@@ -31,6 +31,7 @@ import javax.swing.JTable;
 import javax.swing.table.DefaultTableCellRenderer;
 
 import org.jax.qtl.Constants;
+import org.jax.qtl.cross.Cross;
 import org.jax.qtl.cross.CrossSummary;
 import org.jax.qtl.util.GrayTableCellRenderer;
 import org.jax.qtl.util.HasSavableTable;
@@ -92,6 +93,9 @@ public class CrossSummaryPane extends JPanel implements HasSavableTable, Constan
         else
             this.tableContent = new String[12][2];
 
+        Cross.CrossDimensions crossDimensions =
+            this.crossSummary.getCross().getCrossDimensions();
+
         int row = 0;
         this.tableContent[row][0] = "Cross Name";
         this.tableContent[row++][1] = this.crossSummary.getCrossAccessor();
@@ -100,11 +104,11 @@ public class CrossSummaryPane extends JPanel implements HasSavableTable, Constan
         this.tableContent[row][0] = "Number of individuals";
         this.tableContent[row++][1] = this.crossSummary.getIndividualCount() + "";
         this.tableContent[row][0] = "Number of phenotypes";
-        this.tableContent[row++][1] = this.crossSummary.getCross().getNumberOfPhenotypes() + "";
+        this.tableContent[row++][1] = crossDimensions.getNumberOfPhenotypes() + "";
         this.tableContent[row][0] = "Percent phenotyped";
         this.tableContent[row++][1] = this.crossSummary.getPercentPhenotypedString();
         this.tableContent[row][0] = "Number of chromosomes";
-        this.tableContent[row++][1] = this.crossSummary.getCross().getNumberOfChromosomes() + "";
+        this.tableContent[row++][1] = crossDimensions.getNumberOfChromosomes() + "";
         if (autosomes != null) {
             this.tableContent[row][0] = "Autosomes";
             this.tableContent[row++][1] = autosomes;
@@ -27,6 +27,7 @@ import javax.swing.JOptionPane;
 
 import org.jax.qtl.QTL;
 import org.jax.qtl.cross.Cross;
+import org.jax.qtl.util.RSessionEpoch;
 import org.jax.r.RAssignmentCommand;
 import org.jax.r.jriutilities.RInterface;
 import org.jax.util.TextWrapper;
@@ -144,7 +145,8 @@ public class JittermapDialog extends javax.swing.JDialog
         Cross selectedCross = this.getSelectedCross();
         RInterface rInterface = selectedCross.getRInterface();
         
-        rInterface.evaluateCommandNoReturn(
+        RSessionEpoch.evaluateCommandNoReturn(
+                rInterface,
                 new RAssignmentCommand(
                         selectedCross.getAccessorExpressionString(),
                         "jittermap(" + selectedCross.getAccessorExpressionString() + ")"));
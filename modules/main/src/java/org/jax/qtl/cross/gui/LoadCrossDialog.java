@@ -27,6 +27,7 @@ import javax.help.SecondaryWindow;
 import org.jax.qtl.QTL;
 import org.jax.qtl.cross.LoadCrossCommandBuilder;
 import org.jax.qtl.project.QtlProjectManager;
+import org.jax.qtl.util.RSessionEpoch;
 import org.jax.r.RCommand;
 import org.jax.r.gui.RCommandEditorAndPreviewPanel;
 import org.jax.r.jriutilities.RInterface;
@@ -93,7 +94,7 @@ public class LoadCrossDialog extends javax.swing.JDialog
         
         rInterface.insertComment(
                 "Loading cross: " + this.loadCrossCommandBuilder.getCrossName());
-        rInterface.evaluateCommandNoReturn(loadCrossCommand);
+        RSessionEpoch.evaluateCommandNoReturn(rInterface, loadCrossCommand);
         
         QtlProjectManager.getInstance().refreshProjectDataStructures();
         QtlProjectManager.getInstance().notifyActiveProjectModified();
@@ -0,0 +1,482 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.cross.gui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jax.qtl.cross.GeneticMarker;
+
+/**
+ * An index of marker positions that supports fast nearest marker and range
+ * lookups. Positions are kept per chromosome as sorted primitive arrays
+ * along with the int IDs (indices into the list that the index was built
+ * from) of the items at those positions. Lookups are binary searches so
+ * they stay cheap with many thousands of pseudomarkers.
+ * @param <T>
+ *          the type of item being indexed (usually a marker or something
+ *          that wraps a marker)
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class MarkerPositionIndex<T>
+{
+    /**
+     * The sorted positions and IDs for a single chromosome
+     */
+    private static class ChromosomePositions
+    {
+        private final double[] sortedPositions;
+
+        private final int[] sortedIds;
+
+        /**
+         * Constructor
+         * @param sortedPositions
+         *          the sorted positions
+         * @param sortedIds
+         *          the IDs in the same order as the positions
+         */
+        public ChromosomePositions(double[] sortedPositions, int[] sortedIds)
+        {
+            this.sortedPositions = sortedPositions;
+            this.sortedIds = sortedIds;
+        }
+    }
+
+    private final List<T> items;
+
+    private final double[] positions;
+
+    /**
+     * the per chromosome positions in the order that the chromosomes first
+     * show up in the item list
+     */
+    private final Map<String, ChromosomePositions> chromosomePositionsMap;
+
+    /**
+     * Constructor
+     * @param items
+     *          the items to index. an item's ID is its index in this list
+     * @param chromosomeNames
+     *          the chromosome name of each item
+     * @param positions
+     *          the position of each item. these can be in any units so
+     *          long as they're consistent with the lookups
+     */
+    public MarkerPositionIndex(
+            List<? extends T> items,
+            String[] chromosomeNames,
+            double[] positions)
+    {
+        int itemCount = items.size();
+        if(chromosomeNames.length != itemCount || positions.length != itemCount)
+        {
+            throw new IllegalArgumentException(
+                    "item, chromosome and position counts must match");
+        }
+
+        this.items = Collections.unmodifiableList(new ArrayList<T>(items));
+        this.positions = positions.clone();
+
+        // group the IDs by chromosome
+        Map<String, List<Integer>> chromosomeIdsMap =
+            new LinkedHashMap<String, List<Integer>>();
+        for(int id = 0; id < itemCount; id++)
+        {
+            List<Integer> chromosomeIds = chromosomeIdsMap.get(chromosomeNames[id]);
+            if(chromosomeIds == null)
+            {
+                chromosomeIds = new ArrayList<Integer>();
+                chromosomeIdsMap.put(chromosomeNames[id], chromosomeIds);
+            }
+            chromosomeIds.add(id);
+        }
+
+        // sort each chromosome by position (the sort is stable so ties keep
+        // their original order)
+        final double[] finalPositions = this.positions;
+        Comparator<Integer> positionComparator = new Comparator<Integer>()
+        {
+            public int compare(Integer id1, Integer id2)
+            {
+                return Double.compare(finalPositions[id1], finalPositions[id2]);
+            }
+        };
+        this.chromosomePositionsMap = new LinkedHashMap<String, ChromosomePositions>();
+        for(Map.Entry<String, List<Integer>> entry: chromosomeIdsMap.entrySet())
+        {
+            List<Integer> chromosomeIds = entry.getValue();
+            Collections.sort(chromosomeIds, positionComparator);
+
+            int count = chromosomeIds.size();
+            double[] sortedPositions = new double[count];
+            int[] sortedIds = new int[count];
+            for(int i = 0; i < count; i++)
+            {
+                sortedIds[i] = chromosomeIds.get(i);
+                sortedPositions[i] = this.positions[sortedIds[i]];
+            }
+            this.chromosomePositionsMap.put(
+                    entry.getKey(),
+                    new ChromosomePositions(sortedPositions, sortedIds));
+        }
+    }
+
+    /**
+     * Create an index of markers using their centimorgan positions
+     * @param <M>
+     *          the marker type
+     * @param markers
+     *          the markers
+     * @return
+     *          the index
+     */
+    public static <M extends GeneticMarker> MarkerPositionIndex<M> createCentimorganIndex(
+            List<? extends M> markers)
+    {
+        int markerCount = markers.size();
+        String[] chromosomeNames = new String[markerCount];
+        double[] positions = new double[markerCount];
+        for(int i = 0; i < markerCount; i++)
+        {
+            GeneticMarker currMarker = markers.get(i);
+            chromosomeNames[i] = currMarker.getChromosomeName();
+            positions[i] = currMarker.getMarkerPositionCentimorgans();
+        }
+
+        return new MarkerPositionIndex<M>(markers, chromosomeNames, positions);
+    }
+
+    /**
+     * Create an index of markers using the graph positions from the given
+     * position manager
+     * @param <M>
+     *          the marker type
+     * @param markers
+     *          the markers
+     * @param markerPositionManager
+     *          the position manager that determines graph positions
+     * @return
+     *          the index
+     */
+    public static <M extends GeneticMarker> MarkerPositionIndex<M> createGraphUnitIndex(
+            List<? extends M> markers,
+            MarkerPositionManager markerPositionManager)
+    {
+        int markerCount = markers.size();
+        String[] chromosomeNames = new String[markerCount];
+        double[] positions = new double[markerCount];
+        for(int i = 0; i < markerCount; i++)
+        {
+            GeneticMarker currMarker = markers.get(i);
+            chromosomeNames[i] = currMarker.getChromosomeName();
+            positions[i] = MarkerPositionIndex.getGraphPosition(
+                    currMarker,
+                    markerPositionManager);
+        }
+
+        return new MarkerPositionIndex<M>(markers, chromosomeNames, positions);
+    }
+
+    /**
+     * Get the graph position of a marker, falling back on the chromosome
+     * offset calculation if the position manager doesn't know about the
+     * marker itself (as is the case for pseudomarkers)
+     * @param marker
+     *          the marker
+     * @param markerPositionManager
+     *          the position manager
+     * @return
+     *          the position in graph units
+     */
+    public static double getGraphPosition(
+            GeneticMarker marker,
+            MarkerPositionManager markerPositionManager)
+    {
+        Double markerPosition =
+            markerPositionManager.getMarkerPositionInGraphUnits(marker);
+        if(markerPosition == null)
+        {
+            return markerPositionManager.getPositionInGraphUnits(
+                    marker.getChromosomeName(),
+                    marker.getMarkerPositionCentimorgans());
+        }
+        else
+        {
+            return markerPosition;
+        }
+    }
+
+    /**
+     * Get the number of indexed items
+     * @return
+     *          the count
+     */
+    public int getItemCount()
+    {
+        return this.items.size();
+    }
+
+    /**
+     * Get the item with the given ID
+     * @param id
+     *          the ID
+     * @return
+     *          the item
+     */
+    public T getItem(int id)
+    {
+        return this.items.get(id);
+    }
+
+    /**
+     * Get the position of the item with the given ID
+     * @param id
+     *          the ID
+     * @return
+     *          the position
+     */
+    public double getPosition(int id)
+    {
+        return this.positions[id];
+    }
+
+    /**
+     * Get the ID of the item nearest to the given position on any
+     * chromosome
+     * @param position
+     *          the position
+     * @return
+     *          the ID or -1 if the index is empty
+     */
+    public int getNearestId(double position)
+    {
+        int nearestId = -1;
+        double nearestDistance = Double.POSITIVE_INFINITY;
+        for(ChromosomePositions currChromosome: this.chromosomePositionsMap.values())
+        {
+            int currId = MarkerPositionIndex.getNearestId(currChromosome, position);
+            if(currId != -1)
+            {
+                double currDistance = Math.abs(position - this.positions[currId]);
+                if(nearestId == -1 || currDistance < nearestDistance)
+                {
+                    nearestId = currId;
+                    nearestDistance = currDistance;
+                }
+            }
+        }
+
+        return nearestId;
+    }
+
+    /**
+     * Get the ID of the item nearest to the given position on the given
+     * chromosome
+     * @param chromosomeName
+     *          the chromosome name
+     * @param position
+     *          the position
+     * @return
+     *          the ID or -1 if there's nothing indexed for the chromosome
+     */
+    public int getNearestId(String chromosomeName, double position)
+    {
+        ChromosomePositions chromosomePositions =
+            this.chromosomePositionsMap.get(chromosomeName);
+        if(chromosomePositions == null)
+        {
+            return -1;
+        }
+        else
+        {
+            return MarkerPositionIndex.getNearestId(chromosomePositions, position);
+        }
+    }
+
+    /**
+     * Get the nearest item to the given position on any chromosome
+     * @param position
+     *          the position
+     * @return
+     *          the item or null if the index is empty
+     */
+    public T getNearestItem(double position)
+    {
+        int id = this.getNearestId(position);
+        return id == -1 ? null : this.items.get(id);
+    }
+
+    /**
+     * Get the nearest item to the given position on the given chromosome
+     * @param chromosomeName
+     *          the chromosome name
+     * @param position
+     *          the position
+     * @return
+     *          the item or null if there's nothing indexed for the
+     *          chromosome
+     */
+    public T getNearestItem(String chromosomeName, double position)
+    {
+        int id = this.getNearestId(chromosomeName, position);
+        return id == -1 ? null : this.items.get(id);
+    }
+
+    /**
+     * Get the IDs of all items whose positions fall within the given range
+     * (inclusive). IDs are grouped by chromosome and sorted by position
+     * within each chromosome
+     * @param minimumPosition
+     *          the start of the range
+     * @param maximumPosition
+     *          the end of the range
+     * @return
+     *          the IDs
+     */
+    public int[] getIdsInRange(double minimumPosition, double maximumPosition)
+    {
+        List<int[]> chromosomeIdRanges = new ArrayList<int[]>();
+        int totalCount = 0;
+        for(ChromosomePositions currChromosome: this.chromosomePositionsMap.values())
+        {
+            int start = MarkerPositionIndex.getFirstIndexAtLeast(
+                    currChromosome.sortedPositions,
+                    minimumPosition);
+            int end = MarkerPositionIndex.getFirstIndexAbove(
+                    currChromosome.sortedPositions,
+                    maximumPosition);
+            if(start < end)
+            {
+                chromosomeIdRanges.add(Arrays.copyOfRange(
+                        currChromosome.sortedIds,
+                        start,
+                        end));
+                totalCount += end - start;
+            }
+        }
+
+        int[] ids = new int[totalCount];
+        int cursor = 0;
+        for(int[] currIds: chromosomeIdRanges)
+        {
+            System.arraycopy(currIds, 0, ids, cursor, currIds.length);
+            cursor += currIds.length;
+        }
+        return ids;
+    }
+
+    /**
+     * Get the ID nearest to the given position within a single chromosome
+     * @param chromosomePositions
+     *          the chromosome
+     * @param position
+     *          the position
+     * @return
+     *          the ID or -1 if the chromosome is empty
+     */
+    private static int getNearestId(
+            ChromosomePositions chromosomePositions,
+            double position)
+    {
+        double[] sortedPositions = chromosomePositions.sortedPositions;
+        if(sortedPositions.length == 0)
+        {
+            return -1;
+        }
+
+        int index = MarkerPositionIndex.getFirstIndexAtLeast(sortedPositions, position);
+        if(index == sortedPositions.length)
+        {
+            index--;
+        }
+        else if(index > 0 &&
+                position - sortedPositions[index - 1] <= sortedPositions[index] - position)
+        {
+            // ties go to the lower position
+            index--;
+        }
+
+        return chromosomePositions.sortedIds[index];
+    }
+
+    /**
+     * Get the first index whose value is greater than or equal to the given
+     * value
+     * @param sortedValues
+     *          the sorted values
+     * @param value
+     *          the value
+     * @return
+     *          the index (the array length if there's no such index)
+     */
+    private static int getFirstIndexAtLeast(double[] sortedValues, double value)
+    {
+        int low = 0;
+        int high = sortedValues.length;
+        while(low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if(sortedValues[middle] < value)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Get the first index whose value is greater than the given value
+     * @param sortedValues
+     *          the sorted values
+     * @param value
+     *          the value
+     * @return
+     *          the index (the array length if there's no such index)
+     */
+    private static int getFirstIndexAbove(double[] sortedValues, double value)
+    {
+        int low = 0;
+        int high = sortedValues.length;
+        while(low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if(sortedValues[middle] <= value)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -39,6 +39,7 @@ import org.jax.qtl.cross.GeneticMarker;
 import org.jax.qtl.cross.gui.EffectPlot.EffectPlotData;
 import org.jax.qtl.cross.gui.EffectPlot.EffectPlotDataPoint;
 import org.jax.qtl.gui.SimpleGraphContainerPanel;
+import org.jax.qtl.util.RSessionLock;
 import org.jax.r.RAssignmentCommand;
 import org.jax.r.RCommand;
 import org.jax.r.jriutilities.JRIUtilityFunctions;
@@ -182,7 +183,8 @@ public class ShowEffectPlotAction extends AbstractAction
     {
         RInterface rInterface = RInterfaceFactory.getRInterfaceInstance();
         
-        synchronized(rInterface)
+        RSessionLock.lockForWriting();
+        try
         {
             // create a temporary variable with the effect data in it
             RCommand effectPlotCommand = this.effectPlotCommandBuilder.getCommand();
@@ -219,6 +221,10 @@ public class ShowEffectPlotAction extends AbstractAction
                     "rm(" + TEMP_EFFECT_PLOT_DATA_ACCESSOR + ")"));
             return returnData;
         }
+        finally
+        {
+            RSessionLock.unlockForWriting();
+        }
     }
 
     /**
@@ -28,6 +28,7 @@ import org.jax.qtl.QTL;
 import org.jax.qtl.cross.SimulateCrossCommandBuilder;
 import org.jax.qtl.cross.SimulateMapCommandBuilder;
 import org.jax.qtl.project.QtlProjectManager;
+import org.jax.qtl.util.RSessionEpoch;
 import org.jax.r.RCommand;
 import org.jax.r.gui.RCommandEditorAndPreviewPanel;
 import org.jax.r.jriutilities.RInterface;
@@ -97,7 +98,7 @@ public class SimulateCrossDialog extends javax.swing.JDialog
         RInterface rInterface = RInterfaceFactory.getRInterfaceInstance();
         
         rInterface.insertComment("Simulating cross");
-        rInterface.evaluateCommandNoReturn(simCrossCommand);
+        RSessionEpoch.evaluateCommandNoReturn(rInterface, simCrossCommand);
         
         QtlProjectManager.getInstance().refreshProjectDataStructures();
         QtlProjectManager.getInstance().notifyActiveProjectModified();
@@ -44,12 +44,14 @@ import org.jax.qtl.cross.gui.SimulateCrossAction;
 import org.jax.qtl.fit.gui.CreateNewQtlBasketAction;
 import org.jax.qtl.fit.gui.FitQtlAction;
 import org.jax.qtl.fit.gui.ShowFitQtlResultsAction;
+import org.jax.qtl.job.gui.ShowJobQueueAction;
 import org.jax.qtl.project.QtlProjectManager;
 import org.jax.qtl.project.gui.CreateQtlProjectAction;
 import org.jax.qtl.project.gui.ExportQtlRScriptAction;
 import org.jax.qtl.project.gui.RecentQtlProjectsMenu;
 import org.jax.qtl.project.gui.SaveQtlProjectAction;
 import org.jax.qtl.project.gui.SaveQtlProjectAsAction;
+import org.jax.qtl.scan.gui.BatchScanOneAction;
 import org.jax.qtl.scan.gui.CalculateGenotypeProbabilitiesAction;
 import org.jax.qtl.scan.gui.PlotScanOneResultAction;
 import org.jax.qtl.scan.gui.PlotScanTwoResultAction;
@@ -248,6 +250,9 @@ public class QtlMenubar extends JMenuBar {
         this.analysisMenu.add(this.pairScanMenu);
         this.analysisMenu.add(this.fitQtlModelMenu);
 
+        this.analysisMenu.addSeparator();
+        this.analysisMenu.add(new ShowJobQueueAction());
+
         // menu items under each sub-menu of Analysis menu
         this.phenotypeCheckingMenu.add(new ShowScatterPlotAction());
 
@@ -265,6 +270,7 @@ public class QtlMenubar extends JMenuBar {
         this.genotypeCheckingMenu.add(new RunJittermapAction());
 
         this.mainScanMenu.add(new ScanOneAction());
+        this.mainScanMenu.add(new BatchScanOneAction());
         this.mainScanMenu.add(new PlotScanOneResultAction());
         this.mainScanMenu.add(new ScanOneSummaryAction());
 
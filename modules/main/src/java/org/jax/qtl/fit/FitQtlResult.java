@@ -23,7 +23,7 @@ package org.jax.qtl.fit;
 import java.util.Arrays;
 
 import org.jax.qtl.cross.Cross;
-import org.jax.r.jriutilities.JRIUtilityFunctions;
+import org.jax.qtl.util.RObjectMetadataCache;
 import org.jax.r.jriutilities.RInterface;
 import org.jax.r.jriutilities.RObject;
 import org.jax.r.jriutilities.SilentRCommand;
@@ -82,7 +82,7 @@ public class FitQtlResult extends RObject
      */
     private AnovaTable getAnovaTableForComponent(String componentName)
     {
-        String[] names = JRIUtilityFunctions.getNames(this);
+        String[] names = RObjectMetadataCache.getNames(this);
         if(Arrays.asList(names).contains(componentName))
         {
             RObject anovaTableObject = new RObject(
@@ -92,9 +92,9 @@ public class FitQtlResult extends RObject
             
             // extract all the data we need from the results and
             // return the anova table
-            String[] columns = JRIUtilityFunctions.getColumnNames(
+            String[] columns = RObjectMetadataCache.getColumnNames(
                     anovaTableObject);
-            String[] rows = JRIUtilityFunctions.getRowNames(
+            String[] rows = RObjectMetadataCache.getRowNames(
                     anovaTableObject);
             REXP matrixDataRExpression =
                 anovaTableObject.getRInterface().evaluateCommand(
@@ -33,6 +33,7 @@ import org.jax.qtl.fit.FitQtlCommand;
 import org.jax.qtl.project.QtlProject;
 import org.jax.qtl.project.QtlProjectManager;
 import org.jax.qtl.project.gui.QtlProjectTree;
+import org.jax.qtl.util.RSessionEpoch;
 import org.jax.r.jriutilities.RInterface;
 import org.jax.r.jriutilities.RInterfaceFactory;
 import org.jax.util.project.ProjectChangeListener;
@@ -58,7 +59,7 @@ public class FitQtlAction extends AbstractAction
             FitQtlDialog fitDialog = (FitQtlDialog)e.getSource();
             RInterface rInterface = RInterfaceFactory.getRInterfaceInstance();
             FitQtlCommand fitCommand = fitDialog.getFitQtlCommand();
-            rInterface.evaluateCommand(fitCommand);
+            RSessionEpoch.evaluateCommand(rInterface, fitCommand);
             QtlProjectManager.getInstance().notifyActiveProjectModified();
         }
     };
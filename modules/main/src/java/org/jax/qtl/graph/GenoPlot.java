@@ -57,6 +57,7 @@ import org.jax.qtl.cross.Cross;
 import org.jax.qtl.cross.CrossChromosome;
 import org.jax.qtl.cross.GeneticMap;
 import org.jax.qtl.cross.GeneticMarker;
+import org.jax.qtl.cross.GenotypeMatrix;
 import org.jax.util.math.Matlab;
 
 /**
@@ -134,9 +135,10 @@ public class GenoPlot extends JPanel implements MouseMotionListener
     this.GenoPlotProperties = properties;
     this.cross = c;
     // total number of chromosomes and inds
-    this.nchr = this.cross.getNumberOfChromosomes();
-    this.nind = this.cross.getNumberOfIndividuals();
-    this.nmar = this.cross.getNumberOfMarkers();
+    Cross.CrossDimensions crossDimensions = this.cross.getCrossDimensions();
+    this.nchr = crossDimensions.getNumberOfChromosomes();
+    this.nind = crossDimensions.getNumberOfIndividuals();
+    this.nmar = crossDimensions.getNumberOfMarkers();
     // chromosome length
     this.chrlen = GenoPlot.getAllChromosomeLengths(this.cross);
     // get figure properties
@@ -351,14 +353,14 @@ public class GenoPlot extends JPanel implements MouseMotionListener
       }
     }
     // plotting genotypes/missing/crossover/errorlod
-    int[] markerCounts = this.cross.getNumberOfMarkers();
+    int[] markerCounts = this.nmar;
     if(this.whattoplot == 0) {
       // loop thru chromosomes
       for(int i=0; i<this.chridx.length; i++) {
         int thischr = this.chridx[i];
         CrossChromosome currChromo = this.cross.getGenotypeData().get(thischr);
-        List<NamedCategoricalData> currGenotypes =
-            currChromo.getMarkerGenotypes();
+        GenotypeMatrix currGenotypes =
+            currChromo.getGenotypeMatrix();
         // loop thru markers
         for(int j=0; j<markerCounts[thischr]; j++) {
           if(this.inMarkDist) {
@@ -373,11 +375,11 @@ public class GenoPlot extends JPanel implements MouseMotionListener
               y = GenoPlot.TOP+1+(ysp+this.YSPACING)*k;
             else
               y = k*ysp + 1 + GenoPlot.TOP;
-            Number data = currGenotypes.get(j).getData().get(this.sortIdx[thisind]);
-            if(data == null)
+            int data = currGenotypes.getGenotype(j, this.sortIdx[thisind]);
+            if(data == GenotypeMatrix.MISSING_GENOTYPE)
               this.g2.setColor(this.MissingColor);
             else
-              this.g2.setColor(this.GenoColor[data.intValue()]);
+              this.g2.setColor(this.GenoColor[data]);
             this.g2.fillRect(x, y, this.XSPACE, this.YSPACE);
           }
           colidx ++;
@@ -399,21 +401,23 @@ public class GenoPlot extends JPanel implements MouseMotionListener
           colidx ++;
           // loop thru markers
           CrossChromosome currChromo = this.cross.getGenotypeData().get(thischr);
-          List<NamedCategoricalData> currGenotypes =
-              currChromo.getMarkerGenotypes();
+          GenotypeMatrix currGenotypes =
+              currChromo.getGenotypeMatrix();
           for(int j=1; j<markerCounts[thischr]; j++) {
             x = xoffset + colidx*xsp + (int)this.mpos[i][j];
             // loop thru individuals
             for(int k=0; k<this.indidx.length; k++) {
               int thisind = this.indidx[k];
-              Number previous = currGenotypes.get(j - 1).getData().get(this.sortIdx[thisind]);
-              Number current = currGenotypes.get(j).getData().get(this.sortIdx[thisind]);
-              if(current != null && previous != null && !current.equals(previous))
+              int previous = currGenotypes.getGenotype(j - 1, this.sortIdx[thisind]);
+              int current = currGenotypes.getGenotype(j, this.sortIdx[thisind]);
+              if(current != GenotypeMatrix.MISSING_GENOTYPE &&
+                 previous != GenotypeMatrix.MISSING_GENOTYPE &&
+                 current != previous)
               {
                   this.g2.setColor(Color.BLACK);
                   y = GenoPlot.TOP+1+(ysp+this.YSPACING)*k;
                   
-                  if(Math.abs(previous.intValue()-current.intValue()) == 1) //single crossover
+                  if(Math.abs(previous-current) == 1) //single crossover
                   {
                       drawSlash(x,y);
                   }
@@ -438,22 +442,24 @@ public class GenoPlot extends JPanel implements MouseMotionListener
           // loop thru markers
           colidx ++;
           CrossChromosome currChromo = this.cross.getGenotypeData().get(thischr);
-          List<NamedCategoricalData> currGenotypes =
-              currChromo.getMarkerGenotypes();
+          GenotypeMatrix currGenotypes =
+              currChromo.getGenotypeMatrix();
           for(int j=1; j<markerCounts[thischr]; j++) {
             x = colidx*xsp + xoffset;
             // loop thru individuals
             for(int k=0; k<this.indidx.length; k++) {
               int thisind = this.indidx[k];
-              Number previous = currGenotypes.get(j - 1).getData().get(this.sortIdx[thisind]);
-              Number current = currGenotypes.get(j).getData().get(this.sortIdx[thisind]);
-              if(current != null && previous != null && !current.equals(previous))
+              int previous = currGenotypes.getGenotype(j - 1, this.sortIdx[thisind]);
+              int current = currGenotypes.getGenotype(j, this.sortIdx[thisind]);
+              if(current != GenotypeMatrix.MISSING_GENOTYPE &&
+                 previous != GenotypeMatrix.MISSING_GENOTYPE &&
+                 current != previous)
               {
                   y = k*ysp + 1 + TOP;
                   // plot previous and current
-                  this.g2.setColor(this.GenoColor[previous.intValue()]);
+                  this.g2.setColor(this.GenoColor[previous]);
                   this.g2.fillRect(x-xsp, y, this.XSPACE, this.YSPACE);
-                  this.g2.setColor(this.GenoColor[current.intValue()]);
+                  this.g2.setColor(this.GenoColor[current]);
                   this.g2.fillRect(x, y, this.XSPACE, this.YSPACE);
               }
             }
@@ -475,8 +481,8 @@ public class GenoPlot extends JPanel implements MouseMotionListener
       for(int i=0; i<this.chridx.length; i++) {
         int thischr = this.chridx[i];
         CrossChromosome currChromo = this.cross.getGenotypeData().get(thischr);
-        List<NamedCategoricalData> currGenotypes =
-            currChromo.getMarkerGenotypes();
+        GenotypeMatrix currGenotypes =
+            currChromo.getGenotypeMatrix();
         // loop thru markers
         for(int j=0; j<markerCounts[thischr]; j++) {
           if(this.inMarkDist) {
@@ -487,8 +493,7 @@ public class GenoPlot extends JPanel implements MouseMotionListener
           // loop thru individuals
           for(int k=0; k<this.indidx.length; k++) {
             int thisind = this.indidx[k];
-            Number data = currGenotypes.get(j).getData().get(this.sortIdx[thisind]);
-            if(data == null) {
+            if(currGenotypes.isMissing(j, this.sortIdx[thisind])) {
               this.g2.setColor(this.MissingColor);
               if(this.inMarkDist)
                 y = TOP+1+(ysp+this.YSPACING)*k;
@@ -1125,8 +1130,7 @@ public class GenoPlot extends JPanel implements MouseMotionListener
       // TODO this should be sensitive to sex specific maps
       List<GeneticMarker> markerPositions =
           chr.getAnyGeneticMap().getMarkerPositions();
-      NamedCategoricalData selectedMarkerGenotypes = chr.getMarkerGenotypes().get(
-              this.markeridx);
+      GenotypeMatrix genotypes = chr.getGenotypeMatrix();
       NamedDataMatrix<Number> phenotypeData = GenoPlot.this.cross.getPhenotypeData();
       
       // genotype info
@@ -1139,15 +1143,16 @@ public class GenoPlot extends JPanel implements MouseMotionListener
       // marker name
       this.infoText +=
           "<tr><td>Marker Name</td><td>" +
-          chr.getMarkerNames()[this.markeridx] + "</td></tr>";
+          genotypes.getMarkerName(this.markeridx) + "</td></tr>";
       // marker position
       this.infoText +=
           "<tr><td>Marker Position (cM)</td><td>" +
           markerPositions.get(this.markeridx).getMarkerPositionCentimorgans() +
           "</td></tr>";
       // genotype
-      String genoStr = selectedMarkerGenotypes.integerToCategoryString(
-              (Integer)selectedMarkerGenotypes.getData().get(this.thisindidx));
+      String genoStr = genotypes.getGenotypeName(this.markeridx, this.thisindidx);
+      if(genoStr == null)
+        genoStr = "Missing";
       
       this.infoText += "<tr><td>Genotype</td><td>" + genoStr + "</td></tr>";
       
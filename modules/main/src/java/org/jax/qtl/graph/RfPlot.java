@@ -21,9 +21,9 @@ package org.jax.qtl.graph;
 
 import java.awt.Color;
 import java.awt.Dimension;
-import java.awt.Shape;
 import java.awt.event.MouseEvent;
 import java.awt.geom.Rectangle2D;
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -52,16 +52,44 @@ public class RfPlot extends OneDimensionPlot {
      */
     private static final long serialVersionUID = -3979909287609271087L;
     private Cross cross;
-    private double[][] rfLod;
+    private DoubleBuffer allRfLod;
+    private int allMarkerCount;
+    private int[] selectedMarkerIndices;
     private Color[] colorMap;
     private double minlodLower = 0, maxlodLower = MAX_RF_LOD, minlodUpper = 0, maxlodUpper = MAX_RF_LOD;
     private int leftConerX, leftConerY, width, height;
     private CrossChromosome[] selectedChromosomes;
 
-    private RfGrid[][] dataPoints;
     private List<GeneticMarker> allSelectedMarkers;
 
-    public RfPlot(Cross cross, double[][] allRFLod, int[] selectedChromosomeIndexes) {
+    /**
+     * Constructor
+     * @param cross
+     *          the cross
+     * @param allRFLod
+     *          the column-major RF/LOD matrix for every marker in the cross
+     *          (the <code>$rf</code> component of the cross)
+     * @param selectedChromosomeIndexes
+     *          the chromosomes that we should plot
+     */
+    public RfPlot(Cross cross, DoubleBuffer allRFLod, int[] selectedChromosomeIndexes) {
+        this(cross, allRFLod, selectedChromosomeIndexes, false);
+    }
+
+    /**
+     * Constructor
+     * @param cross
+     *          the cross
+     * @param rfLod
+     *          the column-major RF/LOD matrix in <code>$rf</code> layout
+     * @param selectedChromosomeIndexes
+     *          the chromosomes that we should plot
+     * @param selectedMarkersOnly
+     *          if true the matrix only holds the markers on the selected
+     *          chromosomes (in selection order) rather than every marker
+     *          in the cross
+     */
+    public RfPlot(Cross cross, DoubleBuffer rfLod, int[] selectedChromosomeIndexes, boolean selectedMarkersOnly) {
         super();
 
         this.drawOutlineBox = false;
@@ -103,48 +131,43 @@ public class RfPlot extends OneDimensionPlot {
                             selectedChromosomeIndexes[selectionIndex]));
         }
         
+        // rather than copying the selected part of the RF matrix we just
+        // remember where each selected marker lives in the full matrix
         int selectedMarkerCount = this.allSelectedMarkers.size();
-        this.rfLod = new double[selectedMarkerCount][selectedMarkerCount];
+        this.selectedMarkerIndices = new int[selectedMarkerCount];
         {
-            int outerRfDataIndex = 0;
-            for(int outerChromoIndex = 0; outerChromoIndex < numSelectedChromosomes; outerChromoIndex++)
+            int selectedMarkerIndex = 0;
+            for(int chromoIndex = 0; chromoIndex < numSelectedChromosomes; chromoIndex++)
             {
-                int outerStartingMarkerIndexInclusive =
-                    selectedChromosomeIndexes[outerChromoIndex] == 0 ?
+                int startingMarkerIndexInclusive =
+                    selectedChromosomeIndexes[chromoIndex] == 0 ?
                     0 :
-                    cumulativeChromosomeMarkerCounts[selectedChromosomeIndexes[outerChromoIndex] - 1];
-                int outerEndingMarkerIndexExclusive =
-                    cumulativeChromosomeMarkerCounts[selectedChromosomeIndexes[outerChromoIndex]];
+                    cumulativeChromosomeMarkerCounts[selectedChromosomeIndexes[chromoIndex] - 1];
+                int endingMarkerIndexExclusive =
+                    cumulativeChromosomeMarkerCounts[selectedChromosomeIndexes[chromoIndex]];
                 
-                for(int outerMarkerIndex = outerStartingMarkerIndexInclusive;
-                    outerMarkerIndex < outerEndingMarkerIndexExclusive;
-                    outerMarkerIndex++)
+                for(int markerIndex = startingMarkerIndexInclusive;
+                    markerIndex < endingMarkerIndexExclusive;
+                    markerIndex++)
                 {
-                    int innerRfDataIndex = 0;
-                    for(int innerChromoIndex = 0; innerChromoIndex < numSelectedChromosomes; innerChromoIndex++)
-                    {
-                        int innerStartingMarkerIndexInclusive =
-                            selectedChromosomeIndexes[innerChromoIndex] == 0 ?
-                            0 :
-                            cumulativeChromosomeMarkerCounts[selectedChromosomeIndexes[innerChromoIndex] - 1];
-                        int innerEndingMarkerIndexExclusive =
-                            cumulativeChromosomeMarkerCounts[selectedChromosomeIndexes[innerChromoIndex]];
-                        
-                        for(int innerMarkerIndex = innerStartingMarkerIndexInclusive;
-                            innerMarkerIndex < innerEndingMarkerIndexExclusive;
-                            innerMarkerIndex++)
-                        {
-                            this.rfLod[outerRfDataIndex][innerRfDataIndex] =
-                                allRFLod[outerMarkerIndex][innerMarkerIndex];
-                            
-                            innerRfDataIndex++;
-                        }
-                    }
-                    
-                    outerRfDataIndex++;
+                    this.selectedMarkerIndices[selectedMarkerIndex] = markerIndex;
+                    selectedMarkerIndex++;
                 }
             }
         }
+        this.allRfLod = rfLod;
+        if (selectedMarkersOnly) {
+            for(int i = 0; i < selectedMarkerCount; i++)
+            {
+                this.selectedMarkerIndices[i] = i;
+            }
+            this.allMarkerCount = selectedMarkerCount;
+        }
+        else {
+            this.allMarkerCount = allChromosomesCount == 0 ?
+                    0 :
+                    cumulativeChromosomeMarkerCounts[allChromosomesCount - 1];
+        }
         
         // TODO add back the interaction
 //        int numChr = chrs.length;
@@ -157,31 +180,6 @@ public class RfPlot extends OneDimensionPlot {
 //            }
 //        }
 
-        // make the dictionary for showing tip
-        this.dataPoints = new RfGrid[selectedMarkerCount][selectedMarkerCount];
-        for (int row=0; row<selectedMarkerCount; row++) {
-            for (int col=0; col<selectedMarkerCount; col++) {
-                String markerName1 =
-                    this.allSelectedMarkers.get(row).getMarkerName();
-                String markerName2 =
-                    this.allSelectedMarkers.get(col).getMarkerName();
-                // set the correct value for displayed in tip
-                double rf = 0, lod = 0;
-                if (row == col) rf = lod = this.rfLod[row][col];
-                else {
-                    if (row > col) { // lower in data, upper in plot
-                        rf = this.rfLod[row][col];
-                        lod = this.rfLod[col][row];
-                    }
-                    else { // upper in data, lower in plot
-                        rf = this.rfLod[col][row];
-                        lod = this.rfLod[row][col];
-                    }
-                }
-                if (rf > 0.5) rf = 0.5;
-                this.dataPoints[row][col] = new RfGrid(markerName1, markerName2, rf, lod);
-            }
-        }
         // make color map
         this.colorMap = Tools.makeColormap(NUM_COLORS);
         // set selection box "color"
@@ -211,27 +209,24 @@ public class RfPlot extends OneDimensionPlot {
         this.height = gridHeight * numMarkers;
 
         // draw grids
+        Rectangle2D.Double currentGrid = new Rectangle2D.Double();
         for (int row=0; row<numMarkers; row++) {
             for (int col=0; col<numMarkers; col++) {
                 int x = gridWidth * col + this.leftConerX;
                 int y = this.leftConerY + this.height - gridHeight * (row+1);
-                Shape currentGrid = new Rectangle2D.Double(x,y,this.width/numMarkers,this.height/numMarkers);
-                // set the correct value for displayed in tip
-                Dot dot = new Dot(
-                        this.allSelectedMarkers.get(row),
-                        this.allSelectedMarkers.get(col),
-                        currentGrid);
-                this.allDots.add(dot);
+                // we don't create a Dot per grid cell since selection
+                // isn't supported yet and the dots would cost us
+                // (markers^2) objects
+                currentGrid.setRect(x,y,this.width/numMarkers,this.height/numMarkers);
 
                 // set color for current grid
                 boolean isLower = true;
                 if (row==col) // on diagnal
                     this.big.setColor(Color.red);
                 else {
-                    double plotValue = this.rfLod[row][col];
+                    double plotValue = getRfLod(row, col);
                     if (row > col) { // (rf) lower in data, upper in plot
                         isLower = false;
-                        plotValue = this.rfLod[row][col];
                         plotValue = (-4) * (Math.log(plotValue)/Math.log(2) + 1);
                         if (plotValue < 0) plotValue = 0;
                     }
@@ -324,16 +319,28 @@ public class RfPlot extends OneDimensionPlot {
             int deltaY = this.leftConerY + this.height - y; // distance to top of plot
             int r = numMarkers * deltaX / this.width; // row index
             int c = numMarkers * deltaY / this.height; // col index
-            RfGrid currentGrid = this.dataPoints[r][c];
+            String markerName1 = this.allSelectedMarkers.get(r).getMarkerName();
+            String markerName2 = this.allSelectedMarkers.get(c).getMarkerName();
 
             // make tip
             String tip = "<html>";
-            if (currentGrid.markerName1.equalsIgnoreCase(currentGrid.markerName2)) // on diagnal
-                tip += currentGrid.markerName1 + "<p>typed meioses: " + currentGrid.lod;
-            else
-                tip += currentGrid.markerName1 + ":" + currentGrid.markerName2 +
-                    "<p>rf: " + FOUR_DIGIT_FORMATTER.format(currentGrid.rf) +
-                    "<p>LOD: " + FOUR_DIGIT_FORMATTER.format(currentGrid.lod);
+            if (r == c) // on diagnal
+                tip += markerName1 + "<p>typed meioses: " + getRfLod(r, c);
+            else {
+                double rf, lod;
+                if (r > c) { // lower in data, upper in plot
+                    rf = getRfLod(r, c);
+                    lod = getRfLod(c, r);
+                }
+                else { // upper in data, lower in plot
+                    rf = getRfLod(c, r);
+                    lod = getRfLod(r, c);
+                }
+                if (rf > 0.5) rf = 0.5;
+                tip += markerName1 + ":" + markerName2 +
+                    "<p>rf: " + FOUR_DIGIT_FORMATTER.format(rf) +
+                    "<p>LOD: " + FOUR_DIGIT_FORMATTER.format(lod);
+            }
 
             // show tip within plot area
             ToolTipManager.sharedInstance().setEnabled(true);
@@ -358,14 +365,20 @@ public class RfPlot extends OneDimensionPlot {
         return this.colorMap[index];
     }
 
-    class RfGrid {
-        double rf, lod;
-        String markerName1, markerName2;
-        RfGrid(String mname1, String mname2, double rf, double lod) {
-            this.markerName1 = mname1;
-            this.markerName2 = mname2;
-            this.rf = rf;
-            this.lod = lod;
-        }
+    /**
+     * Get a value from the RF/LOD matrix using selected marker indices.
+     * rows greater than columns hold RF, rows less than columns hold LOD and
+     * the diagonal holds the number of typed meioses
+     * @param row
+     *          the selected marker row
+     * @param col
+     *          the selected marker column
+     * @return
+     *          the value
+     */
+    private double getRfLod(int row, int col) {
+        return this.allRfLod.get(
+                this.selectedMarkerIndices[row] +
+                this.selectedMarkerIndices[col] * this.allMarkerCount);
     }
 }
@@ -38,6 +38,7 @@ import javax.swing.ToolTipManager;
 import org.jax.qtl.cross.Cross;
 import org.jax.qtl.cross.GeneticMap;
 import org.jax.qtl.cross.GeneticMarker;
+import org.jax.qtl.cross.gui.MarkerPositionIndex;
 import org.jax.qtl.cross.gui.ShowEffectPlotAction;
 import org.jax.qtl.scan.ScanTwoResult;
 import org.jax.qtl.scan.ScanTwoResult.MarkerIndexPair;
@@ -68,6 +69,11 @@ public class ScantwoPlot extends OneDimensionPlot
     private final ScanTwoResult scantwo;
     private final GeneticMap[] geneticMaps;
     
+    /**
+     * centimorgan positions of the true markers (lazily created)
+     */
+    private MarkerPositionIndex<GeneticMarker> trueMarkerIndex;
+    
     private int selectedPhenoIndex; // selected pheno index
     private double minlodLower, maxlodLower, minlodUpper, maxlodUpper;
     private final String[] chromosomeNames; // selected chromosome names for this plot
@@ -262,30 +268,20 @@ public class ScantwoPlot extends OneDimensionPlot
      */
     private GeneticMarker getNearestTrueMarker(GeneticMarker marker)
     {
-        GeneticMarker nearestTrueMarker = null;
-        double nearestCmDistance = Double.MAX_VALUE;
-        
-        double markerPositionInCm = marker.getMarkerPositionCentimorgans();
-        for(GeneticMap currMap: this.geneticMaps)
+        if(this.trueMarkerIndex == null)
         {
-            // don't bother with the map unless the chromosome names match up
-            if(currMap.getChromosomeName().equals(marker.getChromosomeName()))
+            List<GeneticMarker> trueMarkers = new ArrayList<GeneticMarker>();
+            for(GeneticMap currMap: this.geneticMaps)
             {
-                for(GeneticMarker currTrueMarker: currMap.getMarkerPositions())
-                {
-                    double currCmDistance = Math.abs(
-                        markerPositionInCm -
-                        currTrueMarker.getMarkerPositionCentimorgans());
-                    if(nearestTrueMarker == null || currCmDistance < nearestCmDistance)
-                    {
-                        nearestTrueMarker = currTrueMarker;
-                        nearestCmDistance = currCmDistance;
-                    }
-                }
+                trueMarkers.addAll(currMap.getMarkerPositions());
             }
+            this.trueMarkerIndex = MarkerPositionIndex.createCentimorganIndex(
+                    trueMarkers);
         }
         
-        return nearestTrueMarker;
+        return this.trueMarkerIndex.getNearestItem(
+                marker.getChromosomeName(),
+                marker.getMarkerPositionCentimorgans());
     }
 
     /**
@@ -0,0 +1,435 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jax.qtl.job;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A unit of long running work that the {@link JobScheduler} queues and
+ * runs. Jobs report their own progress through
+ * {@link #setProgress(double, double)} (the scheduler uses this to
+ * estimate the time remaining) and cancellation is cooperative: cancelling
+ * a running job interrupts its thread and long loops should check
+ * {@link #checkCancelled()} or {@link #isCancelRequested()}.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public abstract class Job
+{
+    /**
+     * lets code deep inside of a running job find the job (for reporting
+     * progress) without having it passed down
+     */
+    private static final ThreadLocal<Job> CURRENT_JOB = new ThreadLocal<Job>();
+    
+    private final String name;
+    
+    private final JobCategory category;
+    
+    private final int priority;
+    
+    private final List<JobListener> listeners =
+        new CopyOnWriteArrayList<JobListener>();
+    
+    private volatile JobState state = JobState.QUEUED;
+    
+    private volatile boolean cancelRequested = false;
+    
+    /**
+     * the fraction of the job that is done or a negative value if the job
+     * hasn't reported any progress
+     */
+    private volatile double fractionComplete = -1.0;
+    
+    private volatile long startTimeMillis = -1L;
+    
+    private volatile long endTimeMillis = -1L;
+    
+    private volatile Throwable failure = null;
+    
+    /**
+     * the thread running this job or null if it isn't running
+     */
+    private Thread runningThread = null;
+    
+    /**
+     * Constructor
+     * @param name
+     *          see {@link #getName()}
+     * @param category
+     *          see {@link #getCategory()}
+     * @param priority
+     *          see {@link #getPriority()}
+     */
+    public Job(String name, JobCategory category, int priority)
+    {
+        this.name = name;
+        this.category = category;
+        this.priority = priority;
+    }
+    
+    /**
+     * Do the work for this job
+     * @throws Exception
+     *          if the job fails. a {@link CancellationException} or an
+     *          {@link InterruptedException} thrown after the job has been
+     *          cancelled is treated as a cancellation
+     */
+    protected abstract void runJob() throws Exception;
+    
+    /**
+     * Get the job running on the current thread
+     * @return
+     *          the job or null if the current thread isn't running one
+     */
+    public static Job getCurrentJob()
+    {
+        return CURRENT_JOB.get();
+    }
+    
+    /**
+     * Throw a {@link CancellationException} if the current thread is
+     * running a job that has been cancelled. Code with fall back paths
+     * should call this before falling back so that a cancel (which shows
+     * up as a failure or an interrupt in the fast path) doesn't just start
+     * the slow path
+     * @throws CancellationException
+     *          if the current job has been cancelled
+     */
+    public static void checkCurrentJobCancelled() throws CancellationException
+    {
+        Job currentJob = CURRENT_JOB.get();
+        if(currentJob != null)
+        {
+            currentJob.checkCancelled();
+        }
+    }
+    
+    /**
+     * Getter for the name that is shown to the user
+     * @return
+     *          the name
+     */
+    public String getName()
+    {
+        return this.name;
+    }
+    
+    /**
+     * Getter for the category that limits how many jobs like this one can
+     * run at once
+     * @return
+     *          the category
+     */
+    public JobCategory getCategory()
+    {
+        return this.category;
+    }
+    
+    /**
+     * Getter for the priority. Queued jobs with a higher priority run
+     * before jobs with a lower one. Jobs with the same priority run in the
+     * order they were submitted
+     * @return
+     *          the priority
+     */
+    public int getPriority()
+    {
+        return this.priority;
+    }
+    
+    /**
+     * Getter for the state
+     * @return
+     *          the state
+     */
+    public JobState getState()
+    {
+        return this.state;
+    }
+    
+    /**
+     * Getter for the exception that made this job fail
+     * @return
+     *          the exception or null if the job hasn't failed
+     */
+    public Throwable getFailure()
+    {
+        return this.failure;
+    }
+    
+    /**
+     * Determine if somebody has asked for this job to be cancelled
+     * @return
+     *          true if a cancel has been requested
+     */
+    public boolean isCancelRequested()
+    {
+        return this.cancelRequested;
+    }
+    
+    /**
+     * Throw a {@link CancellationException} if this job has been cancelled
+     * @throws CancellationException
+     *          if a cancel has been requested
+     */
+    public void checkCancelled() throws CancellationException
+    {
+        if(this.cancelRequested)
+        {
+            throw new CancellationException(this.name + " was cancelled");
+        }
+    }
+    
+    /**
+     * Report the progress of this job
+     * @param workCompleted
+     *          the amount of work that is done
+     * @param totalWork
+     *          the total amount of work
+     */
+    public void setProgress(double workCompleted, double totalWork)
+    {
+        if(totalWork > 0.0)
+        {
+            this.fractionComplete = Math.max(
+                    0.0,
+                    Math.min(1.0, workCompleted / totalWork));
+            this.fireJobChanged();
+        }
+    }
+    
+    /**
+     * Getter for the fraction of this job that is done
+     * @return
+     *          the fraction or a negative value if the job hasn't reported
+     *          any progress
+     */
+    public double getFractionComplete()
+    {
+        return this.fractionComplete;
+    }
+    
+    /**
+     * Getter for the time that the job started running
+     * @return
+     *          the start time in milliseconds or -1 if it hasn't started
+     */
+    public long getStartTimeMillis()
+    {
+        return this.startTimeMillis;
+    }
+    
+    /**
+     * Getter for the time that the job finished
+     * @return
+     *          the end time in milliseconds or -1 if it hasn't finished
+     */
+    public long getEndTimeMillis()
+    {
+        return this.endTimeMillis;
+    }
+    
+    /**
+     * Estimate how much longer this job will take by extrapolating from
+     * the time that it took to get to its current progress
+     * @return
+     *          the estimate in milliseconds or -1 if we can't make one
+     */
+    public long getEstimatedMillisRemaining()
+    {
+        double fraction = this.fractionComplete;
+        long startTime = this.startTimeMillis;
+        if(this.state != JobState.RUNNING || fraction <= 0.0 || startTime < 0L)
+        {
+            return -1L;
+        }
+        else
+        {
+            long elapsedMillis = System.currentTimeMillis() - startTime;
+            return Math.round(elapsedMillis * (1.0 - fraction) / fraction);
+        }
+    }
+    
+    /**
+     * Add a listener
+     * @param listener
+     *          the listener
+     */
+    public void addJobListener(JobListener listener)
+    {
+        this.listeners.add(listener);
+    }
+    
+    /**
+     * Remove a listener
+     * @param listener
+     *          the listener
+     */
+    public void removeJobListener(JobListener listener)
+    {
+        this.listeners.remove(listener);
+    }
+    
+    /**
+     * Tell the listeners that something changed
+     */
+    protected void fireJobChanged()
+    {
+        for(JobListener listener: this.listeners)
+        {
+            listener.jobChanged(this);
+        }
+    }
+    
+    /**
+     * Ask this job to stop. A queued job is cancelled right away (and
+     * never runs). A running job has its thread interrupted and is
+     * cancelled once {@link #runJob()} returns
+     * @return
+     *          true if the job wasn't already finished
+     */
+    public boolean cancel()
+    {
+        synchronized(this)
+        {
+            if(this.state.isFinished())
+            {
+                return false;
+            }
+            
+            this.cancelRequested = true;
+            if(this.runningThread != null)
+            {
+                this.runningThread.interrupt();
+            }
+        }
+        
+        this.fireJobChanged();
+        return true;
+    }
+    
+    /**
+     * Move this job from queued to running on the current thread. This is
+     * called by the {@link JobScheduler}
+     * @return
+     *          false if the job was cancelled before it got to run
+     */
+    boolean markRunning()
+    {
+        synchronized(this)
+        {
+            if(this.cancelRequested)
+            {
+                this.state = JobState.CANCELLED;
+                this.endTimeMillis = System.currentTimeMillis();
+            }
+            else
+            {
+                this.runningThread = Thread.currentThread();
+                this.startTimeMillis = System.currentTimeMillis();
+                this.state = JobState.RUNNING;
+            }
+        }
+        
+        this.fireJobChanged();
+        return this.state == JobState.RUNNING;
+    }
+    
+    /**
+     * Mark a queued job as cancelled without running it. This is called by
+     * the {@link JobScheduler}
+     */
+    void markCancelledWhileQueued()
+    {
+        synchronized(this)
+        {
+            this.cancelRequested = true;
+            this.state = JobState.CANCELLED;
+            this.endTimeMillis = System.currentTimeMillis();
+        }
+        
+        this.fireJobChanged();
+    }
+    
+    /**
+     * Run this job on the current thread recording how it ends. This is
+     * called by the {@link JobScheduler} after {@link #markRunning()}
+     */
+    void execute()
+    {
+        CURRENT_JOB.set(this);
+        JobState endState;
+        try
+        {
+            this.runJob();
+            endState = this.cancelRequested ?
+                    JobState.CANCELLED :
+                    JobState.COMPLETED;
+        }
+        catch(Throwable ex)
+        {
+            if(this.cancelRequested &&
+               (ex instanceof CancellationException ||
+                ex instanceof InterruptedException))
+            {
+                endState = JobState.CANCELLED;
+            }
+            else
+            {
+                this.failure = ex;
+                endState = JobState.FAILED;
+            }
+        }
+        finally
+        {
+            CURRENT_JOB.remove();
+        }
+        
+        synchronized(this)
+        {
+            this.runningThread = null;
+            this.state = endState;
+            this.endTimeMillis = System.currentTimeMillis();
+            
+            // don't let a cancel interrupt leak into the next job that
+            // runs on this thread
+            Thread.interrupted();
+        }
+        
+        if(endState == JobState.COMPLETED)
+        {
+            this.fractionComplete = 1.0;
+        }
+        this.fireJobChanged();
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return this.name;
+    }
+}
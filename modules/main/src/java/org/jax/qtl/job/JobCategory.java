@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jax.qtl.job;
+
+/**
+ * Categories of {@link Job}s. The {@link JobScheduler} limits how many jobs
+ * of each category run at the same time. Scans and genotype calculations
+ * already use every processor through
+ * {@link org.jax.qtl.util.ParallelComputation} and the
+ * {@link org.jax.qtl.worker.RWorkerPool} so by default they run one at a
+ * time, which keeps a long queue from oversubscribing the machine
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public enum JobCategory
+{
+    /**
+     * genome scans and their permutations
+     */
+    GENOME_SCAN("Genome Scans", 1),
+    
+    /**
+     * genotype probability, imputation and map calculations
+     */
+    GENOTYPE_CALCULATION("Genotype Calculations", 1),
+    
+    /**
+     * calculations that feed plots (like recombination fractions)
+     */
+    PLOT_CALCULATION("Plot Calculations", 2);
+    
+    private final String description;
+    
+    private final int defaultMaximumConcurrentJobs;
+    
+    /**
+     * Constructor
+     * @param description
+     *          the description
+     * @param defaultMaximumConcurrentJobs
+     *          see {@link #getDefaultMaximumConcurrentJobs()}
+     */
+    private JobCategory(String description, int defaultMaximumConcurrentJobs)
+    {
+        this.description = description;
+        this.defaultMaximumConcurrentJobs = defaultMaximumConcurrentJobs;
+    }
+    
+    /**
+     * Getter for the number of jobs in this category that the scheduler
+     * runs at once unless it's told otherwise
+     * @return
+     *          the default maximum
+     */
+    public int getDefaultMaximumConcurrentJobs()
+    {
+        return this.defaultMaximumConcurrentJobs;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return this.description;
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jax.qtl.job;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Queues and runs {@link Job}s. Queued jobs run in priority order (then
+ * submission order) and no more than
+ * {@link #getMaximumConcurrentJobs(JobCategory)} jobs of any one category
+ * run at the same time, so a long queue of scans doesn't oversubscribe the
+ * machine.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class JobScheduler
+{
+    /**
+     * our logger
+     */
+    private static final Logger LOG = Logger.getLogger(
+            JobScheduler.class.getName());
+    
+    private static final JobScheduler instance = new JobScheduler();
+    
+    /**
+     * the jobs waiting to run
+     */
+    private final PriorityQueue<QueuedJob> queue =
+        new PriorityQueue<QueuedJob>(16, new Comparator<QueuedJob>()
+        {
+            public int compare(QueuedJob job1, QueuedJob job2)
+            {
+                int priority1 = job1.job.getPriority();
+                int priority2 = job2.job.getPriority();
+                if(priority1 != priority2)
+                {
+                    // higher priorities go first
+                    return priority1 > priority2 ? -1 : 1;
+                }
+                else if(job1.submissionNumber != job2.submissionNumber)
+                {
+                    return job1.submissionNumber < job2.submissionNumber ? -1 : 1;
+                }
+                else
+                {
+                    return 0;
+                }
+            }
+        });
+    
+    /**
+     * every job that has been submitted and not cleared
+     */
+    private final List<Job> allJobs = new ArrayList<Job>();
+    
+    private final Map<JobCategory, Integer> runningCounts =
+        new EnumMap<JobCategory, Integer>(JobCategory.class);
+    
+    private final Map<JobCategory, Integer> maximumConcurrentJobs =
+        new EnumMap<JobCategory, Integer>(JobCategory.class);
+    
+    private final List<JobListener> listeners =
+        new CopyOnWriteArrayList<JobListener>();
+    
+    /**
+     * the threads that jobs run on. the category limits bound how many of
+     * these are busy
+     */
+    private final ExecutorService executor = Executors.newCachedThreadPool(
+            new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "job runner");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    
+    /**
+     * passes job changes on to our listeners and drops queued jobs that
+     * get cancelled
+     */
+    private final JobListener jobListener = new JobListener()
+    {
+        public void jobChanged(Job job)
+        {
+            JobScheduler.this.jobChanged(job);
+        }
+    };
+    
+    private long submissionCount = 0L;
+    
+    /**
+     * Constructor
+     */
+    public JobScheduler()
+    {
+        for(JobCategory category: JobCategory.values())
+        {
+            this.runningCounts.put(category, 0);
+            this.maximumConcurrentJobs.put(
+                    category,
+                    category.getDefaultMaximumConcurrentJobs());
+        }
+    }
+    
+    /**
+     * Get the application's scheduler
+     * @return
+     *          the scheduler
+     */
+    public static JobScheduler getInstance()
+    {
+        return JobScheduler.instance;
+    }
+    
+    /**
+     * Queue the given job
+     * @param job
+     *          the job
+     */
+    public void submit(Job job)
+    {
+        job.addJobListener(this.jobListener);
+        synchronized(this)
+        {
+            this.allJobs.add(job);
+            this.queue.add(new QueuedJob(job, this.submissionCount++));
+        }
+        
+        this.fireJobChanged(job);
+        this.dispatchJobs();
+    }
+    
+    /**
+     * Getter for the number of jobs in the given category that are allowed
+     * to run at once
+     * @param category
+     *          the category
+     * @return
+     *          the maximum
+     */
+    public synchronized int getMaximumConcurrentJobs(JobCategory category)
+    {
+        return this.maximumConcurrentJobs.get(category);
+    }
+    
+    /**
+     * Setter for the number of jobs in the given category that are allowed
+     * to run at once. Lowering the limit doesn't stop jobs that are already
+     * running
+     * @param category
+     *          the category
+     * @param maximumConcurrentJobs
+     *          the maximum (at least 1)
+     */
+    public void setMaximumConcurrentJobs(
+            JobCategory category,
+            int maximumConcurrentJobs)
+    {
+        if(maximumConcurrentJobs < 1)
+        {
+            throw new IllegalArgumentException(
+                    "the maximum number of concurrent jobs must be at least 1");
+        }
+        
+        synchronized(this)
+        {
+            this.maximumConcurrentJobs.put(category, maximumConcurrentJobs);
+        }
+        this.dispatchJobs();
+    }
+    
+    /**
+     * Get all of the jobs that haven't been cleared in submission order
+     * @return
+     *          a snapshot of the jobs
+     */
+    public synchronized List<Job> getJobs()
+    {
+        return new ArrayList<Job>(this.allJobs);
+    }
+    
+    /**
+     * Forget about all of the jobs that are finished
+     */
+    public void clearFinishedJobs()
+    {
+        List<Job> clearedJobs = new ArrayList<Job>();
+        synchronized(this)
+        {
+            Iterator<Job> jobIter = this.allJobs.iterator();
+            while(jobIter.hasNext())
+            {
+                Job currJob = jobIter.next();
+                if(currJob.getState().isFinished())
+                {
+                    jobIter.remove();
+                    clearedJobs.add(currJob);
+                }
+            }
+        }
+        
+        for(Job clearedJob: clearedJobs)
+        {
+            clearedJob.removeJobListener(this.jobListener);
+            this.fireJobChanged(clearedJob);
+        }
+    }
+    
+    /**
+     * Cancel every job that is queued or running
+     */
+    public void cancelAllJobs()
+    {
+        for(Job job: this.getJobs())
+        {
+            job.cancel();
+        }
+    }
+    
+    /**
+     * Add a listener that hears about changes to every job
+     * @param listener
+     *          the listener
+     */
+    public void addJobListener(JobListener listener)
+    {
+        this.listeners.add(listener);
+    }
+    
+    /**
+     * Remove a listener
+     * @param listener
+     *          the listener
+     */
+    public void removeJobListener(JobListener listener)
+    {
+        this.listeners.remove(listener);
+    }
+    
+    /**
+     * Tell our listeners that a job changed
+     * @param job
+     *          the job
+     */
+    private void fireJobChanged(Job job)
+    {
+        for(JobListener listener: this.listeners)
+        {
+            listener.jobChanged(job);
+        }
+    }
+    
+    /**
+     * Respond to a change in one of our jobs
+     * @param job
+     *          the job
+     */
+    private void jobChanged(Job job)
+    {
+        if(job.isCancelRequested() && job.getState() == JobState.QUEUED)
+        {
+            boolean removed = false;
+            synchronized(this)
+            {
+                Iterator<QueuedJob> queueIter = this.queue.iterator();
+                while(queueIter.hasNext())
+                {
+                    if(queueIter.next().job == job)
+                    {
+                        queueIter.remove();
+                        removed = true;
+                        break;
+                    }
+                }
+            }
+            
+            if(removed)
+            {
+                // this fires another change which gets passed along below
+                job.markCancelledWhileQueued();
+                return;
+            }
+        }
+        
+        this.fireJobChanged(job);
+    }
+    
+    /**
+     * Start as many queued jobs as the category limits allow
+     */
+    private void dispatchJobs()
+    {
+        List<Job> jobsToStart = new ArrayList<Job>();
+        synchronized(this)
+        {
+            // walk the queue in priority order. a job whose category is
+            // full doesn't hold up jobs in other categories
+            List<QueuedJob> waitingJobs = new ArrayList<QueuedJob>();
+            while(!this.queue.isEmpty())
+            {
+                QueuedJob nextJob = this.queue.poll();
+                JobCategory category = nextJob.job.getCategory();
+                int runningCount = this.runningCounts.get(category);
+                if(runningCount < this.maximumConcurrentJobs.get(category))
+                {
+                    this.runningCounts.put(category, runningCount + 1);
+                    jobsToStart.add(nextJob.job);
+                }
+                else
+                {
+                    waitingJobs.add(nextJob);
+                }
+            }
+            this.queue.addAll(waitingJobs);
+        }
+        
+        for(final Job job: jobsToStart)
+        {
+            this.executor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        if(job.markRunning())
+                        {
+                            job.execute();
+                            if(job.getState() == JobState.FAILED)
+                            {
+                                LOG.log(Level.SEVERE,
+                                        "job failed: " + job.getName(),
+                                        job.getFailure());
+                            }
+                        }
+                    }
+                    finally
+                    {
+                        JobScheduler.this.jobFinished(job);
+                    }
+                }
+            });
+        }
+    }
+    
+    /**
+     * Free up the slot that a job was using and start whatever can run
+     * next
+     * @param job
+     *          the job that finished
+     */
+    private void jobFinished(Job job)
+    {
+        synchronized(this)
+        {
+            JobCategory category = job.getCategory();
+            this.runningCounts.put(
+                    category,
+                    this.runningCounts.get(category) - 1);
+        }
+        this.dispatchJobs();
+    }
+    
+    /**
+     * A job along with the order that it was submitted in
+     */
+    private static class QueuedJob
+    {
+        private final Job job;
+        
+        private final long submissionNumber;
+        
+        /**
+         * Constructor
+         * @param job
+         *          the job
+         * @param submissionNumber
+         *          the submission number
+         */
+        public QueuedJob(Job job, long submissionNumber)
+        {
+            this.job = job;
+            this.submissionNumber = submissionNumber;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jax.qtl.job;
+
+/**
+ * The states that a {@link Job} moves through
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public enum JobState
+{
+    /**
+     * waiting in the {@link JobScheduler} queue
+     */
+    QUEUED
+    {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString()
+        {
+            return "Queued";
+        }
+    },
+    
+    /**
+     * the job is running
+     */
+    RUNNING
+    {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString()
+        {
+            return "Running";
+        }
+    },
+    
+    /**
+     * the job finished normally
+     */
+    COMPLETED
+    {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString()
+        {
+            return "Completed";
+        }
+    },
+    
+    /**
+     * the job threw an exception
+     */
+    FAILED
+    {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString()
+        {
+            return "Failed";
+        }
+    },
+    
+    /**
+     * the job was cancelled before it finished
+     */
+    CANCELLED
+    {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString()
+        {
+            return "Cancelled";
+        }
+    };
+    
+    /**
+     * Determine if this is one of the states that a job ends in
+     * @return
+     *          true for completed, failed and cancelled
+     */
+    public boolean isFinished()
+    {
+        return this == COMPLETED || this == FAILED || this == CANCELLED;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jax.qtl.job;
+
+/**
+ * A {@link Job} that runs a {@link Runnable}. This is handy for moving the
+ * existing "run this in the background" code over to the
+ * {@link JobScheduler}
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class RunnableJob extends Job
+{
+    private final Runnable runnable;
+    
+    /**
+     * Constructor for a job with the default priority of 0
+     * @param name
+     *          the job name
+     * @param category
+     *          the job category
+     * @param runnable
+     *          the runnable that does the work
+     */
+    public RunnableJob(String name, JobCategory category, Runnable runnable)
+    {
+        this(name, category, 0, runnable);
+    }
+    
+    /**
+     * Constructor
+     * @param name
+     *          the job name
+     * @param category
+     *          the job category
+     * @param priority
+     *          the job priority
+     * @param runnable
+     *          the runnable that does the work
+     */
+    public RunnableJob(
+            String name,
+            JobCategory category,
+            int priority,
+            Runnable runnable)
+    {
+        super(name, category, priority);
+        this.runnable = runnable;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void runJob() throws Exception
+    {
+        this.runnable.run();
+    }
+}
@@ -0,0 +1,450 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jax.qtl.job.gui;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JSpinner;
+import javax.swing.JTable;
+import javax.swing.ListSelectionModel;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.table.AbstractTableModel;
+
+import org.jax.qtl.job.Job;
+import org.jax.qtl.job.JobCategory;
+import org.jax.qtl.job.JobListener;
+import org.jax.qtl.job.JobScheduler;
+import org.jax.qtl.util.RSessionLock;
+
+/**
+ * A panel that shows the {@link JobScheduler}'s jobs and lets the user
+ * cancel them and change how many jobs of each category run at once
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class JobQueuePanel extends JPanel
+{
+    /**
+     * every {@link java.io.Serializable} is supposed to have one of these
+     */
+    private static final long serialVersionUID = 4581253087634106293L;
+    
+    /**
+     * how often we refresh the time remaining estimates
+     */
+    private static final int REFRESH_INTERVAL_MILLIS = 1000;
+    
+    /**
+     * the largest concurrency limit that the spinners allow
+     */
+    private static final int MAXIMUM_CONCURRENCY_LIMIT = 64;
+    
+    private static final String[] COLUMN_NAMES = new String[] {
+        "Job",
+        "Category",
+        "State",
+        "Progress",
+        "Time Remaining"};
+    
+    private final JobScheduler scheduler;
+    
+    private final JobTableModel jobTableModel = new JobTableModel();
+    
+    private final JTable jobTable = new JTable(this.jobTableModel);
+    
+    /**
+     * refreshes the job list on the event thread whenever a job changes
+     */
+    private final JobListener schedulerListener = new JobListener()
+    {
+        public void jobChanged(Job job)
+        {
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                public void run()
+                {
+                    JobQueuePanel.this.refreshJobs();
+                }
+            });
+        }
+    };
+    
+    /**
+     * shows how long R session reads and writes are waiting on each other
+     */
+    private final JLabel sessionLockLabel = new JLabel();
+    
+    /**
+     * keeps the time remaining column current
+     */
+    private final Timer refreshTimer = new Timer(
+            REFRESH_INTERVAL_MILLIS,
+            new ActionListener()
+            {
+                public void actionPerformed(ActionEvent e)
+                {
+                    JobQueuePanel.this.refreshSessionLockLabel();
+                    int rowCount = JobQueuePanel.this.jobTableModel.getRowCount();
+                    if(rowCount > 0)
+                    {
+                        JobQueuePanel.this.jobTableModel.fireTableRowsUpdated(
+                                0,
+                                rowCount - 1);
+                    }
+                }
+            });
+    
+    /**
+     * Constructor for a panel showing the application's scheduler
+     */
+    public JobQueuePanel()
+    {
+        this(JobScheduler.getInstance());
+    }
+    
+    /**
+     * Constructor
+     * @param scheduler
+     *          the scheduler to show
+     */
+    public JobQueuePanel(JobScheduler scheduler)
+    {
+        super(new BorderLayout());
+        this.scheduler = scheduler;
+        
+        this.add(this.createConcurrencyPanel(), BorderLayout.NORTH);
+        
+        this.jobTable.setSelectionMode(
+                ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        this.add(new JScrollPane(this.jobTable), BorderLayout.CENTER);
+        
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(this.sessionLockLabel, BorderLayout.CENTER);
+        southPanel.add(this.createButtonPanel(), BorderLayout.SOUTH);
+        this.add(southPanel, BorderLayout.SOUTH);
+        
+        this.refreshJobs();
+        this.refreshSessionLockLabel();
+    }
+    
+    /**
+     * Show the latest {@link RSessionLock} wait times
+     */
+    private void refreshSessionLockLabel()
+    {
+        RSessionLock.LockStatistics readStatistics =
+            RSessionLock.getReadStatistics();
+        RSessionLock.LockStatistics writeStatistics =
+            RSessionLock.getWriteStatistics();
+        this.sessionLockLabel.setText(String.format(
+                "R session waits: reads %.1f ms mean (%.0f ms max), " +
+                "writes %.1f ms mean (%.0f ms max), %d waiting",
+                readStatistics.getMeanWaitMillis(),
+                readStatistics.getMaximumWaitMillis(),
+                writeStatistics.getMeanWaitMillis(),
+                writeStatistics.getMaximumWaitMillis(),
+                RSessionLock.getQueueLength()));
+    }
+    
+    /**
+     * Create the panel holding a concurrency spinner for every category
+     * @return
+     *          the panel
+     */
+    private JPanel createConcurrencyPanel()
+    {
+        JPanel concurrencyPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        concurrencyPanel.add(new JLabel("Jobs to run at once:"));
+        for(final JobCategory category: JobCategory.values())
+        {
+            final SpinnerNumberModel spinnerModel = new SpinnerNumberModel(
+                    this.scheduler.getMaximumConcurrentJobs(category),
+                    1,
+                    MAXIMUM_CONCURRENCY_LIMIT,
+                    1);
+            spinnerModel.addChangeListener(new ChangeListener()
+            {
+                public void stateChanged(ChangeEvent e)
+                {
+                    JobQueuePanel.this.scheduler.setMaximumConcurrentJobs(
+                            category,
+                            spinnerModel.getNumber().intValue());
+                }
+            });
+            
+            concurrencyPanel.add(new JLabel(category.toString()));
+            concurrencyPanel.add(new JSpinner(spinnerModel));
+        }
+        
+        return concurrencyPanel;
+    }
+    
+    /**
+     * Create the panel holding the cancel and clear buttons
+     * @return
+     *          the panel
+     */
+    private JPanel createButtonPanel()
+    {
+        JButton cancelSelectedButton = new JButton("Cancel Selected Jobs");
+        cancelSelectedButton.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                JobQueuePanel.this.cancelSelectedJobs();
+            }
+        });
+        
+        JButton cancelAllButton = new JButton("Cancel All Jobs");
+        cancelAllButton.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                JobQueuePanel.this.scheduler.cancelAllJobs();
+            }
+        });
+        
+        JButton clearFinishedButton = new JButton("Clear Finished Jobs");
+        clearFinishedButton.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                JobQueuePanel.this.scheduler.clearFinishedJobs();
+            }
+        });
+        
+        JPanel buttonPanel = new JPanel();
+        buttonPanel.add(cancelSelectedButton);
+        buttonPanel.add(cancelAllButton);
+        buttonPanel.add(clearFinishedButton);
+        return buttonPanel;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addNotify()
+    {
+        super.addNotify();
+        this.scheduler.addJobListener(this.schedulerListener);
+        this.refreshJobs();
+        this.refreshTimer.start();
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeNotify()
+    {
+        this.refreshTimer.stop();
+        this.scheduler.removeJobListener(this.schedulerListener);
+        super.removeNotify();
+    }
+    
+    /**
+     * Cancel the jobs that are selected in the table
+     */
+    private void cancelSelectedJobs()
+    {
+        int[] selectedRows = this.jobTable.getSelectedRows();
+        List<Job> selectedJobs = new ArrayList<Job>(selectedRows.length);
+        for(int selectedRow: selectedRows)
+        {
+            selectedJobs.add(this.jobTableModel.getJob(selectedRow));
+        }
+        
+        for(Job selectedJob: selectedJobs)
+        {
+            selectedJob.cancel();
+        }
+    }
+    
+    /**
+     * Reload the job list from the scheduler keeping the selection
+     */
+    private void refreshJobs()
+    {
+        List<Job> selectedJobs = new ArrayList<Job>();
+        for(int selectedRow: this.jobTable.getSelectedRows())
+        {
+            selectedJobs.add(this.jobTableModel.getJob(selectedRow));
+        }
+        
+        List<Job> jobs = this.scheduler.getJobs();
+        this.jobTableModel.setJobs(jobs);
+        
+        ListSelectionModel selectionModel = this.jobTable.getSelectionModel();
+        selectionModel.clearSelection();
+        for(int row = 0; row < jobs.size(); row++)
+        {
+            if(selectedJobs.contains(jobs.get(row)))
+            {
+                selectionModel.addSelectionInterval(row, row);
+            }
+        }
+    }
+    
+    /**
+     * Format a duration as hours, minutes and seconds
+     * @param millis
+     *          the duration in milliseconds
+     * @return
+     *          the formatted duration
+     */
+    private static String formatDuration(long millis)
+    {
+        long totalSeconds = (millis + 500L) / 1000L;
+        long hours = totalSeconds / 3600L;
+        long minutes = (totalSeconds / 60L) % 60L;
+        long seconds = totalSeconds % 60L;
+        return String.format("%d:%02d:%02d", hours, minutes, seconds);
+    }
+    
+    /**
+     * The table model for the job table
+     */
+    private static class JobTableModel extends AbstractTableModel
+    {
+        /**
+         * every {@link java.io.Serializable} is supposed to have one of these
+         */
+        private static final long serialVersionUID = -5226283908425693271L;
+        
+        private List<Job> jobs = new ArrayList<Job>();
+        
+        /**
+         * Setter for the jobs to show
+         * @param jobs
+         *          the jobs
+         */
+        public void setJobs(List<Job> jobs)
+        {
+            this.jobs = jobs;
+            this.fireTableDataChanged();
+        }
+        
+        /**
+         * Get the job for the given row
+         * @param row
+         *          the row
+         * @return
+         *          the job
+         */
+        public Job getJob(int row)
+        {
+            return this.jobs.get(row);
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        public int getRowCount()
+        {
+            return this.jobs.size();
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        public int getColumnCount()
+        {
+            return COLUMN_NAMES.length;
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getColumnName(int column)
+        {
+            return COLUMN_NAMES[column];
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        public Object getValueAt(int row, int column)
+        {
+            Job job = this.jobs.get(row);
+            switch(column)
+            {
+                case 0:
+                {
+                    return job.getName();
+                }
+                
+                case 1:
+                {
+                    return job.getCategory();
+                }
+                
+                case 2:
+                {
+                    if(job.isCancelRequested() && !job.getState().isFinished())
+                    {
+                        return "Cancelling";
+                    }
+                    else
+                    {
+                        return job.getState();
+                    }
+                }
+                
+                case 3:
+                {
+                    double fractionComplete = job.getFractionComplete();
+                    return fractionComplete < 0.0 ?
+                            "" :
+                            Math.round(fractionComplete * 100.0) + "%";
+                }
+                
+                case 4:
+                {
+                    long millisRemaining = job.getEstimatedMillisRemaining();
+                    return millisRemaining < 0L ?
+                            "" :
+                            JobQueuePanel.formatDuration(millisRemaining);
+                }
+                
+                default:
+                {
+                    throw new IndexOutOfBoundsException(
+                            "bad column index: " + column);
+                }
+            }
+        }
+    }
+}
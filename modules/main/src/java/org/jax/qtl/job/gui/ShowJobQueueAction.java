@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jax.qtl.job.gui;
+
+import java.awt.event.ActionEvent;
+
+import javax.swing.AbstractAction;
+
+import org.jax.qtl.QTL;
+import org.jax.util.gui.desktoporganization.Desktop;
+
+/**
+ * Action for showing the {@link JobQueuePanel}
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class ShowJobQueueAction extends AbstractAction
+{
+    /**
+     * every {@link java.io.Serializable} is supposed to have one of these
+     */
+    private static final long serialVersionUID = -2271794513930551878L;
+    
+    /**
+     * the ID that we use for the job queue's internal frame
+     */
+    private static final String JOB_QUEUE_FRAME_ID = "JobQueue";
+    
+    /**
+     * Constructor
+     */
+    public ShowJobQueueAction()
+    {
+        super("Show Job Queue ...");
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    public void actionPerformed(ActionEvent e)
+    {
+        Desktop desktop = QTL.getInstance().getDesktop();
+        if(!desktop.setIframeSelected(JOB_QUEUE_FRAME_ID))
+        {
+            desktop.createInternalFrame(
+                    new JobQueuePanel(),
+                    "Job Queue",
+                    null,
+                    JOB_QUEUE_FRAME_ID);
+        }
+    }
+}
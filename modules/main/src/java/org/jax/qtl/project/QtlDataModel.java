@@ -21,20 +21,29 @@
 package org.jax.qtl.project;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.jax.qtl.cross.Cross;
-import org.jax.r.jriutilities.JRIUtilityFunctions;
+import org.jax.qtl.fit.FitQtlResult;
+import org.jax.qtl.scan.ScanOneResult;
+import org.jax.qtl.scan.ScanTwoResult;
+import org.jax.qtl.util.RChangeJournal;
+import org.jax.qtl.util.ReadOnlyRCommand;
+import org.jax.qtl.util.RSessionEpoch;
+import org.jax.qtl.util.RSessionLock;
 import org.jax.r.jriutilities.RInterface;
-import org.jax.r.jriutilities.RInterfaceFactory;
 import org.jax.r.jriutilities.RObject;
+import org.rosuda.JRI.REXP;
 
 /**
  * This class is used to represent all of the R data that our QTL
@@ -65,6 +74,11 @@ public class QtlDataModel
     private final ConcurrentLinkedQueue<QtlDataModelListener> listenerList =
         new ConcurrentLinkedQueue<QtlDataModelListener>();
     
+    /**
+     * the {@link RChangeJournal} sequence number that we're synchronized to
+     */
+    private long journalSequenceNumber = -1L;
+    
     /**
      * Constructor
      * @param rInterface
@@ -97,25 +111,70 @@ public class QtlDataModel
     }
     
     /**
-     * refresh the data model
+     * refresh the data model from scratch. This lists every top-level
+     * object in R so use {@link #updateFromJournal()} when you can
      */
-    public void updateAll()
+    public synchronized void updateAll()
     {
-        List<RObject> crosses = QtlDataModel.getAllCrossRObjects();
+        String[] symbols;
+        String[] symbolClasses;
+        long sequenceNumber;
+        RSessionLock.lockForReading();
+        try
+        {
+            // one round trip for the names and classes of everything
+            REXP snapshotExpression = RSessionEpoch.evaluateCommand(
+                    this.rInterface,
+                    new ReadOnlyRCommand(
+                            "local({n <- ls(globalenv()); c(n, vapply(n, " +
+                            "function(x) paste(class(get(x, envir=globalenv())), " +
+                            "collapse=\" \"), \"\", USE.NAMES=FALSE))})"));
+            String[] snapshot = QtlDataModel.asStringArray(snapshotExpression);
+            int symbolCount = snapshot.length / 2;
+            symbols = new String[symbolCount];
+            symbolClasses = new String[symbolCount];
+            System.arraycopy(snapshot, 0, symbols, 0, symbolCount);
+            System.arraycopy(snapshot, symbolCount, symbolClasses, 0, symbolCount);
+            
+            RChangeJournal.reconcileTopLevelSymbols(Arrays.asList(symbols));
+            sequenceNumber = RChangeJournal.getLastSequenceNumber();
+        }
+        finally
+        {
+            RSessionLock.unlockForReading();
+        }
+        
+        Set<String> crossSymbols = new HashSet<String>();
+        List<RObject> scanOneCandidates = new ArrayList<RObject>();
+        List<RObject> scanTwoCandidates = new ArrayList<RObject>();
+        List<RObject> fitQtlCandidates = new ArrayList<RObject>();
+        for(int i = 0; i < symbols.length; i++)
+        {
+            this.classifySymbol(
+                    symbols[i],
+                    symbolClasses[i],
+                    crossSymbols,
+                    scanOneCandidates,
+                    scanTwoCandidates,
+                    fitQtlCandidates);
+        }
+        
+        if(LOG.isLoggable(Level.FINEST))
+        {
+            LOG.finest("detected crosses: " + crossSymbols);
+        }
         
         // add new crosses
         List<Cross> addedCrosses = new ArrayList<Cross>();
-        for(RObject currCrossObj: crosses)
+        for(String currCrossSymbol: crossSymbols)
         {
-            Cross matchingCross = this.identifierToCrossMap.get(
-                    currCrossObj.getAccessorExpressionString());
-            if(matchingCross == null)
+            if(!this.identifierToCrossMap.containsKey(currCrossSymbol))
             {
-                matchingCross = new Cross(
+                Cross matchingCross = new Cross(
                         this.rInterface,
-                        currCrossObj.getAccessorExpressionString());
+                        currCrossSymbol);
                 this.identifierToCrossMap.put(
-                        currCrossObj.getAccessorExpressionString(),
+                        currCrossSymbol,
                         matchingCross);
                 addedCrosses.add(matchingCross);
             }
@@ -130,17 +189,7 @@ public class QtlDataModel
             while(crossEntryIter.hasNext())
             {
                 Cross currCross = crossEntryIter.next();
-                boolean foundMatch = false;
-                for(RObject currCrossRObject: crosses)
-                {
-                    if(currCross.getAccessorExpressionString().equals(
-                       currCrossRObject.getAccessorExpressionString()))
-                    {
-                        foundMatch = true;
-                    }
-                }
-                
-                if(!foundMatch)
+                if(!crossSymbols.contains(currCross.getAccessorExpressionString()))
                 {
                     removedCrosses.add(currCross);
                     crossEntryIter.remove();
@@ -148,6 +197,23 @@ public class QtlDataModel
             }
         }
         
+        // bring every cross's results up to date
+        List<Cross> changedCrosses = new ArrayList<Cross>();
+        for(Cross currCross: this.getCrosses())
+        {
+            boolean resultsChanged = currCross.synchronizeResults(
+                    scanOneCandidates,
+                    scanTwoCandidates,
+                    fitQtlCandidates,
+                    null,
+                    sequenceNumber);
+            if(resultsChanged && !addedCrosses.contains(currCross))
+            {
+                changedCrosses.add(currCross);
+            }
+        }
+        this.journalSequenceNumber = sequenceNumber;
+        
         // handle notification
         for(Cross currAddedCross: addedCrosses)
         {
@@ -158,6 +224,216 @@ public class QtlDataModel
         {
             this.fireCrossRemoved(currRemovedCross);
         }
+        
+        for(Cross currChangedCross: changedCrosses)
+        {
+            this.fireCrossResultsChanged(currChangedCross);
+        }
+    }
+    
+    /**
+     * Refresh the data model using the {@link RChangeJournal} so that we
+     * only look at the objects that changed since the last update. Falls
+     * back on {@link #updateAll()} when the journal can't tell us what
+     * changed or when crosses come and go.
+     */
+    public synchronized void updateFromJournal()
+    {
+        RChangeJournal.Changes changes;
+        RSessionLock.lockForReading();
+        try
+        {
+            // listing the names is cheap and catches objects that were
+            // created or removed without going through RSessionEpoch
+            REXP symbolsExpression = RSessionEpoch.evaluateCommand(
+                    this.rInterface,
+                    new ReadOnlyRCommand("ls(globalenv())"));
+            RChangeJournal.reconcileTopLevelSymbols(Arrays.asList(
+                    QtlDataModel.asStringArray(symbolsExpression)));
+            changes = RChangeJournal.getChangesSince(this.journalSequenceNumber);
+        }
+        finally
+        {
+            RSessionLock.unlockForReading();
+        }
+        
+        if(changes.getResynchronizationRequired())
+        {
+            this.updateAll();
+            return;
+        }
+        
+        Map<String, RChangeJournal.ChangeKind> symbolChanges =
+            changes.getSymbolChanges();
+        List<String> assignedSymbols = new ArrayList<String>();
+        for(Map.Entry<String, RChangeJournal.ChangeKind> currChange:
+            symbolChanges.entrySet())
+        {
+            if(currChange.getValue() == RChangeJournal.ChangeKind.REMOVED)
+            {
+                if(this.identifierToCrossMap.containsKey(currChange.getKey()))
+                {
+                    // a cross went away
+                    this.updateAll();
+                    return;
+                }
+            }
+            else
+            {
+                assignedSymbols.add(currChange.getKey());
+            }
+        }
+        
+        Set<String> crossSymbols = new HashSet<String>();
+        List<RObject> scanOneCandidates = new ArrayList<RObject>();
+        List<RObject> scanTwoCandidates = new ArrayList<RObject>();
+        List<RObject> fitQtlCandidates = new ArrayList<RObject>();
+        if(!assignedSymbols.isEmpty())
+        {
+            String[] symbolClasses = this.getClassStrings(assignedSymbols);
+            for(int i = 0; i < symbolClasses.length; i++)
+            {
+                this.classifySymbol(
+                        assignedSymbols.get(i),
+                        symbolClasses[i],
+                        crossSymbols,
+                        scanOneCandidates,
+                        scanTwoCandidates,
+                        fitQtlCandidates);
+            }
+        }
+        
+        for(String currAssignedSymbol: assignedSymbols)
+        {
+            if(crossSymbols.contains(currAssignedSymbol) !=
+               this.identifierToCrossMap.containsKey(currAssignedSymbol))
+            {
+                // a cross showed up (or got replaced by something else)
+                this.updateAll();
+                return;
+            }
+        }
+        
+        List<Cross> changedCrosses = new ArrayList<Cross>();
+        for(Cross currCross: this.getCrosses())
+        {
+            boolean resultsChanged = currCross.synchronizeResults(
+                    scanOneCandidates,
+                    scanTwoCandidates,
+                    fitQtlCandidates,
+                    symbolChanges.keySet(),
+                    changes.getSequenceNumber());
+            if(resultsChanged)
+            {
+                changedCrosses.add(currCross);
+            }
+        }
+        this.journalSequenceNumber = changes.getSequenceNumber();
+        
+        for(Cross currChangedCross: changedCrosses)
+        {
+            this.fireCrossResultsChanged(currChangedCross);
+        }
+    }
+    
+    /**
+     * Sort the given symbol into crosses and result candidates based on
+     * its class
+     * @param symbol
+     *          the top-level symbol
+     * @param classString
+     *          the space separated classes of the symbol
+     * @param crossSymbols
+     *          where we put cross symbols
+     * @param scanOneCandidates
+     *          where we put scanone objects
+     * @param scanTwoCandidates
+     *          where we put scantwo objects
+     * @param fitQtlCandidates
+     *          where we put fitqtl objects
+     */
+    private void classifySymbol(
+            String symbol,
+            String classString,
+            Set<String> crossSymbols,
+            List<RObject> scanOneCandidates,
+            List<RObject> scanTwoCandidates,
+            List<RObject> fitQtlCandidates)
+    {
+        if(classString == null || classString.length() == 0)
+        {
+            return;
+        }
+        
+        List<String> classes = Arrays.asList(classString.split(" "));
+        if(classes.contains(Cross.TYPE_STRING))
+        {
+            crossSymbols.add(symbol);
+        }
+        else if(classes.contains(ScanOneResult.SCANONE_RESULT_TYPE_STRING))
+        {
+            scanOneCandidates.add(new RObject(this.rInterface, symbol));
+        }
+        else if(classes.contains(ScanTwoResult.SCANTWO_RESULT_TYPE_STRING))
+        {
+            scanTwoCandidates.add(new RObject(this.rInterface, symbol));
+        }
+        else if(classes.contains(FitQtlResult.FIT_QTL_RESULT_TYPE_STRING))
+        {
+            fitQtlCandidates.add(new RObject(this.rInterface, symbol));
+        }
+    }
+    
+    /**
+     * Get the space separated classes for each of the given symbols in a
+     * single R call. Symbols that no longer exist get an empty string
+     * @param symbols
+     *          the top-level symbols
+     * @return
+     *          the class strings in the same order as the symbols
+     */
+    private String[] getClassStrings(List<String> symbols)
+    {
+        StringBuffer command = new StringBuffer("vapply(c(");
+        for(int i = 0; i < symbols.size(); i++)
+        {
+            if(i > 0)
+            {
+                command.append(", ");
+            }
+            command.append('"');
+            command.append(symbols.get(i).replace("\\", "\\\\").replace("\"", "\\\""));
+            command.append('"');
+        }
+        command.append("), function(x) if(exists(x, envir=globalenv(), inherits=FALSE)) " +
+                "paste(class(get(x, envir=globalenv())), collapse=\" \") " +
+                "else \"\", \"\", USE.NAMES=FALSE)");
+        
+        String[] classStrings = QtlDataModel.asStringArray(RSessionEpoch.evaluateCommand(
+                this.rInterface,
+                new ReadOnlyRCommand(command.toString())));
+        if(classStrings.length != symbols.size())
+        {
+            LOG.warning(
+                    "expected " + symbols.size() + " class strings but got " +
+                    classStrings.length);
+            return new String[symbols.size()];
+        }
+        
+        return classStrings;
+    }
+    
+    /**
+     * Null safe conversion to a string array
+     * @param expression
+     *          the expression to convert
+     * @return
+     *          the strings (empty if there aren't any)
+     */
+    private static String[] asStringArray(REXP expression)
+    {
+        String[] strings = expression == null ? null : expression.asStringArray();
+        return strings == null ? new String[0] : strings;
     }
     
     /**
@@ -190,6 +466,21 @@ public class QtlDataModel
         }
     }
 
+    /**
+     * Notify our listeners that the results for a {@link Cross} changed
+     * @param changedCross
+     *          the {@link Cross} whose results changed
+     */
+    private void fireCrossResultsChanged(Cross changedCross)
+    {
+        Iterator<QtlDataModelListener> listenerIter =
+            this.listenerList.iterator();
+        while(listenerIter.hasNext())
+        {
+            listenerIter.next().crossResultsChanged(this, changedCross);
+        }
+    }
+
     /**
      * Get a cross map where the keys are the cross names and values are
      * the crosses
@@ -215,32 +506,4 @@ public class QtlDataModel
             return this.identifierToCrossMap.values().toArray(crosses);
         }
     }
-    
-    /**
-     * Scan the current R environment and return all cross object
-     * identifiers.
-     * @return
-     *          the list of cross identifiers
-     */
-    private static List<RObject> getAllCrossRObjects()
-    {
-        RInterface rInterface = RInterfaceFactory.getRInterfaceInstance();
-        List<RObject> crossIdentifiers = JRIUtilityFunctions.getTopLevelObjectsOfType(
-                rInterface,
-                Cross.TYPE_STRING);
-        
-        if(LOG.isLoggable(Level.FINEST))
-        {
-            StringBuffer message = new StringBuffer("detected crosses:");
-            for(RObject currCrossId: crossIdentifiers)
-            {
-                message.append(" " + currCrossId.getAccessorExpressionString());
-            }
-            
-            LOG.finest(message.toString());
-        }
-        
-        return crossIdentifiers;
-    }
-    
 }
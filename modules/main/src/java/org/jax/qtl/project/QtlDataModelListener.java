@@ -45,4 +45,14 @@ public interface QtlDataModelListener
      *          the cross
      */
     public void crossRemoved(QtlDataModel source, Cross cross);
+    
+    /**
+     * Signals that the scan or fit results belonging to a cross have
+     * changed
+     * @param source
+     *          the data model that fired this event
+     * @param cross
+     *          the cross whose results changed
+     */
+    public void crossResultsChanged(QtlDataModel source, Cross cross);
 }
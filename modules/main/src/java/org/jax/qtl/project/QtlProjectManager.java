@@ -45,6 +45,9 @@ import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
 import org.jax.qtl.jaxbgenerated.JQtlProjectMetadata;
+import org.jax.qtl.util.GeneticMapVersions;
+import org.jax.qtl.util.RChangeJournal;
+import org.jax.qtl.util.RSessionEpoch;
 import org.jax.r.CleanEnvironmentCommand;
 import org.jax.r.RUtilities;
 import org.jax.r.jriutilities.RInterface;
@@ -182,8 +185,12 @@ public class QtlProjectManager extends ProjectManager
     public Project createNewActiveProject()
     {
         // clear the current r data
-        this.rInterface.evaluateCommand(new SilentRCommand(
-                "rm(list=ls())"));
+        RSessionEpoch.evaluateCommandNoReturn(
+                this.rInterface,
+                new SilentRCommand("rm(list=ls())"));
+        RSessionEpoch.advanceMutationEpoch();
+        GeneticMapVersions.invalidateAll();
+        RChangeJournal.recordUnknownChanges();
         
         this.setActiveProjectFile(null);
         this.setActiveProjectModified(false);
@@ -218,19 +225,25 @@ public class QtlProjectManager extends ProjectManager
                             tempProjDir);
                     
                     // clear the current r data
-                    this.rInterface.evaluateCommand(new SilentRCommand(
-                            "rm(list=ls())"));
+                    RSessionEpoch.evaluateCommandNoReturn(
+                            this.rInterface,
+                            new SilentRCommand("rm(list=ls())"));
                     
                     // load the r data
                     File rDataFile = new File(tempProjDir, PROJECT_R_DATA_FILENAME);
-                    this.rInterface.evaluateCommandNoReturn(new SilentRCommand(
-                            new CleanEnvironmentCommand()));
+                    RSessionEpoch.evaluateCommandNoReturn(
+                            this.rInterface,
+                            new SilentRCommand(new CleanEnvironmentCommand()));
                     String loadDataCommandString =
                         "load(" +
                         RUtilities.javaStringToRString(rDataFile.getAbsolutePath()) +
                         ")";
-                    this.rInterface.evaluateCommand(new SilentRCommand(
-                            loadDataCommandString));
+                    RSessionEpoch.evaluateCommandNoReturn(
+                            this.rInterface,
+                            new SilentRCommand(loadDataCommandString));
+                    RSessionEpoch.advanceMutationEpoch();
+                    GeneticMapVersions.invalidateAll();
+                    RChangeJournal.recordUnknownChanges();
                     
                     // load the meta data
                     InputStream configFileIn = this.getProjectMetadataInputStreamFromDir(
@@ -322,7 +335,8 @@ public class QtlProjectManager extends ProjectManager
                         "save(list = ls(), file = " +
                         RUtilities.javaStringToRString(rDataFile.getAbsolutePath()) +
                         ")";
-                    this.rInterface.evaluateCommand(
+                    RSessionEpoch.evaluateCommandNoReturn(
+                            this.rInterface,
                             new SilentRCommand(saveDataCommandString));
                     
                     // create temp metadata file
@@ -430,6 +444,23 @@ public class QtlProjectManager extends ProjectManager
     @Override
     public void refreshProjectDataStructures()
     {
+        // the refresh is how we find out about changes made outside of
+        // RSessionEpoch (like commands typed into the R console) so any
+        // cached R data is now suspect
+        RSessionEpoch.advanceMutationEpoch();
+        GeneticMapVersions.invalidateAll();
+        RChangeJournal.recordUnknownChanges();
         this.getActiveProject().getDataModel().updateAll();
     }
+    
+    /**
+     * A cheaper alternative to {@link #refreshProjectDataStructures()} for
+     * when the changes were made through
+     * {@link org.jax.qtl.util.RSessionEpoch}. Only the objects that the
+     * {@link RChangeJournal} says changed are looked at
+     */
+    public void synchronizeProjectDataStructures()
+    {
+        this.getActiveProject().getDataModel().updateFromJournal();
+    }
 }
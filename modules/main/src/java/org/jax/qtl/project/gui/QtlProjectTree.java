@@ -21,11 +21,18 @@
 package org.jax.qtl.project.gui;
 
 import java.awt.Component;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.net.URL;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,6 +41,7 @@ import javax.swing.ImageIcon;
 import javax.swing.JPopupMenu;
 import javax.swing.JTree;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.event.TreeSelectionEvent;
 import javax.swing.event.TreeSelectionListener;
 import javax.swing.tree.DefaultMutableTreeNode;
@@ -61,6 +69,7 @@ import org.jax.qtl.scan.gui.PlotScanOneResultAction;
 import org.jax.qtl.scan.gui.PlotScanTwoResultAction;
 import org.jax.qtl.scan.gui.ScanOneSummaryAction;
 import org.jax.qtl.scan.gui.ScanTwoSummaryAction;
+import org.jax.qtl.util.RSessionEpoch;
 import org.jax.r.jriutilities.RInterface;
 import org.jax.r.jriutilities.RInterfaceFactory;
 import org.jax.util.gui.Iconifiable;
@@ -100,6 +109,17 @@ public class QtlProjectTree extends ProjectTree
         {
             this.changeOccured();
         }
+        
+        public void crossResultsChanged(QtlDataModel source, final Cross cross)
+        {
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                public void run()
+                {
+                    QtlProjectTree.this.refreshCrossResults(cross);
+                }
+            });
+        }
 
         private void changeOccured()
         {
@@ -113,6 +133,45 @@ public class QtlProjectTree extends ProjectTree
         }
     };
     
+    /**
+     * how long we wait for more refresh requests before we go back to R
+     */
+    private static final int REFRESH_COALESCE_MILLIS = 100;
+    
+    /**
+     * synchronizes data models with R off of the AWT thread so that the
+     * tree never has to wait on the R session lock
+     */
+    private static final ExecutorService SYNCHRONIZATION_EXECUTOR =
+        Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "project tree synchronization");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    
+    /**
+     * true when a synchronization is queued up but hasn't started yet
+     */
+    private final AtomicBoolean synchronizationPending = new AtomicBoolean(false);
+    
+    /**
+     * coalesces the refresh requests that come in a burst (like when a
+     * batch of scans finishes) into a single synchronization
+     */
+    private final Timer refreshTimer = new Timer(
+            REFRESH_COALESCE_MILLIS,
+            new ActionListener()
+            {
+                public void actionPerformed(ActionEvent e)
+                {
+                    QtlProjectTree.this.synchronizeDataModel();
+                }
+            });
+    
     /**
      * @see #getSelectedCross()
      */
@@ -138,6 +197,7 @@ public class QtlProjectTree extends ProjectTree
      */
     public QtlProjectTree()
     {
+        this.refreshTimer.setRepeats(false);
         this.getSelectionModel().setSelectionMode(
                 TreeSelectionModel.SINGLE_TREE_SELECTION);
         this.addTreeSelectionListener(new TreeSelectionListener()
@@ -401,14 +461,53 @@ public class QtlProjectTree extends ProjectTree
         
         if(!activeProjectIsRoot)
         {
+            // the new root has to show up right away, but it can be
+            // filled in from what the data model already knows
             this.getModel().setRoot(new ProjectTreeNode(activeProject));
+            this.refreshCrossNodes();
         }
         
+        this.refreshTimer.restart();
+    }
+    
+    /**
+     * Called once the refresh requests settle down. Refreshes everything
+     * that we can without talking to R and queues up a data model
+     * synchronization, which tells us about any crosses whose results
+     * changed through the {@link QtlDataModelListener}
+     */
+    private void synchronizeDataModel()
+    {
         this.refreshCrossNodes();
+        
+        ProjectTreeNode projectNode = (ProjectTreeNode)this.getModel().getRoot();
+        final QtlDataModel dataModel = projectNode.getProject().getDataModel();
+        if(this.synchronizationPending.compareAndSet(false, true))
+        {
+            SYNCHRONIZATION_EXECUTOR.execute(new Runnable()
+            {
+                public void run()
+                {
+                    QtlProjectTree.this.synchronizationPending.set(false);
+                    try
+                    {
+                        dataModel.updateFromJournal();
+                    }
+                    catch(RuntimeException ex)
+                    {
+                        LOG.log(Level.SEVERE,
+                                "failed to synchronize the data model with R",
+                                ex);
+                    }
+                }
+            });
+        }
     }
     
     /**
-     * refresh all of the cross nodes
+     * refresh all of the cross nodes. Only new cross nodes get their
+     * results filled in here. Existing crosses are updated through
+     * {@link #refreshCrossResults(Cross)} when their results change
      */
     private void refreshCrossNodes()
     {
@@ -439,11 +538,10 @@ public class QtlProjectTree extends ProjectTree
                     projectNode,
                     currCross);
             
-            CrossTreeNode currCrossNode;
             if(indexOfCross == -1)
             {
                 // append the cross to the end of the project node
-                currCrossNode = new CrossTreeNode(currCross);
+                CrossTreeNode currCrossNode = new CrossTreeNode(currCross);
                 this.getModel().insertNodeInto(
                         currCrossNode,
                         projectNode,
@@ -466,18 +564,44 @@ public class QtlProjectTree extends ProjectTree
                         currCrossNode.getChildCount());
                 this.expandPath(new TreePath(
                         currCrossNode.getPath()));
+                this.refreshCross(currCrossNode);
             }
             else
             {
-                currCrossNode =
+                // baskets live on the java side so they're cheap to check
+                CrossTreeNode currCrossNode =
                     (CrossTreeNode)projectNode.getChildAt(indexOfCross);
+                this.refreshQtlBasketFolder(currCrossNode.getQtlBasketFolderNode());
             }
-            
-            this.refreshCross(currCrossNode);
         }
         
         this.getModel().nodeChanged(projectNode);
     }
+    
+    /**
+     * Refresh the result folders for the given cross
+     * @param cross
+     *          the cross whose results changed
+     */
+    private void refreshCrossResults(Cross cross)
+    {
+        Object rootObject = this.getModel().getRoot();
+        if(rootObject instanceof ProjectTreeNode)
+        {
+            ProjectTreeNode projectNode = (ProjectTreeNode)rootObject;
+            int indexOfCross = SwingTreeUtilities.indexOfChildWithUserObject(
+                    projectNode,
+                    cross);
+            if(indexOfCross != -1)
+            {
+                CrossTreeNode crossNode =
+                    (CrossTreeNode)projectNode.getChildAt(indexOfCross);
+                this.refreshScanOneFolder(crossNode.getScanOneFolderNode());
+                this.refreshScanTwoFolder(crossNode.getScanTwoFolderNode());
+                this.refreshFitResultsFolder(crossNode.getFitResultsFolderNode());
+            }
+        }
+    }
 
     /**
      * Refresh the given cross
@@ -560,9 +684,10 @@ public class QtlProjectTree extends ProjectTree
     private void refreshScanOneFolder(ScanOneFolderNode scanOneFolder)
     {
         Cross cross = scanOneFolder.getCross();
-        Set<ScanOneResult> scanOneResults = cross.getScanOneResults();
+        Set<ScanOneResult> scanOneResults = cross.getCachedScanOneResults();
         
         // remove tree nodes that are no longer in the cross
+        Set<ScanOneResult> resultsInTree = new HashSet<ScanOneResult>();
         for(int crossChildIndex = scanOneFolder.getChildCount() - 1;
             crossChildIndex >= 0;
             crossChildIndex--)
@@ -578,6 +703,10 @@ public class QtlProjectTree extends ProjectTree
                     // the scan one node needs to be removed
                     this.getModel().removeNodeFromParent(currScanOneNode);
                 }
+                else
+                {
+                    resultsInTree.add(currScanOneNode.getScanOneResult());
+                }
             }
         }
         
@@ -585,10 +714,7 @@ public class QtlProjectTree extends ProjectTree
         boolean anyNewNodes = false;
         for(ScanOneResult currScanOneResult: scanOneResults)
         {
-            int indexOfScanResult = SwingTreeUtilities.indexOfChildWithUserObject(
-                    scanOneFolder,
-                    currScanOneResult);
-            if(indexOfScanResult == -1)
+            if(!resultsInTree.contains(currScanOneResult))
             {
                 ScanOneTreeNode newScanOneNode = new ScanOneTreeNode(
                         currScanOneResult); 
@@ -617,9 +743,10 @@ public class QtlProjectTree extends ProjectTree
     private void refreshScanTwoFolder(ScanTwoFolderNode scanTwoFolder)
     {
         Cross cross = scanTwoFolder.getCross();
-        Set<ScanTwoResult> scanTwoResults = cross.getScanTwoResults();
+        Set<ScanTwoResult> scanTwoResults = cross.getCachedScanTwoResults();
         
         // remove tree nodes that are no longer in the cross
+        Set<ScanTwoResult> resultsInTree = new HashSet<ScanTwoResult>();
         for(int crossChildIndex = scanTwoFolder.getChildCount() - 1;
             crossChildIndex >= 0;
             crossChildIndex--)
@@ -635,6 +762,10 @@ public class QtlProjectTree extends ProjectTree
                     // the scan one node needs to be removed
                     this.getModel().removeNodeFromParent(currScanTwoNode);
                 }
+                else
+                {
+                    resultsInTree.add(currScanTwoNode.getScanTwoResult());
+                }
             }
         }
         
@@ -642,10 +773,7 @@ public class QtlProjectTree extends ProjectTree
         boolean anyNewNodes = false;
         for(ScanTwoResult currScanTwoResult: scanTwoResults)
         {
-            int indexOfScanResult = SwingTreeUtilities.indexOfChildWithUserObject(
-                    scanTwoFolder,
-                    currScanTwoResult);
-            if(indexOfScanResult == -1)
+            if(!resultsInTree.contains(currScanTwoResult))
             {
                 ScanTwoTreeNode newScanTwoNode = new ScanTwoTreeNode(
                         currScanTwoResult); 
@@ -669,9 +797,10 @@ public class QtlProjectTree extends ProjectTree
     private void refreshFitResultsFolder(FitResultsFolderNode fitResultsFolder)
     {
         Cross cross = fitResultsFolder.getCross();
-        Set<FitQtlResult> fitQtlResults = cross.getFitQtlResults();
+        Set<FitQtlResult> fitQtlResults = cross.getCachedFitQtlResults();
         
         // remove tree nodes that are no longer in the cross
+        Set<FitQtlResult> resultsInTree = new HashSet<FitQtlResult>();
         for(int crossChildIndex = fitResultsFolder.getChildCount() - 1;
             crossChildIndex >= 0;
             crossChildIndex--)
@@ -687,6 +816,10 @@ public class QtlProjectTree extends ProjectTree
                     // the fit node needs to be removed
                     this.getModel().removeNodeFromParent(currFitResultsTreeNode);
                 }
+                else
+                {
+                    resultsInTree.add(currFitResultsTreeNode.getFitQtlResult());
+                }
             }
         }
         
@@ -694,10 +827,7 @@ public class QtlProjectTree extends ProjectTree
         boolean anyNewNodes = false;
         for(FitQtlResult currFitQtlResult: fitQtlResults)
         {
-            int indexOfFitResult = SwingTreeUtilities.indexOfChildWithUserObject(
-                    fitResultsFolder,
-                    currFitQtlResult);
-            if(indexOfFitResult == -1)
+            if(!resultsInTree.contains(currFitQtlResult))
             {
                 FitResultsTreeNode newFitTreeNode = new FitResultsTreeNode(
                         currFitQtlResult);
@@ -1075,14 +1205,15 @@ public class QtlProjectTree extends ProjectTree
             RInterface rInterface = RInterfaceFactory.getRInterfaceInstance();
             rInterface.insertComment(
                     "Deleting scanone object");
-            rInterface.evaluateCommand(
+            RSessionEpoch.evaluateCommand(
+                    rInterface,
                     "rm(" +
                     this.getScanOneResult().getAccessorExpressionString() +
                     ")");
             QtlProjectManager projectManager =
                 QtlProjectTree.this.getProjectManager();
             projectManager.notifyActiveProjectModified();
-            projectManager.refreshProjectDataStructures();
+            projectManager.synchronizeProjectDataStructures();
         }
     }
     
@@ -1212,14 +1343,15 @@ public class QtlProjectTree extends ProjectTree
             RInterface rInterface = RInterfaceFactory.getRInterfaceInstance();
             rInterface.insertComment(
                     "Deleting fit result");
-            rInterface.evaluateCommand(
+            RSessionEpoch.evaluateCommand(
+                    rInterface,
                     "rm(" +
                     this.getFitQtlResult().getAccessorExpressionString() +
                     ")");
             QtlProjectManager projectManager =
                 QtlProjectTree.this.getProjectManager();
             projectManager.notifyActiveProjectModified();
-            projectManager.refreshProjectDataStructures();
+            projectManager.synchronizeProjectDataStructures();
         }
 
         /**
@@ -1370,14 +1502,15 @@ public class QtlProjectTree extends ProjectTree
             RInterface rInterface = RInterfaceFactory.getRInterfaceInstance();
             rInterface.insertComment(
                     "Deleting scantwo object");
-            rInterface.evaluateCommand(
+            RSessionEpoch.evaluateCommand(
+                    rInterface,
                     "rm(" +
                     this.getScanTwoResult().getAccessorExpressionString() +
                     ")");
             QtlProjectManager projectManager =
                 QtlProjectTree.this.getProjectManager();
             projectManager.notifyActiveProjectModified();
-            projectManager.refreshProjectDataStructures();
+            projectManager.synchronizeProjectDataStructures();
         }
     }
     
@@ -1588,7 +1721,7 @@ public class QtlProjectTree extends ProjectTree
             QtlProjectManager projectManager =
                 QtlProjectTree.this.getProjectManager();
             projectManager.notifyActiveProjectModified();
-            projectManager.refreshProjectDataStructures();
+            projectManager.synchronizeProjectDataStructures();
         }
     }
     
@@ -1803,7 +1936,8 @@ public class QtlProjectTree extends ProjectTree
             rInterface.insertComment("Deleting cross object");
             for(ScanTwoResult scanTwoResult: this.getCross().getScanTwoResults())
             {
-                rInterface.evaluateCommand(
+                RSessionEpoch.evaluateCommand(
+                        rInterface,
                         "rm(" +
                         scanTwoResult.getAccessorExpressionString() +
                         ")");
@@ -1811,7 +1945,8 @@ public class QtlProjectTree extends ProjectTree
             
             for(ScanOneResult scanOneResult: this.getCross().getScanOneResults())
             {
-                rInterface.evaluateCommand(
+                RSessionEpoch.evaluateCommand(
+                        rInterface,
                         "rm(" +
                         scanOneResult.getAccessorExpressionString() +
                         ")");
@@ -1819,13 +1954,15 @@ public class QtlProjectTree extends ProjectTree
             
             for(FitQtlResult fitResult: this.getCross().getFitQtlResults())
             {
-                rInterface.evaluateCommand(
+                RSessionEpoch.evaluateCommand(
+                        rInterface,
                         "rm(" +
                         fitResult.getAccessorExpressionString() +
                         ")");
             }
             
-            rInterface.evaluateCommand(
+            RSessionEpoch.evaluateCommand(
+                    rInterface,
                     "rm(" +
                     this.getCross().getAccessorExpressionString() +
                     ")");
@@ -1833,7 +1970,7 @@ public class QtlProjectTree extends ProjectTree
             QtlProjectManager projectManager =
                 QtlProjectTree.this.getProjectManager();
             projectManager.notifyActiveProjectModified();
-            projectManager.refreshProjectDataStructures();
+            projectManager.synchronizeProjectDataStructures();
         }
 
         /**
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jax.qtl.scan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.jax.qtl.cross.Cross;
+import org.jax.qtl.scan.ScanOneSummary.ScanOneSummaryRow;
+
+/**
+ * The combined peak table for a batch of scans. Peaks are added one scan
+ * at a time as the scans finish so the table can be looked at (and
+ * exported) long before the whole batch is done.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class BatchScanPeakTable
+{
+    /**
+     * One peak from one of the scans in the batch
+     */
+    public static class Peak
+    {
+        private final Cross cross;
+        
+        private final String phenotypeName;
+        
+        private final String scanResultName;
+        
+        private final ScanOneSummaryRow summaryRow;
+        
+        private final boolean pValueIsValid;
+        
+        /**
+         * Constructor
+         * @param cross
+         *          see {@link #getCross()}
+         * @param phenotypeName
+         *          see {@link #getPhenotypeName()}
+         * @param scanResultName
+         *          see {@link #getScanResultName()}
+         * @param summaryRow
+         *          see {@link #getSummaryRow()}
+         * @param pValueIsValid
+         *          see {@link #getPValueIsValid()}
+         */
+        public Peak(
+                Cross cross,
+                String phenotypeName,
+                String scanResultName,
+                ScanOneSummaryRow summaryRow,
+                boolean pValueIsValid)
+        {
+            this.cross = cross;
+            this.phenotypeName = phenotypeName;
+            this.scanResultName = scanResultName;
+            this.summaryRow = summaryRow;
+            this.pValueIsValid = pValueIsValid;
+        }
+        
+        /**
+         * Getter for the cross that was scanned
+         * @return the cross
+         */
+        public Cross getCross()
+        {
+            return this.cross;
+        }
+        
+        /**
+         * Getter for the phenotype that was scanned
+         * @return the phenotype name
+         */
+        public String getPhenotypeName()
+        {
+            return this.phenotypeName;
+        }
+        
+        /**
+         * Getter for the name of the scan result that this peak came from
+         * @return the scan result name
+         */
+        public String getScanResultName()
+        {
+            return this.scanResultName;
+        }
+        
+        /**
+         * Getter for the summary row (marker, LOD and p-value) of the peak
+         * @return the summary row
+         */
+        public ScanOneSummaryRow getSummaryRow()
+        {
+            return this.summaryRow;
+        }
+        
+        /**
+         * Determine if {@link ScanOneSummaryRow#getPValue()} means anything
+         * (it only does if permutations were run)
+         * @return true if the p-value is valid
+         */
+        public boolean getPValueIsValid()
+        {
+            return this.pValueIsValid;
+        }
+    }
+    
+    /**
+     * Listener interface for peak table changes
+     */
+    public interface PeakTableListener
+    {
+        /**
+         * Called after the peaks of a scan are added to the table. This
+         * is called from whatever thread the scan ran on
+         * @param peakTable
+         *          the table
+         * @param newPeaks
+         *          the peaks that were just added (can be empty if the scan
+         *          didn't have any peaks above the threshold)
+         */
+        public void peaksAdded(BatchScanPeakTable peakTable, List<Peak> newPeaks);
+        
+        /**
+         * Called when one of the scans in the batch fails
+         * @param peakTable
+         *          the table
+         * @param scanResultName
+         *          the name of the scan that failed
+         * @param failure
+         *          the reason that it failed
+         */
+        public void scanFailed(
+                BatchScanPeakTable peakTable,
+                String scanResultName,
+                Throwable failure);
+    }
+    
+    private final List<Peak> peaks = new ArrayList<Peak>();
+    
+    private final List<PeakTableListener> listeners =
+        new CopyOnWriteArrayList<PeakTableListener>();
+    
+    private final int scanCount;
+    
+    private int finishedScanCount = 0;
+    
+    private int failedScanCount = 0;
+    
+    /**
+     * Constructor
+     * @param scanCount
+     *          see {@link #getScanCount()}
+     */
+    public BatchScanPeakTable(int scanCount)
+    {
+        this.scanCount = scanCount;
+    }
+    
+    /**
+     * Getter for the number of scans in the batch
+     * @return the scan count
+     */
+    public int getScanCount()
+    {
+        return this.scanCount;
+    }
+    
+    /**
+     * Getter for the number of scans that have finished (successfully or
+     * not)
+     * @return the finished scan count
+     */
+    public synchronized int getFinishedScanCount()
+    {
+        return this.finishedScanCount;
+    }
+    
+    /**
+     * Getter for the number of scans that failed
+     * @return the failed scan count
+     */
+    public synchronized int getFailedScanCount()
+    {
+        return this.failedScanCount;
+    }
+    
+    /**
+     * Get a snapshot of the peaks that are in the table so far
+     * @return the peaks
+     */
+    public synchronized List<Peak> getPeaks()
+    {
+        return new ArrayList<Peak>(this.peaks);
+    }
+    
+    /**
+     * Add the peaks from a finished scan
+     * @param cross
+     *          the cross that was scanned
+     * @param phenotypeName
+     *          the phenotype that was scanned
+     * @param scanResultName
+     *          the name of the scan result
+     * @param summary
+     *          the summary holding the peaks
+     */
+    public void addPeaks(
+            Cross cross,
+            String phenotypeName,
+            String scanResultName,
+            ScanOneSummary summary)
+    {
+        List<Peak> newPeaks = new ArrayList<Peak>();
+        for(ScanOneSummaryRow currRow: summary.getScanOneSummaryRows())
+        {
+            newPeaks.add(new Peak(
+                    cross,
+                    phenotypeName,
+                    scanResultName,
+                    currRow,
+                    summary.getPValuesAreValid()));
+        }
+        newPeaks = Collections.unmodifiableList(newPeaks);
+        
+        synchronized(this)
+        {
+            this.peaks.addAll(newPeaks);
+            this.finishedScanCount++;
+        }
+        
+        for(PeakTableListener listener: this.listeners)
+        {
+            listener.peaksAdded(this, newPeaks);
+        }
+    }
+    
+    /**
+     * Record that one of the scans failed
+     * @param scanResultName
+     *          the name of the scan result that we were trying to create
+     * @param failure
+     *          the reason that it failed
+     */
+    public void addFailure(String scanResultName, Throwable failure)
+    {
+        synchronized(this)
+        {
+            this.finishedScanCount++;
+            this.failedScanCount++;
+        }
+        
+        for(PeakTableListener listener: this.listeners)
+        {
+            listener.scanFailed(this, scanResultName, failure);
+        }
+    }
+    
+    /**
+     * Add a listener
+     * @param listener
+     *          the listener
+     */
+    public void addPeakTableListener(PeakTableListener listener)
+    {
+        this.listeners.add(listener);
+    }
+    
+    /**
+     * Remove a listener
+     * @param listener
+     *          the listener
+     */
+    public void removePeakTableListener(PeakTableListener listener)
+    {
+        this.listeners.remove(listener);
+    }
+}
@@ -0,0 +1,535 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import org.jax.qtl.job.Job;
+import org.jax.qtl.util.RChangeJournal;
+import org.jax.qtl.util.RSessionEpoch;
+import org.jax.qtl.util.RSessionLock;
+import org.jax.qtl.util.RandomStreams;
+import org.jax.qtl.util.ReadOnlyRCommand;
+import org.jax.qtl.worker.RWorkerException;
+import org.jax.qtl.worker.RWorkerJob;
+import org.jax.qtl.worker.RWorkerPool;
+import org.jax.qtl.worker.RWorkerProcess;
+import org.jax.qtl.worker.RWorkerSeedFile;
+import org.jax.r.RAssignmentCommand;
+import org.jax.r.RUtilities;
+import org.jax.r.jriutilities.RInterface;
+import org.jax.r.jriutilities.SilentRCommand;
+import org.rosuda.JRI.REXP;
+
+/**
+ * Splits the permutations for a scan into chunks that run concurrently
+ * on the {@link RWorkerPool}. Every chunk gets its own RNG seed, and the
+ * chunks are <code>rbind</code>-ed into the usual
+ * <code>name.permutations</code> object as they finish. R/qtl's
+ * <code>rbind.scanoneperm</code> and <code>rbind.scantwoperm</code> take
+ * care of the separate A/X components when <code>perm.Xsp</code> is on.
+ * Since the permutation object is updated after every chunk it also
+ * acts as a checkpoint. If a compatible permutation object already
+ * exists, only the missing permutations are run and added to it. This
+ * goes for permutations run in the main session
+ * ({@link #runPermutationsInSession(RInterface, ScanCommandBuilder, String)})
+ * and in java ({@link HaleyKnottPermutationEngine}) too, since they tag
+ * their results the same way.
+ * <p>
+ * All of the seeds come from the master seed in
+ * {@link ScanCommandBuilder#getPermutationSeed()}: the seed for a run of
+ * permutations starting at permutation <code>k</code> is drawn from
+ * stream <code>k</code> of a {@link RandomStreams}. The master seeds that
+ * went into an object are recorded in its
+ * {@link #PERMUTATION_SEED_ATTRIBUTE} attribute.
+ * </p>
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class ChunkedPermutationRunner
+{
+    /**
+     * our logger
+     */
+    private static final Logger LOG = Logger.getLogger(
+            ChunkedPermutationRunner.class.getName());
+
+    /**
+     * the attribute we use to record which scan settings a permutation
+     * object came from. we only extend objects whose signature matches
+     */
+    public static final String PERMUTATION_SIGNATURE_ATTRIBUTE =
+        "jqtl.perm.signature";
+
+    /**
+     * the attribute we use to record the master seeds that a permutation
+     * object came from (as strings since R can't hold a java long)
+     */
+    public static final String PERMUTATION_SEED_ATTRIBUTE =
+        "jqtl.perm.seed";
+
+    /**
+     * the identifier that chunk results are saved and loaded under
+     */
+    private static final String CHUNK_IDENTIFIER = ".jqtl.perm.chunk";
+
+    /**
+     * we use a few chunks per worker so that a slow chunk doesn't leave
+     * the other workers idle
+     */
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    private final RWorkerPool workerPool;
+
+    /**
+     * Constructor
+     * @param workerPool
+     *          the pool that the chunks run on
+     */
+    public ChunkedPermutationRunner(RWorkerPool workerPool)
+    {
+        this.workerPool = workerPool;
+    }
+
+    /**
+     * Get the number of permutations that already exist in the main
+     * session for the given scan settings
+     * @param rInterface
+     *          the main R session
+     * @param scanCommandBuilder
+     *          the scan settings
+     * @return
+     *          the number of compatible permutations that already exist
+     *          (zero if there are none or if the existing object came from
+     *          different settings). when <code>perm.Xsp</code> is on this
+     *          is the autosome count
+     */
+    public static int getExistingPermutationCount(
+            RInterface rInterface,
+            ScanCommandBuilder scanCommandBuilder)
+    {
+        return ChunkedPermutationRunner.getExistingPermutationCount(
+                rInterface,
+                scanCommandBuilder,
+                false);
+    }
+
+    /**
+     * Get the number of permutations that already exist in the main
+     * session for the given scan settings
+     * @param rInterface
+     *          the main R session
+     * @param scanCommandBuilder
+     *          the scan settings
+     * @param xPermutations
+     *          if true count the X chromosome permutations of a
+     *          <code>perm.Xsp</code> object rather than the autosome
+     *          permutations
+     * @return
+     *          the number of compatible permutations that already exist
+     *          (zero if there are none or if the existing object came from
+     *          different settings)
+     */
+    public static int getExistingPermutationCount(
+            RInterface rInterface,
+            ScanCommandBuilder scanCommandBuilder,
+            boolean xPermutations)
+    {
+        String signature = ChunkedPermutationRunner.getPermutationSignature(
+                scanCommandBuilder);
+        if(signature == null)
+        {
+            return 0;
+        }
+
+        String rPermutationsName = RUtilities.javaStringToRString(
+                ChunkedPermutationRunner.getPermutationsName(scanCommandBuilder));
+        String countExpression = xPermutations ?
+                "if(is.list(p)) nrow(p$X) else 0" :
+                "if(is.list(p)) nrow(p[[1]]) else nrow(p)";
+        REXP count = RSessionEpoch.evaluateCommand(rInterface, new ReadOnlyRCommand(
+                "local({if(exists(" + rPermutationsName + ", envir=globalenv()) && " +
+                "identical(attr(get(" + rPermutationsName + ", envir=globalenv()), " +
+                RUtilities.javaStringToRString(PERMUTATION_SIGNATURE_ATTRIBUTE) + "), " +
+                RUtilities.javaStringToRString(signature) + ")) {" +
+                "p <- get(" + rPermutationsName + ", envir=globalenv()); " +
+                "as.integer(" + countExpression + ")} " +
+                "else 0L})"));
+        return count == null ? 0 : count.asInt();
+    }
+
+    /**
+     * Run any permutations that are missing from the main session,
+     * merging each chunk into <code>name.permutations</code> as soon as
+     * it's done
+     * @param rInterface
+     *          the main R session
+     * @param scanCommandBuilder
+     *          the scan settings
+     * @param seedFile
+     *          the worker seed file holding the cross
+     * @throws RWorkerException
+     *          if a chunk fails. chunks that finished before the failure
+     *          stay merged
+     * @throws InterruptedException
+     *          if we're interrupted while waiting on the workers
+     */
+    public void runPermutations(
+            RInterface rInterface,
+            ScanCommandBuilder scanCommandBuilder,
+            RWorkerSeedFile seedFile)
+    throws RWorkerException, InterruptedException
+    {
+        Integer numberOfPermutations = scanCommandBuilder.getNumberOfPermutations();
+        String signature = ChunkedPermutationRunner.getPermutationSignature(
+                scanCommandBuilder);
+        if(numberOfPermutations == null || signature == null)
+        {
+            return;
+        }
+
+        int existingCount = ChunkedPermutationRunner.getExistingPermutationCount(
+                rInterface,
+                scanCommandBuilder);
+        int remainingCount = numberOfPermutations.intValue() - existingCount;
+        if(remainingCount <= 0)
+        {
+            LOG.info(
+                    "all " + numberOfPermutations + " permutations already " +
+                    "exist. not running any more");
+            return;
+        }
+
+        int chunkCount = Math.min(
+                remainingCount,
+                this.workerPool.getWorkerCount() * CHUNKS_PER_WORKER);
+        int baseChunkSize = remainingCount / chunkCount;
+        int extraPermutations = remainingCount % chunkCount;
+
+        List<Future<File>> chunkResults = new ArrayList<Future<File>>(chunkCount);
+        List<String> chunkDescriptions = new ArrayList<String>(chunkCount);
+        int firstPermutation = existingCount + 1;
+        for(int chunkIndex = 0; chunkIndex < chunkCount; chunkIndex++)
+        {
+            int chunkSize = baseChunkSize + (chunkIndex < extraPermutations ? 1 : 0);
+            int chunkSeed = ChunkedPermutationRunner.getRSeed(
+                    scanCommandBuilder,
+                    firstPermutation - 1);
+            String chunkCommand =
+                CHUNK_IDENTIFIER + " <- local({set.seed(" + chunkSeed + "); " +
+                scanCommandBuilder.getPermutationsInvocation(chunkSize).getCommandText() +
+                "})";
+            chunkResults.add(this.workerPool.submit(
+                    ChunkedPermutationRunner.createChunkJob(seedFile, chunkCommand),
+                    seedFile));
+            chunkDescriptions.add(
+                    "permutations " + firstPermutation + " to " +
+                    (firstPermutation + chunkSize - 1) + " of " +
+                    numberOfPermutations + " (seed " + chunkSeed + ")");
+            firstPermutation += chunkSize;
+        }
+
+        String permutationsName =
+            ChunkedPermutationRunner.getPermutationsName(scanCommandBuilder);
+        boolean permutationsExist = existingCount > 0;
+        try
+        {
+            // merge in submission order so that the result doesn't depend
+            // on which worker happens to finish first
+            for(int chunkIndex = 0; chunkIndex < chunkCount; chunkIndex++)
+            {
+                File chunkFile;
+                try
+                {
+                    chunkFile = chunkResults.get(chunkIndex).get();
+                }
+                catch(ExecutionException ex)
+                {
+                    if(ex.getCause() instanceof RWorkerException)
+                    {
+                        throw (RWorkerException)ex.getCause();
+                    }
+                    else
+                    {
+                        throw new RWorkerException(
+                                "permutation chunk failed",
+                                ex.getCause());
+                    }
+                }
+
+                RSessionLock.lockForWriting();
+                try
+                {
+                    rInterface.insertComment(
+                            "merging " + chunkDescriptions.get(chunkIndex) +
+                            " from an R worker process");
+                    RWorkerPool.loadDataFile(rInterface, chunkFile);
+                    rInterface.evaluateCommandNoReturn(new SilentRCommand(
+                            permutationsName + " <- " +
+                            ChunkedPermutationRunner.createMergeExpression(
+                                    scanCommandBuilder,
+                                    CHUNK_IDENTIFIER,
+                                    permutationsExist) + "; " +
+                            "rm(" + CHUNK_IDENTIFIER + ")"));
+                    permutationsExist = true;
+                }
+                finally
+                {
+                    RSessionLock.unlockForWriting();
+                }
+                RSessionEpoch.advanceMutationEpoch();
+                RChangeJournal.recordAssignment(permutationsName);
+                
+                Job currentJob = Job.getCurrentJob();
+                if(currentJob != null)
+                {
+                    currentJob.setProgress(chunkIndex + 1, chunkCount);
+                }
+            }
+        }
+        finally
+        {
+            // don't leave chunks running if we bailed early. this kills
+            // the workers that are still busy with our chunks
+            for(Future<File> chunkResult: chunkResults)
+            {
+                chunkResult.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Run any permutations that are missing in the main R session. This
+     * is the fallback for when the workers aren't available or fail part
+     * way through. Like the chunks, the missing permutations get added to
+     * a compatible existing object rather than replacing it
+     * @param rInterface
+     *          the main R session
+     * @param scanCommandBuilder
+     *          the scan settings
+     * @param comment
+     *          the comment to log along with the command
+     */
+    public static void runPermutationsInSession(
+            RInterface rInterface,
+            ScanCommandBuilder scanCommandBuilder,
+            String comment)
+    {
+        Integer numberOfPermutations = scanCommandBuilder.getNumberOfPermutations();
+        if(numberOfPermutations == null || numberOfPermutations.intValue() <= 0)
+        {
+            return;
+        }
+        else if(ChunkedPermutationRunner.getPermutationSignature(scanCommandBuilder) == null)
+        {
+            // without a name there's nothing to extend
+            RSessionEpoch.evaluateCommandNoReturn(
+                    rInterface,
+                    comment,
+                    scanCommandBuilder.getCommandWithPermutations());
+            return;
+        }
+
+        int existingCount = ChunkedPermutationRunner.getExistingPermutationCount(
+                rInterface,
+                scanCommandBuilder);
+        int remainingCount = numberOfPermutations.intValue() - existingCount;
+        if(remainingCount <= 0)
+        {
+            LOG.info(
+                    "all " + numberOfPermutations + " permutations already " +
+                    "exist. not running any more");
+            return;
+        }
+
+        int seed = ChunkedPermutationRunner.getRSeed(
+                scanCommandBuilder,
+                existingCount);
+        String newPermutationsExpression =
+            "local({set.seed(" + seed + "); " +
+            scanCommandBuilder.getPermutationsInvocation(remainingCount).getCommandText() +
+            "})";
+        if(existingCount > 0)
+        {
+            comment +=
+                " (adding permutations " + (existingCount + 1) + " to " +
+                numberOfPermutations + " to the existing ones)";
+        }
+        RSessionEpoch.evaluateCommandNoReturn(
+                rInterface,
+                comment,
+                new RAssignmentCommand(
+                        ChunkedPermutationRunner.getPermutationsName(scanCommandBuilder),
+                        ChunkedPermutationRunner.createMergeExpression(
+                                scanCommandBuilder,
+                                newPermutationsExpression,
+                                existingCount > 0)));
+    }
+
+    /**
+     * Create an expression that adds the new permutations to the existing
+     * ones (if there are any) and tags the result with the signature and
+     * master seed so that it can be extended later
+     * @param scanCommandBuilder
+     *          the scan settings
+     * @param newPermutationsExpression
+     *          the expression for the new permutations
+     * @param permutationsExist
+     *          if true there's a compatible permutation object to add to
+     * @return
+     *          the expression
+     */
+    static String createMergeExpression(
+            ScanCommandBuilder scanCommandBuilder,
+            String newPermutationsExpression,
+            boolean permutationsExist)
+    {
+        String permutationsName =
+            ChunkedPermutationRunner.getPermutationsName(scanCommandBuilder);
+        String seedAttribute = RUtilities.javaStringToRString(
+                PERMUTATION_SEED_ATTRIBUTE);
+        StringBuffer mergeExpression = new StringBuffer("local({");
+        if(permutationsExist)
+        {
+            mergeExpression.append(
+                    "seeds <- attr(" + permutationsName + ", " + seedAttribute + "); ");
+            mergeExpression.append(
+                    "p <- rbind(" + permutationsName + ", " +
+                    newPermutationsExpression + "); ");
+        }
+        else
+        {
+            mergeExpression.append("seeds <- NULL; ");
+            mergeExpression.append("p <- " + newPermutationsExpression + "; ");
+        }
+        mergeExpression.append(
+                "attr(p, " +
+                RUtilities.javaStringToRString(PERMUTATION_SIGNATURE_ATTRIBUTE) +
+                ") <- " +
+                RUtilities.javaStringToRString(
+                        ChunkedPermutationRunner.getPermutationSignature(scanCommandBuilder)) +
+                "; ");
+        mergeExpression.append(
+                "attr(p, " + seedAttribute + ") <- unique(c(seeds, " +
+                RUtilities.javaStringToRString(
+                        Long.toString(scanCommandBuilder.getPermutationSeed())) +
+                ")); ");
+        mergeExpression.append("p})");
+        return mergeExpression.toString();
+    }
+
+    /**
+     * Get the R seed for a run of permutations
+     * @param scanCommandBuilder
+     *          the scan settings holding the master seed
+     * @param firstPermutation
+     *          the zero based index of the run's first permutation
+     * @return
+     *          the seed to pass to <code>set.seed</code>
+     */
+    static int getRSeed(
+            ScanCommandBuilder scanCommandBuilder,
+            int firstPermutation)
+    {
+        RandomStreams randomStreams = new RandomStreams(
+                scanCommandBuilder.getPermutationSeed());
+        return randomStreams.getStream(firstPermutation).nextInt();
+    }
+
+    /**
+     * Get the name of the permutations object
+     * @param scanCommandBuilder
+     *          the scan settings
+     * @return
+     *          the name
+     */
+    static String getPermutationsName(ScanCommandBuilder scanCommandBuilder)
+    {
+        return scanCommandBuilder.getScanResultName() +
+               ScanCommandBuilder.PERMUTATION_IDENTIFIER_SUFFIX;
+    }
+
+    /**
+     * Get the signature that identifies compatible permutations. This is
+     * the permutation invocation for a single permutation
+     * @param scanCommandBuilder
+     *          the scan settings
+     * @return
+     *          the signature or null if the settings are invalid
+     */
+    static String getPermutationSignature(
+            ScanCommandBuilder scanCommandBuilder)
+    {
+        String scanResultName = scanCommandBuilder.getScanResultName();
+        if(scanResultName == null || scanResultName.length() == 0)
+        {
+            return null;
+        }
+        else
+        {
+            return scanCommandBuilder.getPermutationsInvocation(1).getCommandText();
+        }
+    }
+
+    /**
+     * Create a job that runs a single chunk
+     * @param seedFile
+     *          the seed file holding the cross
+     * @param chunkCommand
+     *          the command that assigns the chunk to {@link #CHUNK_IDENTIFIER}
+     * @return
+     *          the job which returns the file holding the chunk
+     */
+    private static RWorkerJob<File> createChunkJob(
+            final RWorkerSeedFile seedFile,
+            final String chunkCommand)
+    {
+        return new RWorkerJob<File>()
+        {
+            public File runOnWorker(RWorkerProcess worker)
+            throws RWorkerException
+            {
+                worker.loadSeedFile(seedFile);
+                worker.evaluate(chunkCommand);
+
+                File chunkFile;
+                try
+                {
+                    chunkFile = RWorkerPool.createTempDataFile();
+                }
+                catch(IOException ex)
+                {
+                    throw new RWorkerException(
+                            "failed to create a permutation chunk file",
+                            ex);
+                }
+                worker.saveObjects(new String[] {CHUNK_IDENTIFIER}, chunkFile);
+
+                return chunkFile;
+            }
+        };
+    }
+}
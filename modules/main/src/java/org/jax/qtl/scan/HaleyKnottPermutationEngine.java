@@ -0,0 +1,725 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jax.qtl.cross.CrossChromosome;
+import org.jax.qtl.cross.GeneticMap;
+import org.jax.qtl.cross.GenotypeProbabilities;
+import org.jax.qtl.job.Job;
+import org.jax.qtl.util.MappedRArrayTransfer;
+import org.jax.qtl.util.ParallelComputation;
+import org.jax.qtl.util.RChangeJournal;
+import org.jax.qtl.util.RSessionEpoch;
+import org.jax.qtl.util.RSessionLock;
+import org.jax.qtl.util.RandomStreams;
+import org.jax.r.RUtilities;
+import org.jax.r.jriutilities.RInterface;
+import org.jax.r.jriutilities.SilentRCommand;
+
+/**
+ * Runs Haley-Knott <code>scanone</code> permutation tests in java using
+ * the same genotype probabilities and model code as
+ * {@link HaleyKnottScanOneEngine}. Only the genome-wide maximum LOD of
+ * each permutation is kept (separate autosome and X maximums when
+ * <code>perm.Xsp</code> is on), so memory doesn't grow with the number of
+ * positions.
+ * <p>
+ * Permutation <code>k</code> always draws its shuffle from stream
+ * <code>k</code> of a {@link RandomStreams} seeded with
+ * {@link ScanCommandBuilder#getPermutationSeed()}, so a given seed gives
+ * the same result no matter how many threads there are, how the
+ * permutations get split into tasks or whether they're added to an
+ * existing compatible permutation object a few at a time (see
+ * {@link ChunkedPermutationRunner}). When there are no covariates many
+ * permutations go into a single {@link HaleyKnottPhenotypeBlock} so that
+ * they share one factorization per position. Covariates are permuted
+ * along with the phenotypes (like R/qtl does) which means that every
+ * permutation needs its own design in that case.
+ * </p>
+ * <p>
+ * <code>scantwo</code> permutations are always left to R. Every
+ * permutation would need the same-chromosome pairs that
+ * {@link HaleyKnottScanTwoEngine} hands back to R for their joint
+ * genotype probabilities, so there's nothing to gain from doing the rest
+ * in java.
+ * </p>
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class HaleyKnottPermutationEngine
+{
+    /**
+     * our logger
+     */
+    private static final Logger LOG = Logger.getLogger(
+            HaleyKnottPermutationEngine.class.getName());
+
+    /**
+     * the most permuted phenotype columns that share a single blocked
+     * multiply
+     */
+    private static final int MAX_BLOCK_SIZE = 256;
+
+    /**
+     * we split the permutations into a few tasks per thread
+     */
+    private static final int TASKS_PER_THREAD = 4;
+
+    /**
+     * the scratch identifier for the autosome (or genome-wide) maximums
+     */
+    private static final String AUTOSOME_IDENTIFIER = ".jqtl.hk.perm.A";
+
+    /**
+     * the scratch identifier for the X chromosome maximums
+     */
+    private static final String X_IDENTIFIER = ".jqtl.hk.perm.X";
+
+    /**
+     * the X chromosome permutations of <code>perm.Xsp</code> draw from
+     * streams starting here so that they never overlap the autosome
+     * streams
+     */
+    private static final long X_STREAM_OFFSET = 1L << 40;
+
+    private final HaleyKnottScanOneEngine scanEngine =
+        new HaleyKnottScanOneEngine();
+
+    /**
+     * Determine if this engine can run the permutations for the given
+     * scan. We still need to check that the genotype probabilities exist
+     * when we run
+     * @param scanCommandBuilder
+     *          the scan settings
+     * @return
+     *          true if we can handle these permutations
+     */
+    public boolean canPermute(ScanCommandBuilder scanCommandBuilder)
+    {
+        Integer numberOfPermutations = scanCommandBuilder.getNumberOfPermutations();
+        return this.scanEngine.canScan(scanCommandBuilder) &&
+               numberOfPermutations != null &&
+               numberOfPermutations.intValue() > 0;
+    }
+
+    /**
+     * Run any permutations that are missing from
+     * <code>name.permutations</code> in R and add them to it (or create
+     * it if there's no compatible permutation object yet)
+     * @param rInterface
+     *          the R interface
+     * @param scanCommandBuilder
+     *          the scan settings including the master seed
+     * @return
+     *          true if the permutations are all there. if false the caller
+     *          should run the permutations some other way
+     */
+    public boolean runPermutations(
+            RInterface rInterface,
+            ScanCommandBuilder scanCommandBuilder)
+    {
+        if(!this.canPermute(scanCommandBuilder))
+        {
+            return false;
+        }
+
+        try
+        {
+            ScanOneModelData modelData = ScanOneModelData.fetchModelData(
+                    scanCommandBuilder);
+            if(modelData == null)
+            {
+                LOG.info(
+                        "genotype probabilities are missing. can't run " +
+                        "Haley-Knott permutations in java");
+                return false;
+            }
+
+            int permutationCount =
+                scanCommandBuilder.getNumberOfPermutations().intValue();
+            boolean[] autosomes = new boolean[modelData.getChromosomeCount()];
+            boolean[] xChromosomes = new boolean[modelData.getChromosomeCount()];
+            double autosomeLength = 0.0;
+            double xLength = 0.0;
+            for(int c = 0; c < modelData.getChromosomeCount(); c++)
+            {
+                double length = HaleyKnottPermutationEngine.getLength(
+                        modelData.getChromosome(c));
+                if(modelData.isXChromosome(c))
+                {
+                    xChromosomes[c] = true;
+                    xLength += length;
+                }
+                else
+                {
+                    autosomes[c] = true;
+                    autosomeLength += length;
+                }
+            }
+
+            RandomStreams randomStreams = new RandomStreams(
+                    scanCommandBuilder.getPermutationSeed());
+            int existingCount = ChunkedPermutationRunner.getExistingPermutationCount(
+                    rInterface,
+                    scanCommandBuilder);
+            int remainingCount = Math.max(0, permutationCount - existingCount);
+            boolean separateX =
+                scanCommandBuilder.getSeperatePermutationsForAutosome() &&
+                autosomeLength > 0.0 &&
+                xLength > 0.0;
+            if(separateX)
+            {
+                // R/qtl gives X extra permutations in proportion to
+                // the genome length
+                int xPermutationCount = (int)Math.ceil(
+                        permutationCount * autosomeLength / xLength);
+                int existingXCount = ChunkedPermutationRunner.getExistingPermutationCount(
+                        rInterface,
+                        scanCommandBuilder,
+                        true);
+                int remainingXCount = Math.max(0, xPermutationCount - existingXCount);
+                if(remainingCount == 0 && remainingXCount == 0)
+                {
+                    LOG.info(
+                            "all " + permutationCount + " permutations already " +
+                            "exist. not running any more");
+                    return true;
+                }
+
+                double[] autosomeMaximums = this.calculateMaximumLods(
+                        modelData,
+                        autosomes,
+                        randomStreams,
+                        existingCount,
+                        remainingCount);
+                double[] xMaximums = this.calculateMaximumLods(
+                        modelData,
+                        xChromosomes,
+                        randomStreams,
+                        X_STREAM_OFFSET + existingXCount,
+                        remainingXCount);
+                HaleyKnottPermutationEngine.assignPermutations(
+                        rInterface,
+                        scanCommandBuilder,
+                        modelData,
+                        existingCount,
+                        autosomeMaximums,
+                        xMaximums,
+                        autosomeLength,
+                        xLength);
+            }
+            else
+            {
+                if(remainingCount == 0)
+                {
+                    LOG.info(
+                            "all " + permutationCount + " permutations already " +
+                            "exist. not running any more");
+                    return true;
+                }
+
+                boolean[] allChromosomes = new boolean[modelData.getChromosomeCount()];
+                Arrays.fill(allChromosomes, true);
+                double[] maximums = this.calculateMaximumLods(
+                        modelData,
+                        allChromosomes,
+                        randomStreams,
+                        existingCount,
+                        remainingCount);
+                HaleyKnottPermutationEngine.assignPermutations(
+                        rInterface,
+                        scanCommandBuilder,
+                        modelData,
+                        existingCount,
+                        maximums,
+                        null,
+                        autosomeLength,
+                        xLength);
+            }
+            return true;
+        }
+        catch(ExecutionException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "java Haley-Knott permutations failed",
+                    ex.getCause());
+            return false;
+        }
+        catch(InterruptedException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "interrupted during java Haley-Knott permutations",
+                    ex);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch(IOException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "failed to move java permutation results into R",
+                    ex);
+            return false;
+        }
+    }
+
+    /**
+     * Calculate the maximum LOD over the given chromosomes for every
+     * permutation and phenotype
+     * @param modelData
+     *          the model data
+     * @param chromosomesToScan
+     *          flags for the chromosomes that we scan
+     * @param randomStreams
+     *          the random streams
+     * @param firstStream
+     *          the stream used by the 1st permutation. permutation
+     *          <code>k</code> uses stream <code>firstStream + k</code>
+     * @param permutationCount
+     *          the number of permutations
+     * @return
+     *          the maximums as a column-major
+     *          <code>permutationCount x phenotypeCount</code> matrix
+     * @throws ExecutionException
+     *          if the calculation fails
+     * @throws InterruptedException
+     *          if we're interrupted
+     */
+    public double[] calculateMaximumLods(
+            final ScanOneModelData modelData,
+            final boolean[] chromosomesToScan,
+            final RandomStreams randomStreams,
+            final long firstStream,
+            final int permutationCount)
+    throws ExecutionException, InterruptedException
+    {
+        final double[] maximums =
+            new double[permutationCount * modelData.getPhenotypeCount()];
+        Arrays.fill(maximums, Double.NEGATIVE_INFINITY);
+
+        final boolean hasCovariates =
+            modelData.getAdditiveCovariateCount() > 0 ||
+            modelData.getInteractiveCovariateCount() > 0;
+        int maxGenotypeCount = 0;
+        for(int c = 0; c < modelData.getChromosomeCount(); c++)
+        {
+            if(chromosomesToScan[c])
+            {
+                maxGenotypeCount = Math.max(
+                        maxGenotypeCount,
+                        modelData.getGenotypeProbabilities(c).getGenotypeCount());
+            }
+        }
+        final int scratchGenotypeCount = maxGenotypeCount;
+
+        int taskSize = Math.max(
+                1,
+                permutationCount /
+                (ParallelComputation.getThreadCount() * TASKS_PER_THREAD));
+        final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        
+        // tasks run on the shared pool so the job has to be captured here
+        final Job currentJob = Job.getCurrentJob();
+        final AtomicInteger completedTaskCount = new AtomicInteger();
+        Map<HaleyKnottPhenotypeBlock.IndividualSet, List<Integer>> groups =
+            HaleyKnottPhenotypeBlock.groupPhenotypesByIndividuals(modelData);
+        for(Map.Entry<HaleyKnottPhenotypeBlock.IndividualSet, List<Integer>> group:
+            groups.entrySet())
+        {
+            final int[] individuals = group.getKey().getIndividuals();
+            final int[] groupPhenotypeNumbers = new int[group.getValue().size()];
+            for(int i = 0; i < groupPhenotypeNumbers.length; i++)
+            {
+                groupPhenotypeNumbers[i] = group.getValue().get(i);
+            }
+
+            for(int start = 0; start < permutationCount; start += taskSize)
+            {
+                final int startPermutation = start;
+                final int endPermutation = Math.min(permutationCount, start + taskSize);
+                tasks.add(new Callable<Object>()
+                {
+                    public Object call()
+                    {
+                        HaleyKnottPermutationEngine.this.scanPermutations(
+                                modelData,
+                                chromosomesToScan,
+                                randomStreams,
+                                firstStream,
+                                individuals,
+                                groupPhenotypeNumbers,
+                                startPermutation,
+                                endPermutation,
+                                hasCovariates,
+                                scratchGenotypeCount,
+                                permutationCount,
+                                maximums);
+                        if(currentJob != null)
+                        {
+                            currentJob.checkCancelled();
+                            currentJob.setProgress(
+                                    completedTaskCount.incrementAndGet(),
+                                    tasks.size());
+                        }
+                        return null;
+                    }
+                });
+            }
+        }
+
+        ParallelComputation.invokeAll(tasks);
+        return maximums;
+    }
+
+    /**
+     * Scan a range of permutations for a group of phenotypes that share
+     * their complete individuals. Tasks only ever write to their own
+     * permutation and phenotype cells of the maximums
+     * @param modelData
+     *          the model data
+     * @param chromosomesToScan
+     *          flags for the chromosomes that we scan
+     * @param randomStreams
+     *          the random streams
+     * @param firstStream
+     *          the stream used by the 1st permutation
+     * @param individuals
+     *          the complete individuals for the group
+     * @param groupPhenotypeNumbers
+     *          the phenotype numbers in the group
+     * @param startPermutation
+     *          the 1st permutation (inclusive)
+     * @param endPermutation
+     *          the last permutation (exclusive)
+     * @param hasCovariates
+     *          if true the covariates are permuted too so each
+     *          permutation gets its own blocks
+     * @param genotypeCount
+     *          the most genotypes on any scanned chromosome
+     * @param permutationCount
+     *          the total permutation count (the row count of maximums)
+     * @param maximums
+     *          the maximums to update
+     */
+    private void scanPermutations(
+            ScanOneModelData modelData,
+            boolean[] chromosomesToScan,
+            RandomStreams randomStreams,
+            long firstStream,
+            int[] individuals,
+            int[] groupPhenotypeNumbers,
+            int startPermutation,
+            int endPermutation,
+            boolean hasCovariates,
+            int genotypeCount,
+            int permutationCount,
+            double[] maximums)
+    {
+        int[][] permutations = new int[endPermutation - startPermutation][];
+        for(int k = startPermutation; k < endPermutation; k++)
+        {
+            permutations[k - startPermutation] = randomStreams.createPermutation(
+                    firstStream + k,
+                    individuals.length);
+        }
+
+        // every block column is a (permutation, phenotype) pair
+        List<int[]> columnPermutationNumbers = new ArrayList<int[]>();
+        List<HaleyKnottPhenotypeBlock> blocks = new ArrayList<HaleyKnottPhenotypeBlock>();
+        if(hasCovariates)
+        {
+            for(int k = startPermutation; k < endPermutation; k++)
+            {
+                int[] permutation = permutations[k - startPermutation];
+                for(int start = 0; start < groupPhenotypeNumbers.length; start += MAX_BLOCK_SIZE)
+                {
+                    int end = Math.min(groupPhenotypeNumbers.length, start + MAX_BLOCK_SIZE);
+                    int[] blockPhenotypeNumbers = new int[end - start];
+                    int[][] blockPermutations = new int[end - start][];
+                    int[] blockPermutationNumbers = new int[end - start];
+                    for(int i = start; i < end; i++)
+                    {
+                        blockPhenotypeNumbers[i - start] = groupPhenotypeNumbers[i];
+                        blockPermutations[i - start] = permutation;
+                        blockPermutationNumbers[i - start] = k;
+                    }
+                    blocks.add(new HaleyKnottPhenotypeBlock(
+                            modelData,
+                            blockPhenotypeNumbers,
+                            individuals,
+                            blockPermutations,
+                            permutation));
+                    columnPermutationNumbers.add(blockPermutationNumbers);
+                }
+            }
+        }
+        else
+        {
+            int columnCount =
+                (endPermutation - startPermutation) * groupPhenotypeNumbers.length;
+            for(int start = 0; start < columnCount; start += MAX_BLOCK_SIZE)
+            {
+                int end = Math.min(columnCount, start + MAX_BLOCK_SIZE);
+                int[] blockPhenotypeNumbers = new int[end - start];
+                int[][] blockPermutations = new int[end - start][];
+                int[] blockPermutationNumbers = new int[end - start];
+                for(int i = start; i < end; i++)
+                {
+                    int permutationOffset = i / groupPhenotypeNumbers.length;
+                    blockPhenotypeNumbers[i - start] =
+                        groupPhenotypeNumbers[i % groupPhenotypeNumbers.length];
+                    blockPermutations[i - start] = permutations[permutationOffset];
+                    blockPermutationNumbers[i - start] =
+                        startPermutation + permutationOffset;
+                }
+                blocks.add(new HaleyKnottPhenotypeBlock(
+                        modelData,
+                        blockPhenotypeNumbers,
+                        individuals,
+                        blockPermutations,
+                        null));
+                columnPermutationNumbers.add(blockPermutationNumbers);
+            }
+        }
+
+        int maxDesignSize = 0;
+        int maxBlockSize = 0;
+        for(HaleyKnottPhenotypeBlock block: blocks)
+        {
+            maxDesignSize = Math.max(maxDesignSize, block.getMaxDesignSize(genotypeCount));
+            maxBlockSize = Math.max(maxBlockSize, block.getBlockSize());
+        }
+        HaleyKnottPhenotypeBlock.Scratch scratch = new HaleyKnottPhenotypeBlock.Scratch(
+                individuals.length,
+                maxDesignSize,
+                maxBlockSize);
+        double[] blockLods = new double[maxBlockSize];
+
+        for(int blockIndex = 0; blockIndex < blocks.size(); blockIndex++)
+        {
+            HaleyKnottPhenotypeBlock block = blocks.get(blockIndex);
+            int[] phenotypeNumbers = block.getPhenotypeNumbers();
+            int[] permutationNumbers = columnPermutationNumbers.get(blockIndex);
+            for(int c = 0; c < modelData.getChromosomeCount(); c++)
+            {
+                if(chromosomesToScan[c])
+                {
+                    GenotypeProbabilities probabilities =
+                        modelData.getGenotypeProbabilities(c);
+                    boolean xChromosome = modelData.isXChromosome(c);
+                    for(int pos = 0; pos < probabilities.getPositionCount(); pos++)
+                    {
+                        block.calculateLods(
+                                probabilities,
+                                pos,
+                                xChromosome,
+                                scratch,
+                                blockLods);
+                        for(int b = 0; b < phenotypeNumbers.length; b++)
+                        {
+                            int index =
+                                phenotypeNumbers[b] * permutationCount +
+                                permutationNumbers[b];
+                            if(blockLods[b] > maximums[index])
+                            {
+                                maximums[index] = blockLods[b];
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the length of a chromosome from its genetic map (the distance
+     * from the 1st to the last marker like R's <code>chrlen</code>). We
+     * don't use the genotype probability positions since they include any
+     * <code>off.end</code> padding
+     * @param chromosome
+     *          the chromosome
+     * @return
+     *          the length
+     */
+    private static double getLength(CrossChromosome chromosome)
+    {
+        return GeneticMap.getTotalExtentOfMarkerListInCentimorgans(
+                chromosome.getAnyGeneticMap().getMarkerPositions());
+    }
+
+    /**
+     * Write the permutation maximums to R as a <code>scanoneperm</code>
+     * object laid out the way that R/qtl would lay it out, adding them to
+     * the existing permutations if there are any
+     * @param rInterface
+     *          the R interface
+     * @param scanCommandBuilder
+     *          the scan settings
+     * @param modelData
+     *          the model data
+     * @param existingCount
+     *          the number of compatible permutations that were already
+     *          in R
+     * @param autosomeMaximums
+     *          the autosome maximums or the genome-wide maximums if
+     *          xMaximums is null
+     * @param xMaximums
+     *          the X maximums for <code>perm.Xsp</code> or null
+     * @param autosomeLength
+     *          the total autosome length
+     * @param xLength
+     *          the X chromosome length
+     * @throws IOException
+     *          if we fail to transfer the maximums
+     */
+    private static void assignPermutations(
+            RInterface rInterface,
+            ScanCommandBuilder scanCommandBuilder,
+            ScanOneModelData modelData,
+            int existingCount,
+            double[] autosomeMaximums,
+            double[] xMaximums,
+            double autosomeLength,
+            double xLength)
+    throws IOException
+    {
+        String crossAccessor = modelData.getCross().getAccessorExpressionString();
+        int phenotypeCount = modelData.getPhenotypeCount();
+        String columnNames;
+        if(phenotypeCount == 1)
+        {
+            columnNames = "\"lod\"";
+        }
+        else
+        {
+            int[] phenotypeIndices = modelData.getPhenotypeIndices();
+            int[] onesBasedPhenotypeIndices = new int[phenotypeCount];
+            for(int i = 0; i < phenotypeCount; i++)
+            {
+                onesBasedPhenotypeIndices[i] = phenotypeIndices[i] + 1;
+            }
+            columnNames =
+                "names(" + crossAccessor + "$pheno)[" +
+                RUtilities.intArrayToRVector(onesBasedPhenotypeIndices) + "]";
+        }
+
+        String permutationsName =
+            scanCommandBuilder.getScanResultName().trim() +
+            ScanCommandBuilder.PERMUTATION_IDENTIFIER_SUFFIX;
+        StringBuffer resultCommand = new StringBuffer("local({");
+        resultCommand.append("toMatrix <- function(x) {");
+        resultCommand.append("m <- matrix(x, ncol=" + phenotypeCount + "); ");
+        resultCommand.append("colnames(m) <- " + columnNames + "; m}; ");
+        if(xMaximums == null)
+        {
+            resultCommand.append("result <- toMatrix(" + AUTOSOME_IDENTIFIER + "); ");
+            resultCommand.append("class(result) <- c(\"scanoneperm\", \"matrix\"); ");
+        }
+        else
+        {
+            String[] chromosomeNames = new String[modelData.getChromosomeCount()];
+            boolean[] xFlags = new boolean[chromosomeNames.length];
+            for(int c = 0; c < chromosomeNames.length; c++)
+            {
+                chromosomeNames[c] = modelData.getChromosome(c).getChromosomeName();
+                xFlags[c] = modelData.isXChromosome(c);
+            }
+            StringBuffer xFlagVector = new StringBuffer("c(");
+            for(int c = 0; c < xFlags.length; c++)
+            {
+                if(c > 0)
+                {
+                    xFlagVector.append(", ");
+                }
+                xFlagVector.append(RUtilities.javaBooleanToRBoolean(xFlags[c]));
+            }
+            xFlagVector.append(")");
+
+            resultCommand.append("result <- list(");
+            resultCommand.append("A=toMatrix(" + AUTOSOME_IDENTIFIER + "), ");
+            resultCommand.append("X=toMatrix(" + X_IDENTIFIER + ")); ");
+            resultCommand.append("xchr <- " + xFlagVector + "; ");
+            resultCommand.append("names(xchr) <- " +
+                    RUtilities.stringArrayToRVector(chromosomeNames) + "; ");
+            resultCommand.append("attr(result, \"xchr\") <- xchr; ");
+            resultCommand.append("attr(result, \"L\") <- c(A=" + autosomeLength +
+                    ", X=" + xLength + "); ");
+            resultCommand.append("class(result) <- \"scanoneperm\"; ");
+        }
+        resultCommand.append("attr(result, \"method\") <- \"hk\"; ");
+        resultCommand.append("attr(result, \"model\") <- \"normal\"; ");
+        resultCommand.append("attr(result, \"type\") <- class(" + crossAccessor + ")[1]; ");
+        resultCommand.append("result})");
+
+        StringBuffer mergeCommand = new StringBuffer(permutationsName);
+        mergeCommand.append(" <- ");
+        mergeCommand.append(ChunkedPermutationRunner.createMergeExpression(
+                scanCommandBuilder,
+                resultCommand.toString(),
+                existingCount > 0));
+        mergeCommand.append("; rm(" + AUTOSOME_IDENTIFIER);
+        if(xMaximums != null)
+        {
+            mergeCommand.append(", " + X_IDENTIFIER);
+        }
+        mergeCommand.append(")");
+
+        RSessionLock.lockForWriting();
+        try
+        {
+            int permutationCount =
+                scanCommandBuilder.getNumberOfPermutations().intValue();
+            rInterface.insertComment(
+                    "evaluated in java (seed " +
+                    scanCommandBuilder.getPermutationSeed() + ", permutations " +
+                    (existingCount + 1) + " to " + permutationCount + "): " +
+                    scanCommandBuilder.getCommandWithPermutations().getCommandText());
+            MappedRArrayTransfer.assignDoubles(
+                    rInterface,
+                    AUTOSOME_IDENTIFIER,
+                    autosomeMaximums);
+            if(xMaximums != null)
+            {
+                MappedRArrayTransfer.assignDoubles(
+                        rInterface,
+                        X_IDENTIFIER,
+                        xMaximums);
+            }
+            rInterface.evaluateCommandNoReturn(new SilentRCommand(
+                    mergeCommand.toString()));
+        }
+        finally
+        {
+            RSessionLock.unlockForWriting();
+        }
+        RSessionEpoch.advanceMutationEpoch();
+        RChangeJournal.recordAssignment(permutationsName);
+    }
+}
@@ -0,0 +1,844 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jax.qtl.cross.GenotypeProbabilities;
+import org.jax.qtl.cross.Cross.CrossSubType;
+
+/**
+ * A block of phenotypes that share the same complete individuals and so
+ * share the same Haley-Knott design at every position. The design is
+ * factored once per position and the factor is applied to every
+ * phenotype in the block with a blocked multiply, so the cost of a
+ * position barely grows with the number of phenotypes.
+ * <p>
+ * The design is the genotype probabilities (or the intercept for the
+ * null model) followed by the additive and interactive covariates, the X
+ * covariates and finally the genotype by interactive covariate terms. On
+ * the X chromosome the sex (and for intercrosses the pgm) of each
+ * individual is added to both the null and alternative models whenever
+ * more than one sex (or pgm direction) is present. Individuals of unknown
+ * sex are treated as female. Two-QTL models swap the genotype
+ * probabilities for either every genotype combination (full model) or
+ * both sets of probabilities side by side (additive model).
+ * </p>
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+class HaleyKnottPhenotypeBlock
+{
+    /**
+     * the number of sex/pgm columns we might add on X
+     */
+    private static final int MAX_X_COVARIATE_COUNT = 2;
+
+    private final int[] phenotypeNumbers;
+
+    private final int[] individuals;
+
+    /**
+     * the centered responses. row-major with one row per individual and
+     * one column per phenotype
+     */
+    private final double[] responses;
+
+    private final double[] responseSumsOfSquares;
+
+    private final double[] additiveCovariates;
+
+    private final int additiveCovariateCount;
+
+    private final double[] interactiveCovariates;
+
+    private final int interactiveCovariateCount;
+
+    private final double[] xCovariates;
+
+    private final int xCovariateCount;
+
+    private final double[] nullResidualSumsOfSquares;
+
+    private final double[] xNullResidualSumsOfSquares;
+
+    /**
+     * Constructor
+     * @param modelData
+     *          the model data
+     * @param phenotypeNumbers
+     *          the indices into the scanned phenotypes that make up this
+     *          block. these must all have the given complete individuals
+     * @param individuals
+     *          the complete individuals
+     */
+    public HaleyKnottPhenotypeBlock(
+            ScanOneModelData modelData,
+            int[] phenotypeNumbers,
+            int[] individuals)
+    {
+        this(modelData, phenotypeNumbers, individuals, null, null);
+    }
+
+    /**
+     * Constructor for a block where the phenotype columns are permuted
+     * over the complete individuals. This is what the permutation tests
+     * use
+     * @param modelData
+     *          the model data
+     * @param phenotypeNumbers
+     *          the indices into the scanned phenotypes (one per column.
+     *          repeats are fine)
+     * @param individuals
+     *          the complete individuals
+     * @param permutations
+     *          for every column, the permutation of the complete
+     *          individuals that the phenotype values are taken from, or
+     *          null for no permutation
+     * @param covariatePermutation
+     *          the permutation of the complete individuals that the
+     *          additive and interactive covariates are taken from or null
+     *          for no permutation. covariates are shared by every column
+     *          so this only makes sense when the covariates travel with a
+     *          single permutation of the phenotypes
+     */
+    public HaleyKnottPhenotypeBlock(
+            ScanOneModelData modelData,
+            int[] phenotypeNumbers,
+            int[] individuals,
+            int[][] permutations,
+            int[] covariatePermutation)
+    {
+        this.phenotypeNumbers = phenotypeNumbers;
+        this.individuals = individuals;
+        int n = individuals.length;
+        int blockSize = phenotypeNumbers.length;
+
+        // centering is free since the intercept is in both models
+        this.responses = new double[n * blockSize];
+        this.responseSumsOfSquares = new double[blockSize];
+        for(int b = 0; b < blockSize; b++)
+        {
+            int[] permutation = permutations == null ? null : permutations[b];
+            double mean = 0.0;
+            for(int i = 0; i < n; i++)
+            {
+                int sourceIndividual = permutation == null ?
+                        individuals[i] :
+                        individuals[permutation[i]];
+                double value = modelData.getPhenotypeValue(
+                        phenotypeNumbers[b],
+                        sourceIndividual);
+                this.responses[i * blockSize + b] = value;
+                mean += value;
+            }
+            mean = n == 0 ? 0.0 : mean / n;
+
+            double sumOfSquares = 0.0;
+            for(int i = 0; i < n; i++)
+            {
+                double value = this.responses[i * blockSize + b] - mean;
+                this.responses[i * blockSize + b] = value;
+                sumOfSquares += value * value;
+            }
+            this.responseSumsOfSquares[b] = sumOfSquares;
+        }
+
+        this.additiveCovariateCount = modelData.getAdditiveCovariateCount();
+        this.additiveCovariates = new double[n * this.additiveCovariateCount];
+        this.interactiveCovariateCount = modelData.getInteractiveCovariateCount();
+        this.interactiveCovariates = new double[n * this.interactiveCovariateCount];
+        for(int i = 0; i < n; i++)
+        {
+            int sourceIndividual = covariatePermutation == null ?
+                    individuals[i] :
+                    individuals[covariatePermutation[i]];
+            for(int c = 0; c < this.additiveCovariateCount; c++)
+            {
+                this.additiveCovariates[i * this.additiveCovariateCount + c] =
+                    modelData.getAdditiveCovariate(c, sourceIndividual);
+            }
+            for(int c = 0; c < this.interactiveCovariateCount; c++)
+            {
+                this.interactiveCovariates[i * this.interactiveCovariateCount + c] =
+                    modelData.getInteractiveCovariate(c, sourceIndividual);
+            }
+        }
+
+        // figure out which X covariates we need
+        boolean anyMales = false;
+        boolean anyFemales = false;
+        boolean anyForwardPgm = false;
+        boolean anyReversePgm = false;
+        double[] sexes = new double[n];
+        double[] femaleReversePgms = new double[n];
+        for(int i = 0; i < n; i++)
+        {
+            double sex = modelData.getSex(individuals[i]);
+            if(sex == 1.0)
+            {
+                anyMales = true;
+                sexes[i] = 1.0;
+            }
+            else
+            {
+                anyFemales = true;
+                if(modelData.getPaternalGrandmother(individuals[i]) == 1.0)
+                {
+                    anyReversePgm = true;
+                    femaleReversePgms[i] = 1.0;
+                }
+                else
+                {
+                    anyForwardPgm = true;
+                }
+            }
+        }
+        boolean useSex = anyMales && anyFemales;
+        boolean usePgm =
+            modelData.getCrossSubType() == CrossSubType.F2 &&
+            anyForwardPgm &&
+            anyReversePgm;
+        this.xCovariateCount = (useSex ? 1 : 0) + (usePgm ? 1 : 0);
+        this.xCovariates = new double[n * this.xCovariateCount];
+        for(int i = 0; i < n; i++)
+        {
+            int column = 0;
+            if(useSex)
+            {
+                this.xCovariates[i * this.xCovariateCount + column] = sexes[i];
+                column++;
+            }
+            if(usePgm)
+            {
+                this.xCovariates[i * this.xCovariateCount + column] =
+                    femaleReversePgms[i];
+            }
+        }
+
+        Scratch scratch = new Scratch(n, this.getMaxDesignSize(0), blockSize);
+        this.nullResidualSumsOfSquares = new double[blockSize];
+        this.calculateResidualSumsOfSquares(
+                null,
+                0,
+                false,
+                scratch,
+                this.nullResidualSumsOfSquares);
+        if(this.xCovariateCount == 0)
+        {
+            this.xNullResidualSumsOfSquares = this.nullResidualSumsOfSquares;
+        }
+        else
+        {
+            this.xNullResidualSumsOfSquares = new double[blockSize];
+            this.calculateResidualSumsOfSquares(
+                    null,
+                    0,
+                    true,
+                    scratch,
+                    this.xNullResidualSumsOfSquares);
+        }
+    }
+
+    /**
+     * Group the scanned phenotypes into blocks that share their complete
+     * individuals. When missing phenotypes aren't used this is always a
+     * single block
+     * @param modelData
+     *          the model data
+     * @param maxBlockSize
+     *          the most phenotypes we'll put in one block
+     * @return
+     *          the blocks
+     */
+    public static List<HaleyKnottPhenotypeBlock> createBlocks(
+            ScanOneModelData modelData,
+            int maxBlockSize)
+    {
+        Map<IndividualSet, List<Integer>> phenotypesByIndividuals =
+            HaleyKnottPhenotypeBlock.groupPhenotypesByIndividuals(modelData);
+
+        List<HaleyKnottPhenotypeBlock> blocks =
+            new ArrayList<HaleyKnottPhenotypeBlock>();
+        for(Map.Entry<IndividualSet, List<Integer>> entry:
+            phenotypesByIndividuals.entrySet())
+        {
+            List<Integer> phenotypeNumbers = entry.getValue();
+            for(int start = 0; start < phenotypeNumbers.size(); start += maxBlockSize)
+            {
+                int end = Math.min(phenotypeNumbers.size(), start + maxBlockSize);
+                int[] blockPhenotypeNumbers = new int[end - start];
+                for(int i = start; i < end; i++)
+                {
+                    blockPhenotypeNumbers[i - start] = phenotypeNumbers.get(i);
+                }
+                blocks.add(new HaleyKnottPhenotypeBlock(
+                        modelData,
+                        blockPhenotypeNumbers,
+                        entry.getKey().individuals));
+            }
+        }
+
+        return blocks;
+    }
+
+    /**
+     * Group the scanned phenotypes by their complete individuals
+     * @param modelData
+     *          the model data
+     * @return
+     *          the phenotype numbers for each distinct set of complete
+     *          individuals (in the order that the sets first show up)
+     */
+    static Map<IndividualSet, List<Integer>> groupPhenotypesByIndividuals(
+            ScanOneModelData modelData)
+    {
+        Map<IndividualSet, List<Integer>> phenotypesByIndividuals =
+            new LinkedHashMap<IndividualSet, List<Integer>>();
+        for(int p = 0; p < modelData.getPhenotypeCount(); p++)
+        {
+            IndividualSet individuals = new IndividualSet(
+                    modelData.getCompleteIndividuals(p));
+            List<Integer> phenotypeNumbers = phenotypesByIndividuals.get(individuals);
+            if(phenotypeNumbers == null)
+            {
+                phenotypeNumbers = new ArrayList<Integer>();
+                phenotypesByIndividuals.put(individuals, phenotypeNumbers);
+            }
+            phenotypeNumbers.add(p);
+        }
+
+        return phenotypesByIndividuals;
+    }
+
+    /**
+     * Getter for the indices into the scanned phenotypes for each column
+     * of this block
+     * @return
+     *          the phenotype numbers
+     */
+    public int[] getPhenotypeNumbers()
+    {
+        return this.phenotypeNumbers;
+    }
+
+    /**
+     * Getter for the number of complete individuals
+     * @return
+     *          the individual count
+     */
+    public int getIndividualCount()
+    {
+        return this.individuals.length;
+    }
+
+    /**
+     * Getter for the number of phenotype columns in this block
+     * @return
+     *          the column count
+     */
+    public int getBlockSize()
+    {
+        return this.phenotypeNumbers.length;
+    }
+
+    /**
+     * Get the largest design that we'll need to hold
+     * @param genotypeCount
+     *          the genotype count
+     * @return
+     *          the largest column count
+     */
+    public int getMaxDesignSize(int genotypeCount)
+    {
+        return Math.max(1, genotypeCount) +
+               this.additiveCovariateCount +
+               this.interactiveCovariateCount +
+               MAX_X_COVARIATE_COUNT +
+               Math.max(0, genotypeCount - 1) * this.interactiveCovariateCount;
+    }
+
+    /**
+     * Get the largest two-QTL design that we'll need to hold
+     * @param genotypeCount
+     *          the genotype count
+     * @return
+     *          the largest column count
+     */
+    public int getMaxPairDesignSize(int genotypeCount)
+    {
+        int cellCount = Math.max(1, genotypeCount * genotypeCount);
+        return Math.max(
+                this.getMaxDesignSize(genotypeCount),
+                cellCount +
+                this.additiveCovariateCount +
+                this.interactiveCovariateCount +
+                MAX_X_COVARIATE_COUNT +
+                (cellCount - 1) * this.interactiveCovariateCount);
+    }
+
+    /**
+     * Calculate the LODs at a single position for every phenotype in the
+     * block
+     * @param probabilities
+     *          the genotype probabilities
+     * @param position
+     *          the position index
+     * @param xChromosome
+     *          true if this is the X chromosome
+     * @param scratch
+     *          scratch space
+     * @param lods
+     *          the array to write the LODs to (one per column)
+     */
+    public void calculateLods(
+            GenotypeProbabilities probabilities,
+            int position,
+            boolean xChromosome,
+            Scratch scratch,
+            double[] lods)
+    {
+        this.calculateResidualSumsOfSquares(
+                probabilities,
+                position,
+                xChromosome,
+                scratch,
+                lods);
+
+        double[] nullResidualSumsOfSquares = xChromosome ?
+                this.xNullResidualSumsOfSquares :
+                this.nullResidualSumsOfSquares;
+        for(int b = 0; b < this.phenotypeNumbers.length; b++)
+        {
+            lods[b] = NormalEquations.toLod(
+                    this.individuals.length,
+                    nullResidualSumsOfSquares[b],
+                    lods[b]);
+        }
+    }
+
+    /**
+     * Calculate the full and additive two-QTL LODs for a pair of positions
+     * for every phenotype in the block. The joint genotype probabilities
+     * are taken to be the product of the two marginals so the positions
+     * must be on different chromosomes
+     * @param probabilities1
+     *          the genotype probabilities for the 1st position
+     * @param position1
+     *          the 1st position index
+     * @param probabilities2
+     *          the genotype probabilities for the 2nd position
+     * @param position2
+     *          the 2nd position index
+     * @param xChromosome
+     *          true if either position is on the X chromosome
+     * @param scratch
+     *          scratch space (sized using {@link #getMaxPairDesignSize(int)})
+     * @param fullLods
+     *          the array to write the full model LODs to
+     * @param additiveLods
+     *          the array to write the additive model LODs to
+     */
+    public void calculatePairLods(
+            GenotypeProbabilities probabilities1,
+            int position1,
+            GenotypeProbabilities probabilities2,
+            int position2,
+            boolean xChromosome,
+            Scratch scratch,
+            double[] fullLods,
+            double[] additiveLods)
+    {
+        int n = this.individuals.length;
+        int genotypeCount1 = probabilities1.getGenotypeCount();
+        int genotypeCount2 = probabilities2.getGenotypeCount();
+        int xCovariateCount = xChromosome ? this.xCovariateCount : 0;
+        double[] design = scratch.design;
+
+        // full model: a cell for every genotype combination
+        int cellCount = genotypeCount1 * genotypeCount2;
+        int fullSize =
+            cellCount +
+            this.additiveCovariateCount +
+            this.interactiveCovariateCount +
+            xCovariateCount +
+            (cellCount - 1) * this.interactiveCovariateCount;
+        for(int i = 0; i < n; i++)
+        {
+            int rowStart = i * fullSize;
+            int column = rowStart;
+            for(int g1 = 0; g1 < genotypeCount1; g1++)
+            {
+                double probability1 = probabilities1.getProbability(
+                        this.individuals[i],
+                        position1,
+                        g1);
+                for(int g2 = 0; g2 < genotypeCount2; g2++)
+                {
+                    design[column] = probability1 * probabilities2.getProbability(
+                            this.individuals[i],
+                            position2,
+                            g2);
+                    column++;
+                }
+            }
+            column = this.fillCovariateColumns(design, column, i, xCovariateCount);
+            this.fillInteractionColumns(design, column, i, rowStart + 1, cellCount - 1);
+        }
+        this.fitDesign(fullSize, scratch, fullLods);
+
+        // additive model: both sets of genotype probabilities. the 1st
+        // column of the 2nd set is dropped since it's a linear combination
+        int genotypeColumnCount = genotypeCount1 + genotypeCount2 - 1;
+        int additiveSize =
+            genotypeColumnCount +
+            this.additiveCovariateCount +
+            this.interactiveCovariateCount +
+            xCovariateCount +
+            (genotypeColumnCount - 1) * this.interactiveCovariateCount;
+        for(int i = 0; i < n; i++)
+        {
+            int rowStart = i * additiveSize;
+            int column = rowStart;
+            for(int g1 = 0; g1 < genotypeCount1; g1++)
+            {
+                design[column] = probabilities1.getProbability(
+                        this.individuals[i],
+                        position1,
+                        g1);
+                column++;
+            }
+            for(int g2 = 1; g2 < genotypeCount2; g2++)
+            {
+                design[column] = probabilities2.getProbability(
+                        this.individuals[i],
+                        position2,
+                        g2);
+                column++;
+            }
+            column = this.fillCovariateColumns(design, column, i, xCovariateCount);
+            this.fillInteractionColumns(
+                    design,
+                    column,
+                    i,
+                    rowStart + 1,
+                    genotypeColumnCount - 1);
+        }
+        this.fitDesign(additiveSize, scratch, additiveLods);
+
+        double[] nullResidualSumsOfSquares = xChromosome ?
+                this.xNullResidualSumsOfSquares :
+                this.nullResidualSumsOfSquares;
+        for(int b = 0; b < this.phenotypeNumbers.length; b++)
+        {
+            fullLods[b] = NormalEquations.toLod(
+                    n,
+                    nullResidualSumsOfSquares[b],
+                    fullLods[b]);
+            additiveLods[b] = NormalEquations.toLod(
+                    n,
+                    nullResidualSumsOfSquares[b],
+                    additiveLods[b]);
+        }
+    }
+
+    /**
+     * Fit a model for every phenotype in the block using a single
+     * factorization
+     * @param probabilities
+     *          the genotype probabilities or null for the null model
+     * @param position
+     *          the position index
+     * @param xChromosome
+     *          true if we should include the X covariates
+     * @param scratch
+     *          scratch space
+     * @param residualSumsOfSquares
+     *          the array that the RSS for each column is written to
+     */
+    private void calculateResidualSumsOfSquares(
+            GenotypeProbabilities probabilities,
+            int position,
+            boolean xChromosome,
+            Scratch scratch,
+            double[] residualSumsOfSquares)
+    {
+        int n = this.individuals.length;
+        int genotypeCount = probabilities == null ?
+                0 :
+                probabilities.getGenotypeCount();
+        int xCovariateCount = xChromosome ? this.xCovariateCount : 0;
+        int size =
+            Math.max(1, genotypeCount) +
+            this.additiveCovariateCount +
+            this.interactiveCovariateCount +
+            xCovariateCount +
+            Math.max(0, genotypeCount - 1) * this.interactiveCovariateCount;
+
+        // build the whole design once
+        double[] design = scratch.design;
+        for(int i = 0; i < n; i++)
+        {
+            int rowStart = i * size;
+            int column = rowStart;
+            if(probabilities == null)
+            {
+                design[column] = 1.0;
+                column++;
+            }
+            else
+            {
+                for(int g = 0; g < genotypeCount; g++)
+                {
+                    design[column] = probabilities.getProbability(
+                            this.individuals[i],
+                            position,
+                            g);
+                    column++;
+                }
+            }
+
+            column = this.fillCovariateColumns(design, column, i, xCovariateCount);
+            this.fillInteractionColumns(
+                    design,
+                    column,
+                    i,
+                    rowStart + 1,
+                    Math.max(0, genotypeCount - 1));
+        }
+
+        this.fitDesign(size, scratch, residualSumsOfSquares);
+    }
+
+    /**
+     * Fill in the additive, interactive and X covariate columns of a
+     * design row
+     * @param design
+     *          the design
+     * @param column
+     *          where the covariates start in design
+     * @param individual
+     *          the index into the complete individuals
+     * @param xCovariateCount
+     *          the number of X covariates to use
+     * @return
+     *          the design index following the covariates
+     */
+    private int fillCovariateColumns(
+            double[] design,
+            int column,
+            int individual,
+            int xCovariateCount)
+    {
+        for(int c = 0; c < this.additiveCovariateCount; c++)
+        {
+            design[column] =
+                this.additiveCovariates[individual * this.additiveCovariateCount + c];
+            column++;
+        }
+        for(int c = 0; c < this.interactiveCovariateCount; c++)
+        {
+            design[column] =
+                this.interactiveCovariates[individual * this.interactiveCovariateCount + c];
+            column++;
+        }
+        for(int c = 0; c < xCovariateCount; c++)
+        {
+            design[column] = this.xCovariates[individual * this.xCovariateCount + c];
+            column++;
+        }
+
+        return column;
+    }
+
+    /**
+     * Fill in the genotype by interactive covariate columns of a design
+     * row
+     * @param design
+     *          the design
+     * @param column
+     *          where the interaction columns start in design
+     * @param individual
+     *          the index into the complete individuals
+     * @param genotypeStart
+     *          the design index of the 1st genotype column to interact
+     * @param genotypeColumnCount
+     *          the number of genotype columns to interact
+     */
+    private void fillInteractionColumns(
+            double[] design,
+            int column,
+            int individual,
+            int genotypeStart,
+            int genotypeColumnCount)
+    {
+        for(int g = 0; g < genotypeColumnCount; g++)
+        {
+            for(int c = 0; c < this.interactiveCovariateCount; c++)
+            {
+                design[column] =
+                    design[genotypeStart + g] *
+                    this.interactiveCovariates[individual * this.interactiveCovariateCount + c];
+                column++;
+            }
+        }
+    }
+
+    /**
+     * Fit the design that's in the scratch space against every column of
+     * the block
+     * @param size
+     *          the number of design columns
+     * @param scratch
+     *          the scratch space holding the design
+     * @param residualSumsOfSquares
+     *          the array that the RSS for each column is written to
+     */
+    private void fitDesign(
+            int size,
+            Scratch scratch,
+            double[] residualSumsOfSquares)
+    {
+        int n = this.individuals.length;
+        int blockSize = this.phenotypeNumbers.length;
+        double[] design = scratch.design;
+
+        // X'X and X'Y
+        double[] crossProducts = scratch.crossProducts;
+        Arrays.fill(crossProducts, 0, size * size, 0.0);
+        double[] designResponseProducts = scratch.designResponseProducts;
+        Arrays.fill(designResponseProducts, 0, size * blockSize, 0.0);
+        for(int i = 0; i < n; i++)
+        {
+            int rowStart = i * size;
+            NormalEquations.addRow(crossProducts, size, design, rowStart);
+
+            int responseStart = i * blockSize;
+            for(int j = 0; j < size; j++)
+            {
+                double designValue = design[rowStart + j];
+                if(designValue != 0.0)
+                {
+                    int productStart = j * blockSize;
+                    for(int b = 0; b < blockSize; b++)
+                    {
+                        designResponseProducts[productStart + b] +=
+                            designValue * this.responses[responseStart + b];
+                    }
+                }
+            }
+        }
+
+        NormalEquations.factor(crossProducts, size);
+        NormalEquations.explainedSumsOfSquares(
+                crossProducts,
+                size,
+                designResponseProducts,
+                blockSize,
+                residualSumsOfSquares);
+        for(int b = 0; b < blockSize; b++)
+        {
+            residualSumsOfSquares[b] =
+                this.responseSumsOfSquares[b] - residualSumsOfSquares[b];
+        }
+    }
+
+    /**
+     * Scratch space for fitting blocks. One of these is needed per thread
+     */
+    public static class Scratch
+    {
+        private final double[] design;
+
+        private final double[] crossProducts;
+
+        private final double[] designResponseProducts;
+
+        /**
+         * Constructor
+         * @param individualCount
+         *          the most complete individuals in any block
+         * @param designSize
+         *          the largest design column count
+         * @param blockSize
+         *          the most columns in any block
+         */
+        public Scratch(int individualCount, int designSize, int blockSize)
+        {
+            this.design = new double[individualCount * designSize];
+            this.crossProducts = new double[designSize * designSize];
+            this.designResponseProducts = new double[designSize * blockSize];
+        }
+    }
+
+    /**
+     * A set of individual indices that we can use as a map key
+     */
+    static class IndividualSet
+    {
+        private final int[] individuals;
+
+        private final int hashCode;
+
+        /**
+         * Constructor
+         * @param individuals
+         *          the individual indices
+         */
+        public IndividualSet(int[] individuals)
+        {
+            this.individuals = individuals;
+            this.hashCode = Arrays.hashCode(individuals);
+        }
+
+        /**
+         * Getter for the individual indices
+         * @return
+         *          the individuals
+         */
+        public int[] getIndividuals()
+        {
+            return this.individuals;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode()
+        {
+            return this.hashCode;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object obj)
+        {
+            return obj instanceof IndividualSet &&
+                   Arrays.equals(this.individuals, ((IndividualSet)obj).individuals);
+        }
+    }
+}
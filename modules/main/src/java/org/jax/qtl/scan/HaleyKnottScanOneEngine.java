@@ -0,0 +1,431 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jax.qtl.cross.GenotypeProbabilities;
+import org.jax.qtl.util.MappedRArrayTransfer;
+import org.jax.qtl.util.ParallelComputation;
+import org.jax.qtl.util.RChangeJournal;
+import org.jax.qtl.util.RSessionEpoch;
+import org.jax.qtl.util.RSessionLock;
+import org.jax.r.RUtilities;
+import org.jax.r.jriutilities.RInterface;
+import org.jax.r.jriutilities.SilentRCommand;
+
+/**
+ * A java implementation of Haley-Knott regression for
+ * <code>scanone</code>. At every position the phenotypes are regressed on
+ * the genotype probabilities (plus covariates) and the LOD comes from
+ * comparing the residual sum of squares with that of the null model.
+ * Phenotypes that share complete individuals share a design, so the
+ * design is only factored once per position for a whole
+ * {@link HaleyKnottPhenotypeBlock}. Very large phenotype selections (like
+ * expression traits) are streamed through in blocks of
+ * {@link #PHENOTYPE_FETCH_SIZE} so that neither the phenotypes nor the LOD
+ * scores ever have to be in memory all at once.
+ * <p>
+ * Positions are split up over the {@link ParallelComputation} pool. The
+ * result is written back to R as a regular <code>scanone</code> object so
+ * that {@link ScanOneResult} and the rest of the GUI can't tell the
+ * difference.
+ * </p>
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class HaleyKnottScanOneEngine
+{
+    /**
+     * our logger
+     */
+    private static final Logger LOG = Logger.getLogger(
+            HaleyKnottScanOneEngine.class.getName());
+
+    /**
+     * the most phenotypes that we pull out of R at once
+     */
+    public static final int PHENOTYPE_FETCH_SIZE = 1024;
+
+    /**
+     * the most phenotypes that share a single blocked multiply. this
+     * bounds the per-thread scratch space
+     */
+    private static final int MAX_BLOCK_SIZE = 256;
+
+    /**
+     * the scratch identifier that we read the LOD scores into
+     */
+    private static final String LOD_IDENTIFIER = ".jqtl.hk.lod";
+
+    /**
+     * we split the positions into a few tasks per thread so that
+     * chromosomes of different lengths still balance out
+     */
+    private static final int TASKS_PER_THREAD = 4;
+
+    /**
+     * Determine if this engine can run the given scan. We still need to
+     * check that the genotype probabilities exist when we run. Scans of an
+     * X chromosome that R/qtl would revise (see
+     * {@link ScanOneModelData#needsRevisedXData(ScanCommandBuilder)}) are
+     * left to R
+     * @param scanCommandBuilder
+     *          the scan settings
+     * @return
+     *          true if the settings are something that we can handle
+     */
+    public boolean canScan(ScanCommandBuilder scanCommandBuilder)
+    {
+        String scanResultName = scanCommandBuilder.getScanResultName();
+        int[] phenotypeIndices = scanCommandBuilder.getPhenotypeIndices();
+        return scanCommandBuilder.getCross() != null &&
+               scanResultName != null &&
+               scanResultName.trim().length() > 0 &&
+               phenotypeIndices != null &&
+               phenotypeIndices.length > 0 &&
+               scanCommandBuilder.getScanType() == ScanType.SCANONE &&
+               scanCommandBuilder.getScanMethod() == ScanMethod.HALEY_KNOTT_REGRESSION &&
+               scanCommandBuilder.getPhenotypeDistribution() == PhenotypeDistribution.NORMAL &&
+               !ScanOneModelData.needsRevisedXData(scanCommandBuilder);
+    }
+
+    /**
+     * Run the scan (permutations are not included) and assign the result
+     * in R
+     * @param rInterface
+     *          the R interface
+     * @param scanCommandBuilder
+     *          the scan settings
+     * @return
+     *          true if the scan result was assigned. if false the caller
+     *          should run the scan in R
+     */
+    public boolean runScan(
+            RInterface rInterface,
+            ScanCommandBuilder scanCommandBuilder)
+    {
+        if(!this.canScan(scanCommandBuilder))
+        {
+            return false;
+        }
+
+        MappedRArrayTransfer.DoubleArrayWriter lodWriter;
+        try
+        {
+            lodWriter = new MappedRArrayTransfer.DoubleArrayWriter();
+        }
+        catch(IOException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "failed to create LOD output file",
+                    ex);
+            return false;
+        }
+
+        boolean assigned = false;
+        try
+        {
+            // the LODs are column-major so each fetched block of
+            // phenotypes just gets appended to the output
+            int[] phenotypeIndices = scanCommandBuilder.getPhenotypeIndices();
+            ScanOneModelData modelData = null;
+            for(int start = 0; start < phenotypeIndices.length; start += PHENOTYPE_FETCH_SIZE)
+            {
+                int end = Math.min(
+                        phenotypeIndices.length,
+                        start + PHENOTYPE_FETCH_SIZE);
+                int[] fetchIndices = new int[end - start];
+                System.arraycopy(phenotypeIndices, start, fetchIndices, 0, fetchIndices.length);
+
+                modelData = ScanOneModelData.fetchModelData(
+                        scanCommandBuilder,
+                        fetchIndices);
+                if(modelData == null)
+                {
+                    LOG.info(
+                            "genotype probabilities are missing. can't run " +
+                            "Haley-Knott scan in java");
+                    return false;
+                }
+
+                double[] lods = this.calculateLods(modelData);
+                lodWriter.write(lods, 0, lods.length);
+            }
+
+            HaleyKnottScanOneEngine.assignScanOneResult(
+                    rInterface,
+                    scanCommandBuilder,
+                    modelData,
+                    lodWriter);
+            assigned = true;
+            return true;
+        }
+        catch(ExecutionException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "java Haley-Knott scan failed",
+                    ex.getCause());
+            return false;
+        }
+        catch(InterruptedException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "interrupted during java Haley-Knott scan",
+                    ex);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch(IOException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "failed to move java scan results into R",
+                    ex);
+            return false;
+        }
+        finally
+        {
+            if(!assigned)
+            {
+                lodWriter.discard();
+            }
+        }
+    }
+
+    /**
+     * Calculate the LOD score at every position for every phenotype in
+     * the model data
+     * @param modelData
+     *          the model data
+     * @return
+     *          the LOD scores in column-major order (all positions for the
+     *          1st phenotype then all positions for the 2nd ...)
+     * @throws ExecutionException
+     *          if the calculation fails
+     * @throws InterruptedException
+     *          if we're interrupted
+     */
+    public double[] calculateLods(ScanOneModelData modelData)
+    throws ExecutionException, InterruptedException
+    {
+        return this.calculateLods(modelData, false);
+    }
+
+    /**
+     * Calculate the LOD score at every position for every phenotype in
+     * the model data
+     * @param modelData
+     *          the model data
+     * @param xCovariatesEverywhere
+     *          if true the sex and pgm covariates are included on the
+     *          autosomes as well as on X. this is what the
+     *          <code>scanoneX</code> component of a scantwo result needs
+     * @return
+     *          the LOD scores in column-major order (all positions for the
+     *          1st phenotype then all positions for the 2nd ...)
+     * @throws ExecutionException
+     *          if the calculation fails
+     * @throws InterruptedException
+     *          if we're interrupted
+     */
+    public double[] calculateLods(
+            final ScanOneModelData modelData,
+            final boolean xCovariatesEverywhere)
+    throws ExecutionException, InterruptedException
+    {
+        final List<HaleyKnottPhenotypeBlock> blocks =
+            HaleyKnottPhenotypeBlock.createBlocks(modelData, MAX_BLOCK_SIZE);
+        final int totalPositionCount = modelData.getTotalPositionCount();
+        final double[] lods =
+            new double[totalPositionCount * modelData.getPhenotypeCount()];
+
+        int maxGenotypeCount = 0;
+        for(int c = 0; c < modelData.getChromosomeCount(); c++)
+        {
+            maxGenotypeCount = Math.max(
+                    maxGenotypeCount,
+                    modelData.getGenotypeProbabilities(c).getGenotypeCount());
+        }
+        int maxIndividualCount = 0;
+        int maxDesignSize = 0;
+        int maxBlockSize = 0;
+        for(HaleyKnottPhenotypeBlock block: blocks)
+        {
+            maxIndividualCount = Math.max(maxIndividualCount, block.getIndividualCount());
+            maxDesignSize = Math.max(maxDesignSize, block.getMaxDesignSize(maxGenotypeCount));
+            maxBlockSize = Math.max(maxBlockSize, block.getBlockSize());
+        }
+        final int scratchIndividualCount = maxIndividualCount;
+        final int scratchDesignSize = maxDesignSize;
+        final int scratchBlockSize = maxBlockSize;
+
+        int taskSize = Math.max(
+                1,
+                totalPositionCount /
+                (ParallelComputation.getThreadCount() * TASKS_PER_THREAD));
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        int chromosomeOffset = 0;
+        for(int c = 0; c < modelData.getChromosomeCount(); c++)
+        {
+            final GenotypeProbabilities probabilities =
+                modelData.getGenotypeProbabilities(c);
+            final boolean xChromosome =
+                xCovariatesEverywhere || modelData.isXChromosome(c);
+            int positionCount = probabilities.getPositionCount();
+            for(int start = 0; start < positionCount; start += taskSize)
+            {
+                final int startPosition = start;
+                final int endPosition = Math.min(positionCount, start + taskSize);
+                final int offset = chromosomeOffset;
+                tasks.add(new Callable<Object>()
+                {
+                    public Object call()
+                    {
+                        HaleyKnottPhenotypeBlock.Scratch scratch =
+                            new HaleyKnottPhenotypeBlock.Scratch(
+                                    scratchIndividualCount,
+                                    scratchDesignSize,
+                                    scratchBlockSize);
+                        double[] blockLods = new double[scratchBlockSize];
+                        for(int pos = startPosition; pos < endPosition; pos++)
+                        {
+                            for(HaleyKnottPhenotypeBlock block: blocks)
+                            {
+                                block.calculateLods(
+                                        probabilities,
+                                        pos,
+                                        xChromosome,
+                                        scratch,
+                                        blockLods);
+                                int[] phenotypeNumbers = block.getPhenotypeNumbers();
+                                for(int b = 0; b < phenotypeNumbers.length; b++)
+                                {
+                                    lods[phenotypeNumbers[b] * totalPositionCount + offset + pos] =
+                                        blockLods[b];
+                                }
+                            }
+                        }
+                        return null;
+                    }
+                });
+            }
+            chromosomeOffset += positionCount;
+        }
+
+        ParallelComputation.invokeAll(tasks);
+        return lods;
+    }
+
+    /**
+     * Write LOD scores to R as a <code>scanone</code> object laid out the
+     * way that R/qtl would lay it out
+     * @param rInterface
+     *          the R interface
+     * @param scanCommandBuilder
+     *          the scan settings
+     * @param modelData
+     *          model data for the scan. we only use this for the cross
+     *          and chromosomes
+     * @param lodWriter
+     *          the writer holding the LOD scores for every selected
+     *          phenotype in column-major order
+     * @throws IOException
+     *          if we fail to transfer the LODs
+     */
+    static void assignScanOneResult(
+            RInterface rInterface,
+            ScanCommandBuilder scanCommandBuilder,
+            ScanOneModelData modelData,
+            MappedRArrayTransfer.DoubleArrayWriter lodWriter)
+    throws IOException
+    {
+        String crossAccessor = modelData.getCross().getAccessorExpressionString();
+        String[] chromosomeNames = new String[modelData.getChromosomeCount()];
+        for(int i = 0; i < chromosomeNames.length; i++)
+        {
+            chromosomeNames[i] = modelData.getChromosome(i).getChromosomeName();
+        }
+
+        int[] phenotypeIndices = scanCommandBuilder.getPhenotypeIndices();
+        int phenotypeCount = phenotypeIndices.length;
+        String lodColumnNames;
+        if(phenotypeCount == 1)
+        {
+            lodColumnNames = "\"lod\"";
+        }
+        else
+        {
+            int[] onesBasedPhenotypeIndices = new int[phenotypeCount];
+            for(int i = 0; i < phenotypeCount; i++)
+            {
+                onesBasedPhenotypeIndices[i] = phenotypeIndices[i] + 1;
+            }
+            lodColumnNames =
+                "names(" + crossAccessor + "$pheno)[" +
+                RUtilities.intArrayToRVector(onesBasedPhenotypeIndices) + "]";
+        }
+
+        // pseudomarkers get the "c<chr>.loc<pos>" names that scanone uses
+        String resultCommand =
+            scanCommandBuilder.getScanResultName().trim() + " <- local({" +
+            "chrs <- " + RUtilities.stringArrayToRVector(chromosomeNames) + "; " +
+            "maps <- lapply(chrs, function(chr) {" +
+            "map <- attr(" + crossAccessor + "$geno[[chr]]$prob, \"map\"); " +
+            "if(is.matrix(map)) map[1, ] else map}); " +
+            "result <- data.frame(" +
+            "chr=factor(rep(chrs, sapply(maps, length)), levels=chrs), " +
+            "pos=as.numeric(unlist(maps)), " +
+            "matrix(" + LOD_IDENTIFIER + ", ncol=" + phenotypeCount + ")); " +
+            "names(result)[-(1:2)] <- " + lodColumnNames + "; " +
+            "rownames(result) <- unlist(lapply(seq(along=chrs), function(i) {" +
+            "w <- names(maps[[i]]); " +
+            "o <- grep(\"^loc-*[0-9]+\", w); " +
+            "if(length(o) > 0) w[o] <- paste(\"c\", chrs[i], \".\", w[o], sep=\"\"); " +
+            "w})); " +
+            "class(result) <- c(\"scanone\", \"data.frame\"); " +
+            "attr(result, \"method\") <- \"hk\"; " +
+            "attr(result, \"type\") <- class(" + crossAccessor + ")[1]; " +
+            "attr(result, \"model\") <- \"normal\"; " +
+            "result}); " +
+            "rm(" + LOD_IDENTIFIER + ")";
+
+        RSessionLock.lockForWriting();
+        try
+        {
+            rInterface.insertComment(
+                    "evaluated in java: " +
+                    scanCommandBuilder.getCommandWithoutPermutations().getCommandText());
+            lodWriter.assign(rInterface, LOD_IDENTIFIER);
+            rInterface.evaluateCommandNoReturn(new SilentRCommand(resultCommand));
+        }
+        finally
+        {
+            RSessionLock.unlockForWriting();
+        }
+        RSessionEpoch.advanceMutationEpoch();
+        RChangeJournal.noteCommand(resultCommand);
+    }
+}
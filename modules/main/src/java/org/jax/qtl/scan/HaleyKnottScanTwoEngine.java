@@ -0,0 +1,597 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jax.qtl.cross.GenotypeProbabilities;
+import org.jax.qtl.job.Job;
+import org.jax.qtl.util.MappedRArrayTransfer;
+import org.jax.qtl.util.ParallelComputation;
+import org.jax.qtl.util.RChangeJournal;
+import org.jax.qtl.util.RSessionEpoch;
+import org.jax.qtl.util.RSessionLock;
+import org.jax.r.RAssignmentCommand;
+import org.jax.r.RUtilities;
+import org.jax.r.jriutilities.RInterface;
+import org.jax.r.jriutilities.SilentRCommand;
+
+/**
+ * A java implementation of Haley-Knott regression for
+ * <code>scantwo</code>. The triangle of position pairs is cut into square
+ * tiles that are small enough for the genotype probabilities of both
+ * sides of a tile to stay in cache, and the tiles are handed out to the
+ * {@link ParallelComputation} pool. Every tile writes its full and
+ * additive LODs straight into a packed {@link ScanTwoLodMatrix} (tiles
+ * never share cells so there's no locking).
+ * <p>
+ * The result is written back to R as a regular <code>scantwo</code>
+ * object (full LODs in the lower triangle, additive LODs in the upper
+ * triangle, scanone LODs on the diagonal plus the <code>scanoneX</code>
+ * component) so that {@link ScanTwoResult} and everything built on it
+ * can't tell the difference.
+ * </p>
+ * <p>
+ * Pairs of positions on the same chromosome need the joint genotype
+ * probabilities from <code>calc.pairprob</code> (the product of the
+ * marginals is only right for unlinked positions) so those blocks are
+ * handed back to R, one <code>scantwo</code> per chromosome, and written
+ * over the java result.
+ * </p>
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class HaleyKnottScanTwoEngine
+{
+    /**
+     * our logger
+     */
+    private static final Logger LOG = Logger.getLogger(
+            HaleyKnottScanTwoEngine.class.getName());
+
+    /**
+     * the most phenotypes that share a single blocked multiply
+     */
+    private static final int MAX_BLOCK_SIZE = 64;
+
+    /**
+     * how many bytes of genotype probabilities we want a tile to touch.
+     * this is sized to sit comfortably in a per-core L2 cache
+     */
+    private static final int TILE_CACHE_BYTES = 1 << 18;
+
+    /**
+     * the smallest tile edge that we'll use no matter how many
+     * individuals there are
+     */
+    private static final int MIN_TILE_SIZE = 4;
+
+    /**
+     * the largest tile edge that we'll use
+     */
+    private static final int MAX_TILE_SIZE = 64;
+
+    /**
+     * the scratch identifier that we read the LOD scores into
+     */
+    private static final String LOD_IDENTIFIER = ".jqtl.hk.lod2";
+
+    /**
+     * the scratch identifier that we read the scanoneX LOD scores into
+     */
+    private static final String SCANONE_X_IDENTIFIER = ".jqtl.hk.lodX";
+
+    /**
+     * the chromosome blocks that have this many positions or fewer have
+     * no pairs so we don't need R to scan them
+     */
+    private static final int MIN_CIS_BLOCK_POSITIONS = 2;
+
+    /**
+     * results with more cells than this are held in single precision
+     * until they're written to R
+     */
+    private static final long SINGLE_PRECISION_LOD_THRESHOLD = 4000000L;
+
+    /**
+     * Determine if this engine can run the given scan. We still need to
+     * check that the genotype probabilities exist when we run. Scans of an
+     * X chromosome that R/qtl would revise (see
+     * {@link ScanOneModelData#needsRevisedXData(ScanCommandBuilder)}) and
+     * scans that drop markers (<code>incl.markers=FALSE</code>) or clean
+     * their output are left to R
+     * @param scanCommandBuilder
+     *          the scan settings
+     * @return
+     *          true if the settings are something that we can handle
+     */
+    public boolean canScan(ScanCommandBuilder scanCommandBuilder)
+    {
+        String scanResultName = scanCommandBuilder.getScanResultName();
+        int[] phenotypeIndices = scanCommandBuilder.getPhenotypeIndices();
+        return scanCommandBuilder.getCross() != null &&
+               scanResultName != null &&
+               scanResultName.trim().length() > 0 &&
+               phenotypeIndices != null &&
+               phenotypeIndices.length > 0 &&
+               scanCommandBuilder.getScanType() == ScanType.SCANTWO &&
+               scanCommandBuilder.getScanMethod() == ScanMethod.HALEY_KNOTT_REGRESSION &&
+               scanCommandBuilder.getPhenotypeDistribution() == PhenotypeDistribution.NORMAL &&
+               scanCommandBuilder.isUseAllMarkers() &&
+               !scanCommandBuilder.isCleanOutput() &&
+               !ScanOneModelData.needsRevisedXData(scanCommandBuilder);
+    }
+
+    /**
+     * Run the scan (permutations are not included) and assign the result
+     * in R
+     * @param rInterface
+     *          the R interface
+     * @param scanCommandBuilder
+     *          the scan settings
+     * @return
+     *          true if the scan result was assigned. if false the caller
+     *          should run the scan in R
+     */
+    public boolean runScan(
+            RInterface rInterface,
+            ScanCommandBuilder scanCommandBuilder)
+    {
+        if(!this.canScan(scanCommandBuilder))
+        {
+            return false;
+        }
+
+        try
+        {
+            ScanOneModelData modelData = ScanOneModelData.fetchModelData(
+                    scanCommandBuilder);
+            if(modelData == null)
+            {
+                LOG.info(
+                        "genotype probabilities are missing. can't run " +
+                        "Haley-Knott scantwo in java");
+                return false;
+            }
+
+            long cellCount =
+                (long)modelData.getTotalPositionCount() *
+                modelData.getTotalPositionCount() *
+                modelData.getPhenotypeCount();
+            if(cellCount > Integer.MAX_VALUE)
+            {
+                LOG.info(
+                        "too many scantwo LOD scores for a java scan: " +
+                        cellCount);
+                return false;
+            }
+
+            ScanTwoLodMatrix lodMatrix = this.calculateLods(
+                    modelData,
+                    cellCount > SINGLE_PRECISION_LOD_THRESHOLD);
+            double[] scanOneXLods = new HaleyKnottScanOneEngine().calculateLods(
+                    modelData,
+                    true);
+            HaleyKnottScanTwoEngine.assignScanTwoResult(
+                    rInterface,
+                    scanCommandBuilder,
+                    modelData,
+                    lodMatrix,
+                    scanOneXLods);
+            HaleyKnottScanTwoEngine.assignCisPairLods(
+                    rInterface,
+                    scanCommandBuilder,
+                    modelData);
+            return true;
+        }
+        catch(ExecutionException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "java Haley-Knott scantwo failed",
+                    ex.getCause());
+            return false;
+        }
+        catch(InterruptedException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "interrupted during java Haley-Knott scantwo",
+                    ex);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch(IOException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "failed to move java scantwo results into R",
+                    ex);
+            return false;
+        }
+    }
+
+    /**
+     * Calculate the LODs for every pair of positions on different
+     * chromosomes and the scanone LODs (on the diagonal) for every
+     * phenotype. Pairs of positions on the same chromosome are left as NaN
+     * since we don't have their joint genotype probabilities
+     * @param modelData
+     *          the model data
+     * @param singlePrecision
+     *          if true the LODs are held as floats
+     * @return
+     *          the LODs
+     * @throws ExecutionException
+     *          if the calculation fails
+     * @throws InterruptedException
+     *          if we're interrupted
+     */
+    public ScanTwoLodMatrix calculateLods(
+            final ScanOneModelData modelData,
+            boolean singlePrecision)
+    throws ExecutionException, InterruptedException
+    {
+        final List<HaleyKnottPhenotypeBlock> blocks =
+            HaleyKnottPhenotypeBlock.createBlocks(modelData, MAX_BLOCK_SIZE);
+        final int totalPositionCount = modelData.getTotalPositionCount();
+        final ScanTwoLodMatrix lodMatrix = new ScanTwoLodMatrix(
+                totalPositionCount,
+                modelData.getPhenotypeCount(),
+                singlePrecision);
+
+        // flatten the positions so that tiles can cross chromosomes
+        final GenotypeProbabilities[] positionProbabilities =
+            new GenotypeProbabilities[totalPositionCount];
+        final int[] positionIndices = new int[totalPositionCount];
+        final boolean[] xPositions = new boolean[totalPositionCount];
+        final int[] positionChromosomes = new int[totalPositionCount];
+        int maxGenotypeCount = 0;
+        int globalPosition = 0;
+        for(int c = 0; c < modelData.getChromosomeCount(); c++)
+        {
+            GenotypeProbabilities probabilities = modelData.getGenotypeProbabilities(c);
+            maxGenotypeCount = Math.max(maxGenotypeCount, probabilities.getGenotypeCount());
+            for(int pos = 0; pos < probabilities.getPositionCount(); pos++)
+            {
+                positionProbabilities[globalPosition] = probabilities;
+                positionIndices[globalPosition] = pos;
+                xPositions[globalPosition] = modelData.isXChromosome(c);
+                positionChromosomes[globalPosition] = c;
+                globalPosition++;
+            }
+        }
+
+        int maxIndividualCount = 0;
+        int maxDesignSize = 0;
+        int maxBlockSize = 0;
+        for(HaleyKnottPhenotypeBlock block: blocks)
+        {
+            maxIndividualCount = Math.max(maxIndividualCount, block.getIndividualCount());
+            maxDesignSize = Math.max(maxDesignSize, block.getMaxPairDesignSize(maxGenotypeCount));
+            maxBlockSize = Math.max(maxBlockSize, block.getBlockSize());
+        }
+        final int scratchIndividualCount = maxIndividualCount;
+        final int scratchDesignSize = maxDesignSize;
+        final int scratchBlockSize = maxBlockSize;
+
+        // both sides of a tile should fit in cache
+        int bytesPerPosition = Math.max(
+                1,
+                maxIndividualCount * maxGenotypeCount * 8);
+        int tileSize = Math.max(
+                MIN_TILE_SIZE,
+                Math.min(MAX_TILE_SIZE, TILE_CACHE_BYTES / (2 * bytesPerPosition)));
+
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for(int rowStart = 0; rowStart < totalPositionCount; rowStart += tileSize)
+        {
+            for(int columnStart = 0; columnStart <= rowStart; columnStart += tileSize)
+            {
+                final int tileRowStart = rowStart;
+                final int tileRowEnd = Math.min(totalPositionCount, rowStart + tileSize);
+                final int tileColumnStart = columnStart;
+                final int tileColumnEnd = Math.min(totalPositionCount, columnStart + tileSize);
+                tasks.add(new Callable<Object>()
+                {
+                    public Object call()
+                    {
+                        HaleyKnottPhenotypeBlock.Scratch scratch =
+                            new HaleyKnottPhenotypeBlock.Scratch(
+                                    scratchIndividualCount,
+                                    scratchDesignSize,
+                                    scratchBlockSize);
+                        double[] fullLods = new double[scratchBlockSize];
+                        double[] additiveLods = new double[scratchBlockSize];
+                        for(HaleyKnottPhenotypeBlock block: blocks)
+                        {
+                            int[] phenotypeNumbers = block.getPhenotypeNumbers();
+                            for(int row = tileRowStart; row < tileRowEnd; row++)
+                            {
+                                int columnEnd = Math.min(tileColumnEnd, row + 1);
+                                for(int column = tileColumnStart; column < columnEnd; column++)
+                                {
+                                    if(row == column)
+                                    {
+                                        // the diagonal holds scanone
+                                        block.calculateLods(
+                                                positionProbabilities[row],
+                                                positionIndices[row],
+                                                xPositions[row],
+                                                scratch,
+                                                fullLods);
+                                        for(int b = 0; b < phenotypeNumbers.length; b++)
+                                        {
+                                            lodMatrix.setLod(
+                                                    phenotypeNumbers[b],
+                                                    row,
+                                                    row,
+                                                    fullLods[b]);
+                                        }
+                                    }
+                                    else if(positionChromosomes[row] == positionChromosomes[column])
+                                    {
+                                        // filled in by R (see assignCisPairLods)
+                                        for(int b = 0; b < phenotypeNumbers.length; b++)
+                                        {
+                                            lodMatrix.setLod(
+                                                    phenotypeNumbers[b],
+                                                    row,
+                                                    column,
+                                                    Double.NaN);
+                                            lodMatrix.setLod(
+                                                    phenotypeNumbers[b],
+                                                    column,
+                                                    row,
+                                                    Double.NaN);
+                                        }
+                                    }
+                                    else
+                                    {
+                                        block.calculatePairLods(
+                                                positionProbabilities[column],
+                                                positionIndices[column],
+                                                positionProbabilities[row],
+                                                positionIndices[row],
+                                                xPositions[column] || xPositions[row],
+                                                scratch,
+                                                fullLods,
+                                                additiveLods);
+                                        for(int b = 0; b < phenotypeNumbers.length; b++)
+                                        {
+                                            lodMatrix.setLod(
+                                                    phenotypeNumbers[b],
+                                                    row,
+                                                    column,
+                                                    fullLods[b]);
+                                            lodMatrix.setLod(
+                                                    phenotypeNumbers[b],
+                                                    column,
+                                                    row,
+                                                    additiveLods[b]);
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                        return null;
+                    }
+                });
+            }
+        }
+
+        ParallelComputation.invokeAll(tasks);
+        return lodMatrix;
+    }
+
+    /**
+     * Run R's <code>scantwo</code> one chromosome at a time and write the
+     * LODs over the same-chromosome blocks of the result that
+     * {@link #assignScanTwoResult(RInterface, ScanCommandBuilder, ScanOneModelData, ScanTwoLodMatrix, double[])}
+     * assigned. R uses <code>calc.pairprob</code> for these pairs
+     * @param rInterface
+     *          the R interface
+     * @param scanCommandBuilder
+     *          the scan settings
+     * @param modelData
+     *          the model data
+     */
+    private static void assignCisPairLods(
+            RInterface rInterface,
+            ScanCommandBuilder scanCommandBuilder,
+            ScanOneModelData modelData)
+    {
+        String lodAccessor = scanCommandBuilder.getScanResultName().trim() + "$lod";
+        boolean multiplePhenotypes = modelData.getPhenotypeCount() > 1;
+        int firstPosition = 1;
+        for(int c = 0; c < modelData.getChromosomeCount(); c++)
+        {
+            int positionCount =
+                modelData.getGenotypeProbabilities(c).getPositionCount();
+            if(positionCount >= MIN_CIS_BLOCK_POSITIONS)
+            {
+                String chromosomeName = modelData.getChromosome(c).getChromosomeName();
+                ScanCommandBuilder chromosomeBuilder = scanCommandBuilder.copy();
+                chromosomeBuilder.setChromosomeIndices(new String[] {chromosomeName});
+                chromosomeBuilder.setScanResultName(null);
+
+                String positionRange =
+                    firstPosition + ":" + (firstPosition + positionCount - 1);
+                String blockAccessor =
+                    lodAccessor + "[" + positionRange + ", " + positionRange +
+                    (multiplePhenotypes ? ", ]" : "]");
+                Job.checkCurrentJobCancelled();
+                RSessionEpoch.evaluateCommandNoReturn(
+                        rInterface,
+                        "scanning the position pairs on chromosome " +
+                        chromosomeName + " in R",
+                        new RAssignmentCommand(
+                                blockAccessor,
+                                chromosomeBuilder.getCommandWithoutPermutations().getCommandText() +
+                                "$lod"));
+            }
+            firstPosition += positionCount;
+        }
+    }
+
+    /**
+     * Write the LOD scores to R as a <code>scantwo</code> object laid out
+     * the way that R/qtl would lay it out
+     * @param rInterface
+     *          the R interface
+     * @param scanCommandBuilder
+     *          the scan settings
+     * @param modelData
+     *          the model data
+     * @param lodMatrix
+     *          the pair LODs
+     * @param scanOneXLods
+     *          the scanone LODs with the X covariates included at every
+     *          position (column-major)
+     * @throws IOException
+     *          if we fail to transfer the LODs
+     */
+    private static void assignScanTwoResult(
+            RInterface rInterface,
+            ScanCommandBuilder scanCommandBuilder,
+            ScanOneModelData modelData,
+            ScanTwoLodMatrix lodMatrix,
+            double[] scanOneXLods)
+    throws IOException
+    {
+        String crossAccessor = modelData.getCross().getAccessorExpressionString();
+        int chromosomeCount = modelData.getChromosomeCount();
+        String[] chromosomeNames = new String[chromosomeCount];
+        StringBuffer xFlagVector = new StringBuffer("c(");
+        for(int c = 0; c < chromosomeCount; c++)
+        {
+            chromosomeNames[c] = modelData.getChromosome(c).getChromosomeName();
+            if(c > 0)
+            {
+                xFlagVector.append(", ");
+            }
+            xFlagVector.append(RUtilities.javaBooleanToRBoolean(
+                    modelData.isXChromosome(c)));
+        }
+        xFlagVector.append(")");
+
+        int phenotypeCount = modelData.getPhenotypeCount();
+        int[] phenotypeIndices = modelData.getPhenotypeIndices();
+        int[] onesBasedPhenotypeIndices = new int[phenotypeCount];
+        for(int i = 0; i < phenotypeCount; i++)
+        {
+            onesBasedPhenotypeIndices[i] = phenotypeIndices[i] + 1;
+        }
+        String phenotypeNames =
+            "names(" + crossAccessor + "$pheno)[" +
+            RUtilities.intArrayToRVector(onesBasedPhenotypeIndices) + "]";
+
+        int n = lodMatrix.getPositionCount();
+        String lodDimensions = phenotypeCount == 1 ?
+                "c(" + n + ", " + n + ")" :
+                "c(" + n + ", " + n + ", " + phenotypeCount + ")";
+        String resultCommand =
+            scanCommandBuilder.getScanResultName().trim() + " <- local({" +
+            "chrs <- " + RUtilities.stringArrayToRVector(chromosomeNames) + "; " +
+            "xchrs <- " + xFlagVector + "; " +
+            "maps <- lapply(chrs, function(chr) {" +
+            "map <- attr(" + crossAccessor + "$geno[[chr]]$prob, \"map\"); " +
+            "if(is.matrix(map)) map[1, ] else map}); " +
+            "steps <- sapply(chrs, function(chr) {" +
+            "s <- attr(" + crossAccessor + "$geno[[chr]]$prob, \"step\"); " +
+            "if(is.null(s)) 0 else s}); " +
+            "map <- data.frame(" +
+            "chr=factor(rep(chrs, sapply(maps, length)), levels=chrs), " +
+            "pos=as.numeric(unlist(maps)), " +
+            "eq.spacing=unlist(lapply(seq(along=chrs), function(i) {" +
+            "m <- maps[[i]]; " +
+            "if(steps[i] > 0) {d <- (m - m[1]) / steps[i]; " +
+            "as.numeric(abs(d - round(d)) < 1e-6)} else rep(1, length(m))})), " +
+            "xchr=rep(xchrs, sapply(maps, length))); " +
+            "rownames(map) <- unlist(lapply(seq(along=chrs), function(i) {" +
+            "w <- names(maps[[i]]); " +
+            "o <- grep(\"^loc-*[0-9]+\", w); " +
+            "if(length(o) > 0) w[o] <- paste(\"c\", chrs[i], \".\", w[o], sep=\"\"); " +
+            "w})); " +
+            "result <- list(" +
+            "lod=array(" + LOD_IDENTIFIER + ", dim=" + lodDimensions + "), " +
+            "map=map, " +
+            "scanoneX=matrix(" + SCANONE_X_IDENTIFIER + ", ncol=" + phenotypeCount + ")); " +
+            "class(result) <- c(\"scantwo\", \"list\"); " +
+            "attr(result, \"method\") <- \"hk\"; " +
+            "attr(result, \"type\") <- class(" + crossAccessor + ")[1]; " +
+            "attr(result, \"fullmap\") <- lapply(" + crossAccessor + "$geno[chrs], " +
+            "function(g) g$map); " +
+            "attr(result, \"phenotypes\") <- " + phenotypeNames + "; " +
+            "result}); " +
+            "rm(" + LOD_IDENTIFIER + ", " + SCANONE_X_IDENTIFIER + ")";
+
+        MappedRArrayTransfer.DoubleArrayWriter lodWriter =
+            new MappedRArrayTransfer.DoubleArrayWriter();
+        boolean assigned = false;
+        try
+        {
+            // R wants the full square matrices in column-major order
+            double[] columnValues = new double[n];
+            for(int phenotype = 0; phenotype < phenotypeCount; phenotype++)
+            {
+                for(int column = 0; column < n; column++)
+                {
+                    for(int row = 0; row < n; row++)
+                    {
+                        columnValues[row] = lodMatrix.getLod(phenotype, row, column);
+                    }
+                    lodWriter.write(columnValues, 0, n);
+                }
+            }
+
+            RSessionLock.lockForWriting();
+            try
+            {
+                rInterface.insertComment(
+                        "evaluated in java: " +
+                        scanCommandBuilder.getCommandWithoutPermutations().getCommandText());
+                lodWriter.assign(rInterface, LOD_IDENTIFIER);
+                assigned = true;
+                MappedRArrayTransfer.assignDoubles(
+                        rInterface,
+                        SCANONE_X_IDENTIFIER,
+                        scanOneXLods);
+                rInterface.evaluateCommandNoReturn(new SilentRCommand(resultCommand));
+            }
+            finally
+            {
+                RSessionLock.unlockForWriting();
+            }
+            RSessionEpoch.advanceMutationEpoch();
+            RChangeJournal.noteCommand(resultCommand);
+        }
+        finally
+        {
+            if(!assigned)
+            {
+                lodWriter.discard();
+            }
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan;
+
+/**
+ * Least squares through the normal equations. The scans only ever need
+ * residual sums of squares, and for a design <code>X</code> with
+ * Cholesky factor <code>L</code> of <code>X'X</code> the RSS is
+ * <code>y'y - |inv(L) X'y|^2</code>, so we never have to solve for the
+ * coefficients. Columns that are (numerically) linear combinations of
+ * earlier columns are dropped while factoring, which is how we cope with
+ * designs where the genotype probabilities sum to the intercept.
+ * <p>
+ * Matrices are dense <code>size x size</code> arrays in row-major order.
+ * Only the lower triangle is used.
+ * </p>
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class NormalEquations
+{
+    /**
+     * a column is dropped if factoring leaves less than this fraction of
+     * its original diagonal
+     */
+    public static final double SINGULARITY_TOLERANCE = 1e-10;
+
+    /**
+     * Add a single design row to the lower triangle of <code>X'X</code>
+     * @param crossProducts
+     *          the <code>X'X</code> matrix to add to
+     * @param size
+     *          the number of design columns
+     * @param row
+     *          the design row
+     */
+    public static void addRow(double[] crossProducts, int size, double[] row)
+    {
+        NormalEquations.addRow(crossProducts, size, row, 0);
+    }
+
+    /**
+     * Add a single design row to the lower triangle of <code>X'X</code>
+     * @param crossProducts
+     *          the <code>X'X</code> matrix to add to
+     * @param size
+     *          the number of design columns
+     * @param rows
+     *          the array holding the design row
+     * @param rowOffset
+     *          where the row starts in rows
+     */
+    public static void addRow(
+            double[] crossProducts,
+            int size,
+            double[] rows,
+            int rowOffset)
+    {
+        for(int i = 0; i < size; i++)
+        {
+            double rowValue = rows[rowOffset + i];
+            if(rowValue != 0.0)
+            {
+                int offset = i * size;
+                for(int j = 0; j <= i; j++)
+                {
+                    crossProducts[offset + j] += rowValue * rows[rowOffset + j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace the lower triangle of <code>X'X</code> with its Cholesky
+     * factor. Dependent columns get a zero column in the factor
+     * @param crossProducts
+     *          the matrix to factor
+     * @param size
+     *          the matrix size
+     * @return
+     *          the rank
+     */
+    public static int factor(double[] crossProducts, int size)
+    {
+        int rank = 0;
+        for(int k = 0; k < size; k++)
+        {
+            int kOffset = k * size;
+            double originalDiagonal = crossProducts[kOffset + k];
+            double diagonal = originalDiagonal;
+            for(int j = 0; j < k; j++)
+            {
+                double value = crossProducts[kOffset + j];
+                diagonal -= value * value;
+            }
+
+            if(originalDiagonal <= 0.0 ||
+               diagonal <= SINGULARITY_TOLERANCE * originalDiagonal)
+            {
+                for(int i = k; i < size; i++)
+                {
+                    crossProducts[i * size + k] = 0.0;
+                }
+            }
+            else
+            {
+                double pivot = Math.sqrt(diagonal);
+                crossProducts[kOffset + k] = pivot;
+                for(int i = k + 1; i < size; i++)
+                {
+                    int iOffset = i * size;
+                    double sum = crossProducts[iOffset + k];
+                    for(int j = 0; j < k; j++)
+                    {
+                        sum -= crossProducts[iOffset + j] * crossProducts[kOffset + j];
+                    }
+                    crossProducts[iOffset + k] = sum / pivot;
+                }
+                rank++;
+            }
+        }
+
+        return rank;
+    }
+
+    /**
+     * Calculate <code>|inv(L) X'y|^2</code> which is the part of
+     * <code>y'y</code> that the design explains
+     * @param factor
+     *          the factor from {@link #factor(double[], int)}
+     * @param size
+     *          the matrix size
+     * @param designResponseProducts
+     *          <code>X'y</code>
+     * @param scratch
+     *          scratch space holding at least <code>size</code> values
+     * @return
+     *          the explained sum of squares
+     */
+    public static double explainedSumOfSquares(
+            double[] factor,
+            int size,
+            double[] designResponseProducts,
+            double[] scratch)
+    {
+        double sumOfSquares = 0.0;
+        for(int k = 0; k < size; k++)
+        {
+            int kOffset = k * size;
+            double pivot = factor[kOffset + k];
+            if(pivot == 0.0)
+            {
+                scratch[k] = 0.0;
+            }
+            else
+            {
+                double value = designResponseProducts[k];
+                for(int j = 0; j < k; j++)
+                {
+                    value -= factor[kOffset + j] * scratch[j];
+                }
+                value /= pivot;
+                scratch[k] = value;
+                sumOfSquares += value * value;
+            }
+        }
+
+        return sumOfSquares;
+    }
+
+    /**
+     * The blocked version of
+     * {@link #explainedSumOfSquares(double[], int, double[], double[])}
+     * which pushes many responses through the same factor at once
+     * @param factor
+     *          the factor from {@link #factor(double[], int)}
+     * @param size
+     *          the matrix size
+     * @param designResponseProducts
+     *          <code>X'Y</code> as a row-major <code>size x responseCount</code>
+     *          matrix. this is overwritten with <code>inv(L) X'Y</code>
+     * @param responseCount
+     *          the number of responses (columns of <code>Y</code>)
+     * @param explained
+     *          the array that the explained sum of squares for each
+     *          response is written to
+     */
+    public static void explainedSumsOfSquares(
+            double[] factor,
+            int size,
+            double[] designResponseProducts,
+            int responseCount,
+            double[] explained)
+    {
+        for(int r = 0; r < responseCount; r++)
+        {
+            explained[r] = 0.0;
+        }
+
+        for(int k = 0; k < size; k++)
+        {
+            int kOffset = k * size;
+            int kRow = k * responseCount;
+            double pivot = factor[kOffset + k];
+            if(pivot == 0.0)
+            {
+                for(int r = 0; r < responseCount; r++)
+                {
+                    designResponseProducts[kRow + r] = 0.0;
+                }
+            }
+            else
+            {
+                for(int j = 0; j < k; j++)
+                {
+                    double factorValue = factor[kOffset + j];
+                    if(factorValue != 0.0)
+                    {
+                        int jRow = j * responseCount;
+                        for(int r = 0; r < responseCount; r++)
+                        {
+                            designResponseProducts[kRow + r] -=
+                                factorValue * designResponseProducts[jRow + r];
+                        }
+                    }
+                }
+
+                double inversePivot = 1.0 / pivot;
+                for(int r = 0; r < responseCount; r++)
+                {
+                    double value = designResponseProducts[kRow + r] * inversePivot;
+                    designResponseProducts[kRow + r] = value;
+                    explained[r] += value * value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Turn a pair of residual sums of squares into a LOD score
+     * @param individualCount
+     *          the number of individuals in the fit
+     * @param nullResidualSumOfSquares
+     *          the null model RSS
+     * @param alternativeResidualSumOfSquares
+     *          the alternative model RSS
+     * @return
+     *          the LOD
+     */
+    public static double toLod(
+            int individualCount,
+            double nullResidualSumOfSquares,
+            double alternativeResidualSumOfSquares)
+    {
+        // rounding can push a perfect fit slightly negative
+        double alternative = Math.max(
+                alternativeResidualSumOfSquares,
+                Double.MIN_VALUE);
+        return individualCount / 2.0 * Math.log10(
+                nullResidualSumOfSquares / alternative);
+    }
+}
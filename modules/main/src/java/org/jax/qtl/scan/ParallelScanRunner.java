@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jax.qtl.util.RChangeJournal;
+import org.jax.qtl.util.RSessionEpoch;
+import org.jax.qtl.worker.RWorkerException;
+import org.jax.qtl.worker.RWorkerJob;
+import org.jax.qtl.worker.RWorkerPool;
+import org.jax.qtl.worker.RWorkerProcess;
+import org.jax.qtl.worker.RWorkerSeedFile;
+import org.jax.r.RCommand;
+import org.jax.r.jriutilities.RInterface;
+
+/**
+ * Runs the commands built by a {@link ScanCommandBuilder} on the
+ * {@link RWorkerPool} instead of the main R session. The scan and its
+ * permutations run at the same time on separate workers (see
+ * {@link ChunkedPermutationRunner}), and the results are loaded back into
+ * the main session under the usual <code>name</code> and
+ * <code>name.permutations</code> identifiers.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class ParallelScanRunner
+{
+    /**
+     * our logger
+     */
+    private static final Logger LOG = Logger.getLogger(
+            ParallelScanRunner.class.getName());
+
+    private final RWorkerPool workerPool;
+
+    private final ChunkedPermutationRunner permutationRunner;
+
+    /**
+     * Constructor
+     * @param workerPool
+     *          the pool to run scans on
+     */
+    public ParallelScanRunner(RWorkerPool workerPool)
+    {
+        this.workerPool = workerPool;
+        this.permutationRunner = new ChunkedPermutationRunner(workerPool);
+    }
+
+    /**
+     * Constructor which uses the shared worker pool
+     */
+    public ParallelScanRunner()
+    {
+        this(RWorkerPool.getInstance());
+    }
+
+    /**
+     * Run the scan (and permutations if there are any) on the worker pool
+     * and block until the results are loaded into the main R session
+     * @param rInterface
+     *          the main R session
+     * @param scanCommandBuilder
+     *          the scan to run
+     * @return
+     *          true if the scan ran on the workers. if false the scan
+     *          result wasn't loaded (though any permutation chunks that
+     *          finished will have been merged) and the caller should run
+     *          the scan the usual way
+     */
+    public boolean runScan(
+            RInterface rInterface,
+            ScanCommandBuilder scanCommandBuilder)
+    {
+        String scanResultName = scanCommandBuilder.getScanResultName();
+        if(scanResultName == null || scanResultName.length() == 0 ||
+           scanCommandBuilder.getCross() == null ||
+           !this.workerPool.isAvailable())
+        {
+            return false;
+        }
+
+        RWorkerSeedFile seedFile = ParallelScanRunner.createSeedFile(
+                rInterface,
+                scanCommandBuilder);
+        if(seedFile == null)
+        {
+            return false;
+        }
+
+        Future<File> scanResult = null;
+        try
+        {
+            // the scan runs on one worker while the permutation chunks
+            // share the rest
+            RCommand scanCommand = scanCommandBuilder.getCommandWithoutPermutations();
+            scanResult = this.workerPool.submit(
+                    this.createCommandJob(seedFile, scanCommand, scanResultName),
+                    seedFile);
+
+            if(scanCommandBuilder.getCommandWithPermutations() != null)
+            {
+                rInterface.insertComment(
+                        "running permutations in chunks on R worker processes");
+                this.permutationRunner.runPermutations(
+                        rInterface,
+                        scanCommandBuilder,
+                        seedFile);
+            }
+
+            File scanResultFile = scanResult.get();
+            rInterface.insertComment(
+                    "evaluated by an R worker process: " +
+                    scanCommand.getCommandText());
+            RWorkerPool.loadDataFile(rInterface, scanResultFile);
+            RSessionEpoch.advanceMutationEpoch();
+            RChangeJournal.recordAssignment(scanResultName);
+
+            return true;
+        }
+        catch(RWorkerException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "R worker failed. running scan in main session",
+                    ex);
+            return false;
+        }
+        catch(ExecutionException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "R worker failed. running scan in main session",
+                    ex.getCause());
+            return false;
+        }
+        catch(InterruptedException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "interrupted waiting for R workers",
+                    ex);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        finally
+        {
+            // if we bailed early don't leave the scan running on a worker
+            if(scanResult != null)
+            {
+                scanResult.cancel(true);
+            }
+            // jobs that still need the seed file hold their own reference
+            seedFile.release();
+        }
+    }
+
+    /**
+     * Run only the permutations on the worker pool. This is for when the
+     * scan itself was run some other way
+     * @param rInterface
+     *          the main R session
+     * @param scanCommandBuilder
+     *          the scan settings
+     * @return
+     *          true if the permutations ran on the workers. if false the
+     *          caller should run them the usual way
+     */
+    public boolean runPermutations(
+            RInterface rInterface,
+            ScanCommandBuilder scanCommandBuilder)
+    {
+        String scanResultName = scanCommandBuilder.getScanResultName();
+        if(scanResultName == null || scanResultName.length() == 0 ||
+           scanCommandBuilder.getCross() == null ||
+           scanCommandBuilder.getCommandWithPermutations() == null ||
+           !this.workerPool.isAvailable())
+        {
+            return false;
+        }
+
+        RWorkerSeedFile seedFile = ParallelScanRunner.createSeedFile(
+                rInterface,
+                scanCommandBuilder);
+        if(seedFile == null)
+        {
+            return false;
+        }
+
+        try
+        {
+            rInterface.insertComment(
+                    "running permutations in chunks on R worker processes");
+            this.permutationRunner.runPermutations(
+                    rInterface,
+                    scanCommandBuilder,
+                    seedFile);
+            return true;
+        }
+        catch(RWorkerException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "R worker failed. running permutations in main session",
+                    ex);
+            return false;
+        }
+        catch(InterruptedException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "interrupted waiting for R workers",
+                    ex);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        finally
+        {
+            // jobs that still need the seed file hold their own reference
+            seedFile.release();
+        }
+    }
+
+    /**
+     * Save the scan's cross to a worker seed file
+     * @param rInterface
+     *          the main R session
+     * @param scanCommandBuilder
+     *          the scan settings
+     * @return
+     *          the seed file (which the caller must release) or null if we
+     *          failed to create it
+     */
+    private static RWorkerSeedFile createSeedFile(
+            RInterface rInterface,
+            ScanCommandBuilder scanCommandBuilder)
+    {
+        try
+        {
+            return new RWorkerSeedFile(RWorkerPool.createSeedFile(
+                    rInterface,
+                    new String[] {
+                        scanCommandBuilder.getCross().getAccessorExpressionString()}));
+        }
+        catch(IOException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "failed to seed R workers. running in main session",
+                    ex);
+            return null;
+        }
+    }
+
+    /**
+     * Create a job that evaluates a command on a seeded worker and saves
+     * the named result object to a data file
+     * @param seedFile
+     *          the seed file holding the cross
+     * @param command
+     *          the command to evaluate
+     * @param resultName
+     *          the name of the object that the command creates
+     * @return
+     *          the job which returns the result data file
+     */
+    private RWorkerJob<File> createCommandJob(
+            final RWorkerSeedFile seedFile,
+            final RCommand command,
+            final String resultName)
+    {
+        return new RWorkerJob<File>()
+        {
+            public File runOnWorker(RWorkerProcess worker)
+            throws RWorkerException
+            {
+                worker.loadSeedFile(seedFile);
+                worker.evaluate(command.getCommandText());
+
+                File resultFile;
+                try
+                {
+                    resultFile = RWorkerPool.createTempDataFile();
+                }
+                catch(IOException ex)
+                {
+                    throw new RWorkerException(
+                            "failed to create a result file",
+                            ex);
+                }
+                worker.saveObjects(new String[] {resultName}, resultFile);
+
+                return resultFile;
+            }
+        };
+    }
+}
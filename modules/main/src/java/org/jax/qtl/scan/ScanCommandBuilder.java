@@ -22,6 +22,7 @@ package org.jax.qtl.scan;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.logging.Logger;
 
 import org.jax.qtl.cross.Cross;
@@ -112,6 +113,8 @@ public class ScanCommandBuilder
     
     private static final String SEPERATE_PERMUTATIONS_FOR_AUTOSOME_PARAMETER_NAME = "perm.Xsp";
     
+    private Long permutationSeed;
+    
     private volatile String scanResultName;
 
     private volatile boolean verbosePermutationsOutput;
@@ -358,6 +361,34 @@ public class ScanCommandBuilder
         this.numberOfPermutations = numberOfPermutations;
     }
 
+    /**
+     * Getter for the master seed that all of the permutation random
+     * numbers are derived from. If no seed has been set a new one is
+     * picked the first time this is called, and it sticks so that
+     * every part of a permutation run sees the same seed
+     * @return
+     *          the permutation seed
+     */
+    public synchronized long getPermutationSeed()
+    {
+        if(this.permutationSeed == null)
+        {
+            this.permutationSeed = Long.valueOf(new Random().nextLong());
+        }
+        return this.permutationSeed.longValue();
+    }
+
+    /**
+     * Setter for the master permutation seed. Running the same
+     * permutations with the same seed gives the same result
+     * @param permutationSeed
+     *          the seed or null to have a new one picked
+     */
+    public synchronized void setPermutationSeed(Long permutationSeed)
+    {
+        this.permutationSeed = permutationSeed;
+    }
+
     /**
      * Getter that determines if we use seperate permutations for the
      * autosome
@@ -409,15 +440,17 @@ public class ScanCommandBuilder
      * Create a parameter list that includes all of the parameters from
      * {@link #createParameterListWithoutPermutations()} plus any permutation
      * specific parameters that we need.
+     * @param numberOfPermutations
+     *          the number of permutations to use
      * @return
      *          the parameter list or null if there are no permutation specific
      *          parameters
      */
-    private List<RCommandParameter> createParameterListWithPermutations()
+    private List<RCommandParameter> createParameterListWithPermutations(
+            Integer numberOfPermutations)
     {
         // take care of "n.perm" parameter
         ScanType scanType = this.getScanType();
-        Integer numberOfPermutations = this.numberOfPermutations;
         if(numberOfPermutations == null || numberOfPermutations.intValue() == 0)
         {
             return null;
@@ -619,6 +652,58 @@ public class ScanCommandBuilder
         return commandParameters;
     }
     
+    /**
+     * Get the R expression for the additive covariate matrix (phenotype
+     * and genotype covariates together) exactly as it's passed to the scan
+     * @return
+     *          the expression or null if there are no additive covariates
+     */
+    public String getAdditiveCovariatesExpression()
+    {
+        Cross cross = this.cross;
+        String[] additivePhenotypeCovariates = this.additivePhenotypeCovariates;
+        List<GeneticMarker> additiveGenotypeCovariates = this.additiveGenotypeCovariates;
+        if(cross != null &&
+           (additivePhenotypeCovariates != null && additivePhenotypeCovariates.length > 0 ||
+            additiveGenotypeCovariates != null && !additiveGenotypeCovariates.isEmpty()))
+        {
+            return this.covariatesToExpression(
+                    additivePhenotypeCovariates,
+                    additiveGenotypeCovariates,
+                    cross);
+        }
+        else
+        {
+            return null;
+        }
+    }
+    
+    /**
+     * Get the R expression for the interactive covariate matrix
+     * @see #getAdditiveCovariatesExpression()
+     * @return
+     *          the expression or null if there are no interactive covariates
+     */
+    public String getInteractiveCovariatesExpression()
+    {
+        Cross cross = this.cross;
+        String[] interactivePhenotypeCovariates = this.interactivePhenotypeCovariates;
+        List<GeneticMarker> interactiveGenotypeCovariates = this.interactiveGenotypeCovariates;
+        if(cross != null &&
+           (interactivePhenotypeCovariates != null && interactivePhenotypeCovariates.length > 0 ||
+            interactiveGenotypeCovariates != null && !interactiveGenotypeCovariates.isEmpty()))
+        {
+            return this.covariatesToExpression(
+                    interactivePhenotypeCovariates,
+                    interactiveGenotypeCovariates,
+                    cross);
+        }
+        else
+        {
+            return null;
+        }
+    }
+    
     /**
      * Convert the covariates to an expression string
      * @param phenotypeCovariates
@@ -776,7 +861,8 @@ public class ScanCommandBuilder
      */
     public RCommand getCommandWithPermutations()
     {
-        List<RCommandParameter> parameters = this.createParameterListWithPermutations();
+        List<RCommandParameter> parameters = this.createParameterListWithPermutations(
+                this.numberOfPermutations);
         String scanResultName = this.getScanResultName();
         
         if(parameters == null)
@@ -804,6 +890,33 @@ public class ScanCommandBuilder
         }
     }
     
+    /**
+     * Get the permutation method invocation (with no assignment) using the
+     * given number of permutations in place of
+     * {@link #getNumberOfPermutations()}. This is what lets permutations
+     * be split up into independent chunks.
+     * @param numberOfPermutations
+     *          the number of permutations for the invocation to run
+     * @return
+     *          the invocation or null if the number of permutations isn't
+     *          positive
+     */
+    public RMethodInvocationCommand getPermutationsInvocation(
+            int numberOfPermutations)
+    {
+        if(numberOfPermutations <= 0)
+        {
+            return null;
+        }
+        else
+        {
+            return new RMethodInvocationCommand(
+                    this.getScanType().getRMethodName(),
+                    this.createParameterListWithPermutations(
+                            Integer.valueOf(numberOfPermutations)));
+        }
+    }
+    
     /**
      * Get the command that provides an accessor to the phenotype attribute.
      * @return
@@ -995,4 +1108,40 @@ public class ScanCommandBuilder
     {
         this.interactiveGenotypeCovariates = interactiveGenotypeCovariates;
     }
+
+    /**
+     * Create a copy of this builder. The copy can be changed (for
+     * instance given a different cross, phenotype or result name) without
+     * changing this builder, which makes this builder usable as a template
+     * @return
+     *          the copy
+     */
+    public ScanCommandBuilder copy()
+    {
+        ScanCommandBuilder copy = new ScanCommandBuilder();
+        copy.cross = this.cross;
+        copy.chromosomeNames = this.chromosomeNames;
+        copy.phenotypeIndices = this.phenotypeIndices;
+        copy.phenotypeDistribution = this.phenotypeDistribution;
+        copy.scanMethod = this.scanMethod;
+        copy.scanType = this.scanType;
+        copy.additivePhenotypeCovariates = this.additivePhenotypeCovariates;
+        copy.additiveGenotypeCovariates = this.additiveGenotypeCovariates;
+        copy.interactivePhenotypeCovariates = this.interactivePhenotypeCovariates;
+        copy.interactiveGenotypeCovariates = this.interactiveGenotypeCovariates;
+        copy.useMissingPhenotypes = this.useMissingPhenotypes;
+        copy.convergenceTolerance = this.convergenceTolerance;
+        copy.maximumNumberOfIterations = this.maximumNumberOfIterations;
+        copy.numberOfPermutations = this.numberOfPermutations;
+        copy.seperatePermutationsForAutosome = this.seperatePermutationsForAutosome;
+        synchronized(this)
+        {
+            copy.permutationSeed = this.permutationSeed;
+        }
+        copy.scanResultName = this.scanResultName;
+        copy.verbosePermutationsOutput = this.verbosePermutationsOutput;
+        copy.useAllMarkers = this.useAllMarkers;
+        copy.cleanOutput = this.cleanOutput;
+        return copy;
+    }
 }
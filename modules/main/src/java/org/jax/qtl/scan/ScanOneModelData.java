@@ -0,0 +1,697 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan;
+
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jax.qtl.cross.Cross;
+import org.jax.qtl.cross.CrossChromosome;
+import org.jax.qtl.cross.GenotypeProbabilities;
+import org.jax.qtl.cross.Cross.CrossSubType;
+import org.jax.qtl.util.MappedRArrayTransfer;
+import org.jax.qtl.util.RCommandBatch;
+import org.jax.qtl.util.RSessionEpoch;
+import org.jax.qtl.util.ReadOnlyRCommand;
+import org.jax.r.RUtilities;
+import org.jax.r.jriutilities.RInterface;
+import org.rosuda.JRI.REXP;
+
+/**
+ * Everything that the java scan engines need from R to run a single-QTL
+ * scan: the genotype probabilities for the scanned chromosomes and the
+ * phenotype, covariate and sex values. Values are pulled from R using the
+ * same expressions that the R scan would see so that factors and genotype
+ * covariates are coded the same way. All matrices are column-major with
+ * individuals varying fastest.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class ScanOneModelData
+{
+    private final Cross cross;
+
+    private final CrossSubType crossSubType;
+
+    private final CrossChromosome[] chromosomes;
+
+    private final GenotypeProbabilities[] genotypeProbabilities;
+
+    private final boolean[] xChromosomes;
+
+    private final int individualCount;
+
+    private final int[] phenotypeIndices;
+
+    private final double[] phenotypeValues;
+
+    private final double[] additiveCovariates;
+
+    private final int additiveCovariateCount;
+
+    private final double[] interactiveCovariates;
+
+    private final int interactiveCovariateCount;
+
+    private final double[] sexes;
+
+    private final double[] paternalGrandmothers;
+
+    private final boolean useMissingPhenotypes;
+
+    /**
+     * flags for the individuals that are complete for every phenotype
+     * selected in the scan (not just the ones in this data) or null if
+     * {@link #useMissingPhenotypes} is true
+     */
+    private final boolean[] completeForAllPhenotypes;
+
+    /**
+     * Constructor
+     * @param cross
+     *          the cross
+     * @param crossSubType
+     *          the cross sub-type. this is passed separately so that the
+     *          model can be built without a cross in R
+     * @param chromosomes
+     *          the chromosomes to scan
+     * @param genotypeProbabilities
+     *          the probabilities for each chromosome
+     * @param xChromosomes
+     *          flags for which of the chromosomes are X
+     * @param individualCount
+     *          the number of individuals
+     * @param phenotypeIndices
+     *          the 0-based indices of the scanned phenotypes
+     * @param phenotypeValues
+     *          the phenotype values
+     * @param additiveCovariates
+     *          the additive covariates
+     * @param interactiveCovariates
+     *          the interactive covariates
+     * @param sexes
+     *          the sex of each individual (1 for male) or null if unknown
+     * @param paternalGrandmothers
+     *          the pgm of each individual or null if unknown
+     * @param useMissingPhenotypes
+     *          if true individuals only need to be complete for the
+     *          phenotype being scanned. otherwise they need to be complete
+     *          for every phenotype
+     * @param completeForAllPhenotypes
+     *          flags for the individuals with no missing values in any of
+     *          the phenotypes selected for the scan. this can be null if
+     *          useMissingPhenotypes is true
+     */
+    public ScanOneModelData(
+            Cross cross,
+            CrossSubType crossSubType,
+            CrossChromosome[] chromosomes,
+            GenotypeProbabilities[] genotypeProbabilities,
+            boolean[] xChromosomes,
+            int individualCount,
+            int[] phenotypeIndices,
+            double[] phenotypeValues,
+            double[] additiveCovariates,
+            double[] interactiveCovariates,
+            double[] sexes,
+            double[] paternalGrandmothers,
+            boolean useMissingPhenotypes,
+            boolean[] completeForAllPhenotypes)
+    {
+        if(phenotypeValues.length != individualCount * phenotypeIndices.length ||
+           additiveCovariates.length % Math.max(1, individualCount) != 0 ||
+           interactiveCovariates.length % Math.max(1, individualCount) != 0)
+        {
+            throw new IllegalArgumentException(
+                    "phenotype and covariate matrices must have " +
+                    individualCount + " rows");
+        }
+
+        this.cross = cross;
+        this.crossSubType = crossSubType;
+        this.chromosomes = chromosomes;
+        this.genotypeProbabilities = genotypeProbabilities;
+        this.xChromosomes = xChromosomes;
+        this.individualCount = individualCount;
+        this.phenotypeIndices = phenotypeIndices;
+        this.phenotypeValues = phenotypeValues;
+        this.additiveCovariates = additiveCovariates;
+        this.additiveCovariateCount = individualCount == 0 ?
+                0 :
+                additiveCovariates.length / individualCount;
+        this.interactiveCovariates = interactiveCovariates;
+        this.interactiveCovariateCount = individualCount == 0 ?
+                0 :
+                interactiveCovariates.length / individualCount;
+        this.sexes = sexes;
+        this.paternalGrandmothers = paternalGrandmothers;
+        this.useMissingPhenotypes = useMissingPhenotypes;
+        this.completeForAllPhenotypes = completeForAllPhenotypes;
+    }
+
+    /**
+     * Pull the model data for the given scan settings out of R
+     * @param scanCommandBuilder
+     *          the scan settings
+     * @return
+     *          the data or null if genotype probabilities haven't been
+     *          calculated for every scanned chromosome
+     */
+    public static ScanOneModelData fetchModelData(
+            ScanCommandBuilder scanCommandBuilder)
+    {
+        return ScanOneModelData.fetchModelData(
+                scanCommandBuilder,
+                scanCommandBuilder.getPhenotypeIndices());
+    }
+
+    /**
+     * Pull the model data for a subset of the scanned phenotypes out of R.
+     * This is how we stream through very large phenotype selections one
+     * block at a time. Complete cases are still worked out over every
+     * selected phenotype
+     * @param scanCommandBuilder
+     *          the scan settings
+     * @param phenotypeIndices
+     *          the 0-based indices of the phenotypes to fetch values for
+     * @return
+     *          the data or null if genotype probabilities haven't been
+     *          calculated for every scanned chromosome
+     */
+    public static ScanOneModelData fetchModelData(
+            ScanCommandBuilder scanCommandBuilder,
+            int[] phenotypeIndices)
+    {
+        Cross cross = scanCommandBuilder.getCross();
+        RInterface rInterface = cross.getRInterface();
+        String crossAccessor = cross.getAccessorExpressionString();
+
+        // we scan in the cross's chromosome order like R/qtl does
+        String[] selectedNames = scanCommandBuilder.getChromosomeNames();
+        List<String> selectedNameList = selectedNames == null ?
+                null :
+                Arrays.asList(selectedNames);
+        List<CrossChromosome> chromosomeList = new ArrayList<CrossChromosome>();
+        for(CrossChromosome chromosome: cross.getGenotypeData())
+        {
+            if(selectedNameList == null || selectedNameList.isEmpty() ||
+               selectedNameList.contains(chromosome.getChromosomeName()))
+            {
+                chromosomeList.add(chromosome);
+            }
+        }
+
+        CrossChromosome[] chromosomes =
+            chromosomeList.toArray(new CrossChromosome[chromosomeList.size()]);
+        GenotypeProbabilities[] genotypeProbabilities =
+            new GenotypeProbabilities[chromosomes.length];
+        boolean[] xChromosomes = new boolean[chromosomes.length];
+        for(int i = 0; i < chromosomes.length; i++)
+        {
+            genotypeProbabilities[i] = chromosomes[i].getGenotypeProbabilities();
+            if(genotypeProbabilities[i] == null)
+            {
+                return null;
+            }
+            xChromosomes[i] = chromosomes[i].isXChromosome();
+        }
+
+        int[] onesBasedPhenotypeIndices =
+            ScanOneModelData.toOnesBased(phenotypeIndices);
+        int[] allPhenotypeIndices = scanCommandBuilder.getPhenotypeIndices();
+        boolean useMissingPhenotypes =
+            scanCommandBuilder.getUseMissingPhenotypes() ||
+            allPhenotypeIndices.length == 1;
+
+        RCommandBatch batch = new RCommandBatch(rInterface);
+        String additiveExpression =
+            scanCommandBuilder.getAdditiveCovariatesExpression();
+        int additiveIndex = additiveExpression == null ?
+                -1 :
+                batch.addExpression(
+                        "as.double(as.matrix(" + additiveExpression + "))");
+        String interactiveExpression =
+            scanCommandBuilder.getInteractiveCovariatesExpression();
+        int interactiveIndex = interactiveExpression == null ?
+                -1 :
+                batch.addExpression(
+                        "as.double(as.matrix(" + interactiveExpression + "))");
+        int individualCountIndex = batch.addExpression(
+                "as.integer(nrow(" + crossAccessor + "$pheno))");
+        int sexIndex = batch.addExpression(
+                "as.double(qtl:::getsex(" + crossAccessor + ")$sex)");
+        int paternalGrandmotherIndex = batch.addExpression(
+                "as.double(qtl:::getsex(" + crossAccessor + ")$pgm)");
+        int completeIndex = useMissingPhenotypes ?
+                -1 :
+                batch.addExpression(
+                        "as.integer(complete.cases(" + crossAccessor + "$pheno[, " +
+                        RUtilities.intArrayToRVector(
+                                ScanOneModelData.toOnesBased(allPhenotypeIndices)) +
+                        ", drop=FALSE]))");
+        REXP[] results = batch.evaluate();
+
+        int individualCount = results[individualCountIndex].asInt();
+        double[] additiveCovariates = additiveIndex == -1 ?
+                new double[0] :
+                ScanOneModelData.toDoubleArray(results[additiveIndex]);
+        double[] interactiveCovariates = interactiveIndex == -1 ?
+                new double[0] :
+                ScanOneModelData.toDoubleArray(results[interactiveIndex]);
+        double[] sexes = ScanOneModelData.toDoubleArray(results[sexIndex]);
+        double[] paternalGrandmothers = ScanOneModelData.toDoubleArray(
+                results[paternalGrandmotherIndex]);
+
+        // phenotype blocks can get big so they come across as an array
+        // transfer rather than a JRI copy
+        DoubleBuffer phenotypeBuffer = MappedRArrayTransfer.fetchDoubles(
+                rInterface,
+                "sapply(" + crossAccessor + "$pheno[, " +
+                RUtilities.intArrayToRVector(onesBasedPhenotypeIndices) +
+                ", drop=FALSE], as.numeric)",
+                (long)individualCount * phenotypeIndices.length);
+        double[] phenotypeValues = new double[phenotypeBuffer.limit()];
+        phenotypeBuffer.get(phenotypeValues);
+
+        return new ScanOneModelData(
+                cross,
+                cross.getCrossSubType(),
+                chromosomes,
+                genotypeProbabilities,
+                xChromosomes,
+                individualCount,
+                phenotypeIndices.clone(),
+                phenotypeValues,
+                additiveCovariates,
+                interactiveCovariates,
+                sexes.length == individualCount ? sexes : null,
+                paternalGrandmothers.length == individualCount ?
+                        paternalGrandmothers :
+                        null,
+                useMissingPhenotypes,
+                completeIndex == -1 ?
+                        null :
+                        ScanOneModelData.toBooleanArray(results[completeIndex]));
+    }
+
+    /**
+     * Determine if R/qtl would revise the X chromosome data for this scan.
+     * When the individuals are a mix of sexes (or for an F2, females from
+     * both cross directions) R/qtl's <code>reviseXdata</code> splits the X
+     * genotype probabilities into sex and direction specific columns. We
+     * don't build that design in java so those scans have to go to R
+     * @param scanCommandBuilder
+     *          the scan settings
+     * @return
+     *          true if a scanned X chromosome needs the revised data
+     */
+    public static boolean needsRevisedXData(
+            ScanCommandBuilder scanCommandBuilder)
+    {
+        Cross cross = scanCommandBuilder.getCross();
+        String[] selectedNames = scanCommandBuilder.getChromosomeNames();
+        List<String> selectedNameList = selectedNames == null ?
+                null :
+                Arrays.asList(selectedNames);
+        boolean anyXChromosomes = false;
+        for(CrossChromosome chromosome: cross.getGenotypeData())
+        {
+            if(chromosome.isXChromosome() &&
+               (selectedNameList == null || selectedNameList.isEmpty() ||
+                selectedNameList.contains(chromosome.getChromosomeName())))
+            {
+                anyXChromosomes = true;
+                break;
+            }
+        }
+
+        if(!anyXChromosomes)
+        {
+            return false;
+        }
+        else
+        {
+            // individuals with no sex are treated as female
+            String crossAccessor = cross.getAccessorExpressionString();
+            boolean f2 = cross.getCrossSubType() == CrossSubType.F2;
+            REXP mixedExpression = RSessionEpoch.evaluateCommand(
+                    cross.getRInterface(),
+                    new ReadOnlyRCommand(
+                            "local({sp <- qtl:::getsex(" + crossAccessor + "); " +
+                            "n <- nrow(" + crossAccessor + "$pheno); " +
+                            "sex <- if(is.null(sp$sex)) rep(0, n) else sp$sex; " +
+                            "pgm <- if(is.null(sp$pgm)) rep(0, n) else sp$pgm; " +
+                            "as.integer(length(unique(sex)) > 1" +
+                            (f2 ? " || length(unique(pgm[sex == 0])) > 1" : "") +
+                            ")})"));
+            return mixedExpression == null || mixedExpression.asInt() != 0;
+        }
+    }
+
+    /**
+     * Convert 0-based indices to R's 1-based indices
+     * @param indices
+     *          the 0-based indices
+     * @return
+     *          the 1-based indices
+     */
+    private static int[] toOnesBased(int[] indices)
+    {
+        int[] onesBasedIndices = new int[indices.length];
+        for(int i = 0; i < indices.length; i++)
+        {
+            onesBasedIndices[i] = indices[i] + 1;
+        }
+        return onesBasedIndices;
+    }
+
+    /**
+     * Convert an R integer flag vector into a java array
+     * @param expression
+     *          the R result
+     * @return
+     *          the flags
+     */
+    private static boolean[] toBooleanArray(REXP expression)
+    {
+        int[] flags = expression == null ? null : expression.asIntArray();
+        boolean[] values = new boolean[flags == null ? 0 : flags.length];
+        for(int i = 0; i < values.length; i++)
+        {
+            values[i] = flags[i] != 0;
+        }
+        return values;
+    }
+
+    /**
+     * Convert a numeric R result into a java array
+     * @param expression
+     *          the R result
+     * @return
+     *          the values (empty for R's NULL)
+     */
+    private static double[] toDoubleArray(REXP expression)
+    {
+        double[] values = expression == null ? null : expression.asDoubleArray();
+        return values == null ? new double[0] : values;
+    }
+
+    /**
+     * Getter for the cross
+     * @return
+     *          the cross
+     */
+    public Cross getCross()
+    {
+        return this.cross;
+    }
+
+    /**
+     * Getter for the cross sub-type
+     * @return
+     *          the sub-type
+     */
+    public CrossSubType getCrossSubType()
+    {
+        return this.crossSubType;
+    }
+
+    /**
+     * Getter for the number of scanned chromosomes
+     * @return
+     *          the chromosome count
+     */
+    public int getChromosomeCount()
+    {
+        return this.chromosomes.length;
+    }
+
+    /**
+     * Get a scanned chromosome
+     * @param chromosomeIndex
+     *          the index into the scanned chromosomes
+     * @return
+     *          the chromosome
+     */
+    public CrossChromosome getChromosome(int chromosomeIndex)
+    {
+        return this.chromosomes[chromosomeIndex];
+    }
+
+    /**
+     * Get the genotype probabilities for a scanned chromosome
+     * @param chromosomeIndex
+     *          the index into the scanned chromosomes
+     * @return
+     *          the probabilities
+     */
+    public GenotypeProbabilities getGenotypeProbabilities(int chromosomeIndex)
+    {
+        return this.genotypeProbabilities[chromosomeIndex];
+    }
+
+    /**
+     * Determine if a scanned chromosome is the X chromosome
+     * @param chromosomeIndex
+     *          the index into the scanned chromosomes
+     * @return
+     *          true for X
+     */
+    public boolean isXChromosome(int chromosomeIndex)
+    {
+        return this.xChromosomes[chromosomeIndex];
+    }
+
+    /**
+     * Get the total number of positions over all of the scanned chromosomes
+     * @return
+     *          the position count
+     */
+    public int getTotalPositionCount()
+    {
+        int totalPositionCount = 0;
+        for(GenotypeProbabilities currProbabilities: this.genotypeProbabilities)
+        {
+            totalPositionCount += currProbabilities.getPositionCount();
+        }
+        return totalPositionCount;
+    }
+
+    /**
+     * Getter for the number of individuals
+     * @return
+     *          the individual count
+     */
+    public int getIndividualCount()
+    {
+        return this.individualCount;
+    }
+
+    /**
+     * Getter for the number of scanned phenotypes
+     * @return
+     *          the phenotype count
+     */
+    public int getPhenotypeCount()
+    {
+        return this.phenotypeIndices.length;
+    }
+
+    /**
+     * Getter for the 0-based indices of the scanned phenotypes
+     * @return
+     *          the indices
+     */
+    public int[] getPhenotypeIndices()
+    {
+        return this.phenotypeIndices.clone();
+    }
+
+    /**
+     * Get a phenotype value
+     * @param phenotypeNumber
+     *          the index into the scanned phenotypes
+     * @param individualIndex
+     *          the individual index
+     * @return
+     *          the value (NaN for missing)
+     */
+    public double getPhenotypeValue(int phenotypeNumber, int individualIndex)
+    {
+        return this.phenotypeValues[
+                phenotypeNumber * this.individualCount + individualIndex];
+    }
+
+    /**
+     * Getter for the number of additive covariates
+     * @return
+     *          the count
+     */
+    public int getAdditiveCovariateCount()
+    {
+        return this.additiveCovariateCount;
+    }
+
+    /**
+     * Get an additive covariate value
+     * @param covariateIndex
+     *          the covariate index
+     * @param individualIndex
+     *          the individual index
+     * @return
+     *          the value (NaN for missing)
+     */
+    public double getAdditiveCovariate(int covariateIndex, int individualIndex)
+    {
+        return this.additiveCovariates[
+                covariateIndex * this.individualCount + individualIndex];
+    }
+
+    /**
+     * Getter for the number of interactive covariates
+     * @return
+     *          the count
+     */
+    public int getInteractiveCovariateCount()
+    {
+        return this.interactiveCovariateCount;
+    }
+
+    /**
+     * Get an interactive covariate value
+     * @param covariateIndex
+     *          the covariate index
+     * @param individualIndex
+     *          the individual index
+     * @return
+     *          the value (NaN for missing)
+     */
+    public double getInteractiveCovariate(int covariateIndex, int individualIndex)
+    {
+        return this.interactiveCovariates[
+                covariateIndex * this.individualCount + individualIndex];
+    }
+
+    /**
+     * Get the sex of an individual
+     * @param individualIndex
+     *          the individual index
+     * @return
+     *          1 for male, 0 for female or NaN if unknown
+     */
+    public double getSex(int individualIndex)
+    {
+        return this.sexes == null ? Double.NaN : this.sexes[individualIndex];
+    }
+
+    /**
+     * Get the pgm of an individual
+     * @param individualIndex
+     *          the individual index
+     * @return
+     *          the pgm (0 or 1) or NaN if unknown
+     */
+    public double getPaternalGrandmother(int individualIndex)
+    {
+        return this.paternalGrandmothers == null ?
+                Double.NaN :
+                this.paternalGrandmothers[individualIndex];
+    }
+
+    /**
+     * Determine if individuals only need to be complete for the phenotype
+     * being scanned
+     * @return
+     *          true if each phenotype uses its own complete cases
+     */
+    public boolean getUseMissingPhenotypes()
+    {
+        return this.useMissingPhenotypes;
+    }
+
+    /**
+     * Determine which individuals can be used for a phenotype. These are
+     * the individuals with no missing covariates and no missing values for
+     * the phenotype (or for any phenotype selected in the scan if
+     * {@link #getUseMissingPhenotypes()} is false)
+     * @param phenotypeNumber
+     *          the index into the scanned phenotypes
+     * @return
+     *          the usable individual indices in order
+     */
+    public int[] getCompleteIndividuals(int phenotypeNumber)
+    {
+        int[] complete = new int[this.individualCount];
+        int completeCount = 0;
+        for(int i = 0; i < this.individualCount; i++)
+        {
+            if(this.isComplete(phenotypeNumber, i))
+            {
+                complete[completeCount] = i;
+                completeCount++;
+            }
+        }
+
+        int[] trimmed = new int[completeCount];
+        System.arraycopy(complete, 0, trimmed, 0, completeCount);
+        return trimmed;
+    }
+
+    /**
+     * Determine if an individual can be used for a phenotype
+     * @param phenotypeNumber
+     *          the index into the scanned phenotypes
+     * @param individualIndex
+     *          the individual
+     * @return
+     *          true if the individual is complete
+     */
+    private boolean isComplete(int phenotypeNumber, int individualIndex)
+    {
+        if(Double.isNaN(this.getPhenotypeValue(phenotypeNumber, individualIndex)))
+        {
+            return false;
+        }
+        else if(this.completeForAllPhenotypes != null &&
+                !this.completeForAllPhenotypes[individualIndex])
+        {
+            return false;
+        }
+
+        for(int c = 0; c < this.additiveCovariateCount; c++)
+        {
+            if(Double.isNaN(this.getAdditiveCovariate(c, individualIndex)))
+            {
+                return false;
+            }
+        }
+        for(int c = 0; c < this.interactiveCovariateCount; c++)
+        {
+            if(Double.isNaN(this.getInteractiveCovariate(c, individualIndex)))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
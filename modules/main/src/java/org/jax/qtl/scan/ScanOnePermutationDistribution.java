@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jax.qtl.util.RCommandBatch;
+import org.jax.r.jriutilities.RInterface;
+import org.rosuda.JRI.REXP;
+
+/**
+ * The genome-wide maximum LOD distribution for a single LOD column of a
+ * <code>scanoneperm</code> object. The maxima are pulled out of R once
+ * and sorted so that p-values and thresholds don't need R. When the
+ * permutations were run with <code>perm.Xsp=TRUE</code> the autosome and
+ * X chromosome distributions are kept separately and adjusted by their
+ * lengths the same way that R/qtl does.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class ScanOnePermutationDistribution
+{
+    private final double[] sortedAutosomeMaxima;
+
+    /**
+     * the sorted X chromosome maxima or null if the X chromosome isn't
+     * permuted separately
+     */
+    private final double[] sortedXChromosomeMaxima;
+
+    private final double autosomeLength;
+
+    private final double xChromosomeLength;
+
+    private final Set<String> xChromosomeNames;
+
+    /**
+     * Constructor
+     * @param autosomeMaxima
+     *          the maximum LOD of each permutation (all chromosomes
+     *          unless the X chromosome is separate). this array is sorted
+     *          in place
+     * @param xChromosomeMaxima
+     *          the X chromosome maxima or null if the X chromosome isn't
+     *          separate. this array is sorted in place
+     * @param autosomeLength
+     *          the total autosome length (only used with separate X)
+     * @param xChromosomeLength
+     *          the total X chromosome length (only used with separate X)
+     * @param xChromosomeNames
+     *          the names of the X chromosomes
+     */
+    public ScanOnePermutationDistribution(
+            double[] autosomeMaxima,
+            double[] xChromosomeMaxima,
+            double autosomeLength,
+            double xChromosomeLength,
+            Set<String> xChromosomeNames)
+    {
+        Arrays.sort(autosomeMaxima);
+        if(xChromosomeMaxima != null)
+        {
+            Arrays.sort(xChromosomeMaxima);
+        }
+
+        this.sortedAutosomeMaxima = autosomeMaxima;
+        this.sortedXChromosomeMaxima = xChromosomeMaxima;
+        this.autosomeLength = autosomeLength;
+        this.xChromosomeLength = xChromosomeLength;
+        this.xChromosomeNames = Collections.unmodifiableSet(xChromosomeNames);
+    }
+
+    /**
+     * Pull the distribution for a LOD column out of R in a single round
+     * trip
+     * @param rInterface
+     *          the R interface
+     * @param permutationsAccessor
+     *          the accessor for the <code>scanoneperm</code> object
+     * @param lodColumnIndex
+     *          the 0-based LOD column index
+     * @return
+     *          the distribution
+     */
+    public static ScanOnePermutationDistribution fetchDistribution(
+            RInterface rInterface,
+            String permutationsAccessor,
+            int lodColumnIndex)
+    {
+        String p = permutationsAccessor;
+        String column = Integer.toString(lodColumnIndex + 1);
+        REXP[] results = RCommandBatch.evaluateExpressions(
+                rInterface,
+                "as.integer(is.list(" + p + "))",
+                "as.double(if(is.list(" + p + ")) " + p + "$A[ , " + column + "] " +
+                "else " + p + "[ , " + column + "])",
+                "if(is.list(" + p + ")) as.double(" + p + "$X[ , " + column + "]) " +
+                "else numeric(0)",
+                "if(is.list(" + p + ")) as.double(attr(" + p + ", \"L\")) " +
+                "else numeric(0)",
+                "as.character(names(attr(" + p + ", \"xchr\"))" +
+                "[as.logical(attr(" + p + ", \"xchr\"))])");
+
+        boolean xChromosomeIsSeparate = results[0].asInt() == 1;
+        double[] autosomeMaxima = results[1].asDoubleArray();
+        double[] xChromosomeMaxima = null;
+        double autosomeLength = 0.0;
+        double xChromosomeLength = 0.0;
+        if(xChromosomeIsSeparate)
+        {
+            xChromosomeMaxima = results[2].asDoubleArray();
+            double[] lengths = results[3].asDoubleArray();
+            if(lengths != null && lengths.length == 2)
+            {
+                autosomeLength = lengths[0];
+                xChromosomeLength = lengths[1];
+            }
+        }
+
+        Set<String> xChromosomeNames = new HashSet<String>();
+        String[] xChromosomeNameArray = results[4].asStringArray();
+        if(xChromosomeNameArray != null)
+        {
+            xChromosomeNames.addAll(Arrays.asList(xChromosomeNameArray));
+        }
+
+        return new ScanOnePermutationDistribution(
+                ScanOnePermutationDistribution.removeMissing(autosomeMaxima),
+                xChromosomeMaxima == null ?
+                        null :
+                        ScanOnePermutationDistribution.removeMissing(xChromosomeMaxima),
+                autosomeLength,
+                xChromosomeLength,
+                xChromosomeNames);
+    }
+
+    /**
+     * Drop the NaNs from the maxima
+     * @param maxima
+     *          the maxima (may be null)
+     * @return
+     *          the maxima without NaNs
+     */
+    private static double[] removeMissing(double[] maxima)
+    {
+        if(maxima == null)
+        {
+            return new double[0];
+        }
+
+        int count = 0;
+        for(double maximum: maxima)
+        {
+            if(!Double.isNaN(maximum))
+            {
+                count++;
+            }
+        }
+        if(count == maxima.length)
+        {
+            return maxima;
+        }
+
+        double[] nonMissing = new double[count];
+        for(int i = 0, j = 0; i < maxima.length; i++)
+        {
+            if(!Double.isNaN(maxima[i]))
+            {
+                nonMissing[j++] = maxima[i];
+            }
+        }
+        return nonMissing;
+    }
+
+    /**
+     * Determine if the X chromosome was permuted separately
+     * @return
+     *          true if it was
+     */
+    public boolean getXChromosomeIsSeparate()
+    {
+        return this.sortedXChromosomeMaxima != null;
+    }
+
+    /**
+     * Determine if every permuted component (the autosomes and, when it's
+     * separate, the X chromosome) has at least one non-missing maximum.
+     * Without that there's nothing to calculate p-values or thresholds from
+     * @return
+     *          true if there are maxima for every component
+     */
+    public boolean hasMaxima()
+    {
+        return this.sortedAutosomeMaxima.length > 0 &&
+               (this.sortedXChromosomeMaxima == null ||
+                this.sortedXChromosomeMaxima.length > 0);
+    }
+
+    /**
+     * Determine if the given chromosome was treated as an X chromosome by
+     * the permutations
+     * @param chromosomeName
+     *          the chromosome name
+     * @return
+     *          true for X chromosomes
+     */
+    public boolean isXChromosome(String chromosomeName)
+    {
+        return this.xChromosomeNames.contains(chromosomeName);
+    }
+
+    /**
+     * Get the genome-scan-adjusted p-value for a LOD score
+     * @param lodScore
+     *          the LOD score
+     * @param xChromosome
+     *          true if the score comes from an X chromosome
+     * @return
+     *          the p-value
+     */
+    public double getPValue(double lodScore, boolean xChromosome)
+    {
+        if(this.getXChromosomeIsSeparate())
+        {
+            double totalLength = this.autosomeLength + this.xChromosomeLength;
+            double[] sortedMaxima = xChromosome ?
+                    this.sortedXChromosomeMaxima :
+                    this.sortedAutosomeMaxima;
+            double componentLength = xChromosome ?
+                    this.xChromosomeLength :
+                    this.autosomeLength;
+            double rawPValue = ScanOnePermutationDistribution.getFractionAtLeast(
+                    sortedMaxima,
+                    lodScore);
+            return 1.0 - Math.pow(1.0 - rawPValue, totalLength / componentLength);
+        }
+        else
+        {
+            return ScanOnePermutationDistribution.getFractionAtLeast(
+                    this.sortedAutosomeMaxima,
+                    lodScore);
+        }
+    }
+
+    /**
+     * Get the LOD threshold for an alpha value. This is R's default
+     * (type 7) quantile of the maxima
+     * @param alpha
+     *          the alpha value
+     * @param xChromosome
+     *          true if we want the X chromosome threshold
+     * @return
+     *          the threshold
+     */
+    public double getLodThreshold(double alpha, boolean xChromosome)
+    {
+        if(this.getXChromosomeIsSeparate())
+        {
+            double totalLength = this.autosomeLength + this.xChromosomeLength;
+            double[] sortedMaxima = xChromosome ?
+                    this.sortedXChromosomeMaxima :
+                    this.sortedAutosomeMaxima;
+            double componentLength = xChromosome ?
+                    this.xChromosomeLength :
+                    this.autosomeLength;
+            return ScanOnePermutationDistribution.getQuantile(
+                    sortedMaxima,
+                    Math.pow(1.0 - alpha, componentLength / totalLength));
+        }
+        else
+        {
+            return ScanOnePermutationDistribution.getQuantile(
+                    this.sortedAutosomeMaxima,
+                    1.0 - alpha);
+        }
+    }
+
+    /**
+     * Get the fraction of the sorted values that are greater than or equal
+     * to the given value
+     * @param sortedValues
+     *          the sorted values
+     * @param value
+     *          the value
+     * @return
+     *          the fraction
+     */
+    private static double getFractionAtLeast(double[] sortedValues, double value)
+    {
+        if(sortedValues.length == 0 || Double.isNaN(value))
+        {
+            return Double.NaN;
+        }
+
+        // binary search for the 1st index whose value is >= the given value
+        int low = 0;
+        int high = sortedValues.length;
+        while(low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if(sortedValues[middle] < value)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+
+        return (sortedValues.length - low) / (double)sortedValues.length;
+    }
+
+    /**
+     * Get a type 7 quantile of the sorted values
+     * @param sortedValues
+     *          the sorted values
+     * @param probability
+     *          the probability
+     * @return
+     *          the quantile
+     */
+    private static double getQuantile(double[] sortedValues, double probability)
+    {
+        if(sortedValues.length == 0 || Double.isNaN(probability))
+        {
+            return Double.NaN;
+        }
+
+        double h = (sortedValues.length - 1) * Math.min(1.0, Math.max(0.0, probability));
+        int lowIndex = (int)Math.floor(h);
+        int highIndex = Math.min(sortedValues.length - 1, lowIndex + 1);
+        return sortedValues[lowIndex] +
+               (h - lowIndex) * (sortedValues[highIndex] - sortedValues[lowIndex]);
+    }
+}
@@ -31,8 +31,9 @@ import java.util.logging.Logger;
 import org.jax.qtl.cross.Cross;
 import org.jax.qtl.cross.GeneticMarker;
 import org.jax.qtl.project.QtlDataModel;
-import org.jax.r.RCommandParameter;
-import org.jax.r.RMethodInvocationCommand;
+import org.jax.qtl.util.RCommandBatch;
+import org.jax.qtl.util.RObjectMetadataCache;
+import org.jax.qtl.util.RSessionEpoch;
 import org.jax.r.RUtilities;
 import org.jax.r.jriutilities.JRIUtilityFunctions;
 import org.jax.r.jriutilities.RInterface;
@@ -78,6 +79,22 @@ public class ScanOneResult extends ScanResult
     
     private final RObject scanPermutationsRObject;
     
+    /**
+     * the R session epoch that the permutation caches below belong to
+     */
+    private long permutationCacheEpoch = -1L;
+    
+    private Boolean permutationsWereCalculatedCache = null;
+    
+    private Boolean xChromosomePValuesAreSeparateCache = null;
+    
+    /**
+     * sorted permutation maxima keyed by the LOD column index (without
+     * offset)
+     */
+    private final Map<Integer, ScanOnePermutationDistribution> permutationDistributionCache =
+        new HashMap<Integer, ScanOnePermutationDistribution>();
+    
     /**
      * Construct a new scanone result
      * @param rInterface
@@ -109,7 +126,7 @@ public class ScanOneResult extends ScanResult
      */
     private void checkRClass()
     {
-        if(!JRIUtilityFunctions.inheritsRClass(this, SCANONE_RESULT_TYPE_STRING))
+        if(!RObjectMetadataCache.inheritsRClass(this, SCANONE_RESULT_TYPE_STRING))
         {
             LOG.warning(
                     this.getAccessorExpressionString() +
@@ -136,11 +153,44 @@ public class ScanOneResult extends ScanResult
      * @return
      *          true iff permutations are available
      */
-    public boolean getPermutationsWereCalculated()
+    public synchronized boolean getPermutationsWereCalculated()
+    {
+        this.checkPermutationCacheEpoch();
+        if(this.permutationsWereCalculatedCache == null)
+        {
+            this.permutationsWereCalculatedCache =
+                this.calculatePermutationsWereCalculated();
+        }
+        
+        return this.permutationsWereCalculatedCache;
+    }
+    
+    /**
+     * Throw away the cached permutation information if the R session has
+     * changed since it was cached
+     */
+    private synchronized void checkPermutationCacheEpoch()
+    {
+        long currentEpoch = RSessionEpoch.getMutationEpoch();
+        if(currentEpoch != this.permutationCacheEpoch)
+        {
+            this.permutationsWereCalculatedCache = null;
+            this.xChromosomePValuesAreSeparateCache = null;
+            this.permutationDistributionCache.clear();
+            this.permutationCacheEpoch = currentEpoch;
+        }
+    }
+    
+    /**
+     * Ask R if permutations are available for this result
+     * @return
+     *          true iff permutations are available
+     */
+    private boolean calculatePermutationsWereCalculated()
     {
         if(JRIUtilityFunctions.isTopLevelObject(this.scanPermutationsRObject))
         {
-            if(JRIUtilityFunctions.inheritsRClass(
+            if(RObjectMetadataCache.inheritsRClass(
                     this.scanPermutationsRObject,
                     PERMUTATION_RESULT_TYPE_STRING))
             {
@@ -170,7 +220,7 @@ public class ScanOneResult extends ScanResult
      */
     public String[] getSignificanceValueColumnNames()
     {
-        String[] allColumnNames = JRIUtilityFunctions.getNames(this);
+        String[] allColumnNames = RObjectMetadataCache.getNames(this);
         if(allColumnNames == null ||
            allColumnNames.length <= NUM_COLUMNS_BEFOR_SIGNIFICANCE_VALUES)
         {
@@ -216,7 +266,25 @@ public class ScanOneResult extends ScanResult
      * @return
      *          true iff the p-values are separate
      */
-    public boolean getXChromosomePValuesAreSeparate()
+    public synchronized boolean getXChromosomePValuesAreSeparate()
+    {
+        this.checkPermutationCacheEpoch();
+        if(this.xChromosomePValuesAreSeparateCache == null)
+        {
+            this.xChromosomePValuesAreSeparateCache =
+                this.calculateXChromosomePValuesAreSeparate();
+        }
+        
+        return this.xChromosomePValuesAreSeparateCache;
+    }
+    
+    /**
+     * Ask R if there are separate p-values for autosomes and the X
+     * chromosome.
+     * @return
+     *          true iff the p-values are separate
+     */
+    private boolean calculateXChromosomePValuesAreSeparate()
     {
         String typeOfCommandString =
             "typeof(" +
@@ -226,7 +294,7 @@ public class ScanOneResult extends ScanResult
                 new SilentRCommand(typeOfCommandString));
         if(LIST_TYPE_STRING.equals(typeOfPerm.asString()))
         {
-            String[] permListNames = JRIUtilityFunctions.getNames(
+            String[] permListNames = RObjectMetadataCache.getNames(
                     this.scanPermutationsRObject);
             List<String> permListNamesList = Arrays.asList(permListNames);
             
@@ -308,7 +376,7 @@ public class ScanOneResult extends ScanResult
             String lodColumnName)
     {
         // figure out what some of the index values are from the column names
-        String[] columnNames = JRIUtilityFunctions.getColumnNames(this);
+        String[] columnNames = RObjectMetadataCache.getColumnNames(this);
         List<String> columnNamesList = Arrays.asList(columnNames);
         int chromosomeIndex = columnNamesList.indexOf(SCANONE_CHROMOSOME_COLUMN_NAME);
         int markerPositionIndex = columnNamesList.indexOf(SCANONE_MARKER_POSITION_COLUMN_NAME);
@@ -325,27 +393,7 @@ public class ScanOneResult extends ScanResult
                     markerPositionIndex);
         }
         
-        // read in marker names
-        String[] markerNames = JRIUtilityFunctions.getRowNames(this);
-        
-        // read in chromosome column
-        String chromosomesCommandString = RUtilities.columnIndexExpression(
-            this.getAccessorExpressionString(),
-            chromosomeIndex);
-        REXP chromosomesRExpression = this.getRInterface().evaluateCommand(
-                new SilentRCommand(chromosomesCommandString));
-        String[] chromosomeNames = JRIUtilityFunctions.extractStringArrayFromFactor(
-                chromosomesRExpression);
-        
-        // read in marker positions column
-        String markerPositionsCommandString = RUtilities.columnIndexExpression(
-                this.getAccessorExpressionString(),
-                markerPositionIndex);
-        REXP markerPositionsRExpression = this.getRInterface().evaluateCommand(
-                new SilentRCommand(markerPositionsCommandString));
-        double[] markerPositions = markerPositionsRExpression.asDoubleArray();
-        
-        // read in the LOD columns
+        // read in the LOD column index
         int currLodColumnIndex = this.getLodColumnIndexWithColumnOffset(
                 lodColumnName);
         if(currLodColumnIndex < NUM_COLUMNS_BEFOR_SIGNIFICANCE_VALUES)
@@ -355,11 +403,25 @@ public class ScanOneResult extends ScanResult
         }
         else
         {
-            REXP currLodValuesExpression = this.getRInterface().evaluateCommand(
-                    new SilentRCommand(RUtilities.columnIndexExpression(
-                            this.getAccessorExpressionString(),
-                            currLodColumnIndex)));
-            double[] currLodValues = currLodValuesExpression.asDoubleArray();
+            // read in marker names, chromosomes, positions and LODs in a
+            // single round trip
+            String accessor = this.getAccessorExpressionString();
+            REXP[] columnExpressions = RCommandBatch.evaluateExpressions(
+                    this.getRInterface(),
+                    "rownames(" + accessor + ")",
+                    "as.character(" + RUtilities.columnIndexExpression(
+                            accessor,
+                            chromosomeIndex) + ")",
+                    RUtilities.columnIndexExpression(
+                            accessor,
+                            markerPositionIndex),
+                    RUtilities.columnIndexExpression(
+                            accessor,
+                            currLodColumnIndex));
+            String[] markerNames = columnExpressions[0].asStringArray();
+            String[] chromosomeNames = columnExpressions[1].asStringArray();
+            double[] markerPositions = columnExpressions[2].asDoubleArray();
+            double[] currLodValues = columnExpressions[3].asDoubleArray();
             
             if(currLodValues.length != markerNames.length)
             {
@@ -442,7 +504,7 @@ public class ScanOneResult extends ScanResult
      */
     public String[] getScannedChromosomes()
     {
-        String[] columnNames = JRIUtilityFunctions.getColumnNames(this);
+        String[] columnNames = RObjectMetadataCache.getColumnNames(this);
         List<String> columnNamesList = Arrays.asList(columnNames);
         int chromosomeIndex = columnNamesList.indexOf(
                 SCANONE_CHROMOSOME_COLUMN_NAME);
@@ -523,97 +585,102 @@ public class ScanOneResult extends ScanResult
             double[] alphaValues,
             String lodColumnName)
     {
-        int lodIndexWithoutOffset = this.getLodColumnIndexWithoutColumnOffset(
-                lodColumnName);
-        if(lodIndexWithoutOffset == -1)
+        ScanOnePermutationDistribution permutationDistribution =
+            this.getPermutationDistribution(lodColumnName);
+        if(permutationDistribution == null)
         {
-            throw new IllegalArgumentException(
-                    "unknown LOD column name: " + lodColumnName);
+            LOG.warning(
+                    "can't calculate thresholds for " +
+                    this.getAccessorExpressionString() +
+                    " since permutations have not been run");
+            return null;
         }
         else
         {
-            if(this.getPermutationsWereCalculated())
+            ScanOneThreshold[] thresholds =
+                new ScanOneThreshold[alphaValues.length];
+            for(int i = 0; i < thresholds.length; i++)
             {
-                RCommandParameter objectParameter = new RCommandParameter(
-                        this.scanPermutationsRObject.getAccessorExpressionString());
-                RCommandParameter alphaParameter = new RCommandParameter(
-                        RUtilities.doubleArrayToRVector(alphaValues));
-                RMethodInvocationCommand summaryCommand = new RMethodInvocationCommand(
-                        "summary",
-                        new RCommandParameter[] {objectParameter, alphaParameter});
-                String summaryCommandString = summaryCommand.getCommandText();
-                
-                if(this.getXChromosomePValuesAreSeparate())
+                if(permutationDistribution.getXChromosomeIsSeparate())
                 {
-                    // since the permutations are separate we need to grab the
-                    // "A" and "X" values by themselves
-                    double[] autosomeLodThresholds =
-                        this.extractLodThresholdsFromSummaryCommand(
-                                summaryCommandString +
-                                "$\"" + AUTOSOME_PERMUTATIONS_NAME + "\"",
-                                lodIndexWithoutOffset);
-                    double[] xLodThresholds =
-                        this.extractLodThresholdsFromSummaryCommand(
-                                summaryCommandString +
-                                "$\"" + X_CHROMOSOME_PERMUTATIONS_NAME + "\"",
-                                lodIndexWithoutOffset);
-                    if(autosomeLodThresholds.length != xLodThresholds.length)
-                    {
-                        LOG.warning("autosome & x threshold lengths dont match");
-                        return null;
-                    }
-                    else if(autosomeLodThresholds.length != alphaValues.length)
-                    {
-                        LOG.warning("threshold lengths don't match alpha length");
-                        return null;
-                    }
-                    else
-                    {
-                        ScanOneThreshold[] thresholds =
-                            new ScanOneThreshold[autosomeLodThresholds.length];
-                        for(int i = 0; i < thresholds.length; i++)
-                        {
-                            thresholds[i] = new ScanOneThreshold(
-                                    alphaValues[i],
-                                    autosomeLodThresholds[i],
-                                    xLodThresholds[i]);
-                        }
-                        return thresholds;
-                    }
+                    thresholds[i] = new ScanOneThreshold(
+                            alphaValues[i],
+                            permutationDistribution.getLodThreshold(alphaValues[i], false),
+                            permutationDistribution.getLodThreshold(alphaValues[i], true));
                 }
                 else
                 {
-                    double[] lodThresholds =
-                        this.extractLodThresholdsFromSummaryCommand(
-                                summaryCommandString,
-                                lodIndexWithoutOffset);
-                    if(lodThresholds.length != alphaValues.length)
-                    {
-                        LOG.warning("thresholds length doesn't match alpha length");
-                        return null;
-                    }
-                    else
-                    {
-                        ScanOneThreshold[] thresholds =
-                            new ScanOneThreshold[lodThresholds.length];
-                        for(int i = 0; i < thresholds.length; i++)
-                        {
-                            thresholds[i] = new ScanOneThreshold(
-                                    alphaValues[i],
-                                    lodThresholds[i]);
-                        }
-                        return thresholds;
-                    }
+                    thresholds[i] = new ScanOneThreshold(
+                            alphaValues[i],
+                            permutationDistribution.getLodThreshold(alphaValues[i], false));
                 }
             }
-            else
+            return thresholds;
+        }
+    }
+    
+    /**
+     * Get the genome-scan-adjusted p-value for a LOD score
+     * @param lodScore
+     *          the LOD score
+     * @param lodColumnName
+     *          the name of the lod column that the score comes from
+     * @param xChromosome
+     *          true if the score comes from an X chromosome
+     * @return
+     *          the p-value or NaN if permutations have not been run
+     */
+    public double calculatePValue(
+            double lodScore,
+            String lodColumnName,
+            boolean xChromosome)
+    {
+        ScanOnePermutationDistribution permutationDistribution =
+            this.getPermutationDistribution(lodColumnName);
+        return permutationDistribution == null ?
+                Double.NaN :
+                permutationDistribution.getPValue(lodScore, xChromosome);
+    }
+    
+    /**
+     * Get the sorted permutation maxima for a LOD column. These are pulled
+     * out of R the first time that they're needed and held until the R
+     * session changes.
+     * @param lodColumnName
+     *          the name of the lod column
+     * @return
+     *          the distribution or null if permutations have not been run
+     */
+    public synchronized ScanOnePermutationDistribution getPermutationDistribution(
+            String lodColumnName)
+    {
+        int lodIndexWithoutOffset = this.getLodColumnIndexWithoutColumnOffset(
+                lodColumnName);
+        if(lodIndexWithoutOffset == -1)
+        {
+            throw new IllegalArgumentException(
+                    "unknown LOD column name: " + lodColumnName);
+        }
+        else if(!this.getPermutationsWereCalculated())
+        {
+            return null;
+        }
+        else
+        {
+            ScanOnePermutationDistribution permutationDistribution =
+                this.permutationDistributionCache.get(lodIndexWithoutOffset);
+            if(permutationDistribution == null)
             {
-                LOG.warning(
-                        "can't calculate thresholds for " +
-                        this.getAccessorExpressionString() +
-                        " since permutations have not been run");
-                return null;
+                permutationDistribution = ScanOnePermutationDistribution.fetchDistribution(
+                        this.getRInterface(),
+                        this.scanPermutationsRObject.getAccessorExpressionString(),
+                        lodIndexWithoutOffset);
+                this.permutationDistributionCache.put(
+                        lodIndexWithoutOffset,
+                        permutationDistribution);
             }
+            
+            return permutationDistribution;
         }
     }
     
@@ -653,23 +720,4 @@ public class ScanOneResult extends ScanResult
         String[] lodColumnNames = this.getSignificanceValueColumnNames();
         return Arrays.asList(lodColumnNames).indexOf(lodColumnName);
     }
-    
-    /**
-     * Get lod thresholds from the given summary command
-     * @param summaryCommand
-     *          the command
-     * @return
-     *          the thresholds
-     */
-    private double[] extractLodThresholdsFromSummaryCommand(
-            String summaryCommand,
-            int lodColumnIndex)
-    {
-        String extractLodVectorCommand = RUtilities.columnIndexExpression(
-                summaryCommand,
-                lodColumnIndex);
-        REXP rExpression = this.getRInterface().evaluateCommand(
-                new SilentRCommand(extractLodVectorCommand));
-        return rExpression.asDoubleArray();
-    }
 }
@@ -27,6 +27,9 @@ import java.util.logging.Logger;
 
 import org.jax.qtl.cross.GeneticMarker;
 import org.jax.qtl.scan.ScanOneSummary.ScanOneSummaryRow;
+import org.jax.qtl.scan.ScanResultFilter.AbsoluteConfidenceFilter;
+import org.jax.qtl.util.RSessionEpoch;
+import org.jax.qtl.util.RSessionLock;
 import org.jax.r.RAssignmentCommand;
 import org.jax.r.RCommandParameter;
 import org.jax.r.RMethodInvocationCommand;
@@ -54,8 +57,12 @@ public class ScanOneSummaryBuilder
      */
     private static final int NUM_COLUMNS_BEFOR_SIGNIFICANCE_VALUES = 2;
     
-    private static final String TEMPORARY_SUMMARY_OBJECT_SUFFIX =
-        ".temp_summary_scanone";
+    /**
+     * describes the scratch objects that we use to hold R's summary
+     * @see ScanSummaryExecutor#createScratchObjectName(String)
+     */
+    private static final String TEMPORARY_SUMMARY_OBJECT_DESCRIPTION =
+        "temp_summary_scanone";
     
     private final ScanOneResult resultToSummarize;
     
@@ -134,6 +141,51 @@ public class ScanOneSummaryBuilder
      *          the summary
      */
     public ScanOneSummary createSummary()
+    {
+        AbsoluteConfidenceFilter absoluteFilter;
+        switch(this.confidenceThresholdType)
+        {
+            case ALPHA_THRESHOLD:
+            {
+                absoluteFilter = AbsoluteConfidenceFilter.ALPHA_VALUE_FILTER;
+                break;
+            }
+
+            case LOD_SCORE_THRESHOLD:
+            {
+                absoluteFilter = AbsoluteConfidenceFilter.LOD_SCORE_FILTER;
+                break;
+            }
+
+            default:
+            {
+                absoluteFilter = AbsoluteConfidenceFilter.NO_ABSOLUTE_CONFIDENCE_FILTER;
+                break;
+            }
+        }
+
+        ScanOneSummaryEngine engine = ScanOneSummaryEngine.getEngine(
+                this.resultToSummarize,
+                this.lodColumnName);
+        if(engine.canSummarize(absoluteFilter))
+        {
+            return engine.createSummary(
+                    absoluteFilter,
+                    this.confidenceThresholdValue);
+        }
+        else
+        {
+            LOG.info("falling back on R's scanone summary");
+            return this.createSummaryInR();
+        }
+    }
+
+    /**
+     * Create a summary using R's <code>summary.scanone</code> function
+     * @return
+     *          the summary
+     */
+    private ScanOneSummary createSummaryInR()
     {
         // figure out what the p-value setting & LOD column index are
         boolean showPValues =
@@ -148,29 +200,45 @@ public class ScanOneSummaryBuilder
         RMethodInvocationCommand summaryMethod = new RMethodInvocationCommand(
                 "summary",
                 parameters);
+        // every request gets its own scratch object so concurrent
+        // summaries don't overwrite each other's results
         RObject temporarySummaryObject = new RObject(
                 this.resultToSummarize.getRInterface(),
-                this.resultToSummarize.getAccessorExpressionString() +
-                TEMPORARY_SUMMARY_OBJECT_SUFFIX);
+                ScanSummaryExecutor.createScratchObjectName(
+                        TEMPORARY_SUMMARY_OBJECT_DESCRIPTION));
         RAssignmentCommand tempAssignmentCommand = new RAssignmentCommand(
                 temporarySummaryObject.getAccessorExpressionString(),
                 summaryMethod.getCommandText());
         
-        synchronized(ScanOneSummaryBuilder.class)
+        // run the command to create a temporary summary object
+        RSessionEpoch.evaluateCommandNoReturn(
+                this.resultToSummarize.getRInterface(),
+                new SilentRCommand(tempAssignmentCommand));
+        try
         {
-            // run the command to create a temporary summary object
-            this.resultToSummarize.getRInterface().evaluateCommandNoReturn(
-                    new SilentRCommand(tempAssignmentCommand));
-            ScanOneSummary summary = this.extractSummary(
-                    temporarySummaryObject,
-                    showPValues,
-                    lodColumnIndexNoOffset);
-            
-            // clean up and return
-            this.resultToSummarize.getRInterface().evaluateCommandNoReturn(new SilentRCommand(
-                    "rm(" + temporarySummaryObject.getAccessorExpressionString() + ")"));
-            
-            return summary;
+            // the scratch object is ours alone so reading it back only
+            // needs to keep writers out
+            RSessionLock.lockForReading();
+            try
+            {
+                ScanOneSummary summary = this.extractSummary(
+                        temporarySummaryObject,
+                        showPValues,
+                        lodColumnIndexNoOffset);
+                return summary;
+            }
+            finally
+            {
+                RSessionLock.unlockForReading();
+            }
+        }
+        finally
+        {
+            // clean up even if the extraction fails
+            RSessionEpoch.evaluateCommandNoReturn(
+                    this.resultToSummarize.getRInterface(),
+                    new SilentRCommand(
+                            "rm(" + temporarySummaryObject.getAccessorExpressionString() + ")"));
         }
     }
     
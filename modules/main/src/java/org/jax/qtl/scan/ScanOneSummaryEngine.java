@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jax.qtl.cross.GeneticMarker;
+import org.jax.qtl.scan.ScanOneSummary.ScanOneSummaryRow;
+import org.jax.qtl.scan.ScanResultFilter.AbsoluteConfidenceFilter;
+import org.jax.qtl.util.RSessionEpoch;
+
+/**
+ * Builds scanone summaries in java from LOD scores (and permutation
+ * maxima) that are pulled out of R once per LOD column. Each summary is a
+ * single linear pass over the cached scores so refiltering is cheap
+ * enough to do as the user changes the threshold. Engines are cached
+ * until the {@link RSessionEpoch} changes.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class ScanOneSummaryEngine
+{
+    /**
+     * the maximum number of engines that we hold on to
+     */
+    private static final int MAX_CACHED_ENGINES = 16;
+
+    /**
+     * the cached engines keyed by result accessor and LOD column
+     */
+    private static final Map<String, ScanOneSummaryEngine> ENGINE_CACHE =
+        new LinkedHashMap<String, ScanOneSummaryEngine>(16, 0.75f, true)
+        {
+            /**
+             * every {@link java.io.Serializable} is supposed to have one of these
+             */
+            private static final long serialVersionUID = 6032816357520845181L;
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, ScanOneSummaryEngine> eldest)
+            {
+                return this.size() > MAX_CACHED_ENGINES;
+            }
+        };
+
+    private final long epoch;
+
+    private final GeneticMarker[] markers;
+
+    private final double[] lodScores;
+
+    /**
+     * the index of the 1st row of each chromosome plus a final entry for
+     * the row count
+     */
+    private final int[] chromosomeStarts;
+
+    /**
+     * the permutation distribution or null if permutations weren't run
+     */
+    private final ScanOnePermutationDistribution permutationDistribution;
+
+    /**
+     * Constructor
+     * @param markerSignificanceValues
+     *          the significance values for the LOD column in scan order
+     * @param permutationDistribution
+     *          the permutation distribution or null if there are no
+     *          permutations
+     */
+    public ScanOneSummaryEngine(
+            List<ScanOneMarkerSignificanceValues> markerSignificanceValues,
+            ScanOnePermutationDistribution permutationDistribution)
+    {
+        this.epoch = RSessionEpoch.getMutationEpoch();
+        this.permutationDistribution = permutationDistribution;
+
+        int rowCount = markerSignificanceValues.size();
+        this.markers = new GeneticMarker[rowCount];
+        this.lodScores = new double[rowCount];
+        List<Integer> starts = new ArrayList<Integer>();
+        for(int row = 0; row < rowCount; row++)
+        {
+            ScanOneMarkerSignificanceValues currValues =
+                markerSignificanceValues.get(row);
+            this.markers[row] = currValues.getMarker();
+            this.lodScores[row] = currValues.getLodScore();
+            if(row == 0 || !this.markers[row].getChromosomeName().equals(
+                    this.markers[row - 1].getChromosomeName()))
+            {
+                starts.add(row);
+            }
+        }
+
+        this.chromosomeStarts = new int[starts.size() + 1];
+        for(int i = 0; i < starts.size(); i++)
+        {
+            this.chromosomeStarts[i] = starts.get(i);
+        }
+        this.chromosomeStarts[starts.size()] = rowCount;
+    }
+
+    /**
+     * Get the summary engine for a LOD column of a scanone result, reusing
+     * a cached engine if the R session hasn't changed since it was built
+     * @param scanOneResult
+     *          the result
+     * @param lodColumnName
+     *          the LOD column name
+     * @return
+     *          the engine
+     */
+    public static ScanOneSummaryEngine getEngine(
+            ScanOneResult scanOneResult,
+            String lodColumnName)
+    {
+        String key = scanOneResult.getAccessorExpressionString() + "\n" + lodColumnName;
+        synchronized(ENGINE_CACHE)
+        {
+            ScanOneSummaryEngine engine = ENGINE_CACHE.get(key);
+            if(engine != null && engine.epoch == RSessionEpoch.getMutationEpoch())
+            {
+                return engine;
+            }
+        }
+
+        ScanOneSummaryEngine engine = new ScanOneSummaryEngine(
+                scanOneResult.getMarkerSignificanceValues(lodColumnName),
+                scanOneResult.getPermutationDistribution(lodColumnName));
+
+        synchronized(ENGINE_CACHE)
+        {
+            ENGINE_CACHE.put(key, engine);
+        }
+        return engine;
+    }
+
+    /**
+     * Getter for the permutation distribution
+     * @return
+     *          the distribution or null if permutations weren't run
+     */
+    public ScanOnePermutationDistribution getPermutationDistribution()
+    {
+        return this.permutationDistribution;
+    }
+
+    /**
+     * Determine if this engine can build a summary for the given filter.
+     * Alpha filters need permutations, and if permutations were run every
+     * component needs maxima to calculate p-values from
+     * @param absoluteFilter
+     *          the absolute LOD or alpha filter
+     * @return
+     *          true if {@link #createSummary(AbsoluteConfidenceFilter, double)}
+     *          can be used
+     */
+    public boolean canSummarize(AbsoluteConfidenceFilter absoluteFilter)
+    {
+        if(this.permutationDistribution == null)
+        {
+            return absoluteFilter != AbsoluteConfidenceFilter.ALPHA_VALUE_FILTER;
+        }
+        else
+        {
+            return this.permutationDistribution.hasMaxima();
+        }
+    }
+
+    /**
+     * Create a summary holding the LOD maximum of each chromosome (the
+     * same rows that R's <code>summary.scanone</code> gives with its
+     * default format)
+     * @param absoluteFilter
+     *          the absolute LOD or alpha filter
+     * @param absoluteValue
+     *          the minimum LOD score or the alpha value
+     * @return
+     *          the summary
+     * @throws IllegalStateException
+     *          if {@link #canSummarize(AbsoluteConfidenceFilter)} is false
+     */
+    public ScanOneSummary createSummary(
+            AbsoluteConfidenceFilter absoluteFilter,
+            double absoluteValue)
+    {
+        ScanOnePermutationDistribution permutationDistribution =
+            this.permutationDistribution;
+        if(!this.canSummarize(absoluteFilter))
+        {
+            throw new IllegalStateException(
+                    "can't summarize with " + absoluteFilter + " filtering");
+        }
+
+        List<ScanOneSummaryRow> rows = new ArrayList<ScanOneSummaryRow>();
+        int chromosomeCount = this.chromosomeStarts.length - 1;
+        for(int chromosome = 0; chromosome < chromosomeCount; chromosome++)
+        {
+            int start = this.chromosomeStarts[chromosome];
+            int end = this.chromosomeStarts[chromosome + 1];
+            boolean xChromosome =
+                permutationDistribution != null &&
+                permutationDistribution.isXChromosome(
+                        this.markers[start].getChromosomeName());
+
+            double minimumLod;
+            switch(absoluteFilter)
+            {
+                case LOD_SCORE_FILTER:
+                    minimumLod = absoluteValue;
+                    break;
+
+                case ALPHA_VALUE_FILTER:
+                    minimumLod = permutationDistribution.getLodThreshold(
+                            absoluteValue,
+                            xChromosome);
+                    break;
+
+                default:
+                    minimumLod = Double.NEGATIVE_INFINITY;
+                    break;
+            }
+
+            int maxRow = -1;
+            for(int row = start; row < end; row++)
+            {
+                if(!Double.isNaN(this.lodScores[row]) &&
+                   (maxRow == -1 || this.lodScores[row] > this.lodScores[maxRow]))
+                {
+                    maxRow = row;
+                }
+            }
+            if(maxRow != -1)
+            {
+                this.addRowIfAbove(rows, maxRow, minimumLod, xChromosome);
+            }
+        }
+
+        return new ScanOneSummary(
+                rows.toArray(new ScanOneSummaryRow[rows.size()]),
+                permutationDistribution != null);
+    }
+
+    /**
+     * Add a summary row if its LOD score passes the threshold
+     * @param rows
+     *          the rows to add to
+     * @param row
+     *          the row index
+     * @param minimumLod
+     *          the threshold
+     * @param xChromosome
+     *          true if the row is on the X chromosome
+     */
+    private void addRowIfAbove(
+            List<ScanOneSummaryRow> rows,
+            int row,
+            double minimumLod,
+            boolean xChromosome)
+    {
+        double lod = this.lodScores[row];
+        if(lod > minimumLod || minimumLod == Double.NEGATIVE_INFINITY)
+        {
+            double pValue = this.permutationDistribution == null ?
+                    0.0 :
+                    this.permutationDistribution.getPValue(lod, xChromosome);
+            rows.add(new ScanOneSummaryRow(this.markers[row], lod, pValue));
+        }
+    }
+}
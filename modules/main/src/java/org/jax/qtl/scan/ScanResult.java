@@ -162,7 +162,7 @@ public abstract class ScanResult extends RObject
         int phenotypeIndex = this.getScannedPhenotypeIndex();
         if(phenotypeIndex >= 0)
         {
-            return this.parentCross.getPhenotypeData().getDataNames()[phenotypeIndex];
+            return this.parentCross.getPhenotypeMatrix().getPhenotypeNames()[phenotypeIndex];
         }
         else
         {
@@ -180,7 +180,7 @@ public abstract class ScanResult extends RObject
     {
         int[] scannedPhenotypeIndices = this.getScannedPhenotypeIndices();
         String[] scannedPhenotypeNames = new String[scannedPhenotypeIndices.length];
-        String[] allPhenotypeNames = this.parentCross.getPhenotypeData().getDataNames();
+        String[] allPhenotypeNames = this.parentCross.getPhenotypeMatrix().getPhenotypeNames();
         for(int i = 0; i < scannedPhenotypeIndices.length; i++)
         {
             if(scannedPhenotypeIndices[i] < allPhenotypeNames.length)
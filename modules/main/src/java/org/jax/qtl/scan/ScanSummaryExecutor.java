@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool for building scan summaries off of the event thread.
+ * Summary builders don't share any state in R (each one uses its own
+ * scratch objects, see {@link #createScratchObjectName(String)}) so any
+ * number of summaries across results and phenotypes can be in flight at
+ * once. The summary engines hand their inner loops to
+ * {@link org.jax.qtl.util.ParallelComputation} which is why summaries get
+ * a pool of their own rather than sharing that one.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class ScanSummaryExecutor
+{
+    /**
+     * the number of summaries that we'll build at the same time
+     */
+    private static final int THREAD_COUNT =
+        Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            THREAD_COUNT,
+            new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "scan summary");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * used to give every scratch object a name of its own
+     */
+    private static final AtomicLong SCRATCH_OBJECT_COUNT = new AtomicLong();
+
+    /**
+     * Getter for the summary executor
+     * @return
+     *          the executor
+     */
+    public static ExecutorService getExecutor()
+    {
+        return EXECUTOR;
+    }
+
+    /**
+     * Build the given scanone summary on the summary pool
+     * @param builder
+     *          the builder
+     * @return
+     *          the future summary
+     */
+    public static Future<ScanOneSummary> submit(
+            final ScanOneSummaryBuilder builder)
+    {
+        return EXECUTOR.submit(new Callable<ScanOneSummary>()
+        {
+            public ScanOneSummary call() throws Exception
+            {
+                return builder.createSummary();
+            }
+        });
+    }
+
+    /**
+     * Build the given scantwo summary on the summary pool
+     * @param builder
+     *          the builder
+     * @return
+     *          the future summary
+     */
+    public static Future<ScanTwoSummary> submit(
+            final ScanTwoSummaryBuilder builder)
+    {
+        return EXECUTOR.submit(new Callable<ScanTwoSummary>()
+        {
+            public ScanTwoSummary call() throws Exception
+            {
+                return builder.createSummary();
+            }
+        });
+    }
+
+    /**
+     * Create an R identifier that no other summary request will use. The
+     * name starts with a '.' so it stays out of <code>ls()</code> (and out
+     * of the project tree) while it exists
+     * @param description
+     *          a short description of the object like "temp_summary_scanone"
+     * @return
+     *          the unique name
+     */
+    public static String createScratchObjectName(String description)
+    {
+        return "." + description + "." + SCRATCH_OBJECT_COUNT.incrementAndGet();
+    }
+}
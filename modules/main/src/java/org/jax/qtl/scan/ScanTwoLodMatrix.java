@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan;
+
+import java.nio.DoubleBuffer;
+import java.util.logging.Logger;
+
+import org.jax.qtl.util.MappedRArrayTransfer;
+import org.jax.r.jriutilities.RInterface;
+import org.jax.r.jriutilities.SilentRCommand;
+import org.rosuda.JRI.REXP;
+
+/**
+ * Packed storage for the scantwo LOD scores of every scanned phenotype.
+ * R/qtl keeps the full model LODs in the lower triangle of each
+ * positions x positions matrix, the additive LODs in the upper triangle
+ * and the scanone LODs on the diagonal. Here each phenotype's matrix is
+ * laid out as the lower triangle (diagonal included) followed by the
+ * strict upper triangle in a single flat primitive buffer, which can
+ * optionally be single precision.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class ScanTwoLodMatrix
+{
+    /**
+     * our logger
+     */
+    private static final Logger LOG = Logger.getLogger(
+            ScanTwoLodMatrix.class.getName());
+
+    private final int positionCount;
+
+    private final int phenotypeCount;
+
+    /**
+     * the number of cells in the lower triangle including the diagonal
+     */
+    private final int lowerTriangleSize;
+
+    /**
+     * the number of cells used by a single phenotype
+     */
+    private final int phenotypeBlockSize;
+
+    /**
+     * the double precision cells or null if we're using {@link #floatCells}
+     */
+    private final double[] doubleCells;
+
+    /**
+     * the single precision cells or null if we're using {@link #doubleCells}
+     */
+    private final float[] floatCells;
+
+    /**
+     * Constructor for an empty matrix which gets filled in using
+     * {@link #setLod(int, int, int, double)}
+     * @param positionCount
+     *          the number of scanned positions
+     * @param phenotypeCount
+     *          the number of scanned phenotypes
+     * @param singlePrecision
+     *          if true the LOD scores are stored as floats rather than
+     *          doubles which halves the memory used
+     */
+    public ScanTwoLodMatrix(
+            int positionCount,
+            int phenotypeCount,
+            boolean singlePrecision)
+    {
+        long totalSize = (long)positionCount * positionCount * phenotypeCount;
+        if(totalSize > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException(
+                    "too many scantwo LOD scores to hold in a single buffer: " +
+                    totalSize);
+        }
+
+        this.positionCount = positionCount;
+        this.phenotypeCount = phenotypeCount;
+        this.lowerTriangleSize = (positionCount * (positionCount + 1)) / 2;
+        this.phenotypeBlockSize = positionCount * positionCount;
+        if(singlePrecision)
+        {
+            this.floatCells = new float[(int)totalSize];
+            this.doubleCells = null;
+        }
+        else
+        {
+            this.doubleCells = new double[(int)totalSize];
+            this.floatCells = null;
+        }
+    }
+
+    /**
+     * Fetch the whole LOD component of a scantwo result in one transfer
+     * (which goes through a memory mapped file for large results).
+     * Both the single phenotype matrix and the 3-D multi-phenotype array
+     * are supported.
+     * @param rInterface
+     *          the R interface to use
+     * @param lodAccessor
+     *          the accessor for the LOD component (eg: "st$lod")
+     * @param singlePrecisionThreshold
+     *          if the number of LOD scores is over this threshold we store
+     *          them as floats
+     * @return
+     *          the matrix
+     */
+    public static ScanTwoLodMatrix fetchLodMatrix(
+            RInterface rInterface,
+            String lodAccessor,
+            long singlePrecisionThreshold)
+    {
+        REXP dimensionsExpression = rInterface.evaluateCommand(
+                new SilentRCommand("as.integer(dim(" + lodAccessor + "))"));
+        int[] dimensions = dimensionsExpression.asIntArray();
+
+        if(dimensions == null || dimensions.length < 2 || dimensions[0] == 0)
+        {
+            LOG.warning("scantwo LOD scores are empty");
+            return new ScanTwoLodMatrix(0, 0, false);
+        }
+        else if(dimensions[0] != dimensions[1])
+        {
+            LOG.severe(
+                    "scantwo rows are different than scantwo columns: cols=" +
+                    dimensions[1] + ", rows=" + dimensions[0]);
+            return new ScanTwoLodMatrix(0, 0, false);
+        }
+        else
+        {
+            int positionCount = dimensions[0];
+            int phenotypeCount = dimensions.length >= 3 ? dimensions[2] : 1;
+            long cellCount = (long)positionCount * positionCount * phenotypeCount;
+            ScanTwoLodMatrix lodMatrix = new ScanTwoLodMatrix(
+                    positionCount,
+                    phenotypeCount,
+                    cellCount > singlePrecisionThreshold);
+            lodMatrix.setColumnMajorLods(MappedRArrayTransfer.fetchDoubles(
+                    rInterface,
+                    lodAccessor,
+                    cellCount));
+
+            return lodMatrix;
+        }
+    }
+
+    /**
+     * Fill this matrix from R's column-major layout where the cell at
+     * [row, column, phenotype] is at
+     * <code>row + column * n + phenotype * n * n</code>
+     * @param columnMajorCells
+     *          the cells
+     */
+    public void setColumnMajorLods(DoubleBuffer columnMajorCells)
+    {
+        int n = this.positionCount;
+        for(int phenotype = 0; phenotype < this.phenotypeCount; phenotype++)
+        {
+            int phenotypeOffset = phenotype * this.phenotypeBlockSize;
+            for(int column = 0; column < n; column++)
+            {
+                int columnOffset = phenotypeOffset + column * n;
+                for(int row = 0; row < n; row++)
+                {
+                    this.setLod(
+                            phenotype,
+                            row,
+                            column,
+                            columnMajorCells.get(columnOffset + row));
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the index of a cell using R's row/column convention
+     * @param phenotype
+     *          the scanned phenotype index
+     * @param row
+     *          the matrix row
+     * @param column
+     *          the matrix column
+     * @return
+     *          the buffer index
+     */
+    private int cellIndex(int phenotype, int row, int column)
+    {
+        int phenotypeOffset = phenotype * this.phenotypeBlockSize;
+        if(row >= column)
+        {
+            // lower triangle (including the diagonal)
+            return phenotypeOffset + ((row * (row + 1)) >>> 1) + column;
+        }
+        else
+        {
+            // strict upper triangle
+            return phenotypeOffset + this.lowerTriangleSize +
+                   ((column * (column - 1)) >>> 1) + row;
+        }
+    }
+
+    /**
+     * Get a LOD score using R's row/column convention
+     * @param phenotype
+     *          the scanned phenotype index
+     * @param row
+     *          the matrix row
+     * @param column
+     *          the matrix column
+     * @return
+     *          the LOD score
+     */
+    public double getLod(int phenotype, int row, int column)
+    {
+        int index = this.cellIndex(phenotype, row, column);
+        return this.floatCells == null ?
+                this.doubleCells[index] :
+                this.floatCells[index];
+    }
+
+    /**
+     * Set a LOD score using R's row/column convention
+     * @param phenotype
+     *          the scanned phenotype index
+     * @param row
+     *          the matrix row
+     * @param column
+     *          the matrix column
+     * @param lod
+     *          the LOD score
+     */
+    public void setLod(int phenotype, int row, int column, double lod)
+    {
+        int index = this.cellIndex(phenotype, row, column);
+        if(this.floatCells == null)
+        {
+            this.doubleCells[index] = lod;
+        }
+        else
+        {
+            this.floatCells[index] = (float)lod;
+        }
+    }
+
+    /**
+     * Get the full model LOD score which lives in the lower triangle
+     * @param phenotype
+     *          the scanned phenotype index
+     * @param lesserIndex
+     *          the lesser position index
+     * @param greaterIndex
+     *          the greater position index
+     * @return
+     *          the LOD score
+     */
+    public double getFullLod(int phenotype, int lesserIndex, int greaterIndex)
+    {
+        return this.getLod(phenotype, greaterIndex, lesserIndex);
+    }
+
+    /**
+     * Get the additive model LOD score which lives in the upper triangle
+     * @param phenotype
+     *          the scanned phenotype index
+     * @param lesserIndex
+     *          the lesser position index
+     * @param greaterIndex
+     *          the greater position index
+     * @return
+     *          the LOD score
+     */
+    public double getAdditiveLod(int phenotype, int lesserIndex, int greaterIndex)
+    {
+        return this.getLod(phenotype, lesserIndex, greaterIndex);
+    }
+
+    /**
+     * Get the scanone LOD score which lives on the diagonal
+     * @param phenotype
+     *          the scanned phenotype index
+     * @param positionIndex
+     *          the position index
+     * @return
+     *          the LOD score
+     */
+    public double getScanOneLod(int phenotype, int positionIndex)
+    {
+        return this.getLod(phenotype, positionIndex, positionIndex);
+    }
+
+    /**
+     * Getter for the number of scanned positions
+     * @return
+     *          the position count
+     */
+    public int getPositionCount()
+    {
+        return this.positionCount;
+    }
+
+    /**
+     * Getter for the number of scanned phenotypes
+     * @return
+     *          the phenotype count
+     */
+    public int getPhenotypeCount()
+    {
+        return this.phenotypeCount;
+    }
+
+    /**
+     * Determine if the LOD scores are held in single precision
+     * @return
+     *          true iff we're using floats
+     */
+    public boolean isSinglePrecision()
+    {
+        return this.floatCells != null;
+    }
+}
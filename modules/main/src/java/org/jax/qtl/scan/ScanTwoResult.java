@@ -20,6 +20,7 @@
 
 package org.jax.qtl.scan;
 
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -250,8 +251,13 @@ public class ScanTwoResult extends ScanResult implements Comparable<ScanTwoResul
     
     private final String mapComponentAccessor;
     
-    private final Map<String, double[][]> lodScoreMatrixCache =
-        new HashMap<String, double[][]>();
+    /**
+     * once a scantwo result has more LOD scores than this we hold them in
+     * single precision
+     */
+    private static final long SINGLE_PRECISION_LOD_THRESHOLD = 4000000L;
+    
+    private SoftReference<ScanTwoLodMatrix> lodMatrixReference = null;
     
     private final Map<String, double[]> scanOneXCache =
         new HashMap<String, double[]>();
@@ -379,7 +385,7 @@ public class ScanTwoResult extends ScanResult implements Comparable<ScanTwoResul
         final int row = markerIndexPair.getGreaterMarkerIndex();
         final int column = markerIndexPair.getLesserMarkerIndex();
         
-        return this.getLodScoreMatrix(scannedPhenotypeIndex)[row][column];
+        return this.getLodMatrix().getLod(scannedPhenotypeIndex, row, column);
     }
     
     /**
@@ -400,7 +406,7 @@ public class ScanTwoResult extends ScanResult implements Comparable<ScanTwoResul
             int row = markerIndexPair.getLesserMarkerIndex();
             int column = markerIndexPair.getGreaterMarkerIndex();
             
-            return this.getLodScoreMatrix(scannedPhenotypeIndex)[row][column];
+            return this.getLodMatrix().getLod(scannedPhenotypeIndex, row, column);
     }
     
     /**
@@ -480,7 +486,7 @@ public class ScanTwoResult extends ScanResult implements Comparable<ScanTwoResul
     {
         // the scanone values that ignore covariates live along the X
         // diagonal
-        return this.getLodScoreMatrix(scannedPhenotypeIndex)[markerIndex][markerIndex];
+        return this.getLodMatrix().getScanOneLod(scannedPhenotypeIndex, markerIndex);
     }
     
     /**
@@ -564,7 +570,7 @@ public class ScanTwoResult extends ScanResult implements Comparable<ScanTwoResul
      * @return
      *          the LOD scores
      */
-    private synchronized double[] getMaxScanoneLodPerChromosome(
+    synchronized double[] getMaxScanoneLodPerChromosome(
             int scannedPhenotypeIndex)
     {
         double[] maxScanoneLodPerChromosome =
@@ -622,98 +628,30 @@ public class ScanTwoResult extends ScanResult implements Comparable<ScanTwoResul
     }
     
     /**
-     * Getter for the lod score matrix at the given index
-     * @param scannedPhenotypeIndex
-     *          the index
-     * @return
-     *          the matrix
-     */
-    public synchronized double[][] getLodScoreMatrix(int scannedPhenotypeIndex)
-    {
-        if(this.singlePhenotypeScanned)
-        {
-            return this.getLodScoreMatrix(this.lodComponentAccessor);
-        }
-        else
-        {
-            return this.getLodScoreMatrix(
-                    this.lodComponentAccessor + "[ , , " + (scannedPhenotypeIndex + 1) + "]");
-        }
-    }
-    
-//    /**
-//     * Getter for the lod score matrix. The outer array is for rows and the
-//     * inner array is for columns.
-//     * @return
-//     *          the matrix
-//     */
-//    public synchronized double[][] getLodScoreMatrix()
-//    {
-//        return this.getLodScoreMatrix(this.lodComponentAccessor);
-//    }
-    
-    /**
-     * Get the LOD score matrix
-     * @param lodMatrixAccessor
-     *          the R accessor string for the matrix
+     * Getter for the packed LOD scores of every scanned phenotype. The whole
+     * LOD component is fetched in a single transfer the first time this is
+     * called. We only hold a soft reference to the result so that
+     * the garbage collector can reclaim the memory from scantwo results
+     * that nobody is looking at anymore.
      * @return
-     *          the matrix
+     *          the LOD matrix
      */
-    private synchronized double[][] getLodScoreMatrix(String lodMatrixAccessor)
+    public synchronized ScanTwoLodMatrix getLodMatrix()
     {
-        if(this.lodScoreMatrixCache.containsKey(lodMatrixAccessor))
+        ScanTwoLodMatrix lodMatrix = this.lodMatrixReference == null ?
+                null :
+                this.lodMatrixReference.get();
+        if(lodMatrix == null)
         {
-            return this.lodScoreMatrixCache.get(lodMatrixAccessor);
-        }
-        else
-        {
-            RObject lodComponent = new RObject(
+            lodMatrix = ScanTwoLodMatrix.fetchLodMatrix(
                     this.getRInterface(),
-                    lodMatrixAccessor);
-            int numRows = JRIUtilityFunctions.getNumberOfRows(lodComponent);
-            int numCols = JRIUtilityFunctions.getNumberOfColumns(lodComponent);
-            
-            double[][] lodScoreMatrix;
-            if(numRows == 0)
-            {
-                LOG.warning("scantwo LOD scores are empty");
-                lodScoreMatrix = new double[0][];
-                this.lodScoreMatrixCache.put(
-                        lodComponent.getAccessorExpressionString(),
-                        lodScoreMatrix);
-            }
-            else if(numRows != numCols)
-            {
-                LOG.severe(
-                        "scantwo rows are different than scantwo columns: cols=" +
-                		numCols + ", rows=" + numRows);
-                lodScoreMatrix = new double[0][];
-                this.lodScoreMatrixCache.put(
-                        lodComponent.getAccessorExpressionString(),
-                        lodScoreMatrix);
-            }
-            else
-            {
-                lodScoreMatrix = new double[numRows][];
-                for(int currRow = 0; currRow < numRows; currRow++)
-                {
-                    String currRowAccessor = RUtilities.rowIndexExpression(
-                            lodMatrixAccessor,
-                            currRow);
-                    REXP currRowExpression =
-                        this.getRInterface().evaluateCommand(
-                                new SilentRCommand(currRowAccessor));
-                    lodScoreMatrix[currRow] =
-                        currRowExpression.asDoubleArray();
-                }
-                
-                this.lodScoreMatrixCache.put(
-                        lodComponent.getAccessorExpressionString(),
-                        lodScoreMatrix);
-            }
-            
-            return lodScoreMatrix;
+                    this.lodComponentAccessor,
+                    SINGLE_PRECISION_LOD_THRESHOLD);
+            this.lodMatrixReference =
+                new SoftReference<ScanTwoLodMatrix>(lodMatrix);
         }
+        
+        return lodMatrix;
     }
     
     /**
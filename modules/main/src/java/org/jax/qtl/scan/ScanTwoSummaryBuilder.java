@@ -30,6 +30,8 @@ import org.jax.qtl.cross.GeneticMarker;
 import org.jax.qtl.cross.GeneticMarkerPair;
 import org.jax.qtl.scan.ScanTwoSummary.ModelToOptimize;
 import org.jax.qtl.scan.ScanTwoSummary.ScanTwoSummaryRow;
+import org.jax.qtl.util.RSessionEpoch;
+import org.jax.qtl.util.RSessionLock;
 import org.jax.r.RAssignmentCommand;
 import org.jax.r.RCommandParameter;
 import org.jax.r.RMethodInvocationCommand;
@@ -50,8 +52,12 @@ public class ScanTwoSummaryBuilder
     private static final Logger LOG = Logger.getLogger(
             ScanTwoSummaryBuilder.class.getName());
     
-    private static final String TEMPORARY_SUMMARY_OBJECT_SUFFIX =
-        ".temp_summary_scantwo";
+    /**
+     * describes the scratch objects that we use to hold R's summary
+     * @see ScanSummaryExecutor#createScratchObjectName(String)
+     */
+    private static final String TEMPORARY_SUMMARY_OBJECT_DESCRIPTION =
+        "temp_summary_scantwo";
     
     private final ScanTwoResult resultToSummarize;
     
@@ -103,6 +109,30 @@ public class ScanTwoSummaryBuilder
      *          the summary
      */
     public ScanTwoSummary createSummary()
+    {
+        ScanTwoSummaryEngine engine = new ScanTwoSummaryEngine(
+                this.resultToSummarize);
+        ScanTwoSummary summary = engine.createSummary(
+                this.modelToOptimize,
+                this.confidenceThresholdState,
+                this.confidenceThresholdValues,
+                this.phenotypeIndex,
+                this.calculatePValues);
+        if(summary == null)
+        {
+            LOG.info("falling back on R's scantwo summary");
+            summary = this.createSummaryInR();
+        }
+
+        return summary;
+    }
+
+    /**
+     * Create a summary using R's <code>summary.scantwo</code> function
+     * @return
+     *          the summary
+     */
+    private ScanTwoSummary createSummaryInR()
     {
         boolean permutationsWereCalculated =
             this.resultToSummarize.getPermutationsWereCalculated();
@@ -112,28 +142,44 @@ public class ScanTwoSummaryBuilder
         RMethodInvocationCommand summaryMethod = new RMethodInvocationCommand(
                 "summary",
                 parameters);
+        // every request gets its own scratch object so concurrent
+        // summaries don't overwrite each other's results
         RObject temporarySummaryObject = new RObject(
                 this.resultToSummarize.getRInterface(),
-                this.resultToSummarize.getAccessorExpressionString() +
-                TEMPORARY_SUMMARY_OBJECT_SUFFIX);
+                ScanSummaryExecutor.createScratchObjectName(
+                        TEMPORARY_SUMMARY_OBJECT_DESCRIPTION));
         RAssignmentCommand tempAssignmentCommand = new RAssignmentCommand(
                 temporarySummaryObject.getAccessorExpressionString(),
                 summaryMethod.getCommandText());
         
-        synchronized(ScanOneSummaryBuilder.class)
+        // run the command to create a temporary summary object
+        RSessionEpoch.evaluateCommandNoReturn(
+                this.resultToSummarize.getRInterface(),
+                new SilentRCommand(tempAssignmentCommand));
+        try
         {
-            // run the command to create a temporary summary object
-            this.resultToSummarize.getRInterface().evaluateCommandNoReturn(
-                    new SilentRCommand(tempAssignmentCommand));
-            ScanTwoSummary summary = this.extractSummary(
-                    temporarySummaryObject,
-                    this.calculatePValues && permutationsWereCalculated);
-            
-            // clean up and return
-            this.resultToSummarize.getRInterface().evaluateCommandNoReturn(new SilentRCommand(
-                    "rm(" + temporarySummaryObject.getAccessorExpressionString() + ")"));
-            
-            return summary;
+            // the scratch object is ours alone so reading it back only
+            // needs to keep writers out
+            RSessionLock.lockForReading();
+            try
+            {
+                ScanTwoSummary summary = this.extractSummary(
+                        temporarySummaryObject,
+                        this.calculatePValues && permutationsWereCalculated);
+                return summary;
+            }
+            finally
+            {
+                RSessionLock.unlockForReading();
+            }
+        }
+        finally
+        {
+            // clean up even if the extraction fails
+            RSessionEpoch.evaluateCommandNoReturn(
+                    this.resultToSummarize.getRInterface(),
+                    new SilentRCommand(
+                            "rm(" + temporarySummaryObject.getAccessorExpressionString() + ")"));
         }
     }
 
@@ -0,0 +1,713 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jax.qtl.cross.GeneticMarker;
+import org.jax.qtl.cross.GeneticMarkerPair;
+import org.jax.qtl.scan.ScanTwoResult.ScanTwoGeneticMarker;
+import org.jax.qtl.scan.ScanTwoSummary.ModelToOptimize;
+import org.jax.qtl.scan.ScanTwoSummary.ScanTwoSummaryRow;
+import org.jax.qtl.util.ParallelComputation;
+import org.jax.qtl.util.RCommandBatch;
+import org.jax.qtl.util.RSessionEpoch;
+import org.rosuda.JRI.REXP;
+
+/**
+ * A java version of R/qtl's <code>summary.scantwo</code> which works on
+ * the packed {@link ScanTwoLodMatrix}. Each chromosome pair is summarized
+ * as a separate task on the {@link ParallelComputation} pool and p-values
+ * come from <code>scantwoperm</code> columns that are pulled out of R
+ * once and cached.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class ScanTwoSummaryEngine
+{
+    /**
+     * our logger
+     */
+    private static final Logger LOG = Logger.getLogger(
+            ScanTwoSummaryEngine.class.getName());
+
+    /**
+     * the <code>scantwoperm</code> components in the order that we use
+     * them (which is also the order of the threshold values)
+     */
+    private static final String[] PERMUTATION_COMPONENT_NAMES = new String[] {
+        "full", "fv1", "int", "add", "av1"};
+
+    private static final int FULL_INDEX = 0;
+
+    private static final int FULL_VS_ONE_INDEX = 1;
+
+    private static final int INTERACTIVE_INDEX = 2;
+
+    private static final int ADDITIVE_INDEX = 3;
+
+    private static final int ADDITIVE_VS_ONE_INDEX = 4;
+
+    /**
+     * the sorted permutation maxima keyed by permutation accessor and LOD
+     * column
+     */
+    private static final Map<String, CachedPermutations> PERMUTATION_CACHE =
+        new HashMap<String, CachedPermutations>();
+
+    /**
+     * Sorted permutation maxima along with the R session epoch that they
+     * were fetched in
+     */
+    private static class CachedPermutations
+    {
+        private final long epoch;
+
+        private final double[][] sortedMaxima;
+
+        /**
+         * Constructor
+         * @param epoch
+         *          the epoch that the maxima were fetched in
+         * @param sortedMaxima
+         *          the sorted maxima per permutation component
+         */
+        public CachedPermutations(long epoch, double[][] sortedMaxima)
+        {
+            this.epoch = epoch;
+            this.sortedMaxima = sortedMaxima;
+        }
+    }
+
+    private final ScanTwoResult resultToSummarize;
+
+    /**
+     * Constructor
+     * @param resultToSummarize
+     *          the scantwo result that we're summarizing
+     */
+    public ScanTwoSummaryEngine(ScanTwoResult resultToSummarize)
+    {
+        this.resultToSummarize = resultToSummarize;
+    }
+
+    /**
+     * Create a summary
+     * @param modelToOptimize
+     *          the model that we maximize for each chromosome pair
+     * @param confidenceThresholdState
+     *          the threshold type
+     * @param confidenceThresholdValues
+     *          the full, fv1, int, add and av1 thresholds (LOD scores or
+     *          alpha values depending on the threshold type). can be null
+     * @param phenotypeIndex
+     *          the scanned phenotype index or -1 for the 1st phenotype
+     * @param calculatePValues
+     *          if true we fill in p-values when permutations exist
+     * @return
+     *          the summary or null if it couldn't be calculated in java
+     */
+    public ScanTwoSummary createSummary(
+            final ModelToOptimize modelToOptimize,
+            ConfidenceThresholdState confidenceThresholdState,
+            double[] confidenceThresholdValues,
+            int phenotypeIndex,
+            boolean calculatePValues)
+    {
+        final int phenotype = Math.max(0, phenotypeIndex);
+        final ScanTwoLodMatrix lodMatrix = this.resultToSummarize.getLodMatrix();
+        if(phenotype >= lodMatrix.getPhenotypeCount())
+        {
+            return null;
+        }
+
+        List<List<ScanTwoGeneticMarker>> markersPerChromosome =
+            this.resultToSummarize.getGeneticMarkersPerChromosome();
+        int chromosomeCount = markersPerChromosome.size();
+        final int[] chromosomeStarts = new int[chromosomeCount + 1];
+        for(int i = 0; i < chromosomeCount; i++)
+        {
+            chromosomeStarts[i + 1] =
+                chromosomeStarts[i] + markersPerChromosome.get(i).size();
+        }
+        if(chromosomeStarts[chromosomeCount] != lodMatrix.getPositionCount())
+        {
+            LOG.warning(
+                    "the scantwo map doesn't match the LOD matrix size. " +
+                    "can't summarize in java");
+            return null;
+        }
+
+        final List<ScanTwoGeneticMarker> markers =
+            this.resultToSummarize.getGeneticMarkers();
+        final double[] maxScanOneLods =
+            this.resultToSummarize.getMaxScanoneLodPerChromosome(phenotype);
+
+        // pull the permutations out of R (or the cache) before we start
+        double[][] sortedPermutationMaxima = null;
+        boolean needPermutations =
+            calculatePValues ||
+            (confidenceThresholdState == ConfidenceThresholdState.ALPHA_THRESHOLD &&
+             confidenceThresholdValues != null);
+        if(needPermutations && this.resultToSummarize.getPermutationsWereCalculated())
+        {
+            sortedPermutationMaxima = this.getSortedPermutationMaxima(phenotype);
+            for(int i = 0; i < sortedPermutationMaxima.length; i++)
+            {
+                if(sortedPermutationMaxima[i].length == 0)
+                {
+                    // we can't get thresholds or p-values out of an empty
+                    // component so let R deal with it
+                    LOG.warning(
+                            "no " + PERMUTATION_COMPONENT_NAMES[i] +
+                            " permutation maxima. can't summarize in java");
+                    return null;
+                }
+            }
+        }
+
+        // one task per chromosome pair
+        List<Callable<ScanTwoSummaryRow>> tasks =
+            new ArrayList<Callable<ScanTwoSummaryRow>>();
+        for(int i = 0; i < chromosomeCount; i++)
+        {
+            for(int j = i; j < chromosomeCount; j++)
+            {
+                final int chromosome1 = i;
+                final int chromosome2 = j;
+                tasks.add(new Callable<ScanTwoSummaryRow>()
+                {
+                    public ScanTwoSummaryRow call()
+                    {
+                        return ScanTwoSummaryEngine.summarizeChromosomePair(
+                                modelToOptimize,
+                                lodMatrix,
+                                phenotype,
+                                markers,
+                                chromosomeStarts[chromosome1],
+                                chromosomeStarts[chromosome1 + 1],
+                                chromosomeStarts[chromosome2],
+                                chromosomeStarts[chromosome2 + 1],
+                                Math.max(
+                                        maxScanOneLods[chromosome1],
+                                        maxScanOneLods[chromosome2]));
+                    }
+                });
+            }
+        }
+
+        List<ScanTwoSummaryRow> pairRows;
+        try
+        {
+            pairRows = ParallelComputation.invokeAll(tasks);
+        }
+        catch(ExecutionException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "java scantwo summary failed",
+                    ex.getCause());
+            return null;
+        }
+        catch(InterruptedException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "interrupted during java scantwo summary",
+                    ex);
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        double[] lodThresholds = ScanTwoSummaryEngine.getLodThresholds(
+                confidenceThresholdState,
+                confidenceThresholdValues,
+                sortedPermutationMaxima);
+        boolean fillInPValues = calculatePValues && sortedPermutationMaxima != null;
+
+        List<ScanTwoSummaryRow> rows = new ArrayList<ScanTwoSummaryRow>();
+        for(ScanTwoSummaryRow currRow: pairRows)
+        {
+            if(currRow != null && ScanTwoSummaryEngine.passesThresholds(currRow, lodThresholds))
+            {
+                if(fillInPValues)
+                {
+                    ScanTwoSummaryEngine.setPValues(currRow, sortedPermutationMaxima);
+                }
+                rows.add(currRow);
+            }
+        }
+
+        return new ScanTwoSummary(
+                modelToOptimize,
+                rows.toArray(new ScanTwoSummaryRow[rows.size()]));
+    }
+
+    /**
+     * Summarize a single chromosome pair the way that
+     * <code>summary.scantwo</code> does
+     * @param modelToOptimize
+     *          the model to optimize
+     * @param lodMatrix
+     *          the LOD scores
+     * @param phenotype
+     *          the phenotype index
+     * @param markers
+     *          the markers for each position
+     * @param start1
+     *          the 1st position of the 1st chromosome
+     * @param end1
+     *          the end position (exclusive) of the 1st chromosome
+     * @param start2
+     *          the 1st position of the 2nd chromosome
+     * @param end2
+     *          the end position (exclusive) of the 2nd chromosome
+     * @param maxScanOneLod
+     *          the larger of the two chromosomes' scanone maxima
+     * @return
+     *          the row or null if the pair has no position pairs
+     */
+    static ScanTwoSummaryRow summarizeChromosomePair(
+            ModelToOptimize modelToOptimize,
+            ScanTwoLodMatrix lodMatrix,
+            int phenotype,
+            List<? extends GeneticMarker> markers,
+            int start1,
+            int end1,
+            int start2,
+            int end2,
+            double maxScanOneLod)
+    {
+        boolean sameChromosome = start1 == start2;
+
+        // track the maximizing position pair for the full, additive and
+        // interactive models in a single pass
+        int fullLesser = -1;
+        int fullGreater = -1;
+        double maxFull = Double.NEGATIVE_INFINITY;
+        int addLesser = -1;
+        int addGreater = -1;
+        double maxAdd = Double.NEGATIVE_INFINITY;
+        int intLesser = -1;
+        int intGreater = -1;
+        double maxInt = Double.NEGATIVE_INFINITY;
+        for(int greater = start2; greater < end2; greater++)
+        {
+            int lesserEnd = sameChromosome ? greater : end1;
+            for(int lesser = start1; lesser < lesserEnd; lesser++)
+            {
+                double full = lodMatrix.getFullLod(phenotype, lesser, greater);
+                double add = lodMatrix.getAdditiveLod(phenotype, lesser, greater);
+                if(full > maxFull)
+                {
+                    maxFull = full;
+                    fullLesser = lesser;
+                    fullGreater = greater;
+                }
+                if(add > maxAdd)
+                {
+                    maxAdd = add;
+                    addLesser = lesser;
+                    addGreater = greater;
+                }
+                if(full - add > maxInt)
+                {
+                    maxInt = full - add;
+                    intLesser = lesser;
+                    intGreater = greater;
+                }
+            }
+        }
+
+        if(fullLesser == -1 && addLesser == -1)
+        {
+            return null;
+        }
+
+        ScanTwoSummaryRow row = new ScanTwoSummaryRow();
+        switch(modelToOptimize)
+        {
+            case BEST:
+            {
+                row.setFullMarkerPair(ScanTwoSummaryEngine.createMarkerPair(
+                        markers, fullLesser, fullGreater));
+                row.setAdditiveMarkerPair(ScanTwoSummaryEngine.createMarkerPair(
+                        markers, addLesser, addGreater));
+                ScanTwoSummaryEngine.setLodScores(row, maxFull, maxAdd, maxScanOneLod);
+                break;
+            }
+
+            case ADDITIVE:
+            {
+                ScanTwoSummaryEngine.setPairLodScores(
+                        row, lodMatrix, phenotype, markers,
+                        addLesser, addGreater, maxScanOneLod);
+                break;
+            }
+
+            case INTERACTIVE:
+            {
+                ScanTwoSummaryEngine.setPairLodScores(
+                        row, lodMatrix, phenotype, markers,
+                        intLesser, intGreater, maxScanOneLod);
+                break;
+            }
+
+            default:
+            {
+                ScanTwoSummaryEngine.setPairLodScores(
+                        row, lodMatrix, phenotype, markers,
+                        fullLesser, fullGreater, maxScanOneLod);
+                break;
+            }
+        }
+
+        return row;
+    }
+
+    /**
+     * Fill in a row's marker pair and LOD scores using a single position
+     * pair for all of the models
+     * @param row
+     *          the row to fill in
+     * @param lodMatrix
+     *          the LOD scores
+     * @param phenotype
+     *          the phenotype index
+     * @param markers
+     *          the markers
+     * @param lesser
+     *          the lesser position index
+     * @param greater
+     *          the greater position index
+     * @param maxScanOneLod
+     *          the scanone maximum for the chromosome pair
+     */
+    private static void setPairLodScores(
+            ScanTwoSummaryRow row,
+            ScanTwoLodMatrix lodMatrix,
+            int phenotype,
+            List<? extends GeneticMarker> markers,
+            int lesser,
+            int greater,
+            double maxScanOneLod)
+    {
+        row.setMarkerPair(ScanTwoSummaryEngine.createMarkerPair(
+                markers, lesser, greater));
+        ScanTwoSummaryEngine.setLodScores(
+                row,
+                lodMatrix.getFullLod(phenotype, lesser, greater),
+                lodMatrix.getAdditiveLod(phenotype, lesser, greater),
+                maxScanOneLod);
+    }
+
+    /**
+     * Fill in the five LOD scores of a row
+     * @param row
+     *          the row
+     * @param fullLod
+     *          the full model LOD
+     * @param additiveLod
+     *          the additive model LOD
+     * @param maxScanOneLod
+     *          the scanone maximum for the chromosome pair
+     */
+    private static void setLodScores(
+            ScanTwoSummaryRow row,
+            double fullLod,
+            double additiveLod,
+            double maxScanOneLod)
+    {
+        row.setFullLodScore(fullLod);
+        row.setFullVsOneLodScore(fullLod - maxScanOneLod);
+        row.setInteractiveLodScore(fullLod - additiveLod);
+        row.setAdditiveLodScore(additiveLod);
+        row.setAdditiveVsOneLodScore(additiveLod - maxScanOneLod);
+    }
+
+    /**
+     * Create the marker pair for the given positions
+     * @param markers
+     *          the markers
+     * @param lesser
+     *          the lesser position index
+     * @param greater
+     *          the greater position index
+     * @return
+     *          the pair
+     */
+    private static GeneticMarkerPair createMarkerPair(
+            List<? extends GeneticMarker> markers,
+            int lesser,
+            int greater)
+    {
+        return new GeneticMarkerPair(markers.get(lesser), markers.get(greater));
+    }
+
+    /**
+     * Apply R/qtl's scantwo threshold rule: keep the pair if the full
+     * model passes along with either fv1 or int, or if both add and av1
+     * pass
+     * @param row
+     *          the row
+     * @param lodThresholds
+     *          the LOD thresholds or null for no thresholds
+     * @return
+     *          true if the row should be kept
+     */
+    static boolean passesThresholds(
+            ScanTwoSummaryRow row,
+            double[] lodThresholds)
+    {
+        if(lodThresholds == null)
+        {
+            return true;
+        }
+        else
+        {
+            boolean fullPasses =
+                row.getFullLodScore() >= lodThresholds[FULL_INDEX] &&
+                (row.getFullVsOneLodScore() >= lodThresholds[FULL_VS_ONE_INDEX] ||
+                 row.getInteractiveLodScore() >= lodThresholds[INTERACTIVE_INDEX]);
+            boolean additivePasses =
+                row.getAdditiveLodScore() >= lodThresholds[ADDITIVE_INDEX] &&
+                row.getAdditiveVsOneLodScore() >= lodThresholds[ADDITIVE_VS_ONE_INDEX];
+            return fullPasses || additivePasses;
+        }
+    }
+
+    /**
+     * Fill in the p-values of a row
+     * @param row
+     *          the row
+     * @param sortedPermutationMaxima
+     *          the sorted permutation maxima
+     */
+    static void setPValues(
+            ScanTwoSummaryRow row,
+            double[][] sortedPermutationMaxima)
+    {
+        row.setFullPValue(ScanTwoSummaryEngine.getFractionAtLeast(
+                sortedPermutationMaxima[FULL_INDEX],
+                row.getFullLodScore()));
+        row.setFullVsOnePValue(ScanTwoSummaryEngine.getFractionAtLeast(
+                sortedPermutationMaxima[FULL_VS_ONE_INDEX],
+                row.getFullVsOneLodScore()));
+        row.setInteractivePValue(ScanTwoSummaryEngine.getFractionAtLeast(
+                sortedPermutationMaxima[INTERACTIVE_INDEX],
+                row.getInteractiveLodScore()));
+        row.setAdditivePValue(ScanTwoSummaryEngine.getFractionAtLeast(
+                sortedPermutationMaxima[ADDITIVE_INDEX],
+                row.getAdditiveLodScore()));
+        row.setAdditiveVsOnePValue(ScanTwoSummaryEngine.getFractionAtLeast(
+                sortedPermutationMaxima[ADDITIVE_VS_ONE_INDEX],
+                row.getAdditiveVsOneLodScore()));
+    }
+
+    /**
+     * Turn the threshold settings into LOD thresholds
+     * @param confidenceThresholdState
+     *          the threshold type
+     * @param confidenceThresholdValues
+     *          the threshold values
+     * @param sortedPermutationMaxima
+     *          the permutation maxima (null if we don't have them). every
+     *          component must have at least one maximum
+     * @return
+     *          the LOD thresholds or null if we shouldn't filter
+     */
+    static double[] getLodThresholds(
+            ConfidenceThresholdState confidenceThresholdState,
+            double[] confidenceThresholdValues,
+            double[][] sortedPermutationMaxima)
+    {
+        if(confidenceThresholdValues == null)
+        {
+            return null;
+        }
+
+        switch(confidenceThresholdState)
+        {
+            case LOD_SCORE_THRESHOLD:
+            {
+                return confidenceThresholdValues;
+            }
+
+            case ALPHA_THRESHOLD:
+            {
+                if(sortedPermutationMaxima == null)
+                {
+                    LOG.warning(
+                            "cannot use alpha thresholds since " +
+                            "permutations were not calculated");
+                    return null;
+                }
+
+                double[] lodThresholds = new double[confidenceThresholdValues.length];
+                for(int i = 0; i < lodThresholds.length; i++)
+                {
+                    lodThresholds[i] = ScanTwoSummaryEngine.getQuantile(
+                            sortedPermutationMaxima[i],
+                            1.0 - confidenceThresholdValues[i]);
+                }
+                return lodThresholds;
+            }
+
+            default:
+            {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Get the sorted permutation maxima for the given phenotype, fetching
+     * them from R in a single round trip if they aren't cached
+     * @param phenotype
+     *          the phenotype index
+     * @return
+     *          the sorted maxima for each of
+     *          {@link #PERMUTATION_COMPONENT_NAMES}
+     */
+    private double[][] getSortedPermutationMaxima(int phenotype)
+    {
+        String permutationsAccessor =
+            this.resultToSummarize.getPermutationsObjectAccessorString();
+        String key = permutationsAccessor + "\n" + phenotype;
+        long epoch = RSessionEpoch.getMutationEpoch();
+        synchronized(PERMUTATION_CACHE)
+        {
+            CachedPermutations cachedPermutations = PERMUTATION_CACHE.get(key);
+            if(cachedPermutations != null && cachedPermutations.epoch == epoch)
+            {
+                return cachedPermutations.sortedMaxima;
+            }
+        }
+
+        String[] expressions = new String[PERMUTATION_COMPONENT_NAMES.length];
+        for(int i = 0; i < expressions.length; i++)
+        {
+            expressions[i] =
+                "as.double(as.matrix(" + permutationsAccessor + "$" +
+                PERMUTATION_COMPONENT_NAMES[i] + ")[ , " + (phenotype + 1) + "])";
+        }
+        REXP[] results = RCommandBatch.evaluateExpressions(
+                this.resultToSummarize.getRInterface(),
+                expressions);
+
+        double[][] sortedMaxima = new double[results.length][];
+        for(int i = 0; i < results.length; i++)
+        {
+            double[] maxima = results[i] == null ? null : results[i].asDoubleArray();
+            if(maxima == null)
+            {
+                maxima = new double[0];
+            }
+            Arrays.sort(maxima);
+
+            // NaNs sort to the end so we can just trim them off
+            int count = maxima.length;
+            while(count > 0 && Double.isNaN(maxima[count - 1]))
+            {
+                count--;
+            }
+            sortedMaxima[i] = count == maxima.length ?
+                    maxima :
+                    Arrays.copyOf(maxima, count);
+        }
+
+        synchronized(PERMUTATION_CACHE)
+        {
+            PERMUTATION_CACHE.put(key, new CachedPermutations(epoch, sortedMaxima));
+        }
+        return sortedMaxima;
+    }
+
+    /**
+     * Get the fraction of the sorted values that are greater than or equal
+     * to the given value
+     * @param sortedValues
+     *          the sorted values
+     * @param value
+     *          the value
+     * @return
+     *          the fraction
+     */
+    private static double getFractionAtLeast(double[] sortedValues, double value)
+    {
+        if(sortedValues.length == 0 || Double.isNaN(value))
+        {
+            return Double.NaN;
+        }
+
+        int low = 0;
+        int high = sortedValues.length;
+        while(low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if(sortedValues[middle] < value)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+
+        return (sortedValues.length - low) / (double)sortedValues.length;
+    }
+
+    /**
+     * Get a type 7 quantile (R's default) of the sorted values
+     * @param sortedValues
+     *          the sorted values
+     * @param probability
+     *          the probability
+     * @return
+     *          the quantile
+     * @throws IllegalArgumentException
+     *          if there are no values to take the quantile of
+     */
+    static double getQuantile(double[] sortedValues, double probability)
+    {
+        if(sortedValues.length == 0)
+        {
+            throw new IllegalArgumentException(
+                    "can't take the quantile of an empty distribution");
+        }
+        else if(Double.isNaN(probability))
+        {
+            return Double.NaN;
+        }
+
+        double h = (sortedValues.length - 1) * Math.min(1.0, Math.max(0.0, probability));
+        int lowIndex = (int)Math.floor(h);
+        int highIndex = Math.min(sortedValues.length - 1, lowIndex + 1);
+        return sortedValues[lowIndex] +
+               (h - lowIndex) * (sortedValues[highIndex] - sortedValues[lowIndex]);
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jax.qtl.scan.gui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jax.qtl.cross.Cross;
+import org.jax.qtl.job.Job;
+import org.jax.qtl.job.JobCategory;
+import org.jax.qtl.job.JobScheduler;
+import org.jax.qtl.job.RunnableJob;
+import org.jax.qtl.scan.BatchScanPeakTable;
+import org.jax.qtl.scan.ScanCommandBuilder;
+import org.jax.qtl.scan.ScanOneResult;
+import org.jax.qtl.scan.ScanOneSummary;
+import org.jax.qtl.scan.ScanOneSummaryEngine;
+import org.jax.qtl.scan.ScanResultFilter.AbsoluteConfidenceFilter;
+import org.jax.r.jriutilities.RInterface;
+import org.jax.r.jriutilities.RInterfaceFactory;
+
+/**
+ * Runs the same scanone over many (cross, phenotype) targets. Every target
+ * gets its own copy of a template scan command and its own job in the
+ * {@link JobScheduler} (so the "Genome Scans" limit in the job queue
+ * decides how many run at once). As each scan finishes its chromosome
+ * peaks are added to a {@link BatchScanPeakTable}.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class BatchScan
+{
+    /**
+     * our logger
+     */
+    private static final Logger LOG = Logger.getLogger(
+            BatchScan.class.getName());
+    
+    /**
+     * One cross and phenotype to scan
+     */
+    public static class Target
+    {
+        private final Cross cross;
+        
+        private final String phenotypeName;
+        
+        /**
+         * Constructor
+         * @param cross
+         *          see {@link #getCross()}
+         * @param phenotypeName
+         *          see {@link #getPhenotypeName()}
+         */
+        public Target(Cross cross, String phenotypeName)
+        {
+            this.cross = cross;
+            this.phenotypeName = phenotypeName;
+        }
+        
+        /**
+         * Getter for the cross to scan
+         * @return the cross
+         */
+        public Cross getCross()
+        {
+            return this.cross;
+        }
+        
+        /**
+         * Getter for the phenotype to scan
+         * @return the phenotype name
+         */
+        public String getPhenotypeName()
+        {
+            return this.phenotypeName;
+        }
+    }
+    
+    private final ScanCommandBuilder templateCommand;
+    
+    private final List<Target> targets;
+    
+    private final List<ScanCommandBuilder> scanCommands;
+    
+    private final double lodThreshold;
+    
+    private final BatchScanPeakTable peakTable;
+    
+    /**
+     * Constructor
+     * @param templateCommand
+     *          the command that every scan is copied from. The cross,
+     *          phenotype and result name are replaced for each target
+     * @param crosses
+     *          the crosses to scan
+     * @param phenotypeNames
+     *          the phenotypes to scan. A cross is only scanned for the
+     *          phenotypes that it actually has
+     * @param resultNamePrefix
+     *          the prefix used to build the result names. Each result is
+     *          named "prefix.cross.phenotype" (cleaned up to be a legal R
+     *          identifier)
+     * @param lodThreshold
+     *          only chromosome peaks at or above this LOD score go into
+     *          the peak table
+     */
+    public BatchScan(
+            ScanCommandBuilder templateCommand,
+            Cross[] crosses,
+            String[] phenotypeNames,
+            String resultNamePrefix,
+            double lodThreshold)
+    {
+        this.templateCommand = templateCommand;
+        this.lodThreshold = lodThreshold;
+        
+        List<Target> targets = new ArrayList<Target>();
+        List<ScanCommandBuilder> scanCommands = new ArrayList<ScanCommandBuilder>();
+        Set<String> usedNames = new HashSet<String>();
+        for(Cross currCross: crosses)
+        {
+            List<String> crossPhenotypeNames = Arrays.asList(
+                    currCross.getPhenotypeMatrix().getPhenotypeNames());
+            if(!this.hasAllCovariates(crossPhenotypeNames))
+            {
+                LOG.info(
+                        "skipping " + currCross.getAccessorExpressionString() +
+                        " in the batch scan since it is missing some of " +
+                        "the phenotype covariates");
+                continue;
+            }
+            
+            for(String currPhenotypeName: phenotypeNames)
+            {
+                int phenotypeIndex = crossPhenotypeNames.indexOf(currPhenotypeName);
+                if(phenotypeIndex != -1 && !this.isCovariate(currPhenotypeName))
+                {
+                    Target target = new Target(currCross, currPhenotypeName);
+                    ScanCommandBuilder scanCommand = this.createScanCommand(
+                            target,
+                            phenotypeIndex,
+                            BatchScan.createUniqueResultName(
+                                    resultNamePrefix,
+                                    target,
+                                    usedNames));
+                    targets.add(target);
+                    scanCommands.add(scanCommand);
+                }
+            }
+        }
+        
+        this.targets = Collections.unmodifiableList(targets);
+        this.scanCommands = Collections.unmodifiableList(scanCommands);
+        this.peakTable = new BatchScanPeakTable(targets.size());
+    }
+    
+    /**
+     * Getter for the targets that will be scanned. Targets that can't be
+     * scanned (a phenotype that the cross doesn't have or that is being
+     * used as a covariate) aren't included
+     * @return the targets
+     */
+    public List<Target> getTargets()
+    {
+        return this.targets;
+    }
+    
+    /**
+     * Getter for the scan commands. These line up with {@link #getTargets()}
+     * @return the scan commands
+     */
+    public List<ScanCommandBuilder> getScanCommands()
+    {
+        return this.scanCommands;
+    }
+    
+    /**
+     * Getter for the peak table that is filled in as the scans finish
+     * @return the peak table
+     */
+    public BatchScanPeakTable getPeakTable()
+    {
+        return this.peakTable;
+    }
+    
+    /**
+     * Submit one job per target to the {@link JobScheduler}
+     * @return
+     *          the jobs that were submitted
+     */
+    public List<Job> submit()
+    {
+        List<Job> jobs = new ArrayList<Job>(this.targets.size());
+        for(int i = 0; i < this.targets.size(); i++)
+        {
+            final Target target = this.targets.get(i);
+            final ScanCommandBuilder scanCommand = this.scanCommands.get(i);
+            Job job = new RunnableJob(
+                    "scanone: " + scanCommand.getScanResultName(),
+                    JobCategory.GENOME_SCAN,
+                    new Runnable()
+                    {
+                        public void run()
+                        {
+                            BatchScan.this.runScan(target, scanCommand);
+                        }
+                    });
+            jobs.add(job);
+            JobScheduler.getInstance().submit(job);
+        }
+        
+        return jobs;
+    }
+    
+    /**
+     * Run a single scan from the batch and add its peaks to the table
+     * @param target
+     *          the target being scanned
+     * @param scanCommand
+     *          the scan command for the target
+     */
+    private void runScan(Target target, ScanCommandBuilder scanCommand)
+    {
+        String scanResultName = scanCommand.getScanResultName();
+        try
+        {
+            ScanOneAction.evaluateScanCommand(scanCommand);
+            
+            RInterface rInterface = RInterfaceFactory.getRInterfaceInstance();
+            ScanOneResult scanResult = new ScanOneResult(
+                    rInterface,
+                    scanResultName,
+                    target.getCross());
+            String lodColumnName = scanResult.getSignificanceValueColumnNames()[0];
+            ScanOneSummary summary = ScanOneSummaryEngine.getEngine(
+                    scanResult,
+                    lodColumnName).createSummary(
+                            AbsoluteConfidenceFilter.LOD_SCORE_FILTER,
+                            this.lodThreshold);
+            this.peakTable.addPeaks(
+                    target.getCross(),
+                    target.getPhenotypeName(),
+                    scanResultName,
+                    summary);
+        }
+        catch(RuntimeException ex)
+        {
+            LOG.log(Level.SEVERE,
+                    "batch scan failed for " + scanResultName,
+                    ex);
+            this.peakTable.addFailure(scanResultName, ex);
+            throw ex;
+        }
+    }
+    
+    /**
+     * Create the scan command for a single target
+     * @param target
+     *          the target
+     * @param phenotypeIndex
+     *          the (zero based) index of the phenotype in the target cross
+     * @param scanResultName
+     *          the result name to use
+     * @return
+     *          the command
+     */
+    private ScanCommandBuilder createScanCommand(
+            Target target,
+            int phenotypeIndex,
+            String scanResultName)
+    {
+        ScanCommandBuilder scanCommand = this.templateCommand.copy();
+        if(target.getCross() != this.templateCommand.getCross())
+        {
+            // genotype covariates are markers from the template cross so
+            // they don't carry over to other crosses
+            scanCommand.setAdditiveGenotypeCovariates(null);
+            scanCommand.setInteractiveGenotypeCovariates(null);
+        }
+        scanCommand.setCross(target.getCross());
+        scanCommand.setPhenotypeIndices(new int[] {phenotypeIndex});
+        scanCommand.setScanResultName(scanResultName);
+        
+        return scanCommand;
+    }
+    
+    /**
+     * Determine if the given phenotype is one of the template's phenotype
+     * covariates
+     * @param phenotypeName
+     *          the phenotype
+     * @return
+     *          true if it is a covariate
+     */
+    private boolean isCovariate(String phenotypeName)
+    {
+        return BatchScan.contains(
+                this.templateCommand.getAdditiveCovariates(),
+                phenotypeName) ||
+               BatchScan.contains(
+                this.templateCommand.getInteractivePhenotypeCovariates(),
+                phenotypeName);
+    }
+    
+    /**
+     * Determine if a cross has all of the template's phenotype covariates
+     * @param crossPhenotypeNames
+     *          the phenotype names of the cross
+     * @return
+     *          true if all of the covariates are there
+     */
+    private boolean hasAllCovariates(List<String> crossPhenotypeNames)
+    {
+        String[] additiveCovariates = this.templateCommand.getAdditiveCovariates();
+        if(additiveCovariates != null &&
+           !crossPhenotypeNames.containsAll(Arrays.asList(additiveCovariates)))
+        {
+            return false;
+        }
+        
+        String[] interactiveCovariates =
+            this.templateCommand.getInteractivePhenotypeCovariates();
+        if(interactiveCovariates != null &&
+           !crossPhenotypeNames.containsAll(Arrays.asList(interactiveCovariates)))
+        {
+            return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Null safe array contains
+     * @param array
+     *          the array (can be null)
+     * @param value
+     *          the value to look for
+     * @return
+     *          true if the value is in the array
+     */
+    private static boolean contains(String[] array, String value)
+    {
+        return array != null && Arrays.asList(array).contains(value);
+    }
+    
+    /**
+     * Create a result name for the given target that isn't already in
+     * the used names set and add it to the set
+     * @param resultNamePrefix
+     *          the name prefix
+     * @param target
+     *          the target
+     * @param usedNames
+     *          the names used so far in this batch
+     * @return
+     *          the name
+     */
+    private static String createUniqueResultName(
+            String resultNamePrefix,
+            Target target,
+            Set<String> usedNames)
+    {
+        String baseName = BatchScan.toRIdentifier(
+                resultNamePrefix + "." +
+                target.getCross().getAccessorExpressionString() + "." +
+                target.getPhenotypeName());
+        String name = baseName;
+        for(int i = 2; usedNames.contains(name); i++)
+        {
+            name = baseName + "." + i;
+        }
+        usedNames.add(name);
+        
+        return name;
+    }
+    
+    /**
+     * Turn the given text into a legal R identifier in the same way that
+     * R's <code>make.names</code> does: illegal characters become '.' and
+     * names that don't start with a letter or a '.' (that isn't followed
+     * by a digit) get an "X" in front
+     * @param text
+     *          the text
+     * @return
+     *          the identifier
+     */
+    static String toRIdentifier(String text)
+    {
+        StringBuilder identifier = new StringBuilder(text.length() + 1);
+        for(int i = 0; i < text.length(); i++)
+        {
+            char currChar = text.charAt(i);
+            if(Character.isLetterOrDigit(currChar) || currChar == '.' || currChar == '_')
+            {
+                identifier.append(currChar);
+            }
+            else
+            {
+                identifier.append('.');
+            }
+        }
+        
+        boolean legalStart =
+            identifier.length() > 0 &&
+            (Character.isLetter(identifier.charAt(0)) ||
+             (identifier.charAt(0) == '.' &&
+              (identifier.length() == 1 || !Character.isDigit(identifier.charAt(1)))));
+        if(!legalStart)
+        {
+            identifier.insert(0, 'X');
+        }
+        
+        return identifier.toString();
+    }
+}
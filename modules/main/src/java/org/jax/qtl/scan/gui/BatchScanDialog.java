@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jax.qtl.scan.gui;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.GridLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+
+import org.jax.qtl.cross.Cross;
+import org.jax.qtl.scan.ScanCommandBuilder;
+
+/**
+ * Dialog for picking the crosses and phenotypes that a {@link BatchScan}
+ * runs over. The scan settings themselves come from a template command
+ * that was already filled in using the {@link ScanDialog}
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class BatchScanDialog extends JDialog
+{
+    /**
+     * every {@link java.io.Serializable} is supposed to have one of these
+     */
+    private static final long serialVersionUID = 2206814369505918733L;
+    
+    /**
+     * the LOD threshold that we start with
+     */
+    private static final double DEFAULT_LOD_THRESHOLD = 3.0;
+    
+    private final ScanCommandBuilder templateCommand;
+    
+    private final JList crossList;
+    
+    private final JList phenotypeList;
+    
+    private final JTextField resultNamePrefixField = new JTextField(20);
+    
+    private final JTextField lodThresholdField = new JTextField(
+            Double.toString(DEFAULT_LOD_THRESHOLD),
+            6);
+    
+    private volatile BatchScan batchScan = null;
+    
+    /**
+     * Constructor
+     * @param parent
+     *          the parent frame
+     * @param templateCommand
+     *          the scan command that every scan in the batch is based on
+     * @param availableCrosses
+     *          the crosses that can be scanned
+     */
+    public BatchScanDialog(
+            java.awt.Frame parent,
+            ScanCommandBuilder templateCommand,
+            Cross[] availableCrosses)
+    {
+        super(parent, "Scan Many Phenotypes", true);
+        
+        this.templateCommand = templateCommand;
+        
+        this.crossList = new JList(availableCrosses);
+        int templateCrossIndex = Arrays.asList(availableCrosses).indexOf(
+                templateCommand.getCross());
+        if(templateCrossIndex != -1)
+        {
+            this.crossList.setSelectedIndex(templateCrossIndex);
+        }
+        
+        Set<String> phenotypeNames = new LinkedHashSet<String>();
+        for(Cross currCross: availableCrosses)
+        {
+            phenotypeNames.addAll(Arrays.asList(
+                    currCross.getPhenotypeMatrix().getPhenotypeNames()));
+        }
+        this.phenotypeList = new JList(phenotypeNames.toArray());
+        this.phenotypeList.setSelectionInterval(0, phenotypeNames.size() - 1);
+        
+        String templateResultName = templateCommand.getScanResultName();
+        this.resultNamePrefixField.setText(
+                templateResultName == null ? "batch" : templateResultName);
+        
+        this.initComponents();
+    }
+    
+    /**
+     * Lay out the dialog
+     */
+    private void initComponents()
+    {
+        JPanel listPanel = new JPanel(new GridLayout(1, 2, 5, 5));
+        JScrollPane crossScrollPane = new JScrollPane(this.crossList);
+        crossScrollPane.setBorder(BorderFactory.createTitledBorder(
+                "Crosses to Scan"));
+        listPanel.add(crossScrollPane);
+        JScrollPane phenotypeScrollPane = new JScrollPane(this.phenotypeList);
+        phenotypeScrollPane.setBorder(BorderFactory.createTitledBorder(
+                "Phenotypes to Scan"));
+        listPanel.add(phenotypeScrollPane);
+        
+        JPanel settingsPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        settingsPanel.add(new JLabel("Result Name Prefix:"));
+        settingsPanel.add(this.resultNamePrefixField);
+        settingsPanel.add(new JLabel("Peak LOD Threshold:"));
+        settingsPanel.add(this.lodThresholdField);
+        
+        JButton okButton = new JButton("OK");
+        okButton.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                BatchScanDialog.this.ok();
+            }
+        });
+        JButton cancelButton = new JButton("Cancel");
+        cancelButton.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                BatchScanDialog.this.dispose();
+            }
+        });
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(okButton);
+        buttonPanel.add(cancelButton);
+        
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(settingsPanel, BorderLayout.CENTER);
+        southPanel.add(buttonPanel, BorderLayout.SOUTH);
+        
+        JPanel contentPanel = new JPanel(new BorderLayout(5, 5));
+        contentPanel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        contentPanel.add(listPanel, BorderLayout.CENTER);
+        contentPanel.add(southPanel, BorderLayout.SOUTH);
+        this.setContentPane(contentPanel);
+        
+        this.pack();
+        this.setLocationRelativeTo(this.getParent());
+    }
+    
+    /**
+     * Getter for the batch scan that the user asked for
+     * @return
+     *          the batch scan or null if the user cancelled
+     */
+    public BatchScan getBatchScan()
+    {
+        return this.batchScan;
+    }
+    
+    /**
+     * Validate the user's choices and create the batch scan. The dialog
+     * stays open if there's a problem
+     */
+    private void ok()
+    {
+        String errorMessage = null;
+        
+        Object[] selectedCrosses = this.crossList.getSelectedValues();
+        Object[] selectedPhenotypes = this.phenotypeList.getSelectedValues();
+        String resultNamePrefix = this.resultNamePrefixField.getText().trim();
+        double lodThreshold = Double.NaN;
+        try
+        {
+            lodThreshold = Double.parseDouble(
+                    this.lodThresholdField.getText().trim());
+        }
+        catch(NumberFormatException ex)
+        {
+            errorMessage = "The peak LOD threshold must be a number";
+        }
+        
+        if(selectedCrosses.length == 0)
+        {
+            errorMessage = "Please select at least one cross to scan";
+        }
+        else if(selectedPhenotypes.length == 0)
+        {
+            errorMessage = "Please select at least one phenotype to scan";
+        }
+        else if(resultNamePrefix.length() == 0)
+        {
+            errorMessage = "Please enter a result name prefix";
+        }
+        
+        BatchScan batchScan = null;
+        if(errorMessage == null)
+        {
+            List<Cross> crosses = new ArrayList<Cross>();
+            for(Object currCross: selectedCrosses)
+            {
+                crosses.add((Cross)currCross);
+            }
+            String[] phenotypeNames = new String[selectedPhenotypes.length];
+            for(int i = 0; i < selectedPhenotypes.length; i++)
+            {
+                phenotypeNames[i] = (String)selectedPhenotypes[i];
+            }
+            
+            batchScan = new BatchScan(
+                    this.templateCommand,
+                    crosses.toArray(new Cross[crosses.size()]),
+                    phenotypeNames,
+                    resultNamePrefix,
+                    lodThreshold);
+            if(batchScan.getTargets().isEmpty())
+            {
+                errorMessage =
+                    "None of the selected crosses has any of the selected " +
+                    "phenotypes (phenotypes used as covariates are not scanned)";
+            }
+        }
+        
+        if(errorMessage != null)
+        {
+            JOptionPane.showMessageDialog(
+                    this,
+                    errorMessage,
+                    "Batch Scan Settings",
+                    JOptionPane.WARNING_MESSAGE);
+        }
+        else
+        {
+            this.batchScan = batchScan;
+            this.dispose();
+        }
+    }
+}
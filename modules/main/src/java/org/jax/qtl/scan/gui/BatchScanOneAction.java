@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jax.qtl.scan.gui;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.AbstractAction;
+import javax.swing.SwingUtilities;
+
+import org.jax.qtl.QTL;
+import org.jax.qtl.cross.Cross;
+import org.jax.qtl.project.QtlDataModel;
+import org.jax.qtl.project.QtlProjectManager;
+import org.jax.qtl.project.gui.QtlProjectTree;
+import org.jax.qtl.scan.ScanCommandBuilder;
+import org.jax.qtl.scan.ScanType;
+import org.jax.util.project.ProjectChangeListener;
+import org.jax.util.project.ProjectManager;
+
+/**
+ * Action for running the same scanone over many phenotypes (and crosses).
+ * The user fills in a template scan with the usual {@link ScanDialog} and
+ * then picks the targets with the {@link BatchScanDialog}
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class BatchScanOneAction extends AbstractAction implements ProjectChangeListener
+{
+    /**
+     * every {@link java.io.Serializable} is supposed to have one of these
+     */
+    private static final long serialVersionUID = 6043297715385690322L;
+    
+    /**
+     * used to give every peak table frame an ID of its own
+     */
+    private static int peakTableFrameCount = 0;
+    
+    /**
+     * action listener that responds to an approval of the template scan
+     */
+    private final ActionListener templateApprovedListener = new ActionListener()
+    {
+        public void actionPerformed(ActionEvent e)
+        {
+            ScanDialog sourceDialog = (ScanDialog)e.getSource();
+            final ScanCommandBuilder templateCommand = sourceDialog.getScanCommand();
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                public void run()
+                {
+                    BatchScanOneAction.this.chooseTargets(templateCommand);
+                }
+            });
+        }
+    };
+    
+    /**
+     * Constructor
+     */
+    public BatchScanOneAction()
+    {
+        super("Run One QTL Genome Scan on Many Phenotypes ...");
+        
+        // add a listener to the project so that we know when to refresh
+        // our updated state
+        QtlProjectManager projectManager = QtlProjectManager.getInstance();
+        projectManager.addProjectChangeListener(this);
+        this.projectChangeOccurred(projectManager);
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    public void actionPerformed(ActionEvent e)
+    {
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            public void run()
+            {
+                QtlDataModel dataModel =
+                    QtlProjectManager.getInstance().getActiveProject().getDataModel();
+                Cross[] crosses = dataModel.getCrosses();
+                QtlProjectTree projectTree = QTL.getInstance().getProjectTree();
+                
+                ScanDialog scanDialog = new ScanDialog(
+                        QTL.getInstance().getApplicationFrame(),
+                        ScanType.SCANONE,
+                        crosses,
+                        projectTree.getSelectedCross());
+                scanDialog.setTitle(
+                        ScanType.SCANONE.toString() + " (Batch Template)");
+                scanDialog.addActionListener(
+                        BatchScanOneAction.this.templateApprovedListener);
+                scanDialog.setVisible(true);
+            }
+        });
+    }
+    
+    /**
+     * Let the user pick the crosses and phenotypes for the batch and then
+     * kick off the scans
+     * @param templateCommand
+     *          the template scan command
+     */
+    private void chooseTargets(ScanCommandBuilder templateCommand)
+    {
+        QtlDataModel dataModel =
+            QtlProjectManager.getInstance().getActiveProject().getDataModel();
+        BatchScanDialog batchScanDialog = new BatchScanDialog(
+                QTL.getInstance().getApplicationFrame(),
+                templateCommand,
+                dataModel.getCrosses());
+        batchScanDialog.setVisible(true);
+        
+        BatchScan batchScan = batchScanDialog.getBatchScan();
+        if(batchScan != null)
+        {
+            // the panel has to exist before the scans are submitted so
+            // that it sees every peak
+            BatchScanPeakTablePanel peakTablePanel =
+                new BatchScanPeakTablePanel(batchScan.getPeakTable());
+            String frameId;
+            synchronized(BatchScanOneAction.class)
+            {
+                peakTableFrameCount++;
+                frameId = "BatchScanPeakTable" + peakTableFrameCount;
+            }
+            QTL.getInstance().getDesktop().createInternalFrame(
+                    peakTablePanel,
+                    "Batch Scan Peaks: " + templateCommand.getScanResultName(),
+                    null,
+                    frameId);
+            
+            batchScan.submit();
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    public void projectChangeOccurred(ProjectManager projectManager)
+    {
+        // we shouldn't enable this unless we have some active crosses
+        QtlProjectManager qtlProjectManager = (QtlProjectManager)projectManager;
+        QtlDataModel dataModel =
+            qtlProjectManager.getActiveProject().getDataModel();
+        final boolean anyCrosses = !dataModel.getCrossMap().isEmpty();
+        
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            public void run()
+            {
+                BatchScanOneAction.this.setEnabled(anyCrosses);
+            }
+        });
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jax.qtl.scan.gui;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+import org.jax.qtl.cross.GeneticMarker;
+import org.jax.qtl.gui.ExportDataTableAction;
+import org.jax.qtl.scan.BatchScanPeakTable;
+import org.jax.qtl.scan.BatchScanPeakTable.Peak;
+import org.jax.qtl.scan.BatchScanPeakTable.PeakTableListener;
+import org.jax.util.io.JTableDataTable;
+
+/**
+ * Shows the combined peak table of a {@link BatchScan}. Rows show up as
+ * the scans finish
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class BatchScanPeakTablePanel extends JPanel
+{
+    /**
+     * every {@link java.io.Serializable} is supposed to have one of these
+     */
+    private static final long serialVersionUID = -3624873306102947131L;
+    
+    private static final String[] COLUMN_NAMES = new String[] {
+        "Cross",
+        "Phenotype",
+        "Scan Result",
+        "Marker",
+        "Chromosome",
+        "Position (cM)",
+        "LOD",
+        "P-Value"};
+    
+    private final BatchScanPeakTable peakTable;
+    
+    /**
+     * the peaks that we're showing. only touched from the AWT thread
+     */
+    private final List<Peak> peaks = new ArrayList<Peak>();
+    
+    private final PeakTableModel peakTableModel = new PeakTableModel();
+    
+    private final JLabel statusLabel = new JLabel();
+    
+    private final PeakTableListener peakTableListener = new PeakTableListener()
+    {
+        public void peaksAdded(
+                BatchScanPeakTable peakTable,
+                final List<Peak> newPeaks)
+        {
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                public void run()
+                {
+                    BatchScanPeakTablePanel.this.addPeaks(newPeaks);
+                }
+            });
+        }
+        
+        public void scanFailed(
+                BatchScanPeakTable peakTable,
+                String scanResultName,
+                Throwable failure)
+        {
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                public void run()
+                {
+                    BatchScanPeakTablePanel.this.updateStatus();
+                }
+            });
+        }
+    };
+    
+    /**
+     * Constructor. The panel only sees peaks that are added after it's
+     * created so it should be created before the batch is submitted
+     * @param peakTable
+     *          the peak table to show
+     */
+    public BatchScanPeakTablePanel(BatchScanPeakTable peakTable)
+    {
+        super(new BorderLayout());
+        this.peakTable = peakTable;
+        
+        JTable table = new JTable(this.peakTableModel);
+        table.setAutoCreateRowSorter(true);
+        this.add(this.statusLabel, BorderLayout.NORTH);
+        this.add(new JScrollPane(table), BorderLayout.CENTER);
+        
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(new JButton(new ExportDataTableAction(
+                new JTableDataTable(table))));
+        this.add(buttonPanel, BorderLayout.SOUTH);
+        
+        peakTable.addPeakTableListener(this.peakTableListener);
+        this.updateStatus();
+    }
+    
+    /**
+     * Add the given peaks to the table. This must be called from the AWT
+     * thread
+     * @param newPeaks
+     *          the peaks to add
+     */
+    private void addPeaks(List<Peak> newPeaks)
+    {
+        if(!newPeaks.isEmpty())
+        {
+            int firstRow = this.peaks.size();
+            this.peaks.addAll(newPeaks);
+            this.peakTableModel.fireTableRowsInserted(
+                    firstRow,
+                    this.peaks.size() - 1);
+        }
+        this.updateStatus();
+    }
+    
+    /**
+     * Update the status label. This must be called from the AWT thread
+     */
+    private void updateStatus()
+    {
+        int failedCount = this.peakTable.getFailedScanCount();
+        String status =
+            this.peakTable.getFinishedScanCount() + " of " +
+            this.peakTable.getScanCount() + " scans finished";
+        if(failedCount > 0)
+        {
+            status += " (" + failedCount + " failed, see the log for details)";
+        }
+        this.statusLabel.setText(status);
+    }
+    
+    /**
+     * Table model for the peaks
+     */
+    private class PeakTableModel extends AbstractTableModel
+    {
+        /**
+         * every {@link java.io.Serializable} is supposed to have one of these
+         */
+        private static final long serialVersionUID = 7310951460830542619L;
+        
+        /**
+         * {@inheritDoc}
+         */
+        public int getColumnCount()
+        {
+            return COLUMN_NAMES.length;
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getColumnName(int column)
+        {
+            return COLUMN_NAMES[column];
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Class<?> getColumnClass(int columnIndex)
+        {
+            return columnIndex >= 5 ? Double.class : String.class;
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        public int getRowCount()
+        {
+            return BatchScanPeakTablePanel.this.peaks.size();
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        public Object getValueAt(int rowIndex, int columnIndex)
+        {
+            Peak peak = BatchScanPeakTablePanel.this.peaks.get(rowIndex);
+            GeneticMarker marker = peak.getSummaryRow().getMarker();
+            switch(columnIndex)
+            {
+                case 0: return peak.getCross().getAccessorExpressionString();
+                case 1: return peak.getPhenotypeName();
+                case 2: return peak.getScanResultName();
+                case 3: return marker.getMarkerName();
+                case 4: return marker.getChromosomeName();
+                case 5: return marker.getMarkerPositionCentimorgans();
+                case 6: return peak.getSummaryRow().getLodScore();
+                case 7: return peak.getPValueIsValid() ?
+                        Double.valueOf(peak.getSummaryRow().getPValue()) :
+                        null;
+                default: throw new IndexOutOfBoundsException(
+                        "no column at index: " + columnIndex);
+            }
+        }
+    }
+}
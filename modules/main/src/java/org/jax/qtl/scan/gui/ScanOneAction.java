@@ -28,12 +28,21 @@ import javax.swing.SwingUtilities;
 
 import org.jax.qtl.QTL;
 import org.jax.qtl.cross.Cross;
+import org.jax.qtl.job.Job;
+import org.jax.qtl.job.JobCategory;
+import org.jax.qtl.job.JobScheduler;
+import org.jax.qtl.job.RunnableJob;
 import org.jax.qtl.project.QtlDataModel;
 import org.jax.qtl.project.QtlProject;
 import org.jax.qtl.project.QtlProjectManager;
 import org.jax.qtl.project.gui.QtlProjectTree;
+import org.jax.qtl.scan.ChunkedPermutationRunner;
+import org.jax.qtl.scan.HaleyKnottPermutationEngine;
+import org.jax.qtl.scan.HaleyKnottScanOneEngine;
+import org.jax.qtl.scan.ParallelScanRunner;
 import org.jax.qtl.scan.ScanCommandBuilder;
 import org.jax.qtl.scan.ScanType;
+import org.jax.qtl.util.RSessionEpoch;
 import org.jax.r.RCommand;
 import org.jax.r.jriutilities.RInterface;
 import org.jax.r.jriutilities.RInterfaceFactory;
@@ -66,17 +75,17 @@ public class ScanOneAction extends AbstractAction implements ProjectChangeListen
             ScanDialog sourceDialog = (ScanDialog)e.getSource();
             final ScanCommandBuilder scanCommandBuilder = sourceDialog.getScanCommand();
             
-            Thread evaluateCommandThread = new Thread()
-            {
-                @Override
-                public void run()
-                {
-                    ScanOneAction.this.evaluateScanCommand(
-                            scanCommandBuilder);
-                }
-            };
-            
-            evaluateCommandThread.start();
+            JobScheduler.getInstance().submit(new RunnableJob(
+                    "scanone: " + scanCommandBuilder.getScanResultName(),
+                    JobCategory.GENOME_SCAN,
+                    new Runnable()
+                    {
+                        public void run()
+                        {
+                            ScanOneAction.evaluateScanCommand(
+                                    scanCommandBuilder);
+                        }
+                    }));
         }
     };
     
@@ -110,25 +119,56 @@ public class ScanOneAction extends AbstractAction implements ProjectChangeListen
     }
     
     /**
-     * Evaluate the given scan command
+     * Evaluate the given scan command on the current thread. This is
+     * normally called from a {@link org.jax.qtl.job.Job}
      * @param scanCommandBuilder
      *          the scan command to evaluate
      */
-    private void evaluateScanCommand(final ScanCommandBuilder scanCommandBuilder)
+    public static void evaluateScanCommand(final ScanCommandBuilder scanCommandBuilder)
     {
         // run the scan
         RInterface rInterface = RInterfaceFactory.getRInterfaceInstance();
         rInterface.insertComment(
                 "running scanone on cross: " +
                 scanCommandBuilder.getCross().getAccessorExpressionString());
-        rInterface.evaluateCommandNoReturn(
-                scanCommandBuilder.getCommandWithoutPermutations());
-        RCommand permutationsCommand = scanCommandBuilder.getCommandWithPermutations();
-        if(permutationsCommand != null)
+        // Haley-Knott scans can run in java. otherwise prefer the worker
+        // pool so that the main R session stays free while the scan runs
+        HaleyKnottScanOneEngine javaScanEngine = new HaleyKnottScanOneEngine();
+        ParallelScanRunner scanRunner = new ParallelScanRunner();
+        if(javaScanEngine.canScan(scanCommandBuilder) &&
+           javaScanEngine.runScan(rInterface, scanCommandBuilder))
         {
-            rInterface.insertComment(
-                    "running scanone permutations (this can take a while)");
-            rInterface.evaluateCommandNoReturn(permutationsCommand);
+            RCommand permutationsCommand = scanCommandBuilder.getCommandWithPermutations();
+            HaleyKnottPermutationEngine javaPermutationEngine =
+                new HaleyKnottPermutationEngine();
+            if(permutationsCommand != null &&
+               !(javaPermutationEngine.canPermute(scanCommandBuilder) &&
+                 javaPermutationEngine.runPermutations(rInterface, scanCommandBuilder)) &&
+               !scanRunner.runPermutations(rInterface, scanCommandBuilder))
+            {
+                Job.checkCurrentJobCancelled();
+                ChunkedPermutationRunner.runPermutationsInSession(
+                        rInterface,
+                        scanCommandBuilder,
+                        "running scanone permutations (this can take a while)");
+            }
+        }
+        else if(!scanRunner.runScan(rInterface, scanCommandBuilder))
+        {
+            Job.checkCurrentJobCancelled();
+            RSessionEpoch.evaluateCommandNoReturn(
+                    rInterface,
+                    scanCommandBuilder.getCommandWithoutPermutations());
+            RCommand permutationsCommand = scanCommandBuilder.getCommandWithPermutations();
+            if(permutationsCommand != null)
+            {
+                Job.checkCurrentJobCancelled();
+                ChunkedPermutationRunner.runPermutationsInSession(
+                        rInterface,
+                        scanCommandBuilder,
+                        "running scanone permutations (this can take a while)");
+            }
+
         }
         
         // add a record of which phenotype(s) we scanned
@@ -136,10 +176,11 @@ public class ScanOneAction extends AbstractAction implements ProjectChangeListen
             scanCommandBuilder.getPhenotypeAttributeCommand();
         if(phenotypeCommand != null)
         {
-            rInterface.insertComment(
+            RSessionEpoch.evaluateCommandNoReturn(
+                    rInterface,
                     "adding an attribute so we know which phenotype(s) " +
-                    "this scan came from");
-            rInterface.evaluateCommandNoReturn(phenotypeCommand);
+                    "this scan came from",
+                    phenotypeCommand);
         }
         
         rInterface.flushCommands();
@@ -59,13 +59,13 @@ import org.jax.qtl.cross.Cross;
 import org.jax.qtl.cross.GeneticMap;
 import org.jax.qtl.cross.GeneticMarker;
 import org.jax.qtl.cross.gui.MarkerAxisDescription;
+import org.jax.qtl.cross.gui.MarkerPositionIndex;
 import org.jax.qtl.cross.gui.MarkerPositionManager;
 import org.jax.qtl.cross.gui.ShowEffectPlotAction;
 import org.jax.qtl.scan.ScanOneMarkerSignificanceValues;
 import org.jax.qtl.scan.ScanOneResult;
 import org.jax.qtl.scan.ScanOneThreshold;
 import org.jax.qtl.scan.gui.ScanOneInterval.IntervalPoint;
-import org.jax.r.jriutilities.RInterfaceFactory;
 import org.jax.util.datastructure.SequenceUtilities;
 import org.jax.util.gui.MessageDialogUtilities;
 
@@ -164,6 +164,16 @@ public class ScanOneGraph extends AbstractGraph2DWithAxes
 
     private volatile List<List<ScanOneMarkerSignificanceValues>> markerSignificanceValues;
     
+    /**
+     * graph positions of the significance values for hit testing
+     */
+    private volatile MarkerPositionIndex<ScanOneMarkerSignificanceValues> markerSignificanceValueIndex;
+    
+    /**
+     * graph positions of the true markers (lazily created)
+     */
+    private volatile MarkerPositionIndex<GeneticMarker> trueMarkerIndex;
+    
     private volatile ScanOneMarkerSignificanceValues markerSignificanceValueToHighlight;
     
     private volatile ScanOneResult scanOneResult;
@@ -359,36 +369,21 @@ public class ScanOneGraph extends AbstractGraph2DWithAxes
             this.getGraphCoordinateConverter().convertJava2DXCoordinateToGraphXCoordinate(
                     point.getX());
         
-        GeneticMarker closestMarker = null;
-        double closestDistance = Double.MAX_VALUE;
-        for(GeneticMap currMap: this.geneticMaps)
+        MarkerPositionIndex<GeneticMarker> trueMarkerIndex = this.trueMarkerIndex;
+        if(trueMarkerIndex == null)
         {
-            for(GeneticMarker currMarker: currMap.getMarkerPositions())
+            List<GeneticMarker> trueMarkers = new ArrayList<GeneticMarker>();
+            for(GeneticMap currMap: this.geneticMaps)
             {
-                Double currMarkerPosition =
-                    this.markerPositionManager.getMarkerPositionInGraphUnits(
-                            currMarker);
-                
-                if(currMarkerPosition != null)
-                {
-                    double currDistance = Math.abs(
-                            pointGraphX - currMarkerPosition);
-                    
-                    if(closestMarker == null || currDistance < closestDistance)
-                    {
-                        closestDistance = currDistance;
-                        closestMarker = currMarker;
-                    }
-                }
-                else
-                {
-                    LOG.warning(
-                            "couldn't find marker position for: " + currMarker);
-                }
+                trueMarkers.addAll(currMap.getMarkerPositions());
             }
+            trueMarkerIndex = MarkerPositionIndex.createGraphUnitIndex(
+                    trueMarkers,
+                    this.markerPositionManager);
+            this.trueMarkerIndex = trueMarkerIndex;
         }
         
-        return closestMarker;
+        return trueMarkerIndex.getNearestItem(pointGraphX);
     }
 
     /**
@@ -467,41 +462,57 @@ public class ScanOneGraph extends AbstractGraph2DWithAxes
     private ScanOneMarkerSignificanceValues getClosestMarkerSignificanceValue(
             Point point)
     {
-        double pointGraphX =
-            this.getGraphCoordinateConverter().convertJava2DXCoordinateToGraphXCoordinate(
-                    point.getX());
-        
-        ScanOneMarkerSignificanceValues closestMarker = null;
-        double closestDistance = Double.MAX_VALUE;
+        MarkerPositionIndex<ScanOneMarkerSignificanceValues> markerSignificanceValueIndex =
+            this.markerSignificanceValueIndex;
+        if(markerSignificanceValueIndex == null)
+        {
+            return null;
+        }
+        else
+        {
+            double pointGraphX =
+                this.getGraphCoordinateConverter().convertJava2DXCoordinateToGraphXCoordinate(
+                        point.getX());
+            return markerSignificanceValueIndex.getNearestItem(pointGraphX);
+        }
+    }
+
+    /**
+     * Index the graph positions of the given significance values so that
+     * hit testing doesn't need to look at every value
+     * @param markerSignificanceValues
+     *          the significance values by chromosome
+     * @return
+     *          the index
+     */
+    private MarkerPositionIndex<ScanOneMarkerSignificanceValues> createMarkerSignificanceValueIndex(
+            List<List<ScanOneMarkerSignificanceValues>> markerSignificanceValues)
+    {
+        List<ScanOneMarkerSignificanceValues> allValues =
+            new ArrayList<ScanOneMarkerSignificanceValues>();
+        for(List<ScanOneMarkerSignificanceValues> currSigValsList: markerSignificanceValues)
+        {
+            allValues.addAll(currSigValsList);
+        }
         
-        if(this.markerSignificanceValues != null)
+        int valueCount = allValues.size();
+        String[] chromosomeNames = new String[valueCount];
+        double[] graphPositions = new double[valueCount];
+        for(int i = 0; i < valueCount; i++)
         {
-            for(List<ScanOneMarkerSignificanceValues> currSigValsList:
-                this.markerSignificanceValues)
-            {
-                for(ScanOneMarkerSignificanceValues currSigVals: currSigValsList)
-                {
-                    GeneticMarker currMarker = currSigVals.getMarker();
-                    double currMarkerGraphX =
-                        this.markerPositionManager.getMarkerPositionInGraphUnits(
-                                currMarker);
-                    double currMarkerDistance =
-                        Math.abs(pointGraphX - currMarkerGraphX);
-                    
-                    // are we closer than any other marker we've seen?
-                    if(closestMarker == null || currMarkerDistance < closestDistance)
-                    {
-                        // do we care if the marker is true or imputed
-                        closestMarker = currSigVals;
-                        closestDistance = currMarkerDistance;
-                    }
-                }
-            }
+            GeneticMarker currMarker = allValues.get(i).getMarker();
+            chromosomeNames[i] = currMarker.getChromosomeName();
+            graphPositions[i] = MarkerPositionIndex.getGraphPosition(
+                    currMarker,
+                    this.markerPositionManager);
         }
         
-        return closestMarker;
+        return new MarkerPositionIndex<ScanOneMarkerSignificanceValues>(
+                allValues,
+                chromosomeNames,
+                graphPositions);
     }
-
+    
     /**
      * Getter for the result that we're plotting
      * @return the scanOneResult
@@ -543,6 +554,8 @@ public class ScanOneGraph extends AbstractGraph2DWithAxes
         this.markerSignificanceValues =
             scanOneResult.getMarkerSignificanceValuesByChromosome(
                     this.lodColumnName);
+        this.markerSignificanceValueIndex = this.createMarkerSignificanceValueIndex(
+                this.markerSignificanceValues);
         if(scanOneResult.getPermutationsWereCalculated())
         {
             this.thresholdsToRender = scanOneResult.calculateThresholds(
@@ -749,7 +762,7 @@ public class ScanOneGraph extends AbstractGraph2DWithAxes
             this.renderIntervals(
                     graphics2D,
                     this.scanOneIntervalCommandBuilder.getScanOneIntervals(
-                            RInterfaceFactory.getRInterfaceInstance()));
+                            markerSignificanceValues));
             this.drawThresholds(graphics2D);
         }
         else
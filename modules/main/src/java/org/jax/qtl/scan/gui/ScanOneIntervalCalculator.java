@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan.gui;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.jax.qtl.cross.GeneticMarker;
+import org.jax.qtl.scan.ScanOneMarkerSignificanceValues;
+import org.jax.qtl.scan.gui.ScanOneInterval.IntervalPoint;
+import org.jax.qtl.scan.gui.ScanOneInterval.IntervalShape;
+
+/**
+ * Java versions of R/qtl's <code>lodint</code> and <code>bayesint</code>
+ * which work on the LOD scores of a single chromosome that have already
+ * been pulled out of R.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class ScanOneIntervalCalculator
+{
+    /**
+     * the pattern that R/qtl uses to tell pseudomarkers apart from real
+     * markers
+     */
+    private static final Pattern PSEUDOMARKER_NAME_PATTERN =
+        Pattern.compile("^c.+\\.loc-*[0-9]+");
+
+    /**
+     * utility class so no public constructor
+     */
+    private ScanOneIntervalCalculator()
+    {
+    }
+
+    /**
+     * Calculate a LOD support interval the way that <code>lodint</code>
+     * does
+     * @param chromosomeValues
+     *          the significance values for a single chromosome in
+     *          position order
+     * @param lodDrop
+     *          the LOD drop that defines the interval
+     * @param expandToMarkers
+     *          if true the interval is widened out to the nearest flanking
+     *          markers
+     * @return
+     *          the interval shape or null if there are no values
+     */
+    public static IntervalShape calculateLodSupportInterval(
+            List<ScanOneMarkerSignificanceValues> chromosomeValues,
+            double lodDrop,
+            boolean expandToMarkers)
+    {
+        int count = chromosomeValues.size();
+        if(count == 0)
+        {
+            return null;
+        }
+
+        double[] lods = ScanOneIntervalCalculator.getLods(chromosomeValues);
+        int peakIndex = ScanOneIntervalCalculator.getPeakIndex(lods);
+        double maxLod = lods[peakIndex];
+
+        // the interval is the range of everything above the drop plus one
+        // position on either side
+        int leftIndex = -1;
+        int rightIndex = -1;
+        for(int i = 0; i < count; i++)
+        {
+            if(lods[i] > maxLod - lodDrop)
+            {
+                if(leftIndex == -1)
+                {
+                    leftIndex = i;
+                }
+                rightIndex = i;
+            }
+        }
+        if(leftIndex == -1)
+        {
+            leftIndex = 0;
+            rightIndex = count - 1;
+        }
+        else
+        {
+            if(leftIndex > 0)
+            {
+                leftIndex--;
+            }
+            if(rightIndex < count - 1)
+            {
+                rightIndex++;
+            }
+        }
+
+        return ScanOneIntervalCalculator.createShape(
+                chromosomeValues,
+                leftIndex,
+                peakIndex,
+                rightIndex,
+                expandToMarkers);
+    }
+
+    /**
+     * Calculate an approximate Bayes credible interval the way that
+     * <code>bayesint</code> does
+     * @param chromosomeValues
+     *          the significance values for a single chromosome in
+     *          position order
+     * @param probabilityCoverage
+     *          the probability coverage (0 to 1)
+     * @param expandToMarkers
+     *          if true the interval is widened out to the nearest flanking
+     *          markers
+     * @return
+     *          the interval shape or null if there are no values
+     */
+    public static IntervalShape calculateBayesianCredibleInterval(
+            List<ScanOneMarkerSignificanceValues> chromosomeValues,
+            double probabilityCoverage,
+            boolean expandToMarkers)
+    {
+        int count = chromosomeValues.size();
+        if(count == 0)
+        {
+            return null;
+        }
+
+        double[] lods = ScanOneIntervalCalculator.getLods(chromosomeValues);
+        int peakIndex = ScanOneIntervalCalculator.getPeakIndex(lods);
+        if(count == 1)
+        {
+            return ScanOneIntervalCalculator.createShape(
+                    chromosomeValues, 0, 0, 0, expandToMarkers);
+        }
+
+        // the area under 10^LOD using half of the distance to each neighbor
+        // as the width. we scale by the peak to stay clear of overflow
+        double maxLod = lods[peakIndex];
+        double[] areas = new double[count];
+        double totalArea = 0.0;
+        for(int i = 0; i < count; i++)
+        {
+            double leftPosition = ScanOneIntervalCalculator.getPosition(
+                    chromosomeValues, Math.max(0, i - 1));
+            double rightPosition = ScanOneIntervalCalculator.getPosition(
+                    chromosomeValues, Math.min(count - 1, i + 1));
+            double width = (rightPosition - leftPosition) / 2.0;
+            areas[i] = Math.pow(10.0, lods[i] - maxLod) * width;
+            totalArea += areas[i];
+        }
+
+        // take positions in decreasing LOD order until we cover enough of
+        // the area. ties keep position order like R's order() does
+        Integer[] order = new Integer[count];
+        for(int i = 0; i < count; i++)
+        {
+            order[i] = i;
+        }
+        final double[] finalLods = lods;
+        Arrays.sort(order, new Comparator<Integer>()
+        {
+            public int compare(Integer index1, Integer index2)
+            {
+                return Double.compare(finalLods[index2], finalLods[index1]);
+            }
+        });
+
+        int leftIndex = peakIndex;
+        int rightIndex = peakIndex;
+        double cumulativeArea = 0.0;
+        for(int i = 0; i < count; i++)
+        {
+            int currIndex = order[i];
+            leftIndex = Math.min(leftIndex, currIndex);
+            rightIndex = Math.max(rightIndex, currIndex);
+            cumulativeArea += totalArea > 0.0 ? areas[currIndex] / totalArea : 0.0;
+            if(cumulativeArea >= probabilityCoverage)
+            {
+                break;
+            }
+        }
+
+        return ScanOneIntervalCalculator.createShape(
+                chromosomeValues,
+                leftIndex,
+                order[0],
+                rightIndex,
+                expandToMarkers);
+    }
+
+    /**
+     * Pull out the LOD scores treating NaN as negative infinity so that
+     * missing scores never define an interval
+     * @param chromosomeValues
+     *          the values
+     * @return
+     *          the LOD scores
+     */
+    private static double[] getLods(List<ScanOneMarkerSignificanceValues> chromosomeValues)
+    {
+        double[] lods = new double[chromosomeValues.size()];
+        for(int i = 0; i < lods.length; i++)
+        {
+            double lod = chromosomeValues.get(i).getLodScore();
+            lods[i] = Double.isNaN(lod) ? Double.NEGATIVE_INFINITY : lod;
+        }
+        return lods;
+    }
+
+    /**
+     * Get the index of the first maximum LOD score
+     * @param lods
+     *          the LOD scores
+     * @return
+     *          the index
+     */
+    private static int getPeakIndex(double[] lods)
+    {
+        int peakIndex = 0;
+        for(int i = 1; i < lods.length; i++)
+        {
+            if(lods[i] > lods[peakIndex])
+            {
+                peakIndex = i;
+            }
+        }
+        return peakIndex;
+    }
+
+    /**
+     * Get the cM position of the value at the given index
+     * @param chromosomeValues
+     *          the values
+     * @param index
+     *          the index
+     * @return
+     *          the position
+     */
+    private static double getPosition(
+            List<ScanOneMarkerSignificanceValues> chromosomeValues,
+            int index)
+    {
+        return chromosomeValues.get(index).getMarker().getMarkerPositionCentimorgans();
+    }
+
+    /**
+     * Build the interval shape, expanding the flanks out to markers if
+     * we're asked to
+     * @param chromosomeValues
+     *          the values
+     * @param leftIndex
+     *          the index of the left flank
+     * @param peakIndex
+     *          the index of the peak
+     * @param rightIndex
+     *          the index of the right flank
+     * @param expandToMarkers
+     *          if true push the flanks out to the nearest real markers
+     * @return
+     *          the shape
+     */
+    private static IntervalShape createShape(
+            List<ScanOneMarkerSignificanceValues> chromosomeValues,
+            int leftIndex,
+            int peakIndex,
+            int rightIndex,
+            boolean expandToMarkers)
+    {
+        if(expandToMarkers)
+        {
+            for(int i = leftIndex; i >= 0; i--)
+            {
+                if(ScanOneIntervalCalculator.isRealMarker(chromosomeValues.get(i)))
+                {
+                    leftIndex = i;
+                    break;
+                }
+            }
+            for(int i = rightIndex; i < chromosomeValues.size(); i++)
+            {
+                if(ScanOneIntervalCalculator.isRealMarker(chromosomeValues.get(i)))
+                {
+                    rightIndex = i;
+                    break;
+                }
+            }
+        }
+
+        return new IntervalShape(
+                ScanOneIntervalCalculator.createPoint(chromosomeValues.get(leftIndex)),
+                ScanOneIntervalCalculator.createPoint(chromosomeValues.get(peakIndex)),
+                ScanOneIntervalCalculator.createPoint(chromosomeValues.get(rightIndex)));
+    }
+
+    /**
+     * Determine if the given value belongs to a real marker (as opposed to
+     * a pseudomarker)
+     * @param values
+     *          the value
+     * @return
+     *          true for real markers
+     */
+    private static boolean isRealMarker(ScanOneMarkerSignificanceValues values)
+    {
+        return !PSEUDOMARKER_NAME_PATTERN.matcher(
+                values.getMarker().getMarkerName()).find();
+    }
+
+    /**
+     * Turn a significance value into an interval point
+     * @param values
+     *          the significance value
+     * @return
+     *          the point
+     */
+    private static IntervalPoint createPoint(ScanOneMarkerSignificanceValues values)
+    {
+        GeneticMarker marker = values.getMarker();
+        return new IntervalPoint(
+                marker.getMarkerPositionCentimorgans(),
+                values.getLodScore());
+    }
+}
@@ -23,21 +23,18 @@ package org.jax.qtl.scan.gui;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.logging.Logger;
+import java.util.Map;
 
+import org.jax.qtl.scan.ScanOneMarkerSignificanceValues;
 import org.jax.qtl.scan.ScanOneResult;
-import org.jax.qtl.scan.gui.ScanOneInterval.IntervalPoint;
 import org.jax.qtl.scan.gui.ScanOneInterval.IntervalShape;
 import org.jax.qtl.scan.gui.ScanOneInterval.IntervalType;
 import org.jax.r.RCommand;
 import org.jax.r.RCommandParameter;
 import org.jax.r.RMethodInvocationCommand;
 import org.jax.r.RUtilities;
-import org.jax.r.jriutilities.JRIUtilityFunctions;
-import org.jax.r.jriutilities.RInterface;
-import org.jax.r.jriutilities.SilentRCommand;
-import org.rosuda.JRI.REXP;
 
 /**
  * Class for building the R command for calculating
@@ -46,12 +43,6 @@ import org.rosuda.JRI.REXP;
  */
 public class ScanOneIntervalCommandBuilder
 {
-    /**
-     * our logger
-     */
-    private static final Logger LOG = Logger.getLogger(
-            ScanOneIntervalCommandBuilder.class.getName());
-    
     private static final String BAYESIAN_METHOD_NAME = "bayesint";
     
     private static final String LOD_METHOD_NAME = "lodint";
@@ -123,10 +114,23 @@ public class ScanOneIntervalCommandBuilder
     private volatile int lodColumnIndex;
     
     /**
-     * The offset we need to use when indexing the result of an interval
-     * command
+     * The property name used when {@link #setExpandToMarkers(boolean)} is
+     * called
+     */
+    public static final String EXPAND_TO_MARKERS_PROPERTY_NAME = "expandToMarkers";
+    
+    private static final String EXPAND_TO_MARKERS_PARAMETER_NAME = "expandtomarkers";
+    
+    private volatile boolean expandToMarkers = false;
+    
+    /**
+     * intervals that we've already calculated for
+     * {@link #cachedSignificanceValues}
      */
-    private final static int INTERVAL_RESULT_LOD_COLUMN_INDEX_OFFSET = 3;
+    private final Map<IntervalCacheKey, ScanOneInterval> intervalCache =
+        new HashMap<IntervalCacheKey, ScanOneInterval>();
+    
+    private List<List<ScanOneMarkerSignificanceValues>> cachedSignificanceValues;
     
     /**
      * Adds a new listener to this command builder. The given listener will
@@ -220,6 +224,11 @@ public class ScanOneIntervalCommandBuilder
     public void setScanOneResult(ScanOneResult scanOneResult)
     {
         this.scanOneResult = scanOneResult;
+        synchronized(this.intervalCache)
+        {
+            this.intervalCache.clear();
+            this.cachedSignificanceValues = null;
+        }
         
         this.propertyChangeSupport.firePropertyChange(
                 SCAN_ONE_RESULT_PROPERTY_NAME,
@@ -307,81 +316,151 @@ public class ScanOneIntervalCommandBuilder
     }
     
     /**
-     * Get the scanone intervals
-     * @param rInterface
-     *          the R interface
+     * Getter for whether or not interval flanks should be expanded out to
+     * the nearest markers
+     * @return
+     *          true if we expand to markers
+     */
+    public boolean getExpandToMarkers()
+    {
+        return this.expandToMarkers;
+    }
+    
+    /**
+     * Setter for whether or not interval flanks should be expanded out to
+     * the nearest markers
+     * @param expandToMarkers
+     *          true if we should expand to markers
+     */
+    public void setExpandToMarkers(boolean expandToMarkers)
+    {
+        this.expandToMarkers = expandToMarkers;
+        
+        this.propertyChangeSupport.firePropertyChange(
+                EXPAND_TO_MARKERS_PROPERTY_NAME,
+                null,
+                Boolean.valueOf(expandToMarkers));
+    }
+    
+    /**
+     * Get the scanone intervals. These are calculated in java from the
+     * given significance values (so this never goes to R) and are cached
+     * by LOD column, chromosome, drop or coverage and marker expansion
+     * @param markerSignificanceValuesByChromosome
+     *          the significance values for the current LOD column
+     *          separated by chromosome as returned by
+     *          {@link ScanOneResult#getMarkerSignificanceValuesByChromosome(String)}
      * @return
-     *          the scanone intervals
+     *          the scanone intervals (or null if the builder doesn't hold
+     *          a valid set of parameters)
      */
-    public List<ScanOneInterval> getScanOneIntervals(RInterface rInterface) 
+    public List<ScanOneInterval> getScanOneIntervals(
+            List<List<ScanOneMarkerSignificanceValues>> markerSignificanceValuesByChromosome)
     {
-        List<RCommand> commands = this.getCommands();
-        if(commands == null)
+        String[] chromosomeNames;
+        IntervalType intervalType;
+        double intervalConstraint;
+        int lodColumnIndex;
+        boolean expandToMarkers;
+        synchronized(this)
         {
-            return null;
+            if(this.getCommands() == null)
+            {
+                return null;
+            }
+            
+            chromosomeNames = this.chromosomeNames;
+            intervalType = this.intervalType;
+            intervalConstraint =
+                intervalType == IntervalType.BAYESIAN_CREDIBLE ?
+                        this.probabilityCoverage :
+                        this.lodDrop;
+            lodColumnIndex = this.lodColumnIndex;
+            expandToMarkers = this.expandToMarkers;
         }
-        else
+        
+        synchronized(this.intervalCache)
         {
+            // the cache only holds for the significance values that it was
+            // filled from
+            if(this.cachedSignificanceValues != markerSignificanceValuesByChromosome)
+            {
+                this.intervalCache.clear();
+                this.cachedSignificanceValues = markerSignificanceValuesByChromosome;
+            }
+            
             List<ScanOneInterval> intervals = new ArrayList<ScanOneInterval>(
-                    commands.size());
-            for(RCommand command: commands)
+                    chromosomeNames.length);
+            for(String chromosomeName: chromosomeNames)
             {
-                // TODO this is pretty inefficient since we're invoking
-                //      the command 3 times
-                REXP chromosomeExpression = rInterface.evaluateCommand(
-                        new SilentRCommand(command.getCommandText() + "$chr"));
-                REXP positionCmExpression = rInterface.evaluateCommand(
-                        new SilentRCommand(command.getCommandText() + "$pos"));
-                REXP lodExpression = rInterface.evaluateCommand(
-                        new SilentRCommand(
-                                command.getCommandText() + "[ , " + (this.lodColumnIndex + INTERVAL_RESULT_LOD_COLUMN_INDEX_OFFSET) + "]"));
-                
-                // convert expressions
-                String[] chromosomeNames = JRIUtilityFunctions.extractStringArrayFromFactor(
-                        chromosomeExpression);
-                double[] positionsInCm = positionCmExpression.asDoubleArray();
-                double[] lods = lodExpression.asDoubleArray();
-                
-                if(chromosomeNames.length != 3 ||
-                   positionsInCm.length != 3 ||
-                   lods.length != 3)
-                {
-                    LOG.warning(
-                            "expexted all interval arrays to be of length 3: " +
-                            "chromosomeNames=" + chromosomeNames.length +
-                            ", positionsInCm=" + positionsInCm.length +
-                            ", lods=" + lods.length);
-                    return null;
-                }
-                else
+                IntervalCacheKey key = new IntervalCacheKey(
+                        intervalType,
+                        lodColumnIndex,
+                        chromosomeName,
+                        intervalConstraint,
+                        expandToMarkers);
+                ScanOneInterval interval = this.intervalCache.get(key);
+                if(interval == null)
                 {
-                    IntervalShape intervalShape = new IntervalShape(
-                            new IntervalPoint(
-                                    positionsInCm[0],
-                                    lods[0]),
-                            new IntervalPoint(
-                                    positionsInCm[1],
-                                    lods[1]),
-                            new IntervalPoint(
-                                    positionsInCm[2],
-                                    lods[2]));
-                    double intervalConstraint =
-                        this.intervalType == IntervalType.BAYESIAN_CREDIBLE ?
-                                this.probabilityCoverage :
-                                this.lodDrop;
-                    ScanOneInterval currInterval = new ScanOneInterval(
-                            this.intervalType,
+                    List<ScanOneMarkerSignificanceValues> chromosomeValues =
+                        ScanOneIntervalCommandBuilder.findChromosomeValues(
+                                markerSignificanceValuesByChromosome,
+                                chromosomeName);
+                    if(chromosomeValues == null)
+                    {
+                        continue;
+                    }
+                    
+                    IntervalShape intervalShape =
+                        intervalType == IntervalType.BAYESIAN_CREDIBLE ?
+                        ScanOneIntervalCalculator.calculateBayesianCredibleInterval(
+                                chromosomeValues,
+                                intervalConstraint,
+                                expandToMarkers) :
+                        ScanOneIntervalCalculator.calculateLodSupportInterval(
+                                chromosomeValues,
+                                intervalConstraint,
+                                expandToMarkers);
+                    interval = new ScanOneInterval(
+                            intervalType,
                             intervalShape,
                             intervalConstraint,
-                            chromosomeNames[0]);
-                    intervals.add(currInterval);
+                            chromosomeName);
+                    this.intervalCache.put(key, interval);
                 }
+                intervals.add(interval);
             }
             
             return intervals;
         }
     }
     
+    /**
+     * Find the significance values for the given chromosome
+     * @param markerSignificanceValuesByChromosome
+     *          the values separated by chromosome
+     * @param chromosomeName
+     *          the chromosome name
+     * @return
+     *          the values or null if the chromosome isn't there
+     */
+    private static List<ScanOneMarkerSignificanceValues> findChromosomeValues(
+            List<List<ScanOneMarkerSignificanceValues>> markerSignificanceValuesByChromosome,
+            String chromosomeName)
+    {
+        for(List<ScanOneMarkerSignificanceValues> currValues:
+            markerSignificanceValuesByChromosome)
+        {
+            if(!currValues.isEmpty() &&
+               chromosomeName.equals(currValues.get(0).getMarker().getChromosomeName()))
+            {
+                return currValues;
+            }
+        }
+        
+        return null;
+    }
+    
     /**
      * Get the list of commands that results from all of the properties
      * set on this builder. The commands will be returned in order
@@ -484,6 +563,13 @@ public class ScanOneIntervalCommandBuilder
                 LOD_COLUMN_INDEX_PARAMETER_NAME,
                 Integer.toString(this.lodColumnIndex + 1)));
         
+        if(this.expandToMarkers)
+        {
+            commands.add(new RCommandParameter(
+                    EXPAND_TO_MARKERS_PARAMETER_NAME,
+                    RUtilities.javaBooleanToRBoolean(true)));
+        }
+        
         return commands;
     }
     
@@ -512,4 +598,83 @@ public class ScanOneIntervalCommandBuilder
             return null;
         }
     }
+    
+    /**
+     * The cache key for a single calculated interval
+     */
+    private static class IntervalCacheKey
+    {
+        private final IntervalType intervalType;
+        
+        private final int lodColumnIndex;
+        
+        private final String chromosomeName;
+        
+        private final double intervalConstraint;
+        
+        private final boolean expandToMarkers;
+        
+        /**
+         * Constructor
+         * @param intervalType
+         *          the interval type
+         * @param lodColumnIndex
+         *          the LOD column index
+         * @param chromosomeName
+         *          the chromosome name
+         * @param intervalConstraint
+         *          the LOD drop or probability coverage
+         * @param expandToMarkers
+         *          whether or not flanks are expanded to markers
+         */
+        public IntervalCacheKey(
+                IntervalType intervalType,
+                int lodColumnIndex,
+                String chromosomeName,
+                double intervalConstraint,
+                boolean expandToMarkers)
+        {
+            this.intervalType = intervalType;
+            this.lodColumnIndex = lodColumnIndex;
+            this.chromosomeName = chromosomeName;
+            this.intervalConstraint = intervalConstraint;
+            this.expandToMarkers = expandToMarkers;
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object obj)
+        {
+            if(obj instanceof IntervalCacheKey)
+            {
+                IntervalCacheKey otherKey = (IntervalCacheKey)obj;
+                return this.intervalType == otherKey.intervalType &&
+                       this.lodColumnIndex == otherKey.lodColumnIndex &&
+                       this.chromosomeName.equals(otherKey.chromosomeName) &&
+                       Double.compare(this.intervalConstraint, otherKey.intervalConstraint) == 0 &&
+                       this.expandToMarkers == otherKey.expandToMarkers;
+            }
+            else
+            {
+                return false;
+            }
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode()
+        {
+            long constraintBits = Double.doubleToLongBits(this.intervalConstraint);
+            int hash = this.intervalType.hashCode();
+            hash = 31 * hash + this.lodColumnIndex;
+            hash = 31 * hash + this.chromosomeName.hashCode();
+            hash = 31 * hash + (int)(constraintBits ^ (constraintBits >>> 32));
+            hash = 31 * hash + (this.expandToMarkers ? 1 : 0);
+            return hash;
+        }
+    }
 }
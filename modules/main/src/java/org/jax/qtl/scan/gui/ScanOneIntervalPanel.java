@@ -41,6 +41,7 @@ import javax.swing.table.TableColumnModel;
 
 import org.jax.qtl.scan.ScanOneResult;
 import org.jax.qtl.scan.gui.ScanOneInterval.IntervalType;
+import org.jax.qtl.util.RSessionEpoch;
 import org.jax.r.RCommand;
 import org.jax.r.jriutilities.RInterface;
 import org.jax.r.jriutilities.RInterfaceFactory;
@@ -443,7 +444,7 @@ public class ScanOneIntervalPanel extends JPanel
             rInterface.insertComment(
                     "printing scanone interval values");
             for(RCommand currIntervalCommand: intervalCommands) {
-                rInterface.evaluateCommandNoReturn(currIntervalCommand);
+                RSessionEpoch.evaluateCommandNoReturn(rInterface, currIntervalCommand);
             }
         }
     }//GEN-LAST:event_printIntervalsToTerminalButtonActionPerformed
@@ -30,6 +30,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.help.CSH;
@@ -56,6 +57,7 @@ import org.jax.qtl.scan.ConfidenceThresholdState;
 import org.jax.qtl.scan.ScanOneResult;
 import org.jax.qtl.scan.ScanOneSummary;
 import org.jax.qtl.scan.ScanOneSummaryBuilder;
+import org.jax.qtl.scan.ScanSummaryExecutor;
 import org.jax.qtl.scan.ScanOneSummary.ScanOneSummaryRow;
 import org.jax.util.gui.CheckableListTableModel;
 import org.jax.util.io.FormattedData;
@@ -94,6 +96,12 @@ public class ScanOneSummaryPanel extends javax.swing.JPanel
     
     private volatile ScanOneSummary scanOneSummary;
     
+    /**
+     * the number of the latest summary request. this is only touched on
+     * the event thread
+     */
+    private long latestSummaryRequestNumber = 0L;
+    
     private final MouseListener tableMouseListener = new MouseAdapter()
     {
         /**
@@ -226,10 +234,19 @@ public class ScanOneSummaryPanel extends javax.swing.JPanel
     }
     
     /**
-     * Rebuild the scan one summary object
+     * Rebuild the scan one summary object on the
+     * {@link ScanSummaryExecutor}. The table is updated on the event thread
+     * once the summary is ready
+     * @param rebuildHeader
+     *          if true the table header is rebuilt for the new summary
+     * @param markerNamesToSelect
+     *          the markers that should be selected in the new table
      */
-    private void buildScanOneSummary()
+    private void buildScanOneSummary(
+            final boolean rebuildHeader,
+            final Set<String> markerNamesToSelect)
     {
+        final long requestNumber = ++this.latestSummaryRequestNumber;
         ScanOneResult selectedResult = this.getSelectedScanOneResult();
         ConfidenceThresholdState selectedThreshold = this.getSelectedThreshold();
         String selectedLodColumnName = this.getSelectedLodColumnName();
@@ -239,16 +256,81 @@ public class ScanOneSummaryPanel extends javax.swing.JPanel
             double currentThresholdValue = this.getThresholdValue(
                     selectedThreshold);
             
-            ScanOneSummaryBuilder scanOneSummaryBuilder = new ScanOneSummaryBuilder(
+            final ScanOneSummaryBuilder scanOneSummaryBuilder = new ScanOneSummaryBuilder(
                     selectedResult,
                     selectedThreshold,
                     selectedLodColumnName,
                     currentThresholdValue);
-            this.scanOneSummary = scanOneSummaryBuilder.createSummary();
+            ScanSummaryExecutor.getExecutor().execute(new Runnable()
+            {
+                public void run()
+                {
+                    ScanOneSummary summary = null;
+                    try
+                    {
+                        summary = scanOneSummaryBuilder.createSummary();
+                    }
+                    catch(RuntimeException ex)
+                    {
+                        LOG.log(Level.SEVERE,
+                                "failed to build the scanone summary",
+                                ex);
+                    }
+                    
+                    final ScanOneSummary finalSummary = summary;
+                    SwingUtilities.invokeLater(new Runnable()
+                    {
+                        public void run()
+                        {
+                            ScanOneSummaryPanel.this.scanOneSummaryBuilt(
+                                    requestNumber,
+                                    finalSummary,
+                                    rebuildHeader,
+                                    markerNamesToSelect);
+                        }
+                    });
+                }
+            });
         }
         else
         {
-            this.scanOneSummary = null;
+            this.scanOneSummaryBuilt(
+                    requestNumber,
+                    null,
+                    rebuildHeader,
+                    markerNamesToSelect);
+        }
+    }
+    
+    /**
+     * Called on the event thread when a summary is ready
+     * @param requestNumber
+     *          the request that the summary was built for
+     * @param summary
+     *          the summary (can be null)
+     * @param rebuildHeader
+     *          if true the table header is rebuilt for the new summary
+     * @param markerNamesToSelect
+     *          the markers that should be selected in the new table
+     */
+    private void scanOneSummaryBuilt(
+            long requestNumber,
+            ScanOneSummary summary,
+            boolean rebuildHeader,
+            Set<String> markerNamesToSelect)
+    {
+        // results from requests that have been superseded are dropped
+        if(requestNumber == this.latestSummaryRequestNumber)
+        {
+            this.scanOneSummary = summary;
+            if(rebuildHeader)
+            {
+                String[] header = this.createHeaderFor(summary);
+                this.getScanResultsTableModel().setColumnIdentifiers(header);
+            }
+            this.refreshSummaryTable(
+                    summary,
+                    markerNamesToSelect);
         }
     }
     
@@ -266,14 +348,8 @@ public class ScanOneSummaryPanel extends javax.swing.JPanel
             this.getScanResultsTableModel();
         scanResultsTableModel.setRowCount(0);
         
-        this.buildScanOneSummary();
-        
-        String[] header = this.createHeaderFor(this.scanOneSummary);
-        scanResultsTableModel.setColumnIdentifiers(header);
         Set<String> emptySet = Collections.emptySet();
-        this.refreshSummaryTable(
-                this.scanOneSummary,
-                emptySet);
+        this.buildScanOneSummary(true, emptySet);
     }
     
     /**
@@ -291,10 +367,7 @@ public class ScanOneSummaryPanel extends javax.swing.JPanel
                     currSelectedRow.getMarker().getMarkerName());
         }
         
-        this.buildScanOneSummary();
-        this.refreshSummaryTable(
-                this.scanOneSummary,
-                selectedMarkerNames);
+        this.buildScanOneSummary(false, selectedMarkerNames);
     }
     
     /**
@@ -28,12 +28,20 @@ import javax.swing.SwingUtilities;
 
 import org.jax.qtl.QTL;
 import org.jax.qtl.cross.Cross;
+import org.jax.qtl.job.Job;
+import org.jax.qtl.job.JobCategory;
+import org.jax.qtl.job.JobScheduler;
+import org.jax.qtl.job.RunnableJob;
 import org.jax.qtl.project.QtlDataModel;
 import org.jax.qtl.project.QtlProject;
 import org.jax.qtl.project.QtlProjectManager;
 import org.jax.qtl.project.gui.QtlProjectTree;
+import org.jax.qtl.scan.ChunkedPermutationRunner;
+import org.jax.qtl.scan.HaleyKnottScanTwoEngine;
+import org.jax.qtl.scan.ParallelScanRunner;
 import org.jax.qtl.scan.ScanCommandBuilder;
 import org.jax.qtl.scan.ScanType;
+import org.jax.qtl.util.RSessionEpoch;
 import org.jax.r.RCommand;
 import org.jax.r.jriutilities.RInterface;
 import org.jax.r.jriutilities.RInterfaceFactory;
@@ -66,17 +74,17 @@ public class ScanTwoAction extends AbstractAction implements ProjectChangeListen
             ScanDialog sourceDialog = (ScanDialog)e.getSource();
             final ScanCommandBuilder scanCommandBuilder = sourceDialog.getScanCommand();
             
-            Thread evaluateCommandThread = new Thread()
-            {
-                @Override
-                public void run()
-                {
-                    ScanTwoAction.this.evaluateScanCommand(
-                            scanCommandBuilder);
-                }
-            };
-            
-            evaluateCommandThread.start();
+            JobScheduler.getInstance().submit(new RunnableJob(
+                    "scantwo: " + scanCommandBuilder.getScanResultName(),
+                    JobCategory.GENOME_SCAN,
+                    new Runnable()
+                    {
+                        public void run()
+                        {
+                            ScanTwoAction.this.evaluateScanCommand(
+                                    scanCommandBuilder);
+                        }
+                    }));
         }
     };
     
@@ -120,25 +128,51 @@ public class ScanTwoAction extends AbstractAction implements ProjectChangeListen
         rInterface.insertComment(
                 "running scantwo on cross: " +
                 scanCommandBuilder.getCross().getAccessorExpressionString());
-        rInterface.evaluateCommandNoReturn(
-                scanCommandBuilder.getCommandWithoutPermutations());
-        RCommand permutationsCommand = scanCommandBuilder.getCommandWithPermutations();
-        if(permutationsCommand != null)
+        // Haley-Knott scans can run in java. otherwise prefer the worker
+        // pool so that the main R session stays free while the scan runs
+        HaleyKnottScanTwoEngine javaScanEngine = new HaleyKnottScanTwoEngine();
+        ParallelScanRunner scanRunner = new ParallelScanRunner();
+        if(javaScanEngine.canScan(scanCommandBuilder) &&
+           javaScanEngine.runScan(rInterface, scanCommandBuilder))
+        {
+            RCommand permutationsCommand = scanCommandBuilder.getCommandWithPermutations();
+            if(permutationsCommand != null &&
+               !scanRunner.runPermutations(rInterface, scanCommandBuilder))
+            {
+                Job.checkCurrentJobCancelled();
+                ChunkedPermutationRunner.runPermutationsInSession(
+                        rInterface,
+                        scanCommandBuilder,
+                        "running scantwo permutations (this can take a while)");
+            }
+        }
+        else if(!scanRunner.runScan(rInterface, scanCommandBuilder))
         {
-            rInterface.insertComment(
-                    "running scantwo permutations (this can take a while)");
-            rInterface.evaluateCommandNoReturn(permutationsCommand);
+            Job.checkCurrentJobCancelled();
+            RSessionEpoch.evaluateCommandNoReturn(
+                    rInterface,
+                    scanCommandBuilder.getCommandWithoutPermutations());
+            RCommand permutationsCommand = scanCommandBuilder.getCommandWithPermutations();
+            if(permutationsCommand != null)
+            {
+                Job.checkCurrentJobCancelled();
+                ChunkedPermutationRunner.runPermutationsInSession(
+                        rInterface,
+                        scanCommandBuilder,
+                        "running scantwo permutations (this can take a while)");
+            }
         }
-
+        
         // add a record of which phenotype(s) we scanned
         RCommand phenotypeCommand =
             scanCommandBuilder.getPhenotypeAttributeCommand();
         if(phenotypeCommand != null)
         {
-            rInterface.insertComment(
+            RSessionEpoch.evaluateCommandNoReturn(
+                    rInterface,
                     "adding an attribute so we know which phenotype(s) " +
-                    "this scan came from");
-            rInterface.evaluateCommandNoReturn(phenotypeCommand);
+                    "this scan came from",
+                    phenotypeCommand);
         }
         
         rInterface.flushCommands();
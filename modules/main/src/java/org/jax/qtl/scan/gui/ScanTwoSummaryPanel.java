@@ -31,6 +31,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.help.CSH;
@@ -57,6 +58,7 @@ import org.jax.qtl.cross.GeneticMarker.MarkerStringFormat;
 import org.jax.qtl.fit.gui.AddToQtlBasketDialog;
 import org.jax.qtl.gui.ExportDataTableAction;
 import org.jax.qtl.scan.ConfidenceThresholdState;
+import org.jax.qtl.scan.ScanSummaryExecutor;
 import org.jax.qtl.scan.ScanTwoResult;
 import org.jax.qtl.scan.ScanTwoSummary;
 import org.jax.qtl.scan.ScanTwoSummaryBuilder;
@@ -114,6 +116,12 @@ public class ScanTwoSummaryPanel extends javax.swing.JPanel
     
     private volatile ScanTwoSummary scanTwoSummary;
     
+    /**
+     * the number of the latest summary request. this is only touched on
+     * the event thread
+     */
+    private long latestSummaryRequestNumber = 0L;
+    
     private final MouseListener tableMouseListener = new MouseAdapter()
     {
         /**
@@ -310,10 +318,16 @@ public class ScanTwoSummaryPanel extends javax.swing.JPanel
     }
     
     /**
-     * Rebuild the scan two summary object
+     * Rebuild the scan two summary object on the
+     * {@link ScanSummaryExecutor}. The table is refreshed on the event
+     * thread once the summary is ready
+     * @param markerPairsToSelect
+     *          the marker pairs that should be selected in the new table
      */
-    private void buildScanTwoSummary()
+    private void buildScanTwoSummary(
+            final Set<GeneticMarkerPair> markerPairsToSelect)
     {
+        final long requestNumber = ++this.latestSummaryRequestNumber;
         ScanTwoResult selectedResult = this.getSelectedScanTwoResult();
         ConfidenceThresholdState selectedThreshold = this.getSelectedThreshold();
         ModelToOptimize modelToOptimize = this.getSelectedModelToOptimize();
@@ -323,18 +337,73 @@ public class ScanTwoSummaryPanel extends javax.swing.JPanel
             double[] currentThresholdValues = this.getThresholdValues(
                     selectedThreshold);
             
-            ScanTwoSummaryBuilder scanTwoSummaryBuilder = new ScanTwoSummaryBuilder(
+            final ScanTwoSummaryBuilder scanTwoSummaryBuilder = new ScanTwoSummaryBuilder(
                     selectedResult,
                     selectedThreshold,
                     currentThresholdValues,
                     modelToOptimize,
                     this.scanPhenotypeComboBox.getSelectedIndex(),
                     this.getShowPValues());
-            this.scanTwoSummary = scanTwoSummaryBuilder.createSummary();
+            ScanSummaryExecutor.getExecutor().execute(new Runnable()
+            {
+                public void run()
+                {
+                    ScanTwoSummary summary = null;
+                    try
+                    {
+                        summary = scanTwoSummaryBuilder.createSummary();
+                    }
+                    catch(RuntimeException ex)
+                    {
+                        LOG.log(Level.SEVERE,
+                                "failed to build the scantwo summary",
+                                ex);
+                    }
+                    
+                    final ScanTwoSummary finalSummary = summary;
+                    SwingUtilities.invokeLater(new Runnable()
+                    {
+                        public void run()
+                        {
+                            ScanTwoSummaryPanel.this.scanTwoSummaryBuilt(
+                                    requestNumber,
+                                    finalSummary,
+                                    markerPairsToSelect);
+                        }
+                    });
+                }
+            });
         }
         else
         {
-            this.scanTwoSummary = null;
+            this.scanTwoSummaryBuilt(
+                    requestNumber,
+                    null,
+                    markerPairsToSelect);
+        }
+    }
+    
+    /**
+     * Called on the event thread when a summary is ready
+     * @param requestNumber
+     *          the request that the summary was built for
+     * @param summary
+     *          the summary (can be null)
+     * @param markerPairsToSelect
+     *          the marker pairs that should be selected in the new table
+     */
+    private void scanTwoSummaryBuilt(
+            long requestNumber,
+            ScanTwoSummary summary,
+            Set<GeneticMarkerPair> markerPairsToSelect)
+    {
+        // results from requests that have been superseded are dropped
+        if(requestNumber == this.latestSummaryRequestNumber)
+        {
+            this.scanTwoSummary = summary;
+            this.refreshSummaryTable(
+                    summary,
+                    markerPairsToSelect);
         }
     }
 
@@ -363,13 +432,9 @@ public class ScanTwoSummaryPanel extends javax.swing.JPanel
      */
     private void rebuildSummaryTable()
     {
-        this.buildScanTwoSummary();
-        
         this.scanResultsTable.setModel(this.createTableModel());
         Set<GeneticMarkerPair> emptySet = Collections.emptySet();
-        this.refreshSummaryTable(
-                this.scanTwoSummary,
-                emptySet);
+        this.buildScanTwoSummary(emptySet);
     }
     
     /**
@@ -377,10 +442,7 @@ public class ScanTwoSummaryPanel extends javax.swing.JPanel
      */
     private void refreshSummaryTable()
     {
-        this.buildScanTwoSummary();
-        this.refreshSummaryTable(
-                this.scanTwoSummary,
-                this.getMarkerPairs(true));
+        this.buildScanTwoSummary(this.getMarkerPairs(true));
     }
     
     /**
@@ -43,7 +43,16 @@ import javax.swing.JTextField;
 import org.jax.qtl.Constants;
 import org.jax.qtl.QTL;
 import org.jax.qtl.cross.Cross;
+import org.jax.qtl.cross.GenotypeProbabilityCalculator;
+import org.jax.qtl.cross.GenotypeProbabilityCalculator.MapFunction;
+import org.jax.qtl.cross.GenotypeProbabilityCalculator.StepWidth;
+import org.jax.qtl.job.Job;
+import org.jax.qtl.job.JobCategory;
+import org.jax.qtl.job.JobScheduler;
+import org.jax.qtl.job.RunnableJob;
 import org.jax.qtl.project.QtlProjectManager;
+import org.jax.qtl.util.RSessionEpoch;
+import org.jax.qtl.util.RSessionLock;
 import org.jax.qtl.util.Tools;
 import org.jax.r.RException;
 import org.jax.r.jriutilities.RInterface;
@@ -73,7 +82,7 @@ public class CalcGenoprobDialog extends JDialog implements Constants {
     private final static String STEP = "2.0"; // default
     private JComboBox mapFunctionCombobox, stepWidthTypeCombobox;
     
-    private Thread runRcommand;
+    private Job runRcommand;
 
 
     /**
@@ -152,7 +161,10 @@ public class CalcGenoprobDialog extends JDialog implements Constants {
         okButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent event) {
                 dispose();
-                CalcGenoprobDialog.this.runRcommand = new Thread(new Runnable(){
+                CalcGenoprobDialog.this.runRcommand = new RunnableJob(
+                        "calc.genoprob: " + CalcGenoprobDialog.this.selectedCross.getAccessorExpressionString(),
+                        JobCategory.GENOTYPE_CALCULATION,
+                        new Runnable(){
                     public void run() {
                         // pass the selected cross and parameters to R to calculate the genotype probability
                         double step = Double.parseDouble(CalcGenoprobDialog.this.tfStepSize.getText());
@@ -178,11 +190,31 @@ public class CalcGenoprobDialog extends JDialog implements Constants {
                         {
                             RInterface rInterface = RInterfaceFactory.getRInterfaceInstance();
                             
-                            // synchronize to guarantee inputs are contiguous
-                            synchronized(rInterface)
+                            // try the java HMM first and only fall back on R for
+                            // cross types that it doesn't know about
+                            GenotypeProbabilityCalculator calculator = new GenotypeProbabilityCalculator(
+                                    step,
+                                    offend,
+                                    errorProb,
+                                    MapFunction.values()[CalcGenoprobDialog.this.mapFunctionCombobox.getSelectedIndex()],
+                                    StepWidth.values()[CalcGenoprobDialog.this.stepWidthTypeCombobox.getSelectedIndex()]);
+                            rInterface.insertComment(comment);
+                            if (!GenotypeProbabilityCalculator.canCalculate(CalcGenoprobDialog.this.selectedCross) ||
+                                !calculator.calculateGenotypeProbabilities(rInterface, CalcGenoprobDialog.this.selectedCross))
                             {
-                                rInterface.insertComment(comment);
-                                rInterface.evaluateCommandNoReturn(rcmd);
+                                // a cancel shows up as a failed java calculation
+                                Job.checkCurrentJobCancelled();
+                                
+                                // lock to guarantee inputs are contiguous
+                                RSessionLock.lockForWriting();
+                                try
+                                {
+                                    RSessionEpoch.evaluateCommandNoReturn(rInterface, rcmd);
+                                }
+                                finally
+                                {
+                                    RSessionLock.unlockForWriting();
+                                }
                             }
                         }
                         catch(RException ex)
@@ -197,7 +229,7 @@ public class CalcGenoprobDialog extends JDialog implements Constants {
                     }
                 });
                 
-                CalcGenoprobDialog.this.runRcommand.start();
+                JobScheduler.getInstance().submit(CalcGenoprobDialog.this.runRcommand);
             }
         });
 
@@ -44,8 +44,13 @@ import org.jax.qtl.cross.Cross;
 import org.jax.qtl.cross.SexAwareGeneticMap;
 import org.jax.qtl.graph.CompareGeneticMapPlot;
 import org.jax.qtl.graph.OneDimensionPlotContainerPanel;
+import org.jax.qtl.job.Job;
+import org.jax.qtl.job.JobCategory;
+import org.jax.qtl.job.JobScheduler;
+import org.jax.qtl.job.RunnableJob;
 import org.jax.qtl.project.QtlProject;
 import org.jax.qtl.project.QtlProjectManager;
+import org.jax.qtl.util.RSessionEpoch;
 import org.jax.qtl.util.Tools;
 import org.jax.r.jriutilities.RInterface;
 import org.jax.r.jriutilities.RInterfaceFactory;
@@ -69,7 +74,7 @@ public class EstimateMapDialog extends JDialog implements Constants {
     private int selectedCrossIndex;
     private JTextField tfGenoErrorRate, tfm, tfp, tfMaxit, tfTol;
     private JComboBox mapFunctionCombobox, sexSpCombobox;
-    private Thread runRcommand;
+    private Job runRcommand;
     private final Cross[] crosses;
 
     /**
@@ -117,7 +122,10 @@ public class EstimateMapDialog extends JDialog implements Constants {
         okButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent event) {
                 dispose();
-                EstimateMapDialog.this.runRcommand = new Thread(new Runnable(){
+                EstimateMapDialog.this.runRcommand = new RunnableJob(
+                        "est.map: " + EstimateMapDialog.this.crosses[EstimateMapDialog.this.selectedCrossIndex].getAccessorExpressionString(),
+                        JobCategory.GENOTYPE_CALCULATION,
+                        new Runnable(){
                     public void run() {
                         // run R command to get the estimated map
                         // map function
@@ -174,7 +182,7 @@ public class EstimateMapDialog extends JDialog implements Constants {
                         
                         RInterface rInterface = RInterfaceFactory.getRInterfaceInstance();
                         rInterface.insertComment(comment);
-                        rInterface.evaluateCommandNoReturn(rcmd);
+                        RSessionEpoch.evaluateCommandNoReturn(rInterface, rcmd);
                         
                         final List<SexAwareGeneticMap> estimatedGeneticMaps =
                             SexAwareGeneticMap.extractMaps(new RObject(
@@ -219,7 +227,7 @@ public class EstimateMapDialog extends JDialog implements Constants {
                                 });
                     }
                 });
-                EstimateMapDialog.this.runRcommand.start();
+                JobScheduler.getInstance().submit(EstimateMapDialog.this.runRcommand);
             }
         });
 
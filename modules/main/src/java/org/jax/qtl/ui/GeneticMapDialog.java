@@ -39,6 +39,7 @@ import org.jax.qtl.graph.GeneticMapPlot;
 import org.jax.qtl.graph.OneDimensionPlotContainerPanel;
 import org.jax.qtl.project.QtlProject;
 import org.jax.qtl.project.QtlProjectManager;
+import org.jax.qtl.util.RSessionLock;
 import org.jax.r.jriutilities.RInterface;
 import org.jax.r.jriutilities.RInterfaceFactory;
 
@@ -117,7 +118,8 @@ public class GeneticMapDialog extends JDialog implements Constants {
                 String rcmd = "plot.map(" + tempCross.getAccessorExpressionString() + ")";
                 String comment = "Plot genetic map for " + tempCross.getAccessorExpressionString() + " ...";
                 RInterface rInterface = RInterfaceFactory.getRInterfaceInstance();
-                synchronized(rInterface)
+                RSessionLock.lockForWriting();
+                try
                 {
                     rInterface.insertComment(comment);
                     
@@ -125,6 +127,10 @@ public class GeneticMapDialog extends JDialog implements Constants {
                     // real plotting in java
                     rInterface.insertComment(rcmd);
                 }
+                finally
+                {
+                    RSessionLock.unlockForWriting();
+                }
             }
         });
 
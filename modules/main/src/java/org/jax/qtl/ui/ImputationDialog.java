@@ -41,7 +41,13 @@ import javax.swing.JTextField;
 import org.jax.qtl.Constants;
 import org.jax.qtl.QTL;
 import org.jax.qtl.cross.Cross;
+import org.jax.qtl.job.Job;
+import org.jax.qtl.job.JobCategory;
+import org.jax.qtl.job.JobScheduler;
+import org.jax.qtl.job.RunnableJob;
 import org.jax.qtl.project.QtlProjectManager;
+import org.jax.qtl.util.RSessionEpoch;
+import org.jax.qtl.util.RSessionLock;
 import org.jax.qtl.util.Tools;
 import org.jax.r.jriutilities.RInterface;
 import org.jax.r.jriutilities.RInterfaceFactory;
@@ -68,7 +74,7 @@ public class ImputationDialog extends JDialog implements Constants
     private JTextField tfNumDraws, tfStepSize, tfGenoErrorRate, tfDistPastTerminal;
     private final static String NUM_DRAWS = "16.0", STEP = "2.0"; // default
     private JComboBox mapFunctionCombobox, stepWidthTypeCombobox;
-    private Thread runRcommand;
+    private Job runRcommand;
 
     /**
      * Constructor
@@ -142,7 +148,10 @@ public class ImputationDialog extends JDialog implements Constants
         okButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent event) {
                 dispose();
-                ImputationDialog.this.runRcommand = new Thread(new Runnable(){
+                ImputationDialog.this.runRcommand = new RunnableJob(
+                        "sim.geno: " + ImputationDialog.this.selectedCross.getAccessorExpressionString(),
+                        JobCategory.GENOTYPE_CALCULATION,
+                        new Runnable(){
                     public void run() {
                         // pass the selected cross and parameters to R to calculate the genotype probability
                         int draws = (int) Double.parseDouble(ImputationDialog.this.tfNumDraws.getText());
@@ -163,16 +172,21 @@ public class ImputationDialog extends JDialog implements Constants
                         String comment = "Running imputation for cross: " + ImputationDialog.this.selectedCross.getAccessorExpressionString() + " ...";
                         
                         RInterface rInterface = RInterfaceFactory.getRInterfaceInstance();
-                        synchronized(rInterface)
+                        RSessionLock.lockForWriting();
+                        try
                         {
                             rInterface.insertComment(comment);
-                            rInterface.evaluateCommandNoReturn(rcmd);
+                            RSessionEpoch.evaluateCommandNoReturn(rInterface, rcmd);
+                        }
+                        finally
+                        {
+                            RSessionLock.unlockForWriting();
                         }
 
                         QtlProjectManager.getInstance().notifyActiveProjectModified();
                     }
                 });
-                ImputationDialog.this.runRcommand.start();
+                JobScheduler.getInstance().submit(ImputationDialog.this.runRcommand);
             }
         });
 
@@ -51,6 +51,7 @@ import org.jax.qtl.graph.ScantwoPlot;
 import org.jax.qtl.project.QtlDataModel;
 import org.jax.qtl.project.QtlProjectManager;
 import org.jax.qtl.scan.ScanTwoResult;
+import org.jax.qtl.util.RSessionLock;
 import org.jax.qtl.util.Tools;
 import org.jax.r.RUtilities;
 import org.jax.r.jriutilities.RInterface;
@@ -370,11 +371,16 @@ public class PlotScantwoDialog extends JDialog implements Constants {
                     String comment = "Plot pair scan result ...";
                     
                     RInterface rInterface = RInterfaceFactory.getRInterfaceInstance();
-                    synchronized(rInterface)
+                    RSessionLock.lockForWriting();
+                    try
                     {
                         rInterface.insertComment(comment);
                         rInterface.insertComment(rcmd);
                     }
+                    finally
+                    {
+                        RSessionLock.unlockForWriting();
+                    }
                 }
             }
         });
@@ -32,9 +32,12 @@ import javax.swing.JDialog;
 
 import org.jax.qtl.QTL;
 import org.jax.qtl.configuration.QtlApplicationConfigurationManager;
+import org.jax.qtl.util.RSessionEpoch;
+import org.jax.qtl.util.RSessionLock;
 import org.jax.r.jaxbgenerated.RApplicationConfiguration;
 import org.jax.r.jaxbgenerated.RInstallationType;
 import org.jax.r.jaxbgenerated.RLaunchConfigurationType;
+import org.jax.r.jriutilities.RInterface;
 import org.jax.r.jriutilities.RInterfaceFactory;
 import org.jax.r.rintegration.PlatformSpecificRFunctions;
 import org.jax.r.rintegration.PlatformSpecificRFunctionsFactory;
@@ -291,10 +294,20 @@ public class PreferencesDialog extends JDialog
             
             if(TypeSafeSystemProperties.getOsFamily() == OsFamily.WINDOWS_OS_FAMILY)
             {
-                RInterfaceFactory.getRInterfaceInstance().insertComment(
-                        "Resizing R memory ceiling (only valid on Windows)");
-                RInterfaceFactory.getRInterfaceInstance().evaluateCommandNoReturn(
-                        "memory.limit(" + newRMemLimitMB + ")");
+                RInterface rInterface = RInterfaceFactory.getRInterfaceInstance();
+                RSessionLock.lockForWriting();
+                try
+                {
+                    rInterface.insertComment(
+                            "Resizing R memory ceiling (only valid on Windows)");
+                    RSessionEpoch.evaluateCommandNoReturn(
+                            rInterface,
+                            "memory.limit(" + newRMemLimitMB + ")");
+                }
+                finally
+                {
+                    RSessionLock.unlockForWriting();
+                }
             }
         }
         
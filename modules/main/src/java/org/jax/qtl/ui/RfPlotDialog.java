@@ -24,7 +24,11 @@ import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.nio.DoubleBuffer;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.help.CSH;
 import javax.help.HelpSet;
@@ -46,15 +50,21 @@ import org.jax.qtl.Constants;
 import org.jax.qtl.QTL;
 import org.jax.qtl.cross.Cross;
 import org.jax.qtl.cross.CrossChromosome;
+import org.jax.qtl.cross.RecombinationFractionEstimator;
 import org.jax.qtl.graph.OneDimensionPlotContainerPanel;
 import org.jax.qtl.graph.RfPlot;
+import org.jax.qtl.job.Job;
+import org.jax.qtl.job.JobCategory;
+import org.jax.qtl.job.JobScheduler;
+import org.jax.qtl.job.RunnableJob;
 import org.jax.qtl.project.QtlProject;
 import org.jax.qtl.project.QtlProjectManager;
+import org.jax.qtl.util.MappedRArrayTransfer;
+import org.jax.qtl.util.RSessionEpoch;
+import org.jax.qtl.util.RSessionLock;
 import org.jax.qtl.util.Tools;
 import org.jax.r.jriutilities.RInterface;
 import org.jax.r.jriutilities.RInterfaceFactory;
-import org.jax.r.jriutilities.SilentRCommand;
-import org.rosuda.JRI.REXP;
 
 /**
  * <p>Title: QTL data analysis</p>
@@ -72,12 +82,18 @@ public class RfPlotDialog extends JDialog implements Constants {
      */
     private static final long serialVersionUID = -824385139238584485L;
 
+    /**
+     * our logger
+     */
+    private static final Logger LOG = Logger.getLogger(
+            RfPlotDialog.class.getName());
+
     private int selectedCrossIndex, selectedMaxit = MAXIT_DEFAULT;
     
     private JTextField tfMaxit, tfTol;
     private String selectedTol = TOL_DEFAULT;
     private int[] selectedChrIndexes = new int[] {0};
-    private Thread runRcommand;
+    private Job runRcommand;
     private boolean newChrTable = true;
     private ListSelectionTable tbChr;
 
@@ -129,7 +145,10 @@ public class RfPlotDialog extends JDialog implements Constants {
             public void actionPerformed(ActionEvent event) {
                 dispose();
 
-                RfPlotDialog.this.runRcommand = new Thread(new Runnable() {
+                RfPlotDialog.this.runRcommand = new RunnableJob(
+                        "est.rf: " + RfPlotDialog.this.crosses[RfPlotDialog.this.selectedCrossIndex].getAccessorExpressionString(),
+                        JobCategory.PLOT_CALCULATION,
+                        new Runnable() {
                     public void run() {
                         // set current cross in QTL
                         // run R command to get the estimated map
@@ -156,22 +175,93 @@ public class RfPlotDialog extends JDialog implements Constants {
                             "Estimate the sex-averaged recombination fraction for cross: " +
                             selectedCross.getAccessorExpressionString() + " ...";
                         RInterface rInterface = RInterfaceFactory.getRInterfaceInstance();
-                        synchronized(rInterface)
-                        {
-                            rInterface.insertComment(comment);
-                            rInterface.evaluateCommandNoReturn(rcmd);
+                        final int[] chromosomeIndexes = RfPlotDialog.this.selectedChrIndexes;
+
+                        // the selected chromosomes can usually be done in java
+                        // which saves us from pulling every marker pair in the
+                        // genome out of R
+                        DoubleBuffer javaRf = null;
+                        if (RecombinationFractionEstimator.canEstimate(selectedCross, chromosomeIndexes)) {
+                            double tolerance = TOL_DEFAULT_NUM;
+                            try {
+                                tolerance = Double.parseDouble(RfPlotDialog.this.tfTol.getText().trim());
+                            }
+                            catch (NumberFormatException ex) {
+                                LOG.warning("using the default tolerance in place of: " + RfPlotDialog.this.tfTol.getText());
+                            }
+
+                            RecombinationFractionEstimator estimator =
+                                new RecombinationFractionEstimator(RfPlotDialog.this.selectedMaxit, tolerance);
+                            try {
+                                javaRf = estimator.estimateRecombinationFractions(selectedCross, chromosomeIndexes);
+                                
+                                // the java estimate only covers the selected
+                                // chromosomes and is only used for the plot so
+                                // say so rather than claiming est.rf ran
+                                List<CrossChromosome> chromosomes = selectedCross.getGenotypeData();
+                                StringBuffer chromosomeNames = new StringBuffer();
+                                for (int chromosomeIndex: chromosomeIndexes) {
+                                    if (chromosomeNames.length() > 0) {
+                                        chromosomeNames.append(", ");
+                                    }
+                                    chromosomeNames.append(chromosomes.get(chromosomeIndex).getChromosomeName());
+                                }
+                                RSessionLock.lockForWriting();
+                                try
+                                {
+                                    rInterface.insertComment(comment);
+                                    rInterface.insertComment(
+                                            "estimated in java for chromosome(s) " + chromosomeNames +
+                                            " (maxit=" + RfPlotDialog.this.selectedMaxit +
+                                            ", tol=" + tolerance + "). " +
+                                            selectedCross.getAccessorExpressionString() +
+                                            "$rf was not changed");
+                                    RfPlotDialog.insertPlotComments(rInterface, selectedCross);
+                                }
+                                finally
+                                {
+                                    RSessionLock.unlockForWriting();
+                                }
+                            }
+                            catch (ExecutionException ex) {
+                                LOG.log(Level.WARNING, "java est.rf failed. falling back on R", ex.getCause());
+                            }
+                            catch (InterruptedException ex) {
+                                LOG.log(Level.WARNING, "java est.rf interrupted. falling back on R", ex);
+                                Thread.currentThread().interrupt();
+                            }
                         }
 
-                        // get the est.rf result from R for drawing RF plot
-                        final double[][] rf;
-                        synchronized(rInterface)
-                        {
-                            String rcmdForGetRf = 
-                                selectedCross.getAccessorExpressionString() +
-                                "$rf";
-                            REXP rfExpression = rInterface.evaluateCommand(
-                                    new SilentRCommand(rcmdForGetRf));
-                            rf = rfExpression.asDoubleMatrix();
+                        final DoubleBuffer rf;
+                        final boolean selectedMarkersOnly = javaRf != null;
+                        if (selectedMarkersOnly) {
+                            rf = javaRf;
+                        }
+                        else {
+                            // a cancel shows up as an interrupted java estimate
+                            Job.checkCurrentJobCancelled();
+                            
+                            // hold the write lock until we've fetched the
+                            // result so that we plot the estimate we just ran
+                            RSessionLock.lockForWriting();
+                            try
+                            {
+                                rInterface.insertComment(comment);
+                                RSessionEpoch.evaluateCommandNoReturn(rInterface, rcmd);
+
+                                // get the est.rf result from R for drawing RF plot
+                                String rcmdForGetRf = 
+                                    selectedCross.getAccessorExpressionString() +
+                                    "$rf";
+                                rf = MappedRArrayTransfer.fetchDoubles(
+                                        rInterface,
+                                        rcmdForGetRf);
+                                RfPlotDialog.insertPlotComments(rInterface, selectedCross);
+                            }
+                            finally
+                            {
+                                RSessionLock.unlockForWriting();
+                            }
                         }
                         
                         // update UI on EDT
@@ -181,35 +271,18 @@ public class RfPlotDialog extends JDialog implements Constants {
                                     "Cross" +
                                     selectedCross.getAccessorExpressionString() +
                                     ".rf";
-                                RfPlot temp = new RfPlot(selectedCross, rf, RfPlotDialog.this.selectedChrIndexes);
+                                RfPlot temp = new RfPlot(selectedCross, rf, chromosomeIndexes, selectedMarkersOnly);
 
                                 QTL.getInstance().getDesktop().createInternalFrame(
                                         new OneDimensionPlotContainerPanel(temp),
                                         "RF Plot for cross: " + selectedCross.getAccessorExpressionString(),
                                         null,
                                         iframeid);
-
-                                // parameters for making R command
-                                String rcmd = "plot.rf(" + selectedCross.getAccessorExpressionString() + ")";
-                                String comment =
-                                    "Plot recombination fraction plot for cross: " +
-                                    selectedCross.getAccessorExpressionString() + " ...";
-                                
-                                RInterface rInterface = RInterfaceFactory.getRInterfaceInstance();
-                                synchronized(rInterface)
-                                {
-                                    rInterface.insertComment(comment);
-                                    
-                                    // insert a comment in place of the command
-                                    // since we're taking care of the plot in
-                                    // java
-                                    rInterface.insertComment(rcmd);
-                                }
                             }
                         });
                     }
                 });
-                RfPlotDialog.this.runRcommand.start();
+                JobScheduler.getInstance().submit(RfPlotDialog.this.runRcommand);
             }
         });
 
@@ -233,6 +306,26 @@ public class RfPlotDialog extends JDialog implements Constants {
         return buttonPane;
     }
 
+    /**
+     * Record the plot.rf call that the java RF plot stands in for. The
+     * caller must hold the R session write lock
+     * @param rInterface
+     *          the R interface
+     * @param cross
+     *          the cross being plotted
+     */
+    private static void insertPlotComments(RInterface rInterface, Cross cross) {
+        String rcmd = "plot.rf(" + cross.getAccessorExpressionString() + ")";
+        String comment =
+            "Plot recombination fraction plot for cross: " +
+            cross.getAccessorExpressionString() + " ...";
+        rInterface.insertComment(comment);
+
+        // insert a comment in place of the command since we're taking care
+        // of the plot in java
+        rInterface.insertComment(rcmd);
+    }
+
     private JPanel makeCrossSelectionPane() {
         final JComboBox crossListCombobox = new JComboBox(this.crosses);
         int defaultHeight = (int) crossListCombobox.getPreferredSize().getHeight();
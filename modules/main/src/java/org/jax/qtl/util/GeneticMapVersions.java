@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.util;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps a version number for the genetic maps of each cross (or other map
+ * owner) in the R session. Unlike the {@link RSessionEpoch} a version only
+ * moves on when a command that can change maps (like <code>est.map</code>
+ * or <code>jittermap</code>) runs against the owner, so map snapshots
+ * survive all of the unrelated commands that go on in a session.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class GeneticMapVersions
+{
+    /**
+     * the R functions that change the maps of the cross they're given
+     */
+    private static final String[] MAP_CHANGING_FUNCTIONS = new String[] {
+        "est.map",
+        "jittermap",
+        "replace.map"};
+
+    /**
+     * the versions of the owners that have been invalidated since the
+     * last call to {@link #invalidateAll()}
+     */
+    private static final Map<String, Long> OWNER_VERSIONS =
+        new HashMap<String, Long>();
+
+    /**
+     * the version of every owner that isn't in {@link #OWNER_VERSIONS}
+     */
+    private static long baseVersion = 0L;
+
+    /**
+     * the last version that was handed out
+     */
+    private static long lastVersion = 0L;
+
+    /**
+     * Get the map version for the given owner
+     * @param ownerAccessor
+     *          the accessor expression of the map owner (usually a cross)
+     * @return
+     *          the version
+     */
+    public static synchronized long getMapVersion(String ownerAccessor)
+    {
+        Long version = OWNER_VERSIONS.get(ownerAccessor);
+        if(version == null)
+        {
+            // remember the owner so that commands can be matched against it
+            OWNER_VERSIONS.put(ownerAccessor, baseVersion);
+            return baseVersion;
+        }
+        else
+        {
+            return version;
+        }
+    }
+
+    /**
+     * Invalidate the maps of the given owner
+     * @param ownerAccessor
+     *          the accessor expression of the map owner
+     */
+    public static synchronized void invalidate(String ownerAccessor)
+    {
+        lastVersion++;
+        OWNER_VERSIONS.put(ownerAccessor, lastVersion);
+    }
+
+    /**
+     * Invalidate every map. This should be called whenever the R session
+     * may have changed in ways that we didn't see
+     */
+    public static synchronized void invalidateAll()
+    {
+        lastVersion++;
+        baseVersion = lastVersion;
+        OWNER_VERSIONS.clear();
+    }
+
+    /**
+     * Look at a command that is about to be (or has just been) evaluated
+     * and invalidate the maps of any owner that it could change. A command
+     * changes maps if it calls one of the map changing functions or if it
+     * assigns to an owner or any part of one (<code>cross$geno[["1"]]$map
+     * &lt;- m</code> for instance). Commands that we can't parse
+     * invalidate every owner they mention and a map changing command that
+     * doesn't mention any owner we know of invalidates everything
+     * @param commandText
+     *          the command text
+     */
+    public static synchronized void noteCommand(String commandText)
+    {
+        if(commandText == null)
+        {
+            return;
+        }
+
+        boolean callsMapChangingFunction = false;
+        for(String currFunction: MAP_CHANGING_FUNCTIONS)
+        {
+            if(GeneticMapVersions.indexOfIdentifier(commandText, currFunction) != -1)
+            {
+                callsMapChangingFunction = true;
+                break;
+            }
+        }
+
+        List<String> assignedSymbols = RChangeJournal.getAssignedSymbols(commandText);
+        String[] owners = OWNER_VERSIONS.keySet().toArray(
+                new String[OWNER_VERSIONS.size()]);
+        boolean matchedOwner = false;
+        for(String currOwner: owners)
+        {
+            int ownerIndex = GeneticMapVersions.indexOfIdentifier(
+                    commandText,
+                    currOwner);
+            if(ownerIndex != -1)
+            {
+                if(callsMapChangingFunction ||
+                   assignedSymbols == null ||
+                   GeneticMapVersions.isAssignmentTo(assignedSymbols, currOwner))
+                {
+                    GeneticMapVersions.invalidate(currOwner);
+                    matchedOwner = true;
+                }
+            }
+        }
+
+        if(callsMapChangingFunction && !matchedOwner)
+        {
+            GeneticMapVersions.invalidateAll();
+        }
+    }
+
+    /**
+     * Determine if any of the assignments target the given owner. Owners
+     * are matched on their root symbol so an assignment to
+     * <code>crosses</code> also changes the owner <code>crosses$f2</code>
+     * @param assignedSymbols
+     *          the top-level symbols that a command assigns to
+     * @param ownerAccessor
+     *          the owner
+     * @return
+     *          true if the command assigns to the owner
+     */
+    private static boolean isAssignmentTo(
+            List<String> assignedSymbols,
+            String ownerAccessor)
+    {
+        int rootEnd = 0;
+        while(rootEnd < ownerAccessor.length() &&
+              GeneticMapVersions.isIdentifierCharacter(ownerAccessor.charAt(rootEnd)))
+        {
+            rootEnd++;
+        }
+
+        return assignedSymbols.contains(ownerAccessor.substring(0, rootEnd));
+    }
+
+    /**
+     * Find the given identifier in the text making sure that it isn't just
+     * part of a longer identifier (so "cross1" doesn't match "cross10")
+     * @param text
+     *          the text to search
+     * @param identifier
+     *          the identifier to search for
+     * @return
+     *          the index or -1 if it isn't found
+     */
+    private static int indexOfIdentifier(String text, String identifier)
+    {
+        int index = text.indexOf(identifier);
+        while(index != -1)
+        {
+            int end = index + identifier.length();
+            boolean startOk =
+                index == 0 ||
+                !GeneticMapVersions.isIdentifierCharacter(text.charAt(index - 1));
+            boolean endOk =
+                end == text.length() ||
+                !GeneticMapVersions.isIdentifierCharacter(text.charAt(end));
+            if(startOk && endOk)
+            {
+                return index;
+            }
+            index = text.indexOf(identifier, index + 1);
+        }
+
+        return -1;
+    }
+
+    /**
+     * Determine if the given character can be part of an R identifier
+     * @param c
+     *          the character
+     * @return
+     *          true if it can
+     */
+    private static boolean isIdentifierCharacter(char c)
+    {
+        return Character.isLetterOrDigit(c) || c == '.' || c == '_';
+    }
+}
@@ -0,0 +1,571 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jax.r.RUtilities;
+import org.jax.r.jriutilities.RInterface;
+import org.jax.r.jriutilities.SilentRCommand;
+import org.rosuda.JRI.REXP;
+
+/**
+ * Moves numeric arrays from R to java. Small arrays come across through
+ * JRI like everything else, but arrays above
+ * {@link #getMappedTransferThreshold()} are written by R to a temporary
+ * file using <code>writeBin</code> which we then memory map. This means
+ * that large arrays are never copied onto the java heap. Going the other
+ * way, {@link #assignDoubles(RInterface, String, double[])} and
+ * {@link DoubleArrayWriter} write java values to a file that R reads with
+ * <code>readBin</code>.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class MappedRArrayTransfer
+{
+    /**
+     * our logger
+     */
+    private static final Logger LOG = Logger.getLogger(
+            MappedRArrayTransfer.class.getName());
+
+    /**
+     * the default value for {@link #getMappedTransferThreshold()}
+     */
+    public static final long DEFAULT_MAPPED_TRANSFER_THRESHOLD = 1L << 18;
+
+    private static final String TEMP_FILE_PREFIX = "jqtl-transfer";
+
+    private static final String TEMP_FILE_SUFFIX = ".bin";
+
+    /**
+     * the number of values that we buffer at a time when writing
+     */
+    private static final int WRITE_CHUNK_SIZE = 1 << 13;
+
+    private static volatile long mappedTransferThreshold =
+        DEFAULT_MAPPED_TRANSFER_THRESHOLD;
+
+    /**
+     * java can't unmap a file explicitly. the mapping goes away when the
+     * buffer is collected, so this queue tells us when it's safe to delete
+     * temp files that couldn't be deleted while they were mapped
+     */
+    private static final ReferenceQueue<ByteBuffer> UNMAPPED_BUFFERS =
+        new ReferenceQueue<ByteBuffer>();
+
+    /**
+     * keeps the references to mapped temp files reachable until their
+     * buffers are collected
+     */
+    private static final Set<MappedTempFile> MAPPED_TEMP_FILES =
+        Collections.synchronizedSet(new HashSet<MappedTempFile>());
+
+    /**
+     * A temp file that we still need to delete once its mapped buffer is
+     * gone
+     */
+    private static class MappedTempFile extends PhantomReference<ByteBuffer>
+    {
+        private final File file;
+
+        /**
+         * Constructor
+         * @param mappedBytes
+         *          the buffer that maps the file
+         * @param file
+         *          the file
+         */
+        public MappedTempFile(ByteBuffer mappedBytes, File file)
+        {
+            super(mappedBytes, UNMAPPED_BUFFERS);
+            this.file = file;
+        }
+
+        /**
+         * Getter for the file
+         * @return
+         *          the file
+         */
+        public File getFile()
+        {
+            return this.file;
+        }
+    }
+
+    /**
+     * Getter for the array length (number of values) at or above which we
+     * use a memory mapped file rather than a JRI copy
+     * @return
+     *          the threshold
+     */
+    public static long getMappedTransferThreshold()
+    {
+        return MappedRArrayTransfer.mappedTransferThreshold;
+    }
+
+    /**
+     * Setter for the mapped transfer threshold
+     * @see #getMappedTransferThreshold()
+     * @param mappedTransferThreshold
+     *          the new threshold
+     */
+    public static void setMappedTransferThreshold(long mappedTransferThreshold)
+    {
+        MappedRArrayTransfer.mappedTransferThreshold = mappedTransferThreshold;
+    }
+
+    /**
+     * Fetch the values of an R numeric expression (vectors, matrices and
+     * arrays are all flattened in R's column-major order)
+     * @param rInterface
+     *          the R interface to use
+     * @param arrayExpression
+     *          the R expression for the array
+     * @param expectedLength
+     *          the number of values that the expression should evaluate
+     *          to. this is what we use to decide how to do the transfer
+     * @return
+     *          a read-only buffer holding the values
+     */
+    public static DoubleBuffer fetchDoubles(
+            RInterface rInterface,
+            String arrayExpression,
+            long expectedLength)
+    {
+        RSessionLock.lockForReading();
+        try
+        {
+            if(expectedLength >= MappedRArrayTransfer.mappedTransferThreshold)
+            {
+                ByteBuffer mappedBytes = MappedRArrayTransfer.fetchMappedBytes(
+                        rInterface,
+                        arrayExpression,
+                        expectedLength,
+                        8);
+                if(mappedBytes != null)
+                {
+                    return mappedBytes.asDoubleBuffer();
+                }
+            }
+
+            REXP arrayRExpression = rInterface.evaluateCommand(new SilentRCommand(
+                    "as.double(" + arrayExpression + ")"));
+            double[] values = arrayRExpression.asDoubleArray();
+            if(values == null)
+            {
+                values = new double[0];
+            }
+            return DoubleBuffer.wrap(values).asReadOnlyBuffer();
+        }
+        finally
+        {
+            RSessionLock.unlockForReading();
+        }
+    }
+
+    /**
+     * Like {@link #fetchDoubles(RInterface, String, long)} except that R
+     * first tells us how long the array is
+     * @param rInterface
+     *          the R interface to use
+     * @param arrayExpression
+     *          the R expression for the array
+     * @return
+     *          a read-only buffer holding the values
+     */
+    public static DoubleBuffer fetchDoubles(
+            RInterface rInterface,
+            String arrayExpression)
+    {
+        // hold the read lock across both commands so the array can't
+        // change size between them
+        RSessionLock.lockForReading();
+        try
+        {
+            return MappedRArrayTransfer.fetchDoubles(
+                    rInterface,
+                    arrayExpression,
+                    MappedRArrayTransfer.getLength(rInterface, arrayExpression));
+        }
+        finally
+        {
+            RSessionLock.unlockForReading();
+        }
+    }
+
+    /**
+     * Fetch the values of an R numeric expression in single precision
+     * @see #fetchDoubles(RInterface, String, long)
+     * @param rInterface
+     *          the R interface to use
+     * @param arrayExpression
+     *          the R expression for the array
+     * @param expectedLength
+     *          the number of values that the expression should evaluate to
+     * @return
+     *          a read-only buffer holding the values
+     */
+    public static FloatBuffer fetchFloats(
+            RInterface rInterface,
+            String arrayExpression,
+            long expectedLength)
+    {
+        RSessionLock.lockForReading();
+        try
+        {
+            if(expectedLength >= MappedRArrayTransfer.mappedTransferThreshold)
+            {
+                ByteBuffer mappedBytes = MappedRArrayTransfer.fetchMappedBytes(
+                        rInterface,
+                        arrayExpression,
+                        expectedLength,
+                        4);
+                if(mappedBytes != null)
+                {
+                    return mappedBytes.asFloatBuffer();
+                }
+            }
+
+            REXP arrayRExpression = rInterface.evaluateCommand(new SilentRCommand(
+                    "as.double(" + arrayExpression + ")"));
+            double[] values = arrayRExpression.asDoubleArray();
+            float[] floatValues = new float[values == null ? 0 : values.length];
+            for(int i = 0; i < floatValues.length; i++)
+            {
+                floatValues[i] = (float)values[i];
+            }
+            return FloatBuffer.wrap(floatValues).asReadOnlyBuffer();
+        }
+        finally
+        {
+            RSessionLock.unlockForReading();
+        }
+    }
+
+    /**
+     * Get the length of the given R expression
+     * @param rInterface
+     *          the R interface
+     * @param arrayExpression
+     *          the expression
+     * @return
+     *          the length
+     */
+    private static long getLength(
+            RInterface rInterface,
+            String arrayExpression)
+    {
+        REXP lengthExpression = rInterface.evaluateCommand(new SilentRCommand(
+                "as.double(length(" + arrayExpression + "))"));
+        return (long)lengthExpression.asDoubleArray()[0];
+    }
+
+    /**
+     * Have R write the array to a temp file and map it
+     * @param rInterface
+     *          the R interface
+     * @param arrayExpression
+     *          the array expression
+     * @param expectedLength
+     *          the number of values that we expect R to write
+     * @param bytesPerValue
+     *          8 for doubles or 4 for floats
+     * @return
+     *          the little endian mapped bytes or null if the transfer failed
+     *          or R wrote the wrong number of values (in which case the
+     *          caller should fall back on JRI)
+     */
+    private static ByteBuffer fetchMappedBytes(
+            RInterface rInterface,
+            String arrayExpression,
+            long expectedLength,
+            int bytesPerValue)
+    {
+        MappedRArrayTransfer.deleteUnmappedTempFiles();
+
+        File tempFile = null;
+        MappedByteBuffer mappedBytes = null;
+        try
+        {
+            tempFile = File.createTempFile(TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX);
+
+            String rFileName = MappedRArrayTransfer.toRFileName(tempFile);
+            rInterface.evaluateCommand(new SilentRCommand(
+                    "invisible(writeBin(as.double(" + arrayExpression + "), " +
+                    "con=" + rFileName + ", size=" + bytesPerValue + ", " +
+                    "endian=\"little\"))"));
+
+            RandomAccessFile randomAccessFile =
+                new RandomAccessFile(tempFile, "r");
+            try
+            {
+                FileChannel channel = randomAccessFile.getChannel();
+                long expectedSize = expectedLength * bytesPerValue;
+                if(channel.size() != expectedSize)
+                {
+                    LOG.warning(
+                            "expected " + expectedSize + " bytes from R but " +
+                            "got " + channel.size() + " for " +
+                            arrayExpression + ". falling back on JRI");
+                    return null;
+                }
+
+                mappedBytes = channel.map(
+                        FileChannel.MapMode.READ_ONLY,
+                        0,
+                        expectedSize);
+                mappedBytes.order(ByteOrder.LITTLE_ENDIAN);
+                return mappedBytes;
+            }
+            finally
+            {
+                // the mapping stays valid after the channel is closed
+                randomAccessFile.close();
+            }
+        }
+        catch(IOException ex)
+        {
+            LOG.log(Level.WARNING,
+                    "failed to map array transfer. falling back on JRI",
+                    ex);
+            return null;
+        }
+        finally
+        {
+            // some platforms won't let us delete a mapped file. those get
+            // deleted once the buffer has been collected and unmapped
+            if(tempFile != null && !tempFile.delete())
+            {
+                if(mappedBytes == null)
+                {
+                    tempFile.deleteOnExit();
+                }
+                else
+                {
+                    MAPPED_TEMP_FILES.add(new MappedTempFile(mappedBytes, tempFile));
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete the temp files whose mapped buffers have been collected
+     */
+    private static void deleteUnmappedTempFiles()
+    {
+        Reference<? extends ByteBuffer> unmappedBuffer;
+        while((unmappedBuffer = UNMAPPED_BUFFERS.poll()) != null)
+        {
+            MappedTempFile mappedTempFile = (MappedTempFile)unmappedBuffer;
+            MAPPED_TEMP_FILES.remove(mappedTempFile);
+            File file = mappedTempFile.getFile();
+            if(!file.delete())
+            {
+                LOG.fine("failed to delete unmapped transfer file: " + file);
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Assign java values to an R numeric vector. The values are written to
+     * a temporary file which R reads back with <code>readBin</code>, so
+     * this is fast even for very large arrays
+     * @param rInterface
+     *          the R interface to use
+     * @param identifier
+     *          the R identifier to assign the vector to
+     * @param values
+     *          the values
+     * @throws IOException
+     *          if we fail to write the temporary file
+     */
+    public static void assignDoubles(
+            RInterface rInterface,
+            String identifier,
+            double[] values)
+    throws IOException
+    {
+        DoubleArrayWriter writer = new DoubleArrayWriter();
+        try
+        {
+            writer.write(values, 0, values.length);
+        }
+        catch(IOException ex)
+        {
+            writer.discard();
+            throw ex;
+        }
+        writer.assign(rInterface, identifier);
+    }
+
+    /**
+     * Streams values to a temporary file that is then assigned to an R
+     * numeric vector in one go. This lets results that are too big to
+     * hold in memory at once be written a piece at a time
+     */
+    public static class DoubleArrayWriter
+    {
+        private final File tempFile;
+
+        private final FileOutputStream outputStream;
+
+        private final FileChannel channel;
+
+        private final ByteBuffer bytes;
+
+        private long valueCount = 0L;
+
+        /**
+         * Constructor
+         * @throws IOException
+         *          if we fail to create the temporary file
+         */
+        public DoubleArrayWriter() throws IOException
+        {
+            this.tempFile = File.createTempFile(TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX);
+            this.tempFile.deleteOnExit();
+            this.outputStream = new FileOutputStream(this.tempFile);
+            this.channel = this.outputStream.getChannel();
+            this.bytes = ByteBuffer.allocate(8 * WRITE_CHUNK_SIZE);
+            this.bytes.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * Append values to the end of the vector
+         * @param values
+         *          the array holding the values
+         * @param offset
+         *          the offset of the 1st value to write
+         * @param length
+         *          the number of values to write
+         * @throws IOException
+         *          if the write fails
+         */
+        public void write(double[] values, int offset, int length)
+        throws IOException
+        {
+            int end = offset + length;
+            for(int start = offset; start < end; start += WRITE_CHUNK_SIZE)
+            {
+                int chunkLength = Math.min(end - start, WRITE_CHUNK_SIZE);
+                this.bytes.clear();
+                this.bytes.asDoubleBuffer().put(values, start, chunkLength);
+                this.bytes.limit(8 * chunkLength);
+                while(this.bytes.hasRemaining())
+                {
+                    this.channel.write(this.bytes);
+                }
+            }
+            this.valueCount += length;
+        }
+
+        /**
+         * Getter for the number of values written so far
+         * @return
+         *          the value count
+         */
+        public long getValueCount()
+        {
+            return this.valueCount;
+        }
+
+        /**
+         * Close the file and have R read everything that was written into
+         * the given identifier. The writer can't be used after this
+         * @param rInterface
+         *          the R interface to use
+         * @param identifier
+         *          the R identifier to assign the vector to
+         * @throws IOException
+         *          if we fail to close the file
+         */
+        public void assign(RInterface rInterface, String identifier)
+        throws IOException
+        {
+            RSessionLock.lockForWriting();
+            try
+            {
+                this.outputStream.close();
+                rInterface.evaluateCommandNoReturn(new SilentRCommand(
+                        identifier + " <- readBin(" +
+                        MappedRArrayTransfer.toRFileName(this.tempFile) + ", " +
+                        "what=\"double\", n=" + this.valueCount + ", size=8, " +
+                        "endian=\"little\")"));
+            }
+            finally
+            {
+                RSessionLock.unlockForWriting();
+                this.tempFile.delete();
+            }
+        }
+
+        /**
+         * Throw away everything written so far. The writer can't be used
+         * after this
+         */
+        public void discard()
+        {
+            try
+            {
+                this.outputStream.close();
+            }
+            catch(IOException ex)
+            {
+                LOG.log(Level.FINE,
+                        "failed to close array writer",
+                        ex);
+            }
+            this.tempFile.delete();
+        }
+    }
+
+    /**
+     * Convert a file into an R string. R is happy with forward slashes on
+     * every platform
+     * @param file
+     *          the file
+     * @return
+     *          the R string
+     */
+    private static String toRFileName(File file)
+    {
+        return RUtilities.javaStringToRString(
+                file.getAbsolutePath().replace('\\', '/'));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A shared thread pool for CPU bound computations that run in java (as
+ * opposed to work that runs in R). The pool has one thread per processor.
+ * Tasks running on this pool must not wait on other tasks submitted to it
+ * since that can starve the pool.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class ParallelComputation
+{
+    private static final int THREAD_COUNT =
+        Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            THREAD_COUNT,
+            new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "parallel computation");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * Getter for the number of threads in the shared pool. Callers can
+     * use this to decide how finely to split up their work
+     * @return
+     *          the thread count
+     */
+    public static int getThreadCount()
+    {
+        return THREAD_COUNT;
+    }
+
+    /**
+     * Getter for the shared executor
+     * @return
+     *          the executor
+     */
+    public static ExecutorService getExecutor()
+    {
+        return EXECUTOR;
+    }
+
+    /**
+     * Run all of the given tasks on the shared pool and wait for them to
+     * finish
+     * @param <T>
+     *          the task result type
+     * @param tasks
+     *          the tasks to run
+     * @return
+     *          the results in the same order as the tasks
+     * @throws ExecutionException
+     *          if any of the tasks fails. the first failure (in task order)
+     *          is the cause
+     * @throws InterruptedException
+     *          if we're interrupted while waiting. any tasks that haven't
+     *          finished are cancelled
+     */
+    public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks)
+    throws ExecutionException, InterruptedException
+    {
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        try
+        {
+            for(Callable<T> task: tasks)
+            {
+                futures.add(EXECUTOR.submit(task));
+            }
+
+            List<T> results = new ArrayList<T>(futures.size());
+            for(Future<T> future: futures)
+            {
+                results.add(future.get());
+            }
+            return results;
+        }
+        finally
+        {
+            // this is a no-op for the tasks that finished
+            for(Future<T> future: futures)
+            {
+                future.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,967 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jax.qtl.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A journal of the top-level R symbols that commands create, modify and
+ * remove. Commands that go through {@link RSessionEpoch} are noted
+ * automatically. Code that changes R in other ways (silent assignments,
+ * loading files from worker processes...) should record what it changed
+ * with {@link #recordAssignment(String)} or {@link #recordRemoval(String)}.
+ * When a command can't be understood (it calls <code>assign</code> or
+ * <code>load</code> directly, is a control-flow statement or assigns
+ * inside a call or block for instance) the journal is reset and every
+ * reader is told to resynchronize from scratch.
+ * <p>
+ * Readers remember the sequence number they last synchronized to and ask
+ * for {@link #getChangesSince(long)}.
+ * </p>
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class RChangeJournal
+{
+    /**
+     * The kinds of changes that we record
+     */
+    public static enum ChangeKind
+    {
+        /**
+         * a symbol that didn't exist before
+         */
+        CREATED,
+        
+        /**
+         * an existing symbol was assigned to or changed
+         */
+        MODIFIED,
+        
+        /**
+         * the symbol was removed
+         */
+        REMOVED
+    }
+    
+    /**
+     * The changes since a given point in the journal
+     */
+    public static class Changes
+    {
+        private final long sequenceNumber;
+        
+        private final boolean resynchronizationRequired;
+        
+        private final Map<String, ChangeKind> symbolChanges;
+        
+        /**
+         * Constructor
+         * @param sequenceNumber
+         *          see {@link #getSequenceNumber()}
+         * @param resynchronizationRequired
+         *          see {@link #getResynchronizationRequired()}
+         * @param symbolChanges
+         *          see {@link #getSymbolChanges()}
+         */
+        private Changes(
+                long sequenceNumber,
+                boolean resynchronizationRequired,
+                Map<String, ChangeKind> symbolChanges)
+        {
+            this.sequenceNumber = sequenceNumber;
+            this.resynchronizationRequired = resynchronizationRequired;
+            this.symbolChanges = Collections.unmodifiableMap(symbolChanges);
+        }
+        
+        /**
+         * Getter for the sequence number that these changes bring a reader
+         * up to
+         * @return the sequence number
+         */
+        public long getSequenceNumber()
+        {
+            return this.sequenceNumber;
+        }
+        
+        /**
+         * Determine if the journal can't say what changed, in which case
+         * the reader has to look at everything again
+         * @return true if a full resynchronization is required
+         */
+        public boolean getResynchronizationRequired()
+        {
+            return this.resynchronizationRequired;
+        }
+        
+        /**
+         * Getter for the net change to each symbol
+         * @return the symbol changes
+         */
+        public Map<String, ChangeKind> getSymbolChanges()
+        {
+            return this.symbolChanges;
+        }
+        
+        /**
+         * Determine if nothing changed
+         * @return true if there are no changes
+         */
+        public boolean isEmpty()
+        {
+            return !this.resynchronizationRequired && this.symbolChanges.isEmpty();
+        }
+    }
+    
+    /**
+     * A single journal entry
+     */
+    private static class Entry
+    {
+        private final long sequenceNumber;
+        
+        private final String symbol;
+        
+        private final ChangeKind kind;
+        
+        /**
+         * Constructor
+         * @param sequenceNumber
+         *          the sequence number of this entry
+         * @param symbol
+         *          the symbol that changed
+         * @param kind
+         *          the kind of change
+         */
+        public Entry(long sequenceNumber, String symbol, ChangeKind kind)
+        {
+            this.sequenceNumber = sequenceNumber;
+            this.symbol = symbol;
+            this.kind = kind;
+        }
+    }
+    
+    /**
+     * the journal is trimmed to this many entries. readers that fall
+     * further behind than this have to resynchronize
+     */
+    private static final int MAXIMUM_ENTRY_COUNT = 10000;
+    
+    /**
+     * functions that can change top-level symbols without us being able to
+     * tell which ones from the command text
+     */
+    private static final String[] UNTRACKABLE_FUNCTIONS = new String[] {
+        "assign",
+        "attach",
+        "data",
+        "delayedAssign",
+        "eval",
+        "evalq",
+        "load",
+        "makeActiveBinding",
+        "source",
+        "sys.source",
+        "with"};
+    
+    /**
+     * statements starting with these keywords only assign conditionally
+     * or repeatedly, and a replacement function parse would mistake the
+     * condition for a target
+     */
+    private static final String[] CONTROL_FLOW_KEYWORDS = new String[] {
+        "for",
+        "if",
+        "repeat",
+        "while"};
+    
+    private static final LinkedList<Entry> ENTRIES = new LinkedList<Entry>();
+    
+    /**
+     * the top-level symbols that we think exist
+     */
+    private static final Set<String> KNOWN_SYMBOLS = new HashSet<String>();
+    
+    private static long lastSequenceNumber = 0L;
+    
+    /**
+     * readers that have synchronized to anything before this have to
+     * resynchronize
+     */
+    private static long resynchronizationSequenceNumber = 0L;
+    
+    /**
+     * Get the sequence number of the latest change
+     * @return
+     *          the sequence number
+     */
+    public static synchronized long getLastSequenceNumber()
+    {
+        return lastSequenceNumber;
+    }
+    
+    /**
+     * Get the net changes since the given sequence number
+     * @param sequenceNumber
+     *          the last sequence number that the reader synchronized to
+     * @return
+     *          the changes
+     */
+    public static synchronized Changes getChangesSince(long sequenceNumber)
+    {
+        if(sequenceNumber < resynchronizationSequenceNumber)
+        {
+            return new Changes(
+                    lastSequenceNumber,
+                    true,
+                    new HashMap<String, ChangeKind>());
+        }
+        
+        Map<String, ChangeKind> symbolChanges = new HashMap<String, ChangeKind>();
+        for(Entry currEntry: ENTRIES)
+        {
+            if(currEntry.sequenceNumber > sequenceNumber)
+            {
+                ChangeKind previousKind = symbolChanges.get(currEntry.symbol);
+                if(previousKind == ChangeKind.CREATED &&
+                   currEntry.kind == ChangeKind.MODIFIED)
+                {
+                    // still a creation as far as the reader is concerned
+                    continue;
+                }
+                else if(previousKind == ChangeKind.REMOVED &&
+                        currEntry.kind != ChangeKind.REMOVED)
+                {
+                    // the reader may still have the old version
+                    symbolChanges.put(currEntry.symbol, ChangeKind.MODIFIED);
+                }
+                else
+                {
+                    symbolChanges.put(currEntry.symbol, currEntry.kind);
+                }
+            }
+        }
+        
+        return new Changes(lastSequenceNumber, false, symbolChanges);
+    }
+    
+    /**
+     * Record that the given top-level symbol was assigned to
+     * @param symbol
+     *          the symbol
+     */
+    public static synchronized void recordAssignment(String symbol)
+    {
+        if(RChangeJournal.isTrackedSymbol(symbol))
+        {
+            ChangeKind kind = KNOWN_SYMBOLS.add(symbol) ?
+                    ChangeKind.CREATED :
+                    ChangeKind.MODIFIED;
+            RChangeJournal.addEntry(symbol, kind);
+        }
+    }
+    
+    /**
+     * Record that the given top-level symbol was removed
+     * @param symbol
+     *          the symbol
+     */
+    public static synchronized void recordRemoval(String symbol)
+    {
+        if(RChangeJournal.isTrackedSymbol(symbol))
+        {
+            KNOWN_SYMBOLS.remove(symbol);
+            RChangeJournal.addEntry(symbol, ChangeKind.REMOVED);
+        }
+    }
+    
+    /**
+     * Record that the session changed in ways that we can't describe. Every
+     * reader will have to resynchronize
+     */
+    public static synchronized void recordUnknownChanges()
+    {
+        lastSequenceNumber++;
+        resynchronizationSequenceNumber = lastSequenceNumber;
+        ENTRIES.clear();
+    }
+    
+    /**
+     * Compare the given list of top-level symbols (from <code>ls()</code>)
+     * with the symbols that the journal knows about, recording any symbols
+     * that were created or removed behind our back (from the R console for
+     * instance)
+     * @param topLevelSymbols
+     *          the symbols that exist right now
+     */
+    public static synchronized void reconcileTopLevelSymbols(
+            Collection<String> topLevelSymbols)
+    {
+        Set<String> currentSymbols = new HashSet<String>(topLevelSymbols);
+        List<String> removedSymbols = new ArrayList<String>();
+        for(String currKnownSymbol: KNOWN_SYMBOLS)
+        {
+            if(!currentSymbols.contains(currKnownSymbol))
+            {
+                removedSymbols.add(currKnownSymbol);
+            }
+        }
+        
+        for(String currRemovedSymbol: removedSymbols)
+        {
+            RChangeJournal.recordRemoval(currRemovedSymbol);
+        }
+        
+        for(String currSymbol: currentSymbols)
+        {
+            if(!KNOWN_SYMBOLS.contains(currSymbol))
+            {
+                RChangeJournal.recordAssignment(currSymbol);
+            }
+        }
+    }
+    
+    /**
+     * Record the top-level symbols changed by the given command
+     * @param commandText
+     *          the command text
+     */
+    public static synchronized void noteCommand(String commandText)
+    {
+        if(commandText == null)
+        {
+            return;
+        }
+        
+        List<String> statements = RChangeJournal.splitStatements(commandText);
+        if(statements == null)
+        {
+            RChangeJournal.recordUnknownChanges();
+            return;
+        }
+        
+        for(String currStatement: statements)
+        {
+            if(!RChangeJournal.noteStatement(currStatement))
+            {
+                RChangeJournal.recordUnknownChanges();
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Get the top-level symbols that the given command assigns to. An
+     * assignment to part of a symbol (<code>x$rf &lt;- ...</code>) counts as
+     * an assignment to the symbol
+     * @param commandText
+     *          the command text
+     * @return
+     *          the symbols or null if we can't tell what the command
+     *          changes (the same commands that make {@link #noteCommand(String)}
+     *          ask for a resynchronization)
+     */
+    static List<String> getAssignedSymbols(String commandText)
+    {
+        List<String> statements = RChangeJournal.splitStatements(commandText);
+        if(statements == null)
+        {
+            return null;
+        }
+        
+        List<String> assignedSymbols = new ArrayList<String>();
+        for(String currStatement: statements)
+        {
+            if(currStatement.length() > 0)
+            {
+                if(!RChangeJournal.isTrackableStatement(currStatement))
+                {
+                    return null;
+                }
+                
+                List<String> segments = RChangeJournal.splitAssignments(currStatement);
+                for(int i = 0; i < segments.size() - 1; i++)
+                {
+                    String target = RChangeJournal.assignmentTarget(
+                            segments.get(i).trim());
+                    if(target == null)
+                    {
+                        return null;
+                    }
+                    assignedSymbols.add(target);
+                }
+            }
+        }
+        
+        return assignedSymbols;
+    }
+    
+    /**
+     * Record the changes made by a single top-level statement
+     * @param statement
+     *          the statement with comments and surrounding whitespace
+     *          stripped
+     * @return
+     *          false if we can't tell what the statement changes
+     */
+    private static boolean noteStatement(String statement)
+    {
+        if(statement.length() == 0)
+        {
+            return true;
+        }
+        else if(!RChangeJournal.isTrackableStatement(statement))
+        {
+            return false;
+        }
+        
+        // rm(a, b) or remove(a, b)
+        String removeArguments = RChangeJournal.getCallArguments(statement, "rm");
+        if(removeArguments == null)
+        {
+            removeArguments = RChangeJournal.getCallArguments(statement, "remove");
+        }
+        if(removeArguments != null)
+        {
+            for(String currArgument: RChangeJournal.splitTopLevel(removeArguments, ','))
+            {
+                String symbol = currArgument.trim();
+                if(RChangeJournal.rootSymbol(symbol) == null ||
+                   RChangeJournal.rootSymbol(symbol).length() != symbol.length())
+                {
+                    // something like rm(list=ls())
+                    return false;
+                }
+                RChangeJournal.recordRemoval(RChangeJournal.unquote(symbol));
+            }
+            return true;
+        }
+        
+        // every segment left of a top-level assignment is a target
+        List<String> segments = RChangeJournal.splitAssignments(statement);
+        for(int i = 0; i < segments.size() - 1; i++)
+        {
+            String target = RChangeJournal.assignmentTarget(segments.get(i).trim());
+            if(target == null)
+            {
+                return false;
+            }
+            RChangeJournal.recordAssignment(target);
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Determine if we can tell what a statement changes just by looking at
+     * its top-level assignments and removals
+     * @param statement
+     *          the statement
+     * @return
+     *          false if the statement calls something that changes symbols
+     *          behind our back, is a control-flow statement or has an
+     *          assignment nested inside it
+     *          (like <code>suppressWarnings(x &lt;- f())</code> or
+     *          <code>{a &lt;- 1}</code>)
+     */
+    private static boolean isTrackableStatement(String statement)
+    {
+        for(String currFunction: UNTRACKABLE_FUNCTIONS)
+        {
+            if(RChangeJournal.callsFunction(statement, currFunction))
+            {
+                return false;
+            }
+        }
+        
+        for(String currKeyword: CONTROL_FLOW_KEYWORDS)
+        {
+            if(statement.startsWith(currKeyword) &&
+               (statement.length() == currKeyword.length() ||
+                !RChangeJournal.isIdentifierCharacter(
+                        statement.charAt(currKeyword.length()))))
+            {
+                return false;
+            }
+        }
+        
+        if(statement.indexOf("<<-") != -1 || statement.indexOf("->") != -1)
+        {
+            return false;
+        }
+        
+        return !RChangeJournal.containsNestedAssignment(statement);
+    }
+    
+    /**
+     * Determine if the statement has an assignment inside brackets. Any
+     * <code>&lt;-</code> counts but <code>=</code> only counts inside
+     * braces since inside parentheses it names an argument
+     * @param statement
+     *          the statement
+     * @return
+     *          true if there's a nested assignment
+     */
+    private static boolean containsNestedAssignment(String statement)
+    {
+        LinkedList<Character> openBrackets = new LinkedList<Character>();
+        char quote = 0;
+        for(int i = 0; i < statement.length(); i++)
+        {
+            char currChar = statement.charAt(i);
+            if(quote != 0)
+            {
+                if(currChar == '\\')
+                {
+                    i++;
+                }
+                else if(currChar == quote)
+                {
+                    quote = 0;
+                }
+            }
+            else if(currChar == '"' || currChar == '\'' || currChar == '`')
+            {
+                quote = currChar;
+            }
+            else if(currChar == '(' || currChar == '[' || currChar == '{')
+            {
+                openBrackets.addFirst(currChar);
+            }
+            else if(currChar == ')' || currChar == ']' || currChar == '}')
+            {
+                openBrackets.poll();
+            }
+            else if(!openBrackets.isEmpty())
+            {
+                if(currChar == '<' &&
+                   i + 1 < statement.length() &&
+                   statement.charAt(i + 1) == '-')
+                {
+                    return true;
+                }
+                else if(currChar == '=' &&
+                        openBrackets.getFirst().charValue() == '{' &&
+                        (i == 0 || "=<>!".indexOf(statement.charAt(i - 1)) == -1) &&
+                        (i + 1 == statement.length() || statement.charAt(i + 1) != '='))
+                {
+                    return true;
+                }
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Find the top-level symbol that an assignment target refers to. This
+     * handles plain symbols (<code>x</code>), sub-assignments
+     * (<code>x$rf</code>, <code>x[[1]]</code>) and replacement functions
+     * (<code>attr(x, "a")</code>, <code>names(x)</code>)
+     * @param target
+     *          the left hand side of the assignment
+     * @return
+     *          the symbol or null if we can't tell
+     */
+    private static String assignmentTarget(String target)
+    {
+        String root = RChangeJournal.rootSymbol(target);
+        if(root == null)
+        {
+            return null;
+        }
+        
+        String rest = target.substring(root.length()).trim();
+        if(rest.startsWith("("))
+        {
+            // a replacement function. the target is its first argument
+            String arguments = RChangeJournal.getCallArguments(target, root);
+            if(arguments == null)
+            {
+                return null;
+            }
+            List<String> argumentList = RChangeJournal.splitTopLevel(arguments, ',');
+            return argumentList.isEmpty() ?
+                    null :
+                    RChangeJournal.assignmentTarget(argumentList.get(0).trim());
+        }
+        else
+        {
+            return RChangeJournal.unquote(root);
+        }
+    }
+    
+    /**
+     * Get the symbol at the start of the given text
+     * @param text
+     *          the text
+     * @return
+     *          the symbol (still quoted if it is backquoted) or null if the
+     *          text doesn't start with a symbol
+     */
+    private static String rootSymbol(String text)
+    {
+        if(text.length() == 0)
+        {
+            return null;
+        }
+        else if(text.charAt(0) == '`')
+        {
+            int end = text.indexOf('`', 1);
+            return end == -1 ? null : text.substring(0, end + 1);
+        }
+        else if(Character.isLetter(text.charAt(0)) || text.charAt(0) == '.')
+        {
+            int end = 1;
+            while(end < text.length() &&
+                  RChangeJournal.isIdentifierCharacter(text.charAt(end)))
+            {
+                end++;
+            }
+            return text.substring(0, end);
+        }
+        else
+        {
+            return null;
+        }
+    }
+    
+    /**
+     * Strip backquotes from a symbol
+     * @param symbol
+     *          the symbol
+     * @return
+     *          the unquoted symbol
+     */
+    private static String unquote(String symbol)
+    {
+        if(symbol.length() >= 2 && symbol.charAt(0) == '`')
+        {
+            return symbol.substring(1, symbol.length() - 1);
+        }
+        else
+        {
+            return symbol;
+        }
+    }
+    
+    /**
+     * If the statement is a call to the given function, get the text
+     * between the call's parentheses
+     * @param statement
+     *          the statement
+     * @param functionName
+     *          the function name
+     * @return
+     *          the arguments or null if the statement isn't a call to the
+     *          function
+     */
+    private static String getCallArguments(String statement, String functionName)
+    {
+        if(statement.startsWith(functionName))
+        {
+            String rest = statement.substring(functionName.length()).trim();
+            if(rest.startsWith("(") && rest.endsWith(")"))
+            {
+                return rest.substring(1, rest.length() - 1);
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Determine if the statement calls the given function anywhere in it
+     * @param statement
+     *          the statement
+     * @param functionName
+     *          the function
+     * @return
+     *          true if it does
+     */
+    private static boolean callsFunction(String statement, String functionName)
+    {
+        int index = statement.indexOf(functionName);
+        while(index != -1)
+        {
+            int end = index + functionName.length();
+            boolean startOk =
+                index == 0 ||
+                !RChangeJournal.isIdentifierCharacter(statement.charAt(index - 1));
+            if(startOk)
+            {
+                String rest = statement.substring(end).trim();
+                if(rest.startsWith("("))
+                {
+                    return true;
+                }
+            }
+            index = statement.indexOf(functionName, index + 1);
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Split a command into its top-level statements, stripping comments
+     * @param commandText
+     *          the command
+     * @return
+     *          the statements or null if the quotes or brackets don't
+     *          balance
+     */
+    private static List<String> splitStatements(String commandText)
+    {
+        List<String> statements = new ArrayList<String>();
+        StringBuilder currStatement = new StringBuilder();
+        int depth = 0;
+        char quote = 0;
+        for(int i = 0; i < commandText.length(); i++)
+        {
+            char currChar = commandText.charAt(i);
+            if(quote != 0)
+            {
+                currStatement.append(currChar);
+                if(currChar == '\\' && i + 1 < commandText.length())
+                {
+                    i++;
+                    currStatement.append(commandText.charAt(i));
+                }
+                else if(currChar == quote)
+                {
+                    quote = 0;
+                }
+            }
+            else if(currChar == '#')
+            {
+                // skip to the end of the line
+                while(i + 1 < commandText.length() && commandText.charAt(i + 1) != '\n')
+                {
+                    i++;
+                }
+            }
+            else if(depth == 0 && (currChar == ';' || currChar == '\n'))
+            {
+                statements.add(currStatement.toString().trim());
+                currStatement.setLength(0);
+            }
+            else
+            {
+                if(currChar == '"' || currChar == '\'' || currChar == '`')
+                {
+                    quote = currChar;
+                }
+                else if(currChar == '(' || currChar == '[' || currChar == '{')
+                {
+                    depth++;
+                }
+                else if(currChar == ')' || currChar == ']' || currChar == '}')
+                {
+                    depth--;
+                }
+                currStatement.append(currChar);
+            }
+        }
+        
+        if(depth != 0 || quote != 0)
+        {
+            return null;
+        }
+        
+        statements.add(currStatement.toString().trim());
+        return statements;
+    }
+    
+    /**
+     * Split the text on the given separator wherever it isn't inside
+     * brackets or quotes
+     * @param text
+     *          the text
+     * @param separator
+     *          the separator
+     * @return
+     *          the pieces
+     */
+    private static List<String> splitTopLevel(String text, char separator)
+    {
+        List<String> pieces = new ArrayList<String>();
+        int depth = 0;
+        char quote = 0;
+        int start = 0;
+        for(int i = 0; i < text.length(); i++)
+        {
+            char currChar = text.charAt(i);
+            if(quote != 0)
+            {
+                if(currChar == '\\')
+                {
+                    i++;
+                }
+                else if(currChar == quote)
+                {
+                    quote = 0;
+                }
+            }
+            else if(currChar == '"' || currChar == '\'' || currChar == '`')
+            {
+                quote = currChar;
+            }
+            else if(currChar == '(' || currChar == '[' || currChar == '{')
+            {
+                depth++;
+            }
+            else if(currChar == ')' || currChar == ']' || currChar == '}')
+            {
+                depth--;
+            }
+            else if(depth == 0 && currChar == separator)
+            {
+                pieces.add(text.substring(start, i));
+                start = i + 1;
+            }
+        }
+        
+        if(text.trim().length() > 0)
+        {
+            pieces.add(text.substring(start));
+        }
+        return pieces;
+    }
+    
+    /**
+     * Split the statement at its top-level assignment operators
+     * (<code>&lt;-</code> and <code>=</code>)
+     * @param statement
+     *          the statement
+     * @return
+     *          the segments. a statement without any assignment comes back
+     *          as a single segment
+     */
+    private static List<String> splitAssignments(String statement)
+    {
+        List<String> segments = new ArrayList<String>();
+        int depth = 0;
+        char quote = 0;
+        int start = 0;
+        for(int i = 0; i < statement.length(); i++)
+        {
+            char currChar = statement.charAt(i);
+            if(quote != 0)
+            {
+                if(currChar == '\\')
+                {
+                    i++;
+                }
+                else if(currChar == quote)
+                {
+                    quote = 0;
+                }
+            }
+            else if(currChar == '"' || currChar == '\'' || currChar == '`')
+            {
+                quote = currChar;
+            }
+            else if(currChar == '(' || currChar == '[' || currChar == '{')
+            {
+                depth++;
+            }
+            else if(currChar == ')' || currChar == ']' || currChar == '}')
+            {
+                depth--;
+            }
+            else if(depth == 0)
+            {
+                if(currChar == '<' &&
+                   i + 1 < statement.length() &&
+                   statement.charAt(i + 1) == '-')
+                {
+                    segments.add(statement.substring(start, i));
+                    i++;
+                    start = i + 1;
+                }
+                else if(currChar == '=' &&
+                        (i == 0 || "=<>!".indexOf(statement.charAt(i - 1)) == -1) &&
+                        (i + 1 == statement.length() || statement.charAt(i + 1) != '='))
+                {
+                    segments.add(statement.substring(start, i));
+                    start = i + 1;
+                }
+            }
+        }
+        
+        segments.add(statement.substring(start));
+        return segments;
+    }
+    
+    /**
+     * Add an entry to the journal trimming old entries as needed
+     * @param symbol
+     *          the symbol
+     * @param kind
+     *          the kind of change
+     */
+    private static void addEntry(String symbol, ChangeKind kind)
+    {
+        lastSequenceNumber++;
+        ENTRIES.addLast(new Entry(lastSequenceNumber, symbol, kind));
+        if(ENTRIES.size() > MAXIMUM_ENTRY_COUNT)
+        {
+            Entry trimmedEntry = ENTRIES.removeFirst();
+            
+            // anyone who hasn't seen the trimmed entry has to start over
+            resynchronizationSequenceNumber = trimmedEntry.sequenceNumber;
+        }
+    }
+    
+    /**
+     * Determine if changes to the given symbol are worth recording. Hidden
+     * symbols (starting with '.') are scratch objects and never show up in
+     * <code>ls()</code> so we don't track them
+     * @param symbol
+     *          the symbol
+     * @return
+     *          true if we should track it
+     */
+    private static boolean isTrackedSymbol(String symbol)
+    {
+        return symbol.length() > 0 && symbol.charAt(0) != '.';
+    }
+    
+    /**
+     * Determine if the given character can be part of an R identifier
+     * @param c
+     *          the character
+     * @return
+     *          true if it can
+     */
+    private static boolean isIdentifierCharacter(char c)
+    {
+        return Character.isLetterOrDigit(c) || c == '.' || c == '_';
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jax.r.jriutilities.RInterface;
+import org.rosuda.JRI.REXP;
+import org.rosuda.JRI.RVector;
+
+/**
+ * Collects read-only R expressions so that they can all be evaluated in
+ * a single round trip. The expressions are wrapped in one R
+ * <code>list(...)</code> and the list elements are handed back in the
+ * order that the expressions were added. Factors should be converted with
+ * <code>as.character(...)</code> by the caller since list elements come
+ * back without their levels.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class RCommandBatch
+{
+    private final RInterface rInterface;
+
+    private final List<String> expressions = new ArrayList<String>();
+
+    /**
+     * Constructor
+     * @param rInterface
+     *          the R interface that the batch is evaluated against
+     */
+    public RCommandBatch(RInterface rInterface)
+    {
+        this.rInterface = rInterface;
+    }
+
+    /**
+     * Add an expression to this batch
+     * @param expression
+     *          the R expression. this should not have any side effects
+     * @return
+     *          the index of the expression's result in the array returned
+     *          by {@link #evaluate()}
+     */
+    public int addExpression(String expression)
+    {
+        this.expressions.add(expression);
+        return this.expressions.size() - 1;
+    }
+
+    /**
+     * Get the number of expressions in this batch
+     * @return
+     *          the expression count
+     */
+    public int getExpressionCount()
+    {
+        return this.expressions.size();
+    }
+
+    /**
+     * Evaluate all of the expressions in a single R command
+     * @return
+     *          the results in the order that the expressions were added
+     */
+    public REXP[] evaluate()
+    {
+        int expressionCount = this.expressions.size();
+        REXP[] results = new REXP[expressionCount];
+        if(expressionCount == 0)
+        {
+            return results;
+        }
+
+        StringBuilder listCommand = new StringBuilder("list(");
+        for(int i = 0; i < expressionCount; i++)
+        {
+            if(i > 0)
+            {
+                listCommand.append(", ");
+            }
+            listCommand.append(this.expressions.get(i));
+        }
+        listCommand.append(')');
+
+        REXP listExpression = RSessionEpoch.evaluateCommand(
+                this.rInterface,
+                new ReadOnlyRCommand(listCommand.toString()));
+        RVector resultList = listExpression == null ?
+                null :
+                listExpression.asVector();
+        if(resultList == null || resultList.size() != expressionCount)
+        {
+            throw new IllegalStateException(
+                    "expected " + expressionCount + " results from batch " +
+                    "command but got " +
+                    (resultList == null ? 0 : resultList.size()) +
+                    ": " + listCommand);
+        }
+
+        for(int i = 0; i < expressionCount; i++)
+        {
+            results[i] = resultList.at(i);
+        }
+
+        return results;
+    }
+
+    /**
+     * Convenience function for evaluating a fixed set of expressions in a
+     * single round trip
+     * @param rInterface
+     *          the R interface to use
+     * @param expressions
+     *          the expressions
+     * @return
+     *          the results in the same order as the expressions
+     */
+    public static REXP[] evaluateExpressions(
+            RInterface rInterface,
+            String... expressions)
+    {
+        RCommandBatch batch = new RCommandBatch(rInterface);
+        for(String expression: expressions)
+        {
+            batch.addExpression(expression);
+        }
+        return batch.evaluate();
+    }
+}
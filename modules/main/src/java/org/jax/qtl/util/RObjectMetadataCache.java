@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jax.r.jriutilities.RObject;
+import org.rosuda.JRI.REXP;
+
+/**
+ * A cache for R object metadata (classes, names, column and row names and
+ * dimensions) keyed by accessor expression. The whole cache is dropped
+ * whenever the {@link RSessionEpoch} moves on, so repeated reads between
+ * mutations don't need to go back to R. Use these functions in place of
+ * the matching {@link org.jax.r.jriutilities.JRIUtilityFunctions} calls.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class RObjectMetadataCache
+{
+    /**
+     * the different kinds of metadata that we cache
+     */
+    private static enum MetadataKind
+    {
+        /**
+         * the R <code>class(...)</code>
+         */
+        CLASSES
+        {
+            @Override
+            public String getRExpression(String accessor)
+            {
+                return "class(" + accessor + ")";
+            }
+        },
+
+        /**
+         * the R <code>names(...)</code>
+         */
+        NAMES
+        {
+            @Override
+            public String getRExpression(String accessor)
+            {
+                return "names(" + accessor + ")";
+            }
+        },
+
+        /**
+         * the R <code>colnames(...)</code>
+         */
+        COLUMN_NAMES
+        {
+            @Override
+            public String getRExpression(String accessor)
+            {
+                return "colnames(" + accessor + ")";
+            }
+        },
+
+        /**
+         * the R <code>rownames(...)</code>
+         */
+        ROW_NAMES
+        {
+            @Override
+            public String getRExpression(String accessor)
+            {
+                return "rownames(" + accessor + ")";
+            }
+        },
+
+        /**
+         * the R <code>dim(...)</code>
+         */
+        DIMENSIONS
+        {
+            @Override
+            public String getRExpression(String accessor)
+            {
+                return "as.integer(dim(" + accessor + "))";
+            }
+        };
+
+        /**
+         * Get the R expression that reads this kind of metadata
+         * @param accessor
+         *          the accessor for the object
+         * @return
+         *          the expression
+         */
+        public abstract String getRExpression(String accessor);
+    }
+
+    /**
+     * the key that we use for the cache map
+     */
+    private static final class MetadataKey
+    {
+        private final MetadataKind kind;
+
+        private final String accessor;
+
+        /**
+         * Constructor
+         * @param kind
+         *          the kind of metadata
+         * @param accessor
+         *          the object accessor
+         */
+        public MetadataKey(MetadataKind kind, String accessor)
+        {
+            this.kind = kind;
+            this.accessor = accessor;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object obj)
+        {
+            if(obj instanceof MetadataKey)
+            {
+                MetadataKey otherKey = (MetadataKey)obj;
+                return this.kind == otherKey.kind &&
+                       this.accessor.equals(otherKey.accessor);
+            }
+            else
+            {
+                return false;
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode()
+        {
+            return this.kind.hashCode() * 31 + this.accessor.hashCode();
+        }
+    }
+
+    /**
+     * the cached values. we use the map's null values for R NULL so
+     * use containsKey(...) to check for a hit. guarded by synchronizing
+     * on the map itself (never while we're talking to R)
+     */
+    private static final Map<MetadataKey, Object> METADATA_CACHE =
+        new HashMap<MetadataKey, Object>();
+
+    /**
+     * the epoch that {@link #METADATA_CACHE} is valid for
+     */
+    private static long cacheEpoch = -1L;
+
+    /**
+     * Get the cached metadata value, reading it from R if we have to.
+     * Misses are read under the {@link RSessionLock} read lock so any
+     * number of threads can read metadata at once
+     * @param rObject
+     *          the R object
+     * @param kind
+     *          the kind of metadata
+     * @return
+     *          the value (String[] or int[]) or null for R NULL
+     */
+    private static Object getMetadata(
+            RObject rObject,
+            MetadataKind kind)
+    {
+        String accessor = rObject.getAccessorExpressionString();
+        MetadataKey key = new MetadataKey(kind, accessor);
+
+        RSessionLock.lockForReading();
+        try
+        {
+            // mutations happen under the write lock so nothing can change
+            // while we hold the read lock. the epoch can still move on
+            // (it's sometimes advanced just after a write) in which case
+            // we just don't cache what we read
+            long readEpoch = RSessionEpoch.getMutationEpoch();
+            synchronized(METADATA_CACHE)
+            {
+                if(readEpoch > RObjectMetadataCache.cacheEpoch)
+                {
+                    METADATA_CACHE.clear();
+                    RObjectMetadataCache.cacheEpoch = readEpoch;
+                }
+                else if(readEpoch == RObjectMetadataCache.cacheEpoch &&
+                        METADATA_CACHE.containsKey(key))
+                {
+                    return METADATA_CACHE.get(key);
+                }
+            }
+
+            REXP metadataExpression = RSessionEpoch.evaluateCommand(
+                    rObject.getRInterface(),
+                    new ReadOnlyRCommand(kind.getRExpression(accessor)));
+            Object value;
+            if(metadataExpression == null)
+            {
+                value = null;
+            }
+            else if(kind == MetadataKind.DIMENSIONS)
+            {
+                value = metadataExpression.asIntArray();
+            }
+            else
+            {
+                value = metadataExpression.asStringArray();
+            }
+
+            synchronized(METADATA_CACHE)
+            {
+                if(readEpoch == RObjectMetadataCache.cacheEpoch &&
+                   readEpoch == RSessionEpoch.getMutationEpoch())
+                {
+                    METADATA_CACHE.put(key, value);
+                }
+            }
+            return value;
+        }
+        finally
+        {
+            RSessionLock.unlockForReading();
+        }
+    }
+
+    /**
+     * Get the classes of the given object
+     * @param rObject
+     *          the object
+     * @return
+     *          the classes
+     */
+    public static String[] getClasses(RObject rObject)
+    {
+        String[] value = (String[])RObjectMetadataCache.getMetadata(
+                rObject,
+                MetadataKind.CLASSES);
+        return value == null ? null : value.clone();
+    }
+
+    /**
+     * Determine if the given object inherits from the given class
+     * @param rObject
+     *          the object
+     * @param rClass
+     *          the class name
+     * @return
+     *          true if the object inherits from the class
+     */
+    public static boolean inheritsRClass(RObject rObject, String rClass)
+    {
+        String[] classes = (String[])RObjectMetadataCache.getMetadata(
+                rObject,
+                MetadataKind.CLASSES);
+        return classes != null && Arrays.asList(classes).contains(rClass);
+    }
+
+    /**
+     * Get the names of the given object
+     * @param rObject
+     *          the object
+     * @return
+     *          the names or null
+     */
+    public static String[] getNames(RObject rObject)
+    {
+        String[] value = (String[])RObjectMetadataCache.getMetadata(
+                rObject,
+                MetadataKind.NAMES);
+        return value == null ? null : value.clone();
+    }
+
+    /**
+     * Get the column names of the given object
+     * @param rObject
+     *          the object
+     * @return
+     *          the column names or null
+     */
+    public static String[] getColumnNames(RObject rObject)
+    {
+        String[] value = (String[])RObjectMetadataCache.getMetadata(
+                rObject,
+                MetadataKind.COLUMN_NAMES);
+        return value == null ? null : value.clone();
+    }
+
+    /**
+     * Get the row names of the given object
+     * @param rObject
+     *          the object
+     * @return
+     *          the row names or null
+     */
+    public static String[] getRowNames(RObject rObject)
+    {
+        String[] value = (String[])RObjectMetadataCache.getMetadata(
+                rObject,
+                MetadataKind.ROW_NAMES);
+        return value == null ? null : value.clone();
+    }
+
+    /**
+     * Get the dimensions of the given object
+     * @param rObject
+     *          the object
+     * @return
+     *          the dimensions or null
+     */
+    public static int[] getDimensions(RObject rObject)
+    {
+        int[] value = (int[])RObjectMetadataCache.getMetadata(
+                rObject,
+                MetadataKind.DIMENSIONS);
+        return value == null ? null : value.clone();
+    }
+}
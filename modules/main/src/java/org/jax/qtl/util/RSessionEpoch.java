@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jax.r.RCommand;
+import org.jax.r.jriutilities.RInterface;
+import org.jax.r.jriutilities.SilentRCommand;
+import org.rosuda.JRI.REXP;
+
+/**
+ * Tracks the "mutation epoch" of the R session. The epoch is advanced
+ * every time a command that may modify R data goes through one of the
+ * evaluate functions here (everything except {@link SilentRCommand}s)
+ * and any time the project data structures are refreshed. Anything that
+ * caches data pulled out of R can remember the epoch that it was read in
+ * and treat the data as stale once the epoch moves on. The evaluate
+ * functions also take the {@link RSessionLock}: the read lock for
+ * {@link ReadOnlyRCommand}s and the write lock for everything else
+ * (silent commands can still assign or remove objects).
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class RSessionEpoch
+{
+    private static final AtomicLong MUTATION_EPOCH = new AtomicLong();
+
+    /**
+     * Get the current mutation epoch
+     * @return
+     *          the epoch
+     */
+    public static long getMutationEpoch()
+    {
+        return MUTATION_EPOCH.get();
+    }
+
+    /**
+     * Advance the mutation epoch. Call this after doing anything to the
+     * R session that doesn't go through the evaluate functions in this
+     * class but might change R data
+     * @return
+     *          the new epoch
+     */
+    public static long advanceMutationEpoch()
+    {
+        return MUTATION_EPOCH.incrementAndGet();
+    }
+
+    /**
+     * Evaluate the given command advancing the epoch unless the command is
+     * silent
+     * @param rInterface
+     *          the R interface to evaluate against
+     * @param command
+     *          the command
+     */
+    public static void evaluateCommandNoReturn(
+            RInterface rInterface,
+            RCommand command)
+    {
+        boolean readOnly = command instanceof ReadOnlyRCommand;
+        RSessionEpoch.lockSession(readOnly);
+        try
+        {
+            rInterface.evaluateCommandNoReturn(command);
+        }
+        finally
+        {
+            RSessionEpoch.advanceUnlessSilent(command);
+            RSessionEpoch.unlockSession(readOnly);
+        }
+    }
+
+    /**
+     * Insert a comment and evaluate the given command (advancing the epoch
+     * unless the command is silent) holding the write lock throughout so
+     * that nothing from another thread lands between the two
+     * @param rInterface
+     *          the R interface to evaluate against
+     * @param comment
+     *          the comment describing the command
+     * @param command
+     *          the command
+     */
+    public static void evaluateCommandNoReturn(
+            RInterface rInterface,
+            String comment,
+            RCommand command)
+    {
+        RSessionLock.lockForWriting();
+        try
+        {
+            rInterface.insertComment(comment);
+            RSessionEpoch.evaluateCommandNoReturn(rInterface, command);
+        }
+        finally
+        {
+            RSessionLock.unlockForWriting();
+        }
+    }
+
+    /**
+     * Evaluate the given command string advancing the epoch
+     * @param rInterface
+     *          the R interface to evaluate against
+     * @param command
+     *          the command
+     */
+    public static void evaluateCommandNoReturn(
+            RInterface rInterface,
+            String command)
+    {
+        RSessionLock.lockForWriting();
+        try
+        {
+            rInterface.evaluateCommandNoReturn(command);
+        }
+        finally
+        {
+            RSessionEpoch.advanceMutationEpoch();
+            GeneticMapVersions.noteCommand(command);
+            RChangeJournal.noteCommand(command);
+            RSessionLock.unlockForWriting();
+        }
+    }
+
+    /**
+     * Evaluate the given command advancing the epoch unless the command is
+     * silent
+     * @param rInterface
+     *          the R interface to evaluate against
+     * @param command
+     *          the command
+     * @return
+     *          the result
+     */
+    public static REXP evaluateCommand(
+            RInterface rInterface,
+            RCommand command)
+    {
+        boolean readOnly = command instanceof ReadOnlyRCommand;
+        RSessionEpoch.lockSession(readOnly);
+        try
+        {
+            return rInterface.evaluateCommand(command);
+        }
+        finally
+        {
+            RSessionEpoch.advanceUnlessSilent(command);
+            RSessionEpoch.unlockSession(readOnly);
+        }
+    }
+
+    /**
+     * Evaluate the given command string advancing the epoch
+     * @param rInterface
+     *          the R interface to evaluate against
+     * @param command
+     *          the command
+     * @return
+     *          the result
+     */
+    public static REXP evaluateCommand(
+            RInterface rInterface,
+            String command)
+    {
+        RSessionLock.lockForWriting();
+        try
+        {
+            return rInterface.evaluateCommand(command);
+        }
+        finally
+        {
+            RSessionEpoch.advanceMutationEpoch();
+            GeneticMapVersions.noteCommand(command);
+            RChangeJournal.noteCommand(command);
+            RSessionLock.unlockForWriting();
+        }
+    }
+
+    /**
+     * Advance the epoch (and let {@link GeneticMapVersions} and the
+     * {@link RChangeJournal} see the command) if the given command isn't
+     * silent
+     * @param command
+     *          the command that was just evaluated
+     */
+    private static void advanceUnlessSilent(RCommand command)
+    {
+        if(!(command instanceof SilentRCommand))
+        {
+            RSessionEpoch.advanceMutationEpoch();
+            GeneticMapVersions.noteCommand(command.getCommandText());
+            RChangeJournal.noteCommand(command.getCommandText());
+        }
+    }
+
+    /**
+     * Take the {@link RSessionLock} for a command. Only read-only commands
+     * can share the session
+     * @param readOnly
+     *          true if the command is a {@link ReadOnlyRCommand}
+     */
+    private static void lockSession(boolean readOnly)
+    {
+        if(readOnly)
+        {
+            RSessionLock.lockForReading();
+        }
+        else
+        {
+            RSessionLock.lockForWriting();
+        }
+    }
+
+    /**
+     * Release the lock taken by {@link #lockSession(boolean)}
+     * @param readOnly
+     *          true if the command is a {@link ReadOnlyRCommand}
+     */
+    private static void unlockSession(boolean readOnly)
+    {
+        if(readOnly)
+        {
+            RSessionLock.unlockForReading();
+        }
+        else
+        {
+            RSessionLock.unlockForWriting();
+        }
+    }
+}
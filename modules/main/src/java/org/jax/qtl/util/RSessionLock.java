@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The session lock for the shared R interface. Anything that only reads
+ * from R (see {@link ReadOnlyRCommand}) takes the read lock and anything
+ * that changes the session or needs several commands to run back to back
+ * (an assignment followed by a read of the result, a comment followed by
+ * its command...) takes the write lock.
+ * The lock is fair so readers that queue up behind a writer are let in
+ * together once it's done, and a steady stream of readers can't starve
+ * a writer.
+ * <p>
+ * Like any {@link ReentrantReadWriteLock} the write lock can't be taken
+ * by a thread that only holds the read lock. Rather than deadlocking,
+ * {@link #lockForWriting()} throws an {@link IllegalStateException} in
+ * that case.
+ * </p>
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class RSessionLock
+{
+    /**
+     * our logger
+     */
+    private static final Logger LOG = Logger.getLogger(
+            RSessionLock.class.getName());
+    
+    /**
+     * waits shorter than this are just the cost of taking the lock and
+     * don't count as contended
+     */
+    private static final long CONTENDED_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    
+    /**
+     * waits longer than this get logged
+     */
+    private static final long LONG_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    
+    private static final ReentrantReadWriteLock SESSION_LOCK =
+        new ReentrantReadWriteLock(true);
+    
+    private static final LockStatistics READ_STATISTICS =
+        new LockStatistics();
+    
+    private static final LockStatistics WRITE_STATISTICS =
+        new LockStatistics();
+    
+    /**
+     * Wait time metrics for one side of the session lock
+     */
+    public static class LockStatistics
+    {
+        private long acquisitionCount = 0L;
+        
+        private long contendedAcquisitionCount = 0L;
+        
+        private long totalWaitNanos = 0L;
+        
+        private long maximumWaitNanos = 0L;
+        
+        /**
+         * Record an acquisition
+         * @param waitNanos
+         *          how long we waited for the lock
+         */
+        private synchronized void recordAcquisition(long waitNanos)
+        {
+            this.acquisitionCount++;
+            this.totalWaitNanos += waitNanos;
+            if(waitNanos >= CONTENDED_WAIT_NANOS)
+            {
+                this.contendedAcquisitionCount++;
+            }
+            
+            if(waitNanos > this.maximumWaitNanos)
+            {
+                this.maximumWaitNanos = waitNanos;
+            }
+        }
+        
+        /**
+         * Getter for the number of times the lock was taken (not counting
+         * reentrant acquisitions)
+         * @return the acquisition count
+         */
+        public synchronized long getAcquisitionCount()
+        {
+            return this.acquisitionCount;
+        }
+        
+        /**
+         * Getter for the number of acquisitions that had to wait for
+         * another thread
+         * @return the contended acquisition count
+         */
+        public synchronized long getContendedAcquisitionCount()
+        {
+            return this.contendedAcquisitionCount;
+        }
+        
+        /**
+         * Getter for the total time spent waiting for the lock
+         * @return the total wait in milliseconds
+         */
+        public synchronized double getTotalWaitMillis()
+        {
+            return this.totalWaitNanos / 1e6;
+        }
+        
+        /**
+         * Getter for the mean wait over all acquisitions
+         * @return the mean wait in milliseconds
+         */
+        public synchronized double getMeanWaitMillis()
+        {
+            return this.acquisitionCount == 0L ?
+                    0.0 :
+                    this.totalWaitNanos / 1e6 / this.acquisitionCount;
+        }
+        
+        /**
+         * Getter for the longest wait
+         * @return the longest wait in milliseconds
+         */
+        public synchronized double getMaximumWaitMillis()
+        {
+            return this.maximumWaitNanos / 1e6;
+        }
+        
+        /**
+         * Zero out all of the statistics
+         */
+        public synchronized void reset()
+        {
+            this.acquisitionCount = 0L;
+            this.contendedAcquisitionCount = 0L;
+            this.totalWaitNanos = 0L;
+            this.maximumWaitNanos = 0L;
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public synchronized String toString()
+        {
+            return
+                this.acquisitionCount + " acquisitions (" +
+                this.contendedAcquisitionCount + " contended), mean wait " +
+                this.getMeanWaitMillis() + " ms, max wait " +
+                this.getMaximumWaitMillis() + " ms";
+        }
+    }
+    
+    /**
+     * Take the read lock. Every call has to be matched by a call to
+     * {@link #unlockForReading()} (in a finally block)
+     */
+    public static void lockForReading()
+    {
+        RSessionLock.lock(
+                SESSION_LOCK.readLock(),
+                SESSION_LOCK.getReadHoldCount() == 0 &&
+                !SESSION_LOCK.isWriteLockedByCurrentThread(),
+                READ_STATISTICS,
+                "read");
+    }
+    
+    /**
+     * Release the read lock
+     */
+    public static void unlockForReading()
+    {
+        SESSION_LOCK.readLock().unlock();
+    }
+    
+    /**
+     * Take the write lock. Every call has to be matched by a call to
+     * {@link #unlockForWriting()} (in a finally block)
+     * @throws IllegalStateException
+     *          if the current thread holds the read lock but not the
+     *          write lock (taking the lock would deadlock)
+     */
+    public static void lockForWriting() throws IllegalStateException
+    {
+        boolean holdsWriteLock = SESSION_LOCK.isWriteLockedByCurrentThread();
+        if(!holdsWriteLock && SESSION_LOCK.getReadHoldCount() > 0)
+        {
+            throw new IllegalStateException(
+                    "the R session write lock can't be taken while " +
+                    "holding the read lock");
+        }
+        
+        RSessionLock.lock(
+                SESSION_LOCK.writeLock(),
+                !holdsWriteLock,
+                WRITE_STATISTICS,
+                "write");
+    }
+    
+    /**
+     * Release the write lock
+     */
+    public static void unlockForWriting()
+    {
+        SESSION_LOCK.writeLock().unlock();
+    }
+    
+    /**
+     * Getter for the read lock wait statistics
+     * @return the statistics
+     */
+    public static LockStatistics getReadStatistics()
+    {
+        return READ_STATISTICS;
+    }
+    
+    /**
+     * Getter for the write lock wait statistics
+     * @return the statistics
+     */
+    public static LockStatistics getWriteStatistics()
+    {
+        return WRITE_STATISTICS;
+    }
+    
+    /**
+     * Get the number of threads waiting on the session lock
+     * @return the queue length (an estimate)
+     */
+    public static int getQueueLength()
+    {
+        return SESSION_LOCK.getQueueLength();
+    }
+    
+    /**
+     * Take the given lock recording how long it took
+     * @param lock
+     *          the lock to take
+     * @param outermostAcquisition
+     *          true if the thread doesn't already hold the lock (reentrant
+     *          acquisitions don't count toward the statistics)
+     * @param statistics
+     *          the statistics to record the wait in
+     * @param lockDescription
+     *          "read" or "write" for logging
+     */
+    private static void lock(
+            Lock lock,
+            boolean outermostAcquisition,
+            LockStatistics statistics,
+            String lockDescription)
+    {
+        if(outermostAcquisition)
+        {
+            // we don't use tryLock() for a quick uncontended path since
+            // it barges past the fair queue
+            long startNanos = System.nanoTime();
+            lock.lock();
+            long waitNanos = System.nanoTime() - startNanos;
+            statistics.recordAcquisition(waitNanos);
+            
+            if(waitNanos >= LONG_WAIT_NANOS && LOG.isLoggable(Level.FINE))
+            {
+                LOG.fine(
+                        Thread.currentThread().getName() + " waited " +
+                        (waitNanos / 1e6) + " ms for the R session " +
+                        lockDescription + " lock");
+            }
+        }
+        else
+        {
+            lock.lock();
+        }
+    }
+}
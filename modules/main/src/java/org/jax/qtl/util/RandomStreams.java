@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.util;
+
+import java.util.Random;
+
+/**
+ * Splits a single seed into any number of independent random streams.
+ * Stream <code>i</code> only depends on the seed and on <code>i</code>
+ * (the two are mixed with the SplitMix64 finalizer) so work that draws
+ * from stream <code>i</code> gets the same numbers no matter which thread
+ * runs it or how the work is divided up.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class RandomStreams
+{
+    /**
+     * the golden ratio increment used by SplitMix64
+     */
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private final long seed;
+
+    /**
+     * Constructor
+     * @param seed
+     *          the seed that every stream is derived from
+     */
+    public RandomStreams(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Getter for the seed
+     * @return
+     *          the seed
+     */
+    public long getSeed()
+    {
+        return this.seed;
+    }
+
+    /**
+     * Get a new random number generator for the given stream
+     * @param streamIndex
+     *          the stream index
+     * @return
+     *          the generator (these aren't shared so the caller owns it)
+     */
+    public Random getStream(long streamIndex)
+    {
+        return new Random(RandomStreams.mix(
+                this.seed + (streamIndex + 1L) * GOLDEN_GAMMA));
+    }
+
+    /**
+     * Create a random permutation of <code>0 ... size - 1</code> using the
+     * given stream
+     * @param streamIndex
+     *          the stream index
+     * @param size
+     *          the permutation size
+     * @return
+     *          the permutation
+     */
+    public int[] createPermutation(long streamIndex, int size)
+    {
+        Random random = this.getStream(streamIndex);
+        int[] permutation = new int[size];
+        for(int i = 0; i < size; i++)
+        {
+            permutation[i] = i;
+        }
+
+        // Fisher-Yates
+        for(int i = size - 1; i > 0; i--)
+        {
+            int j = random.nextInt(i + 1);
+            int swap = permutation[i];
+            permutation[i] = permutation[j];
+            permutation[j] = swap;
+        }
+
+        return permutation;
+    }
+
+    /**
+     * The SplitMix64 finalizer which turns nearby inputs into unrelated
+     * outputs
+     * @param value
+     *          the value to mix
+     * @return
+     *          the mixed value
+     */
+    private static long mix(long value)
+    {
+        long z = value;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
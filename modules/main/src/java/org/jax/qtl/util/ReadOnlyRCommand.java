@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.util;
+
+import org.jax.r.jriutilities.SilentRCommand;
+
+/**
+ * A {@link SilentRCommand} that only reads from the R session. Being silent
+ * just means that the command isn't echoed, it says nothing about whether
+ * the command changes anything, so {@link RSessionEpoch} only evaluates
+ * commands of this type under the {@link RSessionLock} read lock. Don't use
+ * this for commands that assign or remove objects (even scratch objects).
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class ReadOnlyRCommand extends SilentRCommand
+{
+    /**
+     * Constructor
+     * @param commandText
+     *          the command text. This must not change the R session
+     */
+    public ReadOnlyRCommand(String commandText)
+    {
+        super(commandText);
+    }
+}
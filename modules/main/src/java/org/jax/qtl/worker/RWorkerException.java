@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.worker;
+
+/**
+ * Thrown when an R worker process fails to evaluate a command or dies
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class RWorkerException extends Exception
+{
+    /**
+     * every {@link java.io.Serializable} is supposed to have one of these
+     */
+    private static final long serialVersionUID = 4433815722085374183L;
+
+    /**
+     * Constructor
+     * @param message
+     *          the error message
+     */
+    public RWorkerException(String message)
+    {
+        super(message);
+    }
+
+    /**
+     * Constructor
+     * @param message
+     *          the error message
+     * @param cause
+     *          the underlying cause
+     */
+    public RWorkerException(String message, Throwable cause)
+    {
+        super(message, cause);
+    }
+}
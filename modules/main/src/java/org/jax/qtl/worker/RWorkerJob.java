@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.worker;
+
+/**
+ * A unit of work that runs against a single {@link RWorkerProcess}
+ * @see RWorkerPool#submit(RWorkerJob)
+ * @param <T>
+ *          the result type of the job
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public interface RWorkerJob<T>
+{
+    /**
+     * Run this job. The worker belongs to this job until the function
+     * returns
+     * @param worker
+     *          the worker to run against
+     * @return
+     *          the result
+     * @throws RWorkerException
+     *          if the worker fails
+     */
+    public T runOnWorker(RWorkerProcess worker) throws RWorkerException;
+}
@@ -0,0 +1,451 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.worker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+import org.jax.qtl.configuration.QtlApplicationConfigurationManager;
+import org.jax.r.RUtilities;
+import org.jax.r.jaxbgenerated.RApplicationConfiguration;
+import org.jax.r.jaxbgenerated.RInstallationType;
+import org.jax.r.jaxbgenerated.RLaunchConfigurationType;
+import org.jax.r.jriutilities.RInterface;
+import org.jax.r.jriutilities.SilentRCommand;
+import org.jax.util.TypeSafeSystemProperties;
+import org.jax.util.TypeSafeSystemProperties.OsFamily;
+
+/**
+ * A pool of {@link RWorkerProcess}es which lets independent R work (like
+ * scans and permutations) run in parallel without tying up the main R
+ * session. Data moves between the main session and the workers through
+ * saved R data files (see {@link #createSeedFile(RInterface, String[])}).
+ * Worker processes are launched lazily and reused. Cancelling a job's
+ * future with interruption kills the worker process that's running it
+ * (R can't be interrupted any other way) and a fresh worker is launched
+ * in its place the next time one is needed.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class RWorkerPool
+{
+    /**
+     * our logger
+     */
+    private static final Logger LOG = Logger.getLogger(
+            RWorkerPool.class.getName());
+
+    private static final String TEMP_FILE_PREFIX = "jqtl-worker";
+
+    private static final String R_DATA_FILE_SUFFIX = ".RData";
+
+    private static final RWorkerPool instance = new RWorkerPool(
+            Runtime.getRuntime().availableProcessors());
+
+    private final int workerCount;
+
+    private final ExecutorService executor;
+
+    private final BlockingQueue<RWorkerProcess> idleWorkers =
+        new LinkedBlockingQueue<RWorkerProcess>();
+
+    private final List<RWorkerProcess> allWorkers =
+        new ArrayList<RWorkerProcess>();
+
+    /**
+     * Constructor
+     * @param workerCount
+     *          the maximum number of R worker processes to run at once
+     */
+    public RWorkerPool(int workerCount)
+    {
+        this.workerCount = Math.max(1, workerCount);
+        this.executor = Executors.newFixedThreadPool(
+                this.workerCount,
+                new ThreadFactory()
+                {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread thread = new Thread(r, "R worker dispatch");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        Runtime.getRuntime().addShutdownHook(new Thread()
+        {
+            @Override
+            public void run()
+            {
+                RWorkerPool.this.destroyAllWorkers();
+            }
+        });
+    }
+
+    /**
+     * Get the shared worker pool which has one worker per processor
+     * @return
+     *          the pool
+     */
+    public static RWorkerPool getInstance()
+    {
+        return RWorkerPool.instance;
+    }
+
+    /**
+     * Getter for the maximum number of workers that this pool will run
+     * @return
+     *          the worker count
+     */
+    public int getWorkerCount()
+    {
+        return this.workerCount;
+    }
+
+    /**
+     * Determine if we can find an R executable to launch workers with
+     * @return
+     *          true if workers can be launched
+     */
+    public boolean isAvailable()
+    {
+        return RWorkerPool.findRExecutable() != null;
+    }
+
+    /**
+     * Submit a job to run on the next free worker
+     * @param <T>
+     *          the result type
+     * @param job
+     *          the job
+     * @return
+     *          the future result. an {@link RWorkerException} thrown by the
+     *          job is the cause of any {@link java.util.concurrent.ExecutionException}.
+     *          calling {@link Future#cancel(boolean) cancel(true)} on a
+     *          running job destroys its worker process
+     */
+    public <T> Future<T> submit(final RWorkerJob<T> job)
+    {
+        return this.submit(job, null);
+    }
+
+    /**
+     * Submit a job that loads the given seed file to run on the next free
+     * worker. The job holds a reference to the seed file until it
+     * finishes or is cancelled
+     * @param <T>
+     *          the result type
+     * @param job
+     *          the job
+     * @param seedFile
+     *          the seed file that the job uses or null
+     * @return
+     *          the future result (see {@link #submit(RWorkerJob)})
+     */
+    public <T> Future<T> submit(
+            final RWorkerJob<T> job,
+            final RWorkerSeedFile seedFile)
+    {
+        if(seedFile != null)
+        {
+            seedFile.retain();
+        }
+
+        final AtomicReference<RWorkerProcess> runningWorker =
+            new AtomicReference<RWorkerProcess>();
+        FutureTask<T> task = new FutureTask<T>(new Callable<T>()
+        {
+            public T call() throws Exception
+            {
+                RWorkerProcess worker = RWorkerPool.this.acquireWorker();
+                try
+                {
+                    runningWorker.set(worker);
+                    
+                    // cancel interrupts before it looks for the worker so
+                    // if it didn't see the worker we'll see the interrupt
+                    if(Thread.currentThread().isInterrupted())
+                    {
+                        worker.destroy();
+                        throw new InterruptedException(
+                                "R worker job cancelled before it started");
+                    }
+                    return job.runOnWorker(worker);
+                }
+                finally
+                {
+                    runningWorker.set(null);
+                    RWorkerPool.this.releaseWorker(worker);
+                }
+            }
+        })
+        {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning)
+            {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if(cancelled && mayInterruptIfRunning)
+                {
+                    // the job is most likely blocked reading from R which
+                    // doesn't respond to interrupts. killing the process
+                    // unblocks it and the pool drops the dead worker
+                    RWorkerProcess worker = runningWorker.get();
+                    if(worker != null)
+                    {
+                        LOG.fine("destroying the R worker of a cancelled job");
+                        worker.destroy();
+                    }
+                }
+                return cancelled;
+            }
+
+            @Override
+            protected void done()
+            {
+                // this runs once whether the job finished, failed or was
+                // cancelled (even while it was still queued)
+                if(seedFile != null)
+                {
+                    seedFile.release();
+                }
+            }
+        };
+        this.executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Get an idle worker, launching a new one if all of the existing ones
+     * are busy. The fixed size executor guarantees that we never need
+     * more than {@link #getWorkerCount()} workers
+     * @return
+     *          the worker
+     * @throws RWorkerException
+     *          if we need to launch a worker and fail
+     */
+    private RWorkerProcess acquireWorker() throws RWorkerException
+    {
+        RWorkerProcess worker = this.idleWorkers.poll();
+        if(worker == null)
+        {
+            File rExecutable = RWorkerPool.findRExecutable();
+            if(rExecutable == null)
+            {
+                throw new RWorkerException(
+                        "could not find an R executable for worker processes");
+            }
+
+            worker = new RWorkerProcess(rExecutable);
+            synchronized(this.allWorkers)
+            {
+                this.allWorkers.add(worker);
+            }
+        }
+
+        return worker;
+    }
+
+    /**
+     * Give a worker back to the pool after a job is done with it
+     * @param worker
+     *          the worker
+     */
+    private void releaseWorker(RWorkerProcess worker)
+    {
+        if(worker.isAlive())
+        {
+            this.idleWorkers.add(worker);
+        }
+        else
+        {
+            synchronized(this.allWorkers)
+            {
+                this.allWorkers.remove(worker);
+            }
+        }
+    }
+
+    /**
+     * Kill every worker process (busy or not). Jobs that are running will
+     * fail with an {@link RWorkerException}
+     */
+    public void destroyAllWorkers()
+    {
+        synchronized(this.allWorkers)
+        {
+            for(RWorkerProcess worker: this.allWorkers)
+            {
+                worker.destroy();
+            }
+            this.allWorkers.clear();
+        }
+        this.idleWorkers.clear();
+    }
+
+    /**
+     * Save the given top level objects from the main R session into a
+     * temporary R data file that workers can load with
+     * {@link RWorkerProcess#loadSeedFile(RWorkerSeedFile)}
+     * @param rInterface
+     *          the main R session
+     * @param objectNames
+     *          the objects to save
+     * @return
+     *          the seed file (deleted when the JVM exits)
+     * @throws IOException
+     *          if we can't create the temp file
+     */
+    public static File createSeedFile(
+            RInterface rInterface,
+            String[] objectNames)
+    throws IOException
+    {
+        File seedFile = RWorkerPool.createTempDataFile();
+        rInterface.evaluateCommandNoReturn(new SilentRCommand(
+                "save(list=" + RUtilities.stringArrayToRVector(objectNames) +
+                ", file=" + RWorkerProcess.toRFileName(seedFile) + ")"));
+        return seedFile;
+    }
+
+    /**
+     * Create a temp file suitable for saving R data into
+     * @return
+     *          the file (deleted when the JVM exits)
+     * @throws IOException
+     *          if we fail to create the file
+     */
+    public static File createTempDataFile() throws IOException
+    {
+        File dataFile = File.createTempFile(TEMP_FILE_PREFIX, R_DATA_FILE_SUFFIX);
+        dataFile.deleteOnExit();
+        return dataFile;
+    }
+
+    /**
+     * Load an R data file written by a worker into the main R session
+     * @param rInterface
+     *          the main R session
+     * @param dataFile
+     *          the file to load
+     */
+    public static void loadDataFile(RInterface rInterface, File dataFile)
+    {
+        rInterface.evaluateCommandNoReturn(new SilentRCommand(
+                "load(" + RWorkerProcess.toRFileName(dataFile) + ")"));
+        if(!dataFile.delete())
+        {
+            LOG.fine("failed to delete worker data file: " + dataFile);
+        }
+    }
+
+    /**
+     * Get the R home directory of the installation that J/qtl is
+     * configured to use
+     * @return
+     *          the R home or null if there's no configured installation
+     */
+    private static String getConfiguredRHome()
+    {
+        RApplicationConfiguration applicationConfiguration =
+            QtlApplicationConfigurationManager.getInstance().getApplicationConfiguration();
+        if(applicationConfiguration == null ||
+           applicationConfiguration.getRConfiguration() == null)
+        {
+            return null;
+        }
+
+        RLaunchConfigurationType launchConfiguration =
+            applicationConfiguration.getRConfiguration().getRLaunchConfiguration();
+        if(launchConfiguration == null)
+        {
+            return null;
+        }
+
+        RInstallationType selectedInstallation =
+            launchConfiguration.getSelectedRInstallation();
+        if(selectedInstallation == null)
+        {
+            return null;
+        }
+        else
+        {
+            return selectedInstallation.getRHomeDirectory();
+        }
+    }
+
+    /**
+     * Find the R executable, preferring the installation that J/qtl is
+     * configured to use, then R_HOME and finally whatever is on the path
+     * @return
+     *          the executable or null if we can't find one
+     */
+    public static File findRExecutable()
+    {
+        String executableName =
+            TypeSafeSystemProperties.getOsFamily() == OsFamily.WINDOWS_OS_FAMILY ?
+            "R.exe" :
+            "R";
+
+        List<String> rHomeCandidates = new ArrayList<String>();
+        rHomeCandidates.add(RWorkerPool.getConfiguredRHome());
+        rHomeCandidates.add(System.getenv("R_HOME"));
+
+        for(String rHome: rHomeCandidates)
+        {
+            if(rHome != null)
+            {
+                File rExecutable = new File(
+                        new File(rHome, "bin"),
+                        executableName);
+                if(rExecutable.isFile())
+                {
+                    return rExecutable;
+                }
+            }
+        }
+
+        String path = System.getenv("PATH");
+        if(path != null)
+        {
+            for(String pathElement: path.split(File.pathSeparator))
+            {
+                File rExecutable = new File(pathElement, executableName);
+                if(rExecutable.isFile())
+                {
+                    return rExecutable;
+                }
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.worker;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.logging.Logger;
+
+import org.jax.r.RUtilities;
+
+/**
+ * A separate R process that we talk to over its standard input and
+ * output. Commands are wrapped so that R tells us when each one is done
+ * and whether it failed, which lets one process handle many commands.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class RWorkerProcess
+{
+    /**
+     * our logger
+     */
+    private static final Logger LOG = Logger.getLogger(
+            RWorkerProcess.class.getName());
+
+    private static final String DONE_MARKER = "<<jqtl-worker-done>>";
+
+    private static final String OK_STATUS = "<<jqtl-worker-ok>>";
+
+    private static final String ERROR_STATUS_PREFIX = "<<jqtl-worker-error>>";
+
+    private final Process process;
+
+    private final BufferedReader outputReader;
+
+    private final Writer commandWriter;
+
+    /**
+     * the ID of the last seed file we loaded. we only remember the last
+     * one since loading another seed file can overwrite its objects
+     */
+    private long loadedSeedFileId = -1L;
+
+    private volatile boolean alive = true;
+
+    /**
+     * Launch a new R worker process and load R/qtl into it
+     * @param rExecutable
+     *          the R executable to launch
+     * @throws RWorkerException
+     *          if we fail to launch R or load R/qtl
+     */
+    public RWorkerProcess(File rExecutable) throws RWorkerException
+    {
+        ProcessBuilder processBuilder = new ProcessBuilder(
+                rExecutable.getAbsolutePath(),
+                "--vanilla",
+                "--slave");
+
+        // R errors and warnings are interleaved with normal output. We
+        // only ever look at the status lines so this is OK
+        processBuilder.redirectErrorStream(true);
+
+        try
+        {
+            this.process = processBuilder.start();
+        }
+        catch(IOException ex)
+        {
+            throw new RWorkerException(
+                    "failed to launch R worker: " + rExecutable,
+                    ex);
+        }
+
+        this.outputReader = new BufferedReader(new InputStreamReader(
+                this.process.getInputStream()));
+        this.commandWriter = new OutputStreamWriter(
+                this.process.getOutputStream());
+
+        this.evaluate("library(qtl)");
+    }
+
+    /**
+     * Evaluate the given R command in this worker's global environment and
+     * block until it's done
+     * @param rCommand
+     *          the command (may contain more than one expression)
+     * @throws RWorkerException
+     *          if R reports an error or the process dies
+     */
+    public synchronized void evaluate(String rCommand) throws RWorkerException
+    {
+        if(!this.alive)
+        {
+            throw new RWorkerException("R worker process is no longer running");
+        }
+
+        String wrappedCommand =
+            "cat(\"\\n\", tryCatch({eval(parse(text=" +
+            RUtilities.javaStringToRString(rCommand) +
+            "), envir=globalenv()); " +
+            RUtilities.javaStringToRString(OK_STATUS) +
+            "}, error=function(e) paste(" +
+            RUtilities.javaStringToRString(ERROR_STATUS_PREFIX) +
+            ", conditionMessage(e))), \"\\n" + DONE_MARKER + "\\n\", " +
+            "sep=\"\")\n";
+
+        try
+        {
+            this.commandWriter.write(wrappedCommand);
+            this.commandWriter.flush();
+
+            String statusLine = null;
+            String currLine;
+            while((currLine = this.outputReader.readLine()) != null)
+            {
+                if(currLine.equals(DONE_MARKER))
+                {
+                    break;
+                }
+                else if(currLine.length() > 0)
+                {
+                    if(statusLine != null)
+                    {
+                        LOG.fine("R worker: " + statusLine);
+                    }
+                    statusLine = currLine;
+                }
+            }
+
+            if(currLine == null)
+            {
+                this.destroy();
+                throw new RWorkerException(
+                        "R worker process exited while evaluating: " +
+                        rCommand);
+            }
+            else if(statusLine == null || !statusLine.equals(OK_STATUS))
+            {
+                String message = statusLine == null ?
+                        "no status returned" :
+                        statusLine.replace(ERROR_STATUS_PREFIX, "").trim();
+                throw new RWorkerException(
+                        "R worker failed to evaluate \"" + rCommand + "\": " +
+                        message);
+            }
+        }
+        catch(IOException ex)
+        {
+            this.destroy();
+            throw new RWorkerException(
+                    "lost communication with R worker process",
+                    ex);
+        }
+    }
+
+    /**
+     * Load the given seed file (see
+     * {@link RWorkerPool#createSeedFile(org.jax.r.jriutilities.RInterface, String[])})
+     * unless it's the last seed file that this worker loaded
+     * @param seedFile
+     *          the seed file
+     * @throws RWorkerException
+     *          if the load fails
+     */
+    public synchronized void loadSeedFile(RWorkerSeedFile seedFile)
+    throws RWorkerException
+    {
+        if(this.loadedSeedFileId != seedFile.getId())
+        {
+            this.loadedSeedFileId = -1L;
+            this.evaluate("load(" + RWorkerProcess.toRFileName(seedFile.getFile()) + ")");
+            this.loadedSeedFileId = seedFile.getId();
+        }
+    }
+
+    /**
+     * Save the named objects to the given file
+     * @param objectNames
+     *          the names of the objects to save
+     * @param file
+     *          the file to save to
+     * @throws RWorkerException
+     *          if the save fails
+     */
+    public void saveObjects(String[] objectNames, File file)
+    throws RWorkerException
+    {
+        this.evaluate(
+                "save(list=" + RUtilities.stringArrayToRVector(objectNames) +
+                ", file=" + RWorkerProcess.toRFileName(file) + ")");
+    }
+
+    /**
+     * Determine if this process is still usable
+     * @return
+     *          true if the process is alive
+     */
+    public boolean isAlive()
+    {
+        return this.alive;
+    }
+
+    /**
+     * Kill the R process
+     */
+    public void destroy()
+    {
+        this.alive = false;
+        this.process.destroy();
+    }
+
+    /**
+     * Convert the given file into an R string that R is happy with on
+     * every platform
+     * @param file
+     *          the file
+     * @return
+     *          the R string
+     */
+    static String toRFileName(File file)
+    {
+        return RUtilities.javaStringToRString(
+                file.getAbsolutePath().replace('\\', '/'));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.worker;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * A seed file (see
+ * {@link RWorkerPool#createSeedFile(org.jax.r.jriutilities.RInterface, String[])})
+ * that's shared by the jobs of a single run. The file is reference
+ * counted: the creator holds one reference, every job submitted with
+ * {@link RWorkerPool#submit(RWorkerJob, RWorkerSeedFile)} holds another
+ * until it's done (or cancelled), and the file is deleted when the last
+ * reference is released. That way the file doesn't disappear from under
+ * a job that's still queued.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+public class RWorkerSeedFile
+{
+    /**
+     * our logger
+     */
+    private static final Logger LOG = Logger.getLogger(
+            RWorkerSeedFile.class.getName());
+
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    private final long id = NEXT_ID.getAndIncrement();
+
+    private final File file;
+
+    private final AtomicInteger referenceCount = new AtomicInteger(1);
+
+    /**
+     * Constructor. The caller owns the first reference
+     * @param file
+     *          the seed file
+     */
+    public RWorkerSeedFile(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Getter for the file
+     * @return
+     *          the file
+     */
+    public File getFile()
+    {
+        return this.file;
+    }
+
+    /**
+     * Getter for the ID which is unique to this seed file. Workers use it
+     * to tell whether they've already loaded the file (the temp file path
+     * could be reused once the file is gone)
+     * @return
+     *          the ID
+     */
+    public long getId()
+    {
+        return this.id;
+    }
+
+    /**
+     * Add a reference
+     */
+    public void retain()
+    {
+        this.referenceCount.incrementAndGet();
+    }
+
+    /**
+     * Drop a reference, deleting the file if it was the last one
+     */
+    public void release()
+    {
+        if(this.referenceCount.decrementAndGet() == 0)
+        {
+            if(!this.file.delete())
+            {
+                LOG.fine("failed to delete seed file: " + this.file);
+            }
+        }
+    }
+}
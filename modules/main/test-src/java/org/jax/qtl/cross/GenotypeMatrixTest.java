@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.cross;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test for {@link GenotypeMatrix} class.
+ */
+public class GenotypeMatrixTest
+{
+    /**
+     * Create marker major genotypes where every 7th call is missing
+     * @param markerCount
+     *          the number of markers
+     * @param individualCount
+     *          the number of individuals
+     * @param categoryCount
+     *          the number of genotype categories
+     * @return
+     *          the genotypes
+     */
+    private static int[] createGenotypes(
+            int markerCount,
+            int individualCount,
+            int categoryCount)
+    {
+        int[] genotypes = new int[markerCount * individualCount];
+        for(int cell = 0; cell < genotypes.length; cell++)
+        {
+            genotypes[cell] = cell % 7 == 0 ?
+                    GenotypeMatrix.MISSING_GENOTYPE :
+                    (cell * 31 + cell / 5) % categoryCount;
+        }
+        return genotypes;
+    }
+
+    /**
+     * Check that every call comes back the way it went in
+     * @param categoryNames
+     *          the category names
+     */
+    private static void checkRoundTrip(String[] categoryNames)
+    {
+        // 33 individuals so that markers straddle the packed words
+        int markerCount = 5;
+        int individualCount = 33;
+        int[] genotypes = GenotypeMatrixTest.createGenotypes(
+                markerCount,
+                individualCount,
+                categoryNames.length);
+        GenotypeMatrix matrix = new GenotypeMatrix(
+                new String[] {"m1", "m2", "m3", "m4", "m5"},
+                categoryNames,
+                individualCount,
+                genotypes);
+
+        int missingCount = 0;
+        for(int marker = 0; marker < markerCount; marker++)
+        {
+            for(int individual = 0; individual < individualCount; individual++)
+            {
+                int expected = genotypes[marker * individualCount + individual];
+                Assert.assertEquals(
+                        expected,
+                        matrix.getGenotype(marker, individual));
+                if(expected == GenotypeMatrix.MISSING_GENOTYPE)
+                {
+                    missingCount++;
+                    Assert.assertTrue(matrix.isMissing(marker, individual));
+                    Assert.assertNull(matrix.getGenotypeName(marker, individual));
+                }
+                else
+                {
+                    Assert.assertEquals(
+                            categoryNames[expected],
+                            matrix.getGenotypeName(marker, individual));
+                }
+            }
+        }
+
+        Assert.assertEquals(missingCount, matrix.getMissingCount());
+        Assert.assertEquals(markerCount * individualCount, matrix.getCellCount());
+        Assert.assertEquals(markerCount, matrix.getMarkerCount());
+        Assert.assertEquals(individualCount, matrix.getIndividualCount());
+    }
+
+    /**
+     * Three genotypes plus missing fit in 2 bits per call
+     */
+    @Test
+    public void testTwoBitPacking()
+    {
+        GenotypeMatrixTest.checkRoundTrip(new String[] {"AA", "AB", "BB"});
+    }
+
+    /**
+     * Five genotypes (like an F2 with dominant calls) need 4 bits per call
+     */
+    @Test
+    public void testFourBitPacking()
+    {
+        GenotypeMatrixTest.checkRoundTrip(
+                new String[] {"AA", "AB", "BB", "not BB", "not AA"});
+    }
+
+    /**
+     * Calls outside of the category range are stored as missing
+     */
+    @Test
+    public void testOutOfRangeIsMissing()
+    {
+        GenotypeMatrix matrix = new GenotypeMatrix(
+                new String[] {"m1"},
+                new String[] {"AA", "AB"},
+                3,
+                new int[] {0, 2, 1});
+        Assert.assertEquals(0, matrix.getGenotype(0, 0));
+        Assert.assertTrue(matrix.isMissing(0, 1));
+        Assert.assertEquals(1, matrix.getGenotype(0, 2));
+        Assert.assertEquals(1, matrix.getMissingCount());
+    }
+
+    /**
+     * The genotype count has to match the marker and individual counts
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testWrongGenotypeCount()
+    {
+        new GenotypeMatrix(
+                new String[] {"m1", "m2"},
+                new String[] {"AA", "AB"},
+                3,
+                new int[5]);
+    }
+}
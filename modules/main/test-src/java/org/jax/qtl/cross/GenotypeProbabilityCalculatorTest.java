@@ -0,0 +1,476 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.cross;
+
+import java.util.Arrays;
+
+import org.jax.qtl.cross.Cross.CrossSubType;
+import org.jax.qtl.cross.GenotypeProbabilityCalculator.ChromosomeModel;
+import org.jax.qtl.cross.GenotypeProbabilityCalculator.MapFunction;
+import org.jax.qtl.cross.GenotypeProbabilityCalculator.StepWidth;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test for {@link GenotypeProbabilityCalculator} class.
+ */
+public class GenotypeProbabilityCalculatorTest
+{
+    /**
+     * the tolerance for comparing probabilities
+     */
+    private static final double TOLERANCE = 1e-12;
+
+    /**
+     * the genotyping error rate used for the emission tests
+     */
+    private static final double ERROR_PROBABILITY = 0.01;
+
+    /**
+     * Get the transition matrix for a single interval
+     * @param crossSubType
+     *          the cross type
+     * @param femaleFraction
+     *          the female recombination fraction
+     * @param maleFraction
+     *          the male recombination fraction
+     * @return
+     *          the row-major matrix
+     */
+    private static double[] getTransitions(
+            CrossSubType crossSubType,
+            double femaleFraction,
+            double maleFraction)
+    {
+        int genotypeCount =
+            GenotypeProbabilityCalculator.getInitialProbabilities(crossSubType).length;
+        double[] transitions = new double[genotypeCount * genotypeCount];
+        GenotypeProbabilityCalculator.fillTransitions(
+                crossSubType,
+                femaleFraction,
+                maleFraction,
+                transitions,
+                0);
+        return transitions;
+    }
+
+    /**
+     * Lay out a chromosome with markers at 10, 17.5 and 35 cM (0, 7.5 and
+     * 25 cM relative to the 1st marker) and a single untyped individual
+     * @param step
+     *          the step
+     * @param offEnd
+     *          the off end distance
+     * @param stepWidth
+     *          the step width
+     * @return
+     *          the model
+     */
+    private static ChromosomeModel createModel(
+            double step,
+            double offEnd,
+            StepWidth stepWidth)
+    {
+        return GenotypeProbabilityCalculatorTest.createModel(
+                step,
+                offEnd,
+                stepWidth,
+                new double[] {10.0, 17.5, 35.0});
+    }
+
+    /**
+     * Lay out a chromosome with a single untyped individual
+     * @param step
+     *          the step
+     * @param offEnd
+     *          the off end distance
+     * @param stepWidth
+     *          the step width
+     * @param markerPositions
+     *          the marker positions
+     * @return
+     *          the model
+     */
+    private static ChromosomeModel createModel(
+            double step,
+            double offEnd,
+            StepWidth stepWidth,
+            double[] markerPositions)
+    {
+        int markerCount = markerPositions.length;
+        String[] markerNames = new String[markerCount];
+        int[] genotypes = new int[markerCount];
+        for(int m = 0; m < markerCount; m++)
+        {
+            markerNames[m] = "m" + (m + 1);
+            genotypes[m] = GenotypeMatrix.MISSING_GENOTYPE;
+        }
+        GenotypeProbabilityCalculator calculator = new GenotypeProbabilityCalculator(
+                step,
+                offEnd,
+                ERROR_PROBABILITY,
+                MapFunction.HALDANE,
+                stepWidth);
+        return calculator.createChromosomeModel(
+                null,
+                CrossSubType.BACK_CROSS,
+                new GenotypeMatrix(markerNames, new String[] {"A", "H"}, 1, genotypes),
+                new String[] {"AA", "AB"},
+                markerPositions,
+                null);
+    }
+
+    /**
+     * Check the position names and positions of a model
+     * @param model
+     *          the model
+     * @param names
+     *          the expected names
+     * @param positions
+     *          the expected positions
+     */
+    private static void assertGrid(
+            ChromosomeModel model,
+            String[] names,
+            double[] positions)
+    {
+        Assert.assertEquals(Arrays.asList(names), Arrays.asList(model.positionNames));
+        Assert.assertArrayEquals(positions, model.positions, TOLERANCE);
+    }
+
+    /**
+     * Fixed grids start at floor(-off.end) relative to the 1st marker, run
+     * to the last marker plus off.end and skip positions that already have
+     * a marker. Pseudomarkers are named by their relative position
+     */
+    @Test
+    public void testFixedGrid()
+    {
+        // seq(-3, 27.5, by=5) keeps -3 even though it's past off.end
+        GenotypeProbabilityCalculatorTest.assertGrid(
+                GenotypeProbabilityCalculatorTest.createModel(5.0, 2.5, StepWidth.FIXED),
+                new String[] {
+                        "loc-3", "m1", "loc2", "loc7", "m2", "loc12", "loc17",
+                        "loc22", "m3", "loc27"},
+                new double[] {7.0, 10.0, 12.0, 17.0, 17.5, 22.0, 27.0, 32.0, 35.0, 37.0});
+
+        // seq(0, 25, by=5) minus the markers at 0 and 25
+        GenotypeProbabilityCalculatorTest.assertGrid(
+                GenotypeProbabilityCalculatorTest.createModel(5.0, 0.0, StepWidth.FIXED),
+                new String[] {"m1", "loc5", "m2", "loc10", "loc15", "loc20", "m3"},
+                new double[] {10.0, 15.0, 17.5, 20.0, 25.0, 30.0, 35.0});
+    }
+
+    /**
+     * Without a step the off end points are rounded out to whole cM
+     */
+    @Test
+    public void testMarkersOnlyGrid()
+    {
+        GenotypeProbabilityCalculatorTest.assertGrid(
+                GenotypeProbabilityCalculatorTest.createModel(0.0, 2.5, StepWidth.FIXED),
+                new String[] {"loc-3", "m1", "m2", "m3", "loc28"},
+                new double[] {7.0, 10.0, 17.5, 35.0, 38.0});
+        GenotypeProbabilityCalculatorTest.assertGrid(
+                GenotypeProbabilityCalculatorTest.createModel(0.0, 0.0, StepWidth.FIXED),
+                new String[] {"m1", "m2", "m3"},
+                new double[] {10.0, 17.5, 35.0});
+
+        // variable step widths put the off end points exactly off.end out
+        GenotypeProbabilityCalculatorTest.assertGrid(
+                GenotypeProbabilityCalculatorTest.createModel(0.0, 2.5, StepWidth.VARIABLE),
+                new String[] {"loc1", "m1", "m2", "m3", "loc2"},
+                new double[] {7.5, 10.0, 17.5, 35.0, 37.5});
+    }
+
+    /**
+     * Variable grids add the off end points and then split every interval
+     * (including the off end ones) into ceiling(d / step) even pieces. The
+     * 2.5 cM end intervals stay whole, the 7.5 cM interval is halved and
+     * the 17.5 cM interval is split in 4
+     */
+    @Test
+    public void testVariableGrid()
+    {
+        GenotypeProbabilityCalculatorTest.assertGrid(
+                GenotypeProbabilityCalculatorTest.createModel(5.0, 2.5, StepWidth.VARIABLE),
+                new String[] {
+                        "loc1", "m1", "loc2", "m2", "loc3", "loc4", "loc5",
+                        "m3", "loc6"},
+                new double[] {
+                        7.5, 10.0, 13.75, 17.5, 21.875, 26.25, 30.625,
+                        35.0, 37.5});
+
+        // a 10 cM off end interval gets split too
+        GenotypeProbabilityCalculatorTest.assertGrid(
+                GenotypeProbabilityCalculatorTest.createModel(
+                        5.0, 10.0, StepWidth.VARIABLE, new double[] {0.0, 5.0}),
+                new String[] {"loc1", "loc2", "m1", "m2", "loc3", "loc4"},
+                new double[] {-10.0, -5.0, 0.0, 5.0, 10.0, 15.0});
+    }
+
+    /**
+     * A lone marker always gets a partner position
+     */
+    @Test
+    public void testSingleMarkerGrid()
+    {
+        GenotypeProbabilityCalculatorTest.assertGrid(
+                GenotypeProbabilityCalculatorTest.createModel(
+                        0.0, 0.0, StepWidth.FIXED, new double[] {50.0}),
+                new String[] {"m1", "loc1"},
+                new double[] {50.0, 51.0});
+        GenotypeProbabilityCalculatorTest.assertGrid(
+                GenotypeProbabilityCalculatorTest.createModel(
+                        2.0, 3.0, StepWidth.FIXED, new double[] {50.0}),
+                new String[] {"loc-3", "loc-1", "m1", "loc1", "loc3"},
+                new double[] {47.0, 49.0, 50.0, 51.0, 53.0});
+    }
+
+    /**
+     * With markers at 0 and 30 cM, an AA call at the 1st and an AB call at
+     * the 2nd the backcross posterior at 10 cM factors into the two sides.
+     * Haldane fractions compose so with r1 = r(10) and r2 = r(20)
+     * <pre>
+     * P(AA) ~ ((1-r1)(1-e) + r1 e) (r2 (1-e) + (1-r2) e)
+     * P(AB) ~ (r1 (1-e) + (1-r1) e) ((1-r2)(1-e) + r2 e)
+     * </pre>
+     * and an untyped individual stays at 1/2
+     */
+    @Test
+    public void testForwardBackward()
+    {
+        double e = ERROR_PROBABILITY;
+        GenotypeProbabilityCalculator calculator = new GenotypeProbabilityCalculator(
+                10.0,
+                0.0,
+                e,
+                MapFunction.HALDANE,
+                StepWidth.FIXED);
+        ChromosomeModel model = calculator.createChromosomeModel(
+                null,
+                CrossSubType.BACK_CROSS,
+                new GenotypeMatrix(
+                        new String[] {"m1", "m2"},
+                        new String[] {"A", "H"},
+                        2,
+                        new int[] {0, GenotypeMatrix.MISSING_GENOTYPE, 1, GenotypeMatrix.MISSING_GENOTYPE}),
+                new String[] {"AA", "AB"},
+                new double[] {0.0, 30.0},
+                null);
+        calculator.runForwardBackward(
+                CrossSubType.BACK_CROSS,
+                GenotypeProbabilityCalculator.getInitialProbabilities(CrossSubType.BACK_CROSS),
+                model,
+                0,
+                2);
+        Assert.assertEquals(
+                Arrays.asList("m1", "loc10", "loc20", "m2"),
+                Arrays.asList(model.positionNames));
+
+        double r1 = MapFunction.HALDANE.toRecombinationFraction(10.0);
+        double r2 = MapFunction.HALDANE.toRecombinationFraction(20.0);
+        double aa = ((1.0 - r1) * (1.0 - e) + r1 * e) * (r2 * (1.0 - e) + (1.0 - r2) * e);
+        double ab = (r1 * (1.0 - e) + (1.0 - r1) * e) * ((1.0 - r2) * (1.0 - e) + r2 * e);
+
+        // probabilities are individual x position x genotype
+        int positionCount = 4;
+        int individualCount = 2;
+        int position = 1;
+        Assert.assertEquals(
+                aa / (aa + ab),
+                model.probabilities[(0 * positionCount + position) * individualCount],
+                1e-6);
+        Assert.assertEquals(
+                ab / (aa + ab),
+                model.probabilities[(1 * positionCount + position) * individualCount],
+                1e-6);
+        for(int p = 0; p < positionCount; p++)
+        {
+            Assert.assertEquals(
+                    0.5,
+                    model.probabilities[(0 * positionCount + p) * individualCount + 1],
+                    1e-6);
+        }
+    }
+
+    /**
+     * The map functions at hand-calculated distances
+     */
+    @Test
+    public void testMapFunctions()
+    {
+        // haldane: (1 - exp(-2d)) / 2 with d in Morgans
+        Assert.assertEquals(
+                0.5 * (1.0 - Math.exp(-0.2)),
+                MapFunction.HALDANE.toRecombinationFraction(10.0),
+                TOLERANCE);
+
+        // kosambi: tanh(2d) / 2
+        Assert.assertEquals(
+                0.5 * (Math.exp(0.4) - 1.0) / (Math.exp(0.4) + 1.0),
+                MapFunction.KOSAMBI.toRecombinationFraction(10.0),
+                TOLERANCE);
+
+        // morgan: d capped at 1/2
+        Assert.assertEquals(0.1, MapFunction.MORGAN.toRecombinationFraction(10.0), TOLERANCE);
+        Assert.assertEquals(0.5, MapFunction.MORGAN.toRecombinationFraction(80.0), TOLERANCE);
+
+        // carter-falconer is defined through its inverse
+        // d = (log(1 + 2r) - log(1 - 2r)) / 4 + atan(2r) / 2
+        double r = 0.2;
+        double centimorgans = 100.0 * (
+                0.25 * (Math.log(1.0 + 2.0 * r) - Math.log(1.0 - 2.0 * r)) +
+                0.5 * Math.atan(2.0 * r));
+        Assert.assertEquals(
+                r,
+                MapFunction.CARTER_FALCONER.toRecombinationFraction(centimorgans),
+                1e-10);
+        Assert.assertEquals(
+                0.0,
+                MapFunction.CARTER_FALCONER.toRecombinationFraction(0.0),
+                TOLERANCE);
+    }
+
+    /**
+     * Backcross and intercross transitions for r = 0.1
+     */
+    @Test
+    public void testTransitions()
+    {
+        Assert.assertArrayEquals(
+                new double[] {0.9, 0.1, 0.1, 0.9},
+                GenotypeProbabilityCalculatorTest.getTransitions(
+                        CrossSubType.BACK_CROSS, 0.1, 0.1),
+                TOLERANCE);
+
+        // AA -> (AA, AB, BB) = ((1-r)^2, 2r(1-r), r^2) and
+        // AB -> (r(1-r), (1-r)^2 + r^2, r(1-r))
+        Assert.assertArrayEquals(
+                new double[] {
+                        0.81, 0.18, 0.01,
+                        0.09, 0.82, 0.09,
+                        0.01, 0.18, 0.81},
+                GenotypeProbabilityCalculatorTest.getTransitions(
+                        CrossSubType.F2, 0.1, 0.1),
+                TOLERANCE);
+
+        // four-way: the 1st allele follows the female fraction and the
+        // 2nd the male fraction, so AC -> BD = 0.1 * 0.2
+        double[] fourWay = GenotypeProbabilityCalculatorTest.getTransitions(
+                CrossSubType.FOUR_WAY, 0.1, 0.2);
+        Assert.assertEquals(0.9 * 0.8, fourWay[0 * 4 + 0], TOLERANCE);
+        Assert.assertEquals(0.1 * 0.8, fourWay[0 * 4 + 1], TOLERANCE);
+        Assert.assertEquals(0.9 * 0.2, fourWay[0 * 4 + 2], TOLERANCE);
+        Assert.assertEquals(0.1 * 0.2, fourWay[0 * 4 + 3], TOLERANCE);
+    }
+
+    /**
+     * Every transition row is a distribution and the starting
+     * probabilities are stationary
+     */
+    @Test
+    public void testTransitionsAreStochastic()
+    {
+        for(CrossSubType crossSubType: new CrossSubType[] {
+                CrossSubType.BACK_CROSS,
+                CrossSubType.F2,
+                CrossSubType.FOUR_WAY})
+        {
+            double[] initial =
+                GenotypeProbabilityCalculator.getInitialProbabilities(crossSubType);
+            int genotypeCount = initial.length;
+            double[] transitions = GenotypeProbabilityCalculatorTest.getTransitions(
+                    crossSubType, 0.13, 0.27);
+            for(int from = 0; from < genotypeCount; from++)
+            {
+                double rowSum = 0.0;
+                for(int to = 0; to < genotypeCount; to++)
+                {
+                    rowSum += transitions[from * genotypeCount + to];
+                }
+                Assert.assertEquals(1.0, rowSum, TOLERANCE);
+            }
+            for(int to = 0; to < genotypeCount; to++)
+            {
+                double next = 0.0;
+                for(int from = 0; from < genotypeCount; from++)
+                {
+                    next += initial[from] * transitions[from * genotypeCount + to];
+                }
+                Assert.assertEquals(initial[to], next, TOLERANCE);
+            }
+        }
+    }
+
+    /**
+     * Emission probabilities for fully and partially informative calls
+     */
+    @Test
+    public void testEmissions()
+    {
+        double e = ERROR_PROBABILITY;
+        GenotypeProbabilityCalculator calculator = new GenotypeProbabilityCalculator(
+                0.0,
+                0.0,
+                e,
+                MapFunction.HALDANE,
+                StepWidth.FIXED);
+
+        // missing calls carry no information
+        Assert.assertEquals(
+                1.0,
+                calculator.getEmission(
+                        CrossSubType.F2, GenotypeMatrix.MISSING_GENOTYPE, 1),
+                TOLERANCE);
+
+        Assert.assertEquals(1.0 - e, calculator.getEmission(CrossSubType.BACK_CROSS, 1, 1), TOLERANCE);
+        Assert.assertEquals(e, calculator.getEmission(CrossSubType.BACK_CROSS, 0, 1), TOLERANCE);
+
+        // F2 errors are split over the 2 other genotypes. "not BB" (3)
+        // is right for AA and AB
+        Assert.assertEquals(e / 2.0, calculator.getEmission(CrossSubType.F2, 0, 2), TOLERANCE);
+        Assert.assertEquals(1.0 - e / 2.0, calculator.getEmission(CrossSubType.F2, 3, 1), TOLERANCE);
+        Assert.assertEquals(e, calculator.getEmission(CrossSubType.F2, 3, 2), TOLERANCE);
+        Assert.assertEquals(1.0 - e / 2.0, calculator.getEmission(CrossSubType.F2, 4, 2), TOLERANCE);
+        Assert.assertEquals(e, calculator.getEmission(CrossSubType.F2, 4, 0), TOLERANCE);
+
+        // fully informative calls are distributions over the observed
+        // genotype for every true genotype
+        for(CrossSubType crossSubType: new CrossSubType[] {
+                CrossSubType.BACK_CROSS,
+                CrossSubType.F2,
+                CrossSubType.FOUR_WAY})
+        {
+            int genotypeCount =
+                GenotypeProbabilityCalculator.getInitialProbabilities(crossSubType).length;
+            for(int trueGenotype = 0; trueGenotype < genotypeCount; trueGenotype++)
+            {
+                double total = 0.0;
+                for(int observed = 0; observed < genotypeCount; observed++)
+                {
+                    total += calculator.getEmission(crossSubType, observed, trueGenotype);
+                }
+                Assert.assertEquals(1.0, total, TOLERANCE);
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.cross;
+
+import org.jax.qtl.cross.Cross.CrossSubType;
+import org.jax.qtl.cross.RecombinationFractionEstimator.PairModel;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test for the EM fit in {@link RecombinationFractionEstimator}.
+ */
+public class RecombinationFractionEstimatorTest
+{
+    /**
+     * the tolerance for comparing estimates
+     */
+    private static final double TOLERANCE = 1e-8;
+
+    /**
+     * the maximum number of EM iterations
+     */
+    private static final int MAX_ITERATIONS = 10000;
+
+    /**
+     * the EM convergence tolerance
+     */
+    private static final double EM_TOLERANCE = 1e-12;
+
+    /**
+     * Run the EM fit for a contingency table
+     * @param crossSubType
+     *          the cross type
+     * @param counts
+     *          the row-major contingency table
+     * @return
+     *          the RF and LOD
+     */
+    private static double[] estimate(CrossSubType crossSubType, int[] counts)
+    {
+        int codeCount = crossSubType.getMarkerDataCategoricalValues().length;
+        PairModel model = new PairModel(crossSubType, codeCount);
+        double[] estimate = new double[2];
+        model.estimate(counts, MAX_ITERATIONS, EM_TOLERANCE, estimate);
+        return estimate;
+    }
+
+    /**
+     * A backcross is fully informative so the RF is the recombinant
+     * fraction (10 of 100) and the LOD is
+     * 90 log10(0.9) + 10 log10(0.1) - 100 log10(0.5)
+     */
+    @Test
+    public void testBackcross()
+    {
+        int codeCount = CrossSubType.BACK_CROSS.getMarkerDataCategoricalValues().length;
+        int[] counts = new int[codeCount * codeCount];
+        counts[0 * codeCount + 0] = 45;
+        counts[0 * codeCount + 1] = 5;
+        counts[1 * codeCount + 0] = 5;
+        counts[1 * codeCount + 1] = 45;
+
+        double[] estimate = RecombinationFractionEstimatorTest.estimate(
+                CrossSubType.BACK_CROSS,
+                counts);
+        Assert.assertEquals(0.1, estimate[0], TOLERANCE);
+        Assert.assertEquals(
+                90.0 * Math.log10(0.9) + 10.0 * Math.log10(0.1) - 100.0 * Math.log10(0.5),
+                estimate[1],
+                TOLERANCE);
+    }
+
+    /**
+     * Without double heterozygotes every intercross call pins down the
+     * number of recombinant meioses. Here 20 of the 200 meioses recombine
+     */
+    @Test
+    public void testIntercrossWithoutDoubleHeterozygotes()
+    {
+        int codeCount = CrossSubType.F2.getMarkerDataCategoricalValues().length;
+        int[] counts = new int[codeCount * codeCount];
+        counts[0 * codeCount + 0] = 40;
+        counts[2 * codeCount + 2] = 40;
+        counts[0 * codeCount + 1] = 10;
+        counts[1 * codeCount + 2] = 10;
+
+        double[] estimate = RecombinationFractionEstimatorTest.estimate(
+                CrossSubType.F2,
+                counts);
+        Assert.assertEquals(0.1, estimate[0], TOLERANCE);
+    }
+
+    /**
+     * A double heterozygote has either no recombinations (probability
+     * proportional to (1-r)^2) or two (proportional to r^2). The MLE is
+     * the fixed point r = (R + 2 n r^2 / (r^2 + (1-r)^2)) / M where R is
+     * the number of known recombinations, n the number of double
+     * heterozygotes and M the number of meioses
+     */
+    @Test
+    public void testIntercrossDoubleHeterozygotes()
+    {
+        int codeCount = CrossSubType.F2.getMarkerDataCategoricalValues().length;
+        int[] counts = new int[codeCount * codeCount];
+        counts[0 * codeCount + 0] = 20;
+        counts[2 * codeCount + 2] = 20;
+        counts[0 * codeCount + 1] = 6;
+        counts[1 * codeCount + 2] = 4;
+        counts[1 * codeCount + 1] = 50;
+
+        double[] estimate = RecombinationFractionEstimatorTest.estimate(
+                CrossSubType.F2,
+                counts);
+        double r = estimate[0];
+        double knownRecombinations = 10.0;
+        double meioses = 2.0 * 100.0;
+        double doubleHeterozygotes = 50.0;
+        double fixedPoint =
+            (knownRecombinations +
+             2.0 * doubleHeterozygotes * r * r / (r * r + (1.0 - r) * (1.0 - r))) /
+            meioses;
+        Assert.assertTrue(r > 0.0 && r < 0.5);
+        Assert.assertEquals(fixedPoint, r, TOLERANCE);
+        Assert.assertTrue(estimate[1] > 0.0);
+    }
+
+    /**
+     * A table with no calls has no information about the RF
+     */
+    @Test
+    public void testUninformative()
+    {
+        int codeCount = CrossSubType.BACK_CROSS.getMarkerDataCategoricalValues().length;
+        double[] estimate = RecombinationFractionEstimatorTest.estimate(
+                CrossSubType.BACK_CROSS,
+                new int[codeCount * codeCount]);
+        Assert.assertTrue(Double.isNaN(estimate[0]));
+        Assert.assertEquals(0.0, estimate[1], 0.0);
+    }
+}
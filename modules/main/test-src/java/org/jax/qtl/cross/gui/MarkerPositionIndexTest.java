@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.cross.gui;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.jax.qtl.cross.GeneticMarker;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test for {@link MarkerPositionIndex} class.
+ */
+public class MarkerPositionIndexTest
+{
+    /**
+     * Build an index with chromosome 1 items at 30, 10 and 20 (IDs 0, 1
+     * and 2) and chromosome 2 items at 15 and 5 (IDs 3 and 4)
+     * @return
+     *          the index
+     */
+    private static MarkerPositionIndex<String> createIndex()
+    {
+        return new MarkerPositionIndex<String>(
+                Arrays.asList("a", "b", "c", "d", "e"),
+                new String[] {"1", "1", "1", "2", "2"},
+                new double[] {30.0, 10.0, 20.0, 15.0, 5.0});
+    }
+
+    /**
+     * Nearest lookups within a chromosome snap to the closest position,
+     * with ties going to the lower one
+     */
+    @Test
+    public void testNearestOnChromosome()
+    {
+        MarkerPositionIndex<String> index = MarkerPositionIndexTest.createIndex();
+        Assert.assertEquals(5, index.getItemCount());
+
+        Assert.assertEquals(1, index.getNearestId("1", -100.0));
+        Assert.assertEquals(1, index.getNearestId("1", 14.0));
+        Assert.assertEquals(1, index.getNearestId("1", 15.0));
+        Assert.assertEquals(2, index.getNearestId("1", 16.0));
+        Assert.assertEquals(0, index.getNearestId("1", 100.0));
+        Assert.assertEquals("c", index.getNearestItem("1", 20.0));
+        Assert.assertEquals(4, index.getNearestId("2", 10.0));
+        Assert.assertEquals(3, index.getNearestId("2", 10.5));
+
+        Assert.assertEquals(-1, index.getNearestId("X", 10.0));
+        Assert.assertNull(index.getNearestItem("X", 10.0));
+    }
+
+    /**
+     * Nearest lookups without a chromosome search every chromosome, with
+     * ties going to the chromosome that shows up first
+     */
+    @Test
+    public void testNearestOnAnyChromosome()
+    {
+        MarkerPositionIndex<String> index = MarkerPositionIndexTest.createIndex();
+        Assert.assertEquals(4, index.getNearestId(6.0));
+        Assert.assertEquals(1, index.getNearestId(11.0));
+        Assert.assertEquals(1, index.getNearestId(12.5));
+        Assert.assertEquals(3, index.getNearestId(13.0));
+        Assert.assertEquals("a", index.getNearestItem(1000.0));
+
+        MarkerPositionIndex<String> emptyIndex = new MarkerPositionIndex<String>(
+                Arrays.<String>asList(),
+                new String[0],
+                new double[0]);
+        Assert.assertEquals(-1, emptyIndex.getNearestId(1.0));
+        Assert.assertNull(emptyIndex.getNearestItem(1.0));
+    }
+
+    /**
+     * Ranges are inclusive, grouped by chromosome and sorted by position
+     */
+    @Test
+    public void testRange()
+    {
+        MarkerPositionIndex<String> index = MarkerPositionIndexTest.createIndex();
+        Assert.assertArrayEquals(
+                new int[] {1, 2, 3},
+                index.getIdsInRange(10.0, 20.0));
+        Assert.assertArrayEquals(
+                new int[] {1, 2, 0, 4, 3},
+                index.getIdsInRange(0.0, 100.0));
+        Assert.assertArrayEquals(
+                new int[0],
+                index.getIdsInRange(21.0, 29.0));
+        Assert.assertArrayEquals(
+                new int[] {0},
+                index.getIdsInRange(30.0, 30.0));
+    }
+
+    /**
+     * A centimorgan index uses the marker positions and keeps the list
+     * order for IDs
+     */
+    @Test
+    public void testCentimorganIndex()
+    {
+        List<GeneticMarker> markers = Arrays.asList(
+                new GeneticMarker("m1", "1", 0.0),
+                new GeneticMarker("m2", "1", 12.5),
+                new GeneticMarker("m3", "2", 3.0));
+        MarkerPositionIndex<GeneticMarker> index =
+            MarkerPositionIndex.createCentimorganIndex(markers);
+        Assert.assertEquals(12.5, index.getPosition(1), 0.0);
+        Assert.assertSame(markers.get(2), index.getItem(2));
+        Assert.assertSame(markers.get(1), index.getNearestItem("1", 7.0));
+        Assert.assertSame(markers.get(2), index.getNearestItem(4.0));
+    }
+
+    /**
+     * Mismatched array lengths are rejected
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testMismatchedCounts()
+    {
+        new MarkerPositionIndex<String>(
+                Arrays.asList("a", "b"),
+                new String[] {"1"},
+                new double[] {1.0, 2.0});
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan;
+
+import java.nio.DoubleBuffer;
+
+import org.jax.qtl.cross.CrossChromosome;
+import org.jax.qtl.cross.GenotypeProbabilities;
+import org.jax.qtl.cross.Cross.CrossSubType;
+import org.jax.qtl.util.RandomStreams;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test for {@link HaleyKnottPermutationEngine} class.
+ */
+public class HaleyKnottPermutationEngineTest
+{
+    /**
+     * the tolerance for comparing LOD scores
+     */
+    private static final double TOLERANCE = 1e-9;
+
+    /**
+     * the master seed for the permutations
+     */
+    private static final long SEED = 20091117L;
+
+    /**
+     * the AB probability of each individual (rows) at each position
+     * (columns) for two backcross chromosomes with two positions each
+     */
+    private static final double[][][] AB_PROBABILITIES = new double[][][] {
+        {
+            {0.0, 0.1},
+            {1.0, 0.9},
+            {0.0, 0.5},
+            {1.0, 1.0},
+            {0.0, 0.0},
+            {1.0, 0.8},
+            {0.0, 0.2},
+            {1.0, 0.5}
+        },
+        {
+            {1.0, 0.7},
+            {1.0, 1.0},
+            {0.0, 0.3},
+            {0.0, 0.0},
+            {1.0, 0.6},
+            {0.0, 0.1},
+            {1.0, 1.0},
+            {0.0, 0.4}
+        }
+    };
+
+    /**
+     * the values of two phenotypes (columns) for each individual (rows)
+     */
+    private static final double[][] PHENOTYPES = new double[][] {
+        {3.1, 10.0},
+        {5.2, 12.5},
+        {2.9, 11.1},
+        {6.0, 9.7},
+        {1.8, 13.2},
+        {4.7, 10.4},
+        {2.2, 12.0},
+        {5.5, 9.1}
+    };
+
+    /**
+     * Create backcross genotype probabilities for a chromosome
+     * @param abProbabilities
+     *          the AB probability of each individual at each position
+     * @return
+     *          the probabilities
+     */
+    private static GenotypeProbabilities createProbabilities(
+            double[][] abProbabilities)
+    {
+        int individualCount = abProbabilities.length;
+        int positionCount = abProbabilities[0].length;
+        DoubleBuffer buffer = DoubleBuffer.allocate(
+                2 * positionCount * individualCount);
+        for(int g = 0; g < 2; g++)
+        {
+            for(int pos = 0; pos < positionCount; pos++)
+            {
+                for(int i = 0; i < individualCount; i++)
+                {
+                    double abProbability = abProbabilities[i][pos];
+                    buffer.put(g == 0 ? 1.0 - abProbability : abProbability);
+                }
+            }
+        }
+        buffer.flip();
+
+        String[] positionNames = new String[positionCount];
+        double[] positions = new double[positionCount];
+        for(int pos = 0; pos < positionCount; pos++)
+        {
+            positionNames[pos] = "m" + pos;
+            positions[pos] = 10.0 * pos;
+        }
+        return new GenotypeProbabilities(
+                positionNames,
+                positions,
+                new String[] {"AA", "AB"},
+                individualCount,
+                buffer);
+    }
+
+    /**
+     * Create the model data for the test cross
+     * @return
+     *          the model data
+     */
+    private static ScanOneModelData createModelData()
+    {
+        int individualCount = PHENOTYPES.length;
+        int phenotypeCount = PHENOTYPES[0].length;
+        double[] phenotypeValues = new double[individualCount * phenotypeCount];
+        for(int p = 0; p < phenotypeCount; p++)
+        {
+            for(int i = 0; i < individualCount; i++)
+            {
+                phenotypeValues[p * individualCount + i] = PHENOTYPES[i][p];
+            }
+        }
+
+        GenotypeProbabilities[] probabilities =
+            new GenotypeProbabilities[AB_PROBABILITIES.length];
+        for(int c = 0; c < probabilities.length; c++)
+        {
+            probabilities[c] = createProbabilities(AB_PROBABILITIES[c]);
+        }
+        return new ScanOneModelData(
+                null,
+                CrossSubType.BACK_CROSS,
+                new CrossChromosome[probabilities.length],
+                probabilities,
+                new boolean[probabilities.length],
+                individualCount,
+                new int[] {0, 1},
+                phenotypeValues,
+                new double[0],
+                new double[0],
+                null,
+                null,
+                false,
+                null);
+    }
+
+    /**
+     * Calculate the Haley-Knott LOD of a single position directly as
+     * <code>n/2 * log10(RSS0 / RSS1)</code> where the alternative model is
+     * a simple regression on the AB probability
+     * @param y
+     *          the phenotype values
+     * @param x
+     *          the AB probabilities
+     * @return
+     *          the LOD
+     */
+    private static double calculateLod(double[] y, double[] x)
+    {
+        int n = y.length;
+        double meanX = 0.0;
+        double meanY = 0.0;
+        for(int i = 0; i < n; i++)
+        {
+            meanX += x[i] / n;
+            meanY += y[i] / n;
+        }
+
+        double sxx = 0.0;
+        double sxy = 0.0;
+        double syy = 0.0;
+        for(int i = 0; i < n; i++)
+        {
+            sxx += (x[i] - meanX) * (x[i] - meanX);
+            sxy += (x[i] - meanX) * (y[i] - meanY);
+            syy += (y[i] - meanY) * (y[i] - meanY);
+        }
+
+        double rss1 = syy - sxy * sxy / sxx;
+        return n / 2.0 * Math.log10(syy / rss1);
+    }
+
+    /**
+     * Calculate the maximum LOD over every position for a permutation of
+     * a phenotype
+     * @param randomStreams
+     *          the random streams
+     * @param stream
+     *          the permutation's stream
+     * @param phenotype
+     *          the phenotype column
+     * @return
+     *          the maximum LOD
+     */
+    private static double calculateMaximumLod(
+            RandomStreams randomStreams,
+            long stream,
+            int phenotype)
+    {
+        int n = PHENOTYPES.length;
+        int[] permutation = randomStreams.createPermutation(stream, n);
+        double[] y = new double[n];
+        for(int i = 0; i < n; i++)
+        {
+            y[i] = PHENOTYPES[permutation[i]][phenotype];
+        }
+
+        double maximum = Double.NEGATIVE_INFINITY;
+        for(double[][] chromosome: AB_PROBABILITIES)
+        {
+            for(int pos = 0; pos < chromosome[0].length; pos++)
+            {
+                double[] x = new double[n];
+                for(int i = 0; i < n; i++)
+                {
+                    x[i] = chromosome[i][pos];
+                }
+                maximum = Math.max(maximum, calculateLod(y, x));
+            }
+        }
+        return maximum;
+    }
+
+    /**
+     * Run seeded permutations of both phenotypes and check every maximum
+     * against the maximum of <code>n/2 * log10(RSS0 / RSS1)</code> over
+     * the positions, where permutation <code>k</code> shuffles the
+     * phenotype with stream <code>firstStream + k</code>
+     * @throws Exception
+     *          if the permutations fail
+     */
+    @Test
+    public void testCalculateMaximumLods() throws Exception
+    {
+        ScanOneModelData modelData = createModelData();
+        RandomStreams randomStreams = new RandomStreams(SEED);
+        int permutationCount = 20;
+        long firstStream = 5L;
+        double[] maximums = new HaleyKnottPermutationEngine().calculateMaximumLods(
+                modelData,
+                new boolean[] {true, true},
+                randomStreams,
+                firstStream,
+                permutationCount);
+
+        Assert.assertEquals(2 * permutationCount, maximums.length);
+        for(int p = 0; p < 2; p++)
+        {
+            for(int k = 0; k < permutationCount; k++)
+            {
+                Assert.assertEquals(
+                        calculateMaximumLod(randomStreams, firstStream + k, p),
+                        maximums[p * permutationCount + k],
+                        TOLERANCE);
+            }
+        }
+    }
+
+    /**
+     * Permutations that are added a few at a time have to give the same
+     * maximums as running them all at once with the same seed, and
+     * leaving a chromosome out of the scan can only lower the maximums
+     * @throws Exception
+     *          if the permutations fail
+     */
+    @Test
+    public void testChunkedPermutations() throws Exception
+    {
+        ScanOneModelData modelData = createModelData();
+        HaleyKnottPermutationEngine engine = new HaleyKnottPermutationEngine();
+        boolean[] allChromosomes = new boolean[] {true, true};
+        double[] allAtOnce = engine.calculateMaximumLods(
+                modelData,
+                allChromosomes,
+                new RandomStreams(SEED),
+                0L,
+                10);
+        double[] firstChunk = engine.calculateMaximumLods(
+                modelData,
+                allChromosomes,
+                new RandomStreams(SEED),
+                0L,
+                4);
+        double[] secondChunk = engine.calculateMaximumLods(
+                modelData,
+                allChromosomes,
+                new RandomStreams(SEED),
+                4L,
+                6);
+        for(int p = 0; p < 2; p++)
+        {
+            for(int k = 0; k < 10; k++)
+            {
+                double chunked = k < 4 ?
+                        firstChunk[p * 4 + k] :
+                        secondChunk[p * 6 + k - 4];
+                Assert.assertEquals(allAtOnce[p * 10 + k], chunked, 0.0);
+            }
+        }
+
+        double[] firstChromosome = engine.calculateMaximumLods(
+                modelData,
+                new boolean[] {true, false},
+                new RandomStreams(SEED),
+                0L,
+                10);
+        for(int i = 0; i < allAtOnce.length; i++)
+        {
+            Assert.assertTrue(firstChromosome[i] <= allAtOnce[i] + TOLERANCE);
+        }
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan;
+
+import java.util.List;
+
+import org.jax.qtl.cross.GenotypeProbabilities;
+import org.jax.qtl.cross.Cross.CrossSubType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test for {@link HaleyKnottPhenotypeBlock} class.
+ */
+public class HaleyKnottPhenotypeBlockTest
+{
+    /**
+     * the tolerance for comparing LOD scores
+     */
+    private static final double TOLERANCE = 1e-9;
+
+    /**
+     * the pgm of each individual. only the females matter
+     */
+    private static final double[] PATERNAL_GRANDMOTHERS = new double[] {
+        0.0, 1.0, 0.0, 1.0, 0.0, 1.0, 1.0, 0.0, 0.0, 1.0
+    };
+
+    /**
+     * Calculate the LODs of every block column at a position
+     * @param block
+     *          the block
+     * @param probabilities
+     *          the genotype probabilities
+     * @param position
+     *          the position index
+     * @param xChromosome
+     *          true for X
+     * @return
+     *          the LODs
+     */
+    private static double[] calculateLods(
+            HaleyKnottPhenotypeBlock block,
+            GenotypeProbabilities probabilities,
+            int position,
+            boolean xChromosome)
+    {
+        HaleyKnottPhenotypeBlock.Scratch scratch = new HaleyKnottPhenotypeBlock.Scratch(
+                block.getIndividualCount(),
+                block.getMaxDesignSize(probabilities.getGenotypeCount()),
+                block.getBlockSize());
+        double[] lods = new double[block.getBlockSize()];
+        block.calculateLods(probabilities, position, xChromosome, scratch, lods);
+        return lods;
+    }
+
+    /**
+     * Get the backcross genotype probability columns of chromosome 1
+     * @param position
+     *          the position
+     * @param individuals
+     *          the individuals to keep
+     * @return
+     *          the AA and AB columns
+     */
+    private static double[][] getGenotypeColumns(int position, int[] individuals)
+    {
+        double[] ab = HaleyKnottTestUtilities.subset(
+                HaleyKnottTestUtilities.getColumn(
+                        HaleyKnottTestUtilities.CHROMOSOME_1,
+                        position),
+                individuals);
+        double[] aa = new double[ab.length];
+        for(int i = 0; i < ab.length; i++)
+        {
+            aa[i] = 1.0 - ab[i];
+        }
+        return new double[][] {aa, ab};
+    }
+
+    /**
+     * Create intercross genotype probabilities for a chromosome by
+     * treating the backcross AB probability <code>a</code> as an allele
+     * frequency, giving <code>((1-a)^2, 2a(1-a), a^2)</code>. The 1st
+     * position is fully informative so its AB column is all zero
+     * @param abProbabilities
+     *          the backcross AB probabilities
+     * @return
+     *          the probabilities indexed by individual, position and
+     *          genotype
+     */
+    private static double[][][] toIntercrossProbabilities(double[][] abProbabilities)
+    {
+        double[][][] probabilities =
+            new double[abProbabilities.length][abProbabilities[0].length][];
+        for(int i = 0; i < abProbabilities.length; i++)
+        {
+            for(int pos = 0; pos < abProbabilities[i].length; pos++)
+            {
+                double a = abProbabilities[i][pos];
+                probabilities[i][pos] = new double[] {
+                        (1.0 - a) * (1.0 - a),
+                        2.0 * a * (1.0 - a),
+                        a * a};
+            }
+        }
+        return probabilities;
+    }
+
+    /**
+     * Get all of the individual indices
+     * @param count
+     *          the individual count
+     * @return
+     *          the indices
+     */
+    private static int[] getAllIndividuals(int count)
+    {
+        int[] individuals = new int[count];
+        for(int i = 0; i < count; i++)
+        {
+            individuals[i] = i;
+        }
+        return individuals;
+    }
+
+    /**
+     * When each phenotype uses its own complete individuals the two
+     * phenotypes end up in separate blocks (the 2nd is missing individual
+     * 3) and each block's LODs match <code>n/2 * log10(RSS0 / RSS1)</code>
+     * over its own individuals. Otherwise both phenotypes share a block
+     * unless the block size forces them apart
+     */
+    @Test
+    public void testCreateBlocks()
+    {
+        GenotypeProbabilities probabilities =
+            HaleyKnottTestUtilities.createBackcrossProbabilities(
+                    HaleyKnottTestUtilities.CHROMOSOME_1);
+        ScanOneModelData modelData = HaleyKnottTestUtilities.createModelData(
+                CrossSubType.BACK_CROSS,
+                new GenotypeProbabilities[] {probabilities},
+                new boolean[] {false},
+                HaleyKnottTestUtilities.PHENOTYPES,
+                null,
+                null,
+                null,
+                null,
+                true);
+        List<HaleyKnottPhenotypeBlock> blocks =
+            HaleyKnottPhenotypeBlock.createBlocks(modelData, 256);
+
+        Assert.assertEquals(2, blocks.size());
+        int[][] blockIndividuals = new int[][] {
+                getAllIndividuals(10),
+                new int[] {0, 1, 2, 4, 5, 6, 7, 8, 9}};
+        for(int p = 0; p < 2; p++)
+        {
+            HaleyKnottPhenotypeBlock block = blocks.get(p);
+            Assert.assertArrayEquals(new int[] {p}, block.getPhenotypeNumbers());
+            Assert.assertEquals(blockIndividuals[p].length, block.getIndividualCount());
+
+            double[] y = HaleyKnottTestUtilities.subset(
+                    HaleyKnottTestUtilities.getColumn(HaleyKnottTestUtilities.PHENOTYPES, p),
+                    blockIndividuals[p]);
+            for(int pos = 0; pos < 2; pos++)
+            {
+                Assert.assertEquals(
+                        HaleyKnottTestUtilities.calculateLod(
+                                y,
+                                new double[][] {HaleyKnottTestUtilities.ones(y.length)},
+                                getGenotypeColumns(pos, blockIndividuals[p])),
+                        calculateLods(block, probabilities, pos, false)[0],
+                        TOLERANCE);
+            }
+        }
+
+        ScanOneModelData completeModelData = HaleyKnottTestUtilities.createModelData(
+                CrossSubType.BACK_CROSS,
+                new GenotypeProbabilities[] {probabilities},
+                new boolean[] {false},
+                HaleyKnottTestUtilities.PHENOTYPES,
+                null,
+                null,
+                null,
+                null,
+                false);
+        blocks = HaleyKnottPhenotypeBlock.createBlocks(completeModelData, 256);
+        Assert.assertEquals(1, blocks.size());
+        Assert.assertArrayEquals(new int[] {0, 1}, blocks.get(0).getPhenotypeNumbers());
+        Assert.assertEquals(9, blocks.get(0).getIndividualCount());
+
+        blocks = HaleyKnottPhenotypeBlock.createBlocks(completeModelData, 1);
+        Assert.assertEquals(2, blocks.size());
+        Assert.assertArrayEquals(new int[] {1}, blocks.get(1).getPhenotypeNumbers());
+    }
+
+    /**
+     * A constant covariate (a copy of the intercept) and a covariate that
+     * is a linear combination of another one have to be dropped, leaving
+     * the same LODs as the independent covariate on its own
+     */
+    @Test
+    public void testDependentColumns()
+    {
+        double[] covariate = HaleyKnottTestUtilities.COVARIATE;
+        double[][] dependentCovariates = new double[covariate.length][];
+        double[][] independentCovariates = new double[covariate.length][];
+        for(int i = 0; i < covariate.length; i++)
+        {
+            dependentCovariates[i] = new double[] {
+                    2.0,
+                    covariate[i],
+                    2.0 * covariate[i] - 1.0};
+            independentCovariates[i] = new double[] {covariate[i]};
+        }
+        double[][] phenotypes = new double[covariate.length][];
+        for(int i = 0; i < covariate.length; i++)
+        {
+            phenotypes[i] = new double[] {HaleyKnottTestUtilities.PHENOTYPES[i][0]};
+        }
+
+        GenotypeProbabilities probabilities =
+            HaleyKnottTestUtilities.createBackcrossProbabilities(
+                    HaleyKnottTestUtilities.CHROMOSOME_1);
+        int[] individuals = getAllIndividuals(covariate.length);
+        HaleyKnottPhenotypeBlock dependentBlock = new HaleyKnottPhenotypeBlock(
+                HaleyKnottTestUtilities.createModelData(
+                        CrossSubType.BACK_CROSS,
+                        new GenotypeProbabilities[] {probabilities},
+                        new boolean[] {false},
+                        phenotypes,
+                        dependentCovariates,
+                        null,
+                        null,
+                        null,
+                        false),
+                new int[] {0},
+                individuals);
+        HaleyKnottPhenotypeBlock independentBlock = new HaleyKnottPhenotypeBlock(
+                HaleyKnottTestUtilities.createModelData(
+                        CrossSubType.BACK_CROSS,
+                        new GenotypeProbabilities[] {probabilities},
+                        new boolean[] {false},
+                        phenotypes,
+                        independentCovariates,
+                        null,
+                        null,
+                        null,
+                        false),
+                new int[] {0},
+                individuals);
+
+        double[] y = HaleyKnottTestUtilities.getColumn(phenotypes, 0);
+        for(int pos = 0; pos < 2; pos++)
+        {
+            double[][] genotypeColumns = getGenotypeColumns(pos, individuals);
+            double expectedLod = HaleyKnottTestUtilities.calculateLod(
+                    y,
+                    new double[][] {HaleyKnottTestUtilities.ones(y.length), covariate},
+                    new double[][] {genotypeColumns[0], genotypeColumns[1], covariate});
+            Assert.assertEquals(
+                    expectedLod,
+                    calculateLods(dependentBlock, probabilities, pos, false)[0],
+                    TOLERANCE);
+            Assert.assertEquals(
+                    expectedLod,
+                    calculateLods(independentBlock, probabilities, pos, false)[0],
+                    TOLERANCE);
+        }
+    }
+
+    /**
+     * On an intercross X chromosome the sex and the pgm of the females
+     * both go into the null and alternative models. The 1st position has
+     * no heterozygotes so its AB column is all zero and has to be dropped.
+     * With only females from one direction there are no X covariates at
+     * all, so X and autosome LODs agree
+     */
+    @Test
+    public void testXCovariates()
+    {
+        int n = HaleyKnottTestUtilities.PHENOTYPES.length;
+        double[][][] intercrossProbabilities = toIntercrossProbabilities(
+                HaleyKnottTestUtilities.CHROMOSOME_1);
+        GenotypeProbabilities probabilities = HaleyKnottTestUtilities.createProbabilities(
+                intercrossProbabilities,
+                new String[] {"AA", "AB", "BB"});
+        double[][] phenotypes = new double[n][];
+        for(int i = 0; i < n; i++)
+        {
+            phenotypes[i] = new double[] {HaleyKnottTestUtilities.PHENOTYPES[i][0]};
+        }
+        int[] individuals = getAllIndividuals(n);
+        HaleyKnottPhenotypeBlock block = new HaleyKnottPhenotypeBlock(
+                HaleyKnottTestUtilities.createModelData(
+                        CrossSubType.F2,
+                        new GenotypeProbabilities[] {probabilities},
+                        new boolean[] {true},
+                        phenotypes,
+                        null,
+                        null,
+                        HaleyKnottTestUtilities.SEXES,
+                        PATERNAL_GRANDMOTHERS,
+                        false),
+                new int[] {0},
+                individuals);
+
+        double[] sexes = new double[n];
+        double[] femaleReversePgms = new double[n];
+        for(int i = 0; i < n; i++)
+        {
+            sexes[i] = HaleyKnottTestUtilities.SEXES[i] == 1.0 ? 1.0 : 0.0;
+            femaleReversePgms[i] = sexes[i] == 0.0 ? PATERNAL_GRANDMOTHERS[i] : 0.0;
+        }
+        double[] y = HaleyKnottTestUtilities.getColumn(phenotypes, 0);
+        double[] ones = HaleyKnottTestUtilities.ones(n);
+        for(int pos = 0; pos < 2; pos++)
+        {
+            double[][] genotypeColumns = new double[3][n];
+            for(int i = 0; i < n; i++)
+            {
+                for(int g = 0; g < 3; g++)
+                {
+                    genotypeColumns[g][i] = intercrossProbabilities[i][pos][g];
+                }
+            }
+            double expectedLod = HaleyKnottTestUtilities.calculateLod(
+                    y,
+                    new double[][] {ones, sexes, femaleReversePgms},
+                    new double[][] {
+                            genotypeColumns[0],
+                            genotypeColumns[1],
+                            genotypeColumns[2],
+                            sexes,
+                            femaleReversePgms});
+            double lod = calculateLods(block, probabilities, pos, true)[0];
+            Assert.assertFalse(Double.isNaN(lod));
+            Assert.assertEquals(expectedLod, lod, TOLERANCE);
+        }
+
+        double[] females = new double[n];
+        double[] forwardPgms = new double[n];
+        HaleyKnottPhenotypeBlock femaleBlock = new HaleyKnottPhenotypeBlock(
+                HaleyKnottTestUtilities.createModelData(
+                        CrossSubType.F2,
+                        new GenotypeProbabilities[] {probabilities},
+                        new boolean[] {true},
+                        phenotypes,
+                        null,
+                        null,
+                        females,
+                        forwardPgms,
+                        false),
+                new int[] {0},
+                individuals);
+        for(int pos = 0; pos < 2; pos++)
+        {
+            Assert.assertEquals(
+                    calculateLods(femaleBlock, probabilities, pos, false)[0],
+                    calculateLods(femaleBlock, probabilities, pos, true)[0],
+                    0.0);
+        }
+    }
+}
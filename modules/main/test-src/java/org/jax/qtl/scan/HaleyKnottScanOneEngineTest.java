@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan;
+
+import org.jax.qtl.cross.GenotypeProbabilities;
+import org.jax.qtl.cross.Cross.CrossSubType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test for {@link HaleyKnottScanOneEngine} class.
+ */
+public class HaleyKnottScanOneEngineTest
+{
+    /**
+     * the tolerance for comparing LOD scores
+     */
+    private static final double TOLERANCE = 1e-9;
+
+    /**
+     * the individuals that are complete for both phenotypes
+     */
+    private static final int[] COMPLETE_INDIVIDUALS = new int[] {
+        0, 1, 2, 4, 5, 6, 7, 8, 9
+    };
+
+    /**
+     * the AB probabilities of each chromosome
+     */
+    private static final double[][][] CHROMOSOMES = new double[][][] {
+        HaleyKnottTestUtilities.CHROMOSOME_1,
+        HaleyKnottTestUtilities.CHROMOSOME_2
+    };
+
+    /**
+     * Create model data for the fixed cross
+     * @param xChromosome2
+     *          if true chromosome 2 is X
+     * @param additiveCovariates
+     *          the additive covariates or null
+     * @param interactiveCovariates
+     *          the interactive covariates or null
+     * @return
+     *          the model data
+     */
+    private static ScanOneModelData createModelData(
+            boolean xChromosome2,
+            double[][] additiveCovariates,
+            double[][] interactiveCovariates)
+    {
+        return HaleyKnottTestUtilities.createModelData(
+                CrossSubType.BACK_CROSS,
+                new GenotypeProbabilities[] {
+                        HaleyKnottTestUtilities.createBackcrossProbabilities(CHROMOSOMES[0]),
+                        HaleyKnottTestUtilities.createBackcrossProbabilities(CHROMOSOMES[1])},
+                new boolean[] {false, xChromosome2},
+                HaleyKnottTestUtilities.PHENOTYPES,
+                additiveCovariates,
+                interactiveCovariates,
+                HaleyKnottTestUtilities.SEXES,
+                null,
+                false);
+    }
+
+    /**
+     * Get the covariate as a single column matrix
+     * @return
+     *          the covariate matrix
+     */
+    private static double[][] getCovariateMatrix()
+    {
+        double[][] covariates = new double[HaleyKnottTestUtilities.COVARIATE.length][];
+        for(int i = 0; i < covariates.length; i++)
+        {
+            covariates[i] = new double[] {HaleyKnottTestUtilities.COVARIATE[i]};
+        }
+        return covariates;
+    }
+
+    /**
+     * Get the AB probabilities of the complete individuals at a position
+     * @param chromosome
+     *          the chromosome index
+     * @param position
+     *          the position index
+     * @return
+     *          the AB probabilities
+     */
+    private static double[] getAbProbabilities(int chromosome, int position)
+    {
+        return HaleyKnottTestUtilities.subset(
+                HaleyKnottTestUtilities.getColumn(CHROMOSOMES[chromosome], position),
+                COMPLETE_INDIVIDUALS);
+    }
+
+    /**
+     * Get a complete column
+     * @param column
+     *          the full column
+     * @return
+     *          the values for the complete individuals
+     */
+    private static double[] complete(double[] column)
+    {
+        return HaleyKnottTestUtilities.subset(column, COMPLETE_INDIVIDUALS);
+    }
+
+    /**
+     * Get the AA probabilities from the AB probabilities
+     * @param abProbabilities
+     *          the AB probabilities
+     * @return
+     *          the AA probabilities
+     */
+    private static double[] getAaProbabilities(double[] abProbabilities)
+    {
+        double[] aaProbabilities = new double[abProbabilities.length];
+        for(int i = 0; i < aaProbabilities.length; i++)
+        {
+            aaProbabilities[i] = 1.0 - abProbabilities[i];
+        }
+        return aaProbabilities;
+    }
+
+    /**
+     * A backcross with fully informative genotypes where the LOD can be
+     * worked out by hand. With <code>y = (1, 3, 2, 6)</code> and genotypes
+     * <code>(AA, AA, AB, AB)</code> the grand mean is 3 so
+     * <code>RSS0 = 4 + 0 + 1 + 9 = 14</code>, the genotype means are 2
+     * and 4 so <code>RSS1 = 1 + 1 + 4 + 4 = 10</code> and the LOD is
+     * <code>4/2 * log10(14/10)</code>
+     * @throws Exception
+     *          if the scan fails
+     */
+    @Test
+    public void testHandComputedLod() throws Exception
+    {
+        ScanOneModelData modelData = HaleyKnottTestUtilities.createModelData(
+                CrossSubType.BACK_CROSS,
+                new GenotypeProbabilities[] {
+                        HaleyKnottTestUtilities.createBackcrossProbabilities(
+                                new double[][] {{0.0}, {0.0}, {1.0}, {1.0}})},
+                new boolean[] {false},
+                new double[][] {{1.0}, {3.0}, {2.0}, {6.0}},
+                null,
+                null,
+                null,
+                null,
+                false);
+        double[] lods = new HaleyKnottScanOneEngine().calculateLods(modelData);
+
+        Assert.assertEquals(1, lods.length);
+        Assert.assertEquals(2.0 * Math.log10(1.4), lods[0], TOLERANCE);
+    }
+
+    /**
+     * Every position of both phenotypes should match
+     * <code>n/2 * log10(RSS0 / RSS1)</code> over the individuals that are
+     * complete for both phenotypes, laid out all positions for the 1st
+     * phenotype then all positions for the 2nd
+     * @throws Exception
+     *          if the scan fails
+     */
+    @Test
+    public void testLods() throws Exception
+    {
+        double[] lods = new HaleyKnottScanOneEngine().calculateLods(
+                createModelData(false, null, null));
+
+        Assert.assertEquals(8, lods.length);
+        double[][] nullColumns = new double[][] {
+                HaleyKnottTestUtilities.ones(COMPLETE_INDIVIDUALS.length)};
+        for(int p = 0; p < 2; p++)
+        {
+            double[] y = complete(HaleyKnottTestUtilities.getColumn(
+                    HaleyKnottTestUtilities.PHENOTYPES,
+                    p));
+            for(int c = 0; c < 2; c++)
+            {
+                for(int pos = 0; pos < 2; pos++)
+                {
+                    double[] ab = getAbProbabilities(c, pos);
+                    double expectedLod = HaleyKnottTestUtilities.calculateLod(
+                            y,
+                            nullColumns,
+                            new double[][] {getAaProbabilities(ab), ab});
+                    Assert.assertEquals(
+                            expectedLod,
+                            lods[p * 4 + c * 2 + pos],
+                            TOLERANCE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Additive covariates go in both models and interactive covariates
+     * go in both models plus an interaction with the AB probability in
+     * the alternative model
+     * @throws Exception
+     *          if the scan fails
+     */
+    @Test
+    public void testCovariates() throws Exception
+    {
+        double[][] covariates = getCovariateMatrix();
+        double[] additiveLods = new HaleyKnottScanOneEngine().calculateLods(
+                createModelData(false, covariates, null));
+        double[] interactiveLods = new HaleyKnottScanOneEngine().calculateLods(
+                createModelData(false, null, covariates));
+
+        double[] covariate = complete(HaleyKnottTestUtilities.COVARIATE);
+        double[][] nullColumns = new double[][] {
+                HaleyKnottTestUtilities.ones(COMPLETE_INDIVIDUALS.length),
+                covariate};
+        for(int p = 0; p < 2; p++)
+        {
+            double[] y = complete(HaleyKnottTestUtilities.getColumn(
+                    HaleyKnottTestUtilities.PHENOTYPES,
+                    p));
+            for(int c = 0; c < 2; c++)
+            {
+                for(int pos = 0; pos < 2; pos++)
+                {
+                    double[] ab = getAbProbabilities(c, pos);
+                    double[] aa = getAaProbabilities(ab);
+                    int index = p * 4 + c * 2 + pos;
+                    Assert.assertEquals(
+                            HaleyKnottTestUtilities.calculateLod(
+                                    y,
+                                    nullColumns,
+                                    new double[][] {aa, ab, covariate}),
+                            additiveLods[index],
+                            TOLERANCE);
+                    Assert.assertEquals(
+                            HaleyKnottTestUtilities.calculateLod(
+                                    y,
+                                    nullColumns,
+                                    new double[][] {
+                                            aa,
+                                            ab,
+                                            covariate,
+                                            HaleyKnottTestUtilities.times(ab, covariate)}),
+                            interactiveLods[index],
+                            TOLERANCE);
+                }
+            }
+        }
+    }
+
+    /**
+     * With a mix of sexes the sex goes into both models on the X
+     * chromosome (an individual with no sex counts as female) but not on
+     * the autosomes, unless we ask for the X covariates everywhere like
+     * the <code>scanoneX</code> component of scantwo does
+     * @throws Exception
+     *          if the scan fails
+     */
+    @Test
+    public void testXChromosome() throws Exception
+    {
+        ScanOneModelData modelData = createModelData(true, null, null);
+        double[] lods = new HaleyKnottScanOneEngine().calculateLods(modelData);
+        double[] xEverywhereLods = new HaleyKnottScanOneEngine().calculateLods(
+                modelData,
+                true);
+
+        double[] sexes = complete(HaleyKnottTestUtilities.SEXES);
+        for(int i = 0; i < sexes.length; i++)
+        {
+            if(Double.isNaN(sexes[i]))
+            {
+                sexes[i] = 0.0;
+            }
+        }
+        double[] ones = HaleyKnottTestUtilities.ones(COMPLETE_INDIVIDUALS.length);
+        for(int p = 0; p < 2; p++)
+        {
+            double[] y = complete(HaleyKnottTestUtilities.getColumn(
+                    HaleyKnottTestUtilities.PHENOTYPES,
+                    p));
+            for(int c = 0; c < 2; c++)
+            {
+                for(int pos = 0; pos < 2; pos++)
+                {
+                    double[] ab = getAbProbabilities(c, pos);
+                    double[] aa = getAaProbabilities(ab);
+                    double plainLod = HaleyKnottTestUtilities.calculateLod(
+                            y,
+                            new double[][] {ones},
+                            new double[][] {aa, ab});
+                    double sexLod = HaleyKnottTestUtilities.calculateLod(
+                            y,
+                            new double[][] {ones, sexes},
+                            new double[][] {aa, ab, sexes});
+                    int index = p * 4 + c * 2 + pos;
+                    Assert.assertEquals(
+                            c == 1 ? sexLod : plainLod,
+                            lods[index],
+                            TOLERANCE);
+                    Assert.assertEquals(sexLod, xEverywhereLods[index], TOLERANCE);
+                }
+            }
+        }
+    }
+}
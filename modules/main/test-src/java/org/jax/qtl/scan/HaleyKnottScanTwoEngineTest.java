@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan;
+
+import org.jax.qtl.cross.GenotypeProbabilities;
+import org.jax.qtl.cross.Cross.CrossSubType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test for {@link HaleyKnottScanTwoEngine} class.
+ */
+public class HaleyKnottScanTwoEngineTest
+{
+    /**
+     * the tolerance for comparing double precision LOD scores
+     */
+    private static final double TOLERANCE = 1e-9;
+
+    /**
+     * the tolerance for comparing single precision LOD scores
+     */
+    private static final double SINGLE_PRECISION_TOLERANCE = 1e-5;
+
+    /**
+     * the number of individuals in the test cross
+     */
+    private static final int INDIVIDUAL_COUNT =
+        HaleyKnottTestUtilities.PHENOTYPES.length;
+
+    /**
+     * the AB probabilities at each of the 4 scanned positions. positions
+     * 0 and 1 are on chromosome 1 and positions 2 and 3 are on chromosome 2
+     */
+    private static final double[][] AB_PROBABILITIES = new double[][] {
+        HaleyKnottTestUtilities.getColumn(HaleyKnottTestUtilities.CHROMOSOME_1, 0),
+        HaleyKnottTestUtilities.getColumn(HaleyKnottTestUtilities.CHROMOSOME_1, 1),
+        HaleyKnottTestUtilities.getColumn(HaleyKnottTestUtilities.CHROMOSOME_2, 0),
+        HaleyKnottTestUtilities.getColumn(HaleyKnottTestUtilities.CHROMOSOME_2, 1)
+    };
+
+    /**
+     * Create model data for the 1st phenotype of the fixed cross
+     * @param xChromosome2
+     *          if true chromosome 2 is X
+     * @param interactiveCovariate
+     *          if true the covariate is used as an interactive covariate
+     * @return
+     *          the model data
+     */
+    private static ScanOneModelData createModelData(
+            boolean xChromosome2,
+            boolean interactiveCovariate)
+    {
+        double[][] phenotypes = new double[INDIVIDUAL_COUNT][];
+        double[][] covariates = new double[INDIVIDUAL_COUNT][];
+        for(int i = 0; i < INDIVIDUAL_COUNT; i++)
+        {
+            phenotypes[i] = new double[] {HaleyKnottTestUtilities.PHENOTYPES[i][0]};
+            covariates[i] = new double[] {HaleyKnottTestUtilities.COVARIATE[i]};
+        }
+
+        return HaleyKnottTestUtilities.createModelData(
+                CrossSubType.BACK_CROSS,
+                new GenotypeProbabilities[] {
+                        HaleyKnottTestUtilities.createBackcrossProbabilities(
+                                HaleyKnottTestUtilities.CHROMOSOME_1),
+                        HaleyKnottTestUtilities.createBackcrossProbabilities(
+                                HaleyKnottTestUtilities.CHROMOSOME_2)},
+                new boolean[] {false, xChromosome2},
+                phenotypes,
+                null,
+                interactiveCovariate ? covariates : null,
+                HaleyKnottTestUtilities.SEXES,
+                null,
+                false);
+    }
+
+    /**
+     * Get the AA probabilities at a position
+     * @param position
+     *          the position
+     * @return
+     *          the AA probabilities
+     */
+    private static double[] getAaProbabilities(int position)
+    {
+        double[] aaProbabilities = new double[INDIVIDUAL_COUNT];
+        for(int i = 0; i < INDIVIDUAL_COUNT; i++)
+        {
+            aaProbabilities[i] = 1.0 - AB_PROBABILITIES[position][i];
+        }
+        return aaProbabilities;
+    }
+
+    /**
+     * Get the sex column with unknown sexes treated as female
+     * @return
+     *          the sexes
+     */
+    private static double[] getSexes()
+    {
+        double[] sexes = new double[INDIVIDUAL_COUNT];
+        for(int i = 0; i < INDIVIDUAL_COUNT; i++)
+        {
+            sexes[i] = HaleyKnottTestUtilities.SEXES[i] == 1.0 ? 1.0 : 0.0;
+        }
+        return sexes;
+    }
+
+    /**
+     * Add columns to a design
+     * @param design
+     *          the design
+     * @param columns
+     *          the columns to add
+     * @return
+     *          the new design
+     */
+    private static double[][] append(double[][] design, double[]... columns)
+    {
+        double[][] newDesign = new double[design.length + columns.length][];
+        System.arraycopy(design, 0, newDesign, 0, design.length);
+        System.arraycopy(columns, 0, newDesign, design.length, columns.length);
+        return newDesign;
+    }
+
+    /**
+     * Check the LOD matrix against direct fits. The full model has a
+     * column for each of the 4 genotype combinations, the additive model
+     * has both sets of genotype probabilities and the interaction LOD that
+     * the summaries use is their difference. The diagonal holds the
+     * scanone LODs and pairs on the same chromosome are left for R
+     * @param lodMatrix
+     *          the LODs to check
+     * @param xChromosome2
+     *          true if chromosome 2 is X
+     * @param interactiveCovariate
+     *          true if the covariate is interactive
+     * @param tolerance
+     *          the tolerance
+     */
+    private static void checkLods(
+            ScanTwoLodMatrix lodMatrix,
+            boolean xChromosome2,
+            boolean interactiveCovariate,
+            double tolerance)
+    {
+        double[] y = HaleyKnottTestUtilities.getColumn(HaleyKnottTestUtilities.PHENOTYPES, 0);
+        double[] covariate = HaleyKnottTestUtilities.COVARIATE;
+        double[] sexes = getSexes();
+        Assert.assertEquals(4, lodMatrix.getPositionCount());
+        for(int greater = 0; greater < 4; greater++)
+        {
+            for(int lesser = 0; lesser <= greater; lesser++)
+            {
+                boolean xPair = xChromosome2 && (lesser >= 2 || greater >= 2);
+                double[][] nullDesign = new double[][] {
+                        HaleyKnottTestUtilities.ones(INDIVIDUAL_COUNT)};
+                double[][] covariateColumns = new double[0][];
+                if(interactiveCovariate)
+                {
+                    covariateColumns = append(covariateColumns, covariate);
+                }
+                if(xPair)
+                {
+                    covariateColumns = append(covariateColumns, sexes);
+                }
+                nullDesign = append(nullDesign, covariateColumns);
+
+                double[] aa1 = getAaProbabilities(lesser);
+                double[] ab1 = AB_PROBABILITIES[lesser];
+                if(lesser == greater)
+                {
+                    double[][] scanOneDesign = append(
+                            new double[][] {aa1, ab1},
+                            covariateColumns);
+                    if(interactiveCovariate)
+                    {
+                        scanOneDesign = append(
+                                scanOneDesign,
+                                HaleyKnottTestUtilities.times(ab1, covariate));
+                    }
+                    Assert.assertEquals(
+                            HaleyKnottTestUtilities.calculateLod(y, nullDesign, scanOneDesign),
+                            lodMatrix.getScanOneLod(0, lesser),
+                            tolerance);
+                }
+                else if(lesser / 2 == greater / 2)
+                {
+                    Assert.assertTrue(Double.isNaN(lodMatrix.getFullLod(0, lesser, greater)));
+                    Assert.assertTrue(Double.isNaN(lodMatrix.getAdditiveLod(0, lesser, greater)));
+                }
+                else
+                {
+                    double[] aa2 = getAaProbabilities(greater);
+                    double[] ab2 = AB_PROBABILITIES[greater];
+                    double[][] cells = new double[][] {
+                            HaleyKnottTestUtilities.times(aa1, aa2),
+                            HaleyKnottTestUtilities.times(aa1, ab2),
+                            HaleyKnottTestUtilities.times(ab1, aa2),
+                            HaleyKnottTestUtilities.times(ab1, ab2)};
+                    double[][] fullDesign = append(cells, covariateColumns);
+                    double[][] additiveDesign = append(
+                            new double[][] {aa1, ab1, ab2},
+                            covariateColumns);
+                    if(interactiveCovariate)
+                    {
+                        for(int cell = 1; cell < cells.length; cell++)
+                        {
+                            fullDesign = append(
+                                    fullDesign,
+                                    HaleyKnottTestUtilities.times(cells[cell], covariate));
+                        }
+                        additiveDesign = append(
+                                additiveDesign,
+                                HaleyKnottTestUtilities.times(ab1, covariate),
+                                HaleyKnottTestUtilities.times(ab2, covariate));
+                    }
+
+                    double fullLod = HaleyKnottTestUtilities.calculateLod(
+                            y,
+                            nullDesign,
+                            fullDesign);
+                    double additiveLod = HaleyKnottTestUtilities.calculateLod(
+                            y,
+                            nullDesign,
+                            additiveDesign);
+                    Assert.assertEquals(
+                            fullLod,
+                            lodMatrix.getFullLod(0, lesser, greater),
+                            tolerance);
+                    Assert.assertEquals(
+                            additiveLod,
+                            lodMatrix.getAdditiveLod(0, lesser, greater),
+                            tolerance);
+                    Assert.assertEquals(
+                            fullLod - additiveLod,
+                            lodMatrix.getFullLod(0, lesser, greater) -
+                            lodMatrix.getAdditiveLod(0, lesser, greater),
+                            tolerance);
+                }
+            }
+        }
+    }
+
+    /**
+     * The full, additive and interaction LODs of every pair of positions
+     * on different autosomes
+     * @throws Exception
+     *          if the scan fails
+     */
+    @Test
+    public void testPairLods() throws Exception
+    {
+        ScanTwoLodMatrix lodMatrix = new HaleyKnottScanTwoEngine().calculateLods(
+                createModelData(false, false),
+                false);
+        checkLods(lodMatrix, false, false, TOLERANCE);
+    }
+
+    /**
+     * An interactive covariate goes in every model and interacts with all
+     * but the 1st genotype column of both the full and additive models
+     * @throws Exception
+     *          if the scan fails
+     */
+    @Test
+    public void testInteractiveCovariate() throws Exception
+    {
+        ScanTwoLodMatrix lodMatrix = new HaleyKnottScanTwoEngine().calculateLods(
+                createModelData(false, true),
+                false);
+        checkLods(lodMatrix, false, true, TOLERANCE);
+    }
+
+    /**
+     * Pairs with a position on X (and the X scanone LODs) get the sex
+     * covariate in both the null and alternative models
+     * @throws Exception
+     *          if the scan fails
+     */
+    @Test
+    public void testXChromosome() throws Exception
+    {
+        ScanTwoLodMatrix lodMatrix = new HaleyKnottScanTwoEngine().calculateLods(
+                createModelData(true, false),
+                false);
+        checkLods(lodMatrix, true, false, TOLERANCE);
+    }
+
+    /**
+     * Single precision matrices hold the same LODs to float accuracy
+     * @throws Exception
+     *          if the scan fails
+     */
+    @Test
+    public void testSinglePrecision() throws Exception
+    {
+        ScanTwoLodMatrix lodMatrix = new HaleyKnottScanTwoEngine().calculateLods(
+                createModelData(true, true),
+                true);
+        Assert.assertTrue(lodMatrix.isSinglePrecision());
+        checkLods(lodMatrix, true, true, SINGLE_PRECISION_TOLERANCE);
+    }
+}
@@ -0,0 +1,441 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan;
+
+import java.nio.DoubleBuffer;
+
+import org.jax.qtl.cross.CrossChromosome;
+import org.jax.qtl.cross.GenotypeProbabilities;
+import org.jax.qtl.cross.Cross.CrossSubType;
+
+/**
+ * A small fixed cross and a plain least squares reference for the
+ * Haley-Knott engine tests. The reference fits each model with
+ * Gram-Schmidt on the explicit design columns, so it shares no code with
+ * {@link NormalEquations} or {@link HaleyKnottPhenotypeBlock}.
+ * @author <A HREF="mailto:keith.sheppard@jax.org">Keith Sheppard</A>
+ */
+class HaleyKnottTestUtilities
+{
+    /**
+     * a column is treated as dependent if orthogonalizing leaves less
+     * than this fraction of its norm
+     */
+    private static final double DEPENDENCE_TOLERANCE = 1e-9;
+
+    /**
+     * the AB probability of each of the 10 backcross individuals (rows)
+     * at the two positions (columns) of chromosome 1
+     */
+    static final double[][] CHROMOSOME_1 = new double[][] {
+        {0.0, 0.1},
+        {1.0, 0.9},
+        {0.0, 0.5},
+        {1.0, 1.0},
+        {0.0, 0.0},
+        {1.0, 0.8},
+        {0.0, 0.2},
+        {1.0, 0.5},
+        {0.0, 0.3},
+        {1.0, 0.6}
+    };
+
+    /**
+     * the AB probability of each backcross individual at the two
+     * positions of chromosome 2
+     */
+    static final double[][] CHROMOSOME_2 = new double[][] {
+        {1.0, 0.7},
+        {1.0, 1.0},
+        {0.0, 0.3},
+        {0.0, 0.0},
+        {1.0, 0.6},
+        {0.0, 0.1},
+        {1.0, 1.0},
+        {0.0, 0.4},
+        {0.0, 0.2},
+        {1.0, 0.9}
+    };
+
+    /**
+     * two phenotypes (columns) for each individual (rows). the 2nd
+     * phenotype is missing for individual 3
+     */
+    static final double[][] PHENOTYPES = new double[][] {
+        {3.1, 10.0},
+        {5.2, 12.5},
+        {2.9, 11.1},
+        {6.0, Double.NaN},
+        {1.8, 13.2},
+        {4.7, 10.4},
+        {2.2, 12.0},
+        {5.5, 9.1},
+        {3.3, 11.7},
+        {4.1, 10.8}
+    };
+
+    /**
+     * a covariate for each individual
+     */
+    static final double[] COVARIATE = new double[] {
+        0.5, -1.2, 2.0, 0.3, -0.7, 1.1, -2.4, 0.0, 1.6, -0.4
+    };
+
+    /**
+     * the sex of each individual (1 for male). individual 9 has no sex
+     * and should be treated as female
+     */
+    static final double[] SEXES = new double[] {
+        1.0, 0.0, 0.0, 1.0, 1.0, 0.0, 1.0, 0.0, 1.0, Double.NaN
+    };
+
+    /**
+     * Create backcross genotype probabilities
+     * @param abProbabilities
+     *          the AB probability of each individual (rows) at each
+     *          position (columns)
+     * @return
+     *          the probabilities
+     */
+    static GenotypeProbabilities createBackcrossProbabilities(
+            double[][] abProbabilities)
+    {
+        double[][][] probabilities =
+            new double[abProbabilities.length][abProbabilities[0].length][];
+        for(int i = 0; i < abProbabilities.length; i++)
+        {
+            for(int pos = 0; pos < abProbabilities[i].length; pos++)
+            {
+                probabilities[i][pos] = new double[] {
+                        1.0 - abProbabilities[i][pos],
+                        abProbabilities[i][pos]};
+            }
+        }
+        return HaleyKnottTestUtilities.createProbabilities(
+                probabilities,
+                new String[] {"AA", "AB"});
+    }
+
+    /**
+     * Create genotype probabilities
+     * @param probabilities
+     *          the probabilities indexed by individual, position and
+     *          genotype
+     * @param genotypeNames
+     *          the genotype names
+     * @return
+     *          the probabilities
+     */
+    static GenotypeProbabilities createProbabilities(
+            double[][][] probabilities,
+            String[] genotypeNames)
+    {
+        int individualCount = probabilities.length;
+        int positionCount = probabilities[0].length;
+        DoubleBuffer buffer = DoubleBuffer.allocate(
+                genotypeNames.length * positionCount * individualCount);
+        for(int g = 0; g < genotypeNames.length; g++)
+        {
+            for(int pos = 0; pos < positionCount; pos++)
+            {
+                for(int i = 0; i < individualCount; i++)
+                {
+                    buffer.put(probabilities[i][pos][g]);
+                }
+            }
+        }
+        buffer.flip();
+
+        String[] positionNames = new String[positionCount];
+        double[] positions = new double[positionCount];
+        for(int pos = 0; pos < positionCount; pos++)
+        {
+            positionNames[pos] = "m" + pos;
+            positions[pos] = 10.0 * pos;
+        }
+        return new GenotypeProbabilities(
+                positionNames,
+                positions,
+                genotypeNames,
+                individualCount,
+                buffer);
+    }
+
+    /**
+     * Create model data without a cross behind it
+     * @param crossSubType
+     *          the cross sub-type
+     * @param probabilities
+     *          the probabilities for each chromosome
+     * @param xChromosomes
+     *          X flags for each chromosome
+     * @param phenotypes
+     *          the phenotype values with one row per individual
+     * @param additiveCovariates
+     *          the additive covariates with one row per individual (or
+     *          null for none)
+     * @param interactiveCovariates
+     *          the interactive covariates with one row per individual (or
+     *          null for none)
+     * @param sexes
+     *          the sexes or null
+     * @param paternalGrandmothers
+     *          the pgms or null
+     * @param useMissingPhenotypes
+     *          if true each phenotype uses its own complete individuals
+     * @return
+     *          the model data
+     */
+    static ScanOneModelData createModelData(
+            CrossSubType crossSubType,
+            GenotypeProbabilities[] probabilities,
+            boolean[] xChromosomes,
+            double[][] phenotypes,
+            double[][] additiveCovariates,
+            double[][] interactiveCovariates,
+            double[] sexes,
+            double[] paternalGrandmothers,
+            boolean useMissingPhenotypes)
+    {
+        int individualCount = phenotypes.length;
+        int phenotypeCount = phenotypes[0].length;
+        int[] phenotypeIndices = new int[phenotypeCount];
+        boolean[] completeForAllPhenotypes = new boolean[individualCount];
+        for(int i = 0; i < individualCount; i++)
+        {
+            completeForAllPhenotypes[i] = true;
+            for(int p = 0; p < phenotypeCount; p++)
+            {
+                completeForAllPhenotypes[i] &= !Double.isNaN(phenotypes[i][p]);
+            }
+        }
+        for(int p = 0; p < phenotypeCount; p++)
+        {
+            phenotypeIndices[p] = p;
+        }
+
+        return new ScanOneModelData(
+                null,
+                crossSubType,
+                new CrossChromosome[probabilities.length],
+                probabilities,
+                xChromosomes,
+                individualCount,
+                phenotypeIndices,
+                HaleyKnottTestUtilities.toColumnMajor(phenotypes),
+                HaleyKnottTestUtilities.toColumnMajor(additiveCovariates),
+                HaleyKnottTestUtilities.toColumnMajor(interactiveCovariates),
+                sexes,
+                paternalGrandmothers,
+                useMissingPhenotypes,
+                useMissingPhenotypes ? null : completeForAllPhenotypes);
+    }
+
+    /**
+     * Flatten a matrix with one row per individual into column-major order
+     * @param rows
+     *          the rows or null for a matrix with no columns
+     * @return
+     *          the column-major values
+     */
+    private static double[] toColumnMajor(double[][] rows)
+    {
+        if(rows == null)
+        {
+            return new double[0];
+        }
+
+        int columnCount = rows[0].length;
+        double[] values = new double[rows.length * columnCount];
+        for(int c = 0; c < columnCount; c++)
+        {
+            for(int i = 0; i < rows.length; i++)
+            {
+                values[c * rows.length + i] = rows[i][c];
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Pull a column out of a matrix with one row per individual
+     * @param rows
+     *          the rows
+     * @param column
+     *          the column index
+     * @return
+     *          the column
+     */
+    static double[] getColumn(double[][] rows, int column)
+    {
+        double[] values = new double[rows.length];
+        for(int i = 0; i < rows.length; i++)
+        {
+            values[i] = rows[i][column];
+        }
+        return values;
+    }
+
+    /**
+     * Create a column of ones
+     * @param length
+     *          the column length
+     * @return
+     *          the column
+     */
+    static double[] ones(int length)
+    {
+        double[] values = new double[length];
+        for(int i = 0; i < length; i++)
+        {
+            values[i] = 1.0;
+        }
+        return values;
+    }
+
+    /**
+     * Multiply two columns element by element
+     * @param column1
+     *          the 1st column
+     * @param column2
+     *          the 2nd column
+     * @return
+     *          the product
+     */
+    static double[] times(double[] column1, double[] column2)
+    {
+        double[] product = new double[column1.length];
+        for(int i = 0; i < product.length; i++)
+        {
+            product[i] = column1[i] * column2[i];
+        }
+        return product;
+    }
+
+    /**
+     * Take the given rows of a column
+     * @param column
+     *          the column
+     * @param rows
+     *          the rows to keep
+     * @return
+     *          the subset
+     */
+    static double[] subset(double[] column, int[] rows)
+    {
+        double[] values = new double[rows.length];
+        for(int i = 0; i < rows.length; i++)
+        {
+            values[i] = column[rows[i]];
+        }
+        return values;
+    }
+
+    /**
+     * Calculate <code>n/2 * log10(RSS0 / RSS1)</code>
+     * @param y
+     *          the response
+     * @param nullColumns
+     *          the null model design columns
+     * @param alternativeColumns
+     *          the alternative model design columns
+     * @return
+     *          the LOD
+     */
+    static double calculateLod(
+            double[] y,
+            double[][] nullColumns,
+            double[][] alternativeColumns)
+    {
+        return y.length / 2.0 * Math.log10(
+                HaleyKnottTestUtilities.calculateResidualSumOfSquares(y, nullColumns) /
+                HaleyKnottTestUtilities.calculateResidualSumOfSquares(y, alternativeColumns));
+    }
+
+    /**
+     * Fit a design with modified Gram-Schmidt, skipping any column that's
+     * a linear combination of the columns before it
+     * @param y
+     *          the response
+     * @param columns
+     *          the design columns
+     * @return
+     *          the residual sum of squares
+     */
+    static double calculateResidualSumOfSquares(double[] y, double[][] columns)
+    {
+        int n = y.length;
+        double[] residuals = y.clone();
+        double[][] basis = new double[columns.length][];
+        int basisSize = 0;
+        for(double[] column: columns)
+        {
+            double[] q = column.clone();
+            double originalNorm = Math.sqrt(HaleyKnottTestUtilities.dot(q, q));
+            for(int b = 0; b < basisSize; b++)
+            {
+                double projection = HaleyKnottTestUtilities.dot(basis[b], q);
+                for(int i = 0; i < n; i++)
+                {
+                    q[i] -= projection * basis[b][i];
+                }
+            }
+
+            double norm = Math.sqrt(HaleyKnottTestUtilities.dot(q, q));
+            if(norm > DEPENDENCE_TOLERANCE * originalNorm)
+            {
+                for(int i = 0; i < n; i++)
+                {
+                    q[i] /= norm;
+                }
+                basis[basisSize] = q;
+                basisSize++;
+
+                double projection = HaleyKnottTestUtilities.dot(q, residuals);
+                for(int i = 0; i < n; i++)
+                {
+                    residuals[i] -= projection * q[i];
+                }
+            }
+        }
+
+        return HaleyKnottTestUtilities.dot(residuals, residuals);
+    }
+
+    /**
+     * Take the dot product of two columns
+     * @param column1
+     *          the 1st column
+     * @param column2
+     *          the 2nd column
+     * @return
+     *          the dot product
+     */
+    private static double dot(double[] column1, double[] column2)
+    {
+        double sum = 0.0;
+        for(int i = 0; i < column1.length; i++)
+        {
+            sum += column1[i] * column2[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test for {@link NormalEquations} class.
+ */
+public class NormalEquationsTest
+{
+    /**
+     * the tolerance for comparing sums of squares
+     */
+    private static final double TOLERANCE = 1e-9;
+
+    /**
+     * Build the factored <code>X'X</code> for the given design rows
+     * @param design
+     *          the design rows
+     * @return
+     *          the factor
+     */
+    private static double[] factorDesign(double[][] design)
+    {
+        int size = design[0].length;
+        double[] crossProducts = new double[size * size];
+        for(double[] row: design)
+        {
+            NormalEquations.addRow(crossProducts, size, row);
+        }
+        NormalEquations.factor(crossProducts, size);
+        return crossProducts;
+    }
+
+    /**
+     * Calculate <code>X'y</code>
+     * @param design
+     *          the design rows
+     * @param response
+     *          the response
+     * @return
+     *          the products
+     */
+    private static double[] designResponseProducts(
+            double[][] design,
+            double[] response)
+    {
+        double[] products = new double[design[0].length];
+        for(int i = 0; i < design.length; i++)
+        {
+            for(int j = 0; j < products.length; j++)
+            {
+                products[j] += design[i][j] * response[i];
+            }
+        }
+        return products;
+    }
+
+    /**
+     * Simple linear regression of y = (2, 4, 5, 8) on x = (1, 2, 3, 4).
+     * Sxx = 5, Sxy = 9.5 and Syy = 18.75 so the RSS is 18.75 - 9.5^2/5 = 0.7
+     * and the explained sum of squares is y'y - RSS = 109 - 0.7
+     */
+    @Test
+    public void testSimpleRegression()
+    {
+        double[][] design = new double[][] {
+                {1.0, 1.0},
+                {1.0, 2.0},
+                {1.0, 3.0},
+                {1.0, 4.0}};
+        double[] response = new double[] {2.0, 4.0, 5.0, 8.0};
+
+        double[] factor = NormalEquationsTest.factorDesign(design);
+        double explained = NormalEquations.explainedSumOfSquares(
+                factor,
+                2,
+                NormalEquationsTest.designResponseProducts(design, response),
+                new double[2]);
+        Assert.assertEquals(108.3, explained, TOLERANCE);
+    }
+
+    /**
+     * Genotype probabilities that sum to one duplicate the intercept. The
+     * dependent column should be dropped and the fit should match the
+     * design without it
+     */
+    @Test
+    public void testDependentColumnIsDropped()
+    {
+        double[][] fullDesign = new double[][] {
+                {1.0, 1.0, 0.0},
+                {1.0, 0.0, 1.0},
+                {1.0, 0.5, 0.5},
+                {1.0, 0.2, 0.8},
+                {1.0, 0.9, 0.1}};
+        double[][] reducedDesign = new double[fullDesign.length][];
+        for(int i = 0; i < fullDesign.length; i++)
+        {
+            reducedDesign[i] = new double[] {fullDesign[i][0], fullDesign[i][1]};
+        }
+        double[] response = new double[] {3.0, 1.0, 2.5, 1.0, 2.0};
+
+        int size = 3;
+        double[] crossProducts = new double[size * size];
+        for(double[] row: fullDesign)
+        {
+            NormalEquations.addRow(crossProducts, size, row);
+        }
+        Assert.assertEquals(2, NormalEquations.factor(crossProducts, size));
+
+        double fullExplained = NormalEquations.explainedSumOfSquares(
+                crossProducts,
+                size,
+                NormalEquationsTest.designResponseProducts(fullDesign, response),
+                new double[size]);
+        double reducedExplained = NormalEquations.explainedSumOfSquares(
+                NormalEquationsTest.factorDesign(reducedDesign),
+                2,
+                NormalEquationsTest.designResponseProducts(reducedDesign, response),
+                new double[2]);
+        Assert.assertEquals(reducedExplained, fullExplained, TOLERANCE);
+    }
+
+    /**
+     * The blocked version should give the same answers as running each
+     * response through on its own
+     */
+    @Test
+    public void testBlockedMatchesSingleResponse()
+    {
+        double[][] design = new double[][] {
+                {1.0, 0.1, 2.0},
+                {1.0, 0.7, 1.0},
+                {1.0, 0.3, 0.5},
+                {1.0, 0.9, 3.0},
+                {1.0, 0.4, 1.5},
+                {1.0, 0.6, 0.0}};
+        double[][] responses = new double[][] {
+                {1.0, 2.0, 0.5, 4.0, 1.5, 0.0},
+                {-1.0, 0.5, 2.0, 1.0, 0.0, 3.0}};
+        int size = 3;
+        int responseCount = responses.length;
+        double[] factor = NormalEquationsTest.factorDesign(design);
+
+        double[] blockedProducts = new double[size * responseCount];
+        for(int r = 0; r < responseCount; r++)
+        {
+            double[] products = NormalEquationsTest.designResponseProducts(
+                    design,
+                    responses[r]);
+            for(int k = 0; k < size; k++)
+            {
+                blockedProducts[k * responseCount + r] = products[k];
+            }
+        }
+        double[] blockedExplained = new double[responseCount];
+        NormalEquations.explainedSumsOfSquares(
+                factor,
+                size,
+                blockedProducts,
+                responseCount,
+                blockedExplained);
+
+        for(int r = 0; r < responseCount; r++)
+        {
+            double explained = NormalEquations.explainedSumOfSquares(
+                    factor,
+                    size,
+                    NormalEquationsTest.designResponseProducts(design, responses[r]),
+                    new double[size]);
+            Assert.assertEquals(explained, blockedExplained[r], TOLERANCE);
+        }
+    }
+
+    /**
+     * LOD = n/2 log10(RSS0/RSS1) so ten individuals with a tenfold drop in
+     * the RSS give a LOD of 5
+     */
+    @Test
+    public void testToLod()
+    {
+        Assert.assertEquals(5.0, NormalEquations.toLod(10, 100.0, 10.0), TOLERANCE);
+        Assert.assertEquals(0.0, NormalEquations.toLod(10, 42.0, 42.0), TOLERANCE);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan;
+
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test for {@link ScanOnePermutationDistribution} class.
+ */
+public class ScanOnePermutationDistributionTest
+{
+    /**
+     * the tolerance for comparing p-values and thresholds
+     */
+    private static final double TOLERANCE = 1e-12;
+
+    /**
+     * Create a distribution with maxima 1 ... 10 (out of order) and no
+     * separate X
+     * @return
+     *          the distribution
+     */
+    private static ScanOnePermutationDistribution createCombinedDistribution()
+    {
+        return new ScanOnePermutationDistribution(
+                new double[] {7.0, 2.0, 10.0, 1.0, 5.0, 9.0, 3.0, 8.0, 4.0, 6.0},
+                null,
+                0.0,
+                0.0,
+                new HashSet<String>(Collections.singleton("X")));
+    }
+
+    /**
+     * P-values are the fraction of maxima at least as big as the LOD
+     */
+    @Test
+    public void testPValues()
+    {
+        ScanOnePermutationDistribution distribution =
+            ScanOnePermutationDistributionTest.createCombinedDistribution();
+        Assert.assertFalse(distribution.getXChromosomeIsSeparate());
+        Assert.assertEquals(0.4, distribution.getPValue(7.0, false), TOLERANCE);
+        Assert.assertEquals(0.3, distribution.getPValue(7.5, false), TOLERANCE);
+        Assert.assertEquals(1.0, distribution.getPValue(0.0, false), TOLERANCE);
+        Assert.assertEquals(0.0, distribution.getPValue(11.0, false), TOLERANCE);
+
+        // without separate X permutations X scores use the same maxima
+        Assert.assertEquals(0.3, distribution.getPValue(7.5, true), TOLERANCE);
+    }
+
+    /**
+     * Thresholds are R's type 7 quantiles. For 10 values the 0.95
+     * quantile sits at h = 9 * 0.95 = 8.55 so it's 9 + 0.55 * (10 - 9)
+     */
+    @Test
+    public void testLodThresholds()
+    {
+        ScanOnePermutationDistribution distribution =
+            ScanOnePermutationDistributionTest.createCombinedDistribution();
+        Assert.assertEquals(9.55, distribution.getLodThreshold(0.05, false), TOLERANCE);
+        Assert.assertEquals(5.5, distribution.getLodThreshold(0.5, false), TOLERANCE);
+        Assert.assertEquals(10.0, distribution.getLodThreshold(0.0, false), TOLERANCE);
+        Assert.assertEquals(1.0, distribution.getLodThreshold(1.0, false), TOLERANCE);
+    }
+
+    /**
+     * With <code>perm.Xsp=TRUE</code> each component is adjusted by its
+     * share of the genome the way R/qtl does: p = 1 - (1 - p_raw)^(L/L_c)
+     * and the threshold is the (1 - alpha)^(L_c/L) quantile
+     */
+    @Test
+    public void testSeparateXChromosome()
+    {
+        double autosomeLength = 300.0;
+        double xLength = 100.0;
+        double totalLength = autosomeLength + xLength;
+        ScanOnePermutationDistribution distribution =
+            new ScanOnePermutationDistribution(
+                    new double[] {7.0, 2.0, 10.0, 1.0, 5.0, 9.0, 3.0, 8.0, 4.0, 6.0},
+                    new double[] {4.0, 1.0, 3.0, 2.0},
+                    autosomeLength,
+                    xLength,
+                    new HashSet<String>(Collections.singleton("X")));
+        Assert.assertTrue(distribution.getXChromosomeIsSeparate());
+        Assert.assertTrue(distribution.isXChromosome("X"));
+        Assert.assertFalse(distribution.isXChromosome("1"));
+
+        // X: 2 of the 4 maxima are >= 3
+        Assert.assertEquals(
+                1.0 - Math.pow(0.5, totalLength / xLength),
+                distribution.getPValue(3.0, true),
+                TOLERANCE);
+
+        // autosomes: 3 of the 10 maxima are >= 7.5
+        Assert.assertEquals(
+                1.0 - Math.pow(0.7, totalLength / autosomeLength),
+                distribution.getPValue(7.5, false),
+                TOLERANCE);
+
+        // X threshold: type 7 quantile of 1 ... 4 at q
+        double q = Math.pow(0.95, xLength / totalLength);
+        Assert.assertEquals(
+                1.0 + 3.0 * q,
+                distribution.getLodThreshold(0.05, true),
+                TOLERANCE);
+    }
+
+    /**
+     * A component without any maxima can't give p-values or thresholds
+     */
+    @Test
+    public void testHasMaxima()
+    {
+        Assert.assertTrue(
+                ScanOnePermutationDistributionTest.createCombinedDistribution().hasMaxima());
+        Assert.assertFalse(new ScanOnePermutationDistribution(
+                new double[0],
+                null,
+                0.0,
+                0.0,
+                new HashSet<String>()).hasMaxima());
+        Assert.assertFalse(new ScanOnePermutationDistribution(
+                new double[] {1.0, 2.0},
+                new double[0],
+                300.0,
+                100.0,
+                new HashSet<String>(Collections.singleton("X"))).hasMaxima());
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan;
+
+import java.nio.DoubleBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test for {@link ScanTwoLodMatrix} class.
+ */
+public class ScanTwoLodMatrixTest
+{
+    /**
+     * A value that's unique to each cell and exact in single precision
+     * @param phenotype
+     *          the phenotype
+     * @param row
+     *          the row
+     * @param column
+     *          the column
+     * @return
+     *          the cell value
+     */
+    private static double cellValue(int phenotype, int row, int column)
+    {
+        return row + 0.25 * column + 100.0 * phenotype;
+    }
+
+    /**
+     * Build an R style column-major array of {@link #cellValue(int, int, int)}s
+     * @param positionCount
+     *          the number of positions
+     * @param phenotypeCount
+     *          the number of phenotypes
+     * @return
+     *          the cells
+     */
+    private static DoubleBuffer createColumnMajorCells(
+            int positionCount,
+            int phenotypeCount)
+    {
+        int n = positionCount;
+        double[] cells = new double[n * n * phenotypeCount];
+        for(int phenotype = 0; phenotype < phenotypeCount; phenotype++)
+        {
+            for(int column = 0; column < n; column++)
+            {
+                for(int row = 0; row < n; row++)
+                {
+                    cells[row + column * n + phenotype * n * n] =
+                        ScanTwoLodMatrixTest.cellValue(phenotype, row, column);
+                }
+            }
+        }
+        return DoubleBuffer.wrap(cells);
+    }
+
+    /**
+     * Check every cell of a matrix filled from column-major cells
+     * @param singlePrecision
+     *          whether to store floats
+     */
+    private static void checkIndexing(boolean singlePrecision)
+    {
+        int positionCount = 7;
+        int phenotypeCount = 3;
+        ScanTwoLodMatrix matrix = new ScanTwoLodMatrix(
+                positionCount,
+                phenotypeCount,
+                singlePrecision);
+        matrix.setColumnMajorLods(ScanTwoLodMatrixTest.createColumnMajorCells(
+                positionCount,
+                phenotypeCount));
+
+        Assert.assertEquals(singlePrecision, matrix.isSinglePrecision());
+        Assert.assertEquals(positionCount, matrix.getPositionCount());
+        Assert.assertEquals(phenotypeCount, matrix.getPhenotypeCount());
+        for(int phenotype = 0; phenotype < phenotypeCount; phenotype++)
+        {
+            for(int row = 0; row < positionCount; row++)
+            {
+                for(int column = 0; column < positionCount; column++)
+                {
+                    Assert.assertEquals(
+                            ScanTwoLodMatrixTest.cellValue(phenotype, row, column),
+                            matrix.getLod(phenotype, row, column),
+                            0.0);
+                }
+
+                // full LODs are below the diagonal, additive LODs above
+                // and scanone on the diagonal
+                for(int greater = row + 1; greater < positionCount; greater++)
+                {
+                    Assert.assertEquals(
+                            ScanTwoLodMatrixTest.cellValue(phenotype, greater, row),
+                            matrix.getFullLod(phenotype, row, greater),
+                            0.0);
+                    Assert.assertEquals(
+                            ScanTwoLodMatrixTest.cellValue(phenotype, row, greater),
+                            matrix.getAdditiveLod(phenotype, row, greater),
+                            0.0);
+                }
+                Assert.assertEquals(
+                        ScanTwoLodMatrixTest.cellValue(phenotype, row, row),
+                        matrix.getScanOneLod(phenotype, row),
+                        0.0);
+            }
+        }
+    }
+
+    /**
+     * Every cell should land in its own slot in double precision
+     */
+    @Test
+    public void testDoublePrecisionIndexing()
+    {
+        ScanTwoLodMatrixTest.checkIndexing(false);
+    }
+
+    /**
+     * Every cell should land in its own slot in single precision
+     */
+    @Test
+    public void testSinglePrecisionIndexing()
+    {
+        ScanTwoLodMatrixTest.checkIndexing(true);
+    }
+
+    /**
+     * Setting a cell shouldn't touch its mirror image across the diagonal
+     */
+    @Test
+    public void testSetLod()
+    {
+        ScanTwoLodMatrix matrix = new ScanTwoLodMatrix(4, 1, false);
+        matrix.setLod(0, 3, 1, 2.5);
+        matrix.setLod(0, 1, 3, 1.5);
+        Assert.assertEquals(2.5, matrix.getFullLod(0, 1, 3), 0.0);
+        Assert.assertEquals(1.5, matrix.getAdditiveLod(0, 1, 3), 0.0);
+        Assert.assertEquals(0.0, matrix.getScanOneLod(0, 1), 0.0);
+    }
+
+    /**
+     * Results that don't fit in a single buffer are rejected up front
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testTooManyCells()
+    {
+        new ScanTwoLodMatrix(50000, 1, true);
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.jax.qtl.cross.GeneticMarker;
+import org.jax.qtl.scan.ScanTwoSummary.ModelToOptimize;
+import org.jax.qtl.scan.ScanTwoSummary.ScanTwoSummaryRow;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test for {@link ScanTwoSummaryEngine} class.
+ */
+public class ScanTwoSummaryEngineTest
+{
+    /**
+     * the tolerance for comparing LOD scores and quantiles
+     */
+    private static final double TOLERANCE = 1e-12;
+
+    /**
+     * the scanone maximum that we use for fv1 and av1
+     */
+    private static final double MAX_SCAN_ONE_LOD = 3.0;
+
+    /**
+     * positions 0 and 1 are on chromosome 1 and 2 and 3 on chromosome 2
+     */
+    private static final List<GeneticMarker> MARKERS = Arrays.asList(
+            new GeneticMarker("m0", "1", 0.0),
+            new GeneticMarker("m1", "1", 10.0),
+            new GeneticMarker("m2", "2", 0.0),
+            new GeneticMarker("m3", "2", 10.0));
+
+    /**
+     * Set the full and additive LODs of a position pair
+     * @param lodMatrix
+     *          the matrix
+     * @param lesser
+     *          the lesser position
+     * @param greater
+     *          the greater position
+     * @param full
+     *          the full LOD (stored below the diagonal)
+     * @param additive
+     *          the additive LOD (stored above the diagonal)
+     */
+    private static void setPair(
+            ScanTwoLodMatrix lodMatrix,
+            int lesser,
+            int greater,
+            double full,
+            double additive)
+    {
+        lodMatrix.setLod(0, greater, lesser, full);
+        lodMatrix.setLod(0, lesser, greater, additive);
+    }
+
+    /**
+     * Build a matrix where, between chromosomes 1 and 2, the full model is
+     * best at (m0, m3), the additive model at (m1, m2) and the interaction
+     * at (m1, m3)
+     * <pre>
+     *  pair     full  add  int
+     *  m0, m2   5     4    1
+     *  m1, m2   6     5.5  0.5
+     *  m0, m3   8     3    5
+     *  m1, m3   7     1    6
+     * </pre>
+     * @return
+     *          the matrix
+     */
+    private static ScanTwoLodMatrix createLodMatrix()
+    {
+        ScanTwoLodMatrix lodMatrix = new ScanTwoLodMatrix(4, 1, false);
+        ScanTwoSummaryEngineTest.setPair(lodMatrix, 0, 1, 2.0, 1.0);
+        ScanTwoSummaryEngineTest.setPair(lodMatrix, 0, 2, 5.0, 4.0);
+        ScanTwoSummaryEngineTest.setPair(lodMatrix, 1, 2, 6.0, 5.5);
+        ScanTwoSummaryEngineTest.setPair(lodMatrix, 0, 3, 8.0, 3.0);
+        ScanTwoSummaryEngineTest.setPair(lodMatrix, 1, 3, 7.0, 1.0);
+        ScanTwoSummaryEngineTest.setPair(lodMatrix, 2, 3, 2.5, 2.0);
+        return lodMatrix;
+    }
+
+    /**
+     * Summarize the chromosome 1 by chromosome 2 block
+     * @param modelToOptimize
+     *          the model to optimize
+     * @return
+     *          the row
+     */
+    private static ScanTwoSummaryRow summarizeBetween(ModelToOptimize modelToOptimize)
+    {
+        return ScanTwoSummaryEngine.summarizeChromosomePair(
+                modelToOptimize,
+                ScanTwoSummaryEngineTest.createLodMatrix(),
+                0,
+                MARKERS,
+                0,
+                2,
+                2,
+                4,
+                MAX_SCAN_ONE_LOD);
+    }
+
+    /**
+     * Check the five LOD scores of a row
+     * @param row
+     *          the row
+     * @param lods
+     *          the expected full, fv1, int, add and av1 LODs
+     */
+    private static void assertLods(ScanTwoSummaryRow row, double... lods)
+    {
+        Assert.assertEquals(lods[0], row.getFullLodScore(), TOLERANCE);
+        Assert.assertEquals(lods[1], row.getFullVsOneLodScore(), TOLERANCE);
+        Assert.assertEquals(lods[2], row.getInteractiveLodScore(), TOLERANCE);
+        Assert.assertEquals(lods[3], row.getAdditiveLodScore(), TOLERANCE);
+        Assert.assertEquals(lods[4], row.getAdditiveVsOneLodScore(), TOLERANCE);
+    }
+
+    /**
+     * Build a row with the given LODs
+     * @param lods
+     *          the full, fv1, int, add and av1 LODs
+     * @return
+     *          the row
+     */
+    private static ScanTwoSummaryRow createRow(double... lods)
+    {
+        ScanTwoSummaryRow row = new ScanTwoSummaryRow();
+        row.setFullLodScore(lods[0]);
+        row.setFullVsOneLodScore(lods[1]);
+        row.setInteractiveLodScore(lods[2]);
+        row.setAdditiveLodScore(lods[3]);
+        row.setAdditiveVsOneLodScore(lods[4]);
+        return row;
+    }
+
+    /**
+     * "best" takes the full and additive maxima from their own position
+     * pairs so int = 8 - 5.5 even though no single pair has those LODs
+     */
+    @Test
+    public void testBest()
+    {
+        ScanTwoSummaryRow row = ScanTwoSummaryEngineTest.summarizeBetween(
+                ModelToOptimize.BEST);
+        Assert.assertSame(MARKERS.get(0), row.getFullMarkerPair().getMarkerOne());
+        Assert.assertSame(MARKERS.get(3), row.getFullMarkerPair().getMarkerTwo());
+        Assert.assertSame(MARKERS.get(1), row.getAdditiveMarkerPair().getMarkerOne());
+        Assert.assertSame(MARKERS.get(2), row.getAdditiveMarkerPair().getMarkerTwo());
+        ScanTwoSummaryEngineTest.assertLods(row, 8.0, 5.0, 2.5, 5.5, 2.5);
+    }
+
+    /**
+     * The other models report every LOD at the single pair that maximizes
+     * their own LOD
+     */
+    @Test
+    public void testSinglePairModels()
+    {
+        ScanTwoSummaryRow full = ScanTwoSummaryEngineTest.summarizeBetween(
+                ModelToOptimize.FULL);
+        Assert.assertSame(MARKERS.get(0), full.getMarkerPair().getMarkerOne());
+        Assert.assertSame(MARKERS.get(3), full.getMarkerPair().getMarkerTwo());
+        ScanTwoSummaryEngineTest.assertLods(full, 8.0, 5.0, 5.0, 3.0, 0.0);
+
+        ScanTwoSummaryRow additive = ScanTwoSummaryEngineTest.summarizeBetween(
+                ModelToOptimize.ADDITIVE);
+        Assert.assertSame(MARKERS.get(1), additive.getMarkerPair().getMarkerOne());
+        Assert.assertSame(MARKERS.get(2), additive.getMarkerPair().getMarkerTwo());
+        ScanTwoSummaryEngineTest.assertLods(additive, 6.0, 3.0, 0.5, 5.5, 2.5);
+
+        ScanTwoSummaryRow interactive = ScanTwoSummaryEngineTest.summarizeBetween(
+                ModelToOptimize.INTERACTIVE);
+        Assert.assertSame(MARKERS.get(1), interactive.getMarkerPair().getMarkerOne());
+        Assert.assertSame(MARKERS.get(3), interactive.getMarkerPair().getMarkerTwo());
+        ScanTwoSummaryEngineTest.assertLods(interactive, 7.0, 4.0, 6.0, 1.0, -2.0);
+    }
+
+    /**
+     * A chromosome paired with itself only looks above the diagonal
+     */
+    @Test
+    public void testSameChromosome()
+    {
+        ScanTwoSummaryRow row = ScanTwoSummaryEngine.summarizeChromosomePair(
+                ModelToOptimize.FULL,
+                ScanTwoSummaryEngineTest.createLodMatrix(),
+                0,
+                MARKERS,
+                0,
+                2,
+                0,
+                2,
+                MAX_SCAN_ONE_LOD);
+        Assert.assertSame(MARKERS.get(0), row.getMarkerPair().getMarkerOne());
+        Assert.assertSame(MARKERS.get(1), row.getMarkerPair().getMarkerTwo());
+        ScanTwoSummaryEngineTest.assertLods(row, 2.0, -1.0, 1.0, 1.0, -2.0);
+    }
+
+    /**
+     * Rows are kept by <code>(full &amp; (fv1 | int)) | (add &amp; av1)</code>
+     * with thresholds of 6, 4, 3, 5 and 2. Thresholds are inclusive
+     */
+    @Test
+    public void testThresholdRule()
+    {
+        double[] thresholds = new double[] {6.0, 4.0, 3.0, 5.0, 2.0};
+
+        // full and fv1
+        Assert.assertTrue(ScanTwoSummaryEngine.passesThresholds(
+                ScanTwoSummaryEngineTest.createRow(7.0, 4.5, 1.0, 0.0, 0.0),
+                thresholds));
+
+        // full and int
+        Assert.assertTrue(ScanTwoSummaryEngine.passesThresholds(
+                ScanTwoSummaryEngineTest.createRow(7.0, 1.0, 3.5, 0.0, 0.0),
+                thresholds));
+
+        // add and av1, right at the thresholds
+        Assert.assertTrue(ScanTwoSummaryEngine.passesThresholds(
+                ScanTwoSummaryEngineTest.createRow(0.0, 0.0, 0.0, 5.0, 2.0),
+                thresholds));
+
+        // full without fv1 or int and add without av1
+        Assert.assertFalse(ScanTwoSummaryEngine.passesThresholds(
+                ScanTwoSummaryEngineTest.createRow(7.0, 1.0, 1.0, 6.0, 1.0),
+                thresholds));
+
+        // fv1, int and av1 alone aren't enough
+        Assert.assertFalse(ScanTwoSummaryEngine.passesThresholds(
+                ScanTwoSummaryEngineTest.createRow(5.9, 10.0, 10.0, 4.9, 10.0),
+                thresholds));
+
+        Assert.assertTrue(ScanTwoSummaryEngine.passesThresholds(
+                ScanTwoSummaryEngineTest.createRow(0.0, 0.0, 0.0, 0.0, 0.0),
+                null));
+    }
+
+    /**
+     * Alpha thresholds are R's type 7 quantiles at 1 - alpha. With maxima
+     * 1 ... 10 alpha 0.05 gives 9 + 0.55 = 9.55 and alpha 0.5 gives 5.5
+     */
+    @Test
+    public void testThresholdQuantiles()
+    {
+        double[] maxima = new double[] {1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0, 9.0, 10.0};
+        double[][] sortedMaxima = new double[][] {
+                maxima, maxima, maxima, maxima, maxima};
+
+        Assert.assertEquals(9.55, ScanTwoSummaryEngine.getQuantile(maxima, 0.95), TOLERANCE);
+        Assert.assertEquals(1.0, ScanTwoSummaryEngine.getQuantile(maxima, 0.0), TOLERANCE);
+        Assert.assertEquals(10.0, ScanTwoSummaryEngine.getQuantile(maxima, 1.0), TOLERANCE);
+
+        double[] lodThresholds = ScanTwoSummaryEngine.getLodThresholds(
+                ConfidenceThresholdState.ALPHA_THRESHOLD,
+                new double[] {0.05, 0.05, 0.5, 0.05, 1.0},
+                sortedMaxima);
+        Assert.assertArrayEquals(
+                new double[] {9.55, 9.55, 5.5, 9.55, 1.0},
+                lodThresholds,
+                TOLERANCE);
+
+        // LOD thresholds pass straight through and alpha thresholds
+        // without permutations don't filter
+        double[] lodValues = new double[] {1.0, 2.0, 3.0, 4.0, 5.0};
+        Assert.assertSame(lodValues, ScanTwoSummaryEngine.getLodThresholds(
+                ConfidenceThresholdState.LOD_SCORE_THRESHOLD,
+                lodValues,
+                sortedMaxima));
+        Assert.assertNull(ScanTwoSummaryEngine.getLodThresholds(
+                ConfidenceThresholdState.ALPHA_THRESHOLD,
+                lodValues,
+                null));
+    }
+
+    /**
+     * P-values are the fraction of maxima at least as big as the LOD
+     */
+    @Test
+    public void testPValues()
+    {
+        double[] maxima = new double[] {1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0, 9.0, 10.0};
+        ScanTwoSummaryRow row = ScanTwoSummaryEngineTest.createRow(
+                7.0, 7.5, 0.0, 11.0, 1.0);
+        ScanTwoSummaryEngine.setPValues(
+                row,
+                new double[][] {maxima, maxima, maxima, maxima, maxima});
+        Assert.assertEquals(0.4, row.getFullPValue(), TOLERANCE);
+        Assert.assertEquals(0.3, row.getFullVsOnePValue(), TOLERANCE);
+        Assert.assertEquals(1.0, row.getInteractivePValue(), TOLERANCE);
+        Assert.assertEquals(0.0, row.getAdditivePValue(), TOLERANCE);
+        Assert.assertEquals(1.0, row.getAdditiveVsOnePValue(), TOLERANCE);
+    }
+
+    /**
+     * An empty permutation component has no quantiles
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testEmptyQuantile()
+    {
+        ScanTwoSummaryEngine.getQuantile(new double[0], 0.95);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.scan.gui;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jax.qtl.cross.GeneticMarker;
+import org.jax.qtl.scan.ScanOneMarkerSignificanceValues;
+import org.jax.qtl.scan.gui.ScanOneInterval.IntervalShape;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test for {@link ScanOneIntervalCalculator} class.
+ */
+public class ScanOneIntervalCalculatorTest
+{
+    /**
+     * the tolerance for comparing positions
+     */
+    private static final double TOLERANCE = 1e-12;
+
+    /**
+     * Build a chromosome with markers at 0, 20 and 40 cM and pseudomarkers
+     * at 10 and 30 cM
+     * @param lods
+     *          the five LOD scores
+     * @return
+     *          the values
+     */
+    private static List<ScanOneMarkerSignificanceValues> createChromosome(
+            double[] lods)
+    {
+        String[] names = new String[] {"m1", "c1.loc10", "m2", "c1.loc30", "m3"};
+        List<ScanOneMarkerSignificanceValues> values =
+            new ArrayList<ScanOneMarkerSignificanceValues>();
+        for(int i = 0; i < names.length; i++)
+        {
+            values.add(new ScanOneMarkerSignificanceValues(
+                    new GeneticMarker(names[i], "1", 10.0 * i),
+                    lods[i]));
+        }
+        return values;
+    }
+
+    /**
+     * Check the flank and peak positions of an interval
+     * @param shape
+     *          the interval
+     * @param left
+     *          the expected left flank
+     * @param peak
+     *          the expected peak
+     * @param right
+     *          the expected right flank
+     */
+    private static void assertShape(
+            IntervalShape shape,
+            double left,
+            double peak,
+            double right)
+    {
+        Assert.assertEquals(left, shape.getLeftFlankPoint().getPositionInCentimorgans(), TOLERANCE);
+        Assert.assertEquals(peak, shape.getPeakPoint().getPositionInCentimorgans(), TOLERANCE);
+        Assert.assertEquals(right, shape.getRightFlankPoint().getPositionInCentimorgans(), TOLERANCE);
+    }
+
+    /**
+     * With LODs (1, 3, 5, 4.2, 1) and a drop of 1.5 only 20 and 30 cM are
+     * above 3.5, and lodint adds one position on each side
+     */
+    @Test
+    public void testLodSupportInterval()
+    {
+        List<ScanOneMarkerSignificanceValues> chromosome =
+            ScanOneIntervalCalculatorTest.createChromosome(
+                    new double[] {1.0, 3.0, 5.0, 4.2, 1.0});
+
+        ScanOneIntervalCalculatorTest.assertShape(
+                ScanOneIntervalCalculator.calculateLodSupportInterval(chromosome, 1.5, false),
+                10.0, 20.0, 40.0);
+
+        // the left flank is a pseudomarker so expanding moves it to m1
+        ScanOneIntervalCalculatorTest.assertShape(
+                ScanOneIntervalCalculator.calculateLodSupportInterval(chromosome, 1.5, true),
+                0.0, 20.0, 40.0);
+
+        // a big drop takes in the whole chromosome
+        ScanOneIntervalCalculatorTest.assertShape(
+                ScanOneIntervalCalculator.calculateLodSupportInterval(chromosome, 10.0, false),
+                0.0, 20.0, 40.0);
+        Assert.assertEquals(
+                5.0,
+                ScanOneIntervalCalculator.calculateLodSupportInterval(
+                        chromosome, 1.5, false).getPeakPoint().getLodScore(),
+                TOLERANCE);
+    }
+
+    /**
+     * The areas under 10^LOD (scaled by the peak) are 5e-4, 0.1, 10,
+     * 10^-0.8 * 10 and 5e-4 (widths 5, 10, 10, 10 and 5). The peak alone
+     * covers 85.6% of the total, the peak and 30 cM cover 99.1% and
+     * adding 10 cM gets to 99.99%
+     */
+    @Test
+    public void testBayesianCredibleInterval()
+    {
+        List<ScanOneMarkerSignificanceValues> chromosome =
+            ScanOneIntervalCalculatorTest.createChromosome(
+                    new double[] {1.0, 3.0, 5.0, 4.2, 1.0});
+
+        ScanOneIntervalCalculatorTest.assertShape(
+                ScanOneIntervalCalculator.calculateBayesianCredibleInterval(chromosome, 0.8, false),
+                20.0, 20.0, 20.0);
+        ScanOneIntervalCalculatorTest.assertShape(
+                ScanOneIntervalCalculator.calculateBayesianCredibleInterval(chromosome, 0.95, false),
+                20.0, 20.0, 30.0);
+        ScanOneIntervalCalculatorTest.assertShape(
+                ScanOneIntervalCalculator.calculateBayesianCredibleInterval(chromosome, 0.999, false),
+                10.0, 20.0, 30.0);
+
+        // 30 cM is a pseudomarker so expanding moves the right flank to m3
+        ScanOneIntervalCalculatorTest.assertShape(
+                ScanOneIntervalCalculator.calculateBayesianCredibleInterval(chromosome, 0.95, true),
+                20.0, 20.0, 40.0);
+    }
+
+    /**
+     * Missing LOD scores never define an interval and an empty chromosome
+     * has no interval at all
+     */
+    @Test
+    public void testMissingValues()
+    {
+        List<ScanOneMarkerSignificanceValues> chromosome =
+            ScanOneIntervalCalculatorTest.createChromosome(
+                    new double[] {Double.NaN, 3.0, 5.0, 4.2, Double.NaN});
+        ScanOneIntervalCalculatorTest.assertShape(
+                ScanOneIntervalCalculator.calculateLodSupportInterval(chromosome, 1.5, false),
+                10.0, 20.0, 40.0);
+
+        Assert.assertNull(ScanOneIntervalCalculator.calculateLodSupportInterval(
+                new ArrayList<ScanOneMarkerSignificanceValues>(), 1.5, false));
+        Assert.assertNull(ScanOneIntervalCalculator.calculateBayesianCredibleInterval(
+                new ArrayList<ScanOneMarkerSignificanceValues>(), 0.95, false));
+    }
+}
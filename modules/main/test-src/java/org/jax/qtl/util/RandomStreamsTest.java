@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2009 The Jackson Laboratory
+ *
+ * This software was developed by Gary Churchill's Lab at The Jackson
+ * Laboratory (see http://research.jax.org/faculty/churchill).
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jax.qtl.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JUnit test for {@link RandomStreams} class.
+ */
+public class RandomStreamsTest
+{
+    /**
+     * Stream 0 of seed 0 is seeded with the 1st SplitMix64 output for a
+     * zero state which is the published value 0xe220a8397b1dcdaf
+     */
+    @Test
+    public void testFirstStreamMatchesSplitMix64()
+    {
+        Random expected = new Random(0xe220a8397b1dcdafL);
+        Random actual = new RandomStreams(0L).getStream(0L);
+        for(int i = 0; i < 10; i++)
+        {
+            Assert.assertEquals(expected.nextLong(), actual.nextLong());
+        }
+    }
+
+    /**
+     * A stream only depends on the seed and the stream index, not on
+     * which streams were asked for before it
+     */
+    @Test
+    public void testStreamsAreReproducible()
+    {
+        RandomStreams streams = new RandomStreams(12345L);
+        Random fifth = streams.getStream(5L);
+        long[] fifthValues = new long[] {fifth.nextLong(), fifth.nextLong()};
+
+        RandomStreams otherStreams = new RandomStreams(12345L);
+        for(long i = 9L; i >= 0L; i--)
+        {
+            otherStreams.getStream(i).nextLong();
+        }
+        Random otherFifth = otherStreams.getStream(5L);
+        Assert.assertEquals(fifthValues[0], otherFifth.nextLong());
+        Assert.assertEquals(fifthValues[1], otherFifth.nextLong());
+    }
+
+    /**
+     * Neighboring streams and neighboring seeds shouldn't line up
+     */
+    @Test
+    public void testStreamsDiffer()
+    {
+        RandomStreams streams = new RandomStreams(12345L);
+        Assert.assertFalse(
+                streams.getStream(0L).nextLong() == streams.getStream(1L).nextLong());
+        Assert.assertFalse(
+                streams.getStream(0L).nextLong() ==
+                new RandomStreams(12346L).getStream(0L).nextLong());
+    }
+
+    /**
+     * Permutations have every index exactly once and repeat for the same
+     * stream
+     */
+    @Test
+    public void testCreatePermutation()
+    {
+        RandomStreams streams = new RandomStreams(42L);
+        int[] permutation = streams.createPermutation(3L, 100);
+        int[] sorted = permutation.clone();
+        Arrays.sort(sorted);
+        for(int i = 0; i < sorted.length; i++)
+        {
+            Assert.assertEquals(i, sorted[i]);
+        }
+
+        Assert.assertArrayEquals(permutation, streams.createPermutation(3L, 100));
+        Assert.assertFalse(Arrays.equals(
+                permutation,
+                streams.createPermutation(4L, 100)));
+        Assert.assertEquals(0, streams.createPermutation(3L, 0).length);
+    }
+}